@@ -0,0 +1,237 @@
+/*
+ *  Copyright (C) 2011 Junpei Kawamoto
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package nor.benchmark;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Sample messages used by benchmarks.
+ * A corpus file holds the head of a message, i.e. a request or status line and headers,
+ * captured from real browsers and servers. Line breaks are normalized to CRLF when loaded.
+ *
+ * @author Junpei Kawamoto
+ * @since 0.3
+ */
+public final class Corpus{
+
+	private static final String Charset = "ISO-8859-1";
+
+	//============================================================================
+	//  Constructor
+	//============================================================================
+	private Corpus(){}
+
+	//============================================================================
+	//  Public methods
+	//============================================================================
+	/**
+	 * Load the head of a message.
+	 *
+	 * @param name the name of the corpus file without its extension
+	 * @return the head including the empty line which ends it
+	 */
+	public static String head(final String name){
+
+		final InputStream in = Corpus.class.getResourceAsStream("corpus/" + name + ".http");
+		if(in == null){
+
+			throw new IllegalArgumentException("No such corpus: " + name);
+
+		}
+
+		try{
+
+			final ByteArrayOutputStream out = new ByteArrayOutputStream();
+			final byte[] buf = new byte[4096];
+			int n;
+			while((n = in.read(buf)) != -1){
+
+				out.write(buf, 0, n);
+
+			}
+			in.close();
+
+			final String text = new String(out.toByteArray(), Charset).trim();
+			return text.replaceAll("\r?\n", "\r\n") + "\r\n\r\n";
+
+		}catch(final IOException e){
+
+			throw new IllegalStateException(e);
+
+		}
+
+	}
+
+	/**
+	 * Create a message from a corpus file and a body.
+	 *
+	 * @param name the name of the corpus file without its extension
+	 * @param length the length of the body; no body is added if 0
+	 * @param chunked if true, the body is sent with the chunked transfer coding, otherwise with Content-Length
+	 * @return the message
+	 */
+	public static byte[] message(final String name, final int length, final boolean chunked){
+
+		String head = head(name);
+		if(length != 0){
+
+			final String field = chunked ? "Transfer-Encoding: chunked" : "Content-Length: " + length;
+			head = head.substring(0, head.length() - 2) + field + "\r\n\r\n";
+
+		}
+
+		final byte[] body = body(length);
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try{
+
+			out.write(head.getBytes(Charset));
+			out.write(chunked ? chunk(body, 8192) : body);
+
+		}catch(final IOException e){
+
+			throw new IllegalStateException(e);
+
+		}
+		return out.toByteArray();
+
+	}
+
+	/**
+	 * Create a body, which looks like HTML.
+	 *
+	 * @param length the length of the body
+	 * @return the body
+	 */
+	public static byte[] body(final int length){
+
+		final byte[] text = ascii("<li><a href=\"/items/0123456789\">Lorem ipsum dolor sit amet, consectetur adipiscing elit</a></li>\n");
+		final byte[] ret = new byte[length];
+		for(int i = 0; i < length; i += text.length){
+
+			System.arraycopy(text, 0, ret, i, Math.min(text.length, length - i));
+
+		}
+		return ret;
+
+	}
+
+	/**
+	 * Create an HTML page of Japanese news headlines.
+	 * The charset is declared in a meta element at the top of the page.
+	 *
+	 * @param length the approximate length of the page in bytes
+	 * @param charset the charset to encode the page, e.g. Shift_JIS or EUC-JP
+	 * @return the page
+	 */
+	public static byte[] page(final int length, final String charset){
+
+		try{
+
+			final byte[] head = ("<!DOCTYPE html>\n<html>\n<head>\n"
+					+ "<meta http-equiv=\"Content-Type\" content=\"text/html; charset=" + charset + "\">\n"
+					+ "<title>ニュース一覧</title>\n</head>\n<body>\n<ul>\n").getBytes(charset);
+			final byte[] item = "<li><a href=\"/news/0123456789\">東京都心で今季一番の冷え込み，各地で初雪の便り</a></li>\n".getBytes(charset);
+			final byte[] tail = "</ul>\n</body>\n</html>\n".getBytes(charset);
+
+			final ByteArrayOutputStream out = new ByteArrayOutputStream(length);
+			out.write(head);
+			for(int n = head.length + tail.length; n + item.length <= length; n += item.length){
+
+				out.write(item);
+
+			}
+			out.write(tail);
+			return out.toByteArray();
+
+		}catch(final IOException e){
+
+			throw new IllegalStateException(e);
+
+		}
+
+	}
+
+	/**
+	 * Create binary data, which looks like compressed contents such as images and archives.
+	 * The data is pseudo random but the same for the same length.
+	 *
+	 * @param length the length of the data
+	 * @return the data
+	 */
+	public static byte[] binary(final int length){
+
+		final byte[] ret = new byte[length];
+		new Random(length).nextBytes(ret);
+		return ret;
+
+	}
+
+	/**
+	 * Encode data with the chunked transfer coding.
+	 *
+	 * @param data the data
+	 * @param size the size of each chunk
+	 * @return the encoded data ending with the last chunk
+	 */
+	public static byte[] chunk(final byte[] data, final int size){
+
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try{
+
+			for(int i = 0; i < data.length; i += size){
+
+				final int n = Math.min(size, data.length - i);
+				out.write(ascii(Integer.toHexString(n) + "\r\n"));
+				out.write(Arrays.copyOfRange(data, i, i + n));
+				out.write(ascii("\r\n"));
+
+			}
+			out.write(ascii("0\r\n\r\n"));
+
+		}catch(final IOException e){
+
+			throw new IllegalStateException(e);
+
+		}
+		return out.toByteArray();
+
+	}
+
+	//============================================================================
+	//  Private methods
+	//============================================================================
+	private static byte[] ascii(final String s){
+
+		try{
+
+			return s.getBytes(Charset);
+
+		}catch(final UnsupportedEncodingException e){
+
+			throw new IllegalStateException(e);
+
+		}
+
+	}
+
+}
@@ -0,0 +1,61 @@
+/*
+ *  Copyright (C) 2011 Junpei Kawamoto
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package nor.benchmark;
+
+import java.io.OutputStream;
+
+/**
+ * Output stream which discards data and counts their bytes.
+ * Closing the stream has no effect, so that it can be reused across invocations.
+ *
+ * @author Junpei Kawamoto
+ * @since 0.3
+ */
+public final class Sink extends OutputStream{
+
+	private long count;
+
+	//============================================================================
+	//  Public methods
+	//============================================================================
+	@Override
+	public void write(final int b){
+
+		++this.count;
+
+	}
+
+	@Override
+	public void write(final byte[] b, final int off, final int len){
+
+		this.count += len;
+
+	}
+
+	/**
+	 * Get the number of bytes written so far.
+	 *
+	 * @return the number of bytes
+	 */
+	public long getCount(){
+
+		return this.count;
+
+	}
+
+}
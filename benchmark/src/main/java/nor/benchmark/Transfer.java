@@ -0,0 +1,60 @@
+/*
+ *  Copyright (C) 2011 Junpei Kawamoto
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package nor.benchmark;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Counter of bytes processed by a benchmark.
+ * JMH reports the counter as a rate, i.e. MB/s, next to the score of the benchmark.
+ *
+ * @author Junpei Kawamoto
+ * @since 0.3
+ */
+@State(Scope.Thread)
+@AuxCounters(AuxCounters.Type.OPERATIONS)
+public class Transfer{
+
+	/**
+	 * Megabytes processed in the current iteration.
+	 */
+	public double megabytes;
+
+	@Setup(Level.Iteration)
+	public void reset(){
+
+		this.megabytes = 0;
+
+	}
+
+	/**
+	 * Add processed bytes.
+	 *
+	 * @param bytes the number of bytes
+	 */
+	public void add(final long bytes){
+
+		this.megabytes += bytes / (1024.0 * 1024.0);
+
+	}
+
+}
@@ -0,0 +1,78 @@
+/*
+ *  Copyright (C) 2011 Junpei Kawamoto
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package nor.benchmark.filter;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import nor.benchmark.Corpus;
+import nor.benchmark.Transfer;
+import nor.core.proxy.FilterHarness;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Filtering a 50 MB binary, e.g. a video or an archive, with byte filters.
+ * String filters are not applied to binaries, so only FilteringByteInputStream is involved.
+ *
+ * @author Junpei Kawamoto
+ * @since 0.3
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx512m")
+public class BinaryFilterBenchmark{
+
+	@Param({"none", "readonly-byte", "editing-byte", "all"})
+	public String filters;
+
+	private FilterHarness harness;
+	private byte[] body;
+
+	@Setup
+	public void setup(){
+
+		this.harness = new FilterHarness(SampleFilters.get(this.filters));
+		this.body = Corpus.binary(50 * 1024 * 1024);
+
+	}
+
+	@Benchmark
+	public long filter(final Transfer transfer) throws IOException{
+
+		final long ret = this.harness.run(this.body, "application/octet-stream");
+		transfer.add(this.body.length);
+
+		return ret;
+
+	}
+
+}
@@ -0,0 +1,203 @@
+/*
+ *  Copyright (C) 2011 Junpei Kawamoto
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package nor.benchmark.filter;
+
+import java.nio.ByteBuffer;
+import java.util.regex.MatchResult;
+
+import nor.core.proxy.filter.EditingByteFilterAdapter;
+import nor.core.proxy.filter.EditingStringFilterAdapter;
+import nor.core.proxy.filter.FilterRegister;
+import nor.core.proxy.filter.ReadonlyByteFilterAdapter;
+import nor.core.proxy.filter.ReadonlyPatternMatchingFilter;
+import nor.core.proxy.filter.ReadonlyPatternMatchingFilter.MatchingEventListener;
+import nor.core.proxy.filter.ReadonlyStringFilterAdapter;
+import nor.core.proxy.filter.ResponseFilter;
+import nor.core.proxy.filter.ResponseFilterAdapter;
+import nor.http.HttpResponse;
+
+/**
+ * Combinations of simple body filters, each of which touches every byte or character of a body.
+ * Byte filters are applied to any response, and string filters only to HTML pages as most plugins do.
+ *
+ * @author Junpei Kawamoto
+ * @since 0.3
+ */
+final class SampleFilters{
+
+	//============================================================================
+	//  Constructor
+	//============================================================================
+	private SampleFilters(){}
+
+	//============================================================================
+	//  Public methods
+	//============================================================================
+	/**
+	 * Create response filters registering a combination of body filters.
+	 *
+	 * @param name none, readonly-byte, editing-byte, readonly-string, editing-string, pattern, or all
+	 * @return the response filters
+	 */
+	public static ResponseFilter[] get(final String name){
+
+		final boolean all = name.equals("all");
+		final boolean readonlyByte = all || name.equals("readonly-byte");
+		final boolean editingByte = all || name.equals("editing-byte");
+		final boolean readonlyString = all || name.equals("readonly-string");
+		final boolean editingString = all || name.equals("editing-string");
+		final boolean pattern = all || name.equals("pattern");
+		if(!all && !readonlyByte && !editingByte && !readonlyString && !editingString && !pattern && !name.equals("none")){
+
+			throw new IllegalArgumentException("Unknown filters: " + name);
+
+		}
+
+		return new ResponseFilter[]{
+
+			new ResponseFilterAdapter(".*", ".*"){
+
+				@Override
+				public void update(final HttpResponse msg, final MatchResult url, final MatchResult cType, final FilterRegister register){
+
+					if(readonlyByte){
+
+						register.add(new SummingFilter());
+
+					}
+					if(editingByte){
+
+						register.add(new ReplacingFilter());
+
+					}
+
+				}
+
+			},
+
+			new ResponseFilterAdapter(".*", "text/html"){
+
+				@Override
+				public void update(final HttpResponse msg, final MatchResult url, final MatchResult cType, final FilterRegister register){
+
+					if(readonlyString){
+
+						register.add(new ReadonlyStringFilterAdapter(){
+
+							private long chars;
+
+							@Override
+							public void update(final String in){
+
+								this.chars += in.length();
+
+							}
+
+						});
+
+					}
+					if(editingString){
+
+						register.add(new EditingStringFilterAdapter(){
+
+							@Override
+							public String update(final String in){
+
+								return in.replace("東京", "とうきょう");
+
+							}
+
+						});
+
+					}
+					if(pattern){
+
+						final ReadonlyPatternMatchingFilter f = new ReadonlyPatternMatchingFilter();
+						f.addEventListener("href=\"([^\"]+)\"", new MatchingEventListener(){
+
+							private int links;
+
+							@Override
+							public void update(final MatchResult result){
+
+								this.links++;
+
+							}
+
+						});
+						register.add(f);
+
+					}
+
+				}
+
+			}
+
+		};
+
+	}
+
+	//============================================================================
+	//  Inner classes
+	//============================================================================
+	/**
+	 * Sum up bytes of a body.
+	 */
+	private static final class SummingFilter extends ReadonlyByteFilterAdapter{
+
+		private long sum;
+
+		@Override
+		public void update(final ByteBuffer in){
+
+			while(in.hasRemaining()){
+
+				this.sum += in.get() & 0xff;
+
+			}
+
+		}
+
+	}
+
+	/**
+	 * Replace tabs with spaces in place.
+	 */
+	private static final class ReplacingFilter extends EditingByteFilterAdapter{
+
+		@Override
+		public ByteBuffer update(final ByteBuffer in){
+
+			for(int i = in.position(); i < in.limit(); i++){
+
+				if(in.get(i) == '\t'){
+
+					in.put(i, (byte)' ');
+
+				}
+
+			}
+			in.position(in.limit());
+
+			return in;
+
+		}
+
+	}
+
+}
@@ -0,0 +1,90 @@
+/*
+ *  Copyright (C) 2011 Junpei Kawamoto
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package nor.benchmark.filter;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import nor.benchmark.Corpus;
+import nor.benchmark.Transfer;
+import nor.core.proxy.FilterHarness;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Filtering 100 KB Japanese HTML pages.
+ * String filters read a page through CharsetDetectingInputStream, if its charset is declared only in the page,
+ * and FilteringCharacterInputStream; byte filters read it through FilteringByteInputStream.
+ *
+ * @author Junpei Kawamoto
+ * @since 0.3
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TextFilterBenchmark{
+
+	@Param({"UTF-8", "Shift_JIS", "EUC-JP"})
+	public String charset;
+
+	/**
+	 * Where the charset is declared; in the Content-Type header, or only in a meta element of the page
+	 */
+	@Param({"header", "meta"})
+	public String declared;
+
+	@Param({"none", "readonly-byte", "editing-byte", "readonly-string", "editing-string", "pattern", "all"})
+	public String filters;
+
+	private FilterHarness harness;
+	private byte[] body;
+	private String type;
+
+	@Setup
+	public void setup(){
+
+		this.harness = new FilterHarness(SampleFilters.get(this.filters));
+		this.body = Corpus.page(100 * 1024, this.charset);
+		this.type = this.declared.equals("header") ? "text/html; charset=" + this.charset : "text/html";
+
+	}
+
+	@Benchmark
+	public long filter(final Transfer transfer) throws IOException{
+
+		final long ret = this.harness.run(this.body, this.type);
+		transfer.add(this.body.length);
+
+		return ret;
+
+	}
+
+}
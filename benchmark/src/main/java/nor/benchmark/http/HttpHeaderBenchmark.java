@@ -0,0 +1,127 @@
+/*
+ *  Copyright (C) 2011 Junpei Kawamoto
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package nor.benchmark.http;
+
+import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.util.concurrent.TimeUnit;
+
+import nor.benchmark.Corpus;
+import nor.benchmark.Sink;
+import nor.http.HeaderName;
+import nor.http.HttpHeader;
+import nor.http.HttpRequest;
+import nor.http.error.HttpException;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Operations on the headers of a response with many fields and Set-Cookie headers.
+ *
+ * @author Junpei Kawamoto
+ * @since 0.3
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HttpHeaderBenchmark{
+
+	private HttpHeader header;
+	private BufferedWriter writer;
+	private final Sink sink = new Sink();
+
+	@Setup
+	public void setup() throws HttpException{
+
+		final HttpRequest request = HttpRequest.create(new ByteArrayInputStream(Corpus.message("request-chrome", 0, false)));
+		this.header = request.createResponse(new ByteArrayInputStream(Corpus.message("response-cdn-html", 0, false))).getHeader();
+		this.writer = new BufferedWriter(new OutputStreamWriter(this.sink));
+
+	}
+
+	@Benchmark
+	public String get(){
+
+		return this.header.get(HeaderName.ContentType);
+
+	}
+
+	@Benchmark
+	public String getByString(){
+
+		return this.header.get("Content-Type");
+
+	}
+
+	@Benchmark
+	public String getSetCookie(){
+
+		return this.header.get(HeaderName.SetCookie);
+
+	}
+
+	@Benchmark
+	public boolean containsMissing(){
+
+		return this.header.containsKey(HeaderName.TransferEncoding);
+
+	}
+
+	@Benchmark
+	public HttpHeader set(){
+
+		this.header.set(HeaderName.CacheControl, "no-cache");
+		return this.header;
+
+	}
+
+	@Benchmark
+	public HttpHeader addRemove(){
+
+		this.header.add(HeaderName.Via, "1.1 nor");
+		this.header.remove(HeaderName.Via);
+		return this.header;
+
+	}
+
+	/**
+	 * Write all fields, which splits Set-Cookie headers into lines.
+	 */
+	@Benchmark
+	public long output() throws IOException{
+
+		this.header.output(this.writer);
+		return this.sink.getCount();
+
+	}
+
+}
@@ -0,0 +1,93 @@
+/*
+ *  Copyright (C) 2011 Junpei Kawamoto
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package nor.benchmark.http;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import nor.benchmark.Corpus;
+import nor.benchmark.Sink;
+import nor.http.HttpRequest;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Parsing requests from a stream, and writing them out again as a proxy does.
+ *
+ * @author Junpei Kawamoto
+ * @since 0.3
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HttpRequestBenchmark{
+
+	/**
+	 * A page request with long cookies, an image request, and a form post with a 512 byte body
+	 */
+	@Param({"request-chrome", "request-firefox", "request-api"})
+	public String corpus;
+
+	private byte[] message;
+	private final Sink sink = new Sink();
+
+	@Setup
+	public void setup(){
+
+		this.message = Corpus.message(this.corpus, "request-api".equals(this.corpus) ? 512 : 0, false);
+
+	}
+
+	/**
+	 * Parse the request line and headers.
+	 */
+	@Benchmark
+	public HttpRequest create(){
+
+		return HttpRequest.create(new ByteArrayInputStream(this.message));
+
+	}
+
+	/**
+	 * Parse a request and write it out with its body.
+	 */
+	@Benchmark
+	public long relay() throws IOException{
+
+		final HttpRequest request = HttpRequest.create(new ByteArrayInputStream(this.message));
+		request.writeTo(this.sink);
+
+		return this.sink.getCount();
+
+	}
+
+}
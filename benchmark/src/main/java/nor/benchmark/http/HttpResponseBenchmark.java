@@ -0,0 +1,115 @@
+/*
+ *  Copyright (C) 2011 Junpei Kawamoto
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package nor.benchmark.http;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import nor.benchmark.Corpus;
+import nor.benchmark.Sink;
+import nor.http.HttpRequest;
+import nor.http.HttpResponse;
+import nor.http.error.HttpException;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Parsing responses from a stream, and writing them out again as a proxy does.
+ *
+ * @author Junpei Kawamoto
+ * @since 0.3
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HttpResponseBenchmark{
+
+	/**
+	 * A 32 KB page with twelve Set-Cookie headers (also in the chunked transfer coding),
+	 * a 16 KB image, and a 304 response
+	 */
+	@Param({"response-cdn-html", "response-cdn-html-chunked", "response-image", "response-not-modified"})
+	public String corpus;
+
+	private HttpRequest request;
+	private byte[] message;
+	private final Sink sink = new Sink();
+
+	@Setup
+	public void setup(){
+
+		this.request = HttpRequest.create(new ByteArrayInputStream(Corpus.message("request-chrome", 0, false)));
+
+		final boolean chunked = this.corpus.endsWith("-chunked");
+		final String name = chunked ? this.corpus.substring(0, this.corpus.length() - "-chunked".length()) : this.corpus;
+		final int length;
+		if(name.equals("response-cdn-html")){
+
+			length = 32 * 1024;
+
+		}else if(name.equals("response-image")){
+
+			length = 16 * 1024;
+
+		}else{
+
+			length = 0;
+
+		}
+		this.message = Corpus.message(name, length, chunked);
+
+	}
+
+	/**
+	 * Parse the status line and headers.
+	 */
+	@Benchmark
+	public HttpResponse create() throws HttpException{
+
+		return this.request.createResponse(new ByteArrayInputStream(this.message));
+
+	}
+
+	/**
+	 * Parse a response and write it out with its body.
+	 */
+	@Benchmark
+	public long relay() throws IOException, HttpException{
+
+		final HttpResponse response = this.request.createResponse(new ByteArrayInputStream(this.message));
+		response.writeTo(this.sink);
+
+		return this.sink.getCount();
+
+	}
+
+}
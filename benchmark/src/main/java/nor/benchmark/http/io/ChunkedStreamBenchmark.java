@@ -0,0 +1,110 @@
+/*
+ *  Copyright (C) 2011 Junpei Kawamoto
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package nor.benchmark.http.io;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.TimeUnit;
+
+import nor.benchmark.Corpus;
+import nor.benchmark.Sink;
+import nor.http.io.ChunkedInputStream;
+import nor.http.io.ChunkedOutputStream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Encoding and decoding bodies with the chunked transfer coding.
+ *
+ * @author Junpei Kawamoto
+ * @since 0.3
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ChunkedStreamBenchmark{
+
+	@Param({"1024", "65536", "1048576"})
+	public int size;
+
+	private byte[] body;
+	private byte[] encoded;
+	private final byte[] buffer = new byte[8192];
+	private final Sink sink = new Sink();
+
+	@Setup
+	public void setup(){
+
+		this.body = Corpus.body(this.size);
+		this.encoded = Corpus.chunk(this.body, 8192);
+
+	}
+
+	/**
+	 * Write a body in 8 KB pieces, as Stream.copy does.
+	 */
+	@Benchmark
+	public long encode() throws IOException{
+
+		final ChunkedOutputStream out = new ChunkedOutputStream(this.sink);
+		for(int i = 0; i < this.body.length; i += this.buffer.length){
+
+			out.write(this.body, i, Math.min(this.buffer.length, this.body.length - i));
+
+		}
+		out.close();
+
+		return this.sink.getCount();
+
+	}
+
+	/**
+	 * Read a body of 8 KB chunks into an 8 KB buffer.
+	 */
+	@Benchmark
+	public long decode() throws IOException{
+
+		final InputStream in = new ChunkedInputStream(new ByteArrayInputStream(this.encoded));
+		long ret = 0;
+		int n;
+		while((n = in.read(this.buffer)) != -1){
+
+			ret += n;
+
+		}
+		in.close();
+
+		return ret;
+
+	}
+
+}
@@ -0,0 +1,107 @@
+/*
+ *  Copyright (C) 2011 Junpei Kawamoto
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package nor.benchmark.http.io;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.concurrent.TimeUnit;
+
+import nor.benchmark.Corpus;
+import nor.http.io.HeaderInputStream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Reading the head of a message up to the empty line.
+ *
+ * @author Junpei Kawamoto
+ * @since 0.3
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HeaderInputStreamBenchmark{
+
+	@Param({"request-chrome", "response-cdn-html"})
+	public String corpus;
+
+	private byte[] message;
+	private final byte[] buffer = new byte[8192];
+
+	@Setup
+	public void setup(){
+
+		this.message = Corpus.message(this.corpus, 1024, false);
+
+	}
+
+	/**
+	 * Read the head into a buffer.
+	 */
+	@Benchmark
+	public long read() throws IOException{
+
+		final InputStream in = new HeaderInputStream(new ByteArrayInputStream(this.message));
+		long ret = 0;
+		int n;
+		while((n = in.read(this.buffer)) != -1){
+
+			ret += n;
+
+		}
+
+		return ret;
+
+	}
+
+	/**
+	 * Read the head line by line, as the parsers of requests and responses do.
+	 */
+	@Benchmark
+	public int readLines() throws IOException{
+
+		final BufferedReader in = new BufferedReader(new InputStreamReader(new HeaderInputStream(new ByteArrayInputStream(this.message))));
+		int ret = 0;
+		String line;
+		while((line = in.readLine()) != null){
+
+			ret += line.length();
+
+		}
+
+		return ret;
+
+	}
+
+}
@@ -0,0 +1,143 @@
+/*
+ *  Copyright (C) 2011 Junpei Kawamoto
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package nor.benchmark.load;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Snapshot of garbage collections and bytes allocated by threads of this JVM.
+ * Allocations are counted per thread, so bytes allocated by threads which have terminated
+ * between two snapshots are not included in their difference.
+ *
+ * @author Junpei Kawamoto
+ * @since 0.3
+ */
+public final class JvmStats{
+
+	private final long collections;
+	private final long collectionTime;
+	private final Map<Long, Long> allocated = new HashMap<Long, Long>();
+
+	//============================================================================
+	//  Constructor
+	//============================================================================
+	private JvmStats(){
+
+		long count = 0;
+		long time = 0;
+		for(final GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()){
+
+			count += Math.max(0, gc.getCollectionCount());
+			time += Math.max(0, gc.getCollectionTime());
+
+		}
+		this.collections = count;
+		this.collectionTime = time;
+
+		final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		if(threads instanceof com.sun.management.ThreadMXBean){
+
+			final com.sun.management.ThreadMXBean t = (com.sun.management.ThreadMXBean)threads;
+			if(t.isThreadAllocatedMemorySupported() && t.isThreadAllocatedMemoryEnabled()){
+
+				final long[] ids = t.getAllThreadIds();
+				final long[] bytes = t.getThreadAllocatedBytes(ids);
+				for(int i = 0; i != ids.length; ++i){
+
+					if(bytes[i] >= 0){
+
+						this.allocated.put(ids[i], bytes[i]);
+
+					}
+
+				}
+
+			}
+
+		}
+
+	}
+
+	//============================================================================
+	//  Public methods
+	//============================================================================
+	/**
+	 * Take a snapshot.
+	 *
+	 * @return the snapshot
+	 */
+	public static JvmStats take(){
+
+		return new JvmStats();
+
+	}
+
+	/**
+	 * Get the number of collections since an earlier snapshot.
+	 *
+	 * @param before the earlier snapshot
+	 * @return the number of collections
+	 */
+	public long collectionsSince(final JvmStats before){
+
+		return this.collections - before.collections;
+
+	}
+
+	/**
+	 * Get the time spent in collections since an earlier snapshot.
+	 *
+	 * @param before the earlier snapshot
+	 * @return the time in milliseconds
+	 */
+	public long collectionTimeSince(final JvmStats before){
+
+		return this.collectionTime - before.collectionTime;
+
+	}
+
+	/**
+	 * Get the bytes allocated since an earlier snapshot by threads alive now.
+	 *
+	 * @param before the earlier snapshot
+	 * @return the allocated bytes, or -1 if the JVM cannot measure them
+	 */
+	public long allocatedSince(final JvmStats before){
+
+		if(this.allocated.isEmpty()){
+
+			return -1;
+
+		}
+
+		long ret = 0;
+		for(final Map.Entry<Long, Long> e : this.allocated.entrySet()){
+
+			final Long prev = before.allocated.get(e.getKey());
+			ret += e.getValue() - (prev != null ? prev : 0);
+
+		}
+		return ret;
+
+	}
+
+}
@@ -0,0 +1,238 @@
+/*
+ *  Copyright (C) 2011 Junpei Kawamoto
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package nor.benchmark.load;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import nor.core.proxy.ProxyServer;
+import nor.core.proxy.ProxyServer.ServerType;
+import nor.http.server.proxyserver.ProxyRequestHandler;
+import nor.http.server.proxyserver.Router;
+
+import org.apache.commons.cli.BasicParser;
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.OptionBuilder;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+
+/**
+ * End-to-end benchmark of the proxy server.
+ * A proxy server is started in front of an {@link Origin} on the loopback interface,
+ * and a {@link LoadGenerator} sends requests through it.
+ * Each combination of the server types and the filter settings is measured in turn, and printed as a row of a table.
+ *
+ * <pre>
+ * java -cp target/benchmarks.jar nor.benchmark.load.LoadBenchmark -server NServer,TServer -concurrency 32 -rate 2000
+ * </pre>
+ *
+ * @author Junpei Kawamoto
+ * @since 0.3
+ */
+public final class LoadBenchmark{
+
+	private static final String Header = String.format("%-8s %-7s %-10s %5s %5s %9s %6s %9s %8s %8s %8s %8s %8s %8s %5s %6s %10s",
+			"server", "filters", "mode", "conc", "keep", "requests", "errors", "req/s", "MB/s",
+			"p50(ms)", "p90(ms)", "p99(ms)", "p99.9", "max(ms)", "gc", "gc(ms)", "alloc/req");
+
+	private final ServerType type;
+	private final boolean filters;
+	private final int concurrency;
+	private final double keepAlive;
+	private final double rate;
+
+	//============================================================================
+	//  Constructor
+	//============================================================================
+	private LoadBenchmark(final ServerType type, final boolean filters, final int concurrency, final double keepAlive, final double rate){
+
+		this.type = type;
+		this.filters = filters;
+		this.concurrency = concurrency;
+		this.keepAlive = keepAlive;
+		this.rate = rate;
+
+	}
+
+	//============================================================================
+	//  Public methods
+	//============================================================================
+	@SuppressWarnings("static-access")
+	public static void main(final String[] args) throws IOException, InterruptedException{
+
+		final Options ops = new Options();
+		ops.addOption(OptionBuilder.withArgName("types").hasArg()
+				.withDescription("comma separated server types (default: NServer,TServer)").create("server"));
+		ops.addOption(OptionBuilder.withArgName("n").hasArg()
+				.withDescription("number of connections (default: 16)").create("concurrency"));
+		ops.addOption(OptionBuilder.withArgName("ratio").hasArg()
+				.withDescription("ratio of requests keeping the connection alive (default: 1.0)").create("keepalive"));
+		ops.addOption(OptionBuilder.withArgName("rps").hasArg()
+				.withDescription("total requests per second for the open-loop mode, 0 for the closed-loop mode (default: 0)").create("rate"));
+		ops.addOption(OptionBuilder.withArgName("sec").hasArg()
+				.withDescription("measurement period (default: 10)").create("duration"));
+		ops.addOption(OptionBuilder.withArgName("sec").hasArg()
+				.withDescription("warmup period (default: 5)").create("warmup"));
+		ops.addOption(OptionBuilder.withArgName("bytes").hasArg()
+				.withDescription("size of response bodies (default: 16384)").create("body"));
+		ops.addOption(OptionBuilder.withArgName("off|on|both").hasArg()
+				.withDescription("whether to attach the sample filters (default: both)").create("filters"));
+		ops.addOption("help", false, "show this help");
+
+		final CommandLine cmd;
+		try{
+
+			cmd = new BasicParser().parse(ops, args);
+
+		}catch(final ParseException e){
+
+			System.err.println(e.getMessage());
+			new HelpFormatter().printHelp("LoadBenchmark", ops, true);
+			System.exit(1);
+			return;
+
+		}
+		if(cmd.hasOption("help")){
+
+			new HelpFormatter().printHelp("LoadBenchmark", ops, true);
+			return;
+
+		}
+
+		final int concurrency = Integer.parseInt(cmd.getOptionValue("concurrency", "16"));
+		final double keepAlive = Double.parseDouble(cmd.getOptionValue("keepalive", "1.0"));
+		final double rate = Double.parseDouble(cmd.getOptionValue("rate", "0"));
+		final long duration = TimeUnit.SECONDS.toNanos(Long.parseLong(cmd.getOptionValue("duration", "10")));
+		final long warmup = TimeUnit.SECONDS.toNanos(Long.parseLong(cmd.getOptionValue("warmup", "5")));
+		final int body = Integer.parseInt(cmd.getOptionValue("body", "16384"));
+		final String filters = cmd.getOptionValue("filters", "both");
+
+		final List<LoadBenchmark> runs = new ArrayList<LoadBenchmark>();
+		for(final String t : cmd.getOptionValue("server", "NServer,TServer").split(",")){
+
+			final ServerType type = ServerType.valueOf(t.trim());
+			if(!"on".equals(filters)){
+
+				runs.add(new LoadBenchmark(type, false, concurrency, keepAlive, rate));
+
+			}
+			if(!"off".equals(filters)){
+
+				runs.add(new LoadBenchmark(type, true, concurrency, keepAlive, rate));
+
+			}
+
+		}
+
+		final Origin origin = new Origin(body);
+		try{
+
+			System.out.println(Header);
+			for(final LoadBenchmark b : runs){
+
+				System.out.println(b.run(origin.getPort(), warmup, duration));
+
+			}
+
+		}finally{
+
+			origin.close();
+
+		}
+
+	}
+
+	//============================================================================
+	//  Private methods
+	//============================================================================
+	/**
+	 * Start a proxy server, warm it up, and measure it.
+	 *
+	 * @return a row of the result table
+	 */
+	private String run(final int originPort, final long warmup, final long duration) throws IOException, InterruptedException{
+
+		final Router router = new Router();
+		final ProxyServer server = new ProxyServer(new ProxyRequestHandler("nor", router), router, this.type);
+		if(this.filters){
+
+			server.attach(new SamplePlugin());
+
+		}
+
+		final InetAddress loopback = InetAddress.getLoopbackAddress();
+		final int port = freePort();
+		server.start(loopback.getHostAddress(), port);
+		try{
+
+			final String url = "http://" + loopback.getHostAddress() + ":" + originPort + "/index.html";
+			final LoadGenerator load = new LoadGenerator(new InetSocketAddress(loopback, port), url, this.concurrency, this.keepAlive, this.rate);
+
+			load.run(warmup);
+			System.gc();
+
+			final JvmStats before = JvmStats.take();
+			final LoadGenerator.Result res = load.run(duration);
+			final JvmStats after = JvmStats.take();
+
+			final long allocated = after.allocatedSince(before);
+			return String.format("%-8s %-7s %-10s %5d %5.2f %9d %6d %9.1f %8.2f %8.3f %8.3f %8.3f %8.3f %8.3f %5d %6d %10s",
+					this.type, this.filters ? "on" : "off", this.rate > 0 ? String.format("open@%.0f", this.rate) : "closed",
+					this.concurrency, this.keepAlive, res.getRequests(), res.getErrors(),
+					res.getRequestsPerSecond(), res.getBytesPerSecond() / (1024 * 1024),
+					millis(res.getLatency(50)), millis(res.getLatency(90)), millis(res.getLatency(99)),
+					millis(res.getLatency(99.9)), millis(res.getLatency(100)),
+					after.collectionsSince(before), after.collectionTimeSince(before),
+					allocated < 0 || res.getRequests() == 0 ? "-" : String.format("%.1fKB", allocated / 1024.0 / res.getRequests()));
+
+		}finally{
+
+			server.close();
+
+		}
+
+	}
+
+	private static double millis(final long nanos){
+
+		return nanos / 1e6;
+
+	}
+
+	private static int freePort() throws IOException{
+
+		final ServerSocket s = new ServerSocket(0);
+		try{
+
+			return s.getLocalPort();
+
+		}finally{
+
+			s.close();
+
+		}
+
+	}
+
+}
@@ -0,0 +1,505 @@
+/*
+ *  Copyright (C) 2011 Junpei Kawamoto
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package nor.benchmark.load;
+
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * HTTP/1.1 load generator sending requests to a proxy server.
+ *
+ * In the closed-loop mode, each connection sends the next request as soon as the previous response arrives.
+ * In the open-loop mode, requests are sent on a fixed schedule at the given rate, and the latency of a request
+ * is measured from the time it should have been sent. So a stall of the server is charged to every request
+ * scheduled during the stall, which corrects the coordinated omission of the closed-loop mode.
+ *
+ * @author Junpei Kawamoto
+ * @since 0.3
+ */
+public final class LoadGenerator{
+
+	private final InetSocketAddress proxy;
+	private final int concurrency;
+	private final double keepAlive;
+	private final double rate;
+
+	private final byte[] keepAliveRequest;
+	private final byte[] closeRequest;
+
+	//============================================================================
+	//  Constructor
+	//============================================================================
+	/**
+	 * Create a load generator.
+	 *
+	 * @param proxy the address of the proxy server
+	 * @param url the absolute URL to request through the proxy
+	 * @param concurrency the number of connections
+	 * @param keepAlive the ratio of requests after which the connection is kept alive, between 0 and 1
+	 * @param rate the total number of requests per second in the open-loop mode, or 0 for the closed-loop mode
+	 */
+	public LoadGenerator(final InetSocketAddress proxy, final String url, final int concurrency, final double keepAlive, final double rate){
+
+		this.proxy = proxy;
+		this.concurrency = concurrency;
+		this.keepAlive = keepAlive;
+		this.rate = rate;
+
+		final String host = url.replaceFirst("^[a-z]+://", "").replaceFirst("/.*$", "");
+		final String head = "GET " + url + " HTTP/1.1\r\n"
+				+ "Host: " + host + "\r\n"
+				+ "User-Agent: nor-benchmark\r\n"
+				+ "Accept: text/html,*/*;q=0.8\r\n"
+				+ "Accept-Encoding: identity\r\n";
+		this.keepAliveRequest = ascii(head + "Proxy-Connection: keep-alive\r\n\r\n");
+		this.closeRequest = ascii(head + "Connection: close\r\n\r\n");
+
+	}
+
+	//============================================================================
+	//  Public methods
+	//============================================================================
+	/**
+	 * Generate load for a period.
+	 *
+	 * @param duration the period in nanoseconds
+	 * @return the results
+	 * @throws InterruptedException if interrupted while waiting for connections
+	 */
+	public Result run(final long duration) throws InterruptedException{
+
+		final long start = System.nanoTime();
+		final long deadline = start + duration;
+
+		final Worker[] workers = new Worker[this.concurrency];
+		final Thread[] threads = new Thread[this.concurrency];
+		for(int i = 0; i != this.concurrency; ++i){
+
+			workers[i] = new Worker(i, start, deadline);
+			threads[i] = new Thread(workers[i], "Load Generator " + i);
+			threads[i].start();
+
+		}
+		for(final Thread th : threads){
+
+			th.join();
+
+		}
+
+		return new Result(workers, System.nanoTime() - start);
+
+	}
+
+	//============================================================================
+	//  Private methods
+	//============================================================================
+	private static byte[] ascii(final String s){
+
+		final byte[] ret = new byte[s.length()];
+		for(int i = 0; i != ret.length; ++i){
+
+			ret[i] = (byte)s.charAt(i);
+
+		}
+		return ret;
+
+	}
+
+	//============================================================================
+	//  Inner classes
+	//============================================================================
+	/**
+	 * Results of a run.
+	 */
+	public static final class Result{
+
+		private final long elapsed;
+		private final long requests;
+		private final long errors;
+		private final long connects;
+		private final long bytes;
+		private final long[] latencies;
+
+		private Result(final Worker[] workers, final long elapsed){
+
+			this.elapsed = elapsed;
+
+			long requests = 0;
+			long errors = 0;
+			long connects = 0;
+			long bytes = 0;
+			for(final Worker w : workers){
+
+				requests += w.count;
+				errors += w.errors;
+				connects += w.connects;
+				bytes += w.bytes;
+
+			}
+			this.requests = requests;
+			this.errors = errors;
+			this.connects = connects;
+			this.bytes = bytes;
+
+			this.latencies = new long[(int)requests];
+			int pos = 0;
+			for(final Worker w : workers){
+
+				System.arraycopy(w.latencies, 0, this.latencies, pos, w.count);
+				pos += w.count;
+
+			}
+			Arrays.sort(this.latencies);
+
+		}
+
+		/**
+		 * Get the number of completed requests.
+		 *
+		 * @return the number of requests
+		 */
+		public long getRequests(){
+
+			return this.requests;
+
+		}
+
+		/**
+		 * Get the number of failed requests.
+		 *
+		 * @return the number of errors
+		 */
+		public long getErrors(){
+
+			return this.errors;
+
+		}
+
+		/**
+		 * Get the number of opened connections.
+		 *
+		 * @return the number of connections
+		 */
+		public long getConnects(){
+
+			return this.connects;
+
+		}
+
+		/**
+		 * Get the throughput.
+		 *
+		 * @return completed requests per second
+		 */
+		public double getRequestsPerSecond(){
+
+			return this.requests * 1e9 / this.elapsed;
+
+		}
+
+		/**
+		 * Get the received bytes, including heads, per second.
+		 *
+		 * @return bytes per second
+		 */
+		public double getBytesPerSecond(){
+
+			return this.bytes * 1e9 / this.elapsed;
+
+		}
+
+		/**
+		 * Get the latency at a percentile.
+		 *
+		 * @param percentile the percentile between 0 and 100
+		 * @return the latency in nanoseconds, or 0 if no request completed
+		 */
+		public long getLatency(final double percentile){
+
+			if(this.latencies.length == 0){
+
+				return 0;
+
+			}
+			final int rank = (int)Math.ceil(percentile / 100 * this.latencies.length);
+			return this.latencies[Math.max(0, Math.min(this.latencies.length - 1, rank - 1))];
+
+		}
+
+	}
+
+	/**
+	 * One connection sending requests.
+	 */
+	private final class Worker implements Runnable{
+
+		private final long start;
+		private final long deadline;
+		private final long interval;
+		private final Random random;
+		private final byte[] buffer = new byte[16 * 1024];
+
+		private int count;
+		private long[] latencies = new long[1024];
+		private long errors;
+		private long connects;
+		private long bytes;
+
+		private Socket socket;
+		private InputStream in;
+		private OutputStream out;
+
+		public Worker(final int id, final long start, final long deadline){
+
+			this.deadline = deadline;
+			this.random = new Random(id);
+			if(LoadGenerator.this.rate > 0){
+
+				// Spread the schedules of connections evenly.
+				this.interval = (long)(1e9 * LoadGenerator.this.concurrency / LoadGenerator.this.rate);
+				this.start = start + this.interval * id / LoadGenerator.this.concurrency;
+
+			}else{
+
+				this.interval = 0;
+				this.start = start;
+
+			}
+
+		}
+
+		@Override
+		public void run(){
+
+			for(long n = 0; ; ++n){
+
+				long intended = System.nanoTime();
+				if(this.interval != 0){
+
+					intended = this.start + n * this.interval;
+					long now;
+					while((now = System.nanoTime()) < intended){
+
+						LockSupport.parkNanos(intended - now);
+
+					}
+
+				}
+				if(intended >= this.deadline){
+
+					break;
+
+				}
+
+				final boolean close = this.random.nextDouble() >= LoadGenerator.this.keepAlive;
+				try{
+
+					if(this.socket == null){
+
+						this.connect();
+
+					}
+					this.out.write(close ? LoadGenerator.this.closeRequest : LoadGenerator.this.keepAliveRequest);
+					this.out.flush();
+					final boolean kept = this.receive();
+					this.record(System.nanoTime() - intended);
+					if(close || !kept){
+
+						this.disconnect();
+
+					}
+
+				}catch(final IOException e){
+
+					++this.errors;
+					this.disconnect();
+
+				}
+
+			}
+			this.disconnect();
+
+		}
+
+		private void connect() throws IOException{
+
+			this.socket = new Socket();
+			this.socket.setTcpNoDelay(true);
+			this.socket.connect(LoadGenerator.this.proxy, 10000);
+			this.socket.setSoTimeout(30000);
+			this.in = new BufferedInputStream(this.socket.getInputStream(), this.buffer.length);
+			this.out = this.socket.getOutputStream();
+			++this.connects;
+
+		}
+
+		private void disconnect(){
+
+			if(this.socket != null){
+
+				try{
+
+					this.socket.close();
+
+				}catch(final IOException e){
+
+					// Nothing to do.
+
+				}
+				this.socket = null;
+
+			}
+
+		}
+
+		private void record(final long latency){
+
+			if(this.count == this.latencies.length){
+
+				this.latencies = Arrays.copyOf(this.latencies, this.count * 2);
+
+			}
+			this.latencies[this.count++] = latency;
+
+		}
+
+		/**
+		 * Read a response.
+		 *
+		 * @return false if the server will close the connection
+		 */
+		private boolean receive() throws IOException{
+
+			final String status = this.line();
+			if(!status.startsWith("HTTP/1.1 200")){
+
+				throw new IOException("Unexpected response: " + status);
+
+			}
+
+			long length = -1;
+			boolean chunked = false;
+			boolean kept = true;
+			String field;
+			while((field = this.line()).length() != 0){
+
+				final String f = field.toLowerCase(Locale.ENGLISH);
+				if(f.startsWith("content-length:")){
+
+					length = Long.parseLong(f.substring("content-length:".length()).trim());
+
+				}else if(f.startsWith("transfer-encoding:") && f.contains("chunked")){
+
+					chunked = true;
+
+				}else if((f.startsWith("connection:") || f.startsWith("proxy-connection:")) && f.contains("close")){
+
+					kept = false;
+
+				}
+
+			}
+
+			if(chunked){
+
+				long size;
+				while((size = Long.parseLong(this.line().replaceFirst(";.*$", "").trim(), 16)) != 0){
+
+					this.skip(size);
+					this.line();
+
+				}
+				while(this.line().length() != 0){
+
+					// Trailers.
+
+				}
+
+			}else if(length >= 0){
+
+				this.skip(length);
+
+			}else{
+
+				// Delimited by closing the connection.
+				int n;
+				while((n = this.in.read(this.buffer)) != -1){
+
+					this.bytes += n;
+
+				}
+				kept = false;
+
+			}
+			return kept;
+
+		}
+
+		private String line() throws IOException{
+
+			final StringBuilder ret = new StringBuilder();
+			int c;
+			while((c = this.in.read()) != '\n'){
+
+				if(c == -1){
+
+					throw new EOFException();
+
+				}
+				if(c != '\r'){
+
+					ret.append((char)c);
+
+				}
+
+			}
+			this.bytes += ret.length() + 2;
+			return ret.toString();
+
+		}
+
+		private void skip(final long length) throws IOException{
+
+			long rest = length;
+			while(rest != 0){
+
+				final int n = this.in.read(this.buffer, 0, (int)Math.min(rest, this.buffer.length));
+				if(n == -1){
+
+					throw new EOFException();
+
+				}
+				rest -= n;
+
+			}
+			this.bytes += length;
+
+		}
+
+	}
+
+}
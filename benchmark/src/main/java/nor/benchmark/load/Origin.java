@@ -0,0 +1,238 @@
+/*
+ *  Copyright (C) 2011 Junpei Kawamoto
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package nor.benchmark.load;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.Collections;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import nor.benchmark.Corpus;
+
+/**
+ * Origin server stand-in on the loopback interface.
+ * It answers every request with the same HTML body of a fixed size, and keeps connections alive
+ * unless the client asks to close them. Request bodies are not supported.
+ *
+ * @author Junpei Kawamoto
+ * @since 0.3
+ */
+public final class Origin implements Closeable, Runnable{
+
+	private final ServerSocket server;
+	private final byte[] response;
+	private final ExecutorService pool;
+	private final Set<Socket> sockets = Collections.newSetFromMap(new ConcurrentHashMap<Socket, Boolean>());
+
+	//============================================================================
+	//  Constructor
+	//============================================================================
+	/**
+	 * Start an origin server on an ephemeral port.
+	 *
+	 * @param size the size of the response body
+	 * @throws IOException if the server cannot listen
+	 */
+	public Origin(final int size) throws IOException{
+
+		this.server = new ServerSocket();
+		this.server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 1024);
+
+		final String head = "HTTP/1.1 200 OK\r\n"
+				+ "Content-Type: text/html; charset=UTF-8\r\n"
+				+ "Cache-Control: no-cache\r\n"
+				+ "Content-Length: " + size + "\r\n"
+				+ "\r\n";
+		final byte[] h = head.getBytes("ISO-8859-1");
+		final byte[] body = Corpus.body(size);
+		this.response = new byte[h.length + body.length];
+		System.arraycopy(h, 0, this.response, 0, h.length);
+		System.arraycopy(body, 0, this.response, h.length, body.length);
+
+		this.pool = Executors.newCachedThreadPool(new ThreadFactory(){
+
+			@Override
+			public Thread newThread(final Runnable r){
+
+				final Thread th = new Thread(r, "Origin");
+				th.setDaemon(true);
+				return th;
+
+			}
+
+		});
+		this.pool.execute(this);
+
+	}
+
+	//============================================================================
+	//  Public methods
+	//============================================================================
+	/**
+	 * Get the port this server listens on.
+	 *
+	 * @return the port
+	 */
+	public int getPort(){
+
+		return this.server.getLocalPort();
+
+	}
+
+	@Override
+	public void run(){
+
+		while(!this.server.isClosed()){
+
+			try{
+
+				final Socket s = this.server.accept();
+				s.setTcpNoDelay(true);
+				this.sockets.add(s);
+				this.pool.execute(new Runnable(){
+
+					@Override
+					public void run(){
+
+						Origin.this.serve(s);
+
+					}
+
+				});
+
+			}catch(final IOException e){
+
+				if(!this.server.isClosed()){
+
+					e.printStackTrace();
+
+				}
+
+			}
+
+		}
+
+	}
+
+	@Override
+	public void close() throws IOException{
+
+		this.server.close();
+		for(final Socket s : this.sockets){
+
+			s.close();
+
+		}
+		this.pool.shutdownNow();
+
+	}
+
+	//============================================================================
+	//  Private methods
+	//============================================================================
+	private void serve(final Socket s){
+
+		try{
+
+			final InputStream in = new BufferedInputStream(s.getInputStream());
+			final OutputStream out = new BufferedOutputStream(s.getOutputStream(), 16 * 1024);
+			final StringBuilder line = new StringBuilder();
+			boolean close = false;
+			boolean first = true;
+			int c;
+			while((c = in.read()) != -1){
+
+				if(c == '\n'){
+
+					final int len = line.length();
+					if(len == 0){
+
+						// The end of the head.
+						out.write(this.response);
+						out.flush();
+						if(close){
+
+							break;
+
+						}
+						first = true;
+
+					}else if(!first){
+
+						final String field = line.toString().toLowerCase(Locale.ENGLISH);
+						if(field.startsWith("connection:") && field.contains("close")){
+
+							close = true;
+
+						}
+
+					}else{
+
+						first = false;
+
+					}
+					line.setLength(0);
+
+				}else if(c != '\r'){
+
+					line.append((char)c);
+
+				}
+
+			}
+
+		}catch(final SocketException e){
+
+			// Closed by the peer.
+
+		}catch(final IOException e){
+
+			e.printStackTrace();
+
+		}finally{
+
+			this.sockets.remove(s);
+			try{
+
+				s.close();
+
+			}catch(final IOException e){
+
+				e.printStackTrace();
+
+			}
+
+		}
+
+	}
+
+}
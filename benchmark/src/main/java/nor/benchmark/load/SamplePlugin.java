@@ -0,0 +1,108 @@
+/*
+ *  Copyright (C) 2011 Junpei Kawamoto
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package nor.benchmark.load;
+
+import java.nio.ByteBuffer;
+import java.util.regex.MatchResult;
+
+import nor.core.plugin.PluginAdapter;
+import nor.core.proxy.filter.EditingStringFilterAdapter;
+import nor.core.proxy.filter.FilterRegister;
+import nor.core.proxy.filter.ReadonlyByteFilterAdapter;
+import nor.core.proxy.filter.RequestFilter;
+import nor.core.proxy.filter.RequestFilterAdapter;
+import nor.core.proxy.filter.ResponseFilter;
+import nor.core.proxy.filter.ResponseFilterAdapter;
+import nor.http.HttpRequest;
+import nor.http.HttpResponse;
+
+/**
+ * Plugin with typical filters, used to measure the cost of filtering.
+ * The request filter adds a header, and the response filter counts the bytes of HTML pages
+ * and rewrites a word in them.
+ *
+ * @author Junpei Kawamoto
+ * @since 0.3
+ */
+public class SamplePlugin extends PluginAdapter{
+
+	//============================================================================
+	//  Public methods
+	//============================================================================
+	@Override
+	public RequestFilter[] requestFilters(){
+
+		return new RequestFilter[]{
+
+			new RequestFilterAdapter(".*", ".*"){
+
+				@Override
+				public void update(final HttpRequest msg, final MatchResult url, final MatchResult cType, final FilterRegister register){
+
+					msg.getHeader().set("x-nor-benchmark", "1");
+
+				}
+
+			}
+
+		};
+
+	}
+
+	@Override
+	public ResponseFilter[] responseFilters(){
+
+		return new ResponseFilter[]{
+
+			new ResponseFilterAdapter(".*", "text/html"){
+
+				@Override
+				public void update(final HttpResponse msg, final MatchResult url, final MatchResult cType, final FilterRegister register){
+
+					register.add(new ReadonlyByteFilterAdapter(){
+
+						private long bytes;
+
+						@Override
+						public void update(final ByteBuffer in){
+
+							this.bytes += in.remaining();
+
+						}
+
+					});
+					register.add(new EditingStringFilterAdapter(){
+
+						@Override
+						public String update(final String in){
+
+							return in.replace("Lorem", "LOREM");
+
+						}
+
+					});
+
+				}
+
+			}
+
+		};
+
+	}
+
+}
@@ -0,0 +1,277 @@
+/*
+ *  Copyright (C) 2011 Junpei Kawamoto
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package nor.core.proxy;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.TimeUnit;
+
+import nor.benchmark.Corpus;
+import nor.core.plugin.Plugin;
+import nor.core.proxy.filter.ResponseFilter;
+import nor.http.HeaderName;
+import nor.http.HttpRequest;
+import nor.http.HttpResponse;
+import nor.http.Status;
+import nor.http.error.HttpException;
+import nor.http.server.HttpRequestHandler;
+
+import org.apache.commons.cli.BasicParser;
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.OptionBuilder;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+
+/**
+ * Harness running response bodies through response filters in the same way as the proxy server.
+ * Given filters are attached to a {@link RequestHandler}, which builds the same chain of filtering streams
+ * as it does for responses from origin servers, and the filtered body is read to the end.
+ * This class is in the package of RequestHandler, since the handler is not public.
+ *
+ * Plugin authors can measure their own filters with the main method,
+ *
+ * <pre>
+ * java -cp target/benchmarks.jar:myplugin.jar nor.core.proxy.FilterHarness -plugin com.example.MyPlugin -body page.html -type "text/html"
+ * </pre>
+ *
+ * or call {@link #run(byte[], String)} from a JMH benchmark as {@link nor.benchmark.filter.TextFilterBenchmark} does,
+ * to get numbers comparable to the ones of the sample filters.
+ *
+ * @author Junpei Kawamoto
+ * @since 0.3
+ */
+public class FilterHarness{
+
+	private final RequestHandler handler;
+	private final HttpRequest request;
+	private final byte[] buffer = new byte[8192];
+
+	private byte[] body;
+	private String contentType;
+
+	//============================================================================
+	//  Constructor
+	//============================================================================
+	/**
+	 * Create a harness with response filters.
+	 *
+	 * @param filters the response filters
+	 */
+	public FilterHarness(final ResponseFilter... filters){
+
+		this.handler = new RequestHandler(new HttpRequestHandler(){
+
+			@Override
+			public HttpResponse doRequest(final HttpRequest request){
+
+				final HttpResponse ret = request.createResponse(Status.OK, new ByteArrayInputStream(FilterHarness.this.body), FilterHarness.this.body.length);
+				ret.getHeader().set(HeaderName.ContentType, FilterHarness.this.contentType);
+				return ret;
+
+			}
+
+			@Override
+			public SocketChannel doConnectRequest(final HttpRequest request) throws HttpException{
+
+				throw new UnsupportedOperationException();
+
+			}
+
+		});
+		for(final ResponseFilter f : filters){
+
+			this.handler.attach(f);
+
+		}
+		this.request = HttpRequest.create(new ByteArrayInputStream(Corpus.message("request-chrome", 0, false)));
+
+	}
+
+	/**
+	 * Create a harness with the response filters of a plugin.
+	 *
+	 * @param plugin the plugin, which is already initialized
+	 */
+	public FilterHarness(final Plugin plugin){
+
+		this(plugin.responseFilters() == null ? new ResponseFilter[0] : plugin.responseFilters());
+
+	}
+
+	//============================================================================
+	//  Public methods
+	//============================================================================
+	/**
+	 * Run a response body through the filters.
+	 *
+	 * @param body the body
+	 * @param contentType the value of the Content-Type header of the response
+	 * @return the number of bytes read from the filtered body
+	 * @throws IOException if a filter throws it
+	 */
+	public long run(final byte[] body, final String contentType) throws IOException{
+
+		this.body = body;
+		this.contentType = contentType;
+
+		final HttpResponse response = this.handler.doRequest(this.request);
+		final InputStream in = response.getBody();
+
+		long ret = 0;
+		int n;
+		while((n = in.read(this.buffer)) != -1){
+
+			ret += n;
+
+		}
+		in.close();
+
+		return ret;
+
+	}
+
+	@SuppressWarnings("static-access")
+	public static void main(final String[] args) throws Exception{
+
+		final Options ops = new Options();
+		ops.addOption(OptionBuilder.withArgName("class").hasArg()
+				.withDescription("plugin providing the response filters").create("plugin"));
+		ops.addOption(OptionBuilder.withArgName("dir").hasArg()
+				.withDescription("directory which has config files of the plugin (default: config)").create("config"));
+		ops.addOption(OptionBuilder.withArgName("file").hasArg()
+				.withDescription("response body (default: a 100 KB HTML page in UTF-8)").create("body"));
+		ops.addOption(OptionBuilder.withArgName("type").hasArg()
+				.withDescription("content type of the response (default: text/html; charset=UTF-8)").create("type"));
+		ops.addOption(OptionBuilder.withArgName("sec").hasArg()
+				.withDescription("measurement period (default: 10)").create("duration"));
+		ops.addOption(OptionBuilder.withArgName("sec").hasArg()
+				.withDescription("warmup period (default: 5)").create("warmup"));
+		ops.addOption("help", false, "show this help");
+
+		final CommandLine cmd;
+		try{
+
+			cmd = new BasicParser().parse(ops, args);
+
+		}catch(final ParseException e){
+
+			System.err.println(e.getMessage());
+			new HelpFormatter().printHelp("FilterHarness", ops, true);
+			System.exit(1);
+			return;
+
+		}
+		if(cmd.hasOption("help") || !cmd.hasOption("plugin")){
+
+			new HelpFormatter().printHelp("FilterHarness", ops, true);
+			return;
+
+		}
+
+		// Initialize the plugin as nor does.
+		final Plugin plugin = Class.forName(cmd.getOptionValue("plugin")).asSubclass(Plugin.class).getDeclaredConstructor().newInstance();
+		final File conf = new File(cmd.getOptionValue("config", "config"), plugin.getClass().getName() + ".conf");
+		plugin.init(conf, conf);
+
+		final byte[] body = cmd.hasOption("body") ? read(new File(cmd.getOptionValue("body"))) : Corpus.page(100 * 1024, "UTF-8");
+		final String type = cmd.getOptionValue("type", "text/html; charset=UTF-8");
+		final long warmup = TimeUnit.SECONDS.toNanos(Long.parseLong(cmd.getOptionValue("warmup", "5")));
+		final long duration = TimeUnit.SECONDS.toNanos(Long.parseLong(cmd.getOptionValue("duration", "10")));
+
+		final FilterHarness harness = new FilterHarness(plugin);
+		measure(harness, body, type, warmup);
+
+		final Result res = measure(harness, body, type, duration);
+		System.out.println(String.format("%-12s %10s %10s %10s %12s %12s", "body(bytes)", "output", "ops", "MB/s", "alloc(B/op)", "alloc/byte"));
+		System.out.println(String.format("%-12d %10d %10d %10.2f %12.0f %12.2f",
+				body.length, res.output, res.ops, res.ops * (double)body.length / (1024 * 1024) / (res.nanos / 1e9),
+				res.allocated / (double)res.ops, res.allocated / (double)res.ops / body.length));
+
+		plugin.close();
+
+	}
+
+	//============================================================================
+	//  Private methods
+	//============================================================================
+	/**
+	 * Run the harness repeatedly for a period, and count bytes allocated by this thread.
+	 */
+	private static Result measure(final FilterHarness harness, final byte[] body, final String type, final long period) throws IOException{
+
+		final com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+		final long id = Thread.currentThread().getId();
+
+		final Result ret = new Result();
+		final long allocated = threads.getThreadAllocatedBytes(id);
+		final long start = System.nanoTime();
+		do{
+
+			ret.output = harness.run(body, type);
+			ret.ops++;
+			ret.nanos = System.nanoTime() - start;
+
+		}while(ret.nanos < period);
+		ret.allocated = threads.getThreadAllocatedBytes(id) - allocated;
+
+		return ret;
+
+	}
+
+	private static byte[] read(final File file) throws IOException{
+
+		final byte[] ret = new byte[(int)file.length()];
+		final InputStream in = new FileInputStream(file);
+		try{
+
+			int off = 0;
+			int n;
+			while(off < ret.length && (n = in.read(ret, off, ret.length - off)) != -1){
+
+				off += n;
+
+			}
+
+		}finally{
+
+			in.close();
+
+		}
+		return ret;
+
+	}
+
+	//============================================================================
+	//  Inner classes
+	//============================================================================
+	private static final class Result{
+
+		private long ops;
+		private long nanos;
+		private long output;
+		private long allocated;
+
+	}
+
+}
@@ -25,6 +25,7 @@ import java.util.logging.Level;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+import nor.network.Resolver;
 import nor.util.log.Logger;
 
 
@@ -81,7 +82,7 @@ public class Context{
 						if(!"0.0.0.0".equals(ip)){
 
 							final InetAddress addr = InetAddress.getByName(ip);
-							host = addr.getCanonicalHostName();
+							host = Resolver.getDefault().reverse(addr);
 							break;
 
 						}
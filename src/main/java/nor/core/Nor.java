@@ -40,8 +40,9 @@ import java.util.logging.Level;
 
 import nor.core.plugin.Plugin;
 import nor.core.proxy.ProxyServer;
+import nor.core.proxy.ProxyServer.ServerType;
 import nor.http.server.HttpRequestHandler;
-import nor.http.server.local.TextResource;
+import nor.http.server.local.MetricsResource;
 import nor.http.server.proxyserver.ProxyRequestHandler;
 import nor.http.server.proxyserver.Router;
 import nor.util.io.Stream;
@@ -197,7 +198,22 @@ public class Nor{
 		/*
 		 * Create a proxy server.
 		 */
-		this.server = new ProxyServer(this.handler, this.router);
+		ServerType type = ServerType.NServer;
+		final String server = System.getProperty("nor.server");
+		if(server != null){
+
+			try{
+
+				type = ServerType.valueOf(server);
+
+			}catch(final IllegalArgumentException e){
+
+				LOGGER.warning("init", "Unknown server type: {0}", server);
+
+			}
+
+		}
+		this.server = new ProxyServer(this.handler, this.router, type);
 
 		final String pluginPath = System.getProperty("nor.plugin");
 		if(pluginPath != null){
@@ -300,8 +316,12 @@ public class Nor{
 		/*
 		 * Register the PAC file.
 		 */
-		this.server.localResourceRoot().add(new TextResource("/nor/core/proxy.pac",
-				this.server.getPAC(addr, port, Boolean.valueOf(System.getProperty("nor.https", "false"))), "application/x-javascript-config"));
+		this.server.publishPAC(addr, port, Boolean.valueOf(System.getProperty("nor.https", "false")));
+
+		/*
+		 * Register the metrics.
+		 */
+		this.server.localResourceRoot().add(new MetricsResource("nor/metrics"));
 
 		/*
 		 * Start the web server.
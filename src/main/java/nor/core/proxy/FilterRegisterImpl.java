@@ -33,12 +33,17 @@ class FilterRegisterImpl implements FilterRegister {
 	private final List<ReadonlyByteFilter> readonlyByteFilters = new ArrayList<ReadonlyByteFilter>();
 	private final List<ReadonlyStringFilter> readonlyStringFilters = new ArrayList<ReadonlyStringFilter>();
 
+	/**
+	 * 登録中のフィルタを登録したメッセージフィルタの計測．計測しない場合は null
+	 */
+	private FilterTimer timer = null;
+
 	/* (非 Javadoc)
 	 * @see nor.core.proxy.FilterRegister#add(nor.core.proxy.filter.EditingByteFilter)
 	 */
 	public void add(final EditingByteFilter filter){
 
-		this.editingByteFilters.add(filter);
+		this.editingByteFilters.add(this.timer != null ? this.timer.wrap(filter) : filter);
 
 	}
 
@@ -47,7 +52,7 @@ class FilterRegisterImpl implements FilterRegister {
 	 */
 	public void add(final EditingStringFilter filter){
 
-		this.editingStringFilters.add(filter);
+		this.editingStringFilters.add(this.timer != null ? this.timer.wrap(filter) : filter);
 
 	}
 
@@ -56,7 +61,7 @@ class FilterRegisterImpl implements FilterRegister {
 	 */
 	public void add(final ReadonlyByteFilter filter){
 
-		this.readonlyByteFilters.add(filter);
+		this.readonlyByteFilters.add(this.timer != null ? this.timer.wrap(filter) : filter);
 
 	}
 
@@ -65,11 +70,22 @@ class FilterRegisterImpl implements FilterRegister {
 	 */
 	public void add(final ReadonlyStringFilter filter){
 
-		this.readonlyStringFilters.add(filter);
+		this.readonlyStringFilters.add(this.timer != null ? this.timer.wrap(filter) : filter);
 
 	}
 
 
+	/**
+	 * 以降に登録されるフィルタの時間を加える計測を設定する．
+	 *
+	 * @param timer 計測．計測しない場合は null
+	 */
+	void setTimer(final FilterTimer timer){
+
+		this.timer = timer;
+
+	}
+
 	List<EditingByteFilter> getEditingByteFilters(){
 
 		return this.editingByteFilters;
@@ -101,4 +117,31 @@ class FilterRegisterImpl implements FilterRegister {
 
 	}
 
+	/**
+	 * 読み取り専用のバイナリフィルタ以外を閉じて登録解除する．
+	 * ボディの書き換えや文字列としての解釈ができない部分コンテンツに対して使用します．
+	 */
+	void retainReadonlyByteFilters(){
+
+		for(final EditingByteFilter f : this.editingByteFilters){
+
+			f.close();
+
+		}
+		for(final EditingStringFilter f : this.editingStringFilters){
+
+			f.close();
+
+		}
+		for(final ReadonlyStringFilter f : this.readonlyStringFilters){
+
+			f.close();
+
+		}
+		this.editingByteFilters.clear();
+		this.editingStringFilters.clear();
+		this.readonlyStringFilters.clear();
+
+	}
+
 }
@@ -0,0 +1,387 @@
+/*
+ *  Copyright (C) 2011 Junpei Kawamoto
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package nor.core.proxy;
+
+import java.nio.ByteBuffer;
+
+import nor.core.proxy.filter.EditingByteFilter;
+import nor.core.proxy.filter.EditingStringFilter;
+import nor.core.proxy.filter.ReadonlyByteFilter;
+import nor.core.proxy.filter.ReadonlyStringFilter;
+import nor.http.RequestStats;
+import nor.util.metrics.Histogram;
+import nor.util.metrics.Metrics;
+
+/**
+ * 一つのメッセージに対する一つのメッセージフィルタの処理時間の計測．
+ * メッセージフィルタの update メソッドの時間に加え，そのフィルタが登録したストリームフィルタが
+ * メッセージボディの書き出し中に費やした時間を合計します．
+ * 登録されたストリームフィルタがすべて閉じられた時点で，合計をフィルタのヒストグラムに一度だけ記録します．
+ * ストリームフィルタの時間は，リクエストの計測値 (アクセスログのフィルタ時間) にも加えます．
+ *
+ * @author Junpei Kawamoto
+ * @since 0.3
+ */
+final class FilterTimer{
+
+	private final Histogram histogram;
+	private final RequestStats stats;
+
+	private long nanos = 0;
+	private int open = 0;
+	private boolean updated = false;
+
+	//====================================================================
+	//  コンストラクタ
+	//====================================================================
+	/**
+	 * 計測を開始する．
+	 *
+	 * @param histogram メッセージフィルタのヒストグラム
+	 * @param stats メッセージが属するリクエストの計測値
+	 */
+	FilterTimer(final Histogram histogram, final RequestStats stats){
+
+		this.histogram = histogram;
+		this.stats = stats;
+
+	}
+
+	//====================================================================
+	//  package private メソッド
+	//====================================================================
+	/**
+	 * メッセージフィルタの update メソッドが終わったことを通知する．
+	 * ストリームフィルタが登録されなかった場合は，この時点で記録します．
+	 *
+	 * @param elapsed update メソッドに費やした時間 (ナノ秒)
+	 */
+	synchronized void updated(final long elapsed){
+
+		this.nanos += elapsed;
+		this.updated = true;
+		if(this.open == 0){
+
+			this.record();
+
+		}
+
+	}
+
+	/**
+	 * ストリームフィルタを包み，費やした時間をこの計測に加えるようにする．
+	 *
+	 * @param filter 包むフィルタ
+	 * @return 計測するフィルタ
+	 */
+	EditingByteFilter wrap(final EditingByteFilter filter){
+
+		this.opened();
+		return new TimedEditingByteFilter(filter);
+
+	}
+
+	/**
+	 * ストリームフィルタを包み，費やした時間をこの計測に加えるようにする．
+	 *
+	 * @param filter 包むフィルタ
+	 * @return 計測するフィルタ
+	 */
+	ReadonlyByteFilter wrap(final ReadonlyByteFilter filter){
+
+		this.opened();
+		return new TimedReadonlyByteFilter(filter);
+
+	}
+
+	/**
+	 * ストリームフィルタを包み，費やした時間をこの計測に加えるようにする．
+	 *
+	 * @param filter 包むフィルタ
+	 * @return 計測するフィルタ
+	 */
+	EditingStringFilter wrap(final EditingStringFilter filter){
+
+		this.opened();
+		return new TimedEditingStringFilter(filter);
+
+	}
+
+	/**
+	 * ストリームフィルタを包み，費やした時間をこの計測に加えるようにする．
+	 *
+	 * @param filter 包むフィルタ
+	 * @return 計測するフィルタ
+	 */
+	ReadonlyStringFilter wrap(final ReadonlyStringFilter filter){
+
+		this.opened();
+		return new TimedReadonlyStringFilter(filter);
+
+	}
+
+	//====================================================================
+	//  private メソッド
+	//====================================================================
+	private synchronized void opened(){
+
+		++this.open;
+
+	}
+
+	/**
+	 * ストリームフィルタが閉じられたことを通知する．
+	 *
+	 * @param elapsed ストリームフィルタに費やした時間 (ナノ秒)
+	 */
+	private synchronized void closed(final long elapsed){
+
+		this.nanos += elapsed;
+		this.stats.addFilterTime(elapsed);
+		if(--this.open == 0 && this.updated){
+
+			this.record();
+
+		}
+
+	}
+
+	private void record(){
+
+		if(Metrics.Enabled){
+
+			this.histogram.record(this.nanos);
+
+		}
+
+	}
+
+	//====================================================================
+	//  内部クラス
+	//====================================================================
+	/**
+	 * ストリームフィルタの処理時間を合計し，閉じられた時に通知する．
+	 */
+	private abstract class Timed{
+
+		private long elapsed = 0;
+		private boolean closed = false;
+
+		/**
+		 * 開始時刻からの時間を加える．
+		 */
+		final void add(final long start){
+
+			this.elapsed += System.nanoTime() - start;
+
+		}
+
+		/**
+		 * 開始時刻からの時間を加えて，初めて閉じられた場合は通知する．
+		 */
+		final void finish(final long start){
+
+			this.add(start);
+			if(!this.closed){
+
+				this.closed = true;
+				FilterTimer.this.closed(this.elapsed);
+
+			}
+
+		}
+
+	}
+
+	private final class TimedEditingByteFilter extends Timed implements EditingByteFilter{
+
+		private final EditingByteFilter filter;
+
+		TimedEditingByteFilter(final EditingByteFilter filter){
+
+			this.filter = filter;
+
+		}
+
+		@Override
+		public ByteBuffer update(final ByteBuffer in){
+
+			final long start = System.nanoTime();
+			try{
+
+				return this.filter.update(in);
+
+			}finally{
+
+				this.add(start);
+
+			}
+
+		}
+
+		@Override
+		public void close(){
+
+			final long start = System.nanoTime();
+			try{
+
+				this.filter.close();
+
+			}finally{
+
+				this.finish(start);
+
+			}
+
+		}
+
+	}
+
+	private final class TimedReadonlyByteFilter extends Timed implements ReadonlyByteFilter{
+
+		private final ReadonlyByteFilter filter;
+
+		TimedReadonlyByteFilter(final ReadonlyByteFilter filter){
+
+			this.filter = filter;
+
+		}
+
+		@Override
+		public void update(final ByteBuffer in){
+
+			final long start = System.nanoTime();
+			try{
+
+				this.filter.update(in);
+
+			}finally{
+
+				this.add(start);
+
+			}
+
+		}
+
+		@Override
+		public void close(){
+
+			final long start = System.nanoTime();
+			try{
+
+				this.filter.close();
+
+			}finally{
+
+				this.finish(start);
+
+			}
+
+		}
+
+	}
+
+	private final class TimedEditingStringFilter extends Timed implements EditingStringFilter{
+
+		private final EditingStringFilter filter;
+
+		TimedEditingStringFilter(final EditingStringFilter filter){
+
+			this.filter = filter;
+
+		}
+
+		@Override
+		public String update(final String in){
+
+			final long start = System.nanoTime();
+			try{
+
+				return this.filter.update(in);
+
+			}finally{
+
+				this.add(start);
+
+			}
+
+		}
+
+		@Override
+		public void close(){
+
+			final long start = System.nanoTime();
+			try{
+
+				this.filter.close();
+
+			}finally{
+
+				this.finish(start);
+
+			}
+
+		}
+
+	}
+
+	private final class TimedReadonlyStringFilter extends Timed implements ReadonlyStringFilter{
+
+		private final ReadonlyStringFilter filter;
+
+		TimedReadonlyStringFilter(final ReadonlyStringFilter filter){
+
+			this.filter = filter;
+
+		}
+
+		@Override
+		public void update(final String in){
+
+			final long start = System.nanoTime();
+			try{
+
+				this.filter.update(in);
+
+			}finally{
+
+				this.add(start);
+
+			}
+
+		}
+
+		@Override
+		public void close(){
+
+			final long start = System.nanoTime();
+			try{
+
+				this.filter.close();
+
+			}finally{
+
+				this.finish(start);
+
+			}
+
+		}
+
+	}
+
+}
@@ -17,31 +17,37 @@
  */
 package nor.core.proxy;
 
-import java.io.BufferedReader;
 import java.io.Closeable;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.io.StringWriter;
 import java.net.InetSocketAddress;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.logging.Level;
 import java.util.regex.Pattern;
 
 import nor.core.plugin.Plugin;
 import nor.core.proxy.filter.MessageHandler;
 import nor.core.proxy.filter.RequestFilter;
 import nor.core.proxy.filter.ResponseFilter;
+import nor.http.HttpRequest;
+import nor.http.HttpResponse;
 import nor.http.server.HttpServer;
+import nor.http.server.h2server.HttpH2Server;
 import nor.http.server.local.ListResource;
+import nor.http.server.local.TextResource;
 import nor.http.server.nserver.HttpNServer;
 import nor.http.server.proxyserver.ProxyRequestHandler;
 import nor.http.server.proxyserver.Router;
 import nor.http.server.tserver.HttpTServer;
 import nor.util.log.Logger;
 
+import org.apache.velocity.Template;
 import org.apache.velocity.VelocityContext;
 import org.apache.velocity.app.VelocityEngine;
+import org.apache.velocity.exception.VelocityException;
+import org.apache.velocity.runtime.RuntimeConstants;
+import org.apache.velocity.runtime.resource.loader.ClasspathResourceLoader;
 
 /**
  * LocalProxyサブシステム．
@@ -74,11 +80,47 @@ public class ProxyServer implements Closeable{
 	 */
 	private final Router router;
 
+	/**
+	 * 最後に生成した PAC ファイル
+	 */
+	private volatile PAC pac;
+
+	/**
+	 * コンパイル済みの PAC テンプレート
+	 */
+	private static Template template;
+
+	private static final String PACTemplate = "nor/core/proxy/proxy.pac.vm";
+	private static final String PACPath = "/nor/core/proxy.pac";
+	private static final String PACType = "application/x-javascript-config";
+
 	/**
 	 * ロガー
 	 */
 	private static final Logger LOGGER = Logger.getLogger(ProxyServer.class);
 
+	/**
+	 * 使用する Http サーバの種類
+	 */
+	public enum ServerType{
+
+		/**
+		 * ノンブロッキング I/O を用いるサーバ (HTTP/1.1)
+		 */
+		NServer,
+
+		/**
+		 * スレッドプールを用いるサーバ (HTTP/1.1)
+		 */
+		TServer,
+
+		/**
+		 * HTTP/2 (h2c) に対応したサーバ
+		 */
+		H2Server
+
+	}
+
 	//====================================================================
 	//  コンストラクタ
 	//====================================================================
@@ -87,7 +129,11 @@ public class ProxyServer implements Closeable{
 	}
 
 	public ProxyServer(final ProxyRequestHandler handler, final Router router, final boolean useTServer){
-		LOGGER.entering("<init>", handler, router, useTServer);
+		this(handler, router, useTServer ? ServerType.TServer : ServerType.NServer);
+	}
+
+	public ProxyServer(final ProxyRequestHandler handler, final Router router, final ServerType type){
+		LOGGER.entering("<init>", handler, router, type);
 		assert handler != null;
 		assert router != null;
 
@@ -97,13 +143,18 @@ public class ProxyServer implements Closeable{
 
 		this.remoteHandler.attach(this.localHandler);
 
-		if(useTServer){
-
+		switch(type){
+		case TServer:
 			this.server = new HttpTServer(this.remoteHandler);
+			break;
 
-		}else{
+		case H2Server:
+			this.server = new HttpH2Server(this.remoteHandler);
+			break;
 
+		default:
 			this.server = new HttpNServer(this.remoteHandler);
+			break;
 
 		}
 		LOGGER.exiting("<init>");
@@ -233,6 +284,8 @@ public class ProxyServer implements Closeable{
 
 	/**
 	 * Get the PAC file for this proxy server.
+	 * The template is compiled once, and the rendered file is cached until
+	 * the routing table or the attached plugins change.
 	 *
 	 * @param host The address of this server.
 	 * @param port The listening port.
@@ -243,34 +296,183 @@ public class ProxyServer implements Closeable{
 	public String getPAC(final String host, final int port, final boolean ssh) throws IOException{
 		LOGGER.entering("getPAC", host, port, ssh);
 
-		final List<Object[]> routings = new ArrayList<Object[]>();
-		for(final Pattern pat : this.router.keySet()){
+		// Read the versions before rendering so that a change during rendering causes another one.
+		final int routerVersion = this.router.getVersion();
+		final int handlerVersion = this.remoteHandler.getVersion();
 
-			final InetSocketAddress addr = (InetSocketAddress)this.router.get(pat).address();
-			routings.add(new Object[]{pat.pattern(), addr.getHostName(), addr.getPort()});
+		PAC cur = this.pac;
+		if(cur == null || !cur.isFor(host, port, ssh, routerVersion, handlerVersion)){
 
-		}
+			final List<Object[]> routings = new ArrayList<Object[]>();
+			for(final Pattern pat : this.router.keySet()){
+
+				final InetSocketAddress addr = (InetSocketAddress)this.router.get(pat).address();
+
+				// Never ask reverse DNS for resolved addresses.
+				final String name = addr.isUnresolved() ? addr.getHostName() : addr.getAddress().getHostAddress();
+				routings.add(new Object[]{pat.pattern(), name, addr.getPort()});
+
+			}
+
+			final VelocityContext context = new VelocityContext();
+			context.put("ssh", ssh);
+			context.put("host", host);
+			context.put("port", port);
+			context.put("filters", this.remoteHandler.getHandlingURLPatterns());
+			context.put("routings", routings);
+
+			final StringWriter out = new StringWriter();
+			try{
 
-		final VelocityEngine velocity = new VelocityEngine();
-		velocity.init();
+				getTemplate().merge(context, out);
 
-		final VelocityContext context = new VelocityContext();
-		context.put("ssh", ssh);
-		context.put("host", host);
-		context.put("port", port);
-		context.put("filters", this.remoteHandler.getHandlingURLPatterns());
-		context.put("routings", routings);
+			}catch(final VelocityException e){
 
-		final Class<?> c = this.getClass();
-		final InputStream in = c.getResourceAsStream("proxy.pac.vm");
-		final StringWriter out = new StringWriter();
-		velocity.evaluate(context, out, "", new BufferedReader(new InputStreamReader(in)));
+				throw new IOException(e.getMessage());
 
-		final String res = out.toString();
+			}
+
+			cur = new PAC(host, port, ssh, routerVersion, handlerVersion, out.toString());
+			this.pac = cur;
+			LOGGER.fine("getPAC", "Render the PAC file (routes version {0}, plugins version {1})", routerVersion, handlerVersion);
+
+		}
+
+		final String res = cur.text;
 		LOGGER.exiting("getPAC", res);
 		return res;
 	}
 
+	/**
+	 * Register the PAC file for this proxy server as a local resource.
+	 * The registered resource renders the file again only when the routing table
+	 * or the attached plugins have been changed, and replaces its content at once.
+	 *
+	 * @param host The address of this server.
+	 * @param port The listening port.
+	 * @param ssh Whether does this server provide ssh proxy service.
+	 * @return The registered resource.
+	 * @throws IOException When some I/O exception happens.
+	 */
+	public TextResource publishPAC(final String host, final int port, final boolean ssh) throws IOException{
+		LOGGER.entering("publishPAC", host, port, ssh);
+
+		final TextResource res = new PACResource(host, port, ssh);
+		this.localResourceRoot().add(res);
+
+		LOGGER.exiting("publishPAC", res);
+		return res;
+	}
+
+	//====================================================================
+	//  private メソッド
+	//====================================================================
+	/**
+	 * PAC テンプレートを取得する．
+	 * 初めて呼ばれた時にテンプレートを読み込んでコンパイルします．
+	 */
+	private static synchronized Template getTemplate() throws IOException{
+
+		if(template == null){
+
+			try{
+
+				final VelocityEngine velocity = new VelocityEngine();
+				velocity.setProperty(RuntimeConstants.RESOURCE_LOADER, "class");
+				velocity.setProperty("class.resource.loader.class", ClasspathResourceLoader.class.getName());
+				velocity.init();
+
+				template = velocity.getTemplate(PACTemplate);
+
+			}catch(final VelocityException e){
+
+				throw new IOException(e.getMessage());
+
+			}
+
+		}
+		return template;
+
+	}
+
+	//====================================================================
+	//  内部クラス
+	//====================================================================
+	/**
+	 * 生成済みの PAC ファイルと，生成に用いたパラメータの組．
+	 */
+	private static final class PAC{
+
+		private final String host;
+		private final int port;
+		private final boolean ssh;
+		private final int routerVersion;
+		private final int handlerVersion;
+
+		private final String text;
+
+		public PAC(final String host, final int port, final boolean ssh, final int routerVersion, final int handlerVersion, final String text){
+
+			this.host = host;
+			this.port = port;
+			this.ssh = ssh;
+			this.routerVersion = routerVersion;
+			this.handlerVersion = handlerVersion;
+			this.text = text;
+
+		}
+
+		public boolean isFor(final String host, final int port, final boolean ssh, final int routerVersion, final int handlerVersion){
+
+			return this.host.equals(host) && this.port == port && this.ssh == ssh
+					&& this.routerVersion == routerVersion && this.handlerVersion == handlerVersion;
+
+		}
+
+	}
+
+	/**
+	 * PAC ファイルを提供するリソース．
+	 * リクエストの度に構成のバージョンを確認し，変わっていれば内容を差し替えます．
+	 */
+	private final class PACResource extends TextResource{
+
+		private final String host;
+		private final int port;
+		private final boolean ssh;
+
+		public PACResource(final String host, final int port, final boolean ssh) throws IOException{
+			super(PACPath, ProxyServer.this.getPAC(host, port, ssh), PACType);
+
+			this.host = host;
+			this.port = port;
+			this.ssh = ssh;
+
+		}
+
+		@Override
+		public HttpResponse doGet(final String path, final HttpRequest request){
+
+			try{
+
+				final String text = ProxyServer.this.getPAC(this.host, this.port, this.ssh);
+				if(!text.equals(this.getText())){
+
+					this.setText(text);
+
+				}
+
+			}catch(final IOException e){
+
+				LOGGER.catched(Level.WARNING, "doGet", e);
+
+			}
+			return super.doGet(path, request);
+
+		}
+
+	}
+
 	//====================================================================
 	//  テスト用のMain
 	//====================================================================
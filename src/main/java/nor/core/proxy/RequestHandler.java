@@ -20,12 +20,14 @@ package nor.core.proxy;
 import java.io.InputStream;
 import java.nio.channels.SocketChannel;
 import java.nio.charset.Charset;
-import java.nio.charset.IllegalCharsetNameException;
-import java.nio.charset.UnsupportedCharsetException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
-import java.util.logging.Level;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.MatchResult;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -37,14 +39,19 @@ import nor.core.proxy.filter.ReadonlyByteFilter;
 import nor.core.proxy.filter.ReadonlyStringFilter;
 import nor.core.proxy.filter.RequestFilter;
 import nor.core.proxy.filter.ResponseFilter;
+import nor.http.ContentType;
 import nor.http.HeaderName;
 import nor.http.HttpHeader;
 import nor.http.HttpMessage;
 import nor.http.HttpRequest;
 import nor.http.HttpResponse;
+import nor.http.RequestStats;
 import nor.http.error.HttpException;
 import nor.http.server.HttpRequestHandler;
+import nor.util.BoundedCache;
 import nor.util.log.Logger;
+import nor.util.metrics.Histogram;
+import nor.util.metrics.Metrics;
 
 /**
  * nor システム用 HTTP リクエストハンドラ
@@ -69,6 +76,16 @@ class RequestHandler implements HttpRequestHandler{
 	 */
 	private final Collection<MessageHandler> handlers = new ArrayList<MessageHandler>();
 
+	/**
+	 * ハンドラとフィルタの構成のバージョン
+	 */
+	private final AtomicInteger version = new AtomicInteger();
+
+	/**
+	 * フィルタごとの，コンテンツタイプと getFilteringContentType の照合結果
+	 */
+	private final ConcurrentMap<MessageFilter<?>, Map<String, MatchResult>> contentTypeMatches = new ConcurrentHashMap<MessageFilter<?>, Map<String, MatchResult>>();
+
 
 	/**
 	 * Default request handler
@@ -80,10 +97,28 @@ class RequestHandler implements HttpRequestHandler{
 	 */
 	private static final Logger LOGGER = Logger.getLogger(RequestHandler.class);
 
+	/**
+	 * フィルタのクラスごとの，update メソッドと登録したストリームフィルタの時間
+	 */
+	private static final ConcurrentMap<Class<?>, Histogram> FilterTimes = new ConcurrentHashMap<Class<?>, Histogram>();
+
 	private static final String Handler = "x-nor-handler";
 	private static final String Filter = "x-nor-filter";
 	private static final String OldContentLength = "x-nor-old-content-length";
 
+	/**
+	 * コンテンツタイプがフィルタに一致しなかったことを表す照合結果
+	 */
+	private static final MatchResult Unmatched;
+
+	static{
+
+		final Matcher m = Pattern.compile("").matcher("");
+		m.find();
+		Unmatched = m.toMatchResult();
+
+	}
+
 
 	//====================================================================
 	//  Constructer
@@ -109,8 +144,10 @@ class RequestHandler implements HttpRequestHandler{
 
 		HttpResponse response = null;
 
-		// リクエストのフィルタリング
+		// リクエストのフィルタリング (ボディを処理するストリームフィルタの時間は，書き出し中に FilterTimer が加える)
+		long start = System.nanoTime();
 		this.doFiltering(request, this.requestFilters);
+		request.getStats().addFilterTime(System.nanoTime() - start);
 
 		// 他のハンドラがインストールされている場合はそれを実行する
 		final String path = request.getPath();
@@ -140,7 +177,9 @@ class RequestHandler implements HttpRequestHandler{
 		assert response != null;
 
 		// レスポンスのフィルタリング
+		start = System.nanoTime();
 		this.doFiltering(response, this.responseFilters);
+		request.getStats().addFilterTime(System.nanoTime() - start);
 
 		LOGGER.exiting("doRequest", response);
 		return response;
@@ -181,6 +220,18 @@ class RequestHandler implements HttpRequestHandler{
 
 	}
 
+	/**
+	 * ハンドラとフィルタの構成のバージョンを取得する．
+	 * ハンドラかフィルタが追加・削除されるたびに値が変わります．
+	 *
+	 * @return 構成のバージョン
+	 */
+	public int getVersion(){
+
+		return this.version.get();
+
+	}
+
 	//--------------------------------------------------------------------
 	//  Requestハンドラの管理
 	//--------------------------------------------------------------------
@@ -195,6 +246,7 @@ class RequestHandler implements HttpRequestHandler{
 		if(handler != null){
 
 			this.handlers.add(handler);
+			this.version.incrementAndGet();
 
 		}
 
@@ -212,6 +264,7 @@ class RequestHandler implements HttpRequestHandler{
 		if(handler != null){
 
 			this.handlers.remove(handler);
+			this.version.incrementAndGet();
 
 		}
 
@@ -232,6 +285,7 @@ class RequestHandler implements HttpRequestHandler{
 		if(filter != null){
 
 			this.requestFilters.add(filter);
+			this.version.incrementAndGet();
 
 		}
 
@@ -249,6 +303,8 @@ class RequestHandler implements HttpRequestHandler{
 		if(filter != null){
 
 			this.requestFilters.remove(filter);
+			this.contentTypeMatches.remove(filter);
+			this.version.incrementAndGet();
 
 		}
 
@@ -269,6 +325,7 @@ class RequestHandler implements HttpRequestHandler{
 		if(filter != null){
 
 			this.responseFilters.add(filter);
+			this.version.incrementAndGet();
 
 		}
 
@@ -286,6 +343,8 @@ class RequestHandler implements HttpRequestHandler{
 		if(filter != null){
 
 			this.responseFilters.remove(filter);
+			this.contentTypeMatches.remove(filter);
+			this.version.incrementAndGet();
 
 		}
 
@@ -295,41 +354,94 @@ class RequestHandler implements HttpRequestHandler{
 	//====================================================================
 	// Private methods
 	//====================================================================
-	private <Message extends HttpMessage, Filter extends MessageFilter<Message>>
-	void doFiltering(final Message msg, final Collection<Filter> filters){
+	/**
+	 * フィルタのクラスに対応するヒストグラムを取得する．
+	 */
+	private static Histogram filterTime(final Object filter){
 
-		// 文字コードの取得
-		Charset charset = null;
-		final HttpHeader header = msg.getHeader();
-		if(header.containsKey(HeaderName.ContentType)){
+		final Class<?> c = filter.getClass();
+		Histogram ret = FilterTimes.get(c);
+		if(ret == null){
 
-			final Pattern pat = Pattern.compile("charset=(\\S+)");
-			final Matcher m = pat.matcher(header.get(HeaderName.ContentType));
+			ret = Metrics.histogram("nor_filter_seconds", "Time spent in each message filter per message, including the stream filters it registered.", "filter", c.getName());
+			FilterTimes.putIfAbsent(c, ret);
 
-			if(m.find()){
+		}
+		return ret;
 
-				try{
+	}
 
-					charset = Charset.forName(m.group(1).toUpperCase());
+	/**
+	 * コンテンツタイプをフィルタの getFilteringContentType に照合する．
+	 * 照合結果はフィルタとコンテンツタイプの組ごとに記憶されます．
+	 *
+	 * @param filter フィルタ
+	 * @param type コンテンツタイプを表す文字列
+	 * @return 照合結果，一致しない場合は null
+	 */
+	private MatchResult matchContentType(final MessageFilter<?> filter, final String type){
 
-				}catch(final UnsupportedCharsetException e){
+		Map<String, MatchResult> memo = this.contentTypeMatches.get(filter);
+		if(memo == null){
 
-					LOGGER.warning("doFiltering", e.getMessage());
-					LOGGER.catched(Level.FINE, "doFiltering", e);
+			memo = new BoundedCache<String, MatchResult>(64);
+			final Map<String, MatchResult> prev = this.contentTypeMatches.putIfAbsent(filter, memo);
+			if(prev != null){
 
-				}catch(final IllegalCharsetNameException e){
+				memo = prev;
 
-					LOGGER.warning("doFiltering", e.getMessage());
-					LOGGER.catched(Level.FINE, "doFiltering", e);
+			}
 
-				}
+		}
 
-			}
+		MatchResult ret = memo.get(type);
+		if(ret == null){
+
+			final Matcher m = filter.getFilteringContentType().matcher(type);
+			ret = m.find() ? m.toMatchResult() : Unmatched;
+			memo.put(type, ret);
 
 		}
+		return ret != Unmatched ? ret : null;
+
+	}
+
+	/**
+	 * メッセージフィルタを適用する．
+	 * フィルタが登録したストリームフィルタは計測用に包まれ，メッセージボディの書き出し中に費やした時間も
+	 * このフィルタのヒストグラムとリクエストの計測値に加えられます．
+	 */
+	private <Message extends HttpMessage> void update(final MessageFilter<Message> f, final Message msg, final MatchResult url, final MatchResult cType, final FilterRegisterImpl register, final RequestStats stats){
+
+		final FilterTimer timer = new FilterTimer(filterTime(f), stats);
+		register.setTimer(timer);
+
+		final long start = System.nanoTime();
+		try{
+
+			f.update(msg, url, cType, register);
+
+		}finally{
+
+			register.setTimer(null);
+			timer.updated(System.nanoTime() - start);
+
+		}
+		msg.getHeader().add(Filter, f.getClass().getName());
+
+	}
+
+	private <Message extends HttpMessage, Filter extends MessageFilter<Message>>
+	void doFiltering(final Message msg, final Collection<Filter> filters){
+
+		// 文字コードの取得 (解析済みのコンテンツタイプは共有される)
+		final HttpHeader header = msg.getHeader();
+		final String type = header.get(HeaderName.ContentType);
+		Charset charset = type != null ? ContentType.valueOf(type).toCharset() : null;
 
 		// メッセージフィルタに対してメッセージボディフィルタが必要か尋ねる
 		final FilterRegisterImpl register = new FilterRegisterImpl();
+		final RequestStats stats = msg instanceof HttpResponse ? ((HttpResponse)msg).getRequest().getStats() : ((HttpRequest)msg).getStats();
 		final String path = msg.getPath();
 		for(final MessageFilter<Message> f : filters){
 
@@ -340,20 +452,18 @@ class RequestHandler implements HttpRequestHandler{
 			final Matcher url = f.getFilteringURL().matcher(path);
 			if(url.find()){
 
-				if(header.containsKey(HeaderName.ContentType)){
+				if(type != null){
 
-					final Matcher cType = f.getFilteringContentType().matcher(header.get(HeaderName.ContentType));
-					if(cType.find()){
+					final MatchResult cType = this.matchContentType(f, type);
+					if(cType != null){
 
-						f.update(msg, url, cType, register);
-						header.add(Filter, f.getClass().getName());
+						this.update(f, msg, url, cType, register, stats);
 
 					}
 
 				}else{
 
-					f.update(msg, url, null, register);
-					header.add(Filter, f.getClass().getName());
+					this.update(f, msg, url, null, register, stats);
 
 				}
 
@@ -361,22 +471,32 @@ class RequestHandler implements HttpRequestHandler{
 
 		}
 
-		// フィルタリング要求があった場合，入力ストリームにフィルタを接続 (バイナリストリーム > テキストストリームの順)
-		InputStream in = msg.getBody();
+		// 部分コンテンツはバイト列が Content-Range と一致しなければならないため，読み取り専用のバイナリフィルタのみ適用する
+		if(msg instanceof HttpResponse && ((HttpResponse)msg).isPartial()){
 
-		// バイナリフィルタの設定
+			register.retainReadonlyByteFilters();
+
+		}
+
+		// フィルタリング要求があった場合，入力ストリームにフィルタを接続 (バイナリストリーム > テキストストリームの順)
 		final List<EditingByteFilter> editingByteFilters = register.getEditingByteFilters();
 		final List<ReadonlyByteFilter> readonlyByteFilters = register.getReadonlyByteFilters();
-		if(editingByteFilters.size() != 0 || readonlyByteFilters.size() != 0){
+		final List<EditingStringFilter> editingStringFilters = register.getEditingStringFilters();
+		final List<ReadonlyStringFilter> readonlyStringFilters = register.getReadonlyStringFilters();
+
+		// ボディフィルタがなければボディに触れない（内容コーディング済みのボディをそのまま送るため）
+		final boolean filtering = editingByteFilters.size() != 0 || readonlyByteFilters.size() != 0 || editingStringFilters.size() != 0 || readonlyStringFilters.size() != 0;
+		InputStream in = filtering ? msg.getBody() : null;
+
+		// バイナリフィルタの設定
+		if(in != null && (editingByteFilters.size() != 0 || readonlyByteFilters.size() != 0)){
 
 			in = new FilteringByteInputStream(in, editingByteFilters, readonlyByteFilters);
 
 		}
 
 		// テキストフィルタの設定
-		final List<EditingStringFilter> editingStringFilters = register.getEditingStringFilters();
-		final List<ReadonlyStringFilter> readonlyStringFilters = register.getReadonlyStringFilters();
-		if(editingStringFilters.size() != 0 || readonlyStringFilters.size() != 0){
+		if(in != null && (editingStringFilters.size() != 0 || readonlyStringFilters.size() != 0)){
 
 			if(charset == null){
 
@@ -408,7 +528,11 @@ class RequestHandler implements HttpRequestHandler{
 			}
 
 		}
-		msg.setBody(in);
+		if(filtering){
+
+			msg.setBody(in);
+
+		}
 
 
 		if(header.containsKey(HeaderName.ContentLength)){
@@ -424,7 +548,7 @@ class RequestHandler implements HttpRequestHandler{
 			}
 
 			// 内容コーディングが指定されている場合，最終的なデータサイズが不明のためチャンク形式にする
-			if(header.containsKey(HeaderName.ContentEncoding)){
+			if(header.containsKey(HeaderName.ContentEncoding) && !msg.isBodyEncoded()){
 
 				header.set(OldContentLength, header.get(HeaderName.ContentLength));
 				header.remove(HeaderName.ContentLength);
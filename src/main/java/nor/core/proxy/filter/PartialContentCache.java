@@ -0,0 +1,631 @@
+/*
+ *  Copyright (C) 2011 Junpei Kawamoto
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package nor.core.proxy.filter;
+
+import java.io.File;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.logging.Level;
+import java.util.regex.MatchResult;
+import java.util.regex.Pattern;
+
+import nor.http.ContentRange;
+import nor.http.HeaderName;
+import nor.http.HttpHeader;
+import nor.http.HttpRequest;
+import nor.http.HttpResponse;
+import nor.http.Method;
+import nor.http.Range;
+import nor.http.Status;
+import nor.util.log.Logger;
+
+/**
+ * 範囲要求に対応した部分コンテンツキャッシュ．
+ * 200 OK と 206 Partial Content のレスポンスのボディを URL ごとの {@link PartialContentFile} に保存し，
+ * 揃っている範囲への GET リクエストにはキャッシュから応答します．
+ * 範囲要求の一部しか揃っていない場合は，欠けている範囲だけを上流に要求し，
+ * 届いたボディの前後をキャッシュから補って元の要求に対するレスポンスを組み立てます．
+ * 範囲要求をしていないリクエストは書き換えずに上流へ送り，200 OK のボディで欠けている部分を埋めます．
+ * 上流が要求とは別の範囲を返して前後を補えない場合，クライアントに届くのは上流の 206 Partial Content とその Content-Range です．
+ *
+ * 次のように，{@link #getMessageHandler()} と {@link #getResponseFilter()} の両方をプラグインから登録して使います．
+ * メッセージハンドラは，キャッシュから応答できない場合に Range ヘッダを書き換えて null を返し，
+ * リクエストをそのまま上流へ送らせます．
+ * <pre>
+ * public MessageHandler[] messageHandlers(){
+ *     return new MessageHandler[]{ cache.getMessageHandler() };
+ * }
+ * public ResponseFilter[] responseFilters(){
+ *     return new ResponseFilter[]{ cache.getResponseFilter() };
+ * }
+ * </pre>
+ *
+ * 欠けている範囲が複数ある場合は，最初の欠けている位置から最後の欠けている位置までをまとめて一つの範囲として要求するため，
+ * 間にある揃っている範囲も取得し直します．
+ * multipart/byteranges のレスポンスや内容コーディングされたレスポンスは保存しません．
+ *
+ * @author Junpei Kawamoto
+ * @since 0.3
+ */
+public class PartialContentCache{
+
+	private final File dir;
+	private final Pattern url;
+	private final int blockSize;
+
+	/**
+	 * 開いているキャッシュファイル．同じ URL に対する書き込みは一つのインスタンスにまとめる
+	 */
+	private final Map<String, Entry> opened = new HashMap<String, Entry>();
+
+	/**
+	 * メッセージハンドラが処理したリクエストとその計画
+	 */
+	private final Map<HttpRequest, Plan> plans = Collections.synchronizedMap(new WeakHashMap<HttpRequest, Plan>());
+
+	/**
+	 * キャッシュから応答したことを表す計画
+	 */
+	private static final Plan Served = new Plan(null);
+
+	private static final Logger LOGGER = Logger.getLogger(PartialContentCache.class);
+
+	//============================================================================
+	//  Constructor
+	//============================================================================
+	/**
+	 * キャッシュを作成する．
+	 *
+	 * @param dir キャッシュファイルを置くディレクトリ
+	 * @param urlRegex キャッシュする URL の正規表現文字列
+	 */
+	public PartialContentCache(final File dir, final String urlRegex){
+		this(dir, Pattern.compile(urlRegex), PartialContentFile.DefaultBlockSize);
+	}
+
+	/**
+	 * キャッシュを作成する．
+	 *
+	 * @param dir キャッシュファイルを置くディレクトリ
+	 * @param url キャッシュする URL
+	 * @param blockSize 新しく作るキャッシュファイルのブロックの大きさ
+	 */
+	public PartialContentCache(final File dir, final Pattern url, final int blockSize){
+		LOGGER.entering("<init>", dir, url, blockSize);
+
+		this.dir = dir;
+		this.url = url;
+		this.blockSize = blockSize;
+		dir.mkdirs();
+
+		LOGGER.exiting("<init>");
+	}
+
+	//============================================================================
+	//  Public methods
+	//============================================================================
+	/**
+	 * キャッシュから応答するメッセージハンドラを取得する．
+	 *
+	 * @return メッセージハンドラ
+	 */
+	public MessageHandler getMessageHandler(){
+
+		return new MessageHandlerAdapter(this.url){
+
+			@Override
+			public HttpResponse doRequest(final HttpRequest request, final MatchResult url){
+
+				return PartialContentCache.this.doRequest(request);
+
+			}
+
+		};
+
+	}
+
+	/**
+	 * レスポンスを保存し，部分的な応答を組み立てるレスポンスフィルタを取得する．
+	 *
+	 * @return レスポンスフィルタ
+	 */
+	public ResponseFilter getResponseFilter(){
+
+		return new ResponseFilterAdapter(this.url, Pattern.compile("")){
+
+			@Override
+			public void update(final HttpResponse msg, final MatchResult url, final MatchResult cType, final FilterRegister register){
+
+				PartialContentCache.this.update(msg, register);
+
+			}
+
+		};
+
+	}
+
+	//============================================================================
+	//  Private methods
+	//============================================================================
+	/**
+	 * キャッシュから応答するか，欠けている範囲だけを要求するようリクエストを書き換える．
+	 *
+	 * @param request リクエスト
+	 * @return キャッシュから応答する場合はレスポンス，上流へ送る場合は null
+	 */
+	private HttpResponse doRequest(final HttpRequest request){
+		LOGGER.entering("doRequest", request);
+
+		HttpResponse ret = null;
+		final HttpHeader header = request.getHeader();
+		final List<Range> requested = request.getRanges();
+		if(request.getMethod() != Method.GET || (header.containsKey(HeaderName.Range) && requested == null)){
+
+			LOGGER.exiting("doRequest", ret);
+			return ret;
+
+		}
+
+		Entry e = null;
+		try{
+
+			e = this.acquire(request.getPath(), false);
+			if(e == null){
+
+				LOGGER.exiting("doRequest", ret);
+				return ret;
+
+			}
+
+			final PartialContentFile file = e.file;
+			final long length = file.getLength();
+			final String validator = file.getETag() != null ? file.getETag() : file.getLastModified();
+			if(length <= 0 || validator == null){
+
+				LOGGER.exiting("doRequest", ret);
+				return ret;
+
+			}
+
+			// If-Range が成立しない場合は範囲要求を無視してオブジェクト全体を対象にする
+			List<Range> ranges = null;
+			if(requested != null && Range.matchesIfRange(header.get(HeaderName.IfRange), file.getETag(), file.getLastModified())){
+
+				ranges = Range.coalesce(requested, length);
+				if(ranges.size() != 1){
+
+					// 満たせない範囲や複数の範囲は上流に任せる
+					LOGGER.exiting("doRequest", ret);
+					return ret;
+
+				}
+
+			}
+			final Range target = ranges != null ? ranges.get(0) : new Range(0, length - 1);
+
+			final List<Range> missing = file.missing(target.getFirst(), target.getLast());
+			if(missing.isEmpty()){
+
+				final InputStream body = new ReleasingInputStream(file.openStream(target.getFirst(), target.getLast()), e);
+				e = null;
+
+				ret = request.createResponse(ranges != null ? Status.PartialContent : Status.OK, body, target.getLength());
+				final HttpHeader res = ret.getHeader();
+				if(ranges != null){
+
+					res.set(HeaderName.ContentRange, target.toContentRange(length).toString());
+
+				}
+				res.set(HeaderName.AcceptRanges, Range.Unit);
+				if(file.getContentType() != null){
+
+					res.set(HeaderName.ContentType, file.getContentType());
+
+				}
+				if(file.getETag() != null){
+
+					res.set(HeaderName.ETag, file.getETag());
+
+				}
+				if(file.getLastModified() != null){
+
+					res.set(HeaderName.LastModified, file.getLastModified());
+
+				}
+				this.plans.put(request, Served);
+
+			}else if(ranges != null){
+
+				// 最初と最後の欠けている位置の間だけを，キャッシュと同じオブジェクトである場合に限って要求する
+				// 範囲要求をしていないクライアントには 206 を返せないため，書き換えるのは範囲要求だけとする
+				final long first = Math.max(target.getFirst(), missing.get(0).getFirst());
+				final long last = Math.min(target.getLast(), missing.get(missing.size() - 1).getLast());
+				if(first != target.getFirst() || last != target.getLast()){
+
+					header.set(HeaderName.Range, Range.format(Collections.singletonList(new Range(first, last))));
+					header.set(HeaderName.IfRange, validator);
+					this.plans.put(request, new Plan(target));
+
+				}
+
+			}
+
+		}catch(final IOException ex){
+
+			LOGGER.warning("doRequest", ex.getMessage());
+			LOGGER.catched(Level.FINE, "doRequest", ex);
+
+		}finally{
+
+			if(e != null){
+
+				this.release(e);
+
+			}
+
+		}
+
+		LOGGER.exiting("doRequest", ret);
+		return ret;
+
+	}
+
+	/**
+	 * レスポンスのボディを保存するフィルタを登録し，必要なら前後をキャッシュから補う．
+	 *
+	 * @param response レスポンス
+	 * @param register フィルタの登録先
+	 */
+	private void update(final HttpResponse response, final FilterRegister register){
+		LOGGER.entering("update", response, register);
+
+		final HttpRequest request = response.getRequest();
+		final Plan plan = this.plans.remove(request);
+		final HttpHeader header = response.getHeader();
+		if(plan == Served || request.getMethod() != Method.GET || header.containsKey(HeaderName.ContentEncoding)){
+
+			LOGGER.exiting("update");
+			return;
+
+		}
+
+		// ボディが運ぶ範囲と全体の長さ
+		final long total;
+		final long offset;
+		final long count;
+		final ContentRange range = response.getContentRange();
+		if(response.getCode() == Status.OK.getCode()){
+
+			total = contentLength(header);
+			offset = 0;
+			count = total;
+
+		}else if(response.isPartial() && range != null && !range.isUnsatisfied() && range.getInstanceLength() != -1){
+
+			total = range.getInstanceLength();
+			offset = range.getFirst();
+			count = range.getLength();
+
+		}else{
+
+			LOGGER.exiting("update");
+			return;
+
+		}
+		if(total < 0){
+
+			LOGGER.exiting("update");
+			return;
+
+		}
+
+		final String etag = header.get(HeaderName.ETag);
+		final String lastModified = header.get(HeaderName.LastModified);
+		Entry e = null;
+		try{
+
+			e = this.acquire(request.getPath(), true);
+
+			final PartialContentFile file = e.file;
+			StoringPartialContentFilter filter = null;
+			synchronized(file){
+
+				if(!file.isSameEntity(total, etag, lastModified)){
+
+					file.reset(total, etag, lastModified, header.get(HeaderName.ContentType));
+
+				}
+
+				final long last = offset + count - 1;
+				if(plan != null && response.isPartial() && offset >= plan.target.getFirst() && last <= plan.target.getLast()
+						&& contentLength(header) == count && this.covered(file, plan.target, offset, last)){
+
+					// 要求された範囲の前後をキャッシュから補い，上流から届いた部分だけを保存する
+					// 上流が要求したものと別の範囲を返しても，クライアントの範囲に収まり前後が揃っていれば補える
+					final Range target = plan.target;
+					final List<InputStream> parts = new ArrayList<InputStream>(3);
+					if(target.getFirst() < offset){
+
+						parts.add(file.openStream(target.getFirst(), offset - 1));
+
+					}
+					parts.add(response.getBody());
+					if(last < target.getLast()){
+
+						parts.add(file.openStream(last + 1, target.getLast()));
+
+					}
+					response.setBody(new SequenceInputStream(Collections.enumeration(parts)));
+					header.set(HeaderName.ContentLength, Long.toString(target.getLength()));
+					header.set(HeaderName.ContentRange, target.toContentRange(total).toString());
+					filter = new StoringPartialContentFilter(file, offset, offset - target.getFirst(), count);
+
+				}else{
+
+					filter = new StoringPartialContentFilter(file, offset, 0, count);
+
+				}
+
+			}
+
+			final Entry entry = e;
+			filter.addListener(new StoringToFileFilter.CloseEventListener(){
+
+				@Override
+				public void close(final boolean succeeded){
+
+					PartialContentCache.this.release(entry);
+
+				}
+
+			});
+			register.add(filter);
+			e = null;
+
+		}catch(final IOException ex){
+
+			LOGGER.warning("update", ex.getMessage());
+			LOGGER.catched(Level.FINE, "update", ex);
+
+		}finally{
+
+			if(e != null){
+
+				this.release(e);
+
+			}
+
+		}
+
+		LOGGER.exiting("update");
+	}
+
+	/**
+	 * 上流から届いた範囲の前後で，クライアントが要求した範囲に含まれる部分がキャッシュに揃っているか調べる．
+	 *
+	 * @param file キャッシュファイル
+	 * @param target クライアントが要求した範囲
+	 * @param first 上流から届いた範囲の開始位置
+	 * @param last 上流から届いた範囲の終了位置
+	 * @return 揃っている場合 true
+	 */
+	private boolean covered(final PartialContentFile file, final Range target, final long first, final long last){
+
+		return (target.getFirst() == first || file.isCovered(target.getFirst(), first - 1))
+				&& (last == target.getLast() || file.isCovered(last + 1, target.getLast()));
+
+	}
+
+	/**
+	 * URL に対応するキャッシュファイルを開いて参照を得る．
+	 *
+	 * @param path URL
+	 * @param create ファイルがない場合に作成するなら true
+	 * @return エントリ．作成しない場合でファイルがなければ null
+	 * @throws IOException ファイルを開けない場合
+	 */
+	private Entry acquire(final String path, final boolean create) throws IOException{
+
+		final String name = digest(path);
+		synchronized(this.opened){
+
+			Entry e = this.opened.get(name);
+			if(e == null){
+
+				final File f = new File(this.dir, name);
+				if(!create && !f.exists()){
+
+					return null;
+
+				}
+				e = new Entry(name, new PartialContentFile(f, this.blockSize));
+				this.opened.put(name, e);
+
+			}
+			++e.refs;
+			return e;
+
+		}
+
+	}
+
+	/**
+	 * キャッシュファイルの参照を返す．最後の参照が返されるとファイルを閉じる．
+	 *
+	 * @param e エントリ
+	 */
+	private void release(final Entry e){
+
+		synchronized(this.opened){
+
+			if(--e.refs == 0){
+
+				this.opened.remove(e.name);
+				try{
+
+					e.file.close();
+
+				}catch(final IOException ex){
+
+					LOGGER.warning("release", ex.getMessage());
+					LOGGER.catched(Level.FINE, "release", ex);
+
+				}
+
+			}
+
+		}
+
+	}
+
+	/**
+	 * Content-Length ヘッダの値を取得する．
+	 *
+	 * @param header ヘッダ
+	 * @return 値．ない場合や解析できない場合は -1
+	 */
+	private static long contentLength(final HttpHeader header){
+
+		final String v = header.get(HeaderName.ContentLength);
+		if(v != null){
+
+			try{
+
+				return Long.parseLong(v.trim());
+
+			}catch(final NumberFormatException e){
+
+				LOGGER.fine("contentLength", "Invalid Content-Length {0}", v);
+
+			}
+
+		}
+		return -1;
+
+	}
+
+	/**
+	 * URL からキャッシュファイルの名前を作る．
+	 *
+	 * @param path URL
+	 * @return ファイル名
+	 */
+	private static String digest(final String path){
+
+		try{
+
+			final byte[] hash = MessageDigest.getInstance("MD5").digest(path.getBytes("UTF-8"));
+			final StringBuilder ret = new StringBuilder(hash.length * 2);
+			for(final byte b : hash){
+
+				ret.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+
+			}
+			return ret.toString();
+
+		}catch(final NoSuchAlgorithmException e){
+
+			return Integer.toHexString(path.hashCode());
+
+		}catch(final IOException e){
+
+			return Integer.toHexString(path.hashCode());
+
+		}
+
+	}
+
+	//============================================================================
+	//  Inner classes
+	//============================================================================
+	/**
+	 * 参照を数えられた開いているキャッシュファイル．
+	 */
+	private static final class Entry{
+
+		final String name;
+		final PartialContentFile file;
+		int refs = 0;
+
+		Entry(final String name, final PartialContentFile file){
+
+			this.name = name;
+			this.file = file;
+
+		}
+
+	}
+
+	/**
+	 * 欠けている範囲だけを上流に要求したリクエストの計画．
+	 */
+	private static final class Plan{
+
+		/**
+		 * クライアントが要求した範囲
+		 */
+		final Range target;
+
+		Plan(final Range target){
+
+			this.target = target;
+
+		}
+
+	}
+
+	/**
+	 * 閉じた時にキャッシュファイルの参照を返す入力ストリーム．
+	 */
+	private final class ReleasingInputStream extends FilterInputStream{
+
+		private Entry entry;
+
+		ReleasingInputStream(final InputStream in, final Entry entry){
+
+			super(in);
+			this.entry = entry;
+
+		}
+
+		@Override
+		public void close() throws IOException{
+
+			super.close();
+			if(this.entry != null){
+
+				PartialContentCache.this.release(this.entry);
+				this.entry = null;
+
+			}
+
+		}
+
+	}
+
+}
@@ -0,0 +1,651 @@
+/*
+ *  Copyright (C) 2011 Junpei Kawamoto
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package nor.core.proxy.filter;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import nor.http.Range;
+import nor.util.log.Logger;
+
+/**
+ * 部分的に取得したオブジェクトを保存する疎なキャッシュファイル．
+ * 複数の 206 Partial Content レスポンスが運ぶバイト範囲を，オブジェクト内の位置にそのまま書き込みます．
+ * どのブロックが揃っているかはビットマップで管理し，データファイルと並べて置くマップファイルに保存します．
+ *
+ * ブロックは，一度の書き込みで全体が埋まった時にだけ揃ったものとみなします．
+ * {@link #missing(long, long)} が返す範囲はブロック境界に揃っているため，その範囲を取得して書き込めば必ず揃います．
+ * マップファイルはデータをディスクに書き出した後で置き換えるため，異常終了しても，
+ * 揃っていると記録されたブロックの内容は常に正しいものです．
+ *
+ * <pre>
+ * map = "NPC" version(1 byte) blockSize(int) length(long) etag(UTF) lastModified(UTF) contentType(UTF)
+ *       words(int) *bitmap(long)
+ * </pre>
+ *
+ * @author Junpei Kawamoto
+ * @since 0.3
+ */
+public final class PartialContentFile implements Closeable{
+
+	/**
+	 * ブロックの標準の大きさ
+	 */
+	public static final int DefaultBlockSize = 64 * 1024;
+
+	private static final byte[] Magic = {'N', 'P', 'C', 1};
+	private static final String MapSuffix = ".map";
+	private static final String TmpSuffix = ".tmp";
+
+	private final File file;
+	private final File map;
+	private final RandomAccessFile raf;
+	private final FileChannel channel;
+
+	private int blockSize;
+	private long length = -1;
+	private String etag = null;
+	private String lastModified = null;
+	private String contentType = null;
+
+	/**
+	 * 揃っているブロックのビットマップ
+	 */
+	private long[] coverage = new long[0];
+	private boolean dirty = false;
+
+	private static final Logger LOGGER = Logger.getLogger(PartialContentFile.class);
+
+	//============================================================================
+	//  Constructor
+	//============================================================================
+	/**
+	 * 標準のブロックの大きさでキャッシュファイルを開く．
+	 *
+	 * @param file データファイル
+	 * @throws IOException ファイルを開けない場合
+	 */
+	public PartialContentFile(final File file) throws IOException{
+		this(file, DefaultBlockSize);
+	}
+
+	/**
+	 * キャッシュファイルを開く．
+	 * マップファイルがあれば，保存されているブロックの大きさと揃っている範囲を読み込みます．
+	 * マップファイルがないか壊れている場合は，何も揃っていない状態から始めます．
+	 *
+	 * @param file データファイル
+	 * @param blockSize 新しく作る場合のブロックの大きさ
+	 * @throws IOException ファイルを開けない場合
+	 */
+	public PartialContentFile(final File file, final int blockSize) throws IOException{
+		LOGGER.entering("<init>", file, blockSize);
+
+		if(blockSize <= 0){
+
+			throw new IllegalArgumentException("blockSize must be positive");
+
+		}
+		this.file = file;
+		this.map = new File(file.getPath() + MapSuffix);
+		this.blockSize = blockSize;
+
+		if(this.map.exists()){
+
+			try{
+
+				this.load();
+
+			}catch(final IOException e){
+
+				LOGGER.warning("<init>", "Ignore a broken coverage map {0}", this.map);
+				this.length = -1;
+				this.etag = null;
+				this.lastModified = null;
+				this.contentType = null;
+				this.coverage = new long[0];
+				this.blockSize = blockSize;
+
+			}
+
+		}
+
+		this.raf = new RandomAccessFile(file, "rw");
+		this.channel = this.raf.getChannel();
+
+		LOGGER.exiting("<init>");
+	}
+
+	//============================================================================
+	//  Public methods
+	//============================================================================
+	/**
+	 * オブジェクト全体の長さを取得する．
+	 *
+	 * @return 全体の長さ．不明な場合は -1
+	 */
+	public synchronized long getLength(){
+
+		return this.length;
+
+	}
+
+	/**
+	 * 保存しているオブジェクトのエンティティタグを取得する．
+	 *
+	 * @return エンティティタグ．不明な場合は null
+	 */
+	public synchronized String getETag(){
+
+		return this.etag;
+
+	}
+
+	/**
+	 * 保存しているオブジェクトの最終更新日時を取得する．
+	 *
+	 * @return Last-Modified ヘッダの値．不明な場合は null
+	 */
+	public synchronized String getLastModified(){
+
+		return this.lastModified;
+
+	}
+
+	/**
+	 * 保存しているオブジェクトのコンテンツタイプを取得する．
+	 *
+	 * @return Content-Type ヘッダの値．不明な場合は null
+	 */
+	public synchronized String getContentType(){
+
+		return this.contentType;
+
+	}
+
+	/**
+	 * 保存している内容が指定したオブジェクトのものか調べる．
+	 * エンティティタグがあればそれを，なければ最終更新日時を比べます．どちらもない場合は常に異なるとみなします．
+	 *
+	 * @param length オブジェクト全体の長さ
+	 * @param etag エンティティタグ．ない場合は null
+	 * @param lastModified 最終更新日時．ない場合は null
+	 * @return 同じオブジェクトの場合 true
+	 */
+	public synchronized boolean isSameEntity(final long length, final String etag, final String lastModified){
+
+		if(this.length != length){
+
+			return false;
+
+		}
+		if(etag != null || this.etag != null){
+
+			return etag != null && etag.equals(this.etag) && !etag.startsWith("W/");
+
+		}
+		return lastModified != null && lastModified.equals(this.lastModified);
+
+	}
+
+	/**
+	 * 保存している内容を捨て，新しいオブジェクトを保存できるようにする．
+	 *
+	 * @param length オブジェクト全体の長さ
+	 * @param etag エンティティタグ．ない場合は null
+	 * @param lastModified 最終更新日時．ない場合は null
+	 * @param contentType コンテンツタイプ．ない場合は null
+	 * @throws IOException ファイルの大きさを変更できない場合
+	 */
+	public synchronized void reset(final long length, final String etag, final String lastModified, final String contentType) throws IOException{
+		LOGGER.entering("reset", length, etag, lastModified, contentType);
+
+		if(length < 0){
+
+			throw new IllegalArgumentException("length must not be negative");
+
+		}
+		this.length = length;
+		this.etag = etag;
+		this.lastModified = lastModified;
+		this.contentType = contentType;
+		this.coverage = new long[(int)((this.blocks() + 63) >>> 6)];
+		this.raf.setLength(length);
+		this.dirty = true;
+
+		LOGGER.exiting("reset");
+	}
+
+	/**
+	 * オブジェクト内の位置を指定してデータを書き込む．
+	 * 全体の長さを超える部分は捨てられます．この書き込みで全体が埋まったブロックが揃ったものとして記録されます．
+	 *
+	 * @param position 書き込むデータのオブジェクト内の位置
+	 * @param src 書き込むデータ
+	 * @return 書き込んだバイト数
+	 * @throws IOException 書き込みにエラーが発生した場合
+	 */
+	public int write(final long position, final ByteBuffer src) throws IOException{
+
+		return this.write(position, position, src);
+
+	}
+
+	/**
+	 * 連続した書き込みの続きを書き込む．
+	 * ストリームを少しずつ書き込む場合に，start から書き込み終わりまでの範囲で全体が埋まったブロックを揃ったものとして記録します．
+	 *
+	 * @param start 連続して書き込んでいる範囲の開始位置
+	 * @param position 書き込むデータのオブジェクト内の位置．start からここまでは書き込み済みであること
+	 * @param src 書き込むデータ
+	 * @return 書き込んだバイト数
+	 * @throws IOException 書き込みにエラーが発生した場合
+	 */
+	public synchronized int write(final long start, final long position, final ByteBuffer src) throws IOException{
+
+		if(this.length < 0){
+
+			throw new IllegalStateException("length of the object is unknown");
+
+		}
+		if(position >= this.length){
+
+			return 0;
+
+		}
+
+		final ByteBuffer buf = src.duplicate();
+		if(buf.remaining() > this.length - position){
+
+			buf.limit(buf.position() + (int)(this.length - position));
+
+		}
+
+		long pos = position;
+		while(buf.hasRemaining()){
+
+			pos += this.channel.write(buf, pos);
+
+		}
+
+		// start から position までで埋まっていたブロックは記録済みなので，position より後ろで終わるブロックだけを調べる
+		final long from = Math.max(start, position - this.blockSize + 1);
+		final long first = (from + this.blockSize - 1) / this.blockSize;
+		final long end = pos == this.length ? this.blocks() : pos / this.blockSize;
+		for(long b = first; b < end; ++b){
+
+			this.coverage[(int)(b >>> 6)] |= 1L << b;
+			this.dirty = true;
+
+		}
+
+		final int ret = (int)(pos - position);
+		src.position(src.position() + ret);
+		return ret;
+
+	}
+
+	/**
+	 * 指定した範囲がすべて揃っているか調べる．
+	 *
+	 * @param first 開始位置
+	 * @param last 終了位置 (この位置を含む)
+	 * @return 揃っている場合 true
+	 */
+	public synchronized boolean isCovered(final long first, final long last){
+
+		return this.missing(first, last).isEmpty();
+
+	}
+
+	/**
+	 * オブジェクト全体が揃っているか調べる．
+	 *
+	 * @return 揃っている場合 true
+	 */
+	public synchronized boolean isComplete(){
+
+		return this.length == 0 || (this.length > 0 && this.isCovered(0, this.length - 1));
+
+	}
+
+	/**
+	 * 指定した範囲のうち揃っていない範囲を取得する．
+	 * 返される範囲はブロック境界に揃えられ，指定した範囲を含むブロック全体を対象とします．
+	 *
+	 * @param first 開始位置
+	 * @param last 終了位置 (この位置を含む)
+	 * @return 揃っていない範囲の昇順のリスト．全体の長さが不明な場合は指定した範囲そのもの
+	 */
+	public synchronized List<Range> missing(final long first, final long last){
+
+		final List<Range> ret = new ArrayList<Range>();
+		if(this.length < 0){
+
+			ret.add(new Range(first, last));
+			return ret;
+
+		}
+		if(first > last || first >= this.length){
+
+			return ret;
+
+		}
+
+		final long end = Math.min(last, this.length - 1) / this.blockSize + 1;
+		long gap = -1;
+		for(long b = first / this.blockSize; b < end; ++b){
+
+			final boolean covered = (this.coverage[(int)(b >>> 6)] & (1L << b)) != 0;
+			if(!covered && gap == -1){
+
+				gap = b;
+
+			}else if(covered && gap != -1){
+
+				ret.add(new Range(gap * this.blockSize, b * this.blockSize - 1));
+				gap = -1;
+
+			}
+
+		}
+		if(gap != -1){
+
+			ret.add(new Range(gap * this.blockSize, Math.min(end * this.blockSize, this.length) - 1));
+
+		}
+		return ret;
+
+	}
+
+	/**
+	 * 指定した範囲を読み出すストリームを開く．
+	 * ストリームを閉じてもこのファイルは閉じられません．範囲が揃っているかどうかは確認しないため，
+	 * 事前に {@link #isCovered(long, long)} で確認してください．
+	 *
+	 * @param first 開始位置
+	 * @param last 終了位置 (この位置を含む)
+	 * @return 入力ストリーム
+	 */
+	public InputStream openStream(final long first, final long last){
+
+		return new Reader(first, last + 1);
+
+	}
+
+	/**
+	 * 指定した範囲をチャネルへ直接転送する．
+	 *
+	 * @param position 開始位置
+	 * @param count 転送するバイト数
+	 * @param target 転送先
+	 * @return 転送したバイト数
+	 * @throws IOException 転送中にエラーが発生した場合
+	 */
+	public long transferTo(final long position, final long count, final WritableByteChannel target) throws IOException{
+
+		return this.channel.transferTo(position, count, target);
+
+	}
+
+	/**
+	 * 書き込んだデータをディスクに書き出してから，揃っている範囲をマップファイルに保存する．
+	 *
+	 * @throws IOException 書き出しにエラーが発生した場合
+	 */
+	public synchronized void flush() throws IOException{
+		LOGGER.entering("flush");
+
+		if(this.dirty){
+
+			this.channel.force(false);
+
+			final File tmp = new File(this.map.getPath() + TmpSuffix);
+			final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+			try{
+
+				out.write(Magic);
+				out.writeInt(this.blockSize);
+				out.writeLong(this.length);
+				out.writeUTF(this.etag != null ? this.etag : "");
+				out.writeUTF(this.lastModified != null ? this.lastModified : "");
+				out.writeUTF(this.contentType != null ? this.contentType : "");
+				out.writeInt(this.coverage.length);
+				for(final long w : this.coverage){
+
+					out.writeLong(w);
+
+				}
+
+			}finally{
+
+				out.close();
+
+			}
+
+			if(!tmp.renameTo(this.map)){
+
+				// 置き換えの rename ができない環境では削除してから改名する
+				this.map.delete();
+				if(!tmp.renameTo(this.map)){
+
+					throw new IOException("Cannot replace " + this.map);
+
+				}
+
+			}
+			this.dirty = false;
+
+		}
+
+		LOGGER.exiting("flush");
+	}
+
+	/* (非 Javadoc)
+	 * @see java.io.Closeable#close()
+	 */
+	@Override
+	public synchronized void close() throws IOException{
+		LOGGER.entering("close");
+
+		try{
+
+			this.flush();
+
+		}finally{
+
+			this.raf.close();
+
+		}
+
+		LOGGER.exiting("close");
+	}
+
+	/**
+	 * データファイルとマップファイルを削除する．
+	 *
+	 * @param file データファイル
+	 * @return 両方とも削除できた場合 true
+	 */
+	public static boolean delete(final File file){
+
+		final boolean map = new File(file.getPath() + MapSuffix).delete();
+		return file.delete() && map;
+
+	}
+
+	@Override
+	public String toString(){
+
+		return String.format("PartialContentFile[file=%s, length=%d]", this.file, this.length);
+
+	}
+
+	//============================================================================
+	//  Private methods
+	//============================================================================
+	/**
+	 * ブロック数を計算する．
+	 *
+	 * @return 全体の長さを覆うブロック数
+	 */
+	private long blocks(){
+
+		return (this.length + this.blockSize - 1) / this.blockSize;
+
+	}
+
+	/**
+	 * マップファイルを読み込む．
+	 *
+	 * @throws IOException 読み込めない場合や内容が壊れている場合
+	 */
+	private void load() throws IOException{
+
+		final DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(this.map)));
+		try{
+
+			final byte[] magic = new byte[Magic.length];
+			in.readFully(magic);
+			if(!Arrays.equals(magic, Magic)){
+
+				throw new IOException("Unknown format");
+
+			}
+
+			final int blockSize = in.readInt();
+			final long length = in.readLong();
+			final String etag = in.readUTF();
+			final String lastModified = in.readUTF();
+			final String contentType = in.readUTF();
+			final int words = in.readInt();
+			if(blockSize <= 0 || length < 0 || words != (int)(((length + blockSize - 1) / blockSize + 63) >>> 6) || this.file.length() != length){
+
+				throw new IOException("Inconsistent coverage map");
+
+			}
+
+			final long[] coverage = new long[words];
+			for(int i = 0; i != words; ++i){
+
+				coverage[i] = in.readLong();
+
+			}
+
+			this.blockSize = blockSize;
+			this.length = length;
+			this.etag = etag.length() != 0 ? etag : null;
+			this.lastModified = lastModified.length() != 0 ? lastModified : null;
+			this.contentType = contentType.length() != 0 ? contentType : null;
+			this.coverage = coverage;
+
+		}finally{
+
+			in.close();
+
+		}
+
+	}
+
+	//============================================================================
+	//  Inner classes
+	//============================================================================
+	/**
+	 * 指定した範囲を位置指定読み出しで読むストリーム．
+	 * 位置指定読み出しはチャネルの位置を変えないため，複数のストリームを同時に使うことができます．
+	 */
+	private final class Reader extends InputStream{
+
+		private long pos;
+		private final long end;
+
+		Reader(final long pos, final long end){
+
+			this.pos = pos;
+			this.end = end;
+
+		}
+
+		@Override
+		public int read() throws IOException{
+
+			final byte[] b = new byte[1];
+			return this.read(b, 0, 1) == -1 ? -1 : b[0] & 0xff;
+
+		}
+
+		@Override
+		public int read(final byte[] b, final int off, final int len) throws IOException{
+
+			if(len == 0){
+
+				return 0;
+
+			}
+			if(this.pos >= this.end){
+
+				return -1;
+
+			}
+
+			final ByteBuffer buf = ByteBuffer.wrap(b, off, (int)Math.min(len, this.end - this.pos));
+			final int n = PartialContentFile.this.channel.read(buf, this.pos);
+			if(n == -1){
+
+				throw new IOException("Unexpected end of " + PartialContentFile.this.file);
+
+			}
+			this.pos += n;
+			return n;
+
+		}
+
+		@Override
+		public int available(){
+
+			return (int)Math.min(Integer.MAX_VALUE, this.end - this.pos);
+
+		}
+
+		@Override
+		public long skip(final long n){
+
+			final long ret = Math.max(0, Math.min(n, this.end - this.pos));
+			this.pos += ret;
+			return ret;
+
+		}
+
+	}
+
+}
@@ -0,0 +1,194 @@
+/*
+ *  Copyright (C) 2011 Junpei Kawamoto
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package nor.core.proxy.filter;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+
+import nor.util.log.Logger;
+
+/**
+ * 転送されるストリームデータを {@link PartialContentFile} の指定した位置に保存するフィルタ．
+ * {@link StoringToFileFilter} と異なり，転送が途中で終わっても受け取った分は保存されたまま残り，
+ * 残りの範囲だけを後から取得して補うことができます．
+ *
+ * @author Junpei Kawamoto
+ * @since 0.3
+ */
+public class StoringPartialContentFilter extends ReadonlyByteFilterAdapter{
+
+	private final PartialContentFile file;
+
+	/**
+	 * 保存を始めるストリーム上の位置に対応するオブジェクト内の位置
+	 */
+	private final long position;
+
+	/**
+	 * 保存を始めるストリーム上の位置
+	 */
+	private final long skip;
+
+	/**
+	 * 保存するバイト数．制限しない場合は -1
+	 */
+	private final long count;
+
+	/**
+	 * 読み取ったストリーム上の位置
+	 */
+	private long read = 0;
+
+	private boolean alive = true;
+
+	private List<StoringToFileFilter.CloseEventListener> listeners = new ArrayList<StoringToFileFilter.CloseEventListener>();
+
+	private static final Logger LOGGER = Logger.getLogger(StoringPartialContentFilter.class);
+
+	/**
+	 * 保存先とストリームの先頭のオブジェクト内の位置を指定して StoringPartialContentFilter を作成する．
+	 *
+	 * @param file 保存先のキャッシュファイル
+	 * @param position ストリームの先頭のオブジェクト内の位置
+	 */
+	public StoringPartialContentFilter(final PartialContentFile file, final long position){
+		this(file, position, 0, -1);
+	}
+
+	/**
+	 * ストリームの一部だけを保存する StoringPartialContentFilter を作成する．
+	 * ストリームの先頭 skip バイトを読み飛ばし，続く count バイトをオブジェクト内の position の位置から保存します．
+	 *
+	 * @param file 保存先のキャッシュファイル
+	 * @param position 保存するデータのオブジェクト内の位置
+	 * @param skip 読み飛ばすバイト数
+	 * @param count 保存するバイト数．制限しない場合は -1
+	 */
+	public StoringPartialContentFilter(final PartialContentFile file, final long position, final long skip, final long count){
+
+		this.file = file;
+		this.position = position;
+		this.skip = skip;
+		this.count = count;
+
+	}
+
+	/* (非 Javadoc)
+	 * @see nor.core.proxy.filter.ReadonlyByteFilter#update(java.nio.ByteBuffer)
+	 */
+	@Override
+	public final void update(final ByteBuffer in){
+
+		final long begin = this.read;
+		this.read += in.remaining();
+		if(!this.alive || this.read <= this.skip){
+
+			return;
+
+		}
+
+		if(begin < this.skip){
+
+			in.position(in.position() + (int)(this.skip - begin));
+
+		}
+
+		final long offset = Math.max(begin, this.skip) - this.skip;
+		if(this.count != -1){
+
+			if(offset >= this.count){
+
+				return;
+
+			}
+			if(in.remaining() > this.count - offset){
+
+				in.limit(in.position() + (int)(this.count - offset));
+
+			}
+
+		}
+
+		try{
+
+			this.file.write(this.position, this.position + offset, in);
+
+		}catch(final IOException e){
+
+			LOGGER.warning("update", e.getMessage());
+			LOGGER.catched(Level.FINE, "update", e);
+			this.alive = false;
+
+		}
+
+	}
+
+	/* (非 Javadoc)
+	 * @see nor.core.proxy.filter.ReadonlyByteFilterAdapter#close()
+	 */
+	@Override
+	public final void close(){
+
+		// 途中で終わった転送でも，受け取った範囲は記録しておく
+		try{
+
+			this.file.flush();
+
+		}catch(final IOException e){
+
+			LOGGER.warning("close", e.getMessage());
+			LOGGER.catched(Level.FINE, "close", e);
+			this.alive = false;
+
+		}
+
+		final boolean succeeded = this.alive && (this.count == -1 || this.read - this.skip >= this.count);
+		for(final StoringToFileFilter.CloseEventListener l : this.listeners){
+
+			l.close(succeeded);
+
+		}
+
+	}
+
+	/**
+	 * 転送終了イベントのリスナを登録する．
+	 *
+	 * @param listener 登録するイベントリスナ
+	 */
+	public void addListener(final StoringToFileFilter.CloseEventListener listener){
+
+		this.listeners.add(listener);
+
+	}
+
+	/**
+	 * 転送終了イベントのリスナを削除する．
+	 *
+	 * @param listener 登録解除するイベントリスナ
+	 */
+	public void removeListener(final StoringToFileFilter.CloseEventListener listener){
+
+		this.listeners.remove(listener);
+
+	}
+
+}
@@ -0,0 +1,127 @@
+/*
+ *  Copyright (C) 2011 Junpei Kawamoto
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package nor.core.proxy.filter;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+
+import nor.util.BlobStore;
+import nor.util.log.Logger;
+
+/**
+ * 転送されるストリームデータを {@link BlobStore} に保存するフィルタ．
+ * {@link StoringToFileFilter} と異なり，オブジェクトごとにファイルを作らずストアのセグメントへ追記します．
+ * 転送が正常に終わった場合だけ，データがキーに関連付けられます．
+ *
+ * @author Junpei Kawamoto
+ * @since 0.3
+ */
+public class StoringToBlobStoreFilter extends ReadonlyByteFilterAdapter{
+
+	private final BlobStore.Writer out;
+
+	private boolean alive = true;
+
+	private List<StoringToFileFilter.CloseEventListener> listeners = new ArrayList<StoringToFileFilter.CloseEventListener>();
+
+	private static final Logger LOGGER = Logger.getLogger(StoringToBlobStoreFilter.class);
+
+	/**
+	 * 保存先のストアとキーを指定して StoringToBlobStoreFilter を作成する．
+	 *
+	 * @param store 保存先のストア
+	 * @param key 保存するオブジェクトのキー
+	 * @throws IOException 書き込みの準備にエラーが発生した場合
+	 */
+	public StoringToBlobStoreFilter(final BlobStore store, final String key) throws IOException{
+
+		this.out = store.newWriter(key);
+
+	}
+
+	/* (非 Javadoc)
+	 * @see nor.core.proxy.filter.ReadonlyByteFilter#update(java.nio.ByteBuffer)
+	 */
+	@Override
+	public final void update(final ByteBuffer in){
+
+		if(this.alive){
+
+			try{
+
+				this.out.write(in);
+
+			}catch(final IOException e){
+
+				LOGGER.warning("update", e.getMessage());
+				LOGGER.catched(Level.FINE, "update", e);
+				this.alive = false;
+
+			}
+
+		}
+
+	}
+
+	/* (非 Javadoc)
+	 * @see nor.core.proxy.filter.ReadonlyByteFilterAdapter#close()
+	 */
+	@Override
+	public final void close(){
+
+		if(this.alive){
+
+			this.alive = this.out.commit();
+
+		}
+		this.out.close();
+
+		for(final StoringToFileFilter.CloseEventListener l : this.listeners){
+
+			l.close(this.alive);
+
+		}
+
+	}
+
+	/**
+	 * 転送終了イベントのリスナを登録する．
+	 *
+	 * @param listener 登録するイベントリスナ
+	 */
+	public void addListener(final StoringToFileFilter.CloseEventListener listener){
+
+		this.listeners.add(listener);
+
+	}
+
+	/**
+	 * 転送終了イベントのリスナを削除する．
+	 *
+	 * @param listener 登録解除するイベントリスナ
+	 */
+	public void removeListener(final StoringToFileFilter.CloseEventListener listener){
+
+		this.listeners.remove(listener);
+
+	}
+
+}
@@ -0,0 +1,241 @@
+/*
+ *  Copyright (C) 2011 Junpei Kawamoto
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package nor.http;
+
+/**
+ * Content-Range ヘッダの値．
+ * 部分コンテンツに含まれるバイト範囲と全体の長さを表します．
+ * 詳細は，RFC 2616 の 14.16 節を参照してください．
+ *
+ * @author Junpei Kawamoto
+ * @since 0.3
+ */
+public final class ContentRange{
+
+	/**
+	 * 開始位置．満たせない範囲 (bytes * /length) の場合は -1
+	 */
+	private final long first;
+
+	/**
+	 * 終了位置 (この位置を含む)．満たせない範囲の場合は -1
+	 */
+	private final long last;
+
+	/**
+	 * 全体の長さ．不明な場合は -1
+	 */
+	private final long length;
+
+	//====================================================================
+	//  コンストラクタ
+	//====================================================================
+	/**
+	 * Content-Range を作成する．
+	 *
+	 * @param first 開始位置．満たせない範囲の場合は -1
+	 * @param last 終了位置 (この位置を含む)．満たせない範囲の場合は -1
+	 * @param length 全体の長さ．不明な場合は -1
+	 */
+	public ContentRange(final long first, final long last, final long length){
+
+		this.first = first;
+		this.last = last;
+		this.length = length;
+
+	}
+
+	//====================================================================
+	//  public メソッド
+	//====================================================================
+	/**
+	 * 開始位置を取得する．
+	 *
+	 * @return 開始位置．満たせない範囲の場合は -1
+	 */
+	public long getFirst(){
+
+		return this.first;
+
+	}
+
+	/**
+	 * 終了位置を取得する．
+	 *
+	 * @return 終了位置 (この位置を含む)．満たせない範囲の場合は -1
+	 */
+	public long getLast(){
+
+		return this.last;
+
+	}
+
+	/**
+	 * 全体の長さを取得する．
+	 *
+	 * @return 全体の長さ．不明な場合は -1
+	 */
+	public long getInstanceLength(){
+
+		return this.length;
+
+	}
+
+	/**
+	 * 範囲のバイト数を取得する．
+	 *
+	 * @return バイト数．満たせない範囲の場合は 0
+	 */
+	public long getLength(){
+
+		return this.first == -1 ? 0 : this.last - this.first + 1;
+
+	}
+
+	/**
+	 * 満たせない範囲を表しているか調べる．
+	 *
+	 * @return 満たせない範囲の場合 true
+	 */
+	public boolean isUnsatisfied(){
+
+		return this.first == -1;
+
+	}
+
+	@Override
+	public boolean equals(final Object obj){
+
+		if(obj instanceof ContentRange){
+
+			final ContentRange that = (ContentRange)obj;
+			return this.first == that.first && this.last == that.last && this.length == that.length;
+
+		}
+		return false;
+
+	}
+
+	@Override
+	public int hashCode(){
+
+		return (int)((this.first * 31 + this.last) * 31 + this.length);
+
+	}
+
+	@Override
+	public String toString(){
+
+		final StringBuilder ret = new StringBuilder(Range.Unit).append(' ');
+		if(this.first == -1){
+
+			ret.append('*');
+
+		}else{
+
+			ret.append(this.first).append('-').append(this.last);
+
+		}
+		ret.append('/');
+		if(this.length == -1){
+
+			ret.append('*');
+
+		}else{
+
+			ret.append(this.length);
+
+		}
+		return ret.toString();
+
+	}
+
+	//====================================================================
+	//  public static メソッド
+	//====================================================================
+	/**
+	 * Content-Range ヘッダの値を解析する．
+	 *
+	 * @param value Content-Range ヘッダの値
+	 * @return 解析結果．単位が bytes でない場合や構文が正しくない場合は null
+	 */
+	public static ContentRange parse(final String value){
+
+		if(value == null){
+
+			return null;
+
+		}
+
+		final String v = value.trim();
+		if(!v.regionMatches(true, 0, Range.Unit, 0, Range.Unit.length())){
+
+			return null;
+
+		}
+
+		int i = Range.Unit.length();
+		while(i < v.length() && v.charAt(i) == ' '){
+
+			++i;
+
+		}
+
+		final int slash = v.indexOf('/', i);
+		if(slash == -1 || i == Range.Unit.length()){
+
+			return null;
+
+		}
+
+		long length = -1;
+		if(!(slash + 2 == v.length() && v.charAt(slash + 1) == '*')){
+
+			length = Range.parseNumber(v, slash + 1, v.length());
+			if(length == -1){
+
+				return null;
+
+			}
+
+		}
+
+		if(slash == i + 1 && v.charAt(i) == '*'){
+
+			return length == -1 ? null : new ContentRange(-1, -1, length);
+
+		}
+
+		final int dash = v.indexOf('-', i);
+		if(dash == -1 || dash > slash){
+
+			return null;
+
+		}
+		final long first = Range.parseNumber(v, i, dash);
+		final long last = Range.parseNumber(v, dash + 1, slash);
+		if(first == -1 || last == -1 || last < first || (length != -1 && last >= length)){
+
+			return null;
+
+		}
+		return new ContentRange(first, last, length);
+
+	}
+
+}
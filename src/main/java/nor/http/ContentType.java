@@ -17,13 +17,20 @@
  */
 package nor.http;
 
+import java.nio.charset.Charset;
+import java.nio.charset.IllegalCharsetNameException;
+import java.nio.charset.UnsupportedCharsetException;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+import nor.util.BoundedCache;
+
 /**
  * コンテンツタイプ．
  *
@@ -69,7 +76,17 @@ public class ContentType {
 	 */
 	private String subtype = UNDEFINED;
 
-	private final Map<String, String> parameters = new HashMap<String, String>();
+	private Map<String, String> parameters = Collections.emptyMap();
+
+	/**
+	 * charset パラメータが表す文字コード．指定がないかサポートされていない場合は null
+	 */
+	private Charset charset = null;
+
+	/**
+	 * 解析済みのコンテンツタイプのキャッシュ
+	 */
+	private static final Map<String, ContentType> Interned = new BoundedCache<String, ContentType>(256);
 
 
 	/**
@@ -200,6 +217,18 @@ public class ContentType {
 
 	}
 
+	/**
+	 * 文字コードを Charset として得る．
+	 * 文字コードは解析時に一度だけ解決されます．
+	 *
+	 * @return 文字コード，指定がないかサポートされていない場合は null
+	 */
+	public Charset toCharset(){
+
+		return this.charset;
+
+	}
+
 	/**
 	 * ContentType文字列を得る．
 	 * ContentTypeが指定されていない場合は，空文字を返す．
@@ -252,6 +281,30 @@ public class ContentType {
 
 	}
 
+	//====================================================================
+	//	public static メソッド
+	//====================================================================
+	/**
+	 * コンテンツタイプを表す文字列に対応するコンテンツタイプを取得する．
+	 * 解析済みのオブジェクトは文字列ごとにキャッシュされ，同じ文字列に対しては同じオブジェクトが返ります．
+	 * 返されるオブジェクトは共有されるため，変更できません．
+	 *
+	 * @param str コンテンツタイプを表す文字列
+	 * @return 解析済みのコンテンツタイプ
+	 */
+	public static ContentType valueOf(final String str){
+
+		ContentType ret = Interned.get(str);
+		if(ret == null){
+
+			ret = new ContentType(str);
+			Interned.put(str, ret);
+
+		}
+		return ret;
+
+	}
+
 	//====================================================================
 	//	package private メソッド
 	//====================================================================
@@ -269,10 +322,33 @@ public class ContentType {
 			this.type = mt.group(1);
 			this.subtype = mt.group(2);
 
+			final Map<String, String> parameters = new HashMap<String, String>();
 			final Matcher mp = ParameterPattern.matcher(str);
 			while(mp.find()){
 
-				this.parameters.put(mp.group(1), mp.group(2));
+				parameters.put(mp.group(1), mp.group(2));
+
+			}
+			this.parameters = Collections.unmodifiableMap(parameters);
+
+			final String charset = this.getCharset();
+			if(charset != null){
+
+				try{
+
+					this.charset = Charset.forName(charset.toUpperCase());
+
+				}catch(final UnsupportedCharsetException e){
+
+					LOGGER.warning(e.getMessage());
+					LOGGER.log(Level.FINE, "setContentType", e);
+
+				}catch(final IllegalCharsetNameException e){
+
+					LOGGER.warning(e.getMessage());
+					LOGGER.log(Level.FINE, "setContentType", e);
+
+				}
 
 			}
 
@@ -18,15 +18,22 @@
 package nor.http;
 
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.logging.Logger;
 
 /**
  * Cookieヘッダを表すクラス．
  * HTTPヘッダ中のCookieヘッダを解析してキーやサブキー，そしてそれらに関連付けられた値を
  * 取りだし管理します．また，そうしたエントリに対するアクセッサも提供します．
+ * <p>
+ * このクラスはヘッダの値のビューです．値はキーが要求されたときに初めて走査され，
+ * 要求されたキー以外の文字列は切り出されません．変更はまとめて保持され，
+ * メッセージが書き出されるときなどに一度だけヘッダへ書き戻されます．
+ * </p>
  *
  * @author Junpei Kawamoto
  * @since 0.1
@@ -34,7 +41,25 @@ import java.util.logging.Logger;
 public class Cookie{
 
 	private final HttpHeader header;
-	private final Map<String, List<String>> entries = new HashMap<String, List<String>>();
+
+	/**
+	 * ヘッダに登録するビュー
+	 */
+	private final HttpHeader.View view = new HttpHeader.View(){
+
+		@Override
+		public String commit(){
+
+			return Cookie.this.commit();
+
+		}
+
+	};
+
+	/**
+	 * 書き戻しを保留している変更．空のリストは削除を表す．変更がない間は null
+	 */
+	private Map<String, List<String>> changes = null;
 
 	/**
 	 * ロガー
@@ -48,34 +73,6 @@ public class Cookie{
 
 		this.header = header;
 
-		if(this.header.containsKey(HeaderName.Cookie)){
-
-			for(final String entry : this.header.get(HeaderName.Cookie).split(",")){
-
-				final int index = entry.indexOf("=");
-				if(index != -1){
-
-					final String key = entry.substring(0, index);
-					final String value = entry.substring(index+1);
-
-					if(this.entries.containsKey(key)){
-
-						this.entries.get(key).add(value);
-
-					}else{
-
-						final List<String> list = new ArrayList<String>();
-						list.add(value);
-						this.entries.put(key, list);
-
-					}
-
-				}
-
-			}
-
-		}
-
 	}
 
 
@@ -89,7 +86,7 @@ public class Cookie{
 	public void clear(){
 		LOGGER.entering(Cookie.class.getName(), "clear");
 
-		this.entries.clear();
+		this.changes = null;
 		this.header.remove(HeaderName.Cookie);
 
 		LOGGER.exiting(Cookie.class.getName(), "clear");
@@ -107,19 +104,19 @@ public class Cookie{
 		assert key != null;
 		assert value != null;
 
-		if(this.entries.containsKey(key)){
+		// 未変更のキーであれば既存の値の後に追加する
+		final String[] current = this.changes != null && this.changes.containsKey(key) ? null : this.get(key);
+		final List<String> values = this.change(key);
+		if(current != null){
 
-			this.entries.get(key).add(value);
+			for(final String v : current){
 
-		}else{
+				values.add(v);
 
-			final List<String> list = new ArrayList<String>();
-			list.add(value);
-			this.entries.put(key, list);
+			}
 
 		}
-
-		this.header.set(HeaderName.Cookie, this.toString());
+		values.add(value);
 
 		LOGGER.exiting(Cookie.class.getName(), "add");
 	}
@@ -129,8 +126,9 @@ public class Cookie{
 		assert key != null;
 		assert value != null;
 
-		this.entries.remove(key);
-		this.add(key, value);
+		final List<String> values = this.change(key);
+		values.clear();
+		values.add(value);
 
 		LOGGER.exiting(Cookie.class.getName(), "set");
 	}
@@ -144,8 +142,7 @@ public class Cookie{
 		LOGGER.entering(Cookie.class.getName(), "remove", key);
 		assert key != null;
 
-		this.entries.remove(key);
-		this.header.set(HeaderName.Cookie, this.toString());
+		this.change(key).clear();
 
 		LOGGER.exiting(Cookie.class.getName(), "remove");
 	}
@@ -154,18 +151,87 @@ public class Cookie{
 	 * 要素を取得する．
 	 *
 	 * @param key 取得するキー
-	 * @return キーに関連付けられている値
+	 * @return キーに関連付けられている値，キーが存在しない場合は空の配列
 	 */
 	public String[] get(final String key){
 		LOGGER.entering(Cookie.class.getName(), "get", key);
 		assert key != null;
 
-		final String[] ret = this.entries.get(key).toArray(new String[0]);
+		final String[] ret;
+		if(this.changes != null && this.changes.containsKey(key)){
+
+			ret = this.changes.get(key).toArray(new String[0]);
+
+		}else{
+
+			final List<String> values = new ArrayList<String>(1);
+			final String raw = this.header.raw(HeaderName.Cookie, this.view);
+			if(raw != null){
+
+				for(int s = 0; s < raw.length(); s = next(raw, s) + 1){
+
+					final int e = next(raw, s);
+					final int eq = find(raw, key, s, e);
+					if(eq != -1){
+
+						values.add(raw.substring(skip(raw, eq + 1, e), trim(raw, eq + 1, e)));
+
+					}
+
+				}
+
+			}
+			ret = values.toArray(new String[values.size()]);
+
+		}
 
 		LOGGER.exiting(Cookie.class.getName(), "get", ret);
 		return ret;
 	}
 
+	/**
+	 * 要素の最初の値を取得する．
+	 * 最初に見つかった値の後ろは走査しません．
+	 *
+	 * @param key 取得するキー
+	 * @return キーに関連付けられている最初の値，キーが存在しない場合は null
+	 */
+	public String getFirst(final String key){
+		LOGGER.entering(Cookie.class.getName(), "getFirst", key);
+		assert key != null;
+
+		String ret = null;
+		if(this.changes != null && this.changes.containsKey(key)){
+
+			final List<String> values = this.changes.get(key);
+			ret = values.isEmpty() ? null : values.get(0);
+
+		}else{
+
+			final String raw = this.header.raw(HeaderName.Cookie, this.view);
+			if(raw != null){
+
+				for(int s = 0; s < raw.length(); s = next(raw, s) + 1){
+
+					final int e = next(raw, s);
+					final int eq = find(raw, key, s, e);
+					if(eq != -1){
+
+						ret = raw.substring(skip(raw, eq + 1, e), trim(raw, eq + 1, e));
+						break;
+
+					}
+
+				}
+
+			}
+
+		}
+
+		LOGGER.exiting(Cookie.class.getName(), "getFirst", ret);
+		return ret;
+	}
+
 	/**
 	 * キー集合の取得
 	 *
@@ -174,7 +240,41 @@ public class Cookie{
 	public String[] keys() {
 		LOGGER.entering(Cookie.class.getName(), "keys");
 
-		final String[] ret = this.entries.keySet().toArray(new String[0]);
+		final Set<String> keys = new LinkedHashSet<String>();
+		final String raw = this.header.raw(HeaderName.Cookie, this.view);
+		if(raw != null){
+
+			for(int s = 0; s < raw.length(); s = next(raw, s) + 1){
+
+				final int e = next(raw, s);
+				final int eq = raw.indexOf('=', s);
+				if(eq != -1 && eq < e){
+
+					keys.add(raw.substring(skip(raw, s, eq), trim(raw, s, eq)));
+
+				}
+
+			}
+
+		}
+		if(this.changes != null){
+
+			for(final Map.Entry<String, List<String>> c : this.changes.entrySet()){
+
+				if(c.getValue().isEmpty()){
+
+					keys.remove(c.getKey());
+
+				}else{
+
+					keys.add(c.getKey());
+
+				}
+
+			}
+
+		}
+		final String[] ret = keys.toArray(new String[keys.size()]);
 
 		LOGGER.exiting(Cookie.class.getName(), "keys", ret);
 		return ret;
@@ -189,42 +289,201 @@ public class Cookie{
 	public String toString(){
 		LOGGER.entering(Cookie.class.getName(), "toString");
 
-		final StringBuilder builder = new StringBuilder();
-		for(final String key : this.entries.keySet()){
+		final String value = this.build();
+		final String ret = value != null ? value : "";
+		LOGGER.config(String.format("Cookieエントリ[%s]", ret));
+
+		LOGGER.exiting(Cookie.class.getName(), "toString", ret);
+		return ret;
 
-			for(final String value : this.entries.get(key)){
+	}
 
-				builder.append(key);
-				builder.append("=");
+	//====================================================================
+	//  public static メソッド
+	//====================================================================
+	public static Cookie get(final HttpHeader header){
+
+		return new Cookie(header);
+
+	}
+
+	//====================================================================
+	//  private メソッド
+	//====================================================================
+	/**
+	 * 保留している変更を反映したヘッダの値を返し，保留を解除する．
+	 *
+	 * @return 新しいヘッダの値，Cookieが空の場合は null
+	 */
+	private String commit(){
+		LOGGER.entering(Cookie.class.getName(), "commit");
+
+		final String ret = this.build();
+		this.changes = null;
+
+		LOGGER.exiting(Cookie.class.getName(), "commit", ret);
+		return ret;
+
+	}
+
+	/**
+	 * 変更を記録するリストを取得し，ヘッダに書き戻しを予約する．
+	 *
+	 * @param key 変更するキー
+	 * @return キーの変更後の値のリスト
+	 */
+	private List<String> change(final String key){
+
+		if(this.changes == null){
+
+			this.changes = new LinkedHashMap<String, List<String>>();
+			this.header.defer(HeaderName.Cookie, this.view);
+
+		}
+
+		List<String> ret = this.changes.get(key);
+		if(ret == null){
+
+			ret = new ArrayList<String>(1);
+			this.changes.put(key, ret);
+
+		}
+		return ret;
+
+	}
+
+	/**
+	 * 元の値に変更を適用したヘッダの値を作成する．
+	 *
+	 * @return ヘッダの値，Cookieが空の場合は null
+	 */
+	private String build(){
+
+		final String raw = this.header.raw(HeaderName.Cookie, this.view);
+		if(this.changes == null){
+
+			return raw;
+
+		}
+
+		final StringBuilder builder = new StringBuilder(raw != null ? raw.length() + 32 : 32);
+		if(raw != null){
+
+			// 変更のないエントリは元の文字列をそのまま使う
+			for(int s = 0; s < raw.length(); s = next(raw, s) + 1){
+
+				final int e = next(raw, s);
+				final int eq = raw.indexOf('=', s);
+				if(eq != -1 && eq < e && !this.changes.containsKey(raw.substring(skip(raw, s, eq), trim(raw, s, eq)))){
+
+					if(builder.length() != 0){
+
+						builder.append("; ");
+
+					}
+					builder.append(raw, skip(raw, s, e), trim(raw, s, e));
+
+				}
+
+			}
+
+		}
+		for(final Map.Entry<String, List<String>> c : this.changes.entrySet()){
+
+			for(final String value : c.getValue()){
+
+				if(builder.length() != 0){
+
+					builder.append("; ");
+
+				}
+				builder.append(c.getKey());
+				builder.append('=');
 				builder.append(value);
-				builder.append(";");
 
 			}
 
 		}
 
-		if(builder.length() != 0){
+		return builder.length() != 0 ? builder.toString() : null;
+
+	}
+
+	/**
+	 * 指定した位置から始まるエントリの終端を探す．
+	 * 結合されたCookieヘッダに対応するため，セミコロンに加えてカンマも区切りとみなします．
+	 *
+	 * @param raw ヘッダの値
+	 * @param from エントリの開始位置
+	 * @return エントリの終端の位置
+	 */
+	private static int next(final String raw, final int from){
 
-			builder.setLength(builder.length()-2);
+		for(int i = from; i != raw.length(); ++i){
+
+			final char c = raw.charAt(i);
+			if(c == ';' || c == ','){
+
+				return i;
+
+			}
 
 		}
+		return raw.length();
 
-		final String ret = builder.toString();
-		LOGGER.config(String.format("Cookieエントリ[%s]", ret));
+	}
 
-		LOGGER.exiting(Cookie.class.getName(), "toString", ret);
-		return ret;
+	/**
+	 * エントリが指定したキーを持つか調べる．
+	 *
+	 * @return キーを持つ場合は等号の位置，そうでなければ -1
+	 */
+	private static int find(final String raw, final String key, final int from, final int to){
+
+		final int s = skip(raw, from, to);
+		final int e = s + key.length();
+		if(e < to && raw.startsWith(key, s)){
+
+			final int eq = skip(raw, e, to);
+			if(eq < to && raw.charAt(eq) == '='){
+
+				return eq;
+
+			}
+
+		}
+		return -1;
 
 	}
 
-	//====================================================================
-	//  public static メソッド
-	//====================================================================
-	public static Cookie get(final HttpHeader header){
+	/**
+	 * 先頭の空白を読み飛ばす．
+	 */
+	private static int skip(final String raw, final int from, final int to){
 
-		return new Cookie(header);
+		int i = from;
+		while(i < to && raw.charAt(i) == ' '){
+
+			++i;
+
+		}
+		return i;
 
 	}
 
+	/**
+	 * 末尾の空白を除いた終端を返す．
+	 */
+	private static int trim(final String raw, final int from, final int to){
+
+		int i = to;
+		while(i > from && raw.charAt(i - 1) == ' '){
+
+			--i;
+
+		}
+		return i;
+
+	}
 
 }
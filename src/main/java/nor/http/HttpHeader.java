@@ -50,6 +50,11 @@ public class HttpHeader{
 	 */
 	private final Map<String, String> elements = new HashMap<String, String>();
 
+	/**
+	 * 書き戻しが保留されているビュー．保留がない間は null
+	 */
+	private Map<String, View> views = null;
+
 	/**
 	 * ロガー
 	 */
@@ -118,7 +123,7 @@ public class HttpHeader{
 	 * @param elements このオブジェクトに持たせるヘッダ要素
 	 */
 	HttpHeader(final Map<String, String> elements){
-		LOGGER.entering("<init>", new Object[]{elements});
+		LOGGER.entering("<init>", elements);
 		assert elements != null;
 
 		for(final String key : elements.keySet()){
@@ -151,6 +156,7 @@ public class HttpHeader{
 		assert value != null;
 
 		final String skey = key.toLowerCase();
+		this.settle(skey);
 		if(this.elements.containsKey(skey)){
 
 			this.elements.remove(skey);
@@ -173,6 +179,7 @@ public class HttpHeader{
 		LOGGER.entering("add", key, value);
 
 		final String skey = key.toLowerCase();
+		this.settle(skey);
 		if(this.elements.containsKey(skey)){
 
 			if(HeaderName.SetCookie.equals(skey)){
@@ -209,6 +216,7 @@ public class HttpHeader{
 		assert key != null;
 
 		final String skey = key.toLowerCase();
+		this.settle(skey);
 		this.elements.remove(skey);
 
 		LOGGER.exiting("remove");
@@ -223,6 +231,7 @@ public class HttpHeader{
 	public void clear(){
 		LOGGER.entering("clear");
 
+		this.settleAll();
 		this.elements.clear();
 
 		LOGGER.exiting("clear");
@@ -240,6 +249,7 @@ public class HttpHeader{
 		assert key != null;
 
 		final String skey = key.toLowerCase();
+		this.settle(skey);
 		final String ret = this.elements.get(skey);
 
 		LOGGER.exiting("getValues", ret);
@@ -257,6 +267,7 @@ public class HttpHeader{
 		assert key != null;
 
 		final String skey = key.toLowerCase();
+		this.settle(skey);
 		final boolean ret = this.elements.containsKey(skey);
 
 		LOGGER.exiting("containsKey", ret);
@@ -301,6 +312,7 @@ public class HttpHeader{
 	public Set<String> keySet(){
 		LOGGER.entering("keySet");
 
+		this.settleAll();
 		final Set<String> ret = this.elements.keySet();
 
 		LOGGER.exiting("keySet", ret);
@@ -317,6 +329,7 @@ public class HttpHeader{
 	public int getKeySize(){
 		LOGGER.entering("getKeySize");
 
+		this.settleAll();
 		final int ret = this.elements.size();
 
 		LOGGER.exiting("getKeySize", ret);
@@ -335,6 +348,7 @@ public class HttpHeader{
 		LOGGER.entering("output", writer);
 		assert writer != null;
 
+		this.settleAll();
 		for(final String key : this.elements.keySet()){
 
 			if(HeaderName.SetCookie.equals(key)){
@@ -397,6 +411,72 @@ public class HttpHeader{
 
 	}
 
+	//----------------------------------------------------------------------------
+	//  ビュー用のメソッド
+	//----------------------------------------------------------------------------
+	/**
+	 * ヘッダの値を直接編集するビュー．
+	 * ビューへの変更はすぐにはヘッダに反映されず，ヘッダの値が参照されるときやメッセージが書き出されるときに
+	 * 一度だけ {@link #commit()} によって書き戻されます．
+	 */
+	interface View{
+
+		/**
+		 * 保留している変更を反映したヘッダの値を返し，保留を解除する．
+		 *
+		 * @return 新しいヘッダの値，ヘッダを削除する場合は null
+		 */
+		String commit();
+
+	}
+
+	/**
+	 * ビューの変更の書き戻しを予約する．
+	 *
+	 * @param key ビューが編集するヘッダのキー
+	 * @param view 変更を保留しているビュー
+	 */
+	void defer(final HeaderName key, final View view){
+		LOGGER.entering("defer", key, view);
+		assert key != null;
+		assert view != null;
+
+		final String skey = key.toString();
+		if(this.views == null){
+
+			this.views = new HashMap<String, View>(4);
+
+		}else if(this.views.get(skey) != view){
+
+			// 同じヘッダを編集する別のビューの変更は先に反映しておく
+			this.settle(skey);
+
+		}
+		this.views.put(skey, view);
+
+		LOGGER.exiting("defer");
+	}
+
+	/**
+	 * ビューの保留中の変更を反映せずにヘッダの値を取得する．
+	 * ただし，指定したビュー以外のビューが保留している変更は反映されます．
+	 *
+	 * @param key 値を取得するヘッダのキー
+	 * @param view 値を参照するビュー
+	 * @return キーに関連付けられている値
+	 */
+	String raw(final HeaderName key, final View view){
+
+		final String skey = key.toString();
+		if(this.views != null && this.views.containsKey(skey) && this.views.get(skey) != view){
+
+			this.settle(skey);
+
+		}
+		return this.elements.get(skey);
+
+	}
+
 	//----------------------------------------------------------------------------
 	//  HeaderName用のアダプタメソッド
 	//----------------------------------------------------------------------------
@@ -479,4 +559,53 @@ public class HttpHeader{
 
 	}
 
+	//============================================================================
+	//  Private methods
+	//============================================================================
+	/**
+	 * 指定したキーのヘッダを編集しているビューがあれば，その変更を書き戻す．
+	 *
+	 * @param skey 小文字にしたヘッダのキー
+	 */
+	private void settle(final String skey){
+
+		if(this.views != null){
+
+			final View view = this.views.remove(skey);
+			if(view != null){
+
+				final String value = view.commit();
+				if(value != null){
+
+					this.elements.put(skey, value);
+
+				}else{
+
+					this.elements.remove(skey);
+
+				}
+
+			}
+
+		}
+
+	}
+
+	/**
+	 * すべてのビューの変更を書き戻す．
+	 */
+	private void settleAll(){
+
+		if(this.views != null){
+
+			for(final String skey : this.views.keySet().toArray(new String[this.views.size()])){
+
+				this.settle(skey);
+
+			}
+
+		}
+
+	}
+
 }
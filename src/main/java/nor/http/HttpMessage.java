@@ -19,6 +19,7 @@ package nor.http;
 
 import java.io.BufferedWriter;
 import java.io.Closeable;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
@@ -53,6 +54,11 @@ public abstract class HttpMessage implements Closeable{
 
 	private InputStream body;
 
+	/**
+	 * ボディが内容コーディング済みか
+	 */
+	private boolean encoded;
+
 	//====================================================================
 	//	Constructors
 	//====================================================================
@@ -65,9 +71,21 @@ public abstract class HttpMessage implements Closeable{
 	//====================================================================
 	public InputStream getBody(){
 
-		final InputStream ret = this.body;
+		InputStream ret = this.body;
 		this.body = null;
 
+		// 符号化済みのボディは，他のボディと同じく内容コーディングを解決して渡す
+		if(this.encoded){
+
+			this.encoded = false;
+			if(ret != null){
+
+				ret = decodeStream(ret, this.getHeader());
+
+			}
+
+		}
+
 		return ret;
 
 	}
@@ -75,6 +93,32 @@ public abstract class HttpMessage implements Closeable{
 	public void setBody(final InputStream body){
 
 		this.body = body;
+		this.encoded = false;
+
+	}
+
+	/**
+	 * 内容コーディング済みのボディを設定する．
+	 * ボディは Content-Encoding ヘッダに従って既に符号化されているものとし，書き出し時に再び符号化されることはありません．
+	 * {@link #getBody()} で取り出した場合は，通常のボディと同じく復号されたストリームが返されます．
+	 *
+	 * @param body 内容コーディング済みの入力ストリーム
+	 */
+	public void setEncodedBody(final InputStream body){
+
+		this.body = body;
+		this.encoded = true;
+
+	}
+
+	/**
+	 * ボディが内容コーディング済みか調べる．
+	 *
+	 * @return {@link #setEncodedBody(InputStream)} で設定されたボディを持つ場合 true
+	 */
+	public boolean isBodyEncoded(){
+
+		return this.encoded && this.body != null;
 
 	}
 
@@ -88,38 +132,9 @@ public abstract class HttpMessage implements Closeable{
 	 * @throws IOException ストリームの書き出しにエラーが発生した場合
 	 */
 	public void writeTo(final OutputStream output) throws IOException{
-		LOGGER.entering("writeMessage", output);
-		assert output != null;
-
-		final HttpHeader header = this.getHeader();
-
-		if(this.body == null){
-
-			header.set(HeaderName.ContentLength, "0");
-			header.remove(HeaderName.TransferEncoding);
-
-		}
-
-		// ヘッドラインの書き出し
-		final BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(output));
-		writer.append(this.getHeadLine());
-		writer.append('\r');
-		writer.append('\n');
-		writer.flush();
 
-		// ヘッダの書き出し
-		header.output(writer);
+		this.writeMessage(output, this.getHeadLine());
 
-		// バッファのフラッシュ
-		writer.append('\r');
-		writer.append('\n');
-		writer.flush();
-		writer.close();
-
-		// ボディの書き出し
-		this.writeBodyTo(output);
-
-		LOGGER.exiting("writeMessage");
 	}
 
 	public void writeTo(final HttpURLConnection con) throws IOException{
@@ -157,6 +172,58 @@ public abstract class HttpMessage implements Closeable{
 
 	}
 
+	/**
+	 * メッセージボディのみをストリームに書き出す．
+	 * ボディは Content-Length，Transfer-Encoding 及び Content-Encoding ヘッダに従って符号化されます．
+	 * 書き出し後，出力ストリームは閉じられます．
+	 *
+	 * @param out 書き出し先の出力ストリーム
+	 * @throws IOException ストリームの書き出しにエラーが発生した場合
+	 */
+	public void writeBodyTo(final OutputStream out) throws IOException{
+
+		if(this.body != null){
+
+			final HttpHeader header = this.getHeader();
+			OutputStream cout = out;
+			if(header.containsKey(HeaderName.ContentLength)){
+
+				// ContentLengthが指定されていればそのサイズだけ送る
+				final String length = header.get(HeaderName.ContentLength).split(",")[0];
+				cout = new LimitedOutputStream(cout, Integer.parseInt(length));
+
+			}else if(Http.CHUNKED.equalsIgnoreCase(header.get(HeaderName.TransferEncoding))){
+
+				// TransferEncodingにchunkが指定されていればChunk形式で送る
+				cout = new ChunkedOutputStream(cout);
+
+			}
+
+			// 内容コーディングが指定されていれば従う（符号化済みのボディはそのまま送る）
+			if(!this.encoded && header.containsKey(HeaderName.ContentEncoding)){
+
+				final String encode = header.get(HeaderName.ContentEncoding);
+				if(Http.GZIP.equalsIgnoreCase(encode)){
+
+					cout = new GZIPOutputStream(cout, Stream.DefaultBufferSize);
+
+				}else if(Http.DEFLATE.equalsIgnoreCase(encode)){
+
+					cout = new DeflaterOutputStream(cout);
+
+				}
+
+			}
+
+			Stream.copy(this.body, cout);
+			cout.flush();
+			cout.close();
+
+		}
+		out.close();
+
+	}
+
 	@Override
 	public void close() throws IOException{
 
@@ -188,6 +255,106 @@ public abstract class HttpMessage implements Closeable{
 
 	}
 
+	//====================================================================
+	//	Protected methods
+	//====================================================================
+	/**
+	 * 指定したヘッドラインを用いてメッセージをストリームに書き出す．
+	 *
+	 * @param output 書き出し先の出力ストリーム
+	 * @param headLine 書き出すヘッドライン
+	 * @throws IOException ストリームの書き出しにエラーが発生した場合
+	 */
+	protected void writeMessage(final OutputStream output, final String headLine) throws IOException{
+		LOGGER.entering("writeMessage", output, headLine);
+		assert output != null;
+		assert headLine != null;
+
+		this.writeMessage(output, headLine, null);
+
+		LOGGER.exiting("writeMessage");
+	}
+
+	/**
+	 * 符号化済みのヘッドラインを用いてメッセージをストリームに書き出す．
+	 *
+	 * @param output 書き出し先の出力ストリーム
+	 * @param headLine 改行を含む ISO-8859-1 で符号化されたヘッドライン
+	 * @throws IOException ストリームの書き出しにエラーが発生した場合
+	 */
+	protected void writeMessage(final OutputStream output, final byte[] headLine) throws IOException{
+		LOGGER.entering("writeMessage", output, headLine);
+		assert output != null;
+		assert headLine != null;
+
+		this.writeMessage(output, null, headLine);
+
+		LOGGER.exiting("writeMessage");
+	}
+
+	/**
+	 * ボディがない場合でも空のボディとして Content-Length: 0 を送るか調べる．
+	 * ボディを持ち得ないメッセージでは，ボディがなければ Content-Length ヘッダを付けません．
+	 *
+	 * @return 空のボディを明示する場合 true
+	 */
+	protected boolean definesBody(){
+
+		return true;
+
+	}
+
+	//====================================================================
+	//	Private methods
+	//====================================================================
+	private void writeMessage(final OutputStream output, final String headLine, final byte[] encodedHeadLine) throws IOException{
+
+		final HttpHeader header = this.getHeader();
+
+		if(this.body == null){
+
+			if(this.definesBody()){
+
+				header.set(HeaderName.ContentLength, "0");
+
+			}else{
+
+				header.remove(HeaderName.ContentLength);
+
+			}
+			header.remove(HeaderName.TransferEncoding);
+
+		}
+
+		// ヘッドラインの書き出し
+		final BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(output));
+		if(encodedHeadLine != null){
+
+			output.write(encodedHeadLine);
+
+		}else{
+
+			writer.append(headLine);
+			writer.append('\r');
+			writer.append('\n');
+			writer.flush();
+
+		}
+
+		// ヘッダの書き出し
+		header.output(writer);
+
+		// バッファのフラッシュ
+		writer.append('\r');
+		writer.append('\n');
+		writer.flush();
+		writer.close();
+
+		// ボディの書き出し
+		this.writeBodyTo(output);
+
+	}
+
 	//====================================================================
 	//	Public abstract methods
 	//====================================================================
@@ -229,53 +396,6 @@ public abstract class HttpMessage implements Closeable{
 	 */
 	public abstract String getHeadLine();
 
-	//====================================================================
-	//	Private methods
-	//====================================================================
-	private void writeBodyTo(final OutputStream out) throws IOException{
-
-		if(this.body != null){
-
-			final HttpHeader header = this.getHeader();
-			OutputStream cout = out;
-			if(header.containsKey(HeaderName.ContentLength)){
-
-				// ContentLengthが指定されていればそのサイズだけ送る
-				final String length = header.get(HeaderName.ContentLength).split(",")[0];
-				cout = new LimitedOutputStream(cout, Integer.parseInt(length));
-
-			}else if(Http.CHUNKED.equalsIgnoreCase(header.get(HeaderName.TransferEncoding))){
-
-				// TransferEncodingにchunkが指定されていればChunk形式で送る
-				cout = new ChunkedOutputStream(cout);
-
-			}
-
-			// 内容コーディングが指定されていれば従う
-			if(header.containsKey(HeaderName.ContentEncoding)){
-
-				final String encode = header.get(HeaderName.ContentEncoding);
-				if(Http.GZIP.equalsIgnoreCase(encode)){
-
-					cout = new GZIPOutputStream(cout, Stream.DefaultBufferSize);
-
-				}else if(Http.DEFLATE.equalsIgnoreCase(encode)){
-
-					cout = new DeflaterOutputStream(cout);
-
-				}
-
-			}
-
-			Stream.copy(this.body, cout);
-			cout.flush();
-			cout.close();
-
-		}
-		out.close();
-
-	}
-
 	//====================================================================
 	//	Package-private static methods
 	//====================================================================
@@ -298,12 +418,13 @@ public abstract class HttpMessage implements Closeable{
 		// 内容エンコーディングの解決
 		if(header.containsKey(HeaderName.ContentEncoding)){
 
+			final InputStream transfer = cin;
 			final String encode = header.get(HeaderName.ContentEncoding);
 			if(Http.GZIP.equalsIgnoreCase(encode)){
 
 				try {
 
-					cin = new GZIPInputStream(cin);
+					cin = new DecodedInputStream(new GZIPInputStream(transfer), transfer);
 
 				} catch (final IOException e) {
 					// TODO 自動生成された catch ブロック
@@ -312,7 +433,7 @@ public abstract class HttpMessage implements Closeable{
 
 			}else if(Http.DEFLATE.equalsIgnoreCase(encode)){
 
-				cin = new DeflaterInputStream(cin);
+				cin = new DecodedInputStream(new DeflaterInputStream(transfer), transfer);
 
 			}
 
@@ -322,4 +443,69 @@ public abstract class HttpMessage implements Closeable{
 
 	}
 
+	//====================================================================
+	//	Private inner classes
+	//====================================================================
+	/**
+	 * 内容コーディングを解決したストリーム．
+	 * 伸張器はメッセージボディの終わりより前に EOF を返すことがあるため，
+	 * EOF に達した時点で転送コーディングのストリームを読み切り，次のメッセージの先頭まで進める．
+	 */
+	private static final class DecodedInputStream extends FilterInputStream{
+
+		private final InputStream transfer;
+		private boolean drained = false;
+
+		public DecodedInputStream(final InputStream in, final InputStream transfer){
+			super(in);
+
+			this.transfer = transfer;
+
+		}
+
+		@Override
+		public int read() throws IOException{
+
+			final int res = super.read();
+			if(res == -1){
+
+				this.drain();
+
+			}
+			return res;
+
+		}
+
+		@Override
+		public int read(final byte[] b, final int off, final int len) throws IOException{
+
+			final int res = super.read(b, off, len);
+			if(res == -1){
+
+				this.drain();
+
+			}
+			return res;
+
+		}
+
+		private void drain() throws IOException{
+
+			if(!this.drained){
+
+				this.drained = true;
+
+				final byte[] buf = new byte[512];
+				while(this.transfer.read(buf) != -1){
+
+					;
+
+				}
+
+			}
+
+		}
+
+	}
+
 }
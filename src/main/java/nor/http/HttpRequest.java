@@ -22,7 +22,9 @@ import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.net.URL;
+import java.util.List;
 import java.util.logging.Level;
 import java.util.regex.Matcher;
 
@@ -30,6 +32,8 @@ import nor.http.error.HttpException;
 import nor.http.io.HeaderInputStream;
 import nor.util.io.LimitedInputStream;
 import nor.util.log.Logger;
+import nor.util.metrics.Histogram;
+import nor.util.metrics.Metrics;
 
 /**
  * HTTP リクエストを表すクラス．
@@ -62,11 +66,21 @@ public class HttpRequest extends HttpMessage{
 	 */
 	private final HttpHeader header;
 
+	/**
+	 * 処理に関する計測値
+	 */
+	private final RequestStats stats = new RequestStats();
+
 	/**
 	 * Logger
 	 */
 	private static final Logger LOGGER = Logger.getLogger(HttpRequest.class);
 
+	/**
+	 * リクエスト行とヘッダの読み込みに費やした時間
+	 */
+	private static final Histogram ParseTime = RequestStats.stage("parse");
+
 	//====================================================================
 	//	コンストラクタ
 	//====================================================================
@@ -114,6 +128,29 @@ public class HttpRequest extends HttpMessage{
 		this(method.toString(), url, body);
 	}
 
+	/**
+	 * リクエストラインの各要素を指定して，ヘッダとボディが空のリクエストを作成する．
+	 * HTTP/1.x 以外の形式で受け取ったリクエストを組み立てるために使います．
+	 *
+	 * @param method メソッド名
+	 * @param path 要求パス
+	 * @param version プロトコルバージョン
+	 */
+	public HttpRequest(final String method, final String path, final String version){
+		LOGGER.entering("<init>", method, path, version);
+		assert method != null;
+		assert path != null;
+		assert version != null;
+
+		this.method = method;
+		this.path = path;
+		this.version = version;
+
+		this.header = new HttpHeader();
+
+		LOGGER.exiting("<init>");
+	}
+
 	//====================================================================
 	//	Private constructors
 	//====================================================================
@@ -138,6 +175,7 @@ public class HttpRequest extends HttpMessage{
 			final Matcher m = Http.RequestLinePattern.matcher(buf);
 			if(m.matches()){
 
+				this.stats.restart();
 				this.method = m.group(1);
 				this.path = m.group(2);
 				this.version = m.group(3);
@@ -150,9 +188,19 @@ public class HttpRequest extends HttpMessage{
 
 		// Set headers
 		this.header = new HttpHeader(in);
+		if(Metrics.Enabled && this.method != null){
+
+			ParseTime.record(this.stats.getElapsedTime());
 
-		// Set body
-		this.setBody(HttpMessage.decodeStream(input, this.header));
+		}
+
+		// Set body (a request without Content-Length nor Transfer-Encoding has no body,
+		// and the rest of the stream belongs to the next request)
+		if(this.header.containsKey(HeaderName.ContentLength) || this.header.containsKey(HeaderName.TransferEncoding)){
+
+			this.setBody(HttpMessage.decodeStream(input, this.header));
+
+		}
 
 
 		LOGGER.exiting("<init>");
@@ -180,22 +228,14 @@ public class HttpRequest extends HttpMessage{
 	/**
 	 * メソッドを取得する．
 	 * このメソッドはメソッド名を Method 列挙型で返します.
+	 * 標準でないメソッドの場合は {@link Method#NonStandard} を返します．
 	 *
 	 * @return このHTTPリクエストのメソッド
 	 */
 	public Method getMethod(){
 		LOGGER.entering("getMethod");
 
-		Method ret = null;
-		try{
-
-			ret = Method.valueOf(this.method);
-
-		}catch(final IllegalArgumentException e){
-
-			LOGGER.warning("getMethod", e.getMessage());
-
-		}
+		final Method ret = Method.lookup(this.method);
 
 		LOGGER.exiting("getMethod", ret);
 		return ret;
@@ -236,6 +276,24 @@ public class HttpRequest extends HttpMessage{
 
 	}
 
+	/**
+	 * 要求パスの代わりに指定したリクエストターゲットを用いて，リクエストをストリームに書き出す．
+	 * プロキシを経由せずにオリジンサーバへ送る場合，ターゲットには絶対パス形式を指定します．
+	 * 書き出しは {@link #writeTo(OutputStream)} と同様に破壊的操作になります．
+	 *
+	 * @param output 書き出し先の出力ストリーム
+	 * @param target リクエストラインに書き出すリクエストターゲット
+	 * @throws IOException ストリームの書き出しにエラーが発生した場合
+	 */
+	public void writeTo(final OutputStream output, final String target) throws IOException{
+		LOGGER.entering("writeTo", output, target);
+		assert target != null;
+
+		this.writeMessage(output, String.format(Http.RequestLineTemplate, this.method, target, this.version));
+
+		LOGGER.exiting("writeTo");
+	}
+
 	//--------------------------------------------------------------------
 	//	レスポンスの作成
 	//--------------------------------------------------------------------
@@ -325,6 +383,33 @@ public class HttpRequest extends HttpMessage{
 
 	}
 
+	/**
+	 * このリクエストの処理に関する計測値を取得する．
+	 *
+	 * @return 計測値
+	 */
+	public RequestStats getStats(){
+
+		return this.stats;
+
+	}
+
+	/**
+	 * Range ヘッダで要求されたバイト範囲を取得する．
+	 * 返される範囲は未解決のため，{@link Range#coalesce(java.util.Collection, long)} などで全体の長さに対して解決してください．
+	 *
+	 * @return 要求されたバイト範囲．Range ヘッダがない場合や解析できない場合は null
+	 */
+	public List<Range> getRanges(){
+		LOGGER.entering("getRanges");
+
+		final List<Range> ret = Range.parse(this.header.get(HeaderName.Range));
+
+		LOGGER.exiting("getRanges", ret);
+		return ret;
+
+	}
+
 	//--------------------------------------------------------------------
 	//	HttpMessage のオーバーライド
 	//--------------------------------------------------------------------
@@ -356,6 +441,18 @@ public class HttpRequest extends HttpMessage{
 
 	}
 
+	/* (非 Javadoc)
+	 * @see nor.http.HttpMessage#definesBody()
+	 */
+	@Override
+	protected boolean definesBody(){
+
+		// ボディの意味が定義されているメソッドだけが空のボディを明示する
+		final Method method = this.getMethod();
+		return method == Method.POST || method == Method.PUT;
+
+	}
+
 	/* (非 Javadoc)
 	 * @see nor.http.HttpMessage#getHeadLine()
 	 */
@@ -21,6 +21,7 @@ import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.util.regex.Matcher;
 
 import nor.http.error.HttpException;
@@ -248,6 +249,33 @@ public class HttpResponse extends HttpMessage{
 
 	}
 
+	/**
+	 * このレスポンスが運ぶバイト範囲を取得する．
+	 * 206 Partial Content と 416 Requested Range Not Satisfiable のレスポンスは Content-Range ヘッダを持ちます．
+	 *
+	 * @return Content-Range ヘッダの値．ヘッダがない場合や解析できない場合は null
+	 */
+	public ContentRange getContentRange(){
+		LOGGER.entering("getContentRange");
+
+		final ContentRange ret = ContentRange.parse(this.header.get(HeaderName.ContentRange));
+
+		LOGGER.exiting("getContentRange", ret);
+		return ret;
+
+	}
+
+	/**
+	 * 部分コンテンツのレスポンスか調べる．
+	 *
+	 * @return ステータスが 206 Partial Content の場合 true
+	 */
+	public boolean isPartial(){
+
+		return this.code == Status.PartialContent.getCode();
+
+	}
+
 	@Override
 	public String toString(){
 
@@ -272,6 +300,26 @@ public class HttpResponse extends HttpMessage{
 	//--------------------------------------------------------------------
 	//	HttpMessage インタフェースの実装
 	//--------------------------------------------------------------------
+	/* (非 Javadoc)
+	 * @see nor.http.HttpMessage#writeTo(java.io.OutputStream)
+	 */
+	@Override
+	public void writeTo(final OutputStream output) throws IOException{
+
+		// 標準のステータス行であれば符号化済みのものを使う
+		final byte[] line = Status.valueOf(this.code).getStatusLine(this.version, this.message);
+		if(line != null){
+
+			this.writeMessage(output, line);
+
+		}else{
+
+			super.writeTo(output);
+
+		}
+
+	}
+
 	/* (非 Javadoc)
 	 * @see nor.http.HttpMessage#getVersion()
 	 */
@@ -80,6 +80,32 @@ public enum Method {
 	 */
 	NonStandard;
 
+	/**
+	 * Standard methods indexed by {@link #hash(int, int, int)} of their names
+	 */
+	private static final Method[] Table = new Method[16];
+
+	/**
+	 * Names of the methods in ASCII, which are compared with tokens
+	 */
+	private final byte[] token = this.name().getBytes();
+
+	static{
+
+		for(final Method m : Method.values()){
+
+			if(m != NonStandard){
+
+				final int i = hash(m.token[0], m.token[1], m.token.length);
+				assert Table[i] == null : "The hash of methods is not perfect";
+				Table[i] = m;
+
+			}
+
+		}
+
+	}
+
 	/**
 	 * 文字列との比較.
 	 *
@@ -92,6 +118,86 @@ public enum Method {
 
 	}
 
+	/**
+	 * メソッド名からメソッドを取得する．
+	 * {@link #valueOf(String)} とは異なり，標準外のメソッド名に対しては例外を投げずに {@link #NonStandard} を返す．
+	 *
+	 * @param name メソッド名
+	 * @return name に対応するメソッド，標準外のメソッドの場合は NonStandard
+	 */
+	public static Method lookup(final CharSequence name){
+
+		final int len = name.length();
+		if(len < 3 || len > 7){
+
+			return NonStandard;
+
+		}
+
+		final Method ret = Table[hash(name.charAt(0), name.charAt(1), len)];
+		if(ret == null || ret.token.length != len){
+
+			return NonStandard;
+
+		}
+		for(int i = 0; i != len; ++i){
+
+			if(ret.token[i] != name.charAt(i)){
+
+				return NonStandard;
+
+			}
+
+		}
+		return ret;
+
+	}
+
+	/**
+	 * ASCII で書かれたメソッド名からメソッドを取得する．
+	 * 受信したバイト列から文字列を作らずにメソッドを判定するために使います．
+	 *
+	 * @param buf メソッド名を含むバイト列
+	 * @param off メソッド名の開始位置
+	 * @param len メソッド名の長さ
+	 * @return メソッド名に対応するメソッド，標準外のメソッドの場合は NonStandard
+	 */
+	public static Method lookup(final byte[] buf, final int off, final int len){
+
+		if(len < 3 || len > 7){
+
+			return NonStandard;
+
+		}
+
+		final Method ret = Table[hash(buf[off], buf[off + 1], len)];
+		if(ret == null || ret.token.length != len){
+
+			return NonStandard;
+
+		}
+		for(int i = 0; i != len; ++i){
+
+			if(ret.token[i] != buf[off + i]){
+
+				return NonStandard;
+
+			}
+
+		}
+		return ret;
+
+	}
+
+	/**
+	 * Perfect hash of the standard method names, from their first two characters and lengths.
+	 */
+	private static int hash(final int c0, final int c1, final int len){
+
+		return ((c0 * 2 + c1 + len) >> 2) & 15;
+
+	}
+
 }
 
 
@@ -17,13 +17,15 @@
  */
 package nor.http;
 
+import java.util.ArrayList;
 import java.util.Collection;
-import java.util.HashMap;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.logging.Logger;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 import nor.util.Codec;
 
@@ -36,6 +38,12 @@ import nor.util.Codec;
  * の形で表わされる．本クラスが扱うのは上記のうち，queryに当たる部分である．
  *
  * このquery部分は通常URLエンコードされているが，本クラスで扱うものは，エンコード前の文字列である．
+ * <p>
+ * パラメータはキーと値の組のリストとして出現順に保持され，文字列表現もその順序になる．
+ * Map としての値は各キーの最初の値であり，すべての値は {@link #getAll(String)} で取得できる．
+ * Map のビュー ({@link #entrySet()}，{@link #keySet()}，{@link #values()}) は変更できないため，
+ * 変更には {@link #add(String, String)}，{@link #put(String, String)}，{@link #remove(Object)} を使う．
+ * </p>
  *
  * @author Junpei Kawamoto
  * @since 0.1
@@ -44,19 +52,19 @@ import nor.util.Codec;
 public class Query implements Map<String, String>{
 
 	/**
-	 * エントリ
+	 * 出現順のパラメータ
 	 */
-	private final Map<String, String> _entry = new HashMap<String, String>();
+	private final List<Param> _params = new ArrayList<Param>();
 
 	/**
-	 * ロガー
+	 * キーごとの最初の値．_params から作られる Map としてのビュー
 	 */
-	private static final Logger LOGGER = Logger.getLogger(Query.class.getName());
+	private final Map<String, String> _entry = new LinkedHashMap<String, String>();
 
 	/**
-	 * Query解析用正規表現
+	 * ロガー
 	 */
-	private static final Pattern QPAT = Pattern.compile("([^=^&]+)=([^&]+)");
+	private static final Logger LOGGER = Logger.getLogger(Query.class.getName());
 
 	/**
 	 * 空文字列
@@ -81,25 +89,50 @@ public class Query implements Map<String, String>{
 	 * @param query 解析するquery文字列
 	 */
 	public Query(final String query){
+		this(query, 0, query.length());
+	}
+
+	/**
+	 * 文字列の一部をQuery文字列として解析して，エントリ毎に格納する．
+	 * 正規表現を使わずに一度の走査で解析し，値だけをURLデコードします．
+	 * 値を持たないエントリは，空文字列を値に持つものとして扱います．
+	 *
+	 * @param query 解析するquery文字列を含む文字列
+	 * @param start query文字列の開始位置
+	 * @param end query文字列の終了位置
+	 */
+	public Query(final CharSequence query, final int start, final int end){
 		LOGGER.entering(Query.class.getName(), "<init>", query);
 		assert query != null;
 
-		final Matcher m = QPAT.matcher(query);
-		while(m.find()){
+		int s = start;
+		while(s < end){
 
-			final String key = m.group(1);
+			int e = s;
+			int eq = -1;
+			while(e != end && query.charAt(e) != '&'){
 
-			// URLデコード
-			final String value = Codec.urlDecode(m.group(2));
+				if(eq == -1 && query.charAt(e) == '='){
 
-			LOGGER.fine(String.format("Queryエントリを追加[%s : %s]", key, value));
-			this.put(key, value);
+					eq = e;
 
-		}
+				}
+				++e;
+
+			}
+
+			if(e != s && eq != s){
+
+				final String key = query.subSequence(s, eq != -1 ? eq : e).toString();
 
-		if(this._entry.size() == 0){
+				// URLデコード
+				final String value = eq != -1 ? Codec.urlDecode(query, eq + 1, e) : NONE;
 
-			this.put(query, NONE);
+				LOGGER.fine(String.format("Queryエントリを追加[%s : %s]", key, value));
+				this.add(key, value);
+
+			}
+			s = e + 1;
 
 		}
 
@@ -111,46 +144,88 @@ public class Query implements Map<String, String>{
 	//  public メソッド
 	//============================================================================
 	/**
-	 * このインスタンスが保持するQueryの文字列表現を返す．
-	 * このメソッドが返す文字列表現は，URLエンコードされる．
+	 * 値を追加する．
+	 * すでに同じキーが存在する場合も値を上書きせず，キーを繰り返します．
 	 *
-	 * @return このインスタンスが保持するQueryの文字列表現
+	 * @param key キー
+	 * @param value 追加する値
 	 */
-	@Override
-	public String toString(){
-		LOGGER.entering(Query.class.getName(), "toString");
+	public void add(final String key, final String value){
+		LOGGER.entering(Query.class.getName(), "add", new Object[]{key, value});
 
-		final StringBuilder builder = new StringBuilder();
-		for(String key : this.keySet()){
+		this._params.add(new Param(key, value));
+		if(!this._entry.containsKey(key)){
 
-			String value = this.get(key);
-			if(NONE.equals(value)){
+			this._entry.put(key, value);
 
-				builder.append(key);
+		}
 
-			}else{
+		LOGGER.exiting(Query.class.getName(), "add");
+	}
 
-				// URLエンコード
-				value = Codec.urlEncode(value);
+	/**
+	 * キーに関連付けられたすべての値を取得する．
+	 *
+	 * @param key キー
+	 * @return キーに関連付けられた値のリスト，キーが存在しない場合は空のリスト
+	 */
+	public List<String> getAll(final String key){
+		LOGGER.entering(Query.class.getName(), "getAll", key);
 
-				builder.append(key);
-				builder.append("=");
-				builder.append(value);
-				builder.append('&');
+		List<String> ret = Collections.emptyList();
+		if(this._entry.containsKey(key)){
+
+			ret = new ArrayList<String>(2);
+			for(final Param p : this._params){
+
+				if(p.key.equals(key)){
+
+					ret.add(p.value);
+
+				}
 
 			}
 
 		}
 
-		// 最後のアンパサンドを削除する
-		final int last = builder.length() - 1;
-		if((last >= 0) && (builder.charAt(last) == '&')){
+		LOGGER.exiting(Query.class.getName(), "getAll", ret);
+		return ret;
 
-			builder.deleteCharAt(last);
+	}
+
+	/**
+	 * このインスタンスが保持するQueryのURLエンコードされた文字列表現を追記する．
+	 * 追記先を使い回すことで，文字列表現を作るたびにバッファを確保せずに済みます．
+	 *
+	 * @param builder 追記先
+	 * @return builder
+	 */
+	public StringBuilder appendTo(final StringBuilder builder){
+		LOGGER.entering(Query.class.getName(), "appendTo", builder);
+
+		final int start = builder.length();
+		for(final Param p : this._params){
+
+			this.append(builder, start, p.key, p.value);
 
 		}
 
-		final String ret = builder.toString();
+		LOGGER.exiting(Query.class.getName(), "appendTo", builder);
+		return builder;
+
+	}
+
+	/**
+	 * このインスタンスが保持するQueryの文字列表現を返す．
+	 * このメソッドが返す文字列表現は，URLエンコードされる．
+	 *
+	 * @return このインスタンスが保持するQueryの文字列表現
+	 */
+	@Override
+	public String toString(){
+		LOGGER.entering(Query.class.getName(), "toString");
+
+		final String ret = this.appendTo(new StringBuilder()).toString();
 
 		LOGGER.exiting(Query.class.getName(), "toString", ret);
 		return ret;
@@ -167,6 +242,7 @@ public class Query implements Map<String, String>{
 	public void clear() {
 		LOGGER.entering(Query.class.getName(), "clear");
 
+		this._params.clear();
 		this._entry.clear();
 
 		LOGGER.exiting(Query.class.getName(), "clear");
@@ -206,7 +282,7 @@ public class Query implements Map<String, String>{
 	public Set<Entry<String, String>> entrySet() {
 		LOGGER.entering(Query.class.getName(), "entrySet");
 
-		final Set<Entry<String, String>> ret = this._entry.entrySet();
+		final Set<Entry<String, String>> ret = Collections.unmodifiableSet(this._entry.entrySet());
 
 		LOGGER.exiting(Query.class.getName(), "entrySet", ret);
 		return ret;
@@ -245,7 +321,7 @@ public class Query implements Map<String, String>{
 	public Set<String> keySet() {
 		LOGGER.entering(Query.class.getName(), "keySet");
 
-		final Set<String> ret = this._entry.keySet();
+		final Set<String> ret = Collections.unmodifiableSet(this._entry.keySet());
 
 		LOGGER.exiting(Query.class.getName(), "keySet", ret);
 		return ret;
@@ -258,7 +334,21 @@ public class Query implements Map<String, String>{
 	public String remove(Object key) {
 		LOGGER.entering(Query.class.getName(), "remove", key);
 
+		final boolean contained = this._entry.containsKey(key);
 		final String ret = this._entry.remove(key);
+		if(contained){
+
+			for(final Iterator<Param> i = this._params.iterator(); i.hasNext();){
+
+				if(i.next().key.equals(key)){
+
+					i.remove();
+
+				}
+
+			}
+
+		}
 
 		LOGGER.exiting(Query.class.getName(), "remove", ret);
 		return ret;
@@ -271,20 +361,53 @@ public class Query implements Map<String, String>{
 	public Collection<String> values() {
 		LOGGER.entering(Query.class.getName(), "values");
 
-		final Collection<String> ret = this._entry.values();
+		final Collection<String> ret = Collections.unmodifiableCollection(this._entry.values());
 
 		LOGGER.exiting(Query.class.getName(), "values", ret);
 		return ret;
 	}
 
 
-	/* (non-Javadoc)
+	/**
+	 * キーの値を設定する．
+	 * 最初に現れるパラメータの値を置き換え，同じキーの二つ目以降のパラメータは取り除く．
+	 * キーが存在しない場合は末尾に追加する．
+	 *
 	 * @see java.util.Map#put(java.lang.Object, java.lang.Object)
 	 */
 	public String put(String key, String value) {
 		LOGGER.entering(Query.class.getName(), "put", new Object[]{key, value});
 
+		final boolean contained = this._entry.containsKey(key);
 		final String ret = this._entry.put(key, value);
+		if(!contained){
+
+			this._params.add(new Param(key, value));
+
+		}else{
+
+			boolean first = true;
+			for(final Iterator<Param> i = this._params.iterator(); i.hasNext();){
+
+				final Param p = i.next();
+				if(p.key.equals(key)){
+
+					if(first){
+
+						p.value = value;
+						first = false;
+
+					}else{
+
+						i.remove();
+
+					}
+
+				}
+
+			}
+
+		}
 
 		LOGGER.exiting(Query.class.getName(), "put", ret);
 		return ret;
@@ -297,7 +420,11 @@ public class Query implements Map<String, String>{
 	public void putAll(Map<? extends String, ? extends String> m) {
 		LOGGER.entering(Query.class.getName(), "putAll", m);
 
-		this._entry.putAll(m);
+		for(final Map.Entry<? extends String, ? extends String> e : m.entrySet()){
+
+			this.put(e.getKey(), e.getValue());
+
+		}
 
 		LOGGER.exiting(Query.class.getName(), "putAll");
 	}
@@ -315,6 +442,48 @@ public class Query implements Map<String, String>{
 		return ret;
 	}
 
-}
+	//============================================================================
+	//  private メソッド
+	//============================================================================
+	/**
+	 * エントリを一つ追記する．
+	 */
+	private void append(final StringBuilder builder, final int start, final String key, final String value){
+
+		if(builder.length() != start){
+
+			builder.append('&');
+
+		}
+		builder.append(key);
+		if(!NONE.equals(value)){
+
+			// URLエンコード
+			builder.append('=');
+			Codec.urlEncode(builder, value);
+
+		}
+
+	}
+
+	//============================================================================
+	//  内部クラス
+	//============================================================================
+	/**
+	 * キーと値の組
+	 */
+	private static final class Param{
+
+		final String key;
+		String value;
 
+		Param(final String key, final String value){
 
+			this.key = key;
+			this.value = value;
+
+		}
+
+	}
+
+}
@@ -0,0 +1,473 @@
+/*
+ *  Copyright (C) 2011 Junpei Kawamoto
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package nor.http;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * バイト範囲．
+ * Range ヘッダの一つのバイト範囲指定を表します．
+ * 詳細は，RFC 2616 の 14.35 節を参照してください．
+ *
+ * 範囲の種類に応じて，フィールドは次の値を持ちます．
+ * <ul>
+ * <li>first-last : first と last (last を含む)</li>
+ * <li>first- : first と -1</li>
+ * <li>-suffix : -1 と suffix (末尾 suffix バイト)</li>
+ * </ul>
+ *
+ * @author Junpei Kawamoto
+ * @since 0.3
+ */
+public final class Range{
+
+	/**
+	 * 範囲の単位
+	 */
+	public static final String Unit = "bytes";
+
+	/**
+	 * 開始位置．末尾指定の場合は -1
+	 */
+	private final long first;
+
+	/**
+	 * 終了位置 (この位置を含む)．末尾まで指定の場合は -1，末尾指定の場合はバイト数
+	 */
+	private final long last;
+
+	/**
+	 * 開始位置の昇順に並べる比較器
+	 */
+	private static final Comparator<Range> Ascending = new Comparator<Range>(){
+
+		@Override
+		public int compare(final Range a, final Range b){
+
+			return a.first < b.first ? -1 : a.first == b.first ? 0 : 1;
+
+		}
+
+	};
+
+	//====================================================================
+	//  コンストラクタ
+	//====================================================================
+	/**
+	 * バイト範囲を作成する．
+	 *
+	 * @param first 開始位置．末尾指定の場合は -1
+	 * @param last 終了位置 (この位置を含む)．末尾まで指定の場合は -1，末尾指定の場合はバイト数
+	 */
+	public Range(final long first, final long last){
+
+		if(first < -1 || last < -1 || (first == -1 && last == -1) || (first != -1 && last != -1 && last < first)){
+
+			throw new IllegalArgumentException(first + "-" + last);
+
+		}
+		this.first = first;
+		this.last = last;
+
+	}
+
+	//====================================================================
+	//  public メソッド
+	//====================================================================
+	/**
+	 * 開始位置を取得する．
+	 *
+	 * @return 開始位置．末尾指定の場合は -1
+	 */
+	public long getFirst(){
+
+		return this.first;
+
+	}
+
+	/**
+	 * 終了位置を取得する．
+	 *
+	 * @return 終了位置．末尾まで指定の場合は -1，末尾指定の場合はバイト数
+	 */
+	public long getLast(){
+
+		return this.last;
+
+	}
+
+	/**
+	 * 範囲のバイト数を取得する．
+	 * 解決済みの範囲に対してのみ意味を持ちます．
+	 *
+	 * @return バイト数
+	 */
+	public long getLength(){
+
+		return this.last - this.first + 1;
+
+	}
+
+	/**
+	 * 全体の長さに対してこの範囲を解決する．
+	 *
+	 * @param length 全体の長さ
+	 * @return 開始位置と終了位置が確定した範囲．満たせない範囲の場合は null
+	 */
+	public Range resolve(final long length){
+
+		if(this.first == -1){
+
+			if(this.last == 0 || length == 0){
+
+				return null;
+
+			}
+			return new Range(Math.max(0, length - this.last), length - 1);
+
+		}
+		if(this.first >= length){
+
+			return null;
+
+		}
+		if(this.last == -1 || this.last >= length){
+
+			return new Range(this.first, length - 1);
+
+		}
+		return this;
+
+	}
+
+	/**
+	 * この範囲を表す Content-Range を作成する．
+	 *
+	 * @param length 全体の長さ．不明な場合は -1
+	 * @return Content-Range
+	 */
+	public ContentRange toContentRange(final long length){
+
+		return new ContentRange(this.first, this.last, length);
+
+	}
+
+	@Override
+	public boolean equals(final Object obj){
+
+		if(obj instanceof Range){
+
+			final Range that = (Range)obj;
+			return this.first == that.first && this.last == that.last;
+
+		}
+		return false;
+
+	}
+
+	@Override
+	public int hashCode(){
+
+		return (int)(this.first * 31 + this.last);
+
+	}
+
+	@Override
+	public String toString(){
+
+		final StringBuilder ret = new StringBuilder();
+		if(this.first != -1){
+
+			ret.append(this.first);
+
+		}
+		ret.append('-');
+		if(this.last != -1){
+
+			ret.append(this.last);
+
+		}
+		return ret.toString();
+
+	}
+
+	//====================================================================
+	//  public static メソッド
+	//====================================================================
+	/**
+	 * Range ヘッダの値を解析する．
+	 * 単位が bytes でない場合や構文が正しくない場合は，RFC 2616 に従いヘッダを無視できるよう null を返します．
+	 *
+	 * @param value Range ヘッダの値
+	 * @return バイト範囲のリスト．解析できない場合は null
+	 */
+	public static List<Range> parse(final String value){
+
+		if(value == null){
+
+			return null;
+
+		}
+
+		final int len = value.length();
+		int i = skip(value, 0);
+		if(!value.regionMatches(true, i, Unit, 0, Unit.length())){
+
+			return null;
+
+		}
+		i = skip(value, i + Unit.length());
+		if(i == len || value.charAt(i) != '='){
+
+			return null;
+
+		}
+
+		final List<Range> ret = new ArrayList<Range>();
+		while(++i <= len){
+
+			int end = value.indexOf(',', i);
+			if(end == -1){
+
+				end = len;
+
+			}
+
+			final int begin = skip(value, i);
+			int stop = end;
+			while(stop > begin && value.charAt(stop - 1) <= ' '){
+
+				--stop;
+
+			}
+			if(begin != stop){
+
+				final Range r = parseSpec(value, begin, stop);
+				if(r == null){
+
+					return null;
+
+				}
+				ret.add(r);
+
+			}
+			i = end;
+
+		}
+		return ret.isEmpty() ? null : ret;
+
+	}
+
+	/**
+	 * バイト範囲を Range ヘッダの値に変換する．
+	 *
+	 * @param ranges バイト範囲
+	 * @return Range ヘッダの値
+	 */
+	public static String format(final Collection<Range> ranges){
+
+		final StringBuilder ret = new StringBuilder(Unit).append('=');
+		boolean head = true;
+		for(final Range r : ranges){
+
+			if(!head){
+
+				ret.append(',');
+
+			}
+			ret.append(r);
+			head = false;
+
+		}
+		return ret.toString();
+
+	}
+
+	/**
+	 * バイト範囲を全体の長さに対して解決し，重なり合うものや隣接するものをまとめる．
+	 *
+	 * @param ranges バイト範囲
+	 * @param length 全体の長さ
+	 * @return 開始位置の昇順に並んだ解決済みの範囲．満たせる範囲がない場合は空のリスト
+	 */
+	public static List<Range> coalesce(final Collection<Range> ranges, final long length){
+
+		final List<Range> resolved = new ArrayList<Range>(ranges.size());
+		for(final Range r : ranges){
+
+			final Range a = r.resolve(length);
+			if(a != null){
+
+				resolved.add(a);
+
+			}
+
+		}
+		Collections.sort(resolved, Ascending);
+
+		final List<Range> ret = new ArrayList<Range>(resolved.size());
+		Range current = null;
+		for(final Range r : resolved){
+
+			if(current == null){
+
+				current = r;
+
+			}else if(r.first <= current.last + 1){
+
+				if(r.last > current.last){
+
+					current = new Range(current.first, r.last);
+
+				}
+
+			}else{
+
+				ret.add(current);
+				current = r;
+
+			}
+
+		}
+		if(current != null){
+
+			ret.add(current);
+
+		}
+		return ret;
+
+	}
+
+	/**
+	 * If-Range ヘッダの条件を評価する．
+	 * エンティティタグは強い比較で，日付は文字列の一致で比較します．
+	 *
+	 * @param ifRange If-Range ヘッダの値．null の場合は常に成立
+	 * @param etag 現在のエンティティタグ．不明な場合は null
+	 * @param lastModified 現在の最終更新日時．不明な場合は null
+	 * @return 条件が成立し範囲要求に応じてよい場合 true
+	 */
+	public static boolean matchesIfRange(final String ifRange, final String etag, final String lastModified){
+
+		if(ifRange == null){
+
+			return true;
+
+		}
+
+		final String v = ifRange.trim();
+		if(v.startsWith("\"") || v.startsWith("W/")){
+
+			return etag != null && !v.startsWith("W/") && !etag.startsWith("W/") && v.equals(etag.trim());
+
+		}
+		return lastModified != null && v.equals(lastModified.trim());
+
+	}
+
+	//====================================================================
+	//  private static メソッド
+	//====================================================================
+	/**
+	 * 一つのバイト範囲指定を解析する．
+	 *
+	 * @param s 解析対象
+	 * @param begin 開始位置
+	 * @param end 終了位置 (この位置を含まない)
+	 * @return バイト範囲．構文が正しくない場合は null
+	 */
+	private static Range parseSpec(final String s, final int begin, final int end){
+
+		final int dash = s.indexOf('-', begin);
+		if(dash == -1 || dash >= end){
+
+			return null;
+
+		}
+
+		final long first = dash == begin ? -1 : parseNumber(s, begin, dash);
+		final long last = dash + 1 == end ? -1 : parseNumber(s, dash + 1, end);
+		if((dash != begin && first == -1) || (dash + 1 != end && last == -1) || (first == -1 && last == -1)){
+
+			return null;
+
+		}
+		if(first != -1 && last != -1 && last < first){
+
+			return null;
+
+		}
+		return new Range(first, last);
+
+	}
+
+	/**
+	 * 10 進数を解析する．
+	 *
+	 * @param s 解析対象
+	 * @param begin 開始位置
+	 * @param end 終了位置 (この位置を含まない)
+	 * @return 値．数字でない場合や桁があふれる場合は -1
+	 */
+	static long parseNumber(final String s, final int begin, final int end){
+
+		if(begin == end || end - begin > 18){
+
+			return -1;
+
+		}
+
+		long ret = 0;
+		for(int i = begin; i != end; ++i){
+
+			final char c = s.charAt(i);
+			if(c < '0' || c > '9'){
+
+				return -1;
+
+			}
+			ret = ret * 10 + (c - '0');
+
+		}
+		return ret;
+
+	}
+
+	/**
+	 * 空白を読み飛ばす．
+	 *
+	 * @param s 対象文字列
+	 * @param i 開始位置
+	 * @return 空白でない最初の位置
+	 */
+	private static int skip(final String s, int i){
+
+		while(i < s.length() && s.charAt(i) <= ' '){
+
+			++i;
+
+		}
+		return i;
+
+	}
+
+}
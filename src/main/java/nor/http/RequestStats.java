@@ -0,0 +1,188 @@
+/*
+ *  Copyright (C) 2011 Junpei Kawamoto
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package nor.http;
+
+import nor.util.metrics.Counter;
+import nor.util.metrics.Histogram;
+import nor.util.metrics.Metrics;
+
+/**
+ * リクエストの処理に関する計測値．
+ * 上流サーバとの通信やフィルタに費やした時間と，選ばれた経路を記録し，アクセスログに使用します．
+ * 値は一つのリクエストを処理するスレッドから順に書き込まれることを想定しており，同期は行いません．
+ *
+ * @author Junpei Kawamoto
+ * @since 0.3
+ */
+public final class RequestStats{
+
+	/**
+	 * 外部プロキシを経由しない経路
+	 */
+	public static final String Direct = "DIRECT";
+
+	/**
+	 * 処理を終えたリクエストの数
+	 */
+	private static final Counter Requests = Metrics.counter("nor_requests_total", "Number of requests which have been responded.");
+
+	/**
+	 * リクエスト行を受け取ってからレスポンスを書き終えるまでの時間
+	 */
+	private static final Histogram TotalTime = stage("total");
+
+	/**
+	 * フィルタに費やした時間．メッセージボディを処理するストリームフィルタの時間を含む
+	 */
+	private static final Histogram FilterTime = stage("filter");
+
+	private long started = System.nanoTime();
+
+	private long upstream;
+	private long filter;
+	private String route;
+
+	//====================================================================
+	//  コンストラクタ
+	//====================================================================
+	RequestStats(){
+	}
+
+	//====================================================================
+	//  public メソッド
+	//====================================================================
+	/**
+	 * リクエスト処理の段階ごとの時間を記録するヒストグラムを取得する．
+	 *
+	 * @param stage 段階の名前
+	 * @return ヒストグラム
+	 */
+	public static Histogram stage(final String stage){
+
+		return Metrics.histogram("nor_stage_seconds", "Time spent in each stage of request processing.", "stage", stage);
+
+	}
+
+	/**
+	 * 上流サーバとの通信に費やした時間を加える．
+	 *
+	 * @param nanos 時間 (ナノ秒)
+	 */
+	public void addUpstreamTime(final long nanos){
+
+		this.upstream += nanos;
+
+	}
+
+	/**
+	 * フィルタに費やした時間を加える．
+	 * メッセージフィルタの適用時と，メッセージボディを書き出す間のストリームフィルタの処理時に呼ばれます．
+	 *
+	 * @param nanos 時間 (ナノ秒)
+	 */
+	public void addFilterTime(final long nanos){
+
+		this.filter += nanos;
+
+	}
+
+	/**
+	 * 選ばれた経路を設定する．
+	 *
+	 * @param route 経路．外部プロキシを経由しない場合は {@link #Direct}
+	 */
+	public void setRoute(final String route){
+
+		this.route = route;
+
+	}
+
+	/**
+	 * レスポンスを書き終えたことを記録する．
+	 * 処理したリクエストの数と，リクエスト全体の処理時間を計測値に加えます．
+	 */
+	public void complete(){
+
+		Requests.increment();
+		if(Metrics.Enabled){
+
+			TotalTime.record(this.getElapsedTime());
+			FilterTime.record(this.filter);
+
+		}
+
+	}
+
+	/**
+	 * リクエストを受け取ってからの経過時間を取得する．
+	 *
+	 * @return 経過時間 (ナノ秒)
+	 */
+	public long getElapsedTime(){
+
+		return System.nanoTime() - this.started;
+
+	}
+
+	/**
+	 * 上流サーバとの通信に費やした時間を取得する．
+	 *
+	 * @return 時間 (ナノ秒)
+	 */
+	public long getUpstreamTime(){
+
+		return this.upstream;
+
+	}
+
+	/**
+	 * フィルタに費やした時間を取得する．
+	 *
+	 * @return 時間 (ナノ秒)
+	 */
+	public long getFilterTime(){
+
+		return this.filter;
+
+	}
+
+	/**
+	 * 選ばれた経路を取得する．
+	 *
+	 * @return 経路．上流サーバに送られなかった場合は null
+	 */
+	public String getRoute(){
+
+		return this.route;
+
+	}
+
+	//====================================================================
+	//  package private メソッド
+	//====================================================================
+	/**
+	 * リクエスト行を受け取った時刻から計測し直す．
+	 * 持続的接続で次のリクエストを待っていた時間を含めないために使用します．
+	 */
+	void restart(){
+
+		this.started = System.nanoTime();
+
+	}
+
+}
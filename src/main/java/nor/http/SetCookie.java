@@ -21,8 +21,6 @@ import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
 import java.util.logging.Logger;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 /**
  * SetCookieヘッダをラップするクラス．
@@ -30,6 +28,10 @@ import java.util.regex.Pattern;
  * <p>
  * Set-Cookie: num=123456; expires=Sun, 10-Jun-2001 12:00:00 GMT; path=/HTTP/
  * </p>
+ * <p>
+ * 各エントリは属性が要求されたときに初めて元の文字列を走査し，要求された属性の値だけを切り出します．
+ * 変更はまとめて保持され，メッセージが書き出されるときなどに一度だけヘッダへ書き戻されます．
+ * </p>
  *
  * @author Junpei Kawamoto
  * @since 0.1
@@ -37,13 +39,12 @@ import java.util.regex.Pattern;
  */
 public class SetCookie implements Iterable<SetCookie.Entry>{
 
-	private static String SP = ";";
+	private static String SP = "; ";
 	private static String EQ = "=";
 	private static String SECURE = "secure";
 	private static String EXPIRES = "expires";
 	private static String PATH = "path";
 	private static String DOMAIN = "domain";
-	private static Pattern ENTRYP_ATTERN = Pattern.compile("\\s*([^=]+)=([^;]+)");
 
 	public class Entry{
 
@@ -54,95 +55,99 @@ public class SetCookie implements Iterable<SetCookie.Entry>{
 		private String domain = null;
 		private boolean secure = false;
 
+		/**
+		 * 解析していない属性の元の文字列
+		 */
+		private String others = null;
+
+		/**
+		 * 属性がフィールドに展開されているか
+		 */
+		private boolean parsed = false;
+
+		/**
+		 * 元の文字列，フィールドが変更された後は再構築されるまで null
+		 */
 		private String src;
 
 		public Entry(final String src){
 
 			this.src = src;
 
-			// 初期設定
-			this.secure = false;
-
-			for(final String e : src.split(SP)){
-
-
-				if(SECURE.equalsIgnoreCase(e.trim())){
-
-					this.secure = true;
-
-				}else{
-
-					final Matcher m = ENTRYP_ATTERN.matcher(e);
-					if(m.find()){
-
-						final String key = m.group(1);
-						final String value = m.group(2);
-
-						if(EXPIRES.equalsIgnoreCase(key)){
+		}
 
-							this.date = value;
+		public String getKey(){
 
-						}else if(PATH.equalsIgnoreCase(key)){
+			if(this.parsed){
 
-							this.date = value;
+				return this.key;
 
-						}else if(DOMAIN.equalsIgnoreCase(key)){
+			}
 
-							this.domain = value;
+			final int e = this.end(0);
+			final int eq = this.src.indexOf('=');
+			return eq != -1 && eq < e ? this.src.substring(skip(this.src, 0, eq), trim(this.src, 0, eq)) : null;
 
-						}else{
+		}
 
-							this.key = key;
-							this.value = value;
+		public String getValue(){
 
-						}
+			if(this.parsed){
 
-					}
-
-				}
+				return this.value;
 
 			}
 
+			final int e = this.end(0);
+			final int eq = this.src.indexOf('=');
+			return eq != -1 && eq < e ? this.src.substring(skip(this.src, eq + 1, e), trim(this.src, eq + 1, e)) : null;
+
 		}
 
-		public String getKey(){
+		public String getData(){
 
-			return this.key;
+			return this.parsed ? this.date : this.attribute(EXPIRES);
 
 		}
 
-		public String getValue(){
+		public String getPath(){
 
-			return this.value;
+			return this.parsed ? this.path : this.attribute(PATH);
 
 		}
 
-		public String getData(){
+		public String getDomain(){
 
-			return this.date;
+			return this.parsed ? this.domain : this.attribute(DOMAIN);
 
 		}
 
-		public String getPath(){
+		public boolean getSecure(){
 
-			return this.path;
+			if(this.parsed){
 
-		}
+				return this.secure;
 
-		public String getDomain(){
+			}
 
-			return this.domain;
+			for(int s = this.end(0) + 1; s < this.src.length(); s = this.end(s) + 1){
 
-		}
+				final int b = skip(this.src, s, this.end(s));
+				final int e = trim(this.src, b, this.end(s));
+				if(e - b == SECURE.length() && this.src.regionMatches(true, b, SECURE, 0, SECURE.length())){
 
-		public boolean getSecure(){
+					return true;
+
+				}
 
-			return this.secure;
+			}
+			return false;
 
 		}
 
 		public void setKey(final String key){
 
+			this.parse();
 			this.key = key;
 			this.update();
 
@@ -150,6 +155,7 @@ public class SetCookie implements Iterable<SetCookie.Entry>{
 
 		public void setValue(final String value){
 
+			this.parse();
 			this.value = value;
 			this.update();
 
@@ -157,6 +163,7 @@ public class SetCookie implements Iterable<SetCookie.Entry>{
 
 		public void setDate(final String date){
 
+			this.parse();
 			this.date = date;
 			this.update();
 
@@ -164,6 +171,7 @@ public class SetCookie implements Iterable<SetCookie.Entry>{
 
 		public void setPath(final String path){
 
+			this.parse();
 			this.path = path;
 			this.update();
 
@@ -171,6 +179,7 @@ public class SetCookie implements Iterable<SetCookie.Entry>{
 
 		public void setDomain(final String domain){
 
+			this.parse();
 			this.domain = domain;
 			this.update();
 
@@ -178,6 +187,7 @@ public class SetCookie implements Iterable<SetCookie.Entry>{
 
 		public void setSecure(final boolean secure){
 
+			this.parse();
 			this.secure = secure;
 			this.update();
 
@@ -189,13 +199,98 @@ public class SetCookie implements Iterable<SetCookie.Entry>{
 		@Override
 		public String toString(){
 
+			if(this.src == null){
+
+				this.src = this.build();
+
+			}
 			return this.src;
 
 		}
 
+		/**
+		 * 指定した位置から始まる属性の終端を探す．
+		 */
+		private int end(final int from){
+
+			final int i = this.src.indexOf(';', from);
+			return i != -1 ? i : this.src.length();
+
+		}
+
+		/**
+		 * 名前と値の組の後に続く属性の値を探す．
+		 *
+		 * @param name 属性名
+		 * @return 属性の値，属性がない場合は null
+		 */
+		private String attribute(final String name){
+
+			for(int s = this.end(0) + 1; s < this.src.length(); s = this.end(s) + 1){
+
+				final int e = this.end(s);
+				final int b = skip(this.src, s, e);
+				final int eq = this.src.indexOf('=', b);
+				if(eq != -1 && eq < e && trim(this.src, b, eq) - b == name.length() && this.src.regionMatches(true, b, name, 0, name.length())){
+
+					return this.src.substring(skip(this.src, eq + 1, e), trim(this.src, eq + 1, e));
+
+				}
+
+			}
+			return null;
+
+		}
+
+		/**
+		 * 変更に備えて属性をフィールドに展開する．
+		 */
+		private void parse(){
+
+			if(this.parsed){
+
+				return;
+
+			}
+
+			this.key = this.getKey();
+			this.value = this.getValue();
+			this.date = this.getData();
+			this.path = this.getPath();
+			this.domain = this.getDomain();
+			this.secure = this.getSecure();
+
+			// 扱わない属性 (Max-Age や HttpOnly など) はそのまま残す
+			final StringBuilder buf = new StringBuilder();
+			for(int s = this.end(0) + 1; s < this.src.length(); s = this.end(s) + 1){
+
+				final int e = this.end(s);
+				final int b = skip(this.src, s, e);
+				final int eq = this.src.indexOf('=', b);
+				final String name = this.src.substring(b, eq != -1 && eq < e ? trim(this.src, b, eq) : trim(this.src, b, e));
+				if(name.length() != 0 && !EXPIRES.equalsIgnoreCase(name) && !PATH.equalsIgnoreCase(name) && !DOMAIN.equalsIgnoreCase(name) && !SECURE.equalsIgnoreCase(name)){
+
+					buf.append(SP);
+					buf.append(this.src, b, trim(this.src, b, e));
+
+				}
+
+			}
+			this.others = buf.length() != 0 ? buf.toString() : null;
+			this.parsed = true;
+
+		}
+
 		private void update(){
 
-			final StringBuffer buf = new StringBuffer();
+			this.src = null;
+			SetCookie.this.change();
+
+		}
+
+		private String build(){
+
+			final StringBuilder buf = new StringBuilder();
 
 			buf.append(this.key);
 			buf.append(EQ);
@@ -239,15 +334,48 @@ public class SetCookie implements Iterable<SetCookie.Entry>{
 
 			}
 
-			this.src = buf.toString();
+			if(this.others != null){
 
-		}
+				buf.append(this.others);
+
+			}
+
+			return buf.toString();
 
+		}
 
 	}
 
 	private final HttpHeader header;
-	private final List<Entry> entries = new ArrayList<Entry>();
+
+	/**
+	 * ヘッダに登録するビュー
+	 */
+	private final HttpHeader.View view = new HttpHeader.View(){
+
+		@Override
+		public String commit(){
+
+			return SetCookie.this.commit();
+
+		}
+
+	};
+
+	/**
+	 * エントリを切り出したヘッダの値
+	 */
+	private String source = null;
+
+	/**
+	 * エントリのリスト，まだ切り出していない間は null
+	 */
+	private List<Entry> entries = null;
+
+	/**
+	 * ヘッダへの書き戻しが保留されているか
+	 */
+	private boolean changed = false;
 
 	/**
 	 * ロガー
@@ -260,11 +388,6 @@ public class SetCookie implements Iterable<SetCookie.Entry>{
 	private SetCookie(final HttpHeader header){
 
 		this.header = header;
-		for(final String e : header.get(HeaderName.SetCookie).split("\n")){
-
-			this.entries.add(new Entry(e));
-
-		}
 
 	}
 
@@ -273,14 +396,14 @@ public class SetCookie implements Iterable<SetCookie.Entry>{
 	//============================================================================
 	public void add(final Entry e){
 
-		this.entries.add(e);
-		this.update();
+		this.entries().add(e);
+		this.change();
 
 	}
 
 	public Entry get(final int i){
 
-		return this.entries.get(i);
+		return this.entries().get(i);
 
 	}
 
@@ -290,29 +413,29 @@ public class SetCookie implements Iterable<SetCookie.Entry>{
 	public void clear(){
 		LOGGER.entering(SetCookie.class.getName(), "clear");
 
-		this.entries.clear();
 		this.header.remove(HeaderName.SetCookie);
+		this.entries = null;
 
 		LOGGER.exiting(SetCookie.class.getName(), "clear");
 	}
 
 	public void remove(final Entry e){
 
-		this.entries.remove(e);
-		this.update();
+		this.entries().remove(e);
+		this.change();
 
 	}
 
 	@Override
 	public Iterator<Entry> iterator() {
 
-		return this.entries.iterator();
+		return this.entries().iterator();
 
 	}
 
 	public int size(){
 
-		return this.entries.size();
+		return this.entries().size();
 
 	}
 
@@ -323,10 +446,11 @@ public class SetCookie implements Iterable<SetCookie.Entry>{
 	public String toString(){
 		LOGGER.entering(SetCookie.class.getName(), "toString");
 
-		final StringBuffer buf = new StringBuffer();
-		if(this.entries.size() != 0){
+		final StringBuilder buf = new StringBuilder();
+		final List<Entry> entries = this.entries();
+		if(entries.size() != 0){
 
-			for(final Entry e : this.entries){
+			for(final Entry e : entries){
 
 				buf.append(e.toString());
 				buf.append(", ");
@@ -344,9 +468,124 @@ public class SetCookie implements Iterable<SetCookie.Entry>{
 	//============================================================================
 	//  private methods
 	//============================================================================
-	private void update(){
+	/**
+	 * 保留している変更を反映したヘッダの値を返し，保留を解除する．
+	 *
+	 * @return 新しいヘッダの値，エントリがない場合は null
+	 */
+	private String commit(){
+		LOGGER.entering(SetCookie.class.getName(), "commit");
+
+		String ret = null;
+		if(this.entries != null && this.entries.size() != 0){
+
+			// HttpHeader は Set-Cookie を改行で連結して保持する
+			final StringBuilder buf = new StringBuilder();
+			for(final Entry e : this.entries){
+
+				if(buf.length() != 0){
+
+					buf.append('\n');
+
+				}
+				buf.append(e.toString());
+
+			}
+			ret = buf.toString();
+
+		}
+		this.source = ret;
+		this.changed = false;
+
+		LOGGER.exiting(SetCookie.class.getName(), "commit", ret);
+		return ret;
+
+	}
+
+	/**
+	 * エントリのリストを取得する．
+	 * ヘッダの値が切り出した後に書き換えられていれば切り出し直します．
+	 *
+	 * @return エントリのリスト
+	 */
+	private List<Entry> entries(){
+
+		final String raw = this.header.raw(HeaderName.SetCookie, this.view);
+		if(this.entries == null || (!this.changed && raw != this.source)){
+
+			this.entries = new ArrayList<Entry>();
+			if(raw != null){
 
-		this.header.set(HeaderName.SetCookie, this.toString());
+				for(int s = 0; s < raw.length(); ){
+
+					int e = raw.indexOf('\n', s);
+					if(e == -1){
+
+						e = raw.length();
+
+					}
+
+					final int b = skip(raw, s, e);
+					final int t = trim(raw, b, e);
+					if(b != t){
+
+						this.entries.add(new Entry(raw.substring(b, t)));
+
+					}
+					s = e + 1;
+
+				}
+
+			}
+			this.source = raw;
+
+		}
+		return this.entries;
+
+	}
+
+	/**
+	 * ヘッダに書き戻しを予約する．
+	 */
+	private void change(){
+
+		if(!this.changed){
+
+			this.entries();
+			this.changed = true;
+			this.header.defer(HeaderName.SetCookie, this.view);
+
+		}
+
+	}
+
+	/**
+	 * 先頭の空白を読み飛ばす．
+	 */
+	private static int skip(final String raw, final int from, final int to){
+
+		int i = from;
+		while(i < to && Character.isWhitespace(raw.charAt(i))){
+
+			++i;
+
+		}
+		return i;
+
+	}
+
+	/**
+	 * 末尾の空白を除いた終端を返す．
+	 */
+	private static int trim(final String raw, final int from, final int to){
+
+		int i = to;
+		while(i > from && Character.isWhitespace(raw.charAt(i - 1))){
+
+			--i;
+
+		}
+		return i;
 
 	}
 
@@ -360,5 +599,3 @@ public class SetCookie implements Iterable<SetCookie.Entry>{
 	}
 
 }
-
-
@@ -17,6 +17,7 @@
  */
 package nor.http;
 
+import java.io.UnsupportedEncodingException;
 
 /**
  * HTTP/1.1 で定義されるステータス．
@@ -278,6 +279,30 @@ public enum Status{
 	private final int code;
 	private final String msg;
 
+	/**
+	 * Status line of HTTP/1.1 with the line break, encoded in advance
+	 */
+	private final byte[] line;
+
+	/**
+	 * Statuses indexed by their codes; a code shared by some statuses gives the first one
+	 */
+	private static final Status[] Table = new Status[1000];
+
+	static{
+
+		for(final Status s : Status.values()){
+
+			if(s.code >= 0 && Table[s.code] == null){
+
+				Table[s.code] = s;
+
+			}
+
+		}
+
+	}
+
 	//====================================================================
 	// Constructor
 	//====================================================================
@@ -286,6 +311,16 @@ public enum Status{
 		this.code = code;
 		this.msg = msg;
 
+		try{
+
+			this.line = code < 0 ? null : String.format(Http.ResponseLineTemplate + "\r\n", Http.Version, code, msg).getBytes("ISO-8859-1");
+
+		}catch(final UnsupportedEncodingException e){
+
+			throw new AssertionError(e);
+
+		}
+
 	}
 
 	//====================================================================
@@ -313,6 +348,24 @@ public enum Status{
 
 	}
 
+	/**
+	 * このステータスを表す HTTP/1.1 のステータス行を，改行を含めて書き出す．
+	 *
+	 * @param version HTTP バージョン
+	 * @param message メッセージ
+	 * @return version と message がこのステータスのものと等しい場合は符号化済みのステータス行，そうでなければ null
+	 */
+	byte[] getStatusLine(final String version, final String message){
+
+		if(this.line != null && Http.Version.equals(version) && this.msg.equals(message)){
+
+			return this.line;
+
+		}
+		return null;
+
+	}
+
 	/* (非 Javadoc)
 	 * @see java.lang.Enum#toString()
 	 */
@@ -334,17 +387,12 @@ public enum Status{
 	 */
 	public static Status valueOf(final int code){
 
-		for(final Status s : Status.values()){
+		if(code < 0 || code >= Table.length || Table[code] == null){
 
-			if(s.code == code){
-
-				return s;
-
-			}
+			return Status.NonStandard;
 
 		}
-
-		return Status.NonStandard;
+		return Table[code];
 
 	}
 
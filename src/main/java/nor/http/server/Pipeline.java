@@ -0,0 +1,432 @@
+/*
+ *  Copyright (C) 2011 Junpei Kawamoto
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package nor.http.server;
+
+import static nor.http.HeaderName.Connection;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.logging.Level;
+
+import nor.http.HeaderName;
+import nor.http.HttpHeader;
+import nor.http.HttpMessage;
+import nor.http.HttpRequest;
+import nor.http.HttpResponse;
+import nor.http.RequestStats;
+import nor.http.server.access.AccessLog;
+import nor.util.io.NoExceptionOutputStreamFilter;
+import nor.util.log.Logger;
+import nor.util.metrics.Histogram;
+import nor.util.metrics.Metrics;
+
+/**
+ * HTTP/1.1 パイプライン．
+ * 一つの持続接続で受け取ったリクエストを並行して処理し，レスポンスを受け取った順に書き出します．
+ * 先行するリクエストが処理中でなく，後続のリクエストも届いていない場合は，呼び出したスレッドで直ちに処理します．
+ *
+ * @author Junpei Kawamoto
+ * @since 0.3
+ */
+public class Pipeline{
+
+	private final HttpRequestHandler handler;
+	private final NoExceptionOutputStreamFilter output;
+	private final ExecutorService executor;
+	private final Closeable input;
+
+	/**
+	 * 処理待ちのリクエスト数を制限するセマフォ
+	 */
+	private final Semaphore slots;
+	private final int depth;
+
+	private final BlockingQueue<Entry> queue = new LinkedBlockingQueue<Entry>();
+	private Future<?> writer;
+
+	private volatile boolean alive = true;
+
+	private static final Entry End = new Entry(null, null);
+
+	private static final Logger LOGGER = Logger.getLogger(Pipeline.class);
+
+	/**
+	 * レスポンスの書き出しに費やした時間
+	 */
+	private static final Histogram WriteTime = RequestStats.stage("write");
+
+	//============================================================================
+	//  Constructor
+	//============================================================================
+	/**
+	 * パイプラインを作成する．
+	 *
+	 * @param handler リクエストハンドラ
+	 * @param output レスポンスの書き出し先
+	 * @param input 接続の入力側．パイプラインが閉じられるとき，読み込み待ちを解除するために閉じられる
+	 * @param executor リクエストの処理とレスポンスの書き出しを行うエグゼキュータ
+	 * @param depth 同時に処理するリクエストの最大数
+	 */
+	public Pipeline(final HttpRequestHandler handler, final NoExceptionOutputStreamFilter output, final Closeable input, final ExecutorService executor, final int depth){
+		LOGGER.entering("<init>", handler, output, input, executor, depth);
+		assert handler != null;
+		assert output != null;
+		assert input != null;
+		assert executor != null;
+		assert depth > 0;
+
+		this.handler = handler;
+		this.output = output;
+		this.input = input;
+		this.executor = executor;
+		this.depth = depth;
+		this.slots = new Semaphore(depth);
+
+		LOGGER.exiting("<init>");
+	}
+
+	//============================================================================
+	//  Public methods
+	//============================================================================
+	/**
+	 * リクエストをパイプラインに追加する．
+	 * ボディを持つリクエストの場合，ボディが読み終わるまで待ってから戻る．
+	 *
+	 * @param request 追加するリクエスト
+	 * @param pipelined 後続のリクエストが既に届いている場合 true
+	 * @return 次のリクエストを読み込んでよい場合 true
+	 * @throws IOException リクエストボディの読み込みに失敗した場合
+	 * @throws InterruptedException 待機中に割り込まれた場合
+	 */
+	public boolean offer(final HttpRequest request, final boolean pipelined) throws IOException, InterruptedException{
+		LOGGER.entering("offer", request, pipelined);
+		assert request != null;
+
+		if(!this.alive){
+
+			LOGGER.exiting("offer", false);
+			return false;
+
+		}
+
+		final boolean keepAlive = this.isKeepingAlive(request);
+
+		// ボディは後続のリクエストの前にあるので，処理が終わった後に読み捨てる
+		final InputStream body = request.getBody();
+
+		// 処理中のリクエストがなければ呼び出したスレッドで処理する
+		this.slots.acquire();
+		if(!pipelined && this.slots.availablePermits() == this.depth - 1){
+
+			try{
+
+				final HttpResponse response = this.handler.doRequest(request);
+				this.skip(body);
+				this.write(request, response);
+
+			}finally{
+
+				this.slots.release();
+
+			}
+
+			final boolean res = this.alive && keepAlive;
+			LOGGER.exiting("offer", res);
+			return res;
+
+		}
+
+		final Entry e = new Entry(request, new Callable<HttpResponse>(){
+
+			@Override
+			public HttpResponse call() throws Exception {
+
+				return Pipeline.this.handler.doRequest(request);
+
+			}
+
+		});
+
+		try{
+
+			this.executor.execute(e.task);
+			if(this.writer == null){
+
+				this.writer = this.executor.submit(new Runnable(){
+
+					@Override
+					public void run(){
+
+						Pipeline.this.drain();
+
+					}
+
+				});
+
+			}
+
+		}catch(final RejectedExecutionException ex){
+
+			LOGGER.catched(Level.WARNING, "offer", ex);
+			this.slots.release();
+			this.alive = false;
+
+			LOGGER.exiting("offer", false);
+			return false;
+
+		}
+		this.queue.add(e);
+
+		if(body != null){
+
+			try{
+
+				e.task.get();
+
+			}catch(final ExecutionException ex){
+
+				LOGGER.catched(Level.FINE, "offer", ex);
+
+			}
+			this.skip(body);
+
+		}
+
+		final boolean res = this.alive && keepAlive;
+		LOGGER.exiting("offer", res);
+		return res;
+	}
+
+	/**
+	 * 全てのレスポンスが書き出されるまで待つ．
+	 *
+	 * @return 次のリクエストを受け付けられる場合 true
+	 */
+	public boolean finish(){
+		LOGGER.entering("finish");
+
+		if(this.writer != null){
+
+			this.queue.add(End);
+			try{
+
+				this.writer.get();
+
+			}catch(final InterruptedException e){
+
+				LOGGER.catched(Level.FINE, "finish", e);
+				this.writer.cancel(true);
+				Thread.currentThread().interrupt();
+
+			}catch(final ExecutionException e){
+
+				LOGGER.catched(Level.WARNING, "finish", e);
+
+			}
+			this.writer = null;
+
+		}
+
+		LOGGER.exiting("finish", this.alive);
+		return this.alive;
+	}
+
+	/**
+	 * 接続が持続しているか調べる．
+	 *
+	 * @return 次のリクエストを受け付けられる場合 true
+	 */
+	public boolean alive(){
+
+		return this.alive;
+
+	}
+
+	//============================================================================
+	//  Private methods
+	//============================================================================
+	/**
+	 * キューに入れられた順にレスポンスを書き出す．
+	 */
+	private void drain(){
+		LOGGER.entering("drain");
+
+		try{
+
+			Entry e;
+			while((e = this.queue.take()) != End){
+
+				try{
+
+					final HttpResponse response = e.task.get();
+					if(this.alive){
+
+						this.write(e.request, response);
+
+					}else{
+
+						response.close();
+
+					}
+
+				}catch(final ExecutionException ex){
+
+					LOGGER.warning("drain", "Cannot handle {0} ({1})", e.request.getHeadLine(), ex.getCause());
+					LOGGER.catched(Level.FINE, "drain", ex);
+					this.stop();
+
+				}catch(final IOException ex){
+
+					LOGGER.catched(Level.FINE, "drain", ex);
+					this.stop();
+
+				}finally{
+
+					this.slots.release();
+
+				}
+
+			}
+
+		}catch(final InterruptedException e){
+
+			LOGGER.catched(Level.FINE, "drain", e);
+			this.stop();
+
+		}
+
+		LOGGER.exiting("drain");
+	}
+
+	private void write(final HttpRequest request, final HttpResponse response) throws IOException{
+		LOGGER.entering("write", request, response);
+
+		final HttpHeader header = response.getHeader();
+
+		// レスポンスの書き出し
+		LOGGER.fine("write", "Return the {0}", response);
+		final long start = Metrics.start();
+		final long written = this.output.getWritten();
+		response.writeTo(this.output);
+		response.close();
+		this.output.flush();
+		WriteTime.recordSince(start);
+		request.getStats().complete();
+
+		// アクセスログが有効なら，そちらに記録する
+		final AccessLog access = AccessLog.getInstance();
+		if(access.isEnabled()){
+
+			access.log(request, response, this.output.getWritten() - written);
+
+		}else if(header.containsKey(HeaderName.ContentLength)){
+
+			LOGGER.info("write", "{0} > {1} ({2} bytes)", request.getHeadLine(), response.getHeadLine(), header.get(HeaderName.ContentLength));
+
+		}else{
+
+			LOGGER.info("write", "{0} > {1} (unknown length)", request.getHeadLine(), response.getHeadLine());
+
+		}
+
+		if(!this.output.alive() || !this.isKeepingAlive(request) || !this.isKeepingAlive(response)){
+
+			this.stop();
+
+		}
+
+		LOGGER.exiting("write");
+	}
+
+	/**
+	 * 以降のリクエストを受け付けないようにし，読み込み待ちを解除する．
+	 */
+	private void stop(){
+
+		if(this.alive){
+
+			this.alive = false;
+			try{
+
+				this.input.close();
+
+			}catch(final IOException e){
+
+				LOGGER.catched(Level.FINE, "stop", e);
+
+			}
+
+		}
+
+	}
+
+	/**
+	 * ハンドラが読まなかったボディを読み捨てる．
+	 *
+	 * @param body リクエストボディ
+	 * @throws IOException 読み込みに失敗した場合
+	 */
+	private void skip(final InputStream body) throws IOException{
+
+		if(body != null){
+
+			final byte[] buf = new byte[4096];
+			while(body.read(buf) != -1){
+
+				;
+
+			}
+
+		}
+
+	}
+
+	private boolean isKeepingAlive(final HttpMessage msg){
+
+		return !msg.getHeader().containsValue(Connection, "close");
+
+	}
+
+	//============================================================================
+	//  Inner classes
+	//============================================================================
+	private static final class Entry{
+
+		private final HttpRequest request;
+		private final FutureTask<HttpResponse> task;
+
+		public Entry(final HttpRequest request, final Callable<HttpResponse> call){
+
+			this.request = request;
+			this.task = call != null ? new FutureTask<HttpResponse>(call) : null;
+
+		}
+
+	}
+
+}
@@ -0,0 +1,680 @@
+/*
+ *  Copyright (C) 2011 Junpei Kawamoto
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package nor.http.server.access;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.text.DateFormat;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+
+import nor.http.HeaderName;
+import nor.http.HttpHeader;
+import nor.http.HttpRequest;
+import nor.http.HttpResponse;
+import nor.http.RequestStats;
+import nor.util.log.Logger;
+
+/**
+ * アクセスログ．
+ * リクエスト毎の記録を固定レイアウトのスロットからなるリングバッファに書き込み，
+ * 書き出しスレッドがまとめてファイルへ書き出します．
+ * リングバッファへの書き込みはロックを使用せず，バッファが一杯の場合は記録を捨てて数えます．
+ *
+ * ファイルは一定のサイズを超えると切り替えられ，指定した数だけ保存されます．
+ * 形式は次のバイナリ形式か，{@link AccessRecord#toString()} と同じテキスト形式を選べます．
+ * バイナリ形式のファイルは {@link AccessLogReader} で読み込み，テキストに変換できます．
+ *
+ * <pre>
+ * file   = "NAL" version(1 byte) *record
+ * record = length(int) time(long) status(short) in(long) out(long)
+ *          total(int) upstream(int) filter(int) method url route
+ * string = length(unsigned short) UTF-8 bytes
+ * </pre>
+ * 時間はマイクロ秒，length はそれ自身を除いたレコードのバイト数です．
+ *
+ * @author Junpei Kawamoto
+ * @since 0.3
+ */
+public final class AccessLog implements Closeable{
+
+	/**
+	 * バイナリ形式のファイルの先頭
+	 */
+	static final byte[] Magic = {'N', 'A', 'L', 1};
+
+	public static final boolean Enabled;
+	public static final String Directory;
+	public static final String FileName;
+	public static final String Format;
+	public static final int Capacity;
+	public static final int MaxFileSize;
+	public static final int FileCount;
+
+	private static final String Text = "text";
+	private static final String UTF8 = "UTF-8";
+
+	private static final int BatchSize = 64 * 1024;
+	private static final int MaxMethodLength = 64;
+	private static final int MaxURLLength = 4096;
+	private static final int MaxRouteLength = 256;
+	private static final long FlushInterval = TimeUnit.MILLISECONDS.toNanos(200);
+
+	private static final AccessLog Instance;
+
+	private final File dir;
+	private final String name;
+	private final boolean text;
+	private final long maxFileSize;
+	private final int count;
+
+	private final Slot[] ring;
+	private final int mask;
+	private final AtomicLong tail = new AtomicLong();
+	private final AtomicLong dropped = new AtomicLong();
+
+	private final Thread writer;
+	private volatile boolean closed;
+
+	private FileChannel channel;
+	private long size;
+
+	private static final Logger LOGGER = Logger.getLogger(AccessLog.class);
+
+	//============================================================================
+	//  Constructor
+	//============================================================================
+	/**
+	 * アクセスログを作成する．
+	 *
+	 * @param dir ログファイルを置くディレクトリ
+	 * @param name ログファイル名の接頭辞
+	 * @param text テキスト形式で書き出す場合 true
+	 * @param capacity リングバッファに保持する記録の数
+	 * @param maxFileSize ファイルを切り替えるサイズ
+	 * @param count 保存するファイルの数
+	 */
+	public AccessLog(final File dir, final String name, final boolean text, final int capacity, final long maxFileSize, final int count){
+		LOGGER.entering("<init>", dir, name, text, capacity, maxFileSize, count);
+		assert dir != null;
+		assert name != null;
+		assert capacity > 0;
+		assert maxFileSize > 0;
+		assert count > 0;
+
+		this.dir = dir;
+		this.name = name;
+		this.text = text;
+		this.maxFileSize = maxFileSize;
+		this.count = count;
+
+		int size = 1;
+		while(size < capacity){
+
+			size <<= 1;
+
+		}
+		this.ring = new Slot[size];
+		for(int i = 0; i != size; ++i){
+
+			this.ring[i] = new Slot(i);
+
+		}
+		this.mask = size - 1;
+
+		this.writer = new Thread(new Runnable(){
+
+			@Override
+			public void run(){
+
+				AccessLog.this.drain();
+
+			}
+
+		}, "Access Log Writer");
+		this.writer.setDaemon(true);
+		this.writer.start();
+
+		LOGGER.exiting("<init>");
+	}
+
+	private AccessLog(){
+
+		this.dir = null;
+		this.name = null;
+		this.text = false;
+		this.maxFileSize = 0;
+		this.count = 0;
+
+		this.ring = null;
+		this.mask = 0;
+		this.writer = null;
+		this.closed = true;
+
+	}
+
+	//============================================================================
+	//  Public methods
+	//============================================================================
+	/**
+	 * 設定に従って作成されたアクセスログを取得する．
+	 *
+	 * @return アクセスログ
+	 */
+	public static AccessLog getInstance(){
+
+		return Instance;
+
+	}
+
+	/**
+	 * 記録を受け付けるか調べる．
+	 *
+	 * @return 記録を受け付ける場合 true
+	 */
+	public boolean isEnabled(){
+
+		return !this.closed;
+
+	}
+
+	/**
+	 * 書き出したレスポンスを記録する．
+	 *
+	 * @param request リクエスト
+	 * @param response レスポンス
+	 * @param bytesOut クライアントへ書き出したバイト数
+	 */
+	public void log(final HttpRequest request, final HttpResponse response, final long bytesOut){
+
+		if(this.closed){
+
+			return;
+
+		}
+
+		final RequestStats stats = request.getStats();
+
+		long bytesIn = 0;
+		final HttpHeader header = request.getHeader();
+		if(header.containsKey(HeaderName.ContentLength)){
+
+			try{
+
+				bytesIn = Long.parseLong(header.get(HeaderName.ContentLength).trim());
+
+			}catch(final NumberFormatException e){
+
+				bytesIn = -1;
+
+			}
+
+		}else if(header.containsKey(HeaderName.TransferEncoding)){
+
+			bytesIn = -1;
+
+		}
+
+		this.log(System.currentTimeMillis(), request.getMethodString(), request.getPath(), response.getCode(), bytesIn, bytesOut,
+				stats.getElapsedTime() / 1000, stats.getUpstreamTime() / 1000, stats.getFilterTime() / 1000, stats.getRoute());
+
+	}
+
+	/**
+	 * 記録を追加する．
+	 * バッファが一杯の場合，記録は捨てられます．
+	 *
+	 * @param time 応答を書き出した時刻 (エポックからのミリ秒)
+	 * @param method リクエストメソッド
+	 * @param url 要求された URL
+	 * @param status レスポンスのステータスコード
+	 * @param bytesIn リクエストボディのバイト数．不明の場合は -1
+	 * @param bytesOut クライアントへ書き出したバイト数
+	 * @param totalTime 総時間 (マイクロ秒)
+	 * @param upstreamTime 上流サーバとの通信に費やした時間 (マイクロ秒)
+	 * @param filterTime フィルタに費やした時間 (マイクロ秒)
+	 * @param route 選ばれた経路
+	 */
+	public void log(final long time, final String method, final String url, final int status, final long bytesIn, final long bytesOut,
+			final long totalTime, final long upstreamTime, final long filterTime, final String route){
+
+		if(this.closed){
+
+			return;
+
+		}
+
+		// 各スロットの sequence が取得可能な番号を表す (有界 MPMC キューの方式)
+		Slot s;
+		long t;
+		while(true){
+
+			t = this.tail.get();
+			s = this.ring[(int)t & this.mask];
+
+			final long diff = s.sequence - t;
+			if(diff == 0){
+
+				if(this.tail.compareAndSet(t, t + 1)){
+
+					break;
+
+				}
+
+			}else if(diff < 0){
+
+				this.dropped.incrementAndGet();
+				return;
+
+			}
+
+		}
+
+		s.time = time;
+		s.method = method;
+		s.url = url;
+		s.status = status;
+		s.bytesIn = bytesIn;
+		s.bytesOut = bytesOut;
+		s.totalTime = totalTime;
+		s.upstreamTime = upstreamTime;
+		s.filterTime = filterTime;
+		s.route = route;
+		s.sequence = t + 1;
+
+	}
+
+	/**
+	 * バッファが一杯で捨てられた記録の数を取得する．
+	 *
+	 * @return 捨てられた記録の数
+	 */
+	public long getDropped(){
+
+		return this.dropped.get();
+
+	}
+
+	/**
+	 * 残っている記録を書き出してからファイルを閉じる．
+	 */
+	@Override
+	public void close(){
+		LOGGER.entering("close");
+
+		if(!this.closed){
+
+			this.closed = true;
+			LockSupport.unpark(this.writer);
+			try{
+
+				this.writer.join(TimeUnit.SECONDS.toMillis(5));
+
+			}catch(final InterruptedException e){
+
+				LOGGER.catched(Level.FINE, "close", e);
+				Thread.currentThread().interrupt();
+
+			}
+
+		}
+
+		LOGGER.exiting("close");
+	}
+
+	//============================================================================
+	//  Private methods
+	//============================================================================
+	/**
+	 * 書き出しスレッドの処理．
+	 */
+	private void drain(){
+
+		final ByteBuffer batch = ByteBuffer.allocateDirect(BatchSize);
+		final DateFormat format = AccessRecord.createTimeFormat();
+		final StringBuilder line = new StringBuilder();
+
+		long h = 0;
+		long reported = 0;
+		while(true){
+
+			final Slot s = this.ring[(int)h & this.mask];
+			if(s.sequence == h + 1){
+
+				try{
+
+					this.encode(s, batch, format, line);
+
+				}catch(final IOException e){
+
+					LOGGER.catched(Level.WARNING, "drain", e);
+
+				}
+
+				s.method = null;
+				s.url = null;
+				s.route = null;
+				s.sequence = h + this.ring.length;
+				++h;
+				continue;
+
+			}
+
+			// 取り出せる記録がなくなったらまとめて書き出す
+			try{
+
+				this.write(batch);
+
+			}catch(final IOException e){
+
+				LOGGER.catched(Level.WARNING, "drain", e);
+
+			}
+
+			final long d = this.dropped.get();
+			if(d != reported){
+
+				LOGGER.warning("drain", "{0} access records were dropped", d - reported);
+				reported = d;
+
+			}
+
+			if(this.closed && h == this.tail.get()){
+
+				break;
+
+			}
+			LockSupport.parkNanos(this, FlushInterval);
+
+		}
+
+		if(this.channel != null){
+
+			try{
+
+				this.channel.close();
+
+			}catch(final IOException e){
+
+				LOGGER.catched(Level.FINE, "drain", e);
+
+			}
+
+		}
+
+	}
+
+	/**
+	 * スロットの記録をバッファに書き込む．
+	 * バッファに入りきらない場合は，先にバッファの内容を書き出す．
+	 */
+	private void encode(final Slot s, final ByteBuffer batch, final DateFormat format, final StringBuilder line) throws IOException{
+
+		if(this.text){
+
+			line.setLength(0);
+			new AccessRecord(s.time, s.method, s.url, s.status, s.bytesIn, s.bytesOut, s.totalTime, s.upstreamTime, s.filterTime, s.route).render(line, format).append('\n');
+
+			final byte[] b = line.toString().getBytes(UTF8);
+			this.put(batch, b, 0, b.length);
+			return;
+
+		}
+
+		final byte[] method = bytes(s.method, MaxMethodLength);
+		final byte[] url = bytes(s.url, MaxURLLength);
+		final byte[] route = bytes(s.route, MaxRouteLength);
+		final int length = 8 + 2 + 8 + 8 + 4 * 3 + 2 * 3 + method.length + url.length + route.length;
+		if(batch.remaining() < 4 + length){
+
+			this.write(batch);
+
+		}
+
+		batch.putInt(length);
+		batch.putLong(s.time);
+		batch.putShort((short)s.status);
+		batch.putLong(s.bytesIn);
+		batch.putLong(s.bytesOut);
+		batch.putInt(clamp(s.totalTime));
+		batch.putInt(clamp(s.upstreamTime));
+		batch.putInt(clamp(s.filterTime));
+		batch.putShort((short)method.length).put(method);
+		batch.putShort((short)url.length).put(url);
+		batch.putShort((short)route.length).put(route);
+
+	}
+
+	private void put(final ByteBuffer batch, final byte[] b, final int off, final int len) throws IOException{
+
+		if(batch.remaining() < len){
+
+			this.write(batch);
+
+		}
+		batch.put(b, off, Math.min(len, batch.remaining()));
+
+	}
+
+	/**
+	 * バッファの内容をファイルに書き出す．必要であればファイルを切り替える．
+	 */
+	private void write(final ByteBuffer batch) throws IOException{
+
+		batch.flip();
+		try{
+
+			if(!batch.hasRemaining()){
+
+				return;
+
+			}
+
+			if(this.channel == null){
+
+				this.open();
+
+			}else if(this.size + batch.remaining() > this.maxFileSize){
+
+				this.rotate();
+
+			}
+
+			while(batch.hasRemaining()){
+
+				this.size += this.channel.write(batch);
+
+			}
+
+		}finally{
+
+			batch.clear();
+
+		}
+
+	}
+
+	private void open() throws IOException{
+
+		final File file = this.file(0);
+		this.channel = new FileOutputStream(file, true).getChannel();
+		this.size = this.channel.size();
+		if(this.size == 0 && !this.text){
+
+			this.size += this.channel.write(ByteBuffer.wrap(Magic));
+
+		}
+		LOGGER.fine("open", "Open the access log {0}", file);
+
+	}
+
+	private void rotate() throws IOException{
+
+		this.channel.close();
+		this.channel = null;
+
+		final File last = this.file(this.count - 1);
+		if(last.exists() && !last.delete()){
+
+			LOGGER.warning("rotate", "Cannot delete {0}", last);
+
+		}
+		for(int i = this.count - 2; i >= 0; --i){
+
+			final File f = this.file(i);
+			if(f.exists() && !f.renameTo(this.file(i + 1))){
+
+				LOGGER.warning("rotate", "Cannot rename {0}", f);
+
+			}
+
+		}
+		this.open();
+
+	}
+
+	private File file(final int generation){
+
+		return new File(this.dir, this.name + "." + generation + (this.text ? ".log" : ".bin"));
+
+	}
+
+	private static byte[] bytes(final String str, final int max) throws UnsupportedEncodingException{
+
+		if(str == null){
+
+			return new byte[0];
+
+		}
+		return (str.length() > max ? str.substring(0, max) : str).getBytes(UTF8);
+
+	}
+
+	private static int clamp(final long micros){
+
+		return (int)Math.min(micros, Integer.MAX_VALUE);
+
+	}
+
+	//============================================================================
+	//  Inner classes
+	//============================================================================
+	/**
+	 * リングバッファの固定レイアウトのスロット．
+	 */
+	private static final class Slot{
+
+		private volatile long sequence;
+
+		private long time;
+		private String method;
+		private String url;
+		private int status;
+		private long bytesIn;
+		private long bytesOut;
+		private long totalTime;
+		private long upstreamTime;
+		private long filterTime;
+		private String route;
+
+		public Slot(final long sequence){
+
+			this.sequence = sequence;
+
+		}
+
+	}
+
+	//============================================================================
+	//  Class constructor
+	//============================================================================
+	static{
+
+		final String classname = AccessLog.class.getName();
+		final Properties defaults = new Properties();
+		try {
+
+			defaults.load(AccessLog.class.getResourceAsStream("default.conf"));
+
+		} catch (final IOException e) {
+
+			LOGGER.severe("<class init>", "Cannot load default configs ({0})", e);
+
+		}
+
+		final String enabled = String.format("%s.Enabled", classname);
+		Enabled = Boolean.valueOf(System.getProperty(enabled, defaults.getProperty(enabled)));
+
+		final String dir = String.format("%s.Directory", classname);
+		final String d = System.getProperty(dir, defaults.getProperty(dir, "")).trim();
+		Directory = d.length() != 0 ? d : System.getProperty("java.io.tmpdir");
+
+		final String fname = String.format("%s.FileName", classname);
+		FileName = System.getProperty(fname, defaults.getProperty(fname));
+
+		final String format = String.format("%s.Format", classname);
+		Format = System.getProperty(format, defaults.getProperty(format));
+
+		final String capacity = String.format("%s.Capacity", classname);
+		Capacity = Integer.valueOf(System.getProperty(capacity, defaults.getProperty(capacity)));
+
+		final String fsize = String.format("%s.MaxFileSize", classname);
+		MaxFileSize = Integer.valueOf(System.getProperty(fsize, defaults.getProperty(fsize)));
+
+		final String fcount = String.format("%s.FileCount", classname);
+		FileCount = Integer.valueOf(System.getProperty(fcount, defaults.getProperty(fcount)));
+
+		LOGGER.config("<class init>", "Load a constant: Enabled = {0}", Enabled);
+		LOGGER.config("<class init>", "Load a constant: Directory = {0}", Directory);
+		LOGGER.config("<class init>", "Load a constant: FileName = {0}", FileName);
+		LOGGER.config("<class init>", "Load a constant: Format = {0}", Format);
+		LOGGER.config("<class init>", "Load a constant: Capacity = {0}", Capacity);
+		LOGGER.config("<class init>", "Load a constant: MaxFileSize = {0}", MaxFileSize);
+		LOGGER.config("<class init>", "Load a constant: FileCount = {0}", FileCount);
+
+		if(Enabled){
+
+			Instance = new AccessLog(new File(Directory), FileName, Text.equalsIgnoreCase(Format), Capacity, MaxFileSize, FileCount);
+			Runtime.getRuntime().addShutdownHook(new Thread(new Runnable(){
+
+				@Override
+				public void run(){
+
+					Instance.close();
+
+				}
+
+			}, "Access Log Closer"));
+
+		}else{
+
+			Instance = new AccessLog();
+
+		}
+
+	}
+
+}
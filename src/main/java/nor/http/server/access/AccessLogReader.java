@@ -0,0 +1,178 @@
+/*
+ *  Copyright (C) 2011 Junpei Kawamoto
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package nor.http.server.access;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.text.DateFormat;
+
+/**
+ * バイナリ形式のアクセスログを読み込む．
+ * コマンドラインから実行すると，指定したファイルをテキスト形式に変換して標準出力に書き出します．
+ *
+ * @author Junpei Kawamoto
+ * @since 0.3
+ */
+public class AccessLogReader implements Closeable{
+
+	private final DataInputStream in;
+
+	//====================================================================
+	//  コンストラクタ
+	//====================================================================
+	/**
+	 * ストリームからアクセスログを読み込むリーダを作成する．
+	 *
+	 * @param in バイナリ形式のアクセスログ
+	 * @throws IOException ファイルの先頭が正しくない場合
+	 */
+	public AccessLogReader(final InputStream in) throws IOException{
+		assert in != null;
+
+		this.in = new DataInputStream(new BufferedInputStream(in));
+
+		final byte[] magic = new byte[AccessLog.Magic.length];
+		this.in.readFully(magic);
+		for(int i = 0; i != magic.length; ++i){
+
+			if(magic[i] != AccessLog.Magic[i]){
+
+				throw new IOException("Not an access log");
+
+			}
+
+		}
+
+	}
+
+	//====================================================================
+	//  public メソッド
+	//====================================================================
+	/**
+	 * 次の記録を読み込む．
+	 *
+	 * @return 読み込んだ記録．ファイルの終わりに達した場合は null
+	 * @throws IOException 読み込みに失敗した場合
+	 */
+	public AccessRecord read() throws IOException{
+
+		final int length;
+		try{
+
+			length = this.in.readInt();
+
+		}catch(final EOFException e){
+
+			return null;
+
+		}
+
+		final byte[] rec = new byte[length];
+		this.in.readFully(rec);
+
+		final DataInputStream r = new DataInputStream(new ByteArrayInputStream(rec));
+		final long time = r.readLong();
+		final int status = r.readShort();
+		final long bytesIn = r.readLong();
+		final long bytesOut = r.readLong();
+		final long total = r.readInt();
+		final long upstream = r.readInt();
+		final long filter = r.readInt();
+		final String method = readString(r);
+		final String url = readString(r);
+		final String route = readString(r);
+
+		return new AccessRecord(time, method, url, status, bytesIn, bytesOut, total, upstream, filter, route.length() == 0 ? null : route);
+
+	}
+
+	@Override
+	public void close() throws IOException{
+
+		this.in.close();
+
+	}
+
+	/**
+	 * バイナリ形式のアクセスログをテキスト形式に変換する．
+	 *
+	 * @param args 変換するファイル
+	 */
+	public static void main(final String[] args){
+
+		if(args.length == 0){
+
+			System.err.println("Usage: <access log file> ...");
+			System.exit(1);
+
+		}
+
+		final PrintStream out = System.out;
+		final DateFormat format = AccessRecord.createTimeFormat();
+		final StringBuilder line = new StringBuilder();
+		for(final String file : args){
+
+			try{
+
+				final AccessLogReader r = new AccessLogReader(new FileInputStream(file));
+				try{
+
+					AccessRecord rec;
+					while((rec = r.read()) != null){
+
+						line.setLength(0);
+						out.println(rec.render(line, format));
+
+					}
+
+				}finally{
+
+					r.close();
+
+				}
+
+			}catch(final IOException e){
+
+				System.err.println(file + ": " + e.getMessage());
+
+			}
+
+		}
+
+	}
+
+	//====================================================================
+	//  private メソッド
+	//====================================================================
+	private static String readString(final DataInputStream in) throws IOException{
+
+		final byte[] b = new byte[in.readUnsignedShort()];
+		in.readFully(b);
+
+		return new String(b, "UTF-8");
+
+	}
+
+}
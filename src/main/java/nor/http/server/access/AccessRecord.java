@@ -0,0 +1,218 @@
+/*
+ *  Copyright (C) 2011 Junpei Kawamoto
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package nor.http.server.access;
+
+import java.text.DateFormat;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+
+/**
+ * アクセスログの一つの記録．
+ *
+ * @author Junpei Kawamoto
+ * @since 0.3
+ */
+public final class AccessRecord{
+
+	private final long time;
+	private final String method;
+	private final String url;
+	private final int status;
+	private final long bytesIn;
+	private final long bytesOut;
+	private final long totalTime;
+	private final long upstreamTime;
+	private final long filterTime;
+	private final String route;
+
+	private static final String TimeFormat = "yyyy-MM-dd'T'HH:mm:ss.SSS'Z'";
+	private static final String None = "-";
+
+	//====================================================================
+	//  コンストラクタ
+	//====================================================================
+	/**
+	 * 記録を作成する．
+	 *
+	 * @param time 応答を書き出した時刻 (エポックからのミリ秒)
+	 * @param method リクエストメソッド
+	 * @param url 要求された URL
+	 * @param status レスポンスのステータスコード
+	 * @param bytesIn リクエストボディのバイト数．不明の場合は -1
+	 * @param bytesOut クライアントへ書き出したバイト数
+	 * @param totalTime リクエストを受け取ってから応答を書き終えるまでの時間 (マイクロ秒)
+	 * @param upstreamTime 上流サーバとの通信に費やした時間 (マイクロ秒)
+	 * @param filterTime フィルタに費やした時間 (マイクロ秒)
+	 * @param route 選ばれた経路．上流サーバに送られなかった場合は null
+	 */
+	public AccessRecord(final long time, final String method, final String url, final int status, final long bytesIn, final long bytesOut,
+			final long totalTime, final long upstreamTime, final long filterTime, final String route){
+
+		this.time = time;
+		this.method = method;
+		this.url = url;
+		this.status = status;
+		this.bytesIn = bytesIn;
+		this.bytesOut = bytesOut;
+		this.totalTime = totalTime;
+		this.upstreamTime = upstreamTime;
+		this.filterTime = filterTime;
+		this.route = route;
+
+	}
+
+	//====================================================================
+	//  public メソッド
+	//====================================================================
+	public long getTime(){
+
+		return this.time;
+
+	}
+
+	public String getMethod(){
+
+		return this.method;
+
+	}
+
+	public String getURL(){
+
+		return this.url;
+
+	}
+
+	public int getStatus(){
+
+		return this.status;
+
+	}
+
+	public long getBytesIn(){
+
+		return this.bytesIn;
+
+	}
+
+	public long getBytesOut(){
+
+		return this.bytesOut;
+
+	}
+
+	public long getTotalTime(){
+
+		return this.totalTime;
+
+	}
+
+	public long getUpstreamTime(){
+
+		return this.upstreamTime;
+
+	}
+
+	public long getFilterTime(){
+
+		return this.filterTime;
+
+	}
+
+	public String getRoute(){
+
+		return this.route;
+
+	}
+
+	/**
+	 * 一行のテキストに変換する．
+	 * 時刻，メソッド，URL，ステータス，入力バイト数，出力バイト数，総時間，上流時間，フィルタ時間 (ミリ秒)，経路を空白で区切って並べます．
+	 */
+	@Override
+	public String toString(){
+
+		return this.render(new StringBuilder(), createTimeFormat()).toString();
+
+	}
+
+	//====================================================================
+	//  package private メソッド
+	//====================================================================
+	StringBuilder render(final StringBuilder out, final DateFormat format){
+
+		out.append(format.format(new Date(this.time))).append(' ');
+		out.append(this.method).append(' ');
+		out.append(this.url).append(' ');
+		out.append(this.status).append(' ');
+		if(this.bytesIn < 0){
+
+			out.append(None);
+
+		}else{
+
+			out.append(this.bytesIn);
+
+		}
+		out.append(' ');
+		out.append(this.bytesOut).append(' ');
+		appendMillis(out, this.totalTime).append(' ');
+		appendMillis(out, this.upstreamTime).append(' ');
+		appendMillis(out, this.filterTime).append(' ');
+		out.append(this.route == null ? None : this.route);
+
+		return out;
+
+	}
+
+	static DateFormat createTimeFormat(){
+
+		final SimpleDateFormat ret = new SimpleDateFormat(TimeFormat, Locale.US);
+		ret.setTimeZone(TimeZone.getTimeZone("UTC"));
+
+		return ret;
+
+	}
+
+	//====================================================================
+	//  private メソッド
+	//====================================================================
+	/**
+	 * マイクロ秒をミリ秒の小数第三位まで書き出す．
+	 */
+	private static StringBuilder appendMillis(final StringBuilder out, final long micros){
+
+		out.append(micros / 1000).append('.');
+
+		final long frac = micros % 1000;
+		if(frac < 100){
+
+			out.append('0');
+
+		}
+		if(frac < 10){
+
+			out.append('0');
+
+		}
+		return out.append(frac);
+
+	}
+
+}
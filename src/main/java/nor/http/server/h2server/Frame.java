@@ -0,0 +1,215 @@
+/*
+ *  Copyright (C) 2011 Junpei Kawamoto
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package nor.http.server.h2server;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.SocketTimeoutException;
+
+/**
+ * HTTP/2 フレーム (RFC 7540 Section 4)．
+ *
+ * @author Junpei Kawamoto
+ * @since 0.3
+ */
+final class Frame{
+
+	//============================================================================
+	//  Frame types
+	//============================================================================
+	static final int Data = 0x0;
+	static final int Headers = 0x1;
+	static final int Priority = 0x2;
+	static final int RstStream = 0x3;
+	static final int Settings = 0x4;
+	static final int PushPromise = 0x5;
+	static final int Ping = 0x6;
+	static final int GoAway = 0x7;
+	static final int WindowUpdate = 0x8;
+	static final int Continuation = 0x9;
+
+	//============================================================================
+	//  Flags
+	//============================================================================
+	static final int FlagEndStream = 0x1;
+	static final int FlagAck = 0x1;
+	static final int FlagEndHeaders = 0x4;
+	static final int FlagPadded = 0x8;
+	static final int FlagPriority = 0x20;
+
+	//============================================================================
+	//  Settings
+	//============================================================================
+	static final int SettingsHeaderTableSize = 0x1;
+	static final int SettingsEnablePush = 0x2;
+	static final int SettingsMaxConcurrentStreams = 0x3;
+	static final int SettingsInitialWindowSize = 0x4;
+	static final int SettingsMaxFrameSize = 0x5;
+	static final int SettingsMaxHeaderListSize = 0x6;
+
+	/**
+	 * フレームヘッダの長さ
+	 */
+	static final int HeaderLength = 9;
+
+	/**
+	 * SETTINGS_MAX_FRAME_SIZE の初期値
+	 */
+	static final int DefaultMaxFrameSize = 16384;
+
+	/**
+	 * SETTINGS_INITIAL_WINDOW_SIZE の初期値
+	 */
+	static final int DefaultWindowSize = 65535;
+
+	static final int MaxWindowSize = 0x7fffffff;
+
+	final int type;
+	final int flags;
+	final int streamId;
+	final byte[] payload;
+
+	//============================================================================
+	//  Constructor
+	//============================================================================
+	Frame(final int type, final int flags, final int streamId, final byte[] payload){
+
+		this.type = type;
+		this.flags = flags;
+		this.streamId = streamId;
+		this.payload = payload;
+
+	}
+
+	//============================================================================
+	//  Package private methods
+	//============================================================================
+	boolean hasFlag(final int flag){
+
+		return (this.flags & flag) != 0;
+
+	}
+
+	@Override
+	public String toString(){
+
+		return String.format("%s(type = %d, flags = 0x%02x, stream = %d, length = %d)", this.getClass().getSimpleName(), this.type, this.flags, this.streamId, this.payload.length);
+
+	}
+
+	//============================================================================
+	//  Package private static methods
+	//============================================================================
+	/**
+	 * フレームを一つ読み込む．
+	 *
+	 * @param in 入力ストリーム
+	 * @param maxFrameSize 受け付けるペイロードの最大長
+	 * @return 読み込んだフレーム．ストリームの終わりに達した場合は null
+	 * @throws IOException 読み込みに失敗した場合，またはフレームが大き過ぎる場合
+	 */
+	static Frame read(final InputStream in, final int maxFrameSize) throws IOException{
+
+		final byte[] header = new byte[HeaderLength];
+		final int first = in.read();
+		if(first == -1){
+
+			return null;
+
+		}
+		header[0] = (byte)first;
+		readFully(in, header, 1, HeaderLength - 1);
+
+		final int length = ((header[0] & 0xff) << 16) | ((header[1] & 0xff) << 8) | (header[2] & 0xff);
+		final int type = header[3] & 0xff;
+		final int flags = header[4] & 0xff;
+		final int streamId = getInt(header, 5) & 0x7fffffff;
+		if(length > maxFrameSize){
+
+			throw H2Exception.connection(H2Exception.FrameSizeError, String.format("Frame is too large (%d bytes)", length));
+
+		}
+
+		final byte[] payload = new byte[length];
+		readFully(in, payload, 0, length);
+
+		return new Frame(type, flags, streamId, payload);
+
+	}
+
+	/**
+	 * フレームヘッダを書き出す．
+	 */
+	static void writeHeader(final OutputStream out, final int length, final int type, final int flags, final int streamId) throws IOException{
+
+		final byte[] header = new byte[HeaderLength];
+		header[0] = (byte)(length >>> 16);
+		header[1] = (byte)(length >>> 8);
+		header[2] = (byte)length;
+		header[3] = (byte)type;
+		header[4] = (byte)flags;
+		putInt(header, 5, streamId & 0x7fffffff);
+		out.write(header);
+
+	}
+
+	static int getInt(final byte[] buf, final int off){
+
+		return ((buf[off] & 0xff) << 24) | ((buf[off + 1] & 0xff) << 16) | ((buf[off + 2] & 0xff) << 8) | (buf[off + 3] & 0xff);
+
+	}
+
+	static void putInt(final byte[] buf, final int off, final int value){
+
+		buf[off] = (byte)(value >>> 24);
+		buf[off + 1] = (byte)(value >>> 16);
+		buf[off + 2] = (byte)(value >>> 8);
+		buf[off + 3] = (byte)value;
+
+	}
+
+	static void readFully(final InputStream in, final byte[] buf, final int off, final int len) throws IOException{
+
+		int n = 0;
+		while(n < len){
+
+			final int r;
+			try{
+
+				r = in.read(buf, off + n, len - n);
+
+			}catch(final SocketTimeoutException e){
+
+				// フレームの途中で止まった場合は続きを読めない
+				throw new IOException("Timed out while reading a frame", e);
+
+			}
+			if(r == -1){
+
+				throw new EOFException("Unexpected end of stream");
+
+			}
+			n += r;
+
+		}
+
+	}
+
+}
@@ -0,0 +1,1433 @@
+/*
+ *  Copyright (C) 2011 Junpei Kawamoto
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package nor.http.server.h2server;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.PushbackInputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.logging.Level;
+
+import nor.http.HeaderName;
+import nor.http.HttpHeader;
+import nor.http.HttpRequest;
+import nor.http.Method;
+import nor.http.server.HttpRequestHandler;
+import nor.http.server.Pipeline;
+import nor.util.io.NoCloseInputStream;
+import nor.util.io.NoCloseOutputStream;
+import nor.util.io.NoExceptionOutputStreamFilter;
+import nor.util.log.Logger;
+
+import org.apache.commons.codec.binary.Base64;
+
+/**
+ * HTTP/2 の接続 (RFC 7540)．
+ * 接続ごとに一つのスレッドがフレームを読み込み，各ストリームをエグゼキュータで並行に処理する．
+ * 接続の最初のバイト列がコネクションプリフェイスでなければ HTTP/1.1 として扱い，
+ * Upgrade: h2c を含むリクエストであれば HTTP/2 に切り替える．
+ *
+ * フレームの書き出しは出力ストリームで同期し，HPACK の符号化も同じロックの中で行う．
+ *
+ * @author Junpei Kawamoto
+ * @since 0.3
+ */
+final class H2Connection implements Runnable{
+
+	/**
+	 * HTTP/2 として受け取ったリクエストのバージョン
+	 */
+	static final String Version = "2.0";
+
+	/**
+	 * クライアントコネクションプリフェイス
+	 */
+	static final byte[] Preface;
+	static{
+
+		try{
+
+			Preface = "PRI * HTTP/2.0\r\n\r\nSM\r\n\r\n".getBytes(HpackDecoder.Charset);
+
+		}catch(final UnsupportedEncodingException e){
+
+			throw new AssertionError(e);
+
+		}
+
+	}
+
+	private static final String SwitchingProtocols = "HTTP/1.1 101 Switching Protocols\r\nConnection: Upgrade\r\nUpgrade: h2c\r\n\r\n";
+	private static final String H2c = "h2c";
+	private static final String Http2Settings = "http2-settings";
+
+	private final Socket socket;
+	private final HttpRequestHandler handler;
+	private final ExecutorService dispatcher;
+
+	/**
+	 * サーバが待ち受けているホスト名
+	 */
+	private final String hostname;
+
+	private OutputStream output;
+
+	private final HpackDecoder decoder = new HpackDecoder(H2Server.HeaderTableSize, H2Server.MaxHeaderListSize);
+	private final HpackEncoder encoder = new HpackEncoder(H2Server.HeaderTableSize);
+
+	private final Map<Integer, H2Stream> streams = new ConcurrentHashMap<Integer, H2Stream>();
+	private volatile int lastStreamId;
+	private volatile boolean goingAway;
+
+	/**
+	 * 送信側のフロー制御に使うロック．
+	 * 接続と各ストリームの送信ウィンドウを保護する．
+	 */
+	private final Object flow = new Object();
+	private long sendWindow = Frame.DefaultWindowSize;
+	private long peerInitialWindowSize = Frame.DefaultWindowSize;
+	private volatile int peerMaxFrameSize = Frame.DefaultMaxFrameSize;
+	private boolean closed;
+
+	/**
+	 * 受信側のフロー制御に使うロック
+	 */
+	private final Object recv = new Object();
+	private long recvWindow = Frame.DefaultWindowSize;
+	private int recvUnacked;
+
+	/**
+	 * ストリームの受信ウィンドウの初期値．
+	 * SETTINGS が確認されるまでピアは既定値を使うので，大きい方を受け付ける
+	 */
+	private static final int StreamWindow = Math.max(H2Server.InitialWindowSize, Frame.DefaultWindowSize);
+
+	private static final Logger LOGGER = Logger.getLogger(H2Connection.class);
+
+	//============================================================================
+	//  Constructor
+	//============================================================================
+	/**
+	 * 接続を作成する．
+	 *
+	 * @param socket クライアントとのソケット
+	 * @param hostname サーバが待ち受けているホスト名
+	 * @param handler リクエストハンドラ
+	 * @param dispatcher ストリームを処理するエグゼキュータ
+	 */
+	H2Connection(final Socket socket, final String hostname, final HttpRequestHandler handler, final ExecutorService dispatcher){
+		LOGGER.entering("<init>", socket, hostname, handler, dispatcher);
+		assert socket != null;
+		assert hostname != null;
+		assert handler != null;
+		assert dispatcher != null;
+
+		this.socket = socket;
+		this.hostname = hostname;
+		this.handler = handler;
+		this.dispatcher = dispatcher;
+
+		LOGGER.exiting("<init>");
+	}
+
+	//============================================================================
+	//  Public methods
+	//============================================================================
+	@Override
+	public void run(){
+		LOGGER.entering("run");
+
+		try{
+
+			this.socket.setKeepAlive(true);
+			this.socket.setTcpNoDelay(true);
+			this.socket.setSoTimeout(H2Server.Timeout);
+
+			final PushbackInputStream input = new PushbackInputStream(new BufferedInputStream(this.socket.getInputStream(), this.socket.getReceiveBufferSize()), Preface.length);
+			this.output = new BufferedOutputStream(new NoCloseOutputStream(this.socket.getOutputStream()), this.socket.getSendBufferSize());
+
+			if(readPreface(input)){
+
+				this.serve(input, null);
+
+			}else{
+
+				this.serveHttp11(input);
+
+			}
+
+		}catch(final H2Exception e){
+
+			LOGGER.warning("run", "Connection error ({0})", e.getMessage());
+			this.writeGoAway(e.getCode(), e.getMessage());
+
+		}catch(final SocketTimeoutException e){
+
+			LOGGER.fine("run", e.getMessage());
+
+		}catch(final IOException e){
+
+			LOGGER.fine("run", e.getMessage());
+
+		}catch(final InterruptedException e){
+
+			LOGGER.fine("run", e.getMessage());
+			Thread.currentThread().interrupt();
+
+		}finally{
+
+			this.close();
+
+		}
+
+		LOGGER.exiting("run");
+	}
+
+	@Override
+	public String toString(){
+
+		return String.format("%s(%s)", this.getClass().getSimpleName(), this.socket.getRemoteSocketAddress());
+
+	}
+
+	//============================================================================
+	//  Package private methods (called by streams)
+	//============================================================================
+	HttpRequestHandler getHandler(){
+
+		return this.handler;
+
+	}
+
+	void execute(final Runnable task){
+
+		this.dispatcher.execute(task);
+
+	}
+
+	/**
+	 * HEADERS フレームを書き出す．
+	 * ヘッダブロックが最大フレーム長を超える場合は CONTINUATION フレームに分割する．
+	 *
+	 * @param stream 対象のストリーム
+	 * @param fields ヘッダリスト
+	 * @param endStream END_STREAM フラグ
+	 * @throws IOException 書き出しに失敗した場合
+	 */
+	void writeHeaders(final H2Stream stream, final List<String[]> fields, final boolean endStream) throws IOException{
+		LOGGER.entering("writeHeaders", stream, fields, endStream);
+
+		synchronized(this.output){
+
+			if(stream.isReset()){
+
+				throw new IOException("Stream is reset");
+
+			}
+
+			// 動的テーブルの状態を揃えるため，符号化と書き出しを同じロックの中で行う
+			final byte[] block = this.encoder.encode(fields);
+			final int max = this.peerMaxFrameSize;
+			int off = 0;
+			do{
+
+				final int n = Math.min(max, block.length - off);
+				final boolean last = off + n == block.length;
+
+				int flags = last ? Frame.FlagEndHeaders : 0;
+				if(off == 0 && endStream){
+
+					flags |= Frame.FlagEndStream;
+
+				}
+				Frame.writeHeader(this.output, n, off == 0 ? Frame.Headers : Frame.Continuation, flags, stream.getId());
+				this.output.write(block, off, n);
+				off += n;
+
+			}while(off < block.length);
+			this.output.flush();
+
+		}
+
+		LOGGER.exiting("writeHeaders");
+	}
+
+	/**
+	 * DATA フレームを書き出す．
+	 * 送信ウィンドウが空いていない場合は，WINDOW_UPDATE を受け取るまで待つ．
+	 *
+	 * @param stream 対象のストリーム
+	 * @param b データ
+	 * @param off データの開始位置
+	 * @param len データの長さ
+	 * @param endStream END_STREAM フラグ
+	 * @throws IOException 書き出しに失敗した場合，またはストリームがリセットされた場合
+	 */
+	void writeData(final H2Stream stream, final byte[] b, final int off, final int len, final boolean endStream) throws IOException{
+		LOGGER.entering("writeData", stream, off, len, endStream);
+
+		int pos = off;
+		int remaining = len;
+		do{
+
+			int n = 0;
+			synchronized(this.flow){
+
+				try{
+
+					while(remaining != 0 && !this.closed && !stream.isReset() && (this.sendWindow <= 0 || stream.sendWindow <= 0)){
+
+						this.flow.wait();
+
+					}
+
+				}catch(final InterruptedException e){
+
+					Thread.currentThread().interrupt();
+					throw new InterruptedIOException();
+
+				}
+
+				if(this.closed || stream.isReset()){
+
+					throw new IOException("Stream is reset");
+
+				}
+
+				n = (int)Math.min(Math.min(remaining, this.peerMaxFrameSize), Math.min(this.sendWindow, stream.sendWindow));
+				this.sendWindow -= n;
+				stream.sendWindow -= n;
+
+			}
+
+			remaining -= n;
+			this.writeFrame(Frame.Data, endStream && remaining == 0 ? Frame.FlagEndStream : 0, stream.getId(), b, pos, n);
+			pos += n;
+
+		}while(remaining != 0);
+
+		LOGGER.exiting("writeData");
+	}
+
+	/**
+	 * ストリームをリセットし，RST_STREAM フレームを送る．
+	 *
+	 * @param stream 対象のストリーム
+	 * @param code エラーコード
+	 */
+	void resetStream(final H2Stream stream, final int code){
+		LOGGER.entering("resetStream", stream, code);
+
+		if(!stream.isReset()){
+
+			this.consumed(null, stream.reset());
+			this.streams.remove(stream.getId());
+			this.wakeUp();
+
+			try{
+
+				this.writeRstStream(stream.getId(), code);
+
+			}catch(final IOException e){
+
+				LOGGER.catched(Level.FINE, "resetStream", e);
+
+			}
+			this.closeIfIdle();
+
+		}
+
+		LOGGER.exiting("resetStream");
+	}
+
+	/**
+	 * 送受信を終えたストリームを閉じる．
+	 *
+	 * @param stream 対象のストリーム
+	 */
+	void closeStream(final H2Stream stream){
+
+		this.streams.remove(stream.getId());
+		this.closeIfIdle();
+
+	}
+
+	/**
+	 * 読み込まれたバイト数だけ受信ウィンドウを戻す．
+	 * 戻した量が閾値を超えたら WINDOW_UPDATE を送る．
+	 *
+	 * @param stream 対象のストリーム．接続のウィンドウだけを戻す場合は null
+	 * @param n 読み込まれたバイト数
+	 */
+	void consumed(final H2Stream stream, final int n){
+
+		if(n <= 0){
+
+			return;
+
+		}
+
+		int inc = 0;
+		synchronized(this.recv){
+
+			this.recvUnacked += n;
+			if(this.recvUnacked >= StreamWindow / 2){
+
+				inc = this.recvUnacked;
+				this.recvUnacked = 0;
+				this.recvWindow += inc;
+
+			}
+
+		}
+		final int sinc = stream != null ? stream.acknowledge(n, StreamWindow / 2) : 0;
+
+		try{
+
+			if(inc != 0){
+
+				this.writeWindowUpdate(0, inc);
+
+			}
+			if(sinc != 0){
+
+				this.writeWindowUpdate(stream.getId(), sinc);
+
+			}
+
+		}catch(final IOException e){
+
+			LOGGER.catched(Level.FINE, "consumed", e);
+
+		}
+
+	}
+
+	//============================================================================
+	//  Private methods
+	//============================================================================
+	/**
+	 * HTTP/2 のフレームを処理する．
+	 *
+	 * @param input 入力ストリーム
+	 * @param upgraded HTTP/1.1 から切り替えた場合は最初のリクエスト，それ以外は null
+	 */
+	private void serve(final InputStream input, final HttpRequest upgraded) throws IOException{
+		LOGGER.entering("serve", input, upgraded);
+
+		// サーバのプリフェイス
+		this.writeSettings();
+		if(StreamWindow > Frame.DefaultWindowSize){
+
+			synchronized(this.recv){
+
+				this.recvWindow = StreamWindow;
+
+			}
+			this.writeWindowUpdate(0, StreamWindow - Frame.DefaultWindowSize);
+
+		}
+
+		if(upgraded != null){
+
+			if(!readPreface(input)){
+
+				throw H2Exception.connection(H2Exception.ProtocolError, "Invalid connection preface");
+
+			}
+
+			// アップグレードに使ったリクエストはストリーム 1 になる
+			this.lastStreamId = 1;
+			this.open(new H2Stream(1, this, upgraded, this.initialSendWindow(), StreamWindow, true));
+
+		}
+
+		boolean first = true;
+		while(!Thread.currentThread().isInterrupted()){
+
+			final Frame f;
+			try{
+
+				f = Frame.read(input, H2Server.MaxFrameSize);
+
+			}catch(final SocketTimeoutException e){
+
+				if(this.streams.isEmpty()){
+
+					LOGGER.fine("serve", "Connection is idle");
+					this.writeGoAway(H2Exception.NoError, "Idle timeout");
+					break;
+
+				}
+				continue;
+
+			}
+			if(f == null){
+
+				break;
+
+			}
+			LOGGER.finer("serve", "Receive {0}", f);
+
+			if(first && (f.type != Frame.Settings || f.hasFlag(Frame.FlagAck))){
+
+				throw H2Exception.connection(H2Exception.ProtocolError, "The first frame must be SETTINGS");
+
+			}
+			first = false;
+
+			try{
+
+				this.dispatch(input, f);
+
+			}catch(final H2Exception e){
+
+				if(e.isConnectionError()){
+
+					throw e;
+
+				}
+
+				LOGGER.fine("serve", "Stream error ({0})", e.getMessage());
+				final H2Stream s = this.streams.get(e.getStreamId());
+				if(s != null){
+
+					this.resetStream(s, e.getCode());
+
+				}else{
+
+					this.writeRstStream(e.getStreamId(), e.getCode());
+
+				}
+
+			}
+
+		}
+
+		LOGGER.exiting("serve");
+	}
+
+	private void dispatch(final InputStream input, final Frame f) throws IOException{
+
+		switch(f.type){
+		case Frame.Data:
+			this.onData(f);
+			break;
+
+		case Frame.Headers:
+			this.onHeaders(input, f);
+			break;
+
+		case Frame.Priority:
+			if(f.streamId == 0){
+
+				throw H2Exception.connection(H2Exception.ProtocolError, "PRIORITY on stream 0");
+
+			}
+			if(f.payload.length != 5){
+
+				throw H2Exception.stream(f.streamId, H2Exception.FrameSizeError, "Invalid PRIORITY");
+
+			}
+			break;
+
+		case Frame.RstStream:
+			this.onRstStream(f);
+			break;
+
+		case Frame.Settings:
+			this.onSettings(f);
+			break;
+
+		case Frame.PushPromise:
+			throw H2Exception.connection(H2Exception.ProtocolError, "Client cannot push");
+
+		case Frame.Ping:
+			if(f.streamId != 0){
+
+				throw H2Exception.connection(H2Exception.ProtocolError, "PING on a stream");
+
+			}
+			if(f.payload.length != 8){
+
+				throw H2Exception.connection(H2Exception.FrameSizeError, "Invalid PING");
+
+			}
+			if(!f.hasFlag(Frame.FlagAck)){
+
+				this.writeFrame(Frame.Ping, Frame.FlagAck, 0, f.payload, 0, f.payload.length);
+
+			}
+			break;
+
+		case Frame.GoAway:
+			LOGGER.fine("dispatch", "Receive GOAWAY");
+			this.goingAway = true;
+			this.closeIfIdle();
+			break;
+
+		case Frame.WindowUpdate:
+			this.onWindowUpdate(f);
+			break;
+
+		case Frame.Continuation:
+			throw H2Exception.connection(H2Exception.ProtocolError, "Unexpected CONTINUATION");
+
+		default:
+			// 未知のフレームは無視する
+			break;
+
+		}
+
+	}
+
+	private void onData(final Frame f) throws IOException{
+
+		final int id = f.streamId;
+		if(id == 0){
+
+			throw H2Exception.connection(H2Exception.ProtocolError, "DATA on stream 0");
+
+		}
+
+		final int length = f.payload.length;
+		synchronized(this.recv){
+
+			this.recvWindow -= length;
+			if(this.recvWindow < 0){
+
+				throw H2Exception.connection(H2Exception.FlowControlError, "Connection window is exceeded");
+
+			}
+
+		}
+
+		int off = 0;
+		int len = length;
+		if(f.hasFlag(Frame.FlagPadded)){
+
+			if(length == 0 || (f.payload[0] & 0xff) >= length){
+
+				throw H2Exception.connection(H2Exception.ProtocolError, "Invalid padding");
+
+			}
+			off = 1;
+			len = length - 1 - (f.payload[0] & 0xff);
+
+		}
+
+		final H2Stream s = this.streams.get(id);
+		if(s == null || s.isRemoteClosed()){
+
+			this.consumed(null, length);
+			if(id > this.lastStreamId){
+
+				throw H2Exception.connection(H2Exception.ProtocolError, "DATA on an idle stream");
+
+			}
+			if(s != null){
+
+				throw H2Exception.stream(id, H2Exception.StreamClosed, "DATA after END_STREAM");
+
+			}
+
+			// リセットしたストリームに届いたデータは捨てる
+			return;
+
+		}
+
+		try{
+
+			this.consumed(s, s.receive(f.payload, off, len, length, f.hasFlag(Frame.FlagEndStream)));
+
+		}catch(final H2Exception e){
+
+			this.consumed(null, length);
+			throw e;
+
+		}
+
+	}
+
+	private void onHeaders(final InputStream input, final Frame f) throws IOException{
+
+		final int id = f.streamId;
+		if(id == 0 || id % 2 == 0){
+
+			throw H2Exception.connection(H2Exception.ProtocolError, String.format("Invalid stream id %d", id));
+
+		}
+
+		// パディングと優先度を除いたヘッダブロック断片
+		final byte[] p = f.payload;
+		int off = 0;
+		int end = p.length;
+		if(f.hasFlag(Frame.FlagPadded)){
+
+			if(p.length == 0){
+
+				throw H2Exception.connection(H2Exception.ProtocolError, "Invalid padding");
+
+			}
+			off = 1;
+			end -= p[0] & 0xff;
+
+		}
+		if(f.hasFlag(Frame.FlagPriority)){
+
+			off += 5;
+
+		}
+		if(off > end){
+
+			throw H2Exception.connection(H2Exception.ProtocolError, "Invalid padding");
+
+		}
+
+		final ByteArrayOutputStream block = new ByteArrayOutputStream();
+		block.write(p, off, end - off);
+
+		// CONTINUATION フレームが続く場合
+		boolean endHeaders = f.hasFlag(Frame.FlagEndHeaders);
+		while(!endHeaders){
+
+			final Frame c = Frame.read(input, H2Server.MaxFrameSize);
+			if(c == null || c.type != Frame.Continuation || c.streamId != id){
+
+				throw H2Exception.connection(H2Exception.ProtocolError, "Expected CONTINUATION");
+
+			}
+			block.write(c.payload, 0, c.payload.length);
+			if(block.size() > H2Server.MaxHeaderListSize){
+
+				throw H2Exception.connection(H2Exception.EnhanceYourCalm, "Header block is too large");
+
+			}
+			endHeaders = c.hasFlag(Frame.FlagEndHeaders);
+
+		}
+
+		// 拒否するストリームでも動的テーブルを更新するため必ず復号する
+		final List<String[]> fields = this.decoder.decode(block.toByteArray(), block.size());
+		final boolean endStream = f.hasFlag(Frame.FlagEndStream);
+
+		final H2Stream s = this.streams.get(id);
+		if(s != null){
+
+			// トレイラ
+			if(s.isRemoteClosed()){
+
+				throw H2Exception.stream(id, H2Exception.StreamClosed, "HEADERS after END_STREAM");
+
+			}
+			if(!endStream){
+
+				throw H2Exception.stream(id, H2Exception.ProtocolError, "Trailers without END_STREAM");
+
+			}
+			s.receiveEnd();
+			return;
+
+		}
+		if(id <= this.lastStreamId){
+
+			// リセットしたストリームのトレイラは無視する
+			return;
+
+		}
+		this.lastStreamId = id;
+
+		if(this.goingAway || this.streams.size() >= H2Server.MaxConcurrentStreams){
+
+			throw H2Exception.stream(id, H2Exception.RefusedStream, "Too many streams");
+
+		}
+
+		final HttpRequest request = this.createRequest(id, fields);
+		final H2Stream stream = new H2Stream(id, this, request, this.initialSendWindow(), StreamWindow, endStream);
+		if(!endStream){
+
+			request.setBody(stream.createBody());
+			if(!request.getHeader().containsKey(HeaderName.ContentLength)){
+
+				// HTTP/1.1 で転送するときにボディの終わりを示せるようにする
+				request.getHeader().set(HeaderName.TransferEncoding, "chunked");
+
+			}
+
+		}
+		this.open(stream);
+
+	}
+
+	private void onRstStream(final Frame f) throws IOException{
+
+		if(f.streamId == 0){
+
+			throw H2Exception.connection(H2Exception.ProtocolError, "RST_STREAM on stream 0");
+
+		}
+		if(f.payload.length != 4){
+
+			throw H2Exception.connection(H2Exception.FrameSizeError, "Invalid RST_STREAM");
+
+		}
+		if(f.streamId > this.lastStreamId){
+
+			throw H2Exception.connection(H2Exception.ProtocolError, "RST_STREAM on an idle stream");
+
+		}
+
+		final H2Stream s = this.streams.remove(f.streamId);
+		if(s != null){
+
+			LOGGER.fine("onRstStream", "Stream {0} is reset by the peer ({1})", f.streamId, Frame.getInt(f.payload, 0));
+			this.consumed(null, s.reset());
+			this.wakeUp();
+			this.closeIfIdle();
+
+		}
+
+	}
+
+	private void onSettings(final Frame f) throws IOException{
+
+		if(f.streamId != 0){
+
+			throw H2Exception.connection(H2Exception.ProtocolError, "SETTINGS on a stream");
+
+		}
+		if(f.hasFlag(Frame.FlagAck)){
+
+			if(f.payload.length != 0){
+
+				throw H2Exception.connection(H2Exception.FrameSizeError, "Invalid SETTINGS ack");
+
+			}
+			return;
+
+		}
+
+		this.applySettings(f.payload);
+		this.writeFrame(Frame.Settings, Frame.FlagAck, 0, f.payload, 0, 0);
+
+	}
+
+	private void applySettings(final byte[] payload) throws H2Exception{
+
+		if(payload.length % 6 != 0){
+
+			throw H2Exception.connection(H2Exception.FrameSizeError, "Invalid SETTINGS");
+
+		}
+
+		for(int i = 0; i != payload.length; i += 6){
+
+			final int key = ((payload[i] & 0xff) << 8) | (payload[i + 1] & 0xff);
+			final long value = Frame.getInt(payload, i + 2) & 0xffffffffL;
+			switch(key){
+			case Frame.SettingsHeaderTableSize:
+				synchronized(this.output){
+
+					this.encoder.setMaxTableSize((int)Math.min(value, Integer.MAX_VALUE));
+
+				}
+				break;
+
+			case Frame.SettingsEnablePush:
+				if(value > 1){
+
+					throw H2Exception.connection(H2Exception.ProtocolError, "Invalid SETTINGS_ENABLE_PUSH");
+
+				}
+				break;
+
+			case Frame.SettingsInitialWindowSize:
+				if(value > Frame.MaxWindowSize){
+
+					throw H2Exception.connection(H2Exception.FlowControlError, "Invalid SETTINGS_INITIAL_WINDOW_SIZE");
+
+				}
+				synchronized(this.flow){
+
+					final long delta = value - this.peerInitialWindowSize;
+					for(final H2Stream s : this.streams.values()){
+
+						s.sendWindow += delta;
+						if(s.sendWindow > Frame.MaxWindowSize){
+
+							throw H2Exception.connection(H2Exception.FlowControlError, "Stream window overflow");
+
+						}
+
+					}
+					this.peerInitialWindowSize = value;
+					this.flow.notifyAll();
+
+				}
+				break;
+
+			case Frame.SettingsMaxFrameSize:
+				if(value < Frame.DefaultMaxFrameSize || value > 0xffffff){
+
+					throw H2Exception.connection(H2Exception.ProtocolError, "Invalid SETTINGS_MAX_FRAME_SIZE");
+
+				}
+				this.peerMaxFrameSize = (int)value;
+				break;
+
+			default:
+				break;
+
+			}
+
+		}
+
+	}
+
+	private void onWindowUpdate(final Frame f) throws IOException{
+
+		if(f.payload.length != 4){
+
+			throw H2Exception.connection(H2Exception.FrameSizeError, "Invalid WINDOW_UPDATE");
+
+		}
+
+		final int inc = Frame.getInt(f.payload, 0) & 0x7fffffff;
+		if(f.streamId == 0){
+
+			if(inc == 0){
+
+				throw H2Exception.connection(H2Exception.ProtocolError, "Zero window increment");
+
+			}
+			synchronized(this.flow){
+
+				this.sendWindow += inc;
+				if(this.sendWindow > Frame.MaxWindowSize){
+
+					throw H2Exception.connection(H2Exception.FlowControlError, "Connection window overflow");
+
+				}
+				this.flow.notifyAll();
+
+			}
+
+		}else{
+
+			if(inc == 0){
+
+				throw H2Exception.stream(f.streamId, H2Exception.ProtocolError, "Zero window increment");
+
+			}
+			final H2Stream s = this.streams.get(f.streamId);
+			if(s != null){
+
+				synchronized(this.flow){
+
+					s.sendWindow += inc;
+					if(s.sendWindow > Frame.MaxWindowSize){
+
+						throw H2Exception.stream(f.streamId, H2Exception.FlowControlError, "Stream window overflow");
+
+					}
+					this.flow.notifyAll();
+
+				}
+
+			}
+
+		}
+
+	}
+
+	/**
+	 * ストリームを登録し，処理を開始する．
+	 */
+	private void open(final H2Stream stream) throws H2Exception{
+
+		this.streams.put(stream.getId(), stream);
+		try{
+
+			this.dispatcher.execute(stream);
+
+		}catch(final RejectedExecutionException e){
+
+			this.streams.remove(stream.getId());
+			throw H2Exception.stream(stream.getId(), H2Exception.RefusedStream, "Server is busy");
+
+		}
+
+	}
+
+	/**
+	 * ヘッダリストからリクエストを作る (RFC 7540 Section 8.1.2)．
+	 */
+	private HttpRequest createRequest(final int id, final List<String[]> fields) throws H2Exception{
+
+		String method = null;
+		String scheme = null;
+		String authority = null;
+		String path = null;
+
+		final List<String[]> regular = new ArrayList<String[]>();
+		final StringBuilder cookie = new StringBuilder();
+		for(final String[] f : fields){
+
+			final String name = f[0];
+			final String value = f[1];
+			if(name.startsWith(":")){
+
+				if(!regular.isEmpty() || cookie.length() != 0){
+
+					throw H2Exception.stream(id, H2Exception.ProtocolError, "Pseudo-header after regular headers");
+
+				}
+
+				if(":method".equals(name) && method == null){
+
+					method = value;
+
+				}else if(":scheme".equals(name) && scheme == null){
+
+					scheme = value;
+
+				}else if(":authority".equals(name) && authority == null){
+
+					authority = value;
+
+				}else if(":path".equals(name) && path == null){
+
+					path = value;
+
+				}else{
+
+					throw H2Exception.stream(id, H2Exception.ProtocolError, String.format("Invalid pseudo-header %s", name));
+
+				}
+
+			}else if(!name.equals(name.toLowerCase()) || H2Stream.ConnectionSpecific.contains(name)){
+
+				throw H2Exception.stream(id, H2Exception.ProtocolError, String.format("Invalid header %s", name));
+
+			}else if("te".equals(name) && !"trailers".equals(value)){
+
+				throw H2Exception.stream(id, H2Exception.ProtocolError, "Invalid TE header");
+
+			}else if(HeaderName.Cookie.equals(name)){
+
+				// 分割された Cookie ヘッダを一つにまとめる (RFC 7540 Section 8.1.2.5)
+				if(cookie.length() != 0){
+
+					cookie.append("; ");
+
+				}
+				cookie.append(value);
+
+			}else{
+
+				regular.add(f);
+
+			}
+
+		}
+
+		if(method == null){
+
+			throw H2Exception.stream(id, H2Exception.ProtocolError, "Missing :method");
+
+		}
+
+		final String target;
+		if(Method.CONNECT.toString().equals(method)){
+
+			if(authority == null || scheme != null || path != null){
+
+				throw H2Exception.stream(id, H2Exception.ProtocolError, "Invalid CONNECT request");
+
+			}
+			target = authority;
+
+		}else{
+
+			if(scheme == null || path == null || path.length() == 0){
+
+				throw H2Exception.stream(id, H2Exception.ProtocolError, "Missing :scheme or :path");
+
+			}
+
+			// 自身宛てでなければプロキシへのリクエストとして絶対 URI にする
+			if(authority != null && path.startsWith("/") && !this.isLocal(authority)){
+
+				target = String.format("%s://%s%s", scheme, authority, path);
+
+			}else{
+
+				target = path;
+
+			}
+
+		}
+
+		final HttpRequest res = new HttpRequest(method, target, Version);
+		final HttpHeader header = res.getHeader();
+		for(final String[] f : regular){
+
+			header.add(f[0], f[1]);
+
+		}
+		if(cookie.length() != 0){
+
+			header.set(HeaderName.Cookie, cookie.toString());
+
+		}
+		if(authority != null && !header.containsKey(HeaderName.Host)){
+
+			header.set(HeaderName.Host, authority);
+
+		}
+
+		return res;
+
+	}
+
+	/**
+	 * :authority がこのサーバを指しているか調べる．
+	 */
+	private boolean isLocal(final String authority){
+
+		final int colon = authority.lastIndexOf(':');
+		if(colon == -1 || authority.endsWith("]")){
+
+			return false;
+
+		}
+
+		final String host = authority.substring(0, colon);
+		if(!authority.substring(colon + 1).equals(Integer.toString(this.socket.getLocalPort()))){
+
+			return false;
+
+		}
+
+		return host.equalsIgnoreCase(this.hostname) || host.equalsIgnoreCase("localhost") || host.equals(this.socket.getLocalAddress().getHostAddress());
+
+	}
+
+	private long initialSendWindow(){
+
+		synchronized(this.flow){
+
+			return this.peerInitialWindowSize;
+
+		}
+
+	}
+
+	//----------------------------------------------------------------------------
+	//  HTTP/1.1
+	//----------------------------------------------------------------------------
+	/**
+	 * HTTP/1.1 のリクエストを処理する．
+	 * 最初のリクエストが h2c へのアップグレードを求めている場合は HTTP/2 に切り替える．
+	 */
+	private void serveHttp11(final PushbackInputStream input) throws IOException, InterruptedException{
+		LOGGER.entering("serveHttp11", input);
+
+		final InputStream in = new NoCloseInputStream(input);
+		final NoExceptionOutputStreamFilter out = new NoExceptionOutputStreamFilter(this.output);
+		final Pipeline pipeline = new Pipeline(this.handler, out, new Closeable(){
+
+			@Override
+			public void close() throws IOException{
+
+				H2Connection.this.socket.shutdownInput();
+
+			}
+
+		}, this.dispatcher, H2Server.PipelineDepth);
+
+		try{
+
+			boolean first = true;
+			boolean keepAlive = true;
+			while(keepAlive && !Thread.currentThread().isInterrupted()){
+
+				final HttpRequest request = HttpRequest.create(in);
+				if(request == null){
+
+					break;
+
+				}
+
+				if(first && isUpgrade(request)){
+
+					final byte[] settings = Base64.decodeBase64(request.getHeader().get(Http2Settings));
+					this.applySettings(settings);
+
+					this.output.write(SwitchingProtocols.getBytes(HpackDecoder.Charset));
+					this.output.flush();
+					LOGGER.fine("serveHttp11", "Upgrade to h2c: {0}", request.getHeadLine());
+
+					final HttpHeader header = request.getHeader();
+					for(final String v : header.get(HeaderName.Connection).split(",")){
+
+						header.remove(v.trim());
+
+					}
+					header.remove(HeaderName.Connection);
+					header.remove(HeaderName.Upgrade);
+					header.remove(Http2Settings);
+
+					this.serve(input, request);
+					break;
+
+				}
+				first = false;
+
+				// 後続のリクエストが既に届いていればパイプラインで処理する
+				keepAlive = pipeline.offer(request, in.available() != 0);
+
+			}
+
+		}finally{
+
+			pipeline.finish();
+
+		}
+
+		LOGGER.exiting("serveHttp11");
+	}
+
+	/**
+	 * h2c へのアップグレード要求か調べる．
+	 * ボディを持つリクエストはアップグレードしない．
+	 */
+	private static boolean isUpgrade(final HttpRequest request){
+
+		final HttpHeader header = request.getHeader();
+		if(!header.containsKey(HeaderName.Upgrade) || !header.containsKey(HeaderName.Connection) || !header.containsKey(Http2Settings)){
+
+			return false;
+
+		}
+		if(header.containsKey(HeaderName.TransferEncoding) || (header.containsKey(HeaderName.ContentLength) && !"0".equals(header.get(HeaderName.ContentLength).trim()))){
+
+			return false;
+
+		}
+
+		boolean upgrade = false;
+		for(final String v : header.get(HeaderName.Upgrade).split(",")){
+
+			upgrade |= H2c.equalsIgnoreCase(v.trim());
+
+		}
+		boolean connection = false;
+		for(final String v : header.get(HeaderName.Connection).split(",")){
+
+			connection |= HeaderName.Upgrade.equals(v.trim());
+
+		}
+
+		return upgrade && connection;
+
+	}
+
+	/**
+	 * コネクションプリフェイスを読み込む．
+	 * 一致しなかった場合，読み込んだバイト列はストリームに戻す．
+	 *
+	 * @return プリフェイスを読み込んだ場合 true
+	 */
+	private static boolean readPreface(final InputStream input) throws IOException{
+
+		final byte[] buf = new byte[Preface.length];
+		for(int i = 0; i != Preface.length; ++i){
+
+			final int c = input.read();
+			if(c != -1){
+
+				buf[i] = (byte)c;
+
+			}
+			if(c != (Preface[i] & 0xff)){
+
+				if(input instanceof PushbackInputStream){
+
+					((PushbackInputStream)input).unread(buf, 0, c == -1 ? i : i + 1);
+
+				}
+				return false;
+
+			}
+
+		}
+
+		return true;
+
+	}
+
+	//----------------------------------------------------------------------------
+	//  Writing frames
+	//----------------------------------------------------------------------------
+	private void writeFrame(final int type, final int flags, final int streamId, final byte[] b, final int off, final int len) throws IOException{
+
+		synchronized(this.output){
+
+			Frame.writeHeader(this.output, len, type, flags, streamId);
+			this.output.write(b, off, len);
+			this.output.flush();
+
+		}
+
+	}
+
+	private void writeSettings() throws IOException{
+
+		final int[][] settings = {
+				{Frame.SettingsHeaderTableSize, H2Server.HeaderTableSize},
+				{Frame.SettingsMaxConcurrentStreams, H2Server.MaxConcurrentStreams},
+				{Frame.SettingsInitialWindowSize, H2Server.InitialWindowSize},
+				{Frame.SettingsMaxFrameSize, H2Server.MaxFrameSize},
+				{Frame.SettingsMaxHeaderListSize, H2Server.MaxHeaderListSize}
+		};
+
+		final byte[] payload = new byte[settings.length * 6];
+		for(int i = 0; i != settings.length; ++i){
+
+			payload[i * 6] = (byte)(settings[i][0] >>> 8);
+			payload[i * 6 + 1] = (byte)settings[i][0];
+			Frame.putInt(payload, i * 6 + 2, settings[i][1]);
+
+		}
+		this.writeFrame(Frame.Settings, 0, 0, payload, 0, payload.length);
+
+	}
+
+	private void writeWindowUpdate(final int streamId, final int increment) throws IOException{
+
+		final byte[] payload = new byte[4];
+		Frame.putInt(payload, 0, increment);
+		this.writeFrame(Frame.WindowUpdate, 0, streamId, payload, 0, payload.length);
+
+	}
+
+	private void writeRstStream(final int streamId, final int code) throws IOException{
+
+		final byte[] payload = new byte[4];
+		Frame.putInt(payload, 0, code);
+		this.writeFrame(Frame.RstStream, 0, streamId, payload, 0, payload.length);
+
+	}
+
+	private void writeGoAway(final int code, final String message){
+
+		try{
+
+			final byte[] debug = message != null ? message.getBytes(HpackDecoder.Charset) : new byte[0];
+			final byte[] payload = new byte[8 + debug.length];
+			Frame.putInt(payload, 0, this.lastStreamId);
+			Frame.putInt(payload, 4, code);
+			System.arraycopy(debug, 0, payload, 8, debug.length);
+			this.writeFrame(Frame.GoAway, 0, 0, payload, 0, payload.length);
+
+		}catch(final IOException e){
+
+			LOGGER.catched(Level.FINE, "writeGoAway", e);
+
+		}
+
+	}
+
+	//----------------------------------------------------------------------------
+	//  Closing
+	//----------------------------------------------------------------------------
+	private void wakeUp(){
+
+		synchronized(this.flow){
+
+			this.flow.notifyAll();
+
+		}
+
+	}
+
+	/**
+	 * GOAWAY を受け取っており，処理中のストリームがなければ読み込みを終える．
+	 */
+	private void closeIfIdle(){
+
+		if(this.goingAway && this.streams.isEmpty()){
+
+			try{
+
+				this.socket.shutdownInput();
+
+			}catch(final IOException e){
+
+				LOGGER.catched(Level.FINE, "closeIfIdle", e);
+
+			}
+
+		}
+
+	}
+
+	private void close(){
+
+		synchronized(this.flow){
+
+			this.closed = true;
+			this.flow.notifyAll();
+
+		}
+		for(final H2Stream s : this.streams.values()){
+
+			s.reset();
+
+		}
+		this.streams.clear();
+
+		try{
+
+			this.socket.close();
+
+		}catch(final IOException e){
+
+			LOGGER.catched(Level.FINE, "close", e);
+
+		}
+
+	}
+
+}
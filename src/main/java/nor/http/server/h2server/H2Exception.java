@@ -0,0 +1,101 @@
+/*
+ *  Copyright (C) 2011 Junpei Kawamoto
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package nor.http.server.h2server;
+
+import java.io.IOException;
+
+/**
+ * HTTP/2 のプロトコルエラー．
+ * ストリーム ID が 0 の場合は接続エラー，それ以外の場合はストリームエラーを表す．
+ *
+ * @author Junpei Kawamoto
+ * @since 0.3
+ */
+class H2Exception extends IOException{
+
+	private static final long serialVersionUID = 1L;
+
+	//============================================================================
+	//  Error codes (RFC 7540 Section 7)
+	//============================================================================
+	public static final int NoError = 0x0;
+	public static final int ProtocolError = 0x1;
+	public static final int InternalError = 0x2;
+	public static final int FlowControlError = 0x3;
+	public static final int SettingsTimeout = 0x4;
+	public static final int StreamClosed = 0x5;
+	public static final int FrameSizeError = 0x6;
+	public static final int RefusedStream = 0x7;
+	public static final int Cancel = 0x8;
+	public static final int CompressionError = 0x9;
+	public static final int ConnectError = 0xa;
+	public static final int EnhanceYourCalm = 0xb;
+	public static final int InadequateSecurity = 0xc;
+	public static final int Http11Required = 0xd;
+
+	private final int code;
+	private final int streamId;
+
+	//============================================================================
+	//  Constructor
+	//============================================================================
+	private H2Exception(final int code, final int streamId, final String message){
+		super(message);
+
+		this.code = code;
+		this.streamId = streamId;
+
+	}
+
+	//============================================================================
+	//  Public methods
+	//============================================================================
+	public int getCode(){
+
+		return this.code;
+
+	}
+
+	public int getStreamId(){
+
+		return this.streamId;
+
+	}
+
+	public boolean isConnectionError(){
+
+		return this.streamId == 0;
+
+	}
+
+	//============================================================================
+	//  Class methods
+	//============================================================================
+	public static H2Exception connection(final int code, final String message){
+
+		return new H2Exception(code, 0, message);
+
+	}
+
+	public static H2Exception stream(final int streamId, final int code, final String message){
+
+		return new H2Exception(code, streamId, message);
+
+	}
+
+}
@@ -0,0 +1,90 @@
+/*
+ *  Copyright (C) 2011 Junpei Kawamoto
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package nor.http.server.h2server;
+
+import java.io.IOException;
+import java.util.Properties;
+
+import nor.util.log.Logger;
+
+final class H2Server {
+
+	public static final int Timeout;
+	public static final int MaxThreads;
+	public static final int PipelineDepth;
+	public static final int MaxConcurrentStreams;
+	public static final int InitialWindowSize;
+	public static final int MaxFrameSize;
+	public static final int HeaderTableSize;
+	public static final int MaxHeaderListSize;
+
+	private H2Server(){}
+
+
+	static{
+
+		final Logger LOGGER = Logger.getLogger(H2Server.class);
+
+		final String classname = H2Server.class.getName();
+		final Properties defaults = new Properties();
+		try {
+
+			defaults.load(H2Server.class.getResourceAsStream("default.conf"));
+
+		} catch (final IOException e) {
+
+			LOGGER.severe("<class init>", "Cannot load default configs ({0})", e);
+
+		}
+
+		final String timeout = String.format("%s.Timeout", classname);
+		Timeout = Integer.valueOf(System.getProperty(timeout, defaults.getProperty(timeout)));
+
+		final String maxThreads = String.format("%s.MaxThreads", classname);
+		MaxThreads = Integer.valueOf(System.getProperty(maxThreads, defaults.getProperty(maxThreads)));
+
+		final String pipelineDepth = String.format("%s.PipelineDepth", classname);
+		PipelineDepth = Integer.valueOf(System.getProperty(pipelineDepth, defaults.getProperty(pipelineDepth)));
+
+		final String maxConcurrentStreams = String.format("%s.MaxConcurrentStreams", classname);
+		MaxConcurrentStreams = Integer.valueOf(System.getProperty(maxConcurrentStreams, defaults.getProperty(maxConcurrentStreams)));
+
+		final String initialWindowSize = String.format("%s.InitialWindowSize", classname);
+		InitialWindowSize = Integer.valueOf(System.getProperty(initialWindowSize, defaults.getProperty(initialWindowSize)));
+
+		final String maxFrameSize = String.format("%s.MaxFrameSize", classname);
+		MaxFrameSize = Integer.valueOf(System.getProperty(maxFrameSize, defaults.getProperty(maxFrameSize)));
+
+		final String headerTableSize = String.format("%s.HeaderTableSize", classname);
+		HeaderTableSize = Integer.valueOf(System.getProperty(headerTableSize, defaults.getProperty(headerTableSize)));
+
+		final String maxHeaderListSize = String.format("%s.MaxHeaderListSize", classname);
+		MaxHeaderListSize = Integer.valueOf(System.getProperty(maxHeaderListSize, defaults.getProperty(maxHeaderListSize)));
+
+		LOGGER.config("<class init>", "Load a constant: Timeout = {0}", Timeout);
+		LOGGER.config("<class init>", "Load a constant: MaxThreads = {0}", MaxThreads);
+		LOGGER.config("<class init>", "Load a constant: PipelineDepth = {0}", PipelineDepth);
+		LOGGER.config("<class init>", "Load a constant: MaxConcurrentStreams = {0}", MaxConcurrentStreams);
+		LOGGER.config("<class init>", "Load a constant: InitialWindowSize = {0}", InitialWindowSize);
+		LOGGER.config("<class init>", "Load a constant: MaxFrameSize = {0}", MaxFrameSize);
+		LOGGER.config("<class init>", "Load a constant: HeaderTableSize = {0}", HeaderTableSize);
+		LOGGER.config("<class init>", "Load a constant: MaxHeaderListSize = {0}", MaxHeaderListSize);
+
+	}
+
+}
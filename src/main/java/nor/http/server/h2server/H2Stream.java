@@ -0,0 +1,754 @@
+/*
+ *  Copyright (C) 2011 Junpei Kawamoto
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package nor.http.server.h2server;
+
+import static nor.http.HeaderName.Connection;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+import java.util.logging.Level;
+
+import nor.http.HeaderName;
+import nor.http.HttpHeader;
+import nor.http.HttpRequest;
+import nor.http.HttpResponse;
+import nor.http.Method;
+import nor.http.RequestStats;
+import nor.http.error.HttpException;
+import nor.http.server.access.AccessLog;
+import nor.util.io.EmptyInputStream;
+import nor.util.log.Logger;
+import nor.util.metrics.Histogram;
+import nor.util.metrics.Metrics;
+
+/**
+ * HTTP/2 のストリーム．
+ * 一つのストリームが一つのリクエストとレスポンスの組に対応する．
+ * リクエストボディは受信スレッドから渡される DATA フレームをバッファし，
+ * レスポンスはフロー制御に従って DATA フレームとして書き出す．
+ *
+ * @author Junpei Kawamoto
+ * @since 0.3
+ */
+final class H2Stream implements Runnable{
+
+	private final int id;
+	private final H2Connection con;
+	private final HttpRequest request;
+
+	/**
+	 * 送信ウィンドウ．H2Connection のフロー制御ロックで保護される
+	 */
+	long sendWindow;
+
+	//----------------------------------------------------------------------------
+	//  以下はこのオブジェクトで同期する
+	//----------------------------------------------------------------------------
+	private final LinkedList<byte[]> chunks = new LinkedList<byte[]>();
+	private int offset;
+	private int buffered;
+
+	/**
+	 * 受信ウィンドウ．ピアがこのストリームにまだ送ってよいバイト数
+	 */
+	private long recvWindow;
+
+	/**
+	 * 読み込まれたが WINDOW_UPDATE でまだ通知していないバイト数
+	 */
+	private int unacked;
+
+	private boolean remoteClosed;
+	private boolean localClosed;
+	private boolean discarding;
+	private volatile boolean reset;
+
+	/**
+	 * HTTP/2 では使用できない，接続に固有のヘッダ
+	 */
+	static final Set<String> ConnectionSpecific = new HashSet<String>();
+	static{
+
+		ConnectionSpecific.add(HeaderName.Connection.toString());
+		ConnectionSpecific.add(HeaderName.KeepAlive.toString());
+		ConnectionSpecific.add(HeaderName.ProxyConnection.toString());
+		ConnectionSpecific.add(HeaderName.TransferEncoding.toString());
+		ConnectionSpecific.add(HeaderName.Upgrade.toString());
+
+	}
+
+	private static final Logger LOGGER = Logger.getLogger(H2Stream.class);
+
+	/**
+	 * レスポンスの書き出しに費やした時間
+	 */
+	private static final Histogram WriteTime = RequestStats.stage("write");
+
+	//============================================================================
+	//  Constructor
+	//============================================================================
+	/**
+	 * ストリームを作成する．
+	 *
+	 * @param id ストリーム ID
+	 * @param con このストリームが属する接続
+	 * @param request このストリームで受け取ったリクエスト
+	 * @param sendWindow 送信ウィンドウの初期値
+	 * @param recvWindow 受信ウィンドウの初期値
+	 * @param remoteClosed リクエストが既に終わっている場合 true
+	 */
+	H2Stream(final int id, final H2Connection con, final HttpRequest request, final long sendWindow, final long recvWindow, final boolean remoteClosed){
+		LOGGER.entering("<init>", id, con, request, sendWindow, recvWindow, remoteClosed);
+		assert con != null;
+		assert request != null;
+
+		this.id = id;
+		this.con = con;
+		this.request = request;
+		this.sendWindow = sendWindow;
+		this.recvWindow = recvWindow;
+		this.remoteClosed = remoteClosed;
+
+		LOGGER.exiting("<init>");
+	}
+
+	//============================================================================
+	//  Public methods
+	//============================================================================
+	/**
+	 * リクエストを処理し，レスポンスを書き出す．
+	 */
+	@Override
+	public void run(){
+		LOGGER.entering("run");
+
+		final String name = Thread.currentThread().getName();
+		Thread.currentThread().setName(this.request.getHeadLine());
+		try{
+
+			if(this.request.getMethod() == Method.CONNECT){
+
+				this.tunnel();
+
+			}else{
+
+				this.respond(this.con.getHandler().doRequest(this.request));
+
+			}
+
+		}catch(final IOException e){
+
+			LOGGER.fine("run", "Stream {0} is aborted ({1})", this.id, e);
+			this.con.resetStream(this, H2Exception.Cancel);
+
+		}catch(final RuntimeException e){
+
+			LOGGER.warning("run", "Cannot handle {0} ({1})", this.request.getHeadLine(), e);
+			LOGGER.catched(Level.FINE, "run", e);
+			this.con.resetStream(this, H2Exception.InternalError);
+
+		}finally{
+
+			Thread.currentThread().setName(name);
+
+		}
+
+		LOGGER.exiting("run");
+	}
+
+	@Override
+	public String toString(){
+
+		return String.format("%s(id = %d)", this.getClass().getSimpleName(), this.id);
+
+	}
+
+	//============================================================================
+	//  Package private methods
+	//============================================================================
+	int getId(){
+
+		return this.id;
+
+	}
+
+	/**
+	 * リクエストボディを読み込むストリームを作成する．
+	 *
+	 * @return リクエストボディ
+	 */
+	InputStream createBody(){
+
+		return new Body();
+
+	}
+
+	/**
+	 * DATA フレームを受け取る．
+	 *
+	 * @param data ペイロード
+	 * @param off データの開始位置
+	 * @param len データの長さ（パディングを除く）
+	 * @param flowLength フロー制御の対象となる長さ（パディングを含む）
+	 * @param end END_STREAM フラグ
+	 * @return 直ちに受信ウィンドウへ戻してよいバイト数
+	 * @throws H2Exception ピアが受信ウィンドウを超えて送ってきた場合
+	 */
+	synchronized int receive(final byte[] data, final int off, final int len, final int flowLength, final boolean end) throws H2Exception{
+
+		this.recvWindow -= flowLength;
+		if(this.recvWindow < 0){
+
+			throw H2Exception.stream(this.id, H2Exception.FlowControlError, "Stream window is exceeded");
+
+		}
+
+		int consumed = flowLength - len;
+		if(this.discarding || this.reset){
+
+			consumed = flowLength;
+
+		}else if(len != 0){
+
+			final byte[] chunk = new byte[len];
+			System.arraycopy(data, off, chunk, 0, len);
+			this.chunks.add(chunk);
+			this.buffered += len;
+
+		}
+
+		if(end){
+
+			this.remoteClosed = true;
+
+		}
+		this.notifyAll();
+
+		return consumed;
+
+	}
+
+	/**
+	 * トレイラを受け取り，リクエストを終える．
+	 */
+	synchronized void receiveEnd(){
+
+		this.remoteClosed = true;
+		this.notifyAll();
+
+	}
+
+	synchronized boolean isRemoteClosed(){
+
+		return this.remoteClosed;
+
+	}
+
+	/**
+	 * 読み込まれたバイト数を記録し，WINDOW_UPDATE で通知すべき増分を返す．
+	 *
+	 * @param n 読み込まれたバイト数
+	 * @param threshold 通知を行う閾値
+	 * @return 通知すべき増分．通知しない場合は 0
+	 */
+	synchronized int acknowledge(final int n, final int threshold){
+
+		if(this.remoteClosed || this.reset){
+
+			return 0;
+
+		}
+
+		this.unacked += n;
+		if(this.unacked < threshold){
+
+			return 0;
+
+		}
+
+		final int res = this.unacked;
+		this.unacked = 0;
+		this.recvWindow += res;
+
+		return res;
+
+	}
+
+	/**
+	 * ストリームを閉じ，待機しているスレッドを起こす．
+	 *
+	 * @return バッファに残っていたバイト数
+	 */
+	synchronized int reset(){
+
+		this.reset = true;
+		final int res = this.discard();
+		this.notifyAll();
+
+		return res;
+
+	}
+
+	boolean isReset(){
+
+		return this.reset;
+
+	}
+
+	//============================================================================
+	//  Private methods
+	//============================================================================
+	private void respond(final HttpResponse response) throws IOException{
+		LOGGER.entering("respond", response);
+		assert response != null;
+
+		final HttpHeader header = response.getHeader();
+		final int code = response.getCode();
+
+		// ボディを持たないレスポンス
+		InputStream body = response.getBody();
+		if(body != null && (this.request.getMethod() == Method.HEAD || code < 200 || code == 204 || code == 304)){
+
+			body.close();
+			body = null;
+
+		}
+
+		// 転送コーディングはフレームが担う
+		header.remove(HeaderName.TransferEncoding);
+		response.setBody(body);
+
+		final long start = Metrics.start();
+		this.con.writeHeaders(this, responseFields(response), body == null);
+		long written = 0;
+		if(body != null){
+
+			final Output out = new Output();
+			response.writeBodyTo(out);
+			written = out.written;
+
+		}else{
+
+			this.finish();
+
+		}
+		response.close();
+		WriteTime.recordSince(start);
+		this.request.getStats().complete();
+
+		// アクセスログが有効なら，そちらに記録する (HTTP/2 ではボディのバイト数を記録する)
+		final AccessLog access = AccessLog.getInstance();
+		if(access.isEnabled()){
+
+			access.log(this.request, response, written);
+
+		}else if(header.containsKey(HeaderName.ContentLength)){
+
+			LOGGER.info("respond", "{0} > {1} ({2} bytes)", this.request.getHeadLine(), response.getHeadLine(), header.get(HeaderName.ContentLength));
+
+		}else{
+
+			LOGGER.info("respond", "{0} > {1} (unknown length)", this.request.getHeadLine(), response.getHeadLine());
+
+		}
+
+		LOGGER.exiting("respond");
+	}
+
+	/**
+	 * CONNECT リクエストに対するトンネルを作る (RFC 7540 Section 8.3)．
+	 * 上流からのデータは DATA フレームとして返し，DATA フレームで届いたデータは上流へ送る．
+	 */
+	private void tunnel() throws IOException{
+		LOGGER.entering("tunnel");
+
+		final InputStream upload = this.request.getBody();
+		this.request.setBody(EmptyInputStream.getInstance());
+
+		final SocketChannel ch;
+		try{
+
+			ch = this.con.getHandler().doConnectRequest(this.request);
+
+		}catch(final HttpException e){
+
+			LOGGER.catched(Level.FINE, "tunnel", e);
+			if(upload != null){
+
+				upload.close();
+
+			}
+			this.respond(e.createResponse(this.request));
+
+			LOGGER.exiting("tunnel");
+			return;
+
+		}
+
+		final Socket socket = ch.socket();
+		try{
+
+			final List<String[]> fields = new ArrayList<String[]>();
+			fields.add(new String[]{":status", "200"});
+			this.con.writeHeaders(this, fields, false);
+			LOGGER.info("tunnel", "{0} > 200 (tunnel)", this.request.getHeadLine());
+
+			// クライアントから上流へ
+			if(upload != null){
+
+				this.con.execute(new Runnable(){
+
+					@Override
+					public void run(){
+
+						try{
+
+							final OutputStream out = socket.getOutputStream();
+							final byte[] buf = new byte[Frame.DefaultMaxFrameSize];
+							int n;
+							while((n = upload.read(buf)) != -1){
+
+								out.write(buf, 0, n);
+
+							}
+							socket.shutdownOutput();
+
+						}catch(final IOException e){
+
+							LOGGER.catched(Level.FINE, "tunnel", e);
+
+						}
+
+					}
+
+				});
+
+			}
+
+			// 上流からクライアントへ
+			final InputStream in = socket.getInputStream();
+			final OutputStream out = new Output();
+			final byte[] buf = new byte[Frame.DefaultMaxFrameSize];
+			int n;
+			while((n = in.read(buf)) != -1){
+
+				out.write(buf, 0, n);
+				out.flush();
+
+			}
+			out.close();
+
+		}finally{
+
+			socket.close();
+
+		}
+
+		LOGGER.exiting("tunnel");
+	}
+
+	/**
+	 * レスポンスを書き終えたストリームを閉じる．
+	 */
+	private void finish(){
+
+		final boolean remote;
+		synchronized(this){
+
+			this.localClosed = true;
+			remote = this.remoteClosed;
+
+		}
+
+		if(remote){
+
+			this.con.closeStream(this);
+
+		}else{
+
+			// 残りのリクエストボディは必要ない (RFC 7540 Section 8.1)
+			this.con.resetStream(this, H2Exception.NoError);
+
+		}
+
+	}
+
+	/**
+	 * バッファを破棄し，以降に届くデータも捨てる．
+	 *
+	 * @return 破棄したバイト数
+	 */
+	private int discard(){
+
+		final int res = this.buffered;
+		this.chunks.clear();
+		this.offset = 0;
+		this.buffered = 0;
+		this.discarding = true;
+
+		return res;
+
+	}
+
+	/**
+	 * レスポンスのヘッダリストを作る．
+	 */
+	private static List<String[]> responseFields(final HttpResponse response){
+
+		final HttpHeader header = response.getHeader();
+		final List<String[]> res = new ArrayList<String[]>();
+		res.add(new String[]{":status", Integer.toString(response.getCode())});
+
+		// Connection ヘッダで指定されたヘッダもホップバイホップ
+		final Set<String> excludes = new HashSet<String>(ConnectionSpecific);
+		if(header.containsKey(Connection)){
+
+			for(final String v : header.get(Connection).split(",")){
+
+				excludes.add(v.trim().toLowerCase());
+
+			}
+
+		}
+
+		for(final String key : header.keySet()){
+
+			if(excludes.contains(key)){
+
+				continue;
+
+			}
+
+			final String value = header.get(key);
+			if(HeaderName.SetCookie.equals(key)){
+
+				// HttpHeader は Set-Cookie を改行で連結している
+				for(final String v : value.split("\n")){
+
+					res.add(new String[]{key, v.trim()});
+
+				}
+
+			}else{
+
+				res.add(new String[]{key, value});
+
+			}
+
+		}
+
+		return res;
+
+	}
+
+	//============================================================================
+	//  Inner classes
+	//============================================================================
+	/**
+	 * リクエストボディ．
+	 * 読み込んだ分だけ受信ウィンドウを戻す．
+	 */
+	private final class Body extends InputStream{
+
+		@Override
+		public int read() throws IOException{
+
+			final byte[] b = new byte[1];
+			return this.read(b, 0, 1) == -1 ? -1 : b[0] & 0xff;
+
+		}
+
+		@Override
+		public int read(final byte[] b, final int off, final int len) throws IOException{
+
+			if(len == 0){
+
+				return 0;
+
+			}
+
+			final H2Stream s = H2Stream.this;
+			int n = 0;
+			synchronized(s){
+
+				try{
+
+					while(s.chunks.isEmpty() && !s.remoteClosed && !s.reset){
+
+						s.wait();
+
+					}
+
+				}catch(final InterruptedException e){
+
+					Thread.currentThread().interrupt();
+					throw new InterruptedIOException();
+
+				}
+
+				if(s.reset){
+
+					throw new IOException("Stream is reset");
+
+				}
+				if(s.chunks.isEmpty()){
+
+					return -1;
+
+				}
+
+				while(n < len && !s.chunks.isEmpty()){
+
+					final byte[] head = s.chunks.getFirst();
+					final int c = Math.min(len - n, head.length - s.offset);
+					System.arraycopy(head, s.offset, b, off + n, c);
+					n += c;
+					s.offset += c;
+					if(s.offset == head.length){
+
+						s.chunks.removeFirst();
+						s.offset = 0;
+
+					}
+
+				}
+				s.buffered -= n;
+
+			}
+
+			s.con.consumed(s, n);
+			return n;
+
+		}
+
+		@Override
+		public int available(){
+
+			synchronized(H2Stream.this){
+
+				return H2Stream.this.buffered;
+
+			}
+
+		}
+
+		@Override
+		public void close(){
+
+			final int n;
+			synchronized(H2Stream.this){
+
+				n = H2Stream.this.discard();
+
+			}
+			H2Stream.this.con.consumed(null, n);
+
+		}
+
+	}
+
+	/**
+	 * レスポンスボディ．
+	 * 書き込まれたデータを DATA フレームにまとめ，閉じるときに END_STREAM を送る．
+	 */
+	private final class Output extends OutputStream{
+
+		private final byte[] buf = new byte[Frame.DefaultMaxFrameSize];
+		private int count;
+		private boolean closed;
+
+		/**
+		 * 書き出したバイト数
+		 */
+		private long written;
+
+		@Override
+		public void write(final int b) throws IOException{
+
+			if(this.count == this.buf.length){
+
+				this.flush();
+
+			}
+			this.buf[this.count++] = (byte)b;
+			++this.written;
+
+		}
+
+		@Override
+		public void write(final byte[] b, final int off, final int len) throws IOException{
+
+			this.written += len;
+
+			if(len >= this.buf.length){
+
+				this.flush();
+				H2Stream.this.con.writeData(H2Stream.this, b, off, len, false);
+
+			}else{
+
+				if(len > this.buf.length - this.count){
+
+					this.flush();
+
+				}
+				System.arraycopy(b, off, this.buf, this.count, len);
+				this.count += len;
+
+			}
+
+		}
+
+		@Override
+		public void flush() throws IOException{
+
+			if(!this.closed && this.count != 0){
+
+				H2Stream.this.con.writeData(H2Stream.this, this.buf, 0, this.count, false);
+				this.count = 0;
+
+			}
+
+		}
+
+		@Override
+		public void close() throws IOException{
+
+			if(!this.closed){
+
+				H2Stream.this.con.writeData(H2Stream.this, this.buf, 0, this.count, true);
+				this.count = 0;
+				this.closed = true;
+				H2Stream.this.finish();
+
+			}
+
+		}
+
+	}
+
+}
@@ -0,0 +1,322 @@
+/*
+ *  Copyright (C) 2011 Junpei Kawamoto
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package nor.http.server.h2server;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * HPACK のインデックス空間．
+ * 静的テーブル（RFC 7541 Appendix A）と動的テーブルからなり，インデックスは 1 から始まる．
+ *
+ * @author Junpei Kawamoto
+ * @since 0.3
+ */
+final class HeaderTable{
+
+	/**
+	 * 静的テーブル
+	 */
+	static final String[][] STATIC = {
+		{":authority", ""},
+		{":method", "GET"},
+		{":method", "POST"},
+		{":path", "/"},
+		{":path", "/index.html"},
+		{":scheme", "http"},
+		{":scheme", "https"},
+		{":status", "200"},
+		{":status", "204"},
+		{":status", "206"},
+		{":status", "304"},
+		{":status", "400"},
+		{":status", "404"},
+		{":status", "500"},
+		{"accept-charset", ""},
+		{"accept-encoding", "gzip, deflate"},
+		{"accept-language", ""},
+		{"accept-ranges", ""},
+		{"accept", ""},
+		{"access-control-allow-origin", ""},
+		{"age", ""},
+		{"allow", ""},
+		{"authorization", ""},
+		{"cache-control", ""},
+		{"content-disposition", ""},
+		{"content-encoding", ""},
+		{"content-language", ""},
+		{"content-length", ""},
+		{"content-location", ""},
+		{"content-range", ""},
+		{"content-type", ""},
+		{"cookie", ""},
+		{"date", ""},
+		{"etag", ""},
+		{"expect", ""},
+		{"expires", ""},
+		{"from", ""},
+		{"host", ""},
+		{"if-match", ""},
+		{"if-modified-since", ""},
+		{"if-none-match", ""},
+		{"if-range", ""},
+		{"if-unmodified-since", ""},
+		{"last-modified", ""},
+		{"link", ""},
+		{"location", ""},
+		{"max-forwards", ""},
+		{"proxy-authenticate", ""},
+		{"proxy-authorization", ""},
+		{"range", ""},
+		{"referer", ""},
+		{"refresh", ""},
+		{"retry-after", ""},
+		{"server", ""},
+		{"set-cookie", ""},
+		{"strict-transport-security", ""},
+		{"transfer-encoding", ""},
+		{"user-agent", ""},
+		{"vary", ""},
+		{"via", ""},
+		{"www-authenticate", ""}
+	};
+
+	/**
+	 * 名前と値の組から静的テーブルのインデックスへの写像
+	 */
+	private static final Map<String, Integer> STATIC_FIELDS = new HashMap<String, Integer>();
+
+	/**
+	 * 名前から静的テーブルの最初のインデックスへの写像
+	 */
+	private static final Map<String, Integer> STATIC_NAMES = new HashMap<String, Integer>();
+
+	static{
+
+		for(int i = STATIC.length - 1; i >= 0; --i){
+
+			STATIC_FIELDS.put(STATIC[i][0] + '\0' + STATIC[i][1], i + 1);
+			STATIC_NAMES.put(STATIC[i][0], i + 1);
+
+		}
+
+	}
+
+	/**
+	 * 動的テーブルのリングバッファ．長さは 2 の冪で，head の位置が最も新しいエントリ
+	 */
+	private String[][] ring = new String[16][];
+	private int head;
+	private int count;
+	private int size;
+	private int maxSize;
+
+	//============================================================================
+	//  Constructor
+	//============================================================================
+	HeaderTable(final int maxSize){
+
+		this.maxSize = maxSize;
+
+	}
+
+	//============================================================================
+	//  Package private methods
+	//============================================================================
+	/**
+	 * インデックスに対応するヘッダフィールドを取得する．
+	 *
+	 * @param index インデックス
+	 * @return 名前と値の組
+	 * @throws H2Exception インデックスが範囲外の場合
+	 */
+	String[] get(final int index) throws H2Exception{
+
+		if(index >= 1 && index <= STATIC.length){
+
+			return STATIC[index - 1];
+
+		}
+
+		final int i = index - STATIC.length - 1;
+		if(i >= 0 && i < this.count){
+
+			return this.entry(i);
+
+		}
+
+		throw H2Exception.connection(H2Exception.CompressionError, "Invalid index " + index);
+
+	}
+
+	/**
+	 * 名前と値が一致するヘッダフィールドのインデックスを探す．
+	 *
+	 * @return インデックス．見つからない場合は 0
+	 */
+	int find(final String name, final String value){
+
+		final Integer s = STATIC_FIELDS.get(name + '\0' + value);
+		if(s != null){
+
+			return s;
+
+		}
+
+		for(int i = 0; i != this.count; ++i){
+
+			final String[] e = this.entry(i);
+			if(e[0].equals(name) && e[1].equals(value)){
+
+				return STATIC.length + 1 + i;
+
+			}
+
+		}
+
+		return 0;
+
+	}
+
+	/**
+	 * 名前が一致するヘッダフィールドのインデックスを探す．
+	 *
+	 * @return インデックス．見つからない場合は 0
+	 */
+	int findName(final String name){
+
+		final Integer s = STATIC_NAMES.get(name);
+		if(s != null){
+
+			return s;
+
+		}
+
+		for(int i = 0; i != this.count; ++i){
+
+			if(this.entry(i)[0].equals(name)){
+
+				return STATIC.length + 1 + i;
+
+			}
+
+		}
+
+		return 0;
+
+	}
+
+	/**
+	 * 動的テーブルにヘッダフィールドを追加する．
+	 * テーブルに収まらないエントリを追加すると，テーブルは空になる．
+	 */
+	void add(final String name, final String value){
+
+		final int s = entrySize(name, value);
+		this.evict(this.maxSize - s);
+		if(s <= this.maxSize){
+
+			if(this.count == this.ring.length){
+
+				this.grow();
+
+			}
+			this.head = (this.head - 1) & (this.ring.length - 1);
+			this.ring[this.head] = new String[]{name, value};
+			++this.count;
+			this.size += s;
+
+		}
+
+	}
+
+	/**
+	 * 動的テーブルの最大サイズを変更する．
+	 */
+	void setMaxSize(final int maxSize){
+
+		this.maxSize = maxSize;
+		this.evict(maxSize);
+
+	}
+
+	int getMaxSize(){
+
+		return this.maxSize;
+
+	}
+
+	int size(){
+
+		return this.size;
+
+	}
+
+	/**
+	 * エントリのサイズ (RFC 7541 Section 4.1)．
+	 * 文字列は ISO-8859-1 で符号化されるので，文字数がそのままオクテット数になる．
+	 */
+	static int entrySize(final String name, final String value){
+
+		return 32 + name.length() + value.length();
+
+	}
+
+	//============================================================================
+	//  Private methods
+	//============================================================================
+	/**
+	 * 新しい方から数えた位置の動的テーブルのエントリを取得する．
+	 */
+	private String[] entry(final int i){
+
+		return this.ring[(this.head + i) & (this.ring.length - 1)];
+
+	}
+
+	private void evict(final int limit){
+
+		while(this.size > Math.max(limit, 0) && this.count != 0){
+
+			final int last = (this.head + this.count - 1) & (this.ring.length - 1);
+			final String[] e = this.ring[last];
+			this.ring[last] = null;
+			--this.count;
+			this.size -= entrySize(e[0], e[1]);
+
+		}
+
+	}
+
+	/**
+	 * リングバッファの長さを倍にする．エントリは新しい順に先頭から並べ直す．
+	 */
+	private void grow(){
+
+		final String[][] ring = new String[this.ring.length * 2][];
+		for(int i = 0; i != this.count; ++i){
+
+			ring[i] = this.entry(i);
+
+		}
+		this.ring = ring;
+		this.head = 0;
+
+	}
+
+}
@@ -0,0 +1,214 @@
+/*
+ *  Copyright (C) 2011 Junpei Kawamoto
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package nor.http.server.h2server;
+
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * HPACK ヘッダブロックの復号器 (RFC 7541)．
+ * 動的テーブルは接続ごとに一つなので，一つの接続のヘッダブロックは受信順に復号しなければならない．
+ *
+ * @author Junpei Kawamoto
+ * @since 0.3
+ */
+final class HpackDecoder{
+
+	private final HeaderTable table;
+
+	/**
+	 * 動的テーブルサイズの上限（SETTINGS_HEADER_TABLE_SIZE として通知した値）
+	 */
+	private final int maxTableSize;
+
+	/**
+	 * ヘッダリストの上限 (SETTINGS_MAX_HEADER_LIST_SIZE)
+	 */
+	private final int maxHeaderListSize;
+
+	static final String Charset = "ISO-8859-1";
+
+	//============================================================================
+	//  Constructor
+	//============================================================================
+	HpackDecoder(final int maxTableSize, final int maxHeaderListSize){
+
+		this.table = new HeaderTable(maxTableSize);
+		this.maxTableSize = maxTableSize;
+		this.maxHeaderListSize = maxHeaderListSize;
+
+	}
+
+	//============================================================================
+	//  Package private methods
+	//============================================================================
+	/**
+	 * ヘッダブロックを復号する．
+	 *
+	 * @param block ヘッダブロック
+	 * @param length ヘッダブロックの長さ
+	 * @return 名前と値の組のリスト（受信順）
+	 * @throws H2Exception ヘッダブロックが不正な場合
+	 */
+	List<String[]> decode(final byte[] block, final int length) throws H2Exception{
+
+		final List<String[]> res = new ArrayList<String[]>();
+		final int[] pos = {0};
+		int listSize = 0;
+		boolean first = true;
+		while(pos[0] < length){
+
+			final int b = block[pos[0]] & 0xff;
+			final String[] field;
+			if((b & 0x80) != 0){
+
+				// Indexed Header Field
+				final int index = decodeInt(block, length, pos, 7);
+				field = this.table.get(index);
+
+			}else if((b & 0xc0) == 0x40){
+
+				// Literal Header Field with Incremental Indexing
+				final int index = decodeInt(block, length, pos, 6);
+				final String name = index == 0 ? this.decodeString(block, length, pos) : this.table.get(index)[0];
+				final String value = this.decodeString(block, length, pos);
+				field = new String[]{name, value};
+				this.table.add(name, value);
+
+			}else if((b & 0xe0) == 0x20){
+
+				// Dynamic Table Size Update（ヘッダブロックの先頭にのみ現れる）
+				final int size = decodeInt(block, length, pos, 5);
+				if(!first || size > this.maxTableSize){
+
+					throw H2Exception.connection(H2Exception.CompressionError, "Invalid dynamic table size update");
+
+				}
+				this.table.setMaxSize(size);
+				continue;
+
+			}else{
+
+				// Literal Header Field without Indexing / Never Indexed
+				final int index = decodeInt(block, length, pos, 4);
+				final String name = index == 0 ? this.decodeString(block, length, pos) : this.table.get(index)[0];
+				final String value = this.decodeString(block, length, pos);
+				field = new String[]{name, value};
+
+			}
+			first = false;
+
+			listSize += HeaderTable.entrySize(field[0], field[1]);
+			if(listSize > this.maxHeaderListSize){
+
+				throw H2Exception.connection(H2Exception.EnhanceYourCalm, "Header list is too large");
+
+			}
+			res.add(field);
+
+		}
+
+		return res;
+
+	}
+
+	//============================================================================
+	//  Private methods
+	//============================================================================
+	private String decodeString(final byte[] block, final int length, final int[] pos) throws H2Exception{
+
+		if(pos[0] >= length){
+
+			throw H2Exception.connection(H2Exception.CompressionError, "Truncated string");
+
+		}
+
+		final boolean huffman = (block[pos[0]] & 0x80) != 0;
+		final int len = decodeInt(block, length, pos, 7);
+		if(len > length - pos[0]){
+
+			throw H2Exception.connection(H2Exception.CompressionError, "Truncated string");
+
+		}
+
+		try{
+
+			final String res;
+			if(huffman){
+
+				res = new String(Huffman.decode(block, pos[0], len), Charset);
+
+			}else{
+
+				res = new String(block, pos[0], len, Charset);
+
+			}
+			pos[0] += len;
+
+			return res;
+
+		}catch(final UnsupportedEncodingException e){
+
+			throw new AssertionError(e);
+
+		}
+
+	}
+
+	/**
+	 * プレフィックス付き整数を復号する (RFC 7541 Section 5.1)．
+	 */
+	static int decodeInt(final byte[] block, final int length, final int[] pos, final int prefix) throws H2Exception{
+
+		final int mask = (1 << prefix) - 1;
+		int res = block[pos[0]++] & mask;
+		if(res < mask){
+
+			return res;
+
+		}
+
+		int shift = 0;
+		while(true){
+
+			if(pos[0] >= length || shift > 28){
+
+				throw H2Exception.connection(H2Exception.CompressionError, "Invalid integer");
+
+			}
+
+			final int b = block[pos[0]++] & 0xff;
+			res += (b & 0x7f) << shift;
+			if(res < 0){
+
+				throw H2Exception.connection(H2Exception.CompressionError, "Integer overflow");
+
+			}
+			if((b & 0x80) == 0){
+
+				return res;
+
+			}
+			shift += 7;
+
+		}
+
+	}
+
+}
@@ -0,0 +1,229 @@
+/*
+ *  Copyright (C) 2011 Junpei Kawamoto
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package nor.http.server.h2server;
+
+import java.io.ByteArrayOutputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * HPACK ヘッダブロックの符号化器 (RFC 7541)．
+ * 静的テーブルと動的テーブルの両方を使い，ハフマン符号の方が短い場合はハフマン符号を使う．
+ * 符号化したブロックは，符号化した順にピアへ送らなければならない．
+ *
+ * @author Junpei Kawamoto
+ * @since 0.3
+ */
+final class HpackEncoder{
+
+	private final HeaderTable table;
+
+	/**
+	 * 自身で使う動的テーブルサイズの上限
+	 */
+	private final int limit;
+
+	/**
+	 * 次のヘッダブロックの先頭で通知する動的テーブルサイズ（-1 は通知不要）
+	 */
+	private int pendingSize = -1;
+
+	/**
+	 * 動的テーブルに入れないヘッダ
+	 */
+	private static final Set<String> Sensitive = new HashSet<String>();
+	static{
+
+		Sensitive.add("authorization");
+		Sensitive.add("proxy-authorization");
+		Sensitive.add("set-cookie");
+		Sensitive.add("cookie");
+
+	}
+
+	/**
+	 * 毎回変わるので動的テーブルに入れても効果のないヘッダ
+	 */
+	private static final Set<String> Volatile = new HashSet<String>();
+	static{
+
+		Volatile.add(":path");
+		Volatile.add("content-length");
+		Volatile.add("date");
+		Volatile.add("etag");
+		Volatile.add("last-modified");
+		Volatile.add("age");
+		Volatile.add("expires");
+		Volatile.add("content-range");
+
+	}
+
+	//============================================================================
+	//  Constructor
+	//============================================================================
+	HpackEncoder(final int limit){
+
+		this.limit = limit;
+		this.table = new HeaderTable(Math.min(limit, 4096));
+
+	}
+
+	//============================================================================
+	//  Package private methods
+	//============================================================================
+	/**
+	 * ピアが通知した動的テーブルサイズを反映する．
+	 *
+	 * @param size SETTINGS_HEADER_TABLE_SIZE の値
+	 */
+	void setMaxTableSize(final int size){
+
+		final int s = Math.min(size, this.limit);
+		if(s != this.table.getMaxSize()){
+
+			this.table.setMaxSize(s);
+			this.pendingSize = this.pendingSize == -1 ? s : Math.min(this.pendingSize, s);
+
+		}
+
+	}
+
+	/**
+	 * ヘッダリストを符号化する．
+	 *
+	 * @param fields 名前（小文字）と値の組のリスト
+	 * @return ヘッダブロック
+	 */
+	byte[] encode(final List<String[]> fields){
+
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		if(this.pendingSize != -1){
+
+			encodeInt(out, 0x20, 5, this.pendingSize);
+			if(this.pendingSize != this.table.getMaxSize()){
+
+				encodeInt(out, 0x20, 5, this.table.getMaxSize());
+
+			}
+			this.pendingSize = -1;
+
+		}
+
+		for(final String[] f : fields){
+
+			final String name = f[0];
+			final String value = f[1];
+
+			final int index = this.table.find(name, value);
+			if(index != 0){
+
+				// Indexed Header Field
+				encodeInt(out, 0x80, 7, index);
+				continue;
+
+			}
+
+			final int nameIndex = this.table.findName(name);
+			if(Sensitive.contains(name)){
+
+				// Literal Header Field Never Indexed
+				encodeInt(out, 0x10, 4, nameIndex);
+
+			}else if(Volatile.contains(name)){
+
+				// Literal Header Field without Indexing
+				encodeInt(out, 0x00, 4, nameIndex);
+
+			}else{
+
+				// Literal Header Field with Incremental Indexing
+				encodeInt(out, 0x40, 6, nameIndex);
+				this.table.add(name, value);
+
+			}
+			if(nameIndex == 0){
+
+				encodeString(out, name);
+
+			}
+			encodeString(out, value);
+
+		}
+
+		return out.toByteArray();
+
+	}
+
+	//============================================================================
+	//  Private methods
+	//============================================================================
+	private static void encodeString(final ByteArrayOutputStream out, final String s){
+
+		try{
+
+			final byte[] data = s.getBytes(HpackDecoder.Charset);
+			final int hlen = Huffman.encodedLength(data);
+			if(hlen < data.length){
+
+				encodeInt(out, 0x80, 7, hlen);
+				Huffman.encode(data, out);
+
+			}else{
+
+				encodeInt(out, 0x00, 7, data.length);
+				out.write(data, 0, data.length);
+
+			}
+
+		}catch(final UnsupportedEncodingException e){
+
+			throw new AssertionError(e);
+
+		}
+
+	}
+
+	/**
+	 * プレフィックス付き整数を符号化する (RFC 7541 Section 5.1)．
+	 */
+	static void encodeInt(final ByteArrayOutputStream out, final int flags, final int prefix, final int value){
+
+		final int mask = (1 << prefix) - 1;
+		if(value < mask){
+
+			out.write(flags | value);
+
+		}else{
+
+			out.write(flags | mask);
+			int v = value - mask;
+			while(v >= 0x80){
+
+				out.write((v & 0x7f) | 0x80);
+				v >>>= 7;
+
+			}
+			out.write(v);
+
+		}
+
+	}
+
+}
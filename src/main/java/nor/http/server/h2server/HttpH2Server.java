@@ -0,0 +1,143 @@
+/*
+ *  Copyright (C) 2011 Junpei Kawamoto
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package nor.http.server.h2server;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+
+import nor.http.server.HttpRequestHandler;
+import nor.http.server.HttpServer;
+import nor.util.log.Logger;
+
+/**
+ * HTTP/2 (h2c) に対応した Http サーバ．
+ * コネクションプリフェイスで始まる接続 (prior knowledge) と，Upgrade: h2c による切り替えの両方を受け付ける．
+ * それ以外の接続は HTTP/1.1 として処理する．
+ * 各ストリームは一つの HttpRequest として HttpRequestHandler に渡されるので，
+ * フィルタやプラグインは HTTP/1.1 の場合と同じように動作する．
+ *
+ * @author Junpei Kawamoto
+ * @since 0.3
+ */
+public class HttpH2Server implements HttpServer{
+
+	/**
+	 * Httpリクエストに答えるハンドラ
+	 */
+	private final HttpRequestHandler handler;
+
+	/**
+	 * 待ち受けソケット
+	 */
+	private ServerSocket socket;
+
+	/**
+	 * ポートリスニング用スレッド
+	 */
+	private Thread listeningThread;
+
+	private static final Logger LOGGER = Logger.getLogger(HttpH2Server.class);
+
+
+	//============================================================================
+	//  コンストラクタ
+	//============================================================================
+	/**
+	 * リクエストハンドラを指定して Http サーバを作成する．
+	 * インスタンスを作成しただけではサービスは開始されず，start メソッドを呼ぶ必要がある．
+	 * また，サービスを停止する場合には close メソッドを呼ぶ．
+	 *
+	 * @param handler Http メッセージのハンドラ
+	 * @see #start(String, int)
+	 * @see #close()
+	 */
+	public HttpH2Server(final HttpRequestHandler handler){
+		LOGGER.entering("<init>", handler);
+		assert handler != null;
+
+		// ハンドラの登録
+		this.handler = handler;
+
+		LOGGER.exiting("<init>");
+	}
+
+
+	//============================================================================
+	//  public メソッド
+	//============================================================================
+	/**
+	 * サービスを開始する．
+	 * 別スレッドとして Http サーバを起動する．
+	 *
+	 * @param hostname バインドするホスト名またはIPアドレス
+	 * @param port 待ち受けポート番号
+	 * @throws IOException I/Oエラーが発生した場合
+	 */
+	@Override
+	public void start(final String hostname, final int port) throws IOException{
+		LOGGER.entering("start", hostname, (Object)port);
+
+		// ソケットの作成
+		this.socket = new ServerSocket();
+		this.socket.setReuseAddress(true);
+		this.socket.bind(new InetSocketAddress(hostname, port));
+		LOGGER.info("start", "Bind the socket to port {0}", port);
+
+		this.listeningThread = new Thread(new ListenWorker(this.socket, hostname, this.handler, H2Server.MaxThreads));
+		this.listeningThread.setName("ListenWorker");
+		this.listeningThread.start();
+
+		LOGGER.exiting("start");
+	}
+
+	/**
+	 *	サーバ処理を終了する．
+	 *	サーバが使用していたリソースを解放するために，必ず呼ぶ必要がある．
+	 *	既にクローズされているサーバに対して本メソッドを呼んだ場合，何も行わない．
+	 *
+	 * @throws IOException サーバソケットを閉じている時にI/Oエラーが起きた場合
+	 */
+	@Override
+	public void close() throws IOException{
+		LOGGER.entering("close");
+
+		if(this.listeningThread != null){
+
+			// accept を解除するためにソケットを閉じる
+			this.socket.close();
+			this.listeningThread.interrupt();
+			try{
+
+				this.listeningThread.join();
+
+			}catch(final InterruptedException e) {
+
+				Thread.currentThread().interrupt();
+
+			}
+			this.listeningThread = null;
+
+			LOGGER.info("close", "Closes.");
+
+		}
+
+		LOGGER.exiting("close");
+	}
+
+}
@@ -0,0 +1,252 @@
+/*
+ *  Copyright (C) 2011 Junpei Kawamoto
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package nor.http.server.h2server;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * HPACK (RFC 7541 Appendix B) のハフマン符号．
+ * この符号は正準ハフマン符号なので，各記号の符号長から符号語を復元する．
+ *
+ * @author Junpei Kawamoto
+ * @since 0.3
+ */
+final class Huffman{
+
+	/**
+	 * 各記号（0 から 255 と EOS）の符号長
+	 */
+	private static final byte[] LENGTHS = {
+		13, 23, 28, 28, 28, 28, 28, 28, 28, 24, 30, 28, 28, 30, 28, 28,
+		28, 28, 28, 28, 28, 28, 30, 28, 28, 28, 28, 28, 28, 28, 28, 28,
+		6, 10, 10, 12, 13, 6, 8, 11, 10, 10, 8, 11, 8, 6, 6, 6,
+		5, 5, 5, 6, 6, 6, 6, 6, 6, 6, 7, 8, 15, 6, 12, 10,
+		13, 6, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7,
+		7, 7, 7, 7, 7, 7, 7, 7, 8, 7, 8, 13, 19, 13, 14, 6,
+		15, 5, 6, 5, 6, 5, 6, 6, 6, 5, 7, 7, 6, 6, 6, 5,
+		6, 7, 6, 5, 5, 6, 7, 7, 7, 7, 7, 15, 11, 14, 13, 28,
+		20, 22, 20, 20, 22, 22, 22, 23, 22, 23, 23, 23, 23, 23, 24, 23,
+		24, 24, 22, 23, 24, 23, 23, 23, 23, 21, 22, 23, 22, 23, 23, 24,
+		22, 21, 20, 22, 22, 23, 23, 21, 23, 22, 22, 24, 21, 22, 23, 23,
+		21, 21, 22, 21, 23, 22, 23, 23, 20, 22, 22, 22, 23, 22, 22, 23,
+		26, 26, 20, 19, 22, 23, 22, 25, 26, 26, 26, 27, 27, 26, 24, 25,
+		19, 21, 26, 27, 27, 26, 27, 24, 21, 21, 26, 26, 28, 27, 27, 27,
+		20, 24, 20, 21, 22, 21, 21, 23, 22, 22, 25, 25, 24, 24, 26, 23,
+		26, 27, 26, 26, 27, 27, 27, 27, 27, 28, 27, 27, 27, 27, 27, 26,
+		30
+	};
+
+	private static final int EOS = 256;
+
+	private static final int[] CODES = new int[LENGTHS.length];
+
+	/**
+	 * 復号用の二分木．node * 2 (+1) 番目の要素が 0 (1) を読んだときの遷移先で，
+	 * 負の値は葉（記号 = -(値 + 1)）を表す．
+	 */
+	private static final int[] TREE;
+
+	private Huffman(){}
+
+	static{
+
+		// 符号長，記号の順に並べて符号語を割り当てる
+		final Integer[] order = new Integer[LENGTHS.length];
+		for(int i = 0; i != order.length; ++i){
+
+			order[i] = i;
+
+		}
+		Arrays.sort(order, new Comparator<Integer>(){
+
+			@Override
+			public int compare(final Integer o1, final Integer o2){
+
+				final int d = LENGTHS[o1] - LENGTHS[o2];
+				return d != 0 ? d : o1 - o2;
+
+			}
+
+		});
+
+		int code = 0;
+		int prev = LENGTHS[order[0]];
+		for(int i = 0; i != order.length; ++i){
+
+			final int sym = order[i];
+			if(i != 0){
+
+				code = (code + 1) << (LENGTHS[sym] - prev);
+				prev = LENGTHS[sym];
+
+			}
+			CODES[sym] = code;
+
+		}
+
+		// 復号木の構築
+		final int[] tree = new int[LENGTHS.length * 4];
+		int nodes = 1;
+		for(int sym = 0; sym != LENGTHS.length; ++sym){
+
+			int node = 0;
+			for(int bit = LENGTHS[sym] - 1; bit >= 0; --bit){
+
+				final int index = node * 2 + ((CODES[sym] >>> bit) & 1);
+				if(bit == 0){
+
+					tree[index] = -(sym + 1);
+
+				}else{
+
+					if(tree[index] == 0){
+
+						tree[index] = nodes++;
+
+					}
+					node = tree[index];
+
+				}
+
+			}
+
+		}
+		TREE = tree;
+
+	}
+
+	//============================================================================
+	//  Package private methods
+	//============================================================================
+	/**
+	 * 符号化後のバイト数を求める．
+	 *
+	 * @param data 符号化するデータ
+	 * @return 符号化後のバイト数
+	 */
+	static int encodedLength(final byte[] data){
+
+		long bits = 0;
+		for(final byte b : data){
+
+			bits += LENGTHS[b & 0xff];
+
+		}
+		return (int)((bits + 7) >> 3);
+
+	}
+
+	/**
+	 * データを符号化する．
+	 *
+	 * @param data 符号化するデータ
+	 * @param out 出力先
+	 */
+	static void encode(final byte[] data, final ByteArrayOutputStream out){
+
+		long current = 0;
+		int n = 0;
+		for(final byte b : data){
+
+			final int sym = b & 0xff;
+			current = (current << LENGTHS[sym]) | CODES[sym];
+			n += LENGTHS[sym];
+			while(n >= 8){
+
+				n -= 8;
+				out.write((int)(current >> n));
+
+			}
+
+		}
+
+		// EOS の上位ビットで埋める
+		if(n > 0){
+
+			current = (current << (8 - n)) | (0xff >>> n);
+			out.write((int)current);
+
+		}
+
+	}
+
+	/**
+	 * データを復号する．
+	 *
+	 * @param buf 符号化されたデータを含む配列
+	 * @param off 開始位置
+	 * @param len 長さ
+	 * @return 復号したデータ
+	 * @throws H2Exception 符号が不正な場合
+	 */
+	static byte[] decode(final byte[] buf, final int off, final int len) throws H2Exception{
+
+		final ByteArrayOutputStream out = new ByteArrayOutputStream(len * 8 / 5 + 1);
+		int node = 0;
+		int depth = 0;
+		boolean ones = true;
+		for(int i = off; i != off + len; ++i){
+
+			final int b = buf[i] & 0xff;
+			for(int bit = 7; bit >= 0; --bit){
+
+				final int v = (b >>> bit) & 1;
+				final int next = TREE[node * 2 + v];
+				++depth;
+				ones &= v == 1;
+				if(next < 0){
+
+					final int sym = -(next + 1);
+					if(sym == EOS){
+
+						throw H2Exception.connection(H2Exception.CompressionError, "EOS in a Huffman string");
+
+					}
+					out.write(sym);
+					node = 0;
+					depth = 0;
+					ones = true;
+
+				}else if(next == 0){
+
+					throw H2Exception.connection(H2Exception.CompressionError, "Invalid Huffman code");
+
+				}else{
+
+					node = next;
+
+				}
+
+			}
+
+		}
+
+		// パディングは 7 ビット以下の EOS の接頭辞でなければならない
+		if(depth > 7 || !ones){
+
+			throw H2Exception.connection(H2Exception.CompressionError, "Invalid Huffman padding");
+
+		}
+
+		return out.toByteArray();
+
+	}
+
+}
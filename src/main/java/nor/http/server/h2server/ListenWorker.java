@@ -0,0 +1,141 @@
+/*
+ *  Copyright (C) 2011 Junpei Kawamoto
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package nor.http.server.h2server;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import nor.http.server.HttpRequestHandler;
+import nor.util.log.Logger;
+
+
+/**
+ * ポートリスンを行うスレッドクラス．
+ * 受け付けた接続ごとに {@link H2Connection} を起動する．
+ */
+final class ListenWorker implements Runnable{
+
+	/**
+	 * Httpサーバが利用するソケット
+	 */
+	private final ServerSocket socket;
+
+	/**
+	 * 待ち受けているホスト名
+	 */
+	private final String hostname;
+
+	/**
+	 * ハンドラ
+	 */
+	private final HttpRequestHandler handler;
+
+	/**
+	 * 接続を読み込むスレッドプール
+	 */
+	private final ExecutorService pool;
+
+	/**
+	 * ストリームやパイプライン化されたリクエストの処理に使うスレッドプール
+	 */
+	private final ExecutorService dispatcher;
+
+	private static final Logger LOGGER = Logger.getLogger(ListenWorker.class);
+
+	ListenWorker(final ServerSocket socket, final String hostname, final HttpRequestHandler handler, final int nThreads){
+		LOGGER.entering("<init>", socket, hostname, handler, nThreads);
+		assert socket != null;
+		assert hostname != null;
+		assert handler != null;
+		assert nThreads >= 0;
+
+		this.socket = socket;
+		this.hostname = hostname;
+		this.handler = handler;
+
+		// 接続スレッド数の設定
+		if(nThreads == 0){
+
+			this.pool = Executors.newCachedThreadPool();
+
+		}else{
+
+			this.pool = Executors.newFixedThreadPool(nThreads);
+
+		}
+		this.dispatcher = Executors.newCachedThreadPool();
+
+		LOGGER.exiting("<init>");
+	}
+
+	/**
+	 * 接続を受け付ける．
+	 */
+	@Override
+	public void run() {
+		LOGGER.entering("run");
+
+		try{
+
+			// 接続要求を待つ
+			Socket socket;
+			while((socket = this.socket.accept()) != null && !Thread.currentThread().isInterrupted()){
+
+				this.pool.execute(new H2Connection(socket, this.hostname, this.handler, this.dispatcher));
+
+			}
+
+			// 終了処理
+			this.socket.close();
+
+		}catch(final SocketException e){
+
+			LOGGER.info("run", "サーバの待ち受けが終了しました");
+
+		}catch(final IOException e){
+
+			LOGGER.severe("run", e.getMessage());
+
+		}finally{
+
+			this.pool.shutdownNow();
+			this.dispatcher.shutdownNow();
+			try{
+
+				this.pool.awaitTermination(60, TimeUnit.SECONDS);
+				this.dispatcher.awaitTermination(60, TimeUnit.SECONDS);
+
+			}catch(final InterruptedException e) {
+
+				this.pool.shutdownNow();
+				this.dispatcher.shutdownNow();
+				Thread.currentThread().interrupt();
+
+			}
+
+		}
+
+		LOGGER.exiting("run");
+	}
+
+}
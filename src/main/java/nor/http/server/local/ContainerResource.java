@@ -0,0 +1,129 @@
+/*
+ *  Copyright (C) 2011 Junpei Kawamoto
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package nor.http.server.local;
+
+import nor.http.HttpRequest;
+import nor.http.HttpResponse;
+import nor.http.Method;
+import nor.http.error.HttpException;
+
+/**
+ * 子リソースを持つリソース．
+ * 要求は子リソースを順に試すのではなく，コンパイルしたトライを辿って一つのリソースに振り分ける．
+ * 子リソースを変更した場合は {@link PathTrie#invalidate()} を呼び，トライを作り直させる．
+ *
+ * @author Junpei Kawamoto
+ * @since 0.3
+ */
+abstract class ContainerResource extends Resource{
+
+	/**
+	 * このコンテナ以下をコンパイルしたトライ
+	 */
+	private volatile PathTrie compiled;
+
+	//====================================================================
+	//  コンストラクタ
+	//====================================================================
+	protected ContainerResource(final String name){
+		super(name);
+	}
+
+	//====================================================================
+	//  public メソッド
+	//====================================================================
+	@Override
+	public HttpResponse doDelete(final String path, final HttpRequest request) throws HttpException{
+
+		return this.dispatch(Method.DELETE, path, request);
+
+	}
+
+	@Override
+	public HttpResponse doGet(final String path, final HttpRequest request) throws HttpException{
+
+		return this.dispatch(Method.GET, path, request);
+
+	}
+
+	@Override
+	public HttpResponse doPost(final String path, final HttpRequest request) throws HttpException{
+
+		return this.dispatch(Method.POST, path, request);
+
+	}
+
+	@Override
+	public HttpResponse doPut(final String path, final HttpRequest request) throws HttpException{
+
+		return this.dispatch(Method.PUT, path, request);
+
+	}
+
+	//====================================================================
+	//  package private メソッド
+	//====================================================================
+	/**
+	 * このコンテナからの相対パスに置かれたリソースのメソッドを呼び出す．
+	 *
+	 * @param method 要求メソッド，未知のメソッドの場合は null
+	 * @param path このコンテナからの相対パス
+	 * @param request リクエスト
+	 * @return レスポンス，リソースが見つからない場合は null
+	 * @throws HttpException リソースが応えないメソッドの場合，あるいはリソースがエラーを返した場合
+	 */
+	HttpResponse dispatch(final Method method, final String path, final HttpRequest request) throws HttpException{
+
+		final PathTrie.Node node = this.trie().find(path);
+		return node != null ? node.dispatch(method, path, request) : null;
+
+	}
+
+	/**
+	 * 子リソースをトライのノードの下に置く．
+	 *
+	 * @param node このコンテナに対応するノード
+	 */
+	abstract void mount(final PathTrie.Node node);
+
+	//====================================================================
+	//  private メソッド
+	//====================================================================
+	private PathTrie trie(){
+
+		PathTrie res = this.compiled;
+		if(res == null || !res.isValid()){
+
+			synchronized(this){
+
+				res = this.compiled;
+				if(res == null || !res.isValid()){
+
+					res = PathTrie.compile(this);
+					this.compiled = res;
+
+				}
+
+			}
+
+		}
+		return res;
+
+	}
+
+}
@@ -19,27 +19,25 @@ package nor.http.server.local;
 
 import java.util.Collection;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
-import nor.http.HttpRequest;
-import nor.http.HttpResponse;
-import nor.http.error.HttpException;
 import nor.util.log.Logger;
 
 /**
  * リソースディレクトリを表すクラス．
+ * 子リソースはキーの名前でこのディレクトリの下に置かれ，要求は {@link PathTrie} で振り分けられる．
  *
  * @author KAWAMOTO Junpei
  *
  */
-public class DirResource extends Resource implements Map<String, Resource>{
+public class DirResource extends ContainerResource implements Map<String, Resource>{
 
 	/**
 	 * 子リソース
 	 */
-	private final Map<String, Resource> children = Collections.synchronizedMap(new HashMap<String, Resource>());
+	private final Map<String, Resource> children = new ConcurrentHashMap<String, Resource>();
 
 	/**
 	 * ロガー
@@ -62,103 +60,22 @@ public class DirResource extends Resource implements Map<String, Resource>{
 	}
 
 	//====================================================================
-	//  public メソッド
+	//  package private メソッド
 	//====================================================================
 	@Override
-	public HttpResponse doDelete(final String path, final HttpRequest request) throws HttpException{
-		LOGGER.entering("doDelete", path, request);
-
-		HttpResponse ret = null;
-		if(path.startsWith(this.getName())){
-
-			final String next = path.substring(this.getName().length() + 1);
-			final String dirname = next.substring(1, next.indexOf("/"));
-
-			if(this.children.containsKey(dirname)){
-
-				final Resource r = this.children.get(dirname);
-				ret = r.doDelete(next, request);
-
-			}
-
-		}
-
-		LOGGER.exiting("doDelete", ret);
-		return ret;
-	}
-
-	@Override
-	public HttpResponse doGet(final String path, final HttpRequest request) throws HttpException{
-		LOGGER.entering("doGet", path, request);
-
-		HttpResponse ret = null;
-		if(path.startsWith(this.getName())){
-
-			final String next = path.substring(this.getName().length() + 1);
-			final String dirname = next.substring(1, next.indexOf("/"));
+	void mount(final PathTrie.Node node){
 
-			if(this.children.containsKey(dirname)){
+		for(final Map.Entry<String, Resource> e : this.children.entrySet()){
 
-				final Resource r = this.children.get(dirname);
-				ret = r.doDelete(next, request);
-
-			}
+			node.put(e.getKey(), e.getValue());
 
 		}
 
-		LOGGER.exiting("doGet", ret);
-		return ret;
-
-	}
-
-	@Override
-	public HttpResponse doPost(final String path, final HttpRequest request) throws HttpException{
-		LOGGER.entering("doPost", path, request);
-
-		HttpResponse ret = null;
-		if(path.startsWith(this.getName())){
-
-			final String next = path.substring(this.getName().length() + 1);
-			final String dirname = next.substring(1, next.indexOf("/"));
-
-			if(this.children.containsKey(dirname)){
-
-				final Resource r = this.children.get(dirname);
-				ret = r.doDelete(next, request);
-
-			}
-
-		}
-
-		LOGGER.exiting("doPost", ret);
-		return ret;
-
-	}
-
-	@Override
-	public HttpResponse doPut(final String path, final HttpRequest request) throws HttpException{
-		LOGGER.entering("doPut", path, request);
-
-		HttpResponse ret = null;
-		if(path.startsWith(this.getName())){
-
-			final String next = path.substring(this.getName().length() + 1);
-			final String dirname = next.substring(1, next.indexOf("/"));
-
-			if(this.children.containsKey(dirname)){
-
-				final Resource r = this.children.get(dirname);
-				ret = r.doDelete(next, request);
-
-			}
-
-		}
-
-		LOGGER.exiting("doPut", ret);
-		return ret;
-
 	}
 
+	//====================================================================
+	//  public メソッド
+	//====================================================================
 	/* (non-Javadoc)
 	 * @see java.lang.Object#toString()
 	 */
@@ -174,6 +91,7 @@ public class DirResource extends Resource implements Map<String, Resource>{
 	//---------------------------------------------------------------
 	public void clear() {
 		children.clear();
+		PathTrie.invalidate();
 	}
 
 	public boolean containsKey(Object key) {
@@ -185,7 +103,7 @@ public class DirResource extends Resource implements Map<String, Resource>{
 	}
 
 	public Set<java.util.Map.Entry<String, Resource>> entrySet() {
-		return children.entrySet();
+		return Collections.unmodifiableSet(children.entrySet());
 	}
 
 	public boolean equals(Object o) {
@@ -205,19 +123,24 @@ public class DirResource extends Resource implements Map<String, Resource>{
 	}
 
 	public Set<String> keySet() {
-		return children.keySet();
+		return Collections.unmodifiableSet(children.keySet());
 	}
 
 	public Resource put(String key, Resource value) {
-		return children.put(key, value);
+		final Resource res = children.put(key, value);
+		PathTrie.invalidate();
+		return res;
 	}
 
 	public void putAll(Map<? extends String, ? extends Resource> m) {
 		children.putAll(m);
+		PathTrie.invalidate();
 	}
 
 	public Resource remove(Object key) {
-		return children.remove(key);
+		final Resource res = children.remove(key);
+		PathTrie.invalidate();
+		return res;
 	}
 
 	public int size() {
@@ -225,7 +148,7 @@ public class DirResource extends Resource implements Map<String, Resource>{
 	}
 
 	public Collection<Resource> values() {
-		return children.values();
+		return Collections.unmodifiableCollection(children.values());
 	}
 
 }
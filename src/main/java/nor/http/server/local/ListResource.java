@@ -17,20 +17,25 @@
  */
 package nor.http.server.local;
 
-import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
 import java.util.ListIterator;
+import java.util.concurrent.CopyOnWriteArrayList;
 
-import nor.http.HttpRequest;
-import nor.http.HttpResponse;
-import nor.http.error.HttpException;
-
-public class ListResource extends Resource implements List<Resource>{
+/**
+ * 子リソースを名前のパスに置くリソース．
+ * 子リソースの名前はこのリソースからの相対パスで，"/nor/core/proxy.pac" のように複数のセグメントを含んでも良い．
+ * 要求は {@link PathTrie} で一つの子リソースに振り分けられ，同じパスに置かれた場合は後に追加したものが優先される．
+ * 子リソースの一覧はコピーオンライトで，変更は次の要求から反映される．
+ *
+ * @author Junpei Kawamoto
+ * @since 0.1
+ */
+public class ListResource extends ContainerResource implements List<Resource>{
 
-	private final List<Resource> children = Collections.synchronizedList(new ArrayList<Resource>());
+	private final List<Resource> children = new CopyOnWriteArrayList<Resource>();
 
 	//============================================================================
 	//  Constructor
@@ -40,66 +45,17 @@ public class ListResource extends Resource implements List<Resource>{
 	}
 
 	//============================================================================
-	//  Public methods
+	//  Package private methods
 	//============================================================================
 	@Override
-	public HttpResponse doDelete(final String path, final HttpRequest request) 	throws HttpException {
-
-		HttpResponse ret = null;
-		final String next = path.substring(this.getName().length() + 1);
-		for(final Resource r : this.children){
-
-			ret = r.doDelete(next, request);
-
-		}
-
-		return ret;
-
-	}
-
-	@Override
-	public HttpResponse doGet(String path, HttpRequest request) 	throws HttpException {
-
-		HttpResponse ret = null;
-		final String next = path.substring(this.getName().length() + 1);
-		for(final Resource r : this.children){
-
-			ret = r.doGet(next, request);
-
-		}
-
-		return ret;
-
-	}
-
-	@Override
-	public HttpResponse doPost(String path, HttpRequest request) throws HttpException {
+	void mount(final PathTrie.Node node){
 
-		HttpResponse ret = null;
-		final String next = path.substring(this.getName().length() + 1);
 		for(final Resource r : this.children){
 
-			ret = r.doPost(next, request);
+			node.put(r.getName(), r);
 
 		}
 
-		return ret;
-
-	}
-
-	@Override
-	public HttpResponse doPut(String path, HttpRequest request) throws HttpException {
-
-		HttpResponse ret = null;
-		final String next = path.substring(this.getName().length() + 1);
-		for(final Resource r : this.children){
-
-			ret = r.doPut(next, request);
-
-		}
-
-		return ret;
-
 	}
 
 	//---------------------------------------------------------------
@@ -107,22 +63,30 @@ public class ListResource extends Resource implements List<Resource>{
 	//---------------------------------------------------------------
 	public void add(int index, Resource element) {
 		children.add(index, element);
+		PathTrie.invalidate();
 	}
 
 	public boolean add(Resource e) {
-		return children.add(e);
+		final boolean res = children.add(e);
+		PathTrie.invalidate();
+		return res;
 	}
 
 	public boolean addAll(Collection<? extends Resource> c) {
-		return children.addAll(c);
+		final boolean res = children.addAll(c);
+		PathTrie.invalidate();
+		return res;
 	}
 
 	public boolean addAll(int index, Collection<? extends Resource> c) {
-		return children.addAll(index, c);
+		final boolean res = children.addAll(index, c);
+		PathTrie.invalidate();
+		return res;
 	}
 
 	public void clear() {
 		children.clear();
+		PathTrie.invalidate();
 	}
 
 	public boolean contains(Object o) {
@@ -170,23 +134,33 @@ public class ListResource extends Resource implements List<Resource>{
 	}
 
 	public Resource remove(int index) {
-		return children.remove(index);
+		final Resource res = children.remove(index);
+		PathTrie.invalidate();
+		return res;
 	}
 
 	public boolean remove(Object o) {
-		return children.remove(o);
+		final boolean res = children.remove(o);
+		PathTrie.invalidate();
+		return res;
 	}
 
 	public boolean removeAll(Collection<?> c) {
-		return children.removeAll(c);
+		final boolean res = children.removeAll(c);
+		PathTrie.invalidate();
+		return res;
 	}
 
 	public boolean retainAll(Collection<?> c) {
-		return children.retainAll(c);
+		final boolean res = children.retainAll(c);
+		PathTrie.invalidate();
+		return res;
 	}
 
 	public Resource set(int index, Resource element) {
-		return children.set(index, element);
+		final Resource res = children.set(index, element);
+		PathTrie.invalidate();
+		return res;
 	}
 
 	public int size() {
@@ -194,7 +168,7 @@ public class ListResource extends Resource implements List<Resource>{
 	}
 
 	public List<Resource> subList(int fromIndex, int toIndex) {
-		return children.subList(fromIndex, toIndex);
+		return Collections.unmodifiableList(children.subList(fromIndex, toIndex));
 	}
 
 	public Object[] toArray() {
@@ -58,31 +58,9 @@ public class LocalContentsHandler implements HttpRequestHandler{
 		if(path.startsWith("/")){
 
 			try{
-				switch(request.getMethod()){
 
-				case GET:
-
-					ret = this.root.doGet(path, request);
-					break;
-
-				case POST:
-
-					ret = this.root.doPost(path, request);
-					break;
-
-				case PUT:
-
-					ret = this.root.doPut(path, request);
-					break;
-
-				case DELETE:
-
-					ret = this.root.doDelete(path, request);
-					break;
-
-					// TODO: Other methods
-
-				}
+				// リソースが応えないメソッドには 405 を返す
+				ret = this.root.dispatch(request.getMethod(), path, request);
 
 			}catch(final HttpException e){
 
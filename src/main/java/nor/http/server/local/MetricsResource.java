@@ -0,0 +1,74 @@
+/*
+ *  Copyright (C) 2011 Junpei Kawamoto
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package nor.http.server.local;
+
+import nor.http.HeaderName;
+import nor.http.HttpHeader;
+import nor.http.HttpRequest;
+import nor.http.HttpResponse;
+import nor.http.Status;
+import nor.util.log.Logger;
+import nor.util.metrics.Metrics;
+
+/**
+ * 登録されている計測値を Prometheus のテキスト形式で返すリソース．
+ * 計測値は要求のたびに集計するため，取得されない間は集計の負荷はかかりません．
+ *
+ * @author Junpei Kawamoto
+ * @since 0.3
+ */
+public class MetricsResource extends Resource{
+
+	private static final String ContentType = "text/plain; version=0.0.4";
+
+	// ロガー
+	private static final Logger LOGGER = Logger.getLogger(MetricsResource.class);
+
+	//====================================================================
+	//  コンストラクタ
+	//====================================================================
+	/**
+	 * コンストラクタ
+	 *
+	 * @param name リソースの名前
+	 */
+	public MetricsResource(final String name){
+		super(name);
+	}
+
+	//====================================================================
+	//  public メソッド
+	//====================================================================
+	@Override
+	public HttpResponse doGet(final String path, final HttpRequest request){
+		LOGGER.entering("doGet", path, request);
+		assert request != null;
+
+		final String body = Metrics.export(new StringBuilder()).toString();
+		final HttpResponse ret = request.createResponse(Status.OK, body);
+
+		final HttpHeader header = ret.getHeader();
+		header.set(HeaderName.ContentType, ContentType);
+		header.set(HeaderName.CacheControl, "no-cache");
+
+		LOGGER.exiting("doGet", ret);
+		return ret;
+
+	}
+
+}
@@ -0,0 +1,282 @@
+/*
+ *  Copyright (C) 2011 Junpei Kawamoto
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package nor.http.server.local;
+
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import nor.http.HttpRequest;
+import nor.http.HttpResponse;
+import nor.http.Method;
+import nor.http.error.HttpException;
+import nor.http.error.MethodNotAllowedException;
+
+/**
+ * リソースの木をパスのセグメント毎に展開したトライ．
+ * 検索は要求パスのセグメント数に比例する時間で終わり，子リソースを順に試すことはない．
+ * <br />
+ * トライは作成後に変更されない．リソースの木が変更されると世代が進み，
+ * 古いトライは次の検索時に作り直されるため，検索側はロックを取らない．
+ *
+ * @author Junpei Kawamoto
+ * @since 0.3
+ */
+final class PathTrie{
+
+	private final Node root;
+
+	/**
+	 * 作成した時のリソースの木の世代
+	 */
+	private final int generation;
+
+	/**
+	 * リソースの木の世代．いずれかのコンテナが変更される度に進む
+	 */
+	private static final AtomicInteger Generation = new AtomicInteger();
+
+	//============================================================================
+	//  Constructor
+	//============================================================================
+	private PathTrie(final Node root, final int generation){
+
+		this.root = root;
+		this.generation = generation;
+
+	}
+
+	//============================================================================
+	//  Package private methods
+	//============================================================================
+	/**
+	 * コンテナ以下のリソースの木からトライを作成する．
+	 *
+	 * @param container 根となるコンテナ
+	 * @return 作成したトライ
+	 */
+	static PathTrie compile(final ContainerResource container){
+
+		// 作成中に木が変更された場合も，次の検索で作り直されるように先に世代を読む
+		final int generation = Generation.get();
+
+		final Node root = new Node();
+		container.mount(root);
+
+		return new PathTrie(root, generation);
+
+	}
+
+	/**
+	 * リソースの木が変更されたことを通知する．
+	 */
+	static void invalidate(){
+
+		Generation.incrementAndGet();
+
+	}
+
+	/**
+	 * このトライが最新のリソースの木を表しているか調べる．
+	 *
+	 * @return 最新であれば true
+	 */
+	boolean isValid(){
+
+		return this.generation == Generation.get();
+
+	}
+
+	/**
+	 * 要求パスに対応するノードを探す．
+	 * 空のセグメントは無視し，クエリは取り除く．
+	 *
+	 * @param path 要求パス
+	 * @return リソースを持つノード，見つからない場合は null
+	 */
+	Node find(final String path){
+
+		Node n = this.root;
+
+		final int end = end(path);
+		int begin = 0;
+		while(n != null && begin < end){
+
+			int next = path.indexOf('/', begin);
+			if(next == -1 || next > end){
+
+				next = end;
+
+			}
+
+			if(next != begin){
+
+				n = n.children.get(path.substring(begin, next));
+
+			}
+			begin = next + 1;
+
+		}
+
+		return n != null && n.resource != null ? n : null;
+
+	}
+
+	//============================================================================
+	//  Private methods
+	//============================================================================
+	/**
+	 * パスからクエリを除いた部分の終端を求める．
+	 */
+	private static int end(final String path){
+
+		final int query = path.indexOf('?');
+		return query != -1 ? query : path.length();
+
+	}
+
+	//============================================================================
+	//  Inner classes
+	//============================================================================
+	/**
+	 * トライのノード．リソースが置かれている場合，そのリソースのメソッド表を持つ．
+	 */
+	static final class Node{
+
+		private Map<String, Node> children = Collections.emptyMap();
+
+		private Resource resource;
+
+		/**
+		 * リソースが応えるメソッドの表
+		 */
+		private Method[] allowed;
+		private Set<Method> table;
+
+		/**
+		 * このノードの下にリソースを置く．
+		 * 名前はこのノードからの相対パスで，コンテナの場合はその子リソースを展開する．
+		 * 同じパスに置かれたリソースは後のものが優先される．
+		 *
+		 * @param name 相対パス
+		 * @param r 置くリソース
+		 */
+		void put(final String name, final Resource r){
+
+			Node n = this;
+
+			final int end = end(name);
+			int begin = 0;
+			while(begin < end){
+
+				int next = name.indexOf('/', begin);
+				if(next == -1 || next > end){
+
+					next = end;
+
+				}
+
+				if(next != begin){
+
+					n = n.child(name.substring(begin, next));
+
+				}
+				begin = next + 1;
+
+			}
+
+			if(r instanceof ContainerResource){
+
+				((ContainerResource)r).mount(n);
+
+			}else{
+
+				n.resource = r;
+				n.allowed = r.getAllowedMethods();
+				n.table = n.allowed.length != 0 ? EnumSet.of(n.allowed[0], n.allowed) : EnumSet.noneOf(Method.class);
+
+			}
+
+		}
+
+		/**
+		 * リソースのメソッドを呼び出す．
+		 *
+		 * @param method 要求メソッド
+		 * @param path 要求パス
+		 * @param request リクエスト
+		 * @return リソースが作成したレスポンス
+		 * @throws HttpException リソースが応えないメソッドの場合，あるいはリソースがエラーを返した場合
+		 */
+		HttpResponse dispatch(final Method method, final String path, final HttpRequest request) throws HttpException{
+
+			if(method == null || !this.table.contains(method)){
+
+				throw new MethodNotAllowedException(this.allowed);
+
+			}
+
+			switch(method){
+			case GET:
+
+				return this.resource.doGet(path, request);
+
+			case POST:
+
+				return this.resource.doPost(path, request);
+
+			case PUT:
+
+				return this.resource.doPut(path, request);
+
+			case DELETE:
+
+				return this.resource.doDelete(path, request);
+
+			default:
+
+				throw new MethodNotAllowedException(this.allowed);
+
+			}
+
+		}
+
+		private Node child(final String segment){
+
+			Node res = this.children.get(segment);
+			if(res == null){
+
+				if(this.children.isEmpty()){
+
+					this.children = new HashMap<String, Node>();
+
+				}
+				res = new Node();
+				this.children.put(segment, res);
+
+			}
+			return res;
+
+		}
+
+	}
+
+}
@@ -20,17 +20,22 @@ package nor.http.server.local;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.text.SimpleDateFormat;
 import java.util.Calendar;
 import java.util.Date;
+import java.util.List;
 
+import nor.http.ContentRange;
 import nor.http.ContentType;
 import nor.http.HeaderName;
 import nor.http.HttpHeader;
 import nor.http.HttpRequest;
 import nor.http.HttpResponse;
+import nor.http.Range;
 import nor.http.Status;
 import nor.http.error.HttpException;
+import nor.http.error.InternalServerErrorException;
 import nor.http.error.NotFoundException;
 import nor.util.log.Logger;
 
@@ -188,16 +193,68 @@ public class ReadonlyFileResource extends Resource{
 
 			try{
 
-				ret = request.createResponse(Status.OK, new FileInputStream(this.file), this.file.length());
+				final long length = this.file.length();
+				final String lastModified = DATE_FORMAT.format(new Date(this.file.lastModified()));
+
+				// If-Range が成立する場合のみ範囲要求に応じる
+				List<Range> ranges = request.getRanges();
+				if(ranges != null && Range.matchesIfRange(request.getHeader().get(HeaderName.IfRange), null, lastModified)){
+
+					ranges = Range.coalesce(ranges, length);
+
+				}else{
+
+					ranges = null;
+
+				}
+
+				if(ranges != null && ranges.isEmpty()){
+
+					ret = request.createResponse(Status.RequestedRangeNotSatisfiable);
+					ret.getHeader().add(HeaderName.ContentRange, new ContentRange(-1, -1, length).toString());
+
+				}else if(ranges != null && ranges.size() == 1){
+
+					// 単一の範囲はファイルの途中から読み出す (複数の範囲は multipart/byteranges を作らず全体を返す)
+					final Range range = ranges.get(0);
+					final FileInputStream in = new FileInputStream(this.file);
+					try{
+
+						in.getChannel().position(range.getFirst());
+
+					}catch(final IOException e){
+
+						in.close();
+						throw e;
+
+					}
+					ret = request.createResponse(Status.PartialContent, in, range.getLength());
+					ret.getHeader().add(HeaderName.ContentRange, range.toContentRange(length).toString());
+
+				}else{
+
+					ret = request.createResponse(Status.OK, new FileInputStream(this.file), length);
+
+				}
+
 				final HttpHeader header = ret.getHeader();
-				header.add(HeaderName.ContentType, this.type.toString());
-				header.add(HeaderName.LastModified, DATE_FORMAT.format(new Date(this.file.lastModified())));
+				if(ret.getStatus() != Status.RequestedRangeNotSatisfiable){
+
+					header.add(HeaderName.ContentType, this.type.toString());
+
+				}
+				header.add(HeaderName.AcceptRanges, Range.Unit);
+				header.add(HeaderName.LastModified, lastModified);
 				header.add(HeaderName.Date, DATE_FORMAT.format(Calendar.getInstance().getTime()));
 
 			}catch(final FileNotFoundException e){
 
 				throw new NotFoundException();
 
+			}catch(final IOException e){
+
+				throw new InternalServerErrorException(e);
+
 			}
 
 		}
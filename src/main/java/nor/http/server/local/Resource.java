@@ -19,6 +19,9 @@ package nor.http.server.local;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.logging.Level;
 
 import nor.http.HttpRequest;
 import nor.http.HttpResponse;
@@ -45,6 +48,11 @@ public abstract class Resource{
 	private final Method[] allowed;
 
 
+	/**
+	 * クラス毎のオーバーライドされたメソッド
+	 */
+	private static final ConcurrentMap<Class<?>, Method[]> Tables = new ConcurrentHashMap<Class<?>, Method[]>();
+
 	/**
 	 * ロガー
 	 */
@@ -68,45 +76,8 @@ public abstract class Resource{
 		// Set the name
 		this.name = name;
 
-		// オーバーライドされているメソッドを調べる
-		final Class<? extends Resource> c = this.getClass();
-		final List<Method> allowd = new ArrayList<Method>();
-		try {
-
-			final java.lang.reflect.Method toDelete = c.getMethod(DoDELETE, String.class, HttpRequest.class);
-			if(!toDelete.equals(Resource.class.getMethod(DoDELETE, String.class, HttpRequest.class))){
-
-				allowd.add(Method.DELETE);
-
-			}
-
-			final java.lang.reflect.Method toGet = c.getMethod(DoGET, String.class, HttpRequest.class);
-			if(!toGet.equals(Resource.class.getMethod(DoGET, String.class, HttpRequest.class))){
-
-				allowd.add(Method.GET);
-
-			}
-
-			final java.lang.reflect.Method toPost = c.getMethod(DoPOST, String.class, HttpRequest.class);
-			if(!toPost.equals(Resource.class.getMethod(DoPOST, String.class, HttpRequest.class))){
-
-				allowd.add(Method.POST);
-
-			}
-
-			final java.lang.reflect.Method toPut = c.getMethod(DoPUT, String.class, HttpRequest.class);
-			if(!toPut.equals(Resource.class.getMethod(DoPUT, String.class, HttpRequest.class))){
-
-				allowd.add(Method.PUT);
-
-			}
-
-		} catch (final NoSuchMethodException e) {
-
-		}
-
-		this.allowed = new Method[allowd.size()];
-		allowd.toArray(this.allowed);
+		// オーバーライドされているメソッドはクラス毎に一度だけ調べる
+		this.allowed = table(this.getClass());
 
 		LOGGER.exiting("<init>");
 	}
@@ -179,6 +150,77 @@ public abstract class Resource{
 
 	}
 
+	//====================================================================
+	//  package private メソッド
+	//====================================================================
+	/**
+	 * このリソースが応えるメソッドを取得する．
+	 *
+	 * @return オーバーライドされたメソッド
+	 */
+	Method[] getAllowedMethods(){
+
+		return this.allowed;
+
+	}
+
+	//====================================================================
+	//  private メソッド
+	//====================================================================
+	/**
+	 * クラスがオーバーライドしているメソッドの表を取得する．
+	 * 表はリフレクションを使ってクラス毎に一度だけ作られる．
+	 */
+	private static Method[] table(final Class<? extends Resource> c){
+
+		Method[] res = Tables.get(c);
+		if(res == null){
+
+			final List<Method> allowd = new ArrayList<Method>();
+			try {
+
+				final java.lang.reflect.Method toDelete = c.getMethod(DoDELETE, String.class, HttpRequest.class);
+				if(!toDelete.equals(Resource.class.getMethod(DoDELETE, String.class, HttpRequest.class))){
+
+					allowd.add(Method.DELETE);
+
+				}
+
+				final java.lang.reflect.Method toGet = c.getMethod(DoGET, String.class, HttpRequest.class);
+				if(!toGet.equals(Resource.class.getMethod(DoGET, String.class, HttpRequest.class))){
+
+					allowd.add(Method.GET);
+
+				}
+
+				final java.lang.reflect.Method toPost = c.getMethod(DoPOST, String.class, HttpRequest.class);
+				if(!toPost.equals(Resource.class.getMethod(DoPOST, String.class, HttpRequest.class))){
+
+					allowd.add(Method.POST);
+
+				}
+
+				final java.lang.reflect.Method toPut = c.getMethod(DoPUT, String.class, HttpRequest.class);
+				if(!toPut.equals(Resource.class.getMethod(DoPUT, String.class, HttpRequest.class))){
+
+					allowd.add(Method.PUT);
+
+				}
+
+			} catch (final NoSuchMethodException e) {
+
+				LOGGER.catched(Level.WARNING, "table", e);
+
+			}
+
+			res = allowd.toArray(new Method[allowd.size()]);
+			Tables.putIfAbsent(c, res);
+
+		}
+		return res;
+
+	}
+
 }
 
 
@@ -0,0 +1,325 @@
+/*
+ *  Copyright (C) 2011 Junpei Kawamoto
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package nor.http.server.local;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.TimeZone;
+import java.util.logging.Level;
+import java.util.zip.GZIPOutputStream;
+
+import nor.http.ContentType;
+import nor.http.HeaderName;
+import nor.http.Http;
+import nor.http.HttpHeader;
+import nor.http.HttpRequest;
+import nor.http.HttpResponse;
+import nor.http.Status;
+import nor.util.io.ByteBufferInputStream;
+import nor.util.log.Logger;
+
+/**
+ * 符号化済みの静的コンテンツ．
+ * 文字列が更新されたときに一度だけバイト列，gzip 圧縮版，ETag，Last-Modified を計算し，
+ * 以後のリクエストには読み出し専用バッファを共有して応答します．
+ *
+ * @author Junpei Kawamoto
+ * @since 0.3
+ */
+final class StaticContent{
+
+	/**
+	 * gzip 圧縮版を用意する最小のサイズ
+	 */
+	private static final int MinimumCompressionSize = 256;
+
+	private static final String DateFormat = "EEE, dd MMM yyyy HH:mm:ss 'GMT'";
+
+	private final ByteBuffer identity;
+	private final ByteBuffer gzip;
+
+	private final String etag;
+	private final String gzipETag;
+
+	private final long modified;
+	private final String lastModified;
+
+	private final String type;
+
+	// ロガー
+	private static final Logger LOGGER = Logger.getLogger(StaticContent.class);
+
+	//====================================================================
+	//  コンストラクタ
+	//====================================================================
+	/**
+	 * 文字列から静的コンテンツを作成する．
+	 * 文字列は，コンテンツタイプに charset が指定されていればその文字コードで，なければ既定の文字コードで符号化されます．
+	 *
+	 * @param text コンテンツの文字列
+	 * @param type コンテンツタイプ
+	 * @param modified 更新日時
+	 */
+	StaticContent(final String text, final ContentType type, final Date modified){
+		LOGGER.entering("<init>", text, type, modified);
+		assert text != null;
+		assert type != null;
+		assert modified != null;
+
+		final byte[] body = encode(text, type.getCharset());
+		this.identity = ByteBuffer.wrap(body).asReadOnlyBuffer();
+
+		final byte[] compressed = body.length >= MinimumCompressionSize ? compress(body) : null;
+		this.gzip = compressed != null && compressed.length < body.length ? ByteBuffer.wrap(compressed).asReadOnlyBuffer() : null;
+
+		final String digest = digest(body);
+		this.etag = "\"" + digest + "\"";
+		this.gzipETag = "\"" + digest + "-gz\"";
+
+		// HTTP の日付は秒単位なので，比較のために切り捨てておく
+		this.modified = modified.getTime() / 1000 * 1000;
+		this.lastModified = createFormat().format(new Date(this.modified));
+
+		this.type = type.toString();
+
+		LOGGER.exiting("<init>");
+	}
+
+	//====================================================================
+	//  package private メソッド
+	//====================================================================
+	/**
+	 * リクエストに応答する．
+	 * 条件付きリクエストで内容が変わっていなければ 304 を，そうでなければ受け入れ可能な表現を返します．
+	 *
+	 * @param request リクエスト
+	 * @return レスポンス
+	 */
+	HttpResponse respond(final HttpRequest request){
+		LOGGER.entering("respond", request);
+		assert request != null;
+
+		final HttpHeader req = request.getHeader();
+		final boolean gzipped = this.gzip != null && acceptsGzip(req.get(HeaderName.AcceptEncoding));
+		final String tag = gzipped ? this.gzipETag : this.etag;
+
+		final HttpResponse ret;
+		if(this.isNotModified(req, tag)){
+
+			ret = request.createResponse(Status.NotModified);
+
+		}else if(gzipped){
+
+			ret = request.createResponse(Status.OK, new ByteBufferInputStream(this.gzip), this.gzip.remaining());
+			ret.setEncodedBody(ret.getBody());
+			ret.getHeader().set(HeaderName.ContentEncoding, Http.GZIP);
+
+		}else{
+
+			ret = request.createResponse(Status.OK, new ByteBufferInputStream(this.identity), this.identity.remaining());
+
+		}
+
+		final HttpHeader header = ret.getHeader();
+		header.set(HeaderName.ContentType, this.type);
+		header.set(HeaderName.ETag, tag);
+		header.set(HeaderName.LastModified, this.lastModified);
+		if(this.gzip != null){
+
+			header.set(HeaderName.Vary, HeaderName.AcceptEncoding.toString());
+
+		}
+
+		LOGGER.exiting("respond", ret);
+		return ret;
+
+	}
+
+	//====================================================================
+	//  private メソッド
+	//====================================================================
+	/**
+	 * 条件付きリクエストに対して内容が変わっていないか調べる．
+	 * If-None-Match があればそれのみを，なければ If-Modified-Since を評価します．
+	 */
+	private boolean isNotModified(final HttpHeader header, final String tag){
+
+		if(header.containsKey(HeaderName.IfNoneMatch)){
+
+			for(final String candidate : header.get(HeaderName.IfNoneMatch).split(",")){
+
+				String t = candidate.trim();
+				if(t.startsWith("W/")){
+
+					t = t.substring(2);
+
+				}
+				if("*".equals(t) || tag.equals(t)){
+
+					return true;
+
+				}
+
+			}
+			return false;
+
+		}
+
+		if(header.containsKey(HeaderName.IfModifiedSince)){
+
+			try{
+
+				final Date since = createFormat().parse(header.get(HeaderName.IfModifiedSince).trim());
+				return this.modified <= since.getTime();
+
+			}catch(final ParseException e){
+
+				LOGGER.fine("isNotModified", "Ignore an invalid date: {0}", header.get(HeaderName.IfModifiedSince));
+
+			}
+
+		}
+		return false;
+
+	}
+
+	/**
+	 * Accept-Encoding が gzip を受け入れるか調べる．
+	 */
+	private static boolean acceptsGzip(final String accept){
+
+		if(accept == null){
+
+			return false;
+
+		}
+
+		for(final String item : accept.split(",")){
+
+			final String[] params = item.split(";");
+			final String coding = params[0].trim();
+			if(Http.GZIP.equalsIgnoreCase(coding) || "*".equals(coding)){
+
+				for(int i = 1; i < params.length; ++i){
+
+					final String p = params[i].trim();
+					if(p.startsWith("q=")){
+
+						try{
+
+							return Float.parseFloat(p.substring(2).trim()) > 0;
+
+						}catch(final NumberFormatException e){
+
+							return false;
+
+						}
+
+					}
+
+				}
+				return true;
+
+			}
+
+		}
+		return false;
+
+	}
+
+	private static SimpleDateFormat createFormat(){
+
+		final SimpleDateFormat ret = new SimpleDateFormat(DateFormat, Locale.US);
+		ret.setTimeZone(TimeZone.getTimeZone("GMT"));
+
+		return ret;
+
+	}
+
+	private static byte[] encode(final String text, final String charset){
+
+		if(charset != null){
+
+			try{
+
+				return text.getBytes(charset);
+
+			}catch(final UnsupportedEncodingException e){
+
+				LOGGER.warning("encode", "Unsupported charset: {0}", charset);
+
+			}
+
+		}
+		return text.getBytes();
+
+	}
+
+	private static byte[] compress(final byte[] body){
+
+		try{
+
+			final ByteArrayOutputStream out = new ByteArrayOutputStream(body.length);
+			final GZIPOutputStream gz = new GZIPOutputStream(out);
+			gz.write(body);
+			gz.close();
+
+			return out.toByteArray();
+
+		}catch(final IOException e){
+
+			LOGGER.catched(Level.WARNING, "compress", e);
+			return null;
+
+		}
+
+	}
+
+	private static String digest(final byte[] body){
+
+		try{
+
+			final byte[] hash = MessageDigest.getInstance("MD5").digest(body);
+			final StringBuilder ret = new StringBuilder(hash.length * 2);
+			for(final byte b : hash){
+
+				ret.append(Character.forDigit((b >> 4) & 0xf, 16));
+				ret.append(Character.forDigit(b & 0xf, 16));
+
+			}
+			return ret.toString();
+
+		}catch(final NoSuchAlgorithmException e){
+
+			LOGGER.catched(Level.WARNING, "digest", e);
+			return Integer.toHexString(body.length) + "-" + Integer.toHexString(Arrays.hashCode(body));
+
+		}
+
+	}
+
+}
@@ -21,13 +21,17 @@ import java.util.Calendar;
 import java.util.Date;
 
 import nor.http.ContentType;
-import nor.http.HeaderName;
-import nor.http.HttpHeader;
 import nor.http.HttpRequest;
 import nor.http.HttpResponse;
-import nor.http.Status;
 import nor.util.log.Logger;
 
+/**
+ * 文字列を返すリソース．
+ * 文字列が設定されるたびに符号化済みのコンテンツを作成し，ETag と Last-Modified による再検証，gzip 圧縮版の送信に対応します．
+ *
+ * @author Junpei Kawamoto
+ * @since 0.1
+ */
 public class TextResource extends Resource{
 
 	// ロガー
@@ -35,11 +39,12 @@ public class TextResource extends Resource{
 
 	private static final ContentType DefaultContentType = new ContentType("text/plain");
 
-	private String text;
-
 	private final ContentType type;
 
-	private Date modified;
+	/**
+	 * 現在の文字列から作成された符号化済みコンテンツ
+	 */
+	private volatile Snapshot snapshot;
 
 	//====================================================================
 	//  コンストラクタ
@@ -57,10 +62,8 @@ public class TextResource extends Resource{
 		assert text != null;
 		assert type != null;
 
-		this.text = text;
 		this.type = type;
-
-		this.modified = Calendar.getInstance().getTime();
+		this.snapshot = new Snapshot(text, type);
 
 		LOGGER.exiting("<init>");
 	}
@@ -102,7 +105,7 @@ public class TextResource extends Resource{
 	public String getText(){
 		LOGGER.entering("getText");
 
-		final String ret = this.text;
+		final String ret = this.snapshot.text;
 
 		LOGGER.exiting("getText", ret);
 		return ret;
@@ -118,8 +121,7 @@ public class TextResource extends Resource{
 		LOGGER.entering("setText", text);
 		assert text != null;
 
-		this.text = text;
-		this.modified = Calendar.getInstance().getTime();
+		this.snapshot = new Snapshot(text, this.type);
 
 		LOGGER.exiting("setText");
 	}
@@ -131,9 +133,7 @@ public class TextResource extends Resource{
 		assert path != null;
 		assert request != null;
 
-		final HttpResponse ret = request.createResponse(Status.OK, this.text);
-		final HttpHeader header = ret.getHeader();
-		header.add(HeaderName.ContentType, this.type.toString());
+		final HttpResponse ret = this.snapshot.content.respond(request);
 
 		LOGGER.exiting("doGet", ret);
 		return ret;
@@ -143,7 +143,31 @@ public class TextResource extends Resource{
 	@Override
 	public String toString(){
 
-		return this.text + "(" + this.modified + ")";
+		final Snapshot s = this.snapshot;
+		return s.text + "(" + s.modified + ")";
+
+	}
+
+	//====================================================================
+	//  内部クラス
+	//====================================================================
+	/**
+	 * 文字列とその符号化済みコンテンツの組．
+	 * 両者を一度に差し替えるために使用します．
+	 */
+	private static final class Snapshot{
+
+		private final String text;
+		private final Date modified;
+		private final StaticContent content;
+
+		public Snapshot(final String text, final ContentType type){
+
+			this.text = text;
+			this.modified = Calendar.getInstance().getTime();
+			this.content = new StaticContent(text, type, this.modified);
+
+		}
 
 	}
 
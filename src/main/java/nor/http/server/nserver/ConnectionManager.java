@@ -18,14 +18,17 @@
 package nor.http.server.nserver;
 
 import java.io.Closeable;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 
 import nor.http.server.HttpRequestHandler;
 import nor.network.Connection;
 import nor.util.log.Logger;
+import nor.util.metrics.Gauge;
+import nor.util.metrics.Metrics;
 
 /**
  *
@@ -35,7 +38,17 @@ import nor.util.log.Logger;
 class ConnectionManager implements Closeable{
 
 	private final HttpRequestHandler handler;
-	private final ExecutorService pool;
+	private final ThreadPoolExecutor pool;
+
+	/**
+	 * パイプライン化されたリクエストの処理に使うスレッドプール
+	 */
+	private final ThreadPoolExecutor dispatcher;
+
+	private static final String QueueDepth = "nor_pool_queue_depth";
+	private static final String ActiveThreads = "nor_pool_active_threads";
+	private static final String Worker = "worker";
+	private static final String Dispatcher = "dispatcher";
 
 	private static final Logger LOGGER = Logger.getLogger(ConnectionManager.class);
 
@@ -46,17 +59,22 @@ class ConnectionManager implements Closeable{
 		LOGGER.entering("<init>", handler, maxThreads);
 		assert handler != null;
 
+		// Executors のファクトリと同じ構成だが，計測値を得るため ThreadPoolExecutor として保持する
 		if(maxThreads == 0){
 
-			this.pool = Executors.newCachedThreadPool();
+			this.pool = newCachedThreadPool();
 
 		}else{
 
-			this.pool = Executors.newFixedThreadPool(maxThreads);
+			this.pool = new ThreadPoolExecutor(maxThreads, maxThreads, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>());
 
 		}
+		this.dispatcher = newCachedThreadPool();
 		this.handler = handler;
 
+		register(Worker, this.pool);
+		register(Dispatcher, this.dispatcher);
+
 		LOGGER.exiting("<init>");
 	}
 
@@ -74,7 +92,7 @@ class ConnectionManager implements Closeable{
 
 		}else{
 
-			final RequestHandleWorker worker = new RequestHandleWorker(e, this.handler);
+			final RequestHandleWorker worker = new RequestHandleWorker(e, this.handler, this.dispatcher);
 			this.pool.execute(worker);
 
 			LOGGER.finer("offer", "Offer a new connection and send notify message.");
@@ -93,10 +111,14 @@ class ConnectionManager implements Closeable{
 	public void close(){
 		LOGGER.entering("close");
 
+		unregister(Worker);
+		unregister(Dispatcher);
+
 		this.pool.shutdownNow();
+		this.dispatcher.shutdownNow();
 		try {
 
-			if (!this.pool.awaitTermination(120, TimeUnit.SECONDS)){
+			if (!this.pool.awaitTermination(120, TimeUnit.SECONDS) || !this.dispatcher.awaitTermination(120, TimeUnit.SECONDS)){
 
 				LOGGER.warning("close", "Thread pool did not terminate.");
 
@@ -106,6 +128,7 @@ class ConnectionManager implements Closeable{
 
 			LOGGER.catched(Level.WARNING, "close", e);
 			this.pool.shutdownNow();
+			this.dispatcher.shutdownNow();
 			Thread.currentThread().interrupt();
 
 		}
@@ -113,4 +136,48 @@ class ConnectionManager implements Closeable{
 		LOGGER.exiting("close");
 	}
 
-}
\ No newline at end of file
+	//============================================================================
+	// Private methods
+	//============================================================================
+	private static ThreadPoolExecutor newCachedThreadPool(){
+
+		return new ThreadPoolExecutor(0, Integer.MAX_VALUE, 60L, TimeUnit.SECONDS, new SynchronousQueue<Runnable>());
+
+	}
+
+	/**
+	 * スレッドプールの待ち行列の長さと実行中のスレッド数を計測値として登録する．
+	 */
+	private static void register(final String name, final ThreadPoolExecutor pool){
+
+		Metrics.gauge(QueueDepth, "Number of tasks waiting in each thread pool.", new Gauge(){
+
+			@Override
+			public long get(){
+
+				return pool.getQueue().size();
+
+			}
+
+		}, "pool", name);
+		Metrics.gauge(ActiveThreads, "Number of threads running tasks in each thread pool.", new Gauge(){
+
+			@Override
+			public long get(){
+
+				return pool.getActiveCount();
+
+			}
+
+		}, "pool", name);
+
+	}
+
+	private static void unregister(final String name){
+
+		Metrics.remove(QueueDepth, "pool", name);
+		Metrics.remove(ActiveThreads, "pool", name);
+
+	}
+
+}
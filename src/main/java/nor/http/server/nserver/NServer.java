@@ -31,6 +31,8 @@ final class NServer {
 
 	public static final int BufferSize;
 	public static final int MaxThreads;
+	public static final int PipelineDepth;
+	public static final boolean InterceptConnect;
 
 	private NServer(){}
 
@@ -57,8 +59,16 @@ final class NServer {
 		final String mthreads = String.format("%s.MaxThreads", classname);
 		MaxThreads = Integer.valueOf(System.getProperty(mthreads, defaults.getProperty(mthreads)));
 
+		final String pdepth = String.format("%s.PipelineDepth", classname);
+		PipelineDepth = Integer.valueOf(System.getProperty(pdepth, defaults.getProperty(pdepth)));
+
+		final String intercept = String.format("%s.InterceptConnect", classname);
+		InterceptConnect = Boolean.valueOf(System.getProperty(intercept, defaults.getProperty(intercept)));
+
 		LOGGER.config("<class init>", "Load a constant: BufferSize = {0}", BufferSize);
 		LOGGER.config("<class init>", "Load a constant: MaxThreads = {0}", MaxThreads);
+		LOGGER.config("<class init>", "Load a constant: PipelineDepth = {0}", PipelineDepth);
+		LOGGER.config("<class init>", "Load a constant: InterceptConnect = {0}", InterceptConnect);
 
 	}
 
@@ -17,25 +17,22 @@
  */
 package nor.http.server.nserver;
 
-import static nor.http.HeaderName.Connection;
-
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.nio.channels.SelectableChannel;
+import java.util.concurrent.ExecutorService;
 import java.util.logging.Level;
 
-import nor.http.HeaderName;
-import nor.http.HttpHeader;
-import nor.http.HttpMessage;
 import nor.http.HttpRequest;
-import nor.http.HttpResponse;
 import nor.http.Method;
-import nor.http.Status;
-import nor.http.error.HttpException;
 import nor.http.server.HttpRequestHandler;
+import nor.http.server.Pipeline;
+import nor.http.server.ssl.ConnectHandler;
+import nor.http.server.ssl.DecryptHandler;
+import nor.http.server.ssl.TunnellingHandler;
 import nor.network.Connection;
+import nor.network.Connection.ReadPhase;
 import nor.util.io.NoCloseInputStream;
 import nor.util.io.NoCloseOutputStream;
 import nor.util.io.NoExceptionOutputStreamFilter;
@@ -50,19 +47,27 @@ class RequestHandleWorker implements Runnable{
 
 	private final Connection con;
 	private final HttpRequestHandler handler;
+	private final ExecutorService dispatcher;
+
+	/**
+	 * CONNECT リクエストを横取りする場合のハンドラ
+	 */
+	private static final ConnectHandler Decrypter = new DecryptHandler();
 
 	private static final Logger LOGGER = Logger.getLogger(RequestHandleWorker.class);
 
 	//============================================================================
 	// Constractor
 	//============================================================================
-	public RequestHandleWorker(final Connection con, final HttpRequestHandler handler){
-		LOGGER.entering("<init>", con, handler);
+	public RequestHandleWorker(final Connection con, final HttpRequestHandler handler, final ExecutorService dispatcher){
+		LOGGER.entering("<init>", con, handler, dispatcher);
 		assert con != null;
 		assert handler != null;
+		assert dispatcher != null;
 
 		this.con = con;
 		this.handler = handler;
+		this.dispatcher = dispatcher;
 
 		LOGGER.exiting("<init>");
 	}
@@ -79,18 +84,23 @@ class RequestHandleWorker implements Runnable{
 
 
 		LOGGER.finer("run", "Begin to handle the connection; {0}", con);
+
+		// ストリームの取得（先読みしたデータを失わないように，バッファは接続の間保持し，ボディを閉じても閉じられないようにする）
+		final InputStream input = new NoCloseInputStream(new BufferedInputStream(con.getInputStream()));
+		final NoExceptionOutputStreamFilter output = new NoExceptionOutputStreamFilter(new BufferedOutputStream(new NoCloseOutputStream(con.getOutputStream())));
+		final Pipeline pipeline = new Pipeline(this.handler, output, con.getInputStream(), this.dispatcher, NServer.PipelineDepth);
 		try{
 
+			// TLS を終端している場合の，要求パスの接頭辞
+			String prefix = null;
+
 			// 切断要求が来るまで持続接続する
 			boolean keepAlive = true;
 			while(keepAlive && !Thread.currentThread().isInterrupted()){
 
-				// ストリームの取得
-				final InputStream input = new BufferedInputStream(new NoCloseInputStream(con.getInputStream()));
-				final NoExceptionOutputStreamFilter output = new NoExceptionOutputStreamFilter(new BufferedOutputStream(new NoCloseOutputStream(con.getOutputStream())));
-
 				// リクエストオブジェクト
 				final HttpRequest request = HttpRequest.create(input);
+				con.setReadPhase(ReadPhase.Body);
 				if(request == null){
 
 					LOGGER.fine("run", "Receive a null request");
@@ -101,66 +111,76 @@ class RequestHandleWorker implements Runnable{
 				}
 
 
-				if(request.getMethod() == Method.CONNECT){
+				if(prefix != null && request.getPath().startsWith("/")){
 
-					LOGGER.fine("run", "Receive a connect request: {0}", request);
+					request.setPath(prefix + request.getPath());
 
-					try{
-						final SelectableChannel ch = this.handler.doConnectRequest(request);
+				}
 
-						/*
-						 * Notify the client of a connection established.
-						 */
-						final HttpResponse response = request.createResponse(Status.ConnectionEstablished);
-						response.writeTo(output);
-						output.flush();
+				if(request.getMethod() == Method.CONNECT){
 
-						con.requestDelegation(ch);
+					LOGGER.fine("run", "Receive a connect request: {0}", request);
 
-						LOGGER.info("run", "{0} > {1} (unknown length)", request.getHeadLine(), response.getHeadLine());
+					// 先行するレスポンスを全て書き出してからトンネルを作る
+					if(!pipeline.finish()){
 
 						break;
 
-					}catch(final HttpException e){
+					}
 
-						final HttpResponse response = e.createResponse(request);
-						response.writeTo(output);
-						output.flush();
+					// クライアントが応答を待たずに送ってきたデータがなければ，TLS を終端して中のリクエストを処理する
+					if(NServer.InterceptConnect && prefix == null && input.available() == 0){
 
-						keepAlive = false;
+						output.flush();
+						prefix = Decrypter.doConnect(request, con).getPrefix();
+						con.setReadPhase(ReadPhase.Header);
 
-						LOGGER.catched(Level.WARNING, "run", e);
+						LOGGER.info("run", "{0} > (intercepted)", request.getHeadLine());
+						continue;
 
 					}
 
+					// 応答を待たずに送られてきたデータは，先読みした分も含めてトンネルで転送する
+					final int early = input.available();
+					if(early != 0){
 
-				}else{
+						final byte[] buf = new byte[early];
+						int len = 0;
+						for(int n; len != early && (n = input.read(buf, len, early - len)) != -1;){
 
-					LOGGER.fine("run", "Receive a {0}", request);
+							len += n;
 
-					// リクエストの実行
-					final HttpResponse response = handler.doRequest(request);
+						}
+						con.unread(buf, 0, len);
 
-					final HttpHeader header = response.getHeader();
+					}
 
-					// レスポンスの書き出し
-					LOGGER.fine("run", "Return the {0}", response);
-					response.writeTo(output);
-					response.close();
 					output.flush();
+					final ConnectHandler.Result result = new TunnellingHandler(this.handler).doConnect(request, con);
+					if(result.getRelay() != null){
 
-					if(header.containsKey(HeaderName.ContentLength)){
-
-						LOGGER.info("run", "{0} > {1} ({2} bytes)", request.getHeadLine(), response.getHeadLine(), header.get(HeaderName.ContentLength));
+						LOGGER.info("run", "{0} > (tunnel)", request.getHeadLine());
 
 					}else{
 
-						LOGGER.info("run", "{0} > {1} (unknown length)", request.getHeadLine(), response.getHeadLine());
+						LOGGER.info("run", "{0} > (refused)", request.getHeadLine());
 
 					}
 
-					keepAlive = output.alive() && this.isKeepingAlive(request) && this.isKeepingAlive(response);
+					// 接続を閉じると中継が始まる
+					keepAlive = false;
+					break;
+
+
+				}else{
+
+					LOGGER.fine("run", "Receive a {0}", request);
+
+					// 後続のリクエストが既に届いていればパイプラインで処理する
+					keepAlive = pipeline.offer(request, input.available() != 0);
 
+					// 次のリクエストの先頭が届くまでは持続接続の待ち時間，届いてからはヘッダ全体の期限で読む
+					con.setReadPhase(input.available() != 0 ? ReadPhase.Header : ReadPhase.KeepAlive);
 
 				}
 
@@ -170,12 +190,19 @@ class RequestHandleWorker implements Runnable{
 
 			LOGGER.catched(Level.WARNING, "run", e);
 
+		}catch(final InterruptedException e){
+
+			LOGGER.catched(Level.FINE, "run", e);
+			Thread.currentThread().interrupt();
+
 		}catch(final VirtualMachineError e){
 
 			LOGGER.catched(Level.SEVERE, "run", e);
 
 		}finally{
 
+			pipeline.finish();
+
 			LOGGER.finer("run", "Finish to handle and closes the connection; {0}", con);
 			try {
 
@@ -192,13 +219,4 @@ class RequestHandleWorker implements Runnable{
 		LOGGER.exiting("run");
 	}
 
-	//============================================================================
-	// Private methods
-	//============================================================================
-	private boolean isKeepingAlive(final HttpMessage msg){
-
-		return !msg.getHeader().containsValue(Connection, "close");
-
-	}
-
 }
@@ -24,59 +24,44 @@ import static nor.http.HeaderName.ProxyConnection;
 import static nor.http.HeaderName.Via;
 
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
 import java.net.ConnectException;
-import java.net.HttpURLConnection;
-import java.net.InetSocketAddress;
 import java.net.Proxy;
-import java.net.Socket;
 import java.net.SocketTimeoutException;
-import java.net.URL;
 import java.net.UnknownHostException;
 import java.nio.channels.SocketChannel;
-import java.util.List;
-import java.util.Map;
 import java.util.Properties;
 import java.util.logging.Level;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
-import java.util.zip.DeflaterInputStream;
-import java.util.zip.GZIPInputStream;
 
-import nor.http.HeaderName;
-import nor.http.Http;
 import nor.http.HttpHeader;
 import nor.http.HttpRequest;
 import nor.http.HttpResponse;
 import nor.http.Method;
+import nor.http.RequestStats;
 import nor.http.Status;
 import nor.http.error.HttpException;
 import nor.http.error.InternalServerErrorException;
 import nor.http.server.HttpRequestHandler;
 import nor.http.server.nserver.HttpNServer;
-import nor.util.io.LimitedInputStream;
-import nor.util.io.NoCloseInputStream;
-import nor.util.io.NoCloseOutputStream;
 import nor.util.log.Logger;
+import nor.util.metrics.Histogram;
+import nor.util.metrics.Metrics;
 
 
 /**
  * プロキシサーバとして働くHttpRequestHandler．
  * このクラスは，Httpサーバにおけるリクエストハンドラであり，HttpRequestHandleableを
- * 実装している．要求が来ると，URLConnectionを用いてWeb上から該当のリソースを取得し
+ * 実装している．要求が来ると，上流サーバから該当のリソースを取得し
  * レスポンスとして送信する．即ちプロキシとして動作する．
+ * 上流サーバとの通信は選択スレッドで駆動される {@link UpstreamClient} が行い，持続接続は再利用される．
  * <br />
  * また，CookieやQuery，メッセージボディに対するフィルタリング機構を提供し，
  * プロキシサーバを通過するこれらのデータをトラップし処理することが可能である．
  * フィルタリングにはObserverパターンを利用している．
  * <br />
  *
- * 外部への接続にプロキシを通さなければならない場合，環境変数に設定する．
- * <dl>
- * 	<dt>例</dt>
- * 	<dd>-Dhttp.proxyHost=proxy.kuins.net -Dhttp.proxyPort=8080</dd>
- * </dl>
+ * 外部への接続にプロキシを通さなければならない場合，{@link Router} に設定する．
  *
  * @author KAWAMOTO Junpei
  *
@@ -86,6 +71,7 @@ public class ProxyRequestHandler implements HttpRequestHandler{
 	private final String name;
 
 	private final Router router;
+	private final UpstreamClient client;
 
 	private static final int Timeout;
 
@@ -94,6 +80,11 @@ public class ProxyRequestHandler implements HttpRequestHandler{
 
 	private static final Logger LOGGER = Logger.getLogger(ProxyRequestHandler.class);
 
+	/**
+	 * 上流サーバとの通信に費やした時間
+	 */
+	private static final Histogram UpstreamTime = RequestStats.stage("upstream");
+
 
 	//============================================================================
 	//  public メソッド
@@ -105,8 +96,7 @@ public class ProxyRequestHandler implements HttpRequestHandler{
 
 		this.name = name;
 		this.router = router;
-
-		HttpURLConnection.setFollowRedirects(false);
+		this.client = new UpstreamClient(Timeout);
 
 		LOGGER.exiting("<init>");
 	}
@@ -137,32 +127,41 @@ public class ProxyRequestHandler implements HttpRequestHandler{
 			// ヘッダの整理
 			this.editHeader(request);
 
-			// URLコネクションの作成
-			final URL url = new URL(request.getPath());
+			// 経由するプロキシの決定
+			final RequestStats stats = request.getStats();
 			final Proxy proxy = this.router.query(request.getPath());
 			if(proxy != Proxy.NO_PROXY){
 
 				LOGGER.config("doRequest", "Use the proxy; {0}", proxy);
+				stats.setRoute(proxy.address().toString());
+
+			}else{
+
+				stats.setRoute(RequestStats.Direct);
 
 			}
 
 			LOGGER.fine("doRequest", "Send a response {0}", request);
 
 			// リクエストの送信とレスポンスの作成
-			final HttpURLConnection con = (HttpURLConnection)url.openConnection(proxy);
-			con.setConnectTimeout(Timeout);
-			this.sendRequest(con, request);
-			response = this.receiveResponse(con, request);
+			final long start = System.nanoTime();
+			try{
 
-			LOGGER.fine("doRequest", "Receive a response {0}", response);
+				response = this.sendRequest(request, proxy);
 
-		} catch (final IOException e) {
+			}finally{
 
-			LOGGER.warning("doRequest", "Catch a IOException({0})", e.getMessage());
-			LOGGER.catched(Level.FINE, "doRequest", e);
+				final long elapsed = System.nanoTime() - start;
+				stats.addUpstreamTime(elapsed);
+				if(Metrics.Enabled){
 
-			response = HttpException.createResponse(request, Status.InternalServerError, e);
-			LOGGER.fine("doRequest", "Receive an error response {0}", response);
+					UpstreamTime.record(elapsed);
+
+				}
+
+			}
+
+			LOGGER.fine("doRequest", "Receive a response {0}", response);
 
 		} catch (final HttpException e) {
 
@@ -198,40 +197,7 @@ public class ProxyRequestHandler implements HttpRequestHandler{
 				final int port = Integer.valueOf(m.group(2));
 
 				final Proxy p = this.router.query(request.getPath());
-				if(p == Proxy.NO_PROXY){
-
-					final InetSocketAddress addr = new InetSocketAddress(host, port);
-					final SocketChannel ch = SocketChannel.open(addr);
-
-					return ch;
-
-				}else{
-
-					final SocketChannel ch = SocketChannel.open();
-					final Socket s = ch.socket();
-					s.connect(p.address());
-
-					// Send a CONNECT request
-					final InputStream input = new NoCloseInputStream(s.getInputStream());
-					final OutputStream output = new NoCloseOutputStream(s.getOutputStream());
-					request.setBody(new LimitedInputStream(request.getBody(), 0));
-					request.writeTo(output);
-					output.flush();
-					output.close();
-					request.close();
-
-					final HttpResponse response = request.createResponse(input);
-					if(response.getStatus() == Status.OK || response.getStatus() == Status.ConnectionEstablished){
-
-						return ch;
-
-					}else{
-
-						throw new HttpException(response.getStatus());
-
-					}
-
-				}
+				return this.client.tunnel(request, host, port, p);
 
 
 			}catch(final IOException e){
@@ -253,19 +219,18 @@ public class ProxyRequestHandler implements HttpRequestHandler{
 	//  private メソッド
 	//============================================================================
 	/**
-	 * HttpURLConnection を用いてリクエストを送信する．
+	 * 上流サーバへリクエストを送信し，レスポンスを受信する．
 	 *
-	 * @param con 送信先の HttpURLConnection インスタンス
 	 * @param request 送信するリクエスト
-	 * @throws HttpException リクエストの送信にエラーが起こった場合
+	 * @param proxy 経由するプロキシ
+	 * @return 受信したレスポンス
+	 * @throws HttpException リクエストの送信またはレスポンスの受信にエラーが起こった場合
 	 */
-	private void sendRequest(final HttpURLConnection con, final HttpRequest request) throws HttpException{
+	private HttpResponse sendRequest(final HttpRequest request, final Proxy proxy) throws HttpException{
 
 		try {
 
-			request.writeTo(con);
-			request.close();
-			con.connect();
+			return this.client.send(request, proxy);
 
 		}catch(final SocketTimeoutException e){
 
@@ -284,6 +249,7 @@ public class ProxyRequestHandler implements HttpRequestHandler{
 
 		}catch(final IOException e){
 
+			LOGGER.warning("sendRequest", "Catch a IOException({0})", e.getMessage());
 			LOGGER.catched(Level.FINE, "sendRequest", e);
 			throw new InternalServerErrorException(e);
 
@@ -291,83 +257,6 @@ public class ProxyRequestHandler implements HttpRequestHandler{
 
 	}
 
-	/**
-	 * HttpURLConnection を用いてレスポンスを受信する．
-	 *
-	 * @param con レスポンスを受信する HttpURLConnection インスタンス
-	 * @param request レスポンスの元となるリクエスト
-	 * @return 受信したレスポンス
-	 * @throws HttpException データの受信中にエラーが起こった場合
-	 */
-	private HttpResponse receiveResponse(final HttpURLConnection con, final HttpRequest request) throws HttpException{
-
-		// レスポンスの作成
-		HttpResponse ret = null;
-		try {
-
-			LOGGER.fine("receiveResponse", "{0}: {1} : {2}", con, con.getResponseMessage(), con.getHeaderFields());
-
-			final int code = con.getResponseCode();
-			InputStream resStream = null;
-			if(code == -1){
-
-				throw new InternalServerErrorException("Recieve an invalid message.");
-
-			}else if(code < 400){
-
-				resStream = con.getInputStream();
-
-			}else{
-
-				resStream = con.getErrorStream();
-
-			}
-
-			// 内容エンコーディングの解決
-			final String encode = con.getHeaderField(HeaderName.ContentEncoding.toString());
-			if(encode != null){
-
-				if(Http.GZIP.equalsIgnoreCase(encode)){
-
-					resStream = new GZIPInputStream(resStream);
-
-				}else if(Http.DEFLATE.equalsIgnoreCase(encode)){
-
-					resStream = new DeflaterInputStream(resStream);
-
-				}
-
-			}
-
-			ret = request.createResponse(Status.valueOf(code), resStream);
-
-			// ヘッダの登録
-			final HttpHeader resHeader = ret.getHeader();
-			final Map<String, List<String>> fields = con.getHeaderFields();
-			for(final String key : fields.keySet()){
-
-				if(key != null){
-
-					for(final String value : fields.get(key)){
-
-						resHeader.add(key, value);
-
-					}
-
-				}
-
-			}
-
-		}catch(final IOException e){
-
-			throw new InternalServerErrorException(e);
-
-		}
-
-		return ret;
-
-	}
-
 	private void editHeader(final HttpRequest request){
 		LOGGER.entering("cleanHeader", request);
 		assert request != null;
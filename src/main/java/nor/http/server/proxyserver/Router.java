@@ -24,6 +24,7 @@ import java.util.Collection;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -33,6 +34,7 @@ import nor.util.log.Logger;
 /**
  * 外部プロキシ用のルーティングテーブル．
  * 正規表現を用いたURLパターン毎に外部プロキシを設定することができます．
+ * テーブルを変更するたびにバージョンが更新されるため，テーブルから生成した内容のキャッシュに利用できます．
  *
  * @author Junpei Kawamoto
  *
@@ -41,6 +43,11 @@ public class Router implements Map<Pattern, Proxy>, Querable<Proxy>{
 
 	private final Map<Pattern, Proxy> routs = new HashMap<Pattern, Proxy>();
 
+	/**
+	 * テーブルのバージョン
+	 */
+	private final AtomicInteger version = new AtomicInteger();
+
 	private static final Pattern AddressPat = Pattern.compile("([^:]+):(\\d+)");
 	private static final Logger LOGGER = Logger.getLogger(Router.class);
 
@@ -64,6 +71,19 @@ public class Router implements Map<Pattern, Proxy>, Querable<Proxy>{
 		return res;
 	}
 
+	/**
+	 * テーブルのバージョンを取得する．
+	 * put, putAll, remove, clear のいずれかが呼ばれるたびに値が変わります．
+	 * ビューを介した変更は反映されません．
+	 *
+	 * @return テーブルのバージョン
+	 */
+	public int getVersion(){
+
+		return this.version.get();
+
+	}
+
 	public void put(final Pattern pat, final InetSocketAddress addr){
 		LOGGER.entering("put", pat, addr);
 		assert pat != null;
@@ -109,7 +129,8 @@ public class Router implements Map<Pattern, Proxy>, Querable<Proxy>{
 	public void put(final Pattern pat, final String host, final int port){
 		LOGGER.entering("pur", pat, host, port);
 
-		this.put(pat, new InetSocketAddress(host, port));
+		// 名前解決は接続時に Resolver で行う
+		this.put(pat, InetSocketAddress.createUnresolved(host, port));
 
 		LOGGER.exiting("put");
 	}
@@ -124,6 +145,7 @@ public class Router implements Map<Pattern, Proxy>, Querable<Proxy>{
 	public void clear() {
 
 		this.routs.clear();
+		this.version.incrementAndGet();
 
 	}
 
@@ -213,7 +235,10 @@ public class Router implements Map<Pattern, Proxy>, Querable<Proxy>{
 	@Override
 	public Proxy put(Pattern key, Proxy value) {
 
-		return routs.put(key, value);
+		final Proxy ret = routs.put(key, value);
+		this.version.incrementAndGet();
+
+		return ret;
 
 	}
 
@@ -224,6 +249,7 @@ public class Router implements Map<Pattern, Proxy>, Querable<Proxy>{
 	public void putAll(Map<? extends Pattern, ? extends Proxy> m) {
 
 		routs.putAll(m);
+		this.version.incrementAndGet();
 
 	}
 
@@ -233,7 +259,10 @@ public class Router implements Map<Pattern, Proxy>, Querable<Proxy>{
 	@Override
 	public Proxy remove(Object key) {
 
-		return routs.remove(key);
+		final Proxy ret = routs.remove(key);
+		this.version.incrementAndGet();
+
+		return ret;
 
 	}
 
@@ -0,0 +1,834 @@
+/*
+ *  Copyright (C) 2011 Junpei Kawamoto
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package nor.http.server.proxyserver;
+
+import static nor.http.HeaderName.Connection;
+import static nor.http.HeaderName.ContentLength;
+import static nor.http.HeaderName.Host;
+import static nor.http.HeaderName.TransferEncoding;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.net.URL;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.logging.Level;
+
+import nor.http.Http;
+import nor.http.HttpHeader;
+import nor.http.HttpRequest;
+import nor.http.HttpResponse;
+import nor.http.Method;
+import nor.http.Status;
+import nor.http.error.HttpException;
+import nor.http.server.ssl.SecureManager;
+import nor.network.Connection;
+import nor.network.Resolver;
+import nor.network.SelectionWorker;
+import nor.network.TimerWheel;
+import nor.util.io.LimitedInputStream;
+import nor.util.io.NoCloseInputStream;
+import nor.util.io.NoCloseOutputStream;
+import nor.util.log.Logger;
+
+/**
+ * 上流サーバへの HTTP クライアント．
+ * 接続の確立と読み書きの待機は専用の {@link SelectionWorker} が行い，持続接続は宛先毎にプールして再利用します．
+ * リクエストを処理するスレッドは，レスポンスのヘッダやボディのデータが届くまで接続のモニタで待機するため，
+ * 応答の遅い上流サーバはその間スレッドを一つ占有します．
+ * 選択スレッドは準備完了の通知とタイムアウトだけを担い，プールされた待機中の持続接続が消費するのは選択キーとタイマーだけです．
+ *
+ * @author Junpei Kawamoto
+ * @since 0.3
+ */
+class UpstreamClient{
+
+	private final int timeout;
+	private final Resolver resolver = Resolver.getDefault();
+
+	/**
+	 * 宛先毎の待機中の持続接続
+	 */
+	private final Map<String, Deque<Upstream>> pool = new HashMap<String, Deque<Upstream>>();
+
+	private SelectionWorker worker;
+
+	private static final String HttpScheme = "http";
+	private static final String HttpsScheme = "https";
+	private static final String Close = "close";
+	private static final String KeepAlive = "keep-alive";
+	private static final String Version10 = "1.0";
+
+	private static final Logger LOGGER = Logger.getLogger(UpstreamClient.class);
+
+	//============================================================================
+	//  Constants
+	//============================================================================
+	/**
+	 * 宛先毎にプールする持続接続の最大数
+	 */
+	public static final int MaxIdleConnections;
+
+	/**
+	 * プールした持続接続を閉じるまでの時間
+	 */
+	public static final int IdleTimeout;
+
+	//============================================================================
+	//  Constructor
+	//============================================================================
+	/**
+	 * クライアントを作成する．
+	 *
+	 * @param timeout 接続及び読み書きのタイムアウト（ミリ秒）
+	 */
+	public UpstreamClient(final int timeout){
+		LOGGER.entering("<init>", timeout);
+		assert timeout >= 0;
+
+		this.timeout = timeout;
+
+		LOGGER.exiting("<init>");
+	}
+
+	//============================================================================
+	//  Public methods
+	//============================================================================
+	/**
+	 * リクエストを送信し，レスポンスを受信する．
+	 * 返されるレスポンスのボディは上流サーバからストリームとして読み出され，
+	 * 読み終えて閉じられた時点で接続がプールに戻されます．
+	 *
+	 * @param request 送信するリクエスト．要求パスは絶対 URI
+	 * @param proxy 経由するプロキシ
+	 * @return 受信したレスポンス
+	 * @throws IOException 接続または通信に失敗した場合
+	 * @throws HttpException 上流サーバから不正なレスポンスを受信した場合
+	 */
+	public HttpResponse send(final HttpRequest request, final Proxy proxy) throws IOException, HttpException{
+		LOGGER.entering("send", request, proxy);
+		assert request != null;
+		assert proxy != null;
+
+		final URL url = new URL(request.getPath());
+		final int port = url.getPort() != -1 ? url.getPort() : url.getDefaultPort();
+
+		final HttpHeader header = request.getHeader();
+		if(!header.containsKey(Host)){
+
+			header.set(Host, url.getPort() != -1 ? String.format("%s:%d", url.getHost(), port) : url.getHost());
+
+		}
+
+		// 送信先とリクエストターゲットの決定
+		final boolean secure = HttpsScheme.equalsIgnoreCase(url.getProtocol());
+		final InetSocketAddress target;
+		final String requestTarget;
+		if(proxy == Proxy.NO_PROXY){
+
+			if(!secure && !HttpScheme.equalsIgnoreCase(url.getProtocol())){
+
+				final HttpException e = new HttpException(Status.NotImplemented);
+				LOGGER.throwing("send", e);
+
+				throw e;
+
+			}
+
+			target = InetSocketAddress.createUnresolved(url.getHost(), port);
+			requestTarget = url.getFile().length() != 0 ? url.getFile() : "/";
+
+		}else{
+
+			// TLS はプロキシへの CONNECT で作ったトンネルの上で開始するので，リクエストターゲットは上流サーバに対するもの
+			target = (InetSocketAddress)proxy.address();
+			requestTarget = secure ? (url.getFile().length() != 0 ? url.getFile() : "/") : request.getPath();
+
+		}
+		final InetSocketAddress origin = secure ? InetSocketAddress.createUnresolved(url.getHost(), port) : null;
+		final boolean connect = secure && proxy != Proxy.NO_PROXY;
+		final String key;
+		if(connect){
+
+			key = String.format("%s:%s/%s:%d", HttpsScheme, target, url.getHost(), port);
+
+		}else{
+
+			key = secure ? String.format("%s:%s", HttpsScheme, target) : target.toString();
+
+		}
+
+		// ボディを持たない冪等なリクエストは，再利用した接続が切れていた場合に再送できる
+		final InputStream body = request.getBody();
+		final boolean replayable = body == null && this.isIdempotent(request.getMethod());
+
+		HttpResponse res = null;
+		while(res == null){
+
+			Upstream up = this.checkout(key);
+			final boolean reused = up != null;
+			if(up == null){
+
+				up = this.open(key, target, origin, connect);
+
+			}
+
+			try{
+
+				res = up.exchange(request, requestTarget);
+
+			}catch(final IOException e){
+
+				up.close();
+				if(!(reused && replayable && up.received() == 0)){
+
+					LOGGER.throwing("send", e);
+					throw e;
+
+				}
+				LOGGER.fine("send", "Retry {0} because the persistent connection is closed", request.getHeadLine());
+
+			}catch(final HttpException e){
+
+				up.close();
+				if(!(reused && replayable && up.received() == 0)){
+
+					LOGGER.throwing("send", e);
+					throw e;
+
+				}
+				LOGGER.fine("send", "Retry {0} because the persistent connection is closed", request.getHeadLine());
+
+			}
+
+		}
+
+		LOGGER.exiting("send", res);
+		return res;
+	}
+
+	/**
+	 * CONNECT リクエストに対するトンネルの上流側を作成する．
+	 * プロキシを経由する場合は，そのプロキシに CONNECT リクエストを転送します．
+	 *
+	 * @param request CONNECT リクエスト
+	 * @param host 接続先のホスト名
+	 * @param port 接続先のポート番号
+	 * @param proxy 経由するプロキシ
+	 * @return 接続先につながったブロッキングモードのチャネル
+	 * @throws IOException 接続または通信に失敗した場合
+	 * @throws HttpException プロキシが CONNECT リクエストを拒否した場合
+	 */
+	public SocketChannel tunnel(final HttpRequest request, final String host, final int port, final Proxy proxy) throws IOException, HttpException{
+		LOGGER.entering("tunnel", request, host, port, proxy);
+		assert request != null;
+		assert host != null;
+		assert proxy != null;
+
+		if(proxy == Proxy.NO_PROXY){
+
+			final InetSocketAddress addr = this.resolver.resolve(InetSocketAddress.createUnresolved(host, port));
+			final SocketChannel res = this.worker().openChannel(addr, this.timeout);
+
+			LOGGER.exiting("tunnel", res);
+			return res;
+
+		}
+
+		final InetSocketAddress addr = this.resolver.resolve((InetSocketAddress)proxy.address());
+		final SocketChannel ch = this.worker().openChannel(addr, this.timeout);
+		try{
+
+			// Send a CONNECT request
+			final InputStream input = new NoCloseInputStream(ch.socket().getInputStream());
+			final OutputStream output = new NoCloseOutputStream(ch.socket().getOutputStream());
+			request.setBody(new LimitedInputStream(request.getBody(), 0));
+			request.writeTo(output);
+			output.flush();
+			output.close();
+			request.close();
+
+			final HttpResponse response = request.createResponse(input);
+			if(response.getStatus() != Status.OK && response.getStatus() != Status.ConnectionEstablished){
+
+				final HttpException e = new HttpException(response.getStatus());
+				LOGGER.throwing("tunnel", e);
+
+				throw e;
+
+			}
+
+		}catch(final IOException e){
+
+			ch.close();
+
+			LOGGER.throwing("tunnel", e);
+			throw e;
+
+		}catch(final HttpException e){
+
+			ch.close();
+
+			LOGGER.throwing("tunnel", e);
+			throw e;
+
+		}
+
+		LOGGER.exiting("tunnel", ch);
+		return ch;
+	}
+
+	//============================================================================
+	//  Private methods
+	//============================================================================
+	/**
+	 * 選択スレッドを取得する．最初に呼ばれた時に起動する．
+	 */
+	private synchronized SelectionWorker worker() throws IOException{
+
+		if(this.worker == null){
+
+			final SelectionWorker w = new SelectionWorker();
+			final Thread th = new Thread(w);
+			th.setDaemon(true);
+			th.start();
+
+			this.worker = w;
+
+		}
+		return this.worker;
+
+	}
+
+	/**
+	 * 新しい接続を開く．
+	 *
+	 * @param key 宛先
+	 * @param target 接続先のサーバまたはプロキシ
+	 * @param origin TLS を開始する上流サーバ，TLS を使わない場合は null
+	 * @param connect プロキシへの CONNECT でトンネルを作ってから TLS を開始する場合 true
+	 * @return 開いた接続
+	 * @throws IOException 接続または通信に失敗した場合
+	 * @throws HttpException プロキシが CONNECT リクエストを拒否した場合
+	 */
+	private Upstream open(final String key, final InetSocketAddress target, final InetSocketAddress origin, final boolean connect) throws IOException, HttpException{
+		LOGGER.entering("open", key, target, origin, connect);
+
+		final InetSocketAddress addr = this.resolver.resolve(target);
+		final Connection con = this.worker().openConnection(addr, this.timeout);
+		con.setReadTimeout(this.timeout);
+		if(origin != null){
+
+			try{
+
+				if(connect){
+
+					this.connect(con, origin);
+
+				}
+				con.startTls(SecureManager.createClientEngine(origin.getHostName(), origin.getPort()));
+
+			}catch(final IOException e){
+
+				con.close();
+
+				LOGGER.throwing("open", e);
+				throw e;
+
+			}catch(final HttpException e){
+
+				con.close();
+
+				LOGGER.throwing("open", e);
+				throw e;
+
+			}
+
+		}
+
+		final Upstream res = new Upstream(key, con);
+		LOGGER.fine("open", "Open a connection to {0}", addr);
+
+		LOGGER.exiting("open", res);
+		return res;
+	}
+
+	/**
+	 * プロキシに CONNECT リクエストを送り，上流サーバへのトンネルを作る．
+	 * プロキシは 2xx のレスポンスの後にボディを送らないので，同じ接続の上でそのまま TLS を開始できます．
+	 *
+	 * @param con プロキシへの接続
+	 * @param origin トンネルの接続先
+	 * @throws IOException 通信に失敗した場合
+	 * @throws HttpException プロキシが CONNECT リクエストを拒否した場合
+	 */
+	private void connect(final Connection con, final InetSocketAddress origin) throws IOException, HttpException{
+		LOGGER.entering("connect", con, origin);
+
+		final String authority = String.format("%s:%d", origin.getHostName(), origin.getPort());
+		final HttpRequest request = new HttpRequest(Method.CONNECT.toString(), authority, Http.Version);
+		request.getHeader().set(Host, authority);
+
+		request.writeTo(new NoCloseOutputStream(con.getOutputStream()));
+		con.getOutputStream().flush();
+
+		final HttpResponse response = request.createResponse(new NoCloseInputStream(con.getInputStream()));
+		if(response.getCode() / 100 != 2){
+
+			final HttpException e = new HttpException(response.getStatus());
+			LOGGER.throwing("connect", e);
+
+			throw e;
+
+		}
+		LOGGER.fine("connect", "Open a tunnel to {0} through {1}", authority, con);
+
+		LOGGER.exiting("connect");
+	}
+
+	/**
+	 * プールから持続接続を取り出す．
+	 *
+	 * @param key 宛先
+	 * @return 持続接続，プールにない場合は null
+	 */
+	private Upstream checkout(final String key){
+
+		synchronized(this.pool){
+
+			final Deque<Upstream> idles = this.pool.get(key);
+			while(idles != null && !idles.isEmpty()){
+
+				final Upstream up = idles.pollFirst();
+				up.idle.cancel();
+				up.idle = null;
+				if(!up.con.closed()){
+
+					return up;
+
+				}
+
+			}
+
+		}
+		return null;
+
+	}
+
+	/**
+	 * 持続接続をプールに戻す．
+	 *
+	 * @param up 戻す接続
+	 */
+	private void release(final Upstream up){
+
+		synchronized(this.pool){
+
+			Deque<Upstream> idles = this.pool.get(up.key);
+			if(idles == null){
+
+				idles = new ArrayDeque<Upstream>();
+				this.pool.put(up.key, idles);
+
+			}
+
+			if(idles.size() < MaxIdleConnections && this.worker != null){
+
+				up.idle = this.worker.getTimer().schedule(new Runnable(){
+
+					@Override
+					public void run(){
+
+						UpstreamClient.this.expire(up);
+
+					}
+
+				}, IdleTimeout);
+				idles.addFirst(up);
+
+				LOGGER.finer("release", "Pool a connection to {0} ({1} idle connections)", up.key, idles.size());
+				return;
+
+			}
+
+		}
+		up.close();
+
+	}
+
+	/**
+	 * 待機時間が過ぎた持続接続を閉じる．選択スレッドから呼ばれる．
+	 *
+	 * @param up 閉じる接続
+	 */
+	private void expire(final Upstream up){
+
+		synchronized(this.pool){
+
+			final Deque<Upstream> idles = this.pool.get(up.key);
+			if(idles == null || !idles.remove(up)){
+
+				return;
+
+			}
+			if(idles.isEmpty()){
+
+				this.pool.remove(up.key);
+
+			}
+
+		}
+		LOGGER.finer("expire", "Close an idle connection to {0}", up.key);
+		up.close();
+
+	}
+
+	private boolean isIdempotent(final Method method){
+
+		return method == Method.GET || method == Method.HEAD || method == Method.OPTIONS || method == Method.TRACE || method == Method.DELETE;
+
+	}
+
+	/**
+	 * レスポンスを受信した後も接続を持続できるか調べる．
+	 *
+	 * @param request 送信したリクエスト
+	 * @param response 受信したレスポンス
+	 * @return 持続できる場合 true
+	 */
+	private boolean isPersistent(final HttpRequest request, final HttpResponse response){
+
+		final HttpHeader header = response.getHeader();
+		if(this.hasToken(request.getHeader(), Close) || this.hasToken(header, Close)){
+
+			return false;
+
+		}
+		if(Version10.equals(response.getVersion()) && !this.hasToken(header, KeepAlive)){
+
+			return false;
+
+		}
+
+		// 切断によりボディの終わりを示すレスポンスは持続できない
+		return header.containsKey(ContentLength) || header.containsKey(TransferEncoding);
+
+	}
+
+	private boolean hasToken(final HttpHeader header, final String token){
+
+		final String value = header.get(Connection);
+		if(value != null){
+
+			for(final String v : value.split(",")){
+
+				if(token.equalsIgnoreCase(v.trim())){
+
+					return true;
+
+				}
+
+			}
+
+		}
+		return false;
+
+	}
+
+	//============================================================================
+	//  Inner classes
+	//============================================================================
+	/**
+	 * 上流サーバへの接続．
+	 */
+	private final class Upstream{
+
+		private final String key;
+		private final Connection con;
+		private final CountingInputStream input;
+		private final OutputStream output;
+
+		/**
+		 * プールで待機している間のタイムアウト
+		 */
+		private TimerWheel.Timeout idle;
+
+		public Upstream(final String key, final Connection con){
+
+			this.key = key;
+			this.con = con;
+			this.input = new CountingInputStream(con.getInputStream());
+			this.output = new NoCloseOutputStream(con.getOutputStream());
+
+		}
+
+		/**
+		 * リクエストを送信し，レスポンスのヘッダを受信する．
+		 */
+		public HttpResponse exchange(final HttpRequest request, final String target) throws IOException, HttpException{
+
+			this.input.resetCount();
+
+			request.writeTo(this.output, target);
+			this.con.getOutputStream().flush();
+			request.close();
+
+			// 暫定レスポンスは読み捨てる
+			HttpResponse res = request.createResponse(this.input);
+			while(res.getCode() >= 100 && res.getCode() < 200 && res.getStatus() != Status.SwitchingProtocols){
+
+				LOGGER.finer("exchange", "Skip an interim response {0}", res.getHeadLine());
+				res = request.createResponse(this.input);
+
+			}
+
+			final boolean persistent = UpstreamClient.this.isPersistent(request, res);
+			final boolean empty = "0".equals(res.getHeader().get(ContentLength));
+			res.setBody(new Body(res.getBody(), this, persistent, empty));
+
+			return res;
+
+		}
+
+		public long received(){
+
+			return this.input.count;
+
+		}
+
+		public void close(){
+
+			try{
+
+				this.con.close();
+
+			}catch(final IOException e){
+
+				LOGGER.catched(Level.FINE, "close", e);
+
+			}
+
+		}
+
+		@Override
+		public String toString(){
+
+			return String.format("%s(key = %s, connection = %s)", this.getClass().getSimpleName(), this.key, this.con);
+
+		}
+
+	}
+
+	/**
+	 * レスポンスボディ．
+	 * 最後まで読まれた場合は接続をプールに戻し，途中で閉じられた場合は接続を閉じる．
+	 */
+	private final class Body extends FilterInputStream{
+
+		private final Upstream up;
+		private final boolean persistent;
+		private final boolean empty;
+
+		private boolean eof = false;
+		private boolean finished = false;
+
+		public Body(final InputStream in, final Upstream up, final boolean persistent, final boolean empty){
+			super(in);
+
+			this.up = up;
+			this.persistent = persistent;
+			this.empty = empty;
+
+		}
+
+		@Override
+		public int read() throws IOException{
+
+			try{
+
+				final int res = super.read();
+				if(res == -1){
+
+					this.eof = true;
+					this.finish();
+
+				}
+				return res;
+
+			}catch(final IOException e){
+
+				this.finish();
+				throw e;
+
+			}
+
+		}
+
+		@Override
+		public int read(final byte[] b, final int off, final int len) throws IOException{
+
+			try{
+
+				final int res = super.read(b, off, len);
+				if(res == -1){
+
+					this.eof = true;
+					this.finish();
+
+				}
+				return res;
+
+			}catch(final IOException e){
+
+				this.finish();
+				throw e;
+
+			}
+
+		}
+
+		@Override
+		public void close() throws IOException{
+
+			if(!this.finished && !this.eof && this.empty){
+
+				// 長さ 0 のボディは読まれずに閉じられることが多いが，接続は再利用できる
+				this.read();
+
+			}
+			this.finish();
+			super.close();
+
+		}
+
+		private void finish(){
+
+			if(!this.finished){
+
+				this.finished = true;
+				if(this.eof && this.persistent){
+
+					UpstreamClient.this.release(this.up);
+
+				}else{
+
+					this.up.close();
+
+				}
+
+			}
+
+		}
+
+	}
+
+	/**
+	 * 読み込んだバイト数を数えるストリーム．
+	 * 下位の接続はプールにより管理されるため，閉じても接続は閉じない．
+	 */
+	private static final class CountingInputStream extends FilterInputStream{
+
+		private long count = 0;
+
+		public CountingInputStream(final InputStream in){
+			super(in);
+		}
+
+		@Override
+		public int read() throws IOException{
+
+			final int res = super.read();
+			if(res != -1){
+
+				++this.count;
+
+			}
+			return res;
+
+		}
+
+		@Override
+		public int read(final byte[] b, final int off, final int len) throws IOException{
+
+			final int res = super.read(b, off, len);
+			if(res > 0){
+
+				this.count += res;
+
+			}
+			return res;
+
+		}
+
+		public void resetCount(){
+
+			this.count = 0;
+
+		}
+
+		@Override
+		public boolean markSupported(){
+
+			return false;
+
+		}
+
+		@Override
+		public void close(){
+
+		}
+
+	}
+
+	//============================================================================
+	//  Class constructor
+	//============================================================================
+	static{
+
+		final String classname = UpstreamClient.class.getName();
+		final Properties defaults = new Properties();
+		try {
+
+			defaults.load(UpstreamClient.class.getResourceAsStream("default.conf"));
+
+		} catch (final IOException e) {
+
+			LOGGER.severe("<class init>", "Cannot load default configs ({0})", e);
+
+		}
+
+		final String idles = String.format("%s.MaxIdleConnections", classname);
+		MaxIdleConnections = Integer.valueOf(System.getProperty(idles, defaults.getProperty(idles)));
+
+		final String itimeout = String.format("%s.IdleTimeout", classname);
+		IdleTimeout = Integer.valueOf(System.getProperty(itimeout, defaults.getProperty(itimeout)));
+
+		LOGGER.config("<class init>", "Load a constant: MaxIdleConnections = {0}", MaxIdleConnections);
+		LOGGER.config("<class init>", "Load a constant: IdleTimeout = {0}", IdleTimeout);
+
+	}
+
+}
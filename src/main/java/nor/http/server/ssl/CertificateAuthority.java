@@ -0,0 +1,868 @@
+/*
+ *  Copyright (C) 2011 Junpei Kawamoto
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package nor.http.server.ssl;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.net.InetAddress;
+import java.security.GeneralSecurityException;
+import java.security.Key;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.KeyStore;
+import java.security.MessageDigest;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.SecureRandom;
+import java.security.Signature;
+import java.security.cert.Certificate;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.logging.Level;
+import java.util.regex.Pattern;
+
+import nor.util.log.Logger;
+
+/**
+ * 横取りした TLS 接続のために，ホスト毎の証明書を発行するローカル認証局．
+ * 発行した鍵と証明書は，上限付きの LRU キャッシュとディスク上の鍵ストアに保存され，
+ * 二度目以降のハンドシェークでは鍵の生成を行わない．
+ * 鍵の生成と署名は専用のスレッドで非同期に行われ，同じホストへの要求はまとめられる．
+ *
+ * @author Junpei Kawamoto
+ * @since 0.3
+ */
+public class CertificateAuthority{
+
+	private final PrivateKey rootKey;
+	private final X509Certificate root;
+	private final byte[] rootKeyId;
+
+	private final File store;
+	private final char[] password;
+	private final int keySize;
+	private final int validity;
+	private final Executor executor;
+
+	private final Map<String, Credential> cache;
+	private final ConcurrentMap<String, FutureTask<Credential>> pending = new ConcurrentHashMap<String, FutureTask<Credential>>();
+	private final SecureRandom random = new SecureRandom();
+
+	private static CertificateAuthority instance;
+
+	private static final Logger LOGGER = Logger.getLogger(CertificateAuthority.class);
+
+	//============================================================================
+	//  Constants
+	//============================================================================
+	/**
+	 * ルート証明書と鍵を保存した鍵ストアのパス．存在しない場合は作成される
+	 */
+	public static final String KeyStore;
+
+	/**
+	 * ルート鍵ストアの形式
+	 */
+	public static final String KeyStoreType;
+
+	/**
+	 * ルート鍵ストア及び発行した鍵を保存する鍵ストアのパスワード
+	 */
+	private static final String KeyStorePassword;
+
+	/**
+	 * 発行した証明書を保存するディレクトリ
+	 */
+	public static final String StoreDirectory;
+
+	/**
+	 * メモリ上にキャッシュする証明書の数
+	 */
+	public static final int CacheSize;
+
+	/**
+	 * 生成する RSA 鍵の長さ
+	 */
+	public static final int KeySize;
+
+	/**
+	 * 発行する証明書の有効期間（日）
+	 */
+	public static final int Validity;
+
+	/**
+	 * 鍵を生成するスレッドの数
+	 */
+	public static final int Threads;
+
+	private static final String KeyAlgorithm = "RSA";
+	private static final String Alias = "nor";
+	private static final String RootName = "nor local certificate authority";
+	private static final String StoreSuffix = ".jks";
+
+	private static final String CommonName = "2.5.4.3";
+	private static final String SubjectKeyIdentifier = "2.5.29.14";
+	private static final String KeyUsage = "2.5.29.15";
+	private static final String SubjectAltName = "2.5.29.17";
+	private static final String BasicConstraints = "2.5.29.19";
+	private static final String AuthorityKeyIdentifier = "2.5.29.35";
+	private static final String ExtendedKeyUsage = "2.5.29.37";
+	private static final String ServerAuth = "1.3.6.1.5.5.7.3.1";
+	private static final String RsaWithSha256 = "1.2.840.113549.1.1.11";
+	private static final String EcdsaWithSha256 = "1.2.840.10045.4.3.2";
+
+	/** digitalSignature と keyEncipherment */
+	private static final int LeafKeyUsage = 0xa0;
+
+	/** keyCertSign と cRLSign */
+	private static final int RootKeyUsage = 0x06;
+
+	/** CN の最大長 (RFC 5280) */
+	private static final int MaxCommonName = 64;
+
+	/** 有効期限までこの時間を切った証明書は発行し直す */
+	private static final long Renewal = 24 * 60 * 60 * 1000L;
+	private static final long Day = 24 * 60 * 60 * 1000L;
+
+	private static final Pattern IPv4 = Pattern.compile("\\d{1,3}(\\.\\d{1,3}){3}");
+	private static final Pattern Unsafe = Pattern.compile("[^a-z0-9.\\-]");
+
+	//============================================================================
+	//  Constructor
+	//============================================================================
+	/**
+	 * 認証局を作成する．
+	 *
+	 * @param rootKey ルート証明書の秘密鍵
+	 * @param root ルート証明書
+	 * @param store 発行した証明書を保存するディレクトリ，保存しない場合は null
+	 * @param password 保存する鍵ストアのパスワード
+	 * @param cacheSize メモリ上にキャッシュする証明書の数
+	 * @param keySize 生成する RSA 鍵の長さ
+	 * @param validity 発行する証明書の有効期間（日）
+	 * @param executor 鍵の生成と署名を行うスレッド
+	 */
+	public CertificateAuthority(final PrivateKey rootKey, final X509Certificate root, final File store, final char[] password, final int cacheSize, final int keySize, final int validity, final Executor executor){
+		LOGGER.entering("<init>", root, store, cacheSize, keySize, validity, executor);
+		assert rootKey != null;
+		assert root != null;
+		assert password != null;
+		assert cacheSize > 0;
+		assert validity > 0;
+		assert executor != null;
+
+		this.rootKey = rootKey;
+		this.root = root;
+		this.rootKeyId = keyIdentifier(root);
+		this.store = store;
+		this.password = password.clone();
+		this.keySize = keySize;
+		this.validity = validity;
+		this.executor = executor;
+
+		this.cache = new LinkedHashMap<String, Credential>(16, 0.75f, true){
+
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(final Map.Entry<String, Credential> eldest){
+
+				return this.size() > cacheSize;
+
+			}
+
+		};
+
+		if(store != null && !store.isDirectory() && !store.mkdirs()){
+
+			LOGGER.warning("<init>", "Cannot create the directory {0}", store);
+
+		}
+
+		LOGGER.exiting("<init>");
+	}
+
+	//============================================================================
+	//  Public methods
+	//============================================================================
+	/**
+	 * 設定ファイルで指定されたルート証明書を使う認証局を取得する．
+	 * ルート鍵ストアが存在しない場合は新しいルート証明書を作成して保存し，
+	 * クライアントに登録できるように DER 形式の証明書 (拡張子 .crt) も書き出す．
+	 *
+	 * @return 既定の認証局
+	 * @throws IOException ルート鍵ストアの読み込み，あるいは作成に失敗した場合
+	 */
+	public static synchronized CertificateAuthority getDefault() throws IOException{
+
+		if(instance == null){
+
+			final char[] password = KeyStorePassword.toCharArray();
+			final File file = new File(KeyStore);
+			try{
+
+				final KeyStore ks = java.security.KeyStore.getInstance(KeyStoreType);
+				if(file.exists()){
+
+					final InputStream in = new FileInputStream(file);
+					try{
+
+						ks.load(in, password);
+
+					}finally{
+
+						in.close();
+
+					}
+
+				}else{
+
+					final Credential c = createRoot(RootName, KeySize, Validity * 10);
+					ks.load(null, password);
+					ks.setKeyEntry(Alias, c.getPrivateKey(), password, c.getCertificateChain());
+					write(ks, file, password);
+
+					final File crt = new File(file.getPath().replaceFirst("\\.[^./\\\\]*$", "") + ".crt");
+					final OutputStream out = new FileOutputStream(crt);
+					try{
+
+						out.write(c.getCertificateChain()[0].getEncoded());
+
+					}finally{
+
+						out.close();
+
+					}
+					LOGGER.info("getDefault", "Create a new root certificate {0}", crt);
+
+				}
+
+				String alias = Alias;
+				if(!ks.isKeyEntry(alias)){
+
+					alias = ks.aliases().nextElement();
+
+				}
+
+				final Executor executor = Executors.newFixedThreadPool(Threads, new ThreadFactory(){
+
+					@Override
+					public Thread newThread(final Runnable r){
+
+						final Thread th = new Thread(r, "Certificate Thread");
+						th.setDaemon(true);
+						return th;
+
+					}
+
+				});
+				instance = new CertificateAuthority((PrivateKey)ks.getKey(alias, password), (X509Certificate)ks.getCertificate(alias), new File(StoreDirectory), password, CacheSize, KeySize, Validity, executor);
+
+			}catch(final GeneralSecurityException e){
+
+				final IOException ex = new IOException("Cannot load the root certificate", e);
+				LOGGER.throwing("getDefault", ex);
+
+				throw ex;
+
+			}
+
+		}
+		return instance;
+
+	}
+
+	/**
+	 * 自己署名したルート証明書を作成する．
+	 *
+	 * @param name ルート証明書の CN
+	 * @param keySize RSA 鍵の長さ
+	 * @param validity 有効期間（日）
+	 * @return ルート証明書とその秘密鍵
+	 * @throws GeneralSecurityException 鍵の生成あるいは署名に失敗した場合
+	 */
+	public static Credential createRoot(final String name, final int keySize, final int validity) throws GeneralSecurityException{
+		LOGGER.entering("createRoot", name, keySize, validity);
+		assert name != null;
+		assert validity > 0;
+
+		final KeyPairGenerator gen = KeyPairGenerator.getInstance(KeyAlgorithm);
+		gen.initialize(keySize);
+		final KeyPair pair = gen.generateKeyPair();
+
+		final byte[] subject = name(name);
+		final long now = System.currentTimeMillis();
+		final byte[] extensions = Der.sequence(
+				extension(BasicConstraints, true, Der.sequence(Der.bool(true))),
+				extension(KeyUsage, true, Der.namedBits(RootKeyUsage)),
+				extension(SubjectKeyIdentifier, false, Der.octetString(digest(pair.getPublic()))));
+
+		final X509Certificate cert = sign(subject, subject, pair.getPublic(), pair.getPrivate(), new BigInteger(64, new SecureRandom()), new Date(now - Day), new Date(now + validity * Day), extensions);
+		final Credential res = new Credential(pair.getPrivate(), new X509Certificate[]{cert});
+
+		LOGGER.exiting("createRoot", res);
+		return res;
+	}
+
+	/**
+	 * ルート証明書を取得する．
+	 *
+	 * @return ルート証明書
+	 */
+	public X509Certificate getRoot(){
+
+		return this.root;
+
+	}
+
+	/**
+	 * ホストの証明書を用意する．
+	 * キャッシュにない場合は，ディスクから読み込むか新しく発行する処理を非同期に開始する．
+	 *
+	 * @param host ホスト名または IP アドレス
+	 * @return 証明書とその秘密鍵を返す Future
+	 */
+	public Future<Credential> prepare(final String host){
+		LOGGER.entering("prepare", host);
+		assert host != null;
+
+		final String key = host.toLowerCase(Locale.ENGLISH);
+		final Credential c = this.find(key);
+		if(c != null){
+
+			final FutureTask<Credential> res = new FutureTask<Credential>(new Runnable(){
+
+				@Override
+				public void run(){}
+
+			}, c);
+			res.run();
+
+			LOGGER.exiting("prepare", res);
+			return res;
+
+		}
+
+		final FutureTask<Credential> task = new FutureTask<Credential>(new Callable<Credential>(){
+
+			@Override
+			public Credential call() throws IOException, GeneralSecurityException{
+
+				return CertificateAuthority.this.load(key);
+
+			}
+
+		});
+
+		final FutureTask<Credential> running = this.pending.putIfAbsent(key, task);
+		if(running != null){
+
+			LOGGER.exiting("prepare", running);
+			return running;
+
+		}
+
+		this.executor.execute(new Runnable(){
+
+			@Override
+			public void run(){
+
+				try{
+
+					task.run();
+
+				}finally{
+
+					CertificateAuthority.this.pending.remove(key, task);
+
+				}
+
+			}
+
+		});
+
+		LOGGER.exiting("prepare", task);
+		return task;
+	}
+
+	/**
+	 * ホストの証明書を取得する．用意ができるまで呼び出したスレッドは待機する．
+	 *
+	 * @param host ホスト名または IP アドレス
+	 * @return 証明書とその秘密鍵
+	 * @throws IOException 証明書を発行できなかった場合
+	 */
+	public Credential get(final String host) throws IOException{
+		LOGGER.entering("get", host);
+
+		try{
+
+			final Credential res = this.prepare(host).get();
+
+			LOGGER.exiting("get", res);
+			return res;
+
+		}catch(final InterruptedException e){
+
+			Thread.currentThread().interrupt();
+
+			final IOException ex = new IOException("Interrupted while issuing a certificate");
+			LOGGER.throwing("get", ex);
+
+			throw ex;
+
+		}catch(final ExecutionException e){
+
+			final IOException ex = new IOException(String.format("Cannot issue a certificate for %s", host), e.getCause());
+			LOGGER.throwing("get", ex);
+
+			throw ex;
+
+		}
+
+	}
+
+	/**
+	 * キャッシュ済みの証明書を取得する．
+	 *
+	 * @param host ホスト名または IP アドレス
+	 * @return 証明書とその秘密鍵，キャッシュにないか期限の近い場合は null
+	 */
+	public Credential find(final String host){
+
+		final String key = host.toLowerCase(Locale.ENGLISH);
+		synchronized(this.cache){
+
+			final Credential res = this.cache.get(key);
+			if(res != null && res.expires() - Renewal > System.currentTimeMillis()){
+
+				return res;
+
+			}
+			return null;
+
+		}
+
+	}
+
+	/**
+	 * キャッシュされている証明書の数を取得する．
+	 *
+	 * @return キャッシュされている証明書の数
+	 */
+	public int size(){
+
+		synchronized(this.cache){
+
+			return this.cache.size();
+
+		}
+
+	}
+
+	//============================================================================
+	//  Private methods
+	//============================================================================
+	/**
+	 * ディスクから証明書を読み込み，なければ発行して保存する．証明書を生成するスレッドから呼ばれる．
+	 */
+	private Credential load(final String host) throws IOException, GeneralSecurityException{
+
+		final File file = this.store != null ? new File(this.store, Unsafe.matcher(host).replaceAll("_") + StoreSuffix) : null;
+
+		Credential res = null;
+		if(file != null && file.exists()){
+
+			res = this.read(file);
+			if(res != null){
+
+				LOGGER.fine("load", "Load the certificate of {0}", host);
+
+			}
+
+		}
+
+		if(res == null){
+
+			res = this.issue(host);
+			LOGGER.info("load", "Issue a certificate for {0}", host);
+
+			if(file != null){
+
+				try{
+
+					final KeyStore ks = java.security.KeyStore.getInstance("JKS");
+					ks.load(null, this.password);
+					ks.setKeyEntry(Alias, res.getPrivateKey(), this.password, res.getCertificateChain());
+					write(ks, file, this.password);
+
+				}catch(final IOException e){
+
+					LOGGER.warning("load", "Cannot save the certificate of {0} ({1})", host, e.getMessage());
+
+				}
+
+			}
+
+		}
+
+		synchronized(this.cache){
+
+			this.cache.put(host, res);
+
+		}
+		return res;
+
+	}
+
+	/**
+	 * 保存された証明書を読み込む．このルート証明書が発行したもので，期限の近くないものだけを返す．
+	 */
+	private Credential read(final File file){
+
+		try{
+
+			final KeyStore ks = java.security.KeyStore.getInstance("JKS");
+			final InputStream in = new FileInputStream(file);
+			try{
+
+				ks.load(in, this.password);
+
+			}finally{
+
+				in.close();
+
+			}
+
+			final Key key = ks.getKey(Alias, this.password);
+			final Certificate[] chain = ks.getCertificateChain(Alias);
+			if(!(key instanceof PrivateKey) || chain == null || chain.length == 0){
+
+				return null;
+
+			}
+
+			final X509Certificate[] certs = new X509Certificate[chain.length];
+			for(int i = 0; i != chain.length; ++i){
+
+				certs[i] = (X509Certificate)chain[i];
+
+			}
+			certs[0].verify(this.root.getPublicKey());
+
+			final Credential res = new Credential((PrivateKey)key, certs);
+			if(res.expires() - Renewal <= System.currentTimeMillis()){
+
+				return null;
+
+			}
+			return res;
+
+		}catch(final IOException e){
+
+			LOGGER.catched(Level.FINE, "read", e);
+
+		}catch(final GeneralSecurityException e){
+
+			// Issued by another root, or broken.
+			LOGGER.catched(Level.FINE, "read", e);
+
+		}
+		return null;
+
+	}
+
+	/**
+	 * 新しい鍵を生成し，証明書を発行する．
+	 */
+	private Credential issue(final String host) throws GeneralSecurityException{
+
+		final KeyPairGenerator gen = KeyPairGenerator.getInstance(KeyAlgorithm);
+		gen.initialize(this.keySize, this.random);
+		final KeyPair pair = gen.generateKeyPair();
+
+		// 証明書の検証は subjectAltName で行われる
+		final byte[] altName;
+		if(IPv4.matcher(host).matches() || host.indexOf(':') != -1){
+
+			try{
+
+				altName = Der.tagged(7, false, InetAddress.getByName(host).getAddress());
+
+			}catch(final IOException e){
+
+				throw new GeneralSecurityException(String.format("Invalid address: %s", host), e);
+
+			}
+
+		}else{
+
+			altName = Der.tagged(2, false, Der.ascii(host));
+
+		}
+
+		final byte[] extensions;
+		if(this.rootKeyId != null){
+
+			extensions = Der.sequence(
+					extension(BasicConstraints, true, Der.sequence()),
+					extension(KeyUsage, true, Der.namedBits(LeafKeyUsage)),
+					extension(ExtendedKeyUsage, false, Der.sequence(Der.oid(ServerAuth))),
+					extension(SubjectAltName, false, Der.sequence(altName)),
+					extension(AuthorityKeyIdentifier, false, Der.sequence(Der.tagged(0, false, this.rootKeyId))));
+
+		}else{
+
+			extensions = Der.sequence(
+					extension(BasicConstraints, true, Der.sequence()),
+					extension(KeyUsage, true, Der.namedBits(LeafKeyUsage)),
+					extension(ExtendedKeyUsage, false, Der.sequence(Der.oid(ServerAuth))),
+					extension(SubjectAltName, false, Der.sequence(altName)));
+
+		}
+
+		final long now = System.currentTimeMillis();
+		final Date notAfter = new Date(Math.min(now + this.validity * Day, this.root.getNotAfter().getTime()));
+		final String cn = host.length() <= MaxCommonName ? host : host.substring(0, MaxCommonName);
+
+		final X509Certificate cert = sign(name(cn), this.root.getSubjectX500Principal().getEncoded(), pair.getPublic(), this.rootKey, new BigInteger(64, this.random), new Date(now - Day), notAfter, extensions);
+		return new Credential(pair.getPrivate(), new X509Certificate[]{cert, this.root});
+
+	}
+
+	/**
+	 * 証明書を組み立てて署名する．
+	 */
+	private static X509Certificate sign(final byte[] subject, final byte[] issuer, final PublicKey key, final PrivateKey signer, final BigInteger serial, final Date notBefore, final Date notAfter, final byte[] extensions) throws GeneralSecurityException{
+
+		final boolean ec = "EC".equals(signer.getAlgorithm());
+		final byte[] algorithm = ec ? Der.sequence(Der.oid(EcdsaWithSha256)) : Der.sequence(Der.oid(RsaWithSha256), Der.nul());
+
+		final byte[] tbs = Der.sequence(
+				Der.tagged(0, true, Der.integer(2)),
+				Der.integer(serial),
+				algorithm,
+				issuer,
+				Der.sequence(Der.time(notBefore), Der.time(notAfter)),
+				subject,
+				key.getEncoded(),
+				Der.tagged(3, true, extensions));
+
+		final Signature sig = Signature.getInstance(ec ? "SHA256withECDSA" : "SHA256withRSA");
+		sig.initSign(signer);
+		sig.update(tbs);
+
+		final byte[] cert = Der.sequence(tbs, algorithm, Der.bitString(sig.sign()));
+		return (X509Certificate)CertificateFactory.getInstance("X.509").generateCertificate(new ByteArrayInputStream(cert));
+
+	}
+
+	private static byte[] name(final String cn){
+
+		return Der.sequence(Der.set(Der.sequence(Der.oid(CommonName), Der.utf8(cn))));
+
+	}
+
+	private static byte[] extension(final String oid, final boolean critical, final byte[] value){
+
+		return critical ? Der.sequence(Der.oid(oid), Der.bool(true), Der.octetString(value)) : Der.sequence(Der.oid(oid), Der.octetString(value));
+
+	}
+
+	private static byte[] digest(final PublicKey key) throws GeneralSecurityException{
+
+		return MessageDigest.getInstance("SHA-1").digest(key.getEncoded());
+
+	}
+
+	/**
+	 * ルート証明書の subjectKeyIdentifier を取り出す．
+	 *
+	 * @return 鍵識別子，拡張がない場合は null
+	 */
+	private static byte[] keyIdentifier(final X509Certificate cert){
+
+		// OCTET STRING { OCTET STRING keyIdentifier }
+		final byte[] value = cert.getExtensionValue(SubjectKeyIdentifier);
+		if(value == null){
+
+			return null;
+
+		}
+		final int offset = skipHeader(value, skipHeader(value, 0));
+		final byte[] res = new byte[value.length - offset];
+		System.arraycopy(value, offset, res, 0, res.length);
+		return res;
+
+	}
+
+	private static int skipHeader(final byte[] der, final int offset){
+
+		final int len = der[offset + 1] & 0xff;
+		return offset + 2 + (len < 0x80 ? 0 : len & 0x7f);
+
+	}
+
+	private static void write(final KeyStore ks, final File file, final char[] password) throws IOException, GeneralSecurityException{
+
+		final File dir = file.getAbsoluteFile().getParentFile();
+		if(dir != null && !dir.isDirectory() && !dir.mkdirs()){
+
+			throw new IOException(String.format("Cannot create the directory %s", dir));
+
+		}
+
+		// 書きかけのファイルを読まないように，一時ファイルに書いてから置き換える
+		final File tmp = File.createTempFile(file.getName(), ".tmp", dir);
+		final OutputStream out = new FileOutputStream(tmp);
+		try{
+
+			ks.store(out, password);
+
+		}finally{
+
+			out.close();
+
+		}
+		if(!tmp.renameTo(file)){
+
+			file.delete();
+			if(!tmp.renameTo(file)){
+
+				tmp.delete();
+				throw new IOException(String.format("Cannot write %s", file));
+
+			}
+
+		}
+
+	}
+
+	//============================================================================
+	//  Inner classes
+	//============================================================================
+	/**
+	 * 証明書チェーンとその秘密鍵．
+	 *
+	 * @author Junpei Kawamoto
+	 * @since 0.3
+	 */
+	public static final class Credential{
+
+		private final PrivateKey key;
+		private final X509Certificate[] chain;
+
+		public Credential(final PrivateKey key, final X509Certificate[] chain){
+
+			this.key = key;
+			this.chain = chain;
+
+		}
+
+		public PrivateKey getPrivateKey(){
+
+			return this.key;
+
+		}
+
+		public X509Certificate[] getCertificateChain(){
+
+			return this.chain.clone();
+
+		}
+
+		private long expires(){
+
+			return this.chain[0].getNotAfter().getTime();
+
+		}
+
+	}
+
+	//============================================================================
+	//  Class constructor
+	//============================================================================
+	static{
+
+		final String classname = CertificateAuthority.class.getName();
+		final Properties defaults = new Properties();
+		try {
+
+			defaults.load(CertificateAuthority.class.getResourceAsStream("default.conf"));
+
+		} catch (final IOException e) {
+
+			LOGGER.severe("<class init>", "Cannot load default configs ({0})", e);
+
+		}
+
+		final String keystore = String.format("%s.KeyStore", classname);
+		KeyStore = System.getProperty(keystore, defaults.getProperty(keystore));
+
+		final String type = String.format("%s.KeyStoreType", classname);
+		KeyStoreType = System.getProperty(type, defaults.getProperty(type));
+
+		final String password = String.format("%s.KeyStorePassword", classname);
+		KeyStorePassword = System.getProperty(password, defaults.getProperty(password));
+
+		final String dir = String.format("%s.StoreDirectory", classname);
+		StoreDirectory = System.getProperty(dir, defaults.getProperty(dir));
+
+		final String csize = String.format("%s.CacheSize", classname);
+		CacheSize = Integer.valueOf(System.getProperty(csize, defaults.getProperty(csize)));
+
+		final String ksize = String.format("%s.KeySize", classname);
+		KeySize = Integer.valueOf(System.getProperty(ksize, defaults.getProperty(ksize)));
+
+		final String validity = String.format("%s.Validity", classname);
+		Validity = Integer.valueOf(System.getProperty(validity, defaults.getProperty(validity)));
+
+		final String threads = String.format("%s.Threads", classname);
+		Threads = Integer.valueOf(System.getProperty(threads, defaults.getProperty(threads)));
+
+		LOGGER.config("<class init>", "Load a constant: KeyStore = {0}", KeyStore);
+		LOGGER.config("<class init>", "Load a constant: KeyStoreType = {0}", KeyStoreType);
+		LOGGER.config("<class init>", "Load a constant: StoreDirectory = {0}", StoreDirectory);
+		LOGGER.config("<class init>", "Load a constant: CacheSize = {0}", CacheSize);
+		LOGGER.config("<class init>", "Load a constant: KeySize = {0}", KeySize);
+		LOGGER.config("<class init>", "Load a constant: Validity = {0}", Validity);
+		LOGGER.config("<class init>", "Load a constant: Threads = {0}", Threads);
+
+	}
+
+}
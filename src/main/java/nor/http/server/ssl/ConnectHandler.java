@@ -22,10 +22,27 @@ import java.io.InputStream;
 import java.io.OutputStream;
 
 import nor.http.HttpRequest;
+import nor.network.Connection;
+import nor.network.Relay;
 
+/**
+ * CONNECT リクエストの処理．
+ *
+ * @author Junpei Kawamoto
+ * @since 0.1
+ */
 public interface ConnectHandler {
 
-	public Result doConnect(final HttpRequest request, final InputStream in, final OutputStream out) throws IOException;
+	/**
+	 * CONNECT リクエストを処理する．
+	 * 先行するレスポンスは全て送信済みで，接続のストリームは読み書きされていない状態で呼ばれる．
+	 *
+	 * @param request CONNECT リクエスト
+	 * @param con リクエストを受信した接続
+	 * @return 処理結果．引き続き HTTP リクエストを読む場合は，その接頭辞とストリームを持ち，トンネルを作った場合はその中継を持つ
+	 * @throws IOException 通信に失敗した場合
+	 */
+	public Result doConnect(final HttpRequest request, final Connection con) throws IOException;
 
 	public class Result{
 
@@ -36,6 +53,8 @@ public interface ConnectHandler {
 		private final InputStream in;
 		private final OutputStream out;
 
+		private final Relay relay;
+
 
 		public Result(){
 
@@ -43,6 +62,17 @@ public interface ConnectHandler {
 			this.prefix = null;
 			this.in = null;
 			this.out = null;
+			this.relay = null;
+
+		}
+
+		public Result(final Relay relay){
+
+			this.end = false;
+			this.prefix = null;
+			this.in = null;
+			this.out = null;
+			this.relay = relay;
 
 		}
 
@@ -52,6 +82,7 @@ public interface ConnectHandler {
 			this.prefix = prefix;
 			this.in = in;
 			this.out = out;
+			this.relay = null;
 
 		}
 
@@ -79,6 +110,17 @@ public interface ConnectHandler {
 
 		}
 
+		/**
+		 * トンネルの中継を取得する．
+		 *
+		 * @return トンネルの中継，トンネルを作らなかった場合は null
+		 */
+		public Relay getRelay(){
+
+			return this.relay;
+
+		}
+
 	}
 
 }
@@ -18,42 +18,73 @@
 package nor.http.server.ssl;
 
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.logging.Logger;
 
+import javax.net.ssl.SSLEngine;
+
 import nor.http.HttpHeader;
 import nor.http.HttpRequest;
 import nor.http.HttpResponse;
 import nor.http.Status;
+import nor.network.Connection;
+import nor.util.io.NoCloseOutputStream;
 
+/**
+ * CONNECT リクエストで作られるトンネルを終端し，その中の HTTP リクエストを復号する．
+ * TLS は {@link SecureManager} の共有コンテキストから作ったエンジンで，接続の選択スレッド上で処理される．
+ *
+ * @author Junpei Kawamoto
+ * @since 0.1
+ */
 public class DecryptHandler implements ConnectHandler{
 
 	// ロガー
 	private static final Logger LOGGER = Logger.getLogger(DecryptHandler.class.getName());
 
-	public Result doConnect(final HttpRequest request, final InputStream input, final OutputStream output) throws IOException {
-		LOGGER.entering(DecryptHandler.class.getName(), "doConnect");
+	private static final int DefaultPort = 443;
 
-		Result result = null;
+	public Result doConnect(final HttpRequest request, final Connection con) throws IOException {
+		LOGGER.entering(DecryptHandler.class.getName(), "doConnect", new Object[]{request, con});
+		assert request != null;
+		assert con != null;
 
-		// final String prefix = "https://" + request.getHeader().get(HttpHeader.HeaderName.Host, 0);
 		final String prefix = "https://" + request.getPath();
 
-		final HttpResponse ret = request.createResponse(Status.OK);
-		final HttpHeader header = ret.getHeader();
-		header.add("Proxy-agent", "nor/1.0");
+		// 接続先 (host:port あるいは [IPv6]:port)
+		final String path = request.getPath();
+		final int colon = path.lastIndexOf(':');
+		String host = colon != -1 ? path.substring(0, colon) : path;
+		if(host.startsWith("[") && host.endsWith("]")){
 
+			host = host.substring(1, host.length() - 1);
 
-		ret.writeTo(output);
+		}
+		int port = DefaultPort;
+		try{
+
+			port = colon != -1 ? Integer.parseInt(path.substring(colon + 1)) : DefaultPort;
+
+		}catch(final NumberFormatException e){
 
-		// なぜかこいつを使いまわすと落ちる
-		SecureManager m = new SecureManager();
+			LOGGER.fine(String.format("Invalid port: %s", path));
 
-		SecureManager.SecureSession s = m.createSession(input, output);
+		}
 
-		result = new Result(prefix, s.getInputStream(), s.getOutputStream());
+		// 鍵ストアは最初の CONNECT で一度だけ読み込まれる．接続先の証明書を発行する場合は，ここで発行を待つ
+		final SSLEngine engine = SecureManager.getDefault().createServerEngine(host, port);
 
+		final HttpResponse ret = request.createResponse(Status.ConnectionEstablished);
+		final HttpHeader header = ret.getHeader();
+		header.add("Proxy-agent", "nor/1.0");
+
+		final OutputStream output = new NoCloseOutputStream(con.getOutputStream());
+		ret.writeTo(output);
+		output.flush();
+
+		con.startTls(engine);
+
+		final Result result = new Result(prefix, con.getInputStream(), con.getOutputStream());
 
 		LOGGER.exiting(DecryptHandler.class.getName(), "doConnect", result);
 		return result;
@@ -61,5 +92,3 @@ public class DecryptHandler implements ConnectHandler{
 	}
 
 }
-
-
@@ -0,0 +1,271 @@
+/*
+ *  Copyright (C) 2011 Junpei Kawamoto
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package nor.http.server.ssl;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+
+/**
+ * 証明書の作成に必要な分だけの DER エンコーダ．
+ * 各メソッドは一つの TLV をエンコードしたバイト列を返す．
+ *
+ * @author Junpei Kawamoto
+ * @since 0.3
+ */
+final class Der{
+
+	private static final int Boolean = 0x01;
+	private static final int Integer = 0x02;
+	private static final int BitString = 0x03;
+	private static final int OctetString = 0x04;
+	private static final int Null = 0x05;
+	private static final int ObjectIdentifier = 0x06;
+	private static final int Utf8String = 0x0c;
+	private static final int UtcTime = 0x17;
+	private static final int GeneralizedTime = 0x18;
+	private static final int Sequence = 0x30;
+	private static final int Set = 0x31;
+
+	/**
+	 * UTCTime で表せる最後の年の翌年 (RFC 5280)
+	 */
+	private static final int UtcTimeLimit = 2050;
+
+	private Der(){}
+
+	//============================================================================
+	//  Package private methods
+	//============================================================================
+	static byte[] sequence(final byte[]... elements){
+
+		return encode(Sequence, concat(elements));
+
+	}
+
+	static byte[] set(final byte[]... elements){
+
+		return encode(Set, concat(elements));
+
+	}
+
+	static byte[] integer(final BigInteger value){
+
+		return encode(Integer, value.toByteArray());
+
+	}
+
+	static byte[] integer(final long value){
+
+		return integer(BigInteger.valueOf(value));
+
+	}
+
+	static byte[] bool(final boolean value){
+
+		return encode(Boolean, new byte[]{(byte)(value ? 0xff : 0x00)});
+
+	}
+
+	static byte[] nul(){
+
+		return encode(Null, new byte[0]);
+
+	}
+
+	static byte[] oid(final String value){
+
+		final String[] arcs = value.split("\\.");
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		base128(out, Long.parseLong(arcs[0]) * 40 + Long.parseLong(arcs[1]));
+		for(int i = 2; i < arcs.length; ++i){
+
+			base128(out, Long.parseLong(arcs[i]));
+
+		}
+		return encode(ObjectIdentifier, out.toByteArray());
+
+	}
+
+	static byte[] utf8(final String value){
+
+		try{
+
+			return encode(Utf8String, value.getBytes("UTF-8"));
+
+		}catch(final IOException e){
+
+			throw new AssertionError(e);
+
+		}
+
+	}
+
+	/**
+	 * IA5String などの ASCII 文字列の内容をエンコードする．タグは付かない．
+	 */
+	static byte[] ascii(final String value){
+
+		try{
+
+			return value.getBytes("US-ASCII");
+
+		}catch(final IOException e){
+
+			throw new AssertionError(e);
+
+		}
+
+	}
+
+	static byte[] bitString(final byte[] value){
+
+		final byte[] content = new byte[value.length + 1];
+		System.arraycopy(value, 0, content, 1, value.length);
+		return encode(BitString, content);
+
+	}
+
+	/**
+	 * 名前付きビットのビット列をエンコードする．末尾の 0 のビットは省かれる．
+	 *
+	 * @param bits ビット 0 を最上位とするビット列 (最大 8 ビット)
+	 */
+	static byte[] namedBits(final int bits){
+
+		if(bits == 0){
+
+			return encode(BitString, new byte[]{0});
+
+		}
+		return encode(BitString, new byte[]{(byte)java.lang.Integer.numberOfTrailingZeros(bits), (byte)bits});
+
+	}
+
+	static byte[] octetString(final byte[] value){
+
+		return encode(OctetString, value);
+
+	}
+
+	/**
+	 * 証明書の有効期間に使う時刻をエンコードする．2050 年以降は GeneralizedTime になる．
+	 */
+	static byte[] time(final Date date){
+
+		final SimpleDateFormat year = new SimpleDateFormat("yyyy", Locale.ENGLISH);
+		year.setTimeZone(TimeZone.getTimeZone("UTC"));
+
+		final boolean utc = java.lang.Integer.parseInt(year.format(date)) < UtcTimeLimit;
+		final SimpleDateFormat format = new SimpleDateFormat(utc ? "yyMMddHHmmss'Z'" : "yyyyMMddHHmmss'Z'", Locale.ENGLISH);
+		format.setTimeZone(TimeZone.getTimeZone("UTC"));
+
+		try{
+
+			return encode(utc ? UtcTime : GeneralizedTime, format.format(date).getBytes("US-ASCII"));
+
+		}catch(final IOException e){
+
+			throw new AssertionError(e);
+
+		}
+
+	}
+
+	/**
+	 * 文脈固有タグを付ける．
+	 *
+	 * @param tag タグ番号
+	 * @param constructed 構造化型の場合 true (EXPLICIT タグ)，プリミティブ型の場合 false
+	 * @param content 内容
+	 */
+	static byte[] tagged(final int tag, final boolean constructed, final byte[] content){
+
+		return encode(0x80 | (constructed ? 0x20 : 0) | tag, content);
+
+	}
+
+	//============================================================================
+	//  Private methods
+	//============================================================================
+	private static byte[] encode(final int tag, final byte[] content){
+
+		final ByteArrayOutputStream out = new ByteArrayOutputStream(content.length + 6);
+		out.write(tag);
+
+		final int len = content.length;
+		if(len < 0x80){
+
+			out.write(len);
+
+		}else{
+
+			int n = 0;
+			for(int v = len; v != 0; v >>>= 8){
+
+				++n;
+
+			}
+			out.write(0x80 | n);
+			for(int i = n - 1; i >= 0; --i){
+
+				out.write(len >>> (8 * i));
+
+			}
+
+		}
+
+		out.write(content, 0, content.length);
+		return out.toByteArray();
+
+	}
+
+	private static byte[] concat(final byte[]... elements){
+
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		for(final byte[] e : elements){
+
+			out.write(e, 0, e.length);
+
+		}
+		return out.toByteArray();
+
+	}
+
+	private static void base128(final ByteArrayOutputStream out, final long value){
+
+		int n = 0;
+		for(long v = value >>> 7; v != 0; v >>>= 7){
+
+			++n;
+
+		}
+		for(int i = n; i > 0; --i){
+
+			out.write((int)((value >>> (7 * i)) & 0x7f) | 0x80);
+
+		}
+		out.write((int)(value & 0x7f));
+
+	}
+
+}
@@ -0,0 +1,146 @@
+/*
+ *  Copyright (C) 2011 Junpei Kawamoto
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package nor.http.server.ssl;
+
+import java.io.IOException;
+import java.net.Socket;
+import java.security.Principal;
+import java.security.PrivateKey;
+import java.security.cert.X509Certificate;
+import java.util.logging.Level;
+
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.X509ExtendedKeyManager;
+
+import nor.util.log.Logger;
+
+/**
+ * 接続先のホスト名をエイリアスとして，{@link CertificateAuthority} が発行した証明書を選ぶ鍵マネージャ．
+ * ホスト名は {@link javax.net.ssl.SSLContext#createSSLEngine(String, int)} に渡した CONNECT リクエストの宛先で，
+ * 証明書は通常エンジンの作成前に用意されているため，ハンドシェーク中に鍵を生成することはない．
+ *
+ * @author Junpei Kawamoto
+ * @since 0.3
+ */
+class HostKeyManager extends X509ExtendedKeyManager{
+
+	private final CertificateAuthority authority;
+
+	private static final String KeyType = "RSA";
+
+	private static final Logger LOGGER = Logger.getLogger(HostKeyManager.class);
+
+	//============================================================================
+	//  Constructor
+	//============================================================================
+	public HostKeyManager(final CertificateAuthority authority){
+
+		this.authority = authority;
+
+	}
+
+	//============================================================================
+	//  Public methods
+	//============================================================================
+	@Override
+	public String chooseEngineServerAlias(final String keyType, final Principal[] issuers, final SSLEngine engine){
+		LOGGER.entering("chooseEngineServerAlias", keyType, engine);
+
+		final String res = KeyType.equals(keyType) && engine != null ? engine.getPeerHost() : null;
+
+		LOGGER.exiting("chooseEngineServerAlias", res);
+		return res;
+	}
+
+	@Override
+	public X509Certificate[] getCertificateChain(final String alias){
+
+		final CertificateAuthority.Credential c = this.credential(alias);
+		return c != null ? c.getCertificateChain() : null;
+
+	}
+
+	@Override
+	public PrivateKey getPrivateKey(final String alias){
+
+		final CertificateAuthority.Credential c = this.credential(alias);
+		return c != null ? c.getPrivateKey() : null;
+
+	}
+
+	@Override
+	public String chooseServerAlias(final String keyType, final Principal[] issuers, final Socket socket){
+
+		// Sockets aren't used.
+		return null;
+
+	}
+
+	@Override
+	public String[] getServerAliases(final String keyType, final Principal[] issuers){
+
+		return null;
+
+	}
+
+	@Override
+	public String chooseClientAlias(final String[] keyType, final Principal[] issuers, final Socket socket){
+
+		return null;
+
+	}
+
+	@Override
+	public String[] getClientAliases(final String keyType, final Principal[] issuers){
+
+		return null;
+
+	}
+
+	//============================================================================
+	//  Private methods
+	//============================================================================
+	private CertificateAuthority.Credential credential(final String alias){
+
+		if(alias == null){
+
+			return null;
+
+		}
+
+		CertificateAuthority.Credential res = this.authority.find(alias);
+		if(res == null){
+
+			// Not prepared before the handshake.
+			try{
+
+				res = this.authority.get(alias);
+
+			}catch(final IOException e){
+
+				LOGGER.warning("credential", e.getMessage());
+				LOGGER.catched(Level.FINE, "credential", e);
+
+			}
+
+		}
+		return res;
+
+	}
+
+}
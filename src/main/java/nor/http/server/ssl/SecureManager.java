@@ -1,5 +1,5 @@
 /*
- *  Copyright (C) 2010 Junpei Kawamoto
+ *  Copyright (C) 2011 Junpei Kawamoto
  *
  *  This program is free software: you can redistribute it and/or modify
  *  it under the terms of the GNU General Public License as published by
@@ -17,478 +17,389 @@
  */
 package nor.http.server.ssl;
 
-import java.io.ByteArrayOutputStream;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.OutputStream;
-import java.nio.ByteBuffer;
-import java.security.KeyManagementException;
+import java.security.GeneralSecurityException;
 import java.security.KeyStore;
-import java.security.KeyStoreException;
-import java.security.NoSuchAlgorithmException;
-import java.security.UnrecoverableKeyException;
-import java.security.cert.CertificateException;
-import java.util.logging.Logger;
+import java.util.Properties;
 
+import javax.net.ssl.KeyManager;
 import javax.net.ssl.KeyManagerFactory;
 import javax.net.ssl.SSLContext;
 import javax.net.ssl.SSLEngine;
-import javax.net.ssl.SSLEngineResult;
-
-public class SecureManager {
-	// ロガー
-	private static final Logger LOGGER = Logger.getLogger(SecureManager.class.getName());
-
-
-	private final SSLContext context;
-
-	public SecureManager(){
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLSessionContext;
+
+import nor.util.log.Logger;
+
+/**
+ * TLS コンテキストの管理．
+ * 鍵ストアの読み込みと SSLContext の初期化はインスタンスの作成時に一度だけ行い，
+ * 以後の接続は同じコンテキストから SSLEngine を作成するため，セッションキャッシュが共有されます．
+ * 上流サーバへの接続も一つのクライアントコンテキストを共有し，セッションは接続先のホスト名とポート番号毎に再利用されます．
+ * 作成したエンジンは {@link nor.network.Connection#startTls(SSLEngine)} で接続に設定します．
+ * <br />
+ * {@link CertificateAuthority} を使う場合は，鍵ストアの証明書の代わりに接続先毎に発行した証明書を提示します．
+ *
+ * @author Junpei Kawamoto
+ * @since 0.1
+ */
+public class SecureManager{
+
+	/**
+	 * クライアントに対して TLS を終端するコンテキスト
+	 */
+	private final SSLContext server;
+
+	/**
+	 * 証明書を発行する認証局，鍵ストアの証明書を使う場合は null
+	 */
+	private final CertificateAuthority authority;
+
+	private static SecureManager instance;
+
+	/**
+	 * 上流サーバに対して TLS を開始するコンテキスト
+	 */
+	private static SSLContext client;
+
+	private static final String Protocol = "TLS";
+
+	private static final Logger LOGGER = Logger.getLogger(SecureManager.class);
+
+	//============================================================================
+	//  Constants
+	//============================================================================
+	/**
+	 * 既定の鍵ストアのパス
+	 */
+	public static final String KeyStore;
+
+	/**
+	 * 既定の鍵ストアの形式
+	 */
+	public static final String KeyStoreType;
+
+	/**
+	 * 既定の鍵ストアのパスワード
+	 */
+	private static final String KeyStorePassword;
+
+	/**
+	 * 接続先毎に証明書を発行するか
+	 */
+	public static final boolean MintCertificates;
+
+	/**
+	 * セッションキャッシュの最大エントリ数
+	 */
+	public static final int SessionCacheSize;
+
+	/**
+	 * キャッシュしたセッションの有効期間（秒）
+	 */
+	public static final int SessionTimeout;
+
+	/**
+	 * 上流サーバとのセッションキャッシュの最大エントリ数
+	 */
+	public static final int ClientSessionCacheSize;
+
+	/**
+	 * セッションチケットを使うか
+	 */
+	public static final boolean SessionTickets;
+
+	//============================================================================
+	//  Constructor
+	//============================================================================
+	/**
+	 * 鍵ストアを読み込んでコンテキストを作成する．
+	 *
+	 * @param keystore 鍵ストアのパス
+	 * @param type 鍵ストアの形式
+	 * @param password 鍵ストア及び鍵のパスワード
+	 * @throws IOException 鍵ストアの読み込み，あるいはコンテキストの初期化に失敗した場合
+	 */
+	public SecureManager(final String keystore, final String type, final char[] password) throws IOException{
+		LOGGER.entering("<init>", keystore, type);
+		assert keystore != null;
+		assert type != null;
+		assert password != null;
 
-		SSLContext context = null;
 		try{
 
-			final KeyStore ks = KeyStore.getInstance("JKS");
-
-			FileInputStream file = null;
-
-			try {
-
-				file = new java.io.FileInputStream("./ssl/arthra_keystore");
-				ks.load(file, "dayomon2".toCharArray());
-
-				final KeyManagerFactory kmf = KeyManagerFactory.getInstance("SunX509");
-				kmf.init(ks , "dayomon2".toCharArray());
-
-				context = SSLContext.getInstance ("TLS");
-				context.init( kmf.getKeyManagers(), null, null);
+			final KeyStore ks = java.security.KeyStore.getInstance(type);
+			final InputStream file = new FileInputStream(keystore);
+			try{
 
+				ks.load(file, password);
 
-			} catch (NoSuchAlgorithmException e) {
-				// TODO 自動生成された catch ブロック
-				e.printStackTrace();
-			} catch (CertificateException e) {
-				// TODO 自動生成された catch ブロック
-				e.printStackTrace();
-			} catch (UnrecoverableKeyException e) {
-				// TODO 自動生成された catch ブロック
-				e.printStackTrace();
-			} catch (KeyManagementException e) {
-				// TODO 自動生成された catch ブロック
-				e.printStackTrace();
 			}finally{
 
-				if(file != null){
-
-					file.close();
-
-				}
+				file.close();
 
 			}
 
-		} catch (KeyStoreException e) {
-			// TODO 自動生成された catch ブロック
-			e.printStackTrace();
-		}catch (IOException e){
+			final KeyManagerFactory kmf = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+			kmf.init(ks, password);
 
-		}finally{
+			this.server = createContext(kmf.getKeyManagers());
+			this.authority = null;
 
-			this.context = context;
+		}catch(final GeneralSecurityException e){
 
-		}
+			final IOException ex = new IOException("Cannot initialize TLS contexts", e);
+			LOGGER.throwing("<init>", ex);
 
-	}
-
-	public SecureSession createSession(final InputStream in, final OutputStream out) throws IOException{
+			throw ex;
 
-		final SSLEngine engine = context.createSSLEngine();
-		return new SecureSession(engine, in, out);
+		}
 
+		LOGGER.info("<init>", "Load a key store {0}", keystore);
+		LOGGER.exiting("<init>");
 	}
 
-	public class SecureSession{
-
-		private final SSLEngine _engine;
-		private final InputStream _netIn;
-		private final OutputStream _netOut;
+	/**
+	 * 認証局が接続先毎に発行する証明書を使うコンテキストを作成する．
+	 *
+	 * @param authority 証明書を発行する認証局
+	 * @throws IOException コンテキストの初期化に失敗した場合
+	 */
+	public SecureManager(final CertificateAuthority authority) throws IOException{
+		LOGGER.entering("<init>", authority);
+		assert authority != null;
 
-		private final InputStream _appIn;
-		private final OutputStream _appOut;
-
-		private static final int BUFFER_SIZE = 1024*64;
-
-		private SecureSession(final SSLEngine engine, final InputStream netIn, final OutputStream netOut) throws IOException{
+		try{
 
-			this._engine = engine;
-			this._engine.setEnableSessionCreation(true);
-			this._engine.setUseClientMode(false);
-			this._engine.setNeedClientAuth(false);
-			this._engine.setWantClientAuth(false);
+			this.server = createContext(new KeyManager[]{new HostKeyManager(authority)});
+			this.authority = authority;
 
-			this._netIn = netIn;
-			this._netOut = netOut;
+		}catch(final GeneralSecurityException e){
 
-			this.handShake();
+			final IOException ex = new IOException("Cannot initialize TLS contexts", e);
+			LOGGER.throwing("<init>", ex);
 
-			this._appIn = new SecureInputStream();
-			this._appOut = new SecureOutputStream();
+			throw ex;
 
 		}
 
-		public InputStream getInputStream(){
-
-			return this._appIn;
+		LOGGER.exiting("<init>");
+	}
 
-		}
+	//============================================================================
+	//  Public methods
+	//============================================================================
+	/**
+	 * 既定の鍵ストア，あるいは既定の認証局を使うインスタンスを取得する．
+	 * 鍵ストアは最初に呼ばれた時に一度だけ読み込まれる．
+	 *
+	 * @return 既定のインスタンス
+	 * @throws IOException 鍵ストアの読み込み，あるいはコンテキストの初期化に失敗した場合
+	 */
+	public static synchronized SecureManager getDefault() throws IOException{
 
-		public OutputStream getOutputStream(){
+		if(instance == null){
 
-			return this._appOut;
+			instance = MintCertificates ? new SecureManager(CertificateAuthority.getDefault()) : new SecureManager(KeyStore, KeyStoreType, KeyStorePassword.toCharArray());
 
 		}
+		return instance;
 
-		private void closing(){
-
-			try{
-
-				int bufferSize = BUFFER_SIZE;
-				final ByteBuffer buffer = ByteBuffer.allocate(bufferSize);
-				final SSLEngineResult result = _engine.wrap(ByteBuffer.wrap(new byte[0]), buffer);
-
-				if(result.bytesProduced() != 0){
-
-					_netOut.write(buffer.array(), 0, result.bytesProduced());
+	}
 
-				}
+	/**
+	 * クライアントに対して TLS を終端するサーバモードのエンジンを作成する．
+	 * 認証局を使う場合，証明書はエンジンに設定された接続先で選ばれるため，{@link #createServerEngine(String, int)} を使う．
+	 *
+	 * @return 作成したエンジン
+	 */
+	public SSLEngine createServerEngine(){
+		LOGGER.entering("createServerEngine");
 
-			}catch(IOException e){
+		final SSLEngine res = this.server.createSSLEngine();
+		this.configure(res);
 
-				LOGGER.warning("たぶん閉じてた");
+		LOGGER.exiting("createServerEngine", res);
+		return res;
+	}
 
-			}
+	/**
+	 * 接続先に成りすましてクライアントに対して TLS を終端するサーバモードのエンジンを作成する．
+	 * 認証局を使う場合，接続先の証明書が発行されるまで呼び出したスレッドは待機するため，
+	 * ハンドシェーク中に鍵の生成が行われることはない．
+	 *
+	 * @param host 接続先のホスト名
+	 * @param port 接続先のポート番号
+	 * @return 作成したエンジン
+	 * @throws IOException 証明書を発行できなかった場合
+	 */
+	public SSLEngine createServerEngine(final String host, final int port) throws IOException{
+		LOGGER.entering("createServerEngine", host, port);
+		assert host != null;
 
+		if(this.authority != null){
 
+			this.authority.get(host);
 
 		}
 
-		private void handShake() throws IOException{
-
-			final byte[] netData = new byte[BUFFER_SIZE];
-			while(true){
-
-				// クライアントからのデータ取得
-				final int netDataSize = this._netIn.read(netData);
-				final ByteBuffer netDataBuffer = ByteBuffer.wrap(netData, 0, netDataSize);
-				final ByteBuffer appDataBuffer = ByteBuffer.allocate(BUFFER_SIZE);
-
-				UNWRAP : while(true){
-
-					// アプリケーションデータへの変換
-					final SSLEngineResult result = this._engine.unwrap(netDataBuffer, appDataBuffer);
-					//System.out.println(">> " + result);
-
-					switch (result.getStatus()) {
-					case BUFFER_OVERFLOW:
-						System.out.println("overflow");
-						break;
-					case BUFFER_UNDERFLOW:
-						System.out.println("underflow");
-						break;
-					}
-
-					switch(result.getHandshakeStatus()){
-					case NEED_TASK:
-						// 移譲タスクの実行
-						this.doDelegatedTask();
-						break;
-
-					case NEED_WRAP:
-						// データ送信が必要
-						break UNWRAP;
-
-					case NOT_HANDSHAKING:
-						// ハンドシェーク中ではない
-						return;
-
-					case FINISHED:
-						// ハンドシェークの終了
-						return;
-
-					}
-
-				}
-
-				netDataBuffer.clear();
-				WRAP : while(true){
-
-					// ネットデータへの変換
-					final SSLEngineResult result = this._engine.wrap(ByteBuffer.wrap(new byte[0]), netDataBuffer);
-					//System.out.println("<< " + result);
-
-					switch (result.getStatus()) {
-					case BUFFER_OVERFLOW:
-						System.out.println("overflow");
-						break;
-					case BUFFER_UNDERFLOW:
-						System.out.println("underflow");
-						break;
-					}
-
-					// クライアントへデータの送信
-					if(result.bytesProduced() != 0){
-
-						this._netOut.write(netDataBuffer.array(), 0, result.bytesProduced());
-						this._netOut.flush();
-
-						netDataBuffer.clear();
-
-					}
-
-					switch(result.getHandshakeStatus()){
-					case NEED_TASK:
-						// 移譲タスクの実行
-						this.doDelegatedTask();
-						break;
-
-					case NEED_UNWRAP:
-						//データの取得が必要
-						break WRAP;
-
-					case NOT_HANDSHAKING:
-						// ハンドシェーク中ではない
-						return;
-
-					case FINISHED:
-						// ハンドシェークの終了
-						return;
-
-					}
-
-				}
+		final SSLEngine res = this.server.createSSLEngine(host, port);
+		this.configure(res);
 
-			}
-
-		}
+		LOGGER.exiting("createServerEngine", res);
+		return res;
+	}
 
-		private void doDelegatedTask(){
+	/**
+	 * 上流サーバに対して TLS を開始するクライアントモードのエンジンを作成する．
+	 * エンジンは共有のクライアントコンテキストから接続先を指定して作成されるため，
+	 * 同じ接続先への二度目以降のハンドシェークではキャッシュしたセッションが再開されます．
+	 *
+	 * @param host 上流サーバのホスト名
+	 * @param port 上流サーバのポート番号
+	 * @return 作成したエンジン
+	 * @throws IOException コンテキストの初期化に失敗した場合
+	 */
+	public static SSLEngine createClientEngine(final String host, final int port) throws IOException{
+		LOGGER.entering(SecureManager.class, "createClientEngine", host, port);
+		assert host != null;
+
+		final SSLEngine res = getClientContext().createSSLEngine(host, port);
+		res.setUseClientMode(true);
+
+		// 証明書のホスト名の検証 (Java 7 以降)
+		final SSLParameters params = res.getSSLParameters();
+		try{
 
-			for(Runnable task; (task = this._engine.getDelegatedTask()) != null;){
+			SSLParameters.class.getMethod("setEndpointIdentificationAlgorithm", String.class).invoke(params, "HTTPS");
+			res.setSSLParameters(params);
 
-				task.run();
+		}catch(final Exception e){
 
-			}
+			LOGGER.warning(SecureManager.class, "createClientEngine", "Cannot verify the host name of {0} ({1})", host, e);
 
 		}
 
-		private class SecureInputStream extends InputStream{
-
-			private ByteBuffer _inBuffer = ByteBuffer.allocate(_engine.getSession().getApplicationBufferSize());
-			private boolean _isClosed = false;
-
-			public SecureInputStream() throws IOException{
-
-				this.readNetData();
-
-			}
-
-			@Override
-			public int read() throws IOException {
-				LOGGER.entering(SecureInputStream.class.getName(), "read");
-
-				int ret = 0;
-				if(_inBuffer.remaining() == 0){
-
-					if(this._isClosed){
-
-						ret = -1;
-
-					}else{
-
-						this.readNetData();
-						ret = this.read();
-
-					}
-
-				}else{
-
-					ret = (int)_inBuffer.get();
-
-				}
-
-				LOGGER.exiting(SecureInputStream.class.getName(), "read", ret);
-				return ret;
-
-			}
-
-			@Override
-			public void close() throws IOException {
-				LOGGER.entering(SecureInputStream.class.getName(), "close");
-
-				// 終了ハンドシェーク処理の追加
-				if(!_engine.isInboundDone()){
-
-					//_engine.closeInbound();
-					//closing();
-
-				}
-
-				//_netIn.close();
-
-				LOGGER.exiting(SecureInputStream.class.getName(), "close");
-
-			}
-
-			private void readNetData() throws IOException{
-
-				final byte[] netData = new byte[_engine.getSession().getPacketBufferSize()];
-				final int netDataSize = _netIn.read(netData);
-				final ByteBuffer netDataBuffer = ByteBuffer.wrap(netData, 0, netDataSize);
-
-				this._inBuffer.clear();
-
-				//System.out.println("read net data");
-				//System.out.println(netDataSize);
+		LOGGER.exiting(SecureManager.class, "createClientEngine", res);
+		return res;
+	}
 
-				int totalReadSize = 0;
-				UNWRAP : while(true){
+	//============================================================================
+	//  Private methods
+	//============================================================================
+	private void configure(final SSLEngine engine){
 
-					// アプリケーションデータへの変換
-					final SSLEngineResult result = _engine.unwrap(netDataBuffer, this._inBuffer);
+		engine.setUseClientMode(false);
+		engine.setNeedClientAuth(false);
+		engine.setWantClientAuth(false);
+		engine.setEnableSessionCreation(true);
 
-					//System.out.println(result);
-					switch (result.getStatus()) {
-					case BUFFER_OVERFLOW:
-						System.out.println("overflow");
-						this._inBuffer = ByteBuffer.allocate(_engine.getSession().getApplicationBufferSize());
-						break;
+	}
 
-					case BUFFER_UNDERFLOW:
-						System.out.println("underflow");
-						break;
+	private static SSLContext createContext(final KeyManager[] keyManagers) throws GeneralSecurityException{
 
-					case OK:
-						//System.out.println("ok");
-						//System.out.println(result.bytesConsumed());
+		final SSLContext res = SSLContext.getInstance(Protocol);
+		res.init(keyManagers, null, null);
 
-						totalReadSize += result.bytesConsumed();
-						//System.out.println("total");
-						//System.out.println(totalReadSize);
-						//System.out.println(this._inBuffer);
-						if(netDataSize == totalReadSize){
+		final SSLSessionContext sessions = res.getServerSessionContext();
+		sessions.setSessionCacheSize(SessionCacheSize);
+		sessions.setSessionTimeout(SessionTimeout);
 
-							break UNWRAP;
-						}
+		return res;
 
-						break;
+	}
 
-					case CLOSED:
+	private static synchronized SSLContext getClientContext() throws IOException{
 
-						//System.out.println("close");
-						//System.out.println(result.bytesConsumed());
-						closing();
+		if(client == null){
 
-						if(_engine.isInboundDone()){
+			try{
 
-							this._isClosed = true;
+				final SSLContext res = SSLContext.getInstance(Protocol);
+				res.init(null, null, null);
 
-						}
+				final SSLSessionContext sessions = res.getClientSessionContext();
+				sessions.setSessionCacheSize(ClientSessionCacheSize);
+				sessions.setSessionTimeout(SessionTimeout);
 
-						break UNWRAP;
+				client = res;
 
-					}
+			}catch(final GeneralSecurityException e){
 
-				}
+				final IOException ex = new IOException("Cannot initialize TLS contexts", e);
+				LOGGER.throwing(SecureManager.class, "getClientContext", ex);
 
-				this._inBuffer.limit(this._inBuffer.position());
-				this._inBuffer.position(0);
+				throw ex;
 
 			}
 
 		}
+		return client;
 
-		private class SecureOutputStream extends ByteArrayOutputStream{
-
-			@Override
-			public void flush() throws IOException {
-				LOGGER.entering(SecureOutputStream.class.getName(), "flush");
-
-				final byte[] rawAppData = this.toByteArray();
-				final ByteBuffer appData = ByteBuffer.wrap(rawAppData);
-				int netDataSize = BUFFER_SIZE;
-
-				int totalDataSize = 0;
-				WRAP : while(true){
-
-					final ByteBuffer netData = ByteBuffer.allocate(netDataSize);
-					final SSLEngineResult result = _engine.wrap(appData, netData);
-					//System.out.println("<< " + result);
-
-					switch (result.getStatus()) {
-					case BUFFER_OVERFLOW:
-
-						//System.out.println("overflow");
-						netDataSize *= 2;
-						break;
-
-					case BUFFER_UNDERFLOW:
-
-						System.out.println("underflow : ＜起こりえない＞");
-						assert(false);
-						break;
-
-					case OK:
-						//System.out.println("ok");
-						//System.out.println(result);
-						//System.out.println(rawAppData.length);
+	}
 
-						// クライアントへデータの送信
-						if(result.bytesProduced() != 0){
+	//============================================================================
+	//  Class constructor
+	//============================================================================
+	static{
 
-							_netOut.write(netData.array(), 0, result.bytesProduced());
-							_netOut.flush();
+		final String classname = SecureManager.class.getName();
+		final Properties defaults = new Properties();
+		try {
 
-						}
+			defaults.load(SecureManager.class.getResourceAsStream("default.conf"));
 
-						totalDataSize += result.bytesConsumed();
-						if(totalDataSize == rawAppData.length){
+		} catch (final IOException e) {
 
-							break WRAP;
+			LOGGER.severe("<class init>", "Cannot load default configs ({0})", e);
 
-						}
-					}
+		}
 
-				}
+		final String keystore = String.format("%s.KeyStore", classname);
+		KeyStore = System.getProperty(keystore, defaults.getProperty(keystore));
 
-				this.reset();
+		final String type = String.format("%s.KeyStoreType", classname);
+		KeyStoreType = System.getProperty(type, defaults.getProperty(type));
 
+		final String password = String.format("%s.KeyStorePassword", classname);
+		KeyStorePassword = System.getProperty(password, defaults.getProperty(password));
 
-				LOGGER.exiting(SecureOutputStream.class.getName(), "flush");
+		final String mint = String.format("%s.MintCertificates", classname);
+		MintCertificates = Boolean.valueOf(System.getProperty(mint, defaults.getProperty(mint)));
 
-			}
+		final String csize = String.format("%s.SessionCacheSize", classname);
+		SessionCacheSize = Integer.valueOf(System.getProperty(csize, defaults.getProperty(csize)));
 
-			@Override
-			public void close() throws IOException {
-				LOGGER.entering(SecureOutputStream.class.getName(), "close");
+		final String stimeout = String.format("%s.SessionTimeout", classname);
+		SessionTimeout = Integer.valueOf(System.getProperty(stimeout, defaults.getProperty(stimeout)));
 
-				// 終了ハンドシェーク
-				if(!_engine.isInboundDone()){
+		final String ccsize = String.format("%s.ClientSessionCacheSize", classname);
+		ClientSessionCacheSize = Integer.valueOf(System.getProperty(ccsize, defaults.getProperty(ccsize)));
 
-					//_engine.closeOutbound();
-					//closing();
+		final String tickets = String.format("%s.SessionTickets", classname);
+		SessionTickets = Boolean.valueOf(System.getProperty(tickets, defaults.getProperty(tickets)));
 
-				}
+		// JSSE はコンテキストを最初に作成する時にこれらのプロパティを読むため，明示的な指定がない場合に限りここで設定する．
+		for(final String name : new String[]{"jdk.tls.server.enableSessionTicketExtension", "jdk.tls.client.enableSessionTicketExtension"}){
 
-				//_netOut.close();
+			if(System.getProperty(name) == null){
 
-				LOGGER.exiting(SecureOutputStream.class.getName(), "close");
+				System.setProperty(name, Boolean.toString(SessionTickets));
 
 			}
 
-
-
 		}
 
+		LOGGER.config("<class init>", "Load a constant: KeyStore = {0}", KeyStore);
+		LOGGER.config("<class init>", "Load a constant: KeyStoreType = {0}", KeyStoreType);
+		LOGGER.config("<class init>", "Load a constant: MintCertificates = {0}", MintCertificates);
+		LOGGER.config("<class init>", "Load a constant: SessionCacheSize = {0}", SessionCacheSize);
+		LOGGER.config("<class init>", "Load a constant: SessionTimeout = {0}", SessionTimeout);
+		LOGGER.config("<class init>", "Load a constant: ClientSessionCacheSize = {0}", ClientSessionCacheSize);
+		LOGGER.config("<class init>", "Load a constant: SessionTickets = {0}", SessionTickets);
+
 	}
 
 }
-
@@ -18,115 +18,105 @@
 package nor.http.server.ssl;
 
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.OutputStream;
-import java.security.NoSuchAlgorithmException;
+import java.nio.channels.SocketChannel;
+import java.util.logging.Level;
 import java.util.logging.Logger;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
-
-import javax.net.ssl.SSLContext;
-import javax.net.ssl.SSLSocket;
-import javax.net.ssl.SSLSocketFactory;
 
 import nor.http.HttpHeader;
 import nor.http.HttpRequest;
 import nor.http.HttpResponse;
 import nor.http.Status;
-
+import nor.http.error.HttpException;
+import nor.http.server.HttpRequestHandler;
+import nor.network.Connection;
+import nor.network.Relay;
+import nor.util.io.NoCloseOutputStream;
+
+/**
+ * CONNECT リクエストで作られるトンネルを，復号せずにそのまま中継する．
+ * 上流との接続はリクエストハンドラが作成し，中継は接続のストリームが閉じられた後に選択スレッドで行われる．
+ * 両方向の転送は独立しており，一方の終端は他方の送信側の終了として伝えられる．
+ *
+ * @author Junpei Kawamoto
+ * @since 0.1
+ */
 public class TunnellingHandler implements ConnectHandler{
 
 	// ロガー
 	private static final Logger LOGGER = Logger.getLogger(TunnellingHandler.class.getName());
 
-	private static final Pattern ADDRESS = Pattern.compile("([^:]+):([0-9]+)");
-
-
-	public Result doConnect(final HttpRequest request, final InputStream input, final OutputStream output) throws IOException {
-		LOGGER.entering(TunnellingHandler.class.getName(), "doConnect", new Object[]{request, input, output});
-		assert request != null;
-		assert input != null;
-		assert output != null;
-
-		final String path = request.getPath();
-		final Matcher m = ADDRESS.matcher(path);
-
-		if(m.find()){
-
-			try{
-				SSLContext ctx = SSLContext.getDefault();
-				SSLSocketFactory factory = ctx.getSocketFactory();
-
-				final String host = m.group(1);
-				final int port = Integer.parseInt(m.group(2), 10);
-
-				SSLSocket socket = (SSLSocket)factory.createSocket(host, port);
-				socket.startHandshake();
+	/**
+	 * 上流との接続を作成するハンドラ
+	 */
+	private final HttpRequestHandler handler;
 
-				// TODO: プロキシの設定は認証が必要な場合もあるので、BASIC認証設定も追加する
+	public TunnellingHandler(final HttpRequestHandler handler){
 
-				// TODO: さらに外側にプロキシがいる場合、CONNECTメソッドを呼ぶ必要がある
-				final HttpResponse ret = request.createResponse(Status.ConnectionEstablished);
-				final HttpHeader header = ret.getHeader();
-				header.add("Proxy-agent", "not/1.0\n");
+		this.handler = handler;
 
+	}
 
-				ret.writeTo(output);
+	public Result doConnect(final HttpRequest request, final Connection con) throws IOException {
+		LOGGER.entering(TunnellingHandler.class.getName(), "doConnect", new Object[]{request, con});
+		assert request != null;
+		assert con != null;
 
-				InputStream netIn = socket.getInputStream();
-				OutputStream netOut = socket.getOutputStream();
+		final OutputStream output = new NoCloseOutputStream(con.getOutputStream());
 
-				while(true){
+		Result result;
+		if(con.isSecure()){
 
-					byte[] buf = new byte[1024];
+			// 復号したトンネルの中でさらにトンネルを作ることはできない
+			final HttpResponse ret = request.createResponse(Status.NotImplemented);
+			ret.writeTo(output);
+			output.flush();
 
-					// TODO: 書き換え
-					int inRes = input.read(buf);
-					while(inRes != 0 || inRes != -1){
+			result = new Result();
 
-						netOut.write(buf);
-						inRes = input.read(buf);
+		}else{
 
-					}
+			try{
 
-					int outRes = netIn.read(buf);
-					while(outRes != 0 || outRes != -1){
+				final SocketChannel ch = this.handler.doConnectRequest(request);
 
-						output.write(buf);
-						outRes = netIn.read(buf);
+				final Relay relay;
+				try{
 
-					}
+					final HttpResponse ret = request.createResponse(Status.ConnectionEstablished);
+					final HttpHeader header = ret.getHeader();
+					header.add("Proxy-agent", "nor/1.0");
 
-					if(inRes == -1 || outRes == -1){
+					ret.writeTo(output);
+					output.flush();
 
-						socket.shutdownInput();
-						socket.shutdownOutput();
+					relay = con.requestDelegation(ch);
 
-						break;
+				}catch(final IOException e){
 
-					}
+					ch.close();
+					throw e;
 
 				}
+				result = new Result(relay);
 
-			} catch (NoSuchAlgorithmException e) {
-				// TODO 自動生成された catch ブロック
-				e.printStackTrace();
-			}finally{
+			}catch(final HttpException e){
 
-			}
+				LOGGER.log(Level.FINE, String.format("Cannot connect to %s", request.getPath()), e);
 
-		}else{
+				final HttpResponse ret = e.createResponse(request);
+				ret.writeTo(output);
+				output.flush();
 
+				result = new Result();
 
+			}
 
 		}
 
-		final Result result = new Result();
-
 		LOGGER.exiting(TunnellingHandler.class.getName(), "doConnect", result);
 		return result;
 
 	}
-}
-
 
+}
@@ -43,6 +43,11 @@ public class HttpTServer implements HttpServer{
 	 */
 	private Thread listeningThread;
 
+	/**
+	 * 待ち受けソケット
+	 */
+	private ServerSocket socket;
+
 	private static final Logger LOGGER = Logger.getLogger(HttpTServer.class);
 
 
@@ -92,6 +97,8 @@ public class HttpTServer implements HttpServer{
 		socket.bind(new InetSocketAddress(hostname, port));
 		LOGGER.info("start", "Bind the socket to port {0}", port);
 
+		this.socket = socket;
+
 		LOGGER.info("start", "Start listening.");
 		this.listeningThread = new Thread(new ListenWorker(socket, this.handler, TServer.MaxThreads));
 		this.listeningThread.setName("ListenWorker");
@@ -114,6 +121,9 @@ public class HttpTServer implements HttpServer{
 		if(this.listeningThread != null){
 
 			this.listeningThread.interrupt();
+
+			// accept は割り込みでは戻らないため，ソケットを閉じて待ち受けを終了させる
+			this.socket.close();
 			try{
 
 				this.listeningThread.join();
@@ -125,6 +135,7 @@ public class HttpTServer implements HttpServer{
 			}
 
 			LOGGER.info("close", "Closes.");
+			this.listeningThread = null;
 
 		}
 
@@ -49,6 +49,11 @@ final class ListenWorker implements Runnable{
 	 */
 	private final ExecutorService pool;
 
+	/**
+	 * パイプライン化されたリクエストの処理に使うスレッドプール
+	 */
+	private final ExecutorService dispatcher;
+
 	private static final Logger LOGGER = Logger.getLogger(ListenWorker.class);
 
 	/**
@@ -74,6 +79,7 @@ final class ListenWorker implements Runnable{
 			this.pool = Executors.newFixedThreadPool(nThreads);
 
 		}
+		this.dispatcher = Executors.newCachedThreadPool();
 
 		LOGGER.exiting("<init>");
 	}
@@ -91,7 +97,7 @@ final class ListenWorker implements Runnable{
 			Socket socket;
 			while((socket = this.socket.accept()) != null && !Thread.currentThread().isInterrupted()){
 
-				this.pool.execute(new ServiceWorker(socket, this.handler));
+				this.pool.execute(new ServiceWorker(socket, this.handler, this.dispatcher));
 
 			}
 
@@ -109,13 +115,16 @@ final class ListenWorker implements Runnable{
 		}finally{
 
 			this.pool.shutdownNow();
+			this.dispatcher.shutdownNow();
 			try{
 
 				this.pool.awaitTermination(60, TimeUnit.SECONDS);
+				this.dispatcher.awaitTermination(60, TimeUnit.SECONDS);
 
 			}catch(final InterruptedException e) {
 
 				this.pool.shutdownNow();
+				this.dispatcher.shutdownNow();
 				Thread.currentThread().interrupt();
 
 			}
@@ -17,21 +17,21 @@
  */
 package nor.http.server.tserver;
 
-import static nor.http.HeaderName.Connection;
-
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
+import java.io.Closeable;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.OutputStream;
 import java.net.Socket;
 import java.net.SocketTimeoutException;
+import java.util.concurrent.ExecutorService;
 
 import nor.http.HttpRequest;
-import nor.http.HttpResponse;
 import nor.http.server.HttpRequestHandler;
+import nor.http.server.Pipeline;
 import nor.util.io.NoCloseInputStream;
 import nor.util.io.NoCloseOutputStream;
+import nor.util.io.NoExceptionOutputStreamFilter;
 import nor.util.log.Logger;
 
 
@@ -53,6 +53,11 @@ final class ServiceWorker implements Runnable{
 	 */
 	private final HttpRequestHandler handler;
 
+	/**
+	 * パイプライン化されたリクエストを処理するスレッドプール
+	 */
+	private final ExecutorService dispatcher;
+
 	// ロガー
 	private static final Logger LOGGER = Logger.getLogger(ServiceWorker.class);
 
@@ -61,13 +66,15 @@ final class ServiceWorker implements Runnable{
 	 *
 	 * @param socket このクラスが答えるべき要求ソケット
 	 */
-	ServiceWorker(final Socket socket, final HttpRequestHandler handler){
-		LOGGER.entering("<init>", socket, handler);
+	ServiceWorker(final Socket socket, final HttpRequestHandler handler, final ExecutorService dispatcher){
+		LOGGER.entering("<init>", socket, handler, dispatcher);
 		assert socket != null;
 		assert handler != null;
+		assert dispatcher != null;
 
 		this.socket = socket;
 		this.handler = handler;
+		this.dispatcher = dispatcher;
 
 		LOGGER.exiting("<init>");
 	}
@@ -79,6 +86,7 @@ final class ServiceWorker implements Runnable{
 	public void run() {
 		LOGGER.entering("run");
 
+		Pipeline pipeline = null;
 		try{
 
 			// KeepAliveの設定
@@ -86,8 +94,20 @@ final class ServiceWorker implements Runnable{
 			this.socket.setSoTimeout(0);
 
 			// ストリームの取得
-			final InputStream input = new BufferedInputStream(new NoCloseInputStream(this.socket.getInputStream()), this.socket.getReceiveBufferSize());
-			final OutputStream output = new BufferedOutputStream(new NoCloseOutputStream(this.socket.getOutputStream()), this.socket.getSendBufferSize());
+			final InputStream input = new NoCloseInputStream(new BufferedInputStream(this.socket.getInputStream(), this.socket.getReceiveBufferSize()));
+			final NoExceptionOutputStreamFilter output = new NoExceptionOutputStreamFilter(new BufferedOutputStream(new NoCloseOutputStream(this.socket.getOutputStream()), this.socket.getSendBufferSize()));
+
+			// 切断する場合は読み込み待ちを解除する
+			pipeline = new Pipeline(this.handler, output, new Closeable(){
+
+				@Override
+				public void close() throws IOException{
+
+					ServiceWorker.this.socket.shutdownInput();
+
+				}
+
+			}, this.dispatcher, TServer.PipelineDepth);
 
 			// 切断要求が来るまで持続接続する
 			boolean keepAlive = true;
@@ -107,21 +127,8 @@ final class ServiceWorker implements Runnable{
 				// スレッドの名称を変更
 				Thread.currentThread().setName(request.getHeadLine());
 
-				// リクエストに切断要求が含まれているか
-				keepAlive &= this.isKeepingAlive(request);
-
-				// リクエストの実行
-				final HttpResponse response = this.handler.doRequest(request);
-
-				// レスポンスに切断要求が含まれているか
-				keepAlive &= this.isKeepingAlive(response);
-
-				// レスポンスの書き出し
-				response.writeTo(output);
-				output.flush();
-
-				this.socket.setSoTimeout(0);
-				this.socket.getOutputStream().flush();
+				// リクエストの実行（後続のリクエストが既に届いていればパイプラインで処理する）
+				keepAlive = pipeline.offer(request, input.available() != 0);
 
 			}
 
@@ -133,8 +140,19 @@ final class ServiceWorker implements Runnable{
 
 			LOGGER.warning("run", e.getMessage());
 
+		}catch(final InterruptedException e){
+
+			LOGGER.fine("run", e.getMessage());
+			Thread.currentThread().interrupt();
+
 		}finally{
 
+			if(pipeline != null){
+
+				pipeline.finish();
+
+			}
+
 			// socketの削除に関して責任がある
 			if(!this.socket.isClosed()){
 
@@ -159,16 +177,4 @@ final class ServiceWorker implements Runnable{
 		LOGGER.exiting("run");
 	}
 
-	private boolean isKeepingAlive(final HttpRequest request){
-
-		return !request.getHeader().containsValue(Connection, "close");
-
-	}
-
-	private boolean isKeepingAlive(final HttpResponse response){
-
-		return !response.getHeader().containsValue(Connection, "close");
-
-	}
-
 }
@@ -26,6 +26,7 @@ final class TServer {
 
 	public static final int Timeout;
 	public static final int MaxThreads;
+	public static final int PipelineDepth;
 
 	private TServer(){}
 
@@ -52,8 +53,12 @@ final class TServer {
 		final String mthreads = String.format("%s.MaxThreads", classname);
 		MaxThreads = Integer.valueOf(System.getProperty(mthreads, defaults.getProperty(mthreads)));
 
+		final String pdepth = String.format("%s.PipelineDepth", classname);
+		PipelineDepth = Integer.valueOf(System.getProperty(pdepth, defaults.getProperty(pdepth)));
+
 		LOGGER.config("<class init>", "Load a constant: Timeout = {0}", Timeout);
 		LOGGER.config("<class init>", "Load a constant: MaxThreads = {0}", MaxThreads);
+		LOGGER.config("<class init>", "Load a constant: PipelineDepth = {0}", PipelineDepth);
 
 	}
 
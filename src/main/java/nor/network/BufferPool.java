@@ -0,0 +1,131 @@
+/*
+ *  Copyright (C) 2011 Junpei Kawamoto
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package nor.network;
+
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import nor.util.log.Logger;
+
+/**
+ * Pool of byte buffers.
+ * Buffers which are released are kept up to a limit and handed out again by {@link #acquire(int)},
+ * so that short-lived connections don't allocate large buffers every time.
+ *
+ * @author Junpei Kawamoto
+ * @since 0.3
+ */
+public class BufferPool{
+
+	private final int max;
+
+	private final Queue<ByteBuffer> buffers = new ConcurrentLinkedQueue<ByteBuffer>();
+	private final AtomicInteger size = new AtomicInteger();
+
+	private static final Logger LOGGER = Logger.getLogger(BufferPool.class);
+
+	//============================================================================
+	//  Constructor
+	//============================================================================
+	/**
+	 * Create a buffer pool.
+	 *
+	 * @param max the maximum number of buffers kept in this pool
+	 */
+	public BufferPool(final int max){
+		LOGGER.entering("<init>", max);
+		assert max >= 0;
+
+		this.max = max;
+
+		LOGGER.exiting("<init>");
+	}
+
+	//============================================================================
+	//  Public methods
+	//============================================================================
+	/**
+	 * Get a cleared buffer.
+	 * Pooled buffers smaller than the requested size are discarded.
+	 *
+	 * @param capacity the minimum capacity of the buffer
+	 * @return a buffer whose capacity is at least the given size
+	 */
+	public ByteBuffer acquire(final int capacity){
+		LOGGER.entering("acquire", capacity);
+
+		ByteBuffer res = null;
+		for(ByteBuffer b; res == null && (b = this.buffers.poll()) != null;){
+
+			this.size.decrementAndGet();
+			if(b.capacity() >= capacity){
+
+				b.clear();
+				res = b;
+
+			}
+
+		}
+
+		if(res == null){
+
+			res = ByteBuffer.allocate(capacity);
+
+		}
+
+		LOGGER.exiting("acquire", res);
+		return res;
+	}
+
+	/**
+	 * Return a buffer to this pool.
+	 * The buffer must not be used by the caller any more.
+	 *
+	 * @param buffer the buffer
+	 */
+	public void release(final ByteBuffer buffer){
+		LOGGER.entering("release", buffer);
+		assert buffer != null;
+
+		if(this.size.incrementAndGet() <= this.max){
+
+			this.buffers.offer(buffer);
+
+		}else{
+
+			this.size.decrementAndGet();
+
+		}
+
+		LOGGER.exiting("release");
+	}
+
+	/**
+	 * Get the number of pooled buffers.
+	 *
+	 * @return the number of pooled buffers
+	 */
+	public int size(){
+
+		return this.size.get();
+
+	}
+
+}
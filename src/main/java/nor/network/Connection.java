@@ -21,14 +21,17 @@ import java.io.Closeable;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.net.SocketTimeoutException;
 import java.nio.ByteBuffer;
 import java.nio.channels.ReadableByteChannel;
-import java.nio.channels.SelectableChannel;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.SocketChannel;
 import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 
+import javax.net.ssl.SSLEngine;
+
 import nor.util.log.Logger;
 
 /**
@@ -39,12 +42,51 @@ import nor.util.log.Logger;
 public class Connection implements Closeable{
 
 	private boolean closed = false;
-	private SelectableChannel delegation;
+	/**
+	 * Relay started after both streams are closed, or null.
+	 */
+	private Relay delegation;
 
 	private final SocketChannelInputStream in;
 	private final SocketChannelOutputStream out;
 
 	private final SelectionKey key;
+	private final SelectionWorker worker;
+	private final TimerWheel timer;
+
+	/**
+	 * TLS layer, or null for a plain connection.
+	 */
+	private volatile SecureChannel tls;
+
+	/**
+	 * Operations requested by the streams while TLS is running.
+	 */
+	private int wanted;
+
+	private final Runnable pump = new Runnable(){
+
+		@Override
+		public void run(){
+
+			Connection.this.pump();
+
+		}
+
+	};
+
+	private volatile int readTimeout = Network.HeaderTimeout;
+
+	/**
+	 * Phase of reading, or null if the deadline is given by {@link #setReadTimeout(int)}.
+	 */
+	private volatile ReadPhase phase = ReadPhase.Header;
+
+	/**
+	 * Time by which the whole header has to arrive in nanoseconds, which is valid only in the header phase.
+	 */
+	private volatile long headerDeadline = headerDeadline();
+	private volatile int writeTimeout = Network.WriteTimeout;
 
 	private static final Logger LOGGER = Logger.getLogger(Connection.class);
 
@@ -53,6 +95,28 @@ public class Connection implements Closeable{
 	//============================================================================
 	private static final String AlreadyClosed = "This stream has already closed.";
 
+	/**
+	 * Phase of reading, which decides the deadline of each read.
+	 *
+	 * @author Junpei Kawamoto
+	 * @since 0.3
+	 */
+	public enum ReadPhase{
+
+		/** Reading a header of a request; the deadline is the time by which the whole header has to arrive. */
+		Header,
+
+		/** Reading a body; the deadline is the idle time between arrivals of data. */
+		Body,
+
+		/**
+		 * Waiting for a next request on a persistent connection.
+		 * The phase turns into {@link #Header} when the first byte of the request arrives.
+		 */
+		KeepAlive
+
+	}
+
 	//============================================================================
 	//  Constructor
 	//============================================================================
@@ -61,20 +125,38 @@ public class Connection implements Closeable{
 
 		this.in = new SocketChannelInputStream();
 		this.out = new SocketChannelOutputStream();
+		this.worker = selector;
+		this.timer = selector.getTimer();
 
 		this.key = selector.register(ch, 0, new SelectionEventHandlerAdapter(){
 
 			@Override
 			public void onRead(final ReadableByteChannel ch){
 
-				Connection.this.in.onRead(ch);
+				if(Connection.this.tls != null){
+
+					Connection.this.pump();
+
+				}else{
+
+					Connection.this.in.onRead(ch);
+
+				}
 
 			}
 
 			@Override
 			public void onWrite(final WritableByteChannel ch){
 
-				Connection.this.out.onWrite(ch);
+				if(Connection.this.tls != null){
+
+					Connection.this.pump();
+
+				}else{
+
+					Connection.this.out.onWrite(ch);
+
+				}
 
 			}
 
@@ -104,6 +186,107 @@ public class Connection implements Closeable{
 
 	}
 
+	/**
+	 * Set the phase of reading.
+	 * Each read waiting for data expires after the deadline of the phase.
+	 * The deadline of the header phase counts from this call, and is shared by all reads of the header.
+	 *
+	 * @param phase the phase of reading
+	 */
+	public void setReadPhase(final ReadPhase phase){
+		LOGGER.entering("setReadPhase", phase);
+		assert phase != null;
+
+		this.phase = phase;
+		switch(phase){
+		case Header:
+
+			this.readTimeout = Network.HeaderTimeout;
+			this.headerDeadline = headerDeadline();
+			break;
+
+		case Body:
+
+			this.readTimeout = Network.BodyTimeout;
+			break;
+
+		case KeepAlive:
+
+			this.readTimeout = Network.KeepAliveTimeout;
+			break;
+
+		}
+
+		LOGGER.exiting("setReadPhase");
+	}
+
+	/**
+	 * Set the deadline of each read explicitly.
+	 * This is used by a client connection, which doesn't follow the phases of a server.
+	 *
+	 * @param timeout the deadline in milliseconds, or 0 for no deadline
+	 */
+	public void setReadTimeout(final int timeout){
+		LOGGER.entering("setReadTimeout", timeout);
+		assert timeout >= 0;
+
+		this.phase = null;
+		this.readTimeout = timeout;
+
+		LOGGER.exiting("setReadTimeout");
+	}
+
+	/**
+	 * Start TLS on this connection.
+	 * After this method returns, the streams of this connection read and write decrypted data,
+	 * and the handshake runs with the first read or write.
+	 * This method must be called while neither stream is reading nor writing, e.g. right after a response to CONNECT is flushed.
+	 * Data which have been received but not read yet are treated as the beginning of the handshake.
+	 *
+	 * @param engine the engine which has been set to the client or server mode
+	 * @throws IOException if TLS has already started
+	 */
+	public void startTls(final SSLEngine engine) throws IOException{
+		LOGGER.entering("startTls", engine);
+		assert engine != null;
+
+		if(this.tls != null){
+
+			final IOException e = new IOException("TLS has already started");
+			LOGGER.throwing("startTls", e);
+
+			throw e;
+
+		}
+
+		final SecureChannel tls = new SecureChannel(engine, (SocketChannel)this.key.channel(), this.worker, this.pump);
+		synchronized(this.in){
+
+			tls.feed(this.in.buffer);
+
+		}
+		synchronized(this){
+
+			this.wanted = 0;
+
+		}
+		this.tls = tls;
+
+		LOGGER.fine("startTls", "Start TLS on {0}", this);
+		LOGGER.exiting("startTls");
+	}
+
+	/**
+	 * Check whether TLS is running on this connection.
+	 *
+	 * @return true if TLS is running
+	 */
+	public boolean isSecure(){
+
+		return this.tls != null;
+
+	}
+
 	@Override
 	public void close() throws IOException{
 		LOGGER.entering("close");
@@ -125,16 +308,50 @@ public class Connection implements Closeable{
 	}
 
 	/**
-	 * Request binding this connection to the chennel.
-	 * close が呼ばれた後に効果が出る
+	 * Request binding this connection to the channel.
+	 * After both streams are closed, the socket of this connection and the channel are relayed to each other by the selection thread.
+	 * Data which have been received but not read yet are sent to the channel first.
 	 *
-	 * @param ch
-	 * @throws IOException
+	 * @param ch the channel to be bound, which is connected
+	 * @return the relay, which starts after both streams are closed
+	 * @throws IOException if TLS is running on this connection
 	 */
-	public void requestDelegation(final SelectableChannel ch) throws IOException{
+	public Relay requestDelegation(final SocketChannel ch) throws IOException{
+		LOGGER.entering("requestDelegation", ch);
+		assert ch != null;
+
+		if(this.tls != null){
+
+			final IOException e = new IOException("Cannot relay a connection running TLS");
+			LOGGER.throwing("requestDelegation", e);
 
-		this.delegation = ch;
+			throw e;
 
+		}
+
+		final Relay res = new Relay(ch, this.worker);
+		this.delegation = res;
+
+		LOGGER.exiting("requestDelegation", res);
+		return res;
+	}
+
+	/**
+	 * Push back data which have been read ahead from the input stream, e.g. by a buffered stream.
+	 * The data will be read again before data which haven't been read yet.
+	 *
+	 * @param b the data
+	 * @param off the offset of the data
+	 * @param len the length of the data
+	 */
+	public void unread(final byte[] b, final int off, final int len){
+		LOGGER.entering("unread", b, off, len);
+		assert b != null;
+		assert off >= 0 && len >= 0 && off + len <= b.length;
+
+		this.in.unread(b, off, len);
+
+		LOGGER.exiting("unread");
 	}
 
 	//============================================================================
@@ -142,7 +359,16 @@ public class Connection implements Closeable{
 	//============================================================================
 	private void addOps(final int ops){
 
-		if(this.key.isValid()){
+		if(this.tls != null){
+
+			synchronized(this){
+
+				this.wanted |= ops;
+
+			}
+			this.updateOps();
+
+		}else if(this.key.isValid()){
 
 			this.key.interestOps(this.key.interestOps() | ops);
 			this.key.selector().wakeup();
@@ -153,7 +379,16 @@ public class Connection implements Closeable{
 
 	private void removeOps(final int ops){
 
-		if(this.key.isValid()){
+		if(this.tls != null){
+
+			synchronized(this){
+
+				this.wanted &= ~ops;
+
+			}
+			this.updateOps();
+
+		}else if(this.key.isValid()){
 
 			this.key.interestOps(this.key.interestOps() & ~ops);
 			this.key.selector().wakeup();
@@ -162,6 +397,127 @@ public class Connection implements Closeable{
 
 	}
 
+	private synchronized int wanted(){
+
+		return this.wanted;
+
+	}
+
+	/**
+	 * Reflect operations requested by the streams to the selection key while TLS is running.
+	 * The TLS layer is touched only by the selection thread,
+	 * so that a request from another thread is passed to the selection thread.
+	 */
+	private void updateOps(){
+
+		if(this.worker.isSelectionThread()){
+
+			if(this.key.isValid()){
+
+				this.key.interestOps(this.tls.interestOps(this.wanted()));
+
+			}
+
+		}else{
+
+			this.worker.invoke(this.pump);
+
+		}
+
+	}
+
+	/**
+	 * Move data between the TLS layer and the waiting streams.
+	 * This method is called by the selection thread on every selection event and after delegated tasks of the engine.
+	 * Decrypted data may be buffered without any selection event, so that this method also runs when a stream starts waiting.
+	 */
+	private void pump(){
+
+		final SecureChannel tls = this.tls;
+		if(!this.key.isValid()){
+
+			return;
+
+		}
+
+		try{
+
+			tls.flush();
+
+		}catch(final IOException e){
+
+			// The error will be reported by the next read or write.
+			LOGGER.catched(Level.FINE, "pump", e);
+
+		}
+
+		final int ops = this.wanted();
+		if((ops & SelectionKey.OP_WRITE) != 0){
+
+			this.out.onWrite(tls);
+
+		}
+		if((ops & SelectionKey.OP_READ) != 0){
+
+			this.in.onRead(tls);
+
+		}
+
+		if(this.key.isValid()){
+
+			this.key.interestOps(tls.interestOps(this.wanted()));
+
+		}
+
+	}
+
+	/**
+	 * Check whether all written data have been sent to the socket.
+	 */
+	private boolean drained(){
+
+		final SecureChannel tls = this.tls;
+		return tls == null || !tls.pending();
+
+	}
+
+	/**
+	 * Schedule the deadline of a read waiting for data.
+	 * In the header phase, the deadline is what remains of the time for the whole header,
+	 * so that a client sending a byte at a time cannot hold the connection.
+	 *
+	 * @param expiry the task run when the deadline expires
+	 * @return the scheduled deadline, or null if reads have no deadline
+	 */
+	private TimerWheel.Timeout scheduleRead(final Runnable expiry){
+
+		final int timeout = this.readTimeout;
+		if(timeout <= 0){
+
+			return null;
+
+		}
+		if(this.phase == ReadPhase.Header){
+
+			final long rest = TimeUnit.NANOSECONDS.toMillis(this.headerDeadline - System.nanoTime());
+			return this.timer.schedule(expiry, Math.max(rest, 1));
+
+		}
+		return this.timer.schedule(expiry, timeout);
+
+	}
+
+	/**
+	 * Get the time by which a header starting now has to arrive.
+	 *
+	 * @return the time in nanoseconds
+	 */
+	private static long headerDeadline(){
+
+		return System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(Network.HeaderTimeout);
+
+	}
+
 	/**
 	 * Close event handler.
 	 * This method will be called when the SocketChannelInputStream or SocketChannelOutputStream which are associated with this Connection is closed.
@@ -176,7 +532,48 @@ public class Connection implements Closeable{
 				if(this.delegation != null){
 
 					LOGGER.fine("onCloseStream", "Close streams and delegate to {0}.", this.delegation);
-					//new Delegator(this.key, this.delegation, this.selector);
+
+					final Relay relay = this.delegation;
+					final ByteBuffer early = this.in.buffer;
+					this.worker.execute(new Runnable(){
+
+						@Override
+						public void run(){
+
+							relay.start(Connection.this.key, early);
+
+						}
+
+					});
+
+				}else if(this.tls != null){
+
+					// Send close_notify and release the buffers by the selection thread, which owns the TLS layer.
+					final SecureChannel tls = this.tls;
+					this.worker.execute(new Runnable(){
+
+						@Override
+						public void run(){
+
+							tls.close();
+							tls.release();
+
+							Connection.this.key.cancel();
+							Connection.this.key.attach(null);
+							try{
+
+								Connection.this.key.channel().close();
+
+							}catch(final IOException e){
+
+								LOGGER.warning("onCloseStream", e.getMessage());
+								LOGGER.catched(Level.FINE, "onCloseStream", e);
+
+							}
+
+						}
+
+					});
 
 				}else{
 
@@ -206,8 +603,20 @@ public class Connection implements Closeable{
 	private final class SocketChannelInputStream extends InputStream{
 
 		private boolean closed;
+		private boolean waiting;
 		private IOException error;
-		private final ByteBuffer buffer;
+		private ByteBuffer buffer;
+
+		private final Runnable expiry = new Runnable(){
+
+			@Override
+			public void run(){
+
+				SocketChannelInputStream.this.onExpire();
+
+			}
+
+		};
 
 		//============================================================================
 		//  Constractor
@@ -327,6 +736,14 @@ public class Connection implements Closeable{
 				Connection.this.removeOps(SelectionKey.OP_READ);
 				Connection.this.onCloseStream();
 
+				synchronized(this){
+
+					// Wake up a reader waiting for data.
+					this.waiting = false;
+					this.notifyAll();
+
+				}
+
 			}
 
 			LOGGER.exiting(SocketChannelInputStream.class, "close");
@@ -341,6 +758,33 @@ public class Connection implements Closeable{
 
 		}
 
+		synchronized void unread(final byte[] b, final int off, final int len){
+
+			final int size = len + this.available();
+			if(size > this.buffer.capacity()){
+
+				final ByteBuffer buf = ByteBuffer.allocate(size);
+				buf.put(b, off, len);
+				buf.put(this.buffer);
+				buf.flip();
+
+				this.buffer = buf;
+
+			}else{
+
+				final ByteBuffer rest = this.buffer.slice();
+				final byte[] tail = new byte[rest.remaining()];
+				rest.get(tail);
+
+				this.buffer.clear();
+				this.buffer.put(b, off, len);
+				this.buffer.put(tail);
+				this.buffer.flip();
+
+			}
+
+		}
+
 		synchronized void onRead(final ReadableByteChannel channel){
 
 			try{
@@ -351,18 +795,25 @@ public class Connection implements Closeable{
 					/*
 					 * Reach the end-of-file
 					 */
+					this.buffer.limit(0);
 					Connection.this.removeOps(SelectionKey.OP_READ);
+					this.waiting = false;
 					this.notify();
 
-				}else if(this.available() != 0){
+				}else if(this.buffer.position() != 0){
 
 					/*
 					 * Read some data from that channel.
 					 */
 					this.buffer.flip();
 					Connection.this.removeOps(SelectionKey.OP_READ);
+					this.waiting = false;
 					this.notify();
 
+				}else{
+
+					this.buffer.limit(0);
+
 				}
 
 			}catch(final IOException e){
@@ -376,8 +827,28 @@ public class Connection implements Closeable{
 				LOGGER.fine(this.getClass(), "onRead", "Socket error ({0}) by {1}", e.getMessage(), Connection.this);
 				LOGGER.catched(Level.FINE, this.getClass(), "onRead", e);
 
+				this.buffer.limit(0);
 				Connection.this.removeOps(SelectionKey.OP_READ);
 				this.error = e;
+				this.waiting = false;
+				this.notify();
+
+			}
+
+		}
+
+		/**
+		 * Called by the timer of the selector when the read deadline expires.
+		 */
+		synchronized void onExpire(){
+
+			if(this.waiting){
+
+				LOGGER.fine(this.getClass(), "onExpire", "Read timed out by {0}", Connection.this);
+
+				Connection.this.removeOps(SelectionKey.OP_READ);
+				this.error = new SocketTimeoutException("Read timed out");
+				this.waiting = false;
 				this.notify();
 
 			}
@@ -392,17 +863,33 @@ public class Connection implements Closeable{
 			if(!this.closed && this.available() == 0){
 
 				this.error = null;
+				this.waiting = true;
+
+				final TimerWheel.Timeout deadline = Connection.this.scheduleRead(this.expiry);
 				Connection.this.addOps(SelectionKey.OP_READ);
 
 				try {
 
-					this.wait(Network.Timeout);
+					while(this.waiting){
+
+						this.wait();
+
+					}
 
 				}catch(final InterruptedException e) {
 
 					LOGGER.catched(Level.FINE, this.getClass(), "reload", e);
 					Thread.currentThread().interrupt();
 
+				}finally{
+
+					this.waiting = false;
+					if(deadline != null){
+
+						deadline.cancel();
+
+					}
+
 				}
 
 				if(this.error != null || Thread.currentThread().isInterrupted()){
@@ -416,6 +903,13 @@ public class Connection implements Closeable{
 
 				}
 
+				// The next request has begun to arrive.
+				if(Connection.this.phase == ReadPhase.KeepAlive && this.available() != 0){
+
+					Connection.this.setReadPhase(ReadPhase.Header);
+
+				}
+
 			}
 
 		}
@@ -425,10 +919,22 @@ public class Connection implements Closeable{
 	private final class SocketChannelOutputStream extends OutputStream{
 
 		private boolean closed;
+		private boolean waiting;
 		private IOException error;
 
 		private final ByteBuffer buffer;
 
+		private final Runnable expiry = new Runnable(){
+
+			@Override
+			public void run(){
+
+				SocketChannelOutputStream.this.onExpire();
+
+			}
+
+		};
+
 		//============================================================================
 		//  Constractor
 		//============================================================================
@@ -520,18 +1026,35 @@ public class Connection implements Closeable{
 				LOGGER.finer("flush", "Start flush.");
 
 				this.error = null;
+				this.waiting = true;
 				this.buffer.flip();
+
+				final int timeout = Connection.this.writeTimeout;
+				final TimerWheel.Timeout deadline = timeout > 0 ? Connection.this.timer.schedule(this.expiry, timeout) : null;
 				Connection.this.addOps(SelectionKey.OP_WRITE);
 
 				try {
 
-					this.wait(Network.Timeout);
+					while(this.waiting){
+
+						this.wait();
+
+					}
 
 				} catch (final InterruptedException e) {
 
 					LOGGER.catched(Level.FINE, this.getClass(), "flush", e);
 					Thread.currentThread().interrupt();
 
+				}finally{
+
+					this.waiting = false;
+					if(deadline != null){
+
+						deadline.cancel();
+
+					}
+
 				}
 
 				LOGGER.finer("flush", "End flush.");
@@ -604,11 +1127,12 @@ public class Connection implements Closeable{
 				/*
 				 * Finished to send the bufferd data to the channel.
 				 */
-				if(this.available() == 0){
+				if(this.available() == 0 && Connection.this.drained()){
 
 					this.buffer.clear();
 
 					Connection.this.removeOps(SelectionKey.OP_WRITE);
+					this.waiting = false;
 					this.notify();
 
 				}
@@ -625,6 +1149,26 @@ public class Connection implements Closeable{
 
 				Connection.this.removeOps(SelectionKey.OP_WRITE);
 				this.error = e;
+				this.waiting = false;
+				this.notify();
+
+			}
+
+		}
+
+		/**
+		 * Called by the timer of the selector when the write deadline expires.
+		 * It means the peer stalls receiving data.
+		 */
+		synchronized void onExpire(){
+
+			if(this.waiting){
+
+				LOGGER.fine(this.getClass(), "onExpire", "Write timed out by {0}", Connection.this);
+
+				Connection.this.removeOps(SelectionKey.OP_WRITE);
+				this.error = new SocketTimeoutException("Write timed out");
+				this.waiting = false;
 				this.notify();
 
 			}
@@ -10,6 +10,27 @@ final class Network {
 	public static final int Timeout;
 	public static final int BufferSize;
 
+	public static final int HeaderTimeout;
+	public static final int BodyTimeout;
+	public static final int WriteTimeout;
+	public static final int KeepAliveTimeout;
+
+	public static final int TimerTick;
+	public static final int TimerSlots;
+
+	public static final int ResolverTTL;
+	public static final int ResolverNegativeTTL;
+	public static final int ResolverRefreshAhead;
+	public static final int ResolverMaxEntries;
+
+	public static final int SecureTaskThreads;
+	public static final int SecureTaskQueueSize;
+	public static final int SecureBufferPoolSize;
+
+	public static final int RelayBufferPoolSize;
+	public static final int RelayBufferSize;
+	public static final int RelayIdleTimeout;
+
 	private Network(){}
 
 
@@ -35,8 +56,72 @@ final class Network {
 		final String bsize = String.format("%s.BufferSize", classname);
 		BufferSize = Integer.valueOf(System.getProperty(bsize, defaults.getProperty(bsize)));
 
+		final String htimeout = String.format("%s.HeaderTimeout", classname);
+		HeaderTimeout = Integer.valueOf(System.getProperty(htimeout, defaults.getProperty(htimeout)));
+
+		final String btimeout = String.format("%s.BodyTimeout", classname);
+		BodyTimeout = Integer.valueOf(System.getProperty(btimeout, defaults.getProperty(btimeout)));
+
+		final String wtimeout = String.format("%s.WriteTimeout", classname);
+		WriteTimeout = Integer.valueOf(System.getProperty(wtimeout, defaults.getProperty(wtimeout)));
+
+		final String ktimeout = String.format("%s.KeepAliveTimeout", classname);
+		KeepAliveTimeout = Integer.valueOf(System.getProperty(ktimeout, defaults.getProperty(ktimeout)));
+
+		final String tick = String.format("%s.TimerTick", classname);
+		TimerTick = Integer.valueOf(System.getProperty(tick, defaults.getProperty(tick)));
+
+		final String slots = String.format("%s.TimerSlots", classname);
+		TimerSlots = Integer.valueOf(System.getProperty(slots, defaults.getProperty(slots)));
+
+		final String rttl = String.format("%s.ResolverTTL", classname);
+		ResolverTTL = Integer.valueOf(System.getProperty(rttl, defaults.getProperty(rttl)));
+
+		final String rnttl = String.format("%s.ResolverNegativeTTL", classname);
+		ResolverNegativeTTL = Integer.valueOf(System.getProperty(rnttl, defaults.getProperty(rnttl)));
+
+		final String rahead = String.format("%s.ResolverRefreshAhead", classname);
+		ResolverRefreshAhead = Integer.valueOf(System.getProperty(rahead, defaults.getProperty(rahead)));
+
+		final String rmax = String.format("%s.ResolverMaxEntries", classname);
+		ResolverMaxEntries = Integer.valueOf(System.getProperty(rmax, defaults.getProperty(rmax)));
+
+		final String sthreads = String.format("%s.SecureTaskThreads", classname);
+		SecureTaskThreads = Integer.valueOf(System.getProperty(sthreads, defaults.getProperty(sthreads)));
+
+		final String squeue = String.format("%s.SecureTaskQueueSize", classname);
+		SecureTaskQueueSize = Integer.valueOf(System.getProperty(squeue, defaults.getProperty(squeue)));
+
+		final String spool = String.format("%s.SecureBufferPoolSize", classname);
+		SecureBufferPoolSize = Integer.valueOf(System.getProperty(spool, defaults.getProperty(spool)));
+
+		final String rpool = String.format("%s.RelayBufferPoolSize", classname);
+		RelayBufferPoolSize = Integer.valueOf(System.getProperty(rpool, defaults.getProperty(rpool)));
+
+		final String rsize = String.format("%s.RelayBufferSize", classname);
+		RelayBufferSize = Integer.valueOf(System.getProperty(rsize, defaults.getProperty(rsize)));
+
+		final String ridle = String.format("%s.RelayIdleTimeout", classname);
+		RelayIdleTimeout = Integer.valueOf(System.getProperty(ridle, defaults.getProperty(ridle)));
+
 		LOGGER.config("<class init>", "Load a constant: Timeout = {0}", Timeout);
 		LOGGER.config("<class init>", "Load a constant: BufferSize = {0}", BufferSize);
+		LOGGER.config("<class init>", "Load a constant: HeaderTimeout = {0}", HeaderTimeout);
+		LOGGER.config("<class init>", "Load a constant: BodyTimeout = {0}", BodyTimeout);
+		LOGGER.config("<class init>", "Load a constant: WriteTimeout = {0}", WriteTimeout);
+		LOGGER.config("<class init>", "Load a constant: KeepAliveTimeout = {0}", KeepAliveTimeout);
+		LOGGER.config("<class init>", "Load a constant: TimerTick = {0}", TimerTick);
+		LOGGER.config("<class init>", "Load a constant: TimerSlots = {0}", TimerSlots);
+		LOGGER.config("<class init>", "Load a constant: ResolverTTL = {0}", ResolverTTL);
+		LOGGER.config("<class init>", "Load a constant: ResolverNegativeTTL = {0}", ResolverNegativeTTL);
+		LOGGER.config("<class init>", "Load a constant: ResolverRefreshAhead = {0}", ResolverRefreshAhead);
+		LOGGER.config("<class init>", "Load a constant: ResolverMaxEntries = {0}", ResolverMaxEntries);
+		LOGGER.config("<class init>", "Load a constant: SecureTaskThreads = {0}", SecureTaskThreads);
+		LOGGER.config("<class init>", "Load a constant: SecureTaskQueueSize = {0}", SecureTaskQueueSize);
+		LOGGER.config("<class init>", "Load a constant: SecureBufferPoolSize = {0}", SecureBufferPoolSize);
+		LOGGER.config("<class init>", "Load a constant: RelayBufferPoolSize = {0}", RelayBufferPoolSize);
+		LOGGER.config("<class init>", "Load a constant: RelayBufferSize = {0}", RelayBufferSize);
+		LOGGER.config("<class init>", "Load a constant: RelayIdleTimeout = {0}", RelayIdleTimeout);
 
 	}
 
@@ -0,0 +1,532 @@
+/*
+ *  Copyright (C) 2011 Junpei Kawamoto
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package nor.network;
+
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.logging.Level;
+
+import nor.util.log.Logger;
+import nor.util.metrics.Counter;
+import nor.util.metrics.Gauge;
+import nor.util.metrics.Metrics;
+
+/**
+ * Full-duplex relay between a connection and an upstream channel, such as a tunnel of a CONNECT request.
+ * Both directions are driven by the selection thread of the connection without any other thread.
+ * Data read from one side are written to the other side as they arrive,
+ * and reading from a side pauses only while the buffer of its direction is full.
+ * The end of the stream from one side is propagated by shutting down the output to the other side,
+ * and both channels are closed after both directions have finished.
+ * A relay through which no data have passed for {@link Network#RelayIdleTimeout} is closed by the timer of the selector.
+ *
+ * @author Junpei Kawamoto
+ * @since 0.3
+ */
+public final class Relay{
+
+	private final SocketChannel upstream;
+	private final SocketAddress target;
+	private final SelectionWorker worker;
+
+	/** Data from the client to the upstream. */
+	private final Direction up;
+
+	/** Data from the upstream to the client. */
+	private final Direction down;
+
+	private SelectionKey clientKey;
+	private SelectionKey upstreamKey;
+
+	private volatile boolean closed;
+
+	/** Time when data passed last in milliseconds. */
+	private long active;
+
+	/** Deadline of being idle, or null if relays have no deadline. */
+	private TimerWheel.Timeout idle;
+
+	private final Runnable expiry = new Runnable(){
+
+		@Override
+		public void run(){
+
+			Relay.this.onIdle();
+
+		}
+
+	};
+
+	private static final BufferPool Buffers = new BufferPool(Network.RelayBufferPoolSize);
+
+	private static final Logger LOGGER = Logger.getLogger(Relay.class);
+
+	private static final String TunnelBytes = "nor_tunnel_bytes_total";
+	private static final String TunnelBytesHelp = "Number of bytes relayed through tunnels.";
+	private static final Counter UpBytes = Metrics.counter(TunnelBytes, TunnelBytesHelp, "direction", "up");
+	private static final Counter DownBytes = Metrics.counter(TunnelBytes, TunnelBytesHelp, "direction", "down");
+
+	private static final Counter Opened = Metrics.counter("nor_tunnels_total", "Number of tunnels which have started relaying.");
+	private static final Counter Closed = new Counter();
+
+	//============================================================================
+	//  Constructor
+	//============================================================================
+	/**
+	 * Create a relay, which doesn't run until {@link #start(SelectionKey, ByteBuffer)} is called.
+	 *
+	 * @param upstream the upstream channel
+	 * @param worker the selection worker of the connection
+	 */
+	Relay(final SocketChannel upstream, final SelectionWorker worker){
+		LOGGER.entering("<init>", upstream, worker);
+		assert upstream != null;
+		assert worker != null;
+
+		this.upstream = upstream;
+		this.target = upstream.socket().getRemoteSocketAddress();
+		this.worker = worker;
+
+		this.up = new Direction(UpBytes);
+		this.down = new Direction(DownBytes);
+
+		LOGGER.exiting("<init>");
+	}
+
+	//============================================================================
+	//  Public methods
+	//============================================================================
+	/**
+	 * Get the number of bytes sent from the client to the upstream.
+	 *
+	 * @return the number of bytes
+	 */
+	public long getUploaded(){
+
+		return this.up.bytes;
+
+	}
+
+	/**
+	 * Get the number of bytes sent from the upstream to the client.
+	 *
+	 * @return the number of bytes
+	 */
+	public long getDownloaded(){
+
+		return this.down.bytes;
+
+	}
+
+	/**
+	 * Check whether both channels have been closed.
+	 *
+	 * @return true if this relay has finished
+	 */
+	public boolean isClosed(){
+
+		return this.closed;
+
+	}
+
+	@Override
+	public String toString(){
+
+		return String.format("%s(upstream = %s, up = %d, down = %d)", this.getClass().getSimpleName(), this.target, this.getUploaded(), this.getDownloaded());
+
+	}
+
+	//============================================================================
+	//  Package private methods
+	//============================================================================
+	/**
+	 * Start relaying, called by the selection thread.
+	 *
+	 * @param key the selection key of the connection, whose streams have been closed
+	 * @param early data which have been received from the client but not read yet
+	 */
+	void start(final SelectionKey key, final ByteBuffer early){
+		LOGGER.entering("start", key, early);
+		assert key != null;
+		assert early != null;
+
+		this.clientKey = key;
+		Opened.increment();
+		try{
+
+			this.up.open((SocketChannel)key.channel(), this.upstream, early);
+			this.down.open(this.upstream, (SocketChannel)key.channel(), null);
+
+			this.clientKey.attach(new Side(this.up, this.down));
+			this.upstreamKey = this.worker.register(this.upstream, 0, new Side(this.down, this.up));
+
+			this.up.write();
+			this.update();
+			this.active = System.currentTimeMillis();
+			this.schedule(Network.RelayIdleTimeout);
+
+			LOGGER.fine("start", "Start relaying between {0} and {1}", key.channel(), this.upstream);
+
+		}catch(final IOException e){
+
+			LOGGER.fine("start", "Cannot start relaying ({0})", e.getMessage());
+			LOGGER.catched(Level.FINE, "start", e);
+
+			this.close();
+
+		}
+
+		LOGGER.exiting("start");
+	}
+
+	/**
+	 * Close both channels, called by the selection thread.
+	 */
+	void close(){
+
+		if(!this.closed){
+
+			this.closed = true;
+			if(this.idle != null){
+
+				this.idle.cancel();
+				this.idle = null;
+
+			}
+			if(this.clientKey != null){
+
+				Closed.increment();
+
+			}
+			this.cancel(this.clientKey);
+			this.cancel(this.upstreamKey);
+
+			try{
+
+				this.upstream.close();
+
+			}catch(final IOException e){
+
+				LOGGER.catched(Level.FINE, "close", e);
+
+			}
+
+			this.up.release();
+			this.down.release();
+
+			LOGGER.info("close", "Close the tunnel to {0} ({1} bytes up, {2} bytes down)", this.target, this.getUploaded(), this.getDownloaded());
+
+		}
+
+	}
+
+	//============================================================================
+	//  Private methods
+	//============================================================================
+	/**
+	 * Reflect the state of both directions to the selection keys, or close the relay after both directions have finished.
+	 */
+	private void update(){
+
+		if(this.up.shutdown && this.down.shutdown){
+
+			this.close();
+
+		}else{
+
+			this.clientKey.interestOps((this.up.readable() ? SelectionKey.OP_READ : 0) | (this.down.pending() ? SelectionKey.OP_WRITE : 0));
+			this.upstreamKey.interestOps((this.down.readable() ? SelectionKey.OP_READ : 0) | (this.up.pending() ? SelectionKey.OP_WRITE : 0));
+
+		}
+
+	}
+
+	/**
+	 * Schedule the check of being idle.
+	 * The deadline is not moved on each transfer; the check reschedules itself for the rest of the time instead.
+	 */
+	private void schedule(final long delay){
+
+		if(Network.RelayIdleTimeout > 0 && !this.closed){
+
+			this.idle = this.worker.getTimer().schedule(this.expiry, delay);
+
+		}
+
+	}
+
+	/**
+	 * Called by the timer of the selector; close the relay if no data have passed since the deadline was scheduled.
+	 */
+	private void onIdle(){
+
+		if(this.closed){
+
+			return;
+
+		}
+
+		final long rest = this.active + Network.RelayIdleTimeout - System.currentTimeMillis();
+		if(rest > 0){
+
+			this.schedule(rest);
+
+		}else{
+
+			LOGGER.fine("onIdle", "Close an idle tunnel to {0}", this.target);
+			this.close();
+
+		}
+
+	}
+
+	private void cancel(final SelectionKey key){
+
+		if(key != null){
+
+			key.cancel();
+			key.attach(null);
+			try{
+
+				key.channel().close();
+
+			}catch(final IOException e){
+
+				LOGGER.catched(Level.FINE, "cancel", e);
+
+			}
+
+		}
+
+	}
+
+	//============================================================================
+	//  Inner classes
+	//============================================================================
+	/**
+	 * One direction of the relay, which reads from a channel and writes to another.
+	 */
+	private static final class Direction{
+
+		private SocketChannel from;
+		private SocketChannel to;
+
+		/** Data read but not written yet (filling mode). */
+		private ByteBuffer buffer;
+
+		/** True if the end of the stream has been read. */
+		private boolean eof;
+
+		/** True if the output has been shut down after the end of the stream. */
+		private boolean shutdown;
+
+		private volatile long bytes;
+
+		/** Bytes of all tunnels in this direction. */
+		private final Counter total;
+
+		Direction(final Counter total){
+
+			this.total = total;
+
+		}
+
+		void open(final SocketChannel from, final SocketChannel to, final ByteBuffer early){
+
+			this.from = from;
+			this.to = to;
+
+			final int size = early != null ? Math.max(early.remaining(), Network.RelayBufferSize) : Network.RelayBufferSize;
+			this.buffer = Buffers.acquire(size);
+			if(early != null){
+
+				this.buffer.put(early);
+
+			}
+
+		}
+
+		/**
+		 * Read as much as the buffer can hold.
+		 */
+		void read() throws IOException{
+
+			if(this.from.read(this.buffer) == -1){
+
+				this.eof = true;
+
+			}
+
+		}
+
+		/**
+		 * Write buffered data as far as the channel accepts them, and propagate the end of the stream after all data are written.
+		 */
+		void write() throws IOException{
+
+			if(this.buffer.position() != 0){
+
+				this.buffer.flip();
+				try{
+
+					final int n = this.to.write(this.buffer);
+					this.bytes += n;
+					this.total.add(n);
+
+				}finally{
+
+					this.buffer.compact();
+
+				}
+
+			}
+
+			if(this.eof && !this.shutdown && this.buffer.position() == 0){
+
+				this.shutdown = true;
+				this.to.socket().shutdownOutput();
+
+			}
+
+		}
+
+		boolean readable(){
+
+			return !this.eof && this.buffer.hasRemaining();
+
+		}
+
+		boolean pending(){
+
+			return this.buffer.position() != 0;
+
+		}
+
+		void release(){
+
+			if(this.buffer != null){
+
+				Buffers.release(this.buffer);
+				this.buffer = null;
+
+			}
+
+		}
+
+	}
+
+	/**
+	 * Selection event handler of a channel.
+	 */
+	private final class Side extends SelectionEventHandlerAdapter{
+
+		/** The direction reading from this channel. */
+		private final Direction inbound;
+
+		/** The direction writing to this channel. */
+		private final Direction outbound;
+
+		public Side(final Direction inbound, final Direction outbound){
+
+			this.inbound = inbound;
+			this.outbound = outbound;
+
+		}
+
+		@Override
+		public void onRead(final ReadableByteChannel ch){
+
+			if(Relay.this.closed){
+
+				return;
+
+			}
+
+			try{
+
+				this.inbound.read();
+				this.inbound.write();
+				Relay.this.active = System.currentTimeMillis();
+				Relay.this.update();
+
+			}catch(final IOException e){
+
+				this.onError(e);
+
+			}
+
+		}
+
+		@Override
+		public void onWrite(final WritableByteChannel ch){
+
+			if(Relay.this.closed){
+
+				return;
+
+			}
+
+			try{
+
+				this.outbound.write();
+				Relay.this.active = System.currentTimeMillis();
+				Relay.this.update();
+
+			}catch(final IOException e){
+
+				this.onError(e);
+
+			}
+
+		}
+
+		private void onError(final IOException e){
+
+			LOGGER.fine(this.getClass(), "onError", "Socket error ({0}) by {1}", e.getMessage(), Relay.this);
+			LOGGER.catched(Level.FINE, this.getClass(), "onError", e);
+
+			Relay.this.close();
+
+		}
+
+	}
+
+	//============================================================================
+	//  Class constructor
+	//============================================================================
+	static{
+
+		Metrics.gauge("nor_tunnels_open", "Number of tunnels relaying now.", new Gauge(){
+
+			@Override
+			public long get(){
+
+				return Opened.get() - Closed.get();
+
+			}
+
+		});
+
+	}
+
+}
@@ -0,0 +1,518 @@
+/*
+ *  Copyright (C) 2011 Junpei Kawamoto
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package nor.network;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.logging.Level;
+
+import nor.util.log.Logger;
+
+/**
+ * Host name resolver with an in-memory cache.
+ * Results are kept for a TTL and failures for a shorter negative TTL.
+ * Concurrent lookups of the same host are merged into one query to the backend,
+ * and a host looked up shortly before its entry expires is refreshed in background.
+ *
+ * @author Junpei Kawamoto
+ * @since 0.3
+ */
+public class Resolver{
+
+	private final Backend backend;
+	private final Executor executor;
+
+	private final long ttl;
+	private final long negativeTtl;
+	private final long refreshAhead;
+	private final int maxEntries;
+
+	private final ConcurrentMap<String, Entry> cache = new ConcurrentHashMap<String, Entry>();
+	private final ConcurrentMap<String, FutureTask<Entry>> pending = new ConcurrentHashMap<String, FutureTask<Entry>>();
+	private final ConcurrentMap<InetAddress, Name> names = new ConcurrentHashMap<InetAddress, Name>();
+
+	private static Resolver instance;
+
+	private static final Logger LOGGER = Logger.getLogger(Resolver.class);
+
+	//============================================================================
+	//  Constructor
+	//============================================================================
+	/**
+	 * Create a resolver.
+	 *
+	 * @param backend the backend which actually resolves host names
+	 * @param executor the executor running background refreshes
+	 * @param ttl the time to keep a result in milliseconds
+	 * @param negativeTtl the time to keep a failure in milliseconds
+	 * @param refreshAhead the time before expiry in which a lookup triggers a refresh, or 0 to disable
+	 * @param maxEntries the maximum number of cached hosts
+	 */
+	public Resolver(final Backend backend, final Executor executor, final long ttl, final long negativeTtl, final long refreshAhead, final int maxEntries){
+		LOGGER.entering("<init>", backend, executor, ttl, negativeTtl, refreshAhead, maxEntries);
+		assert backend != null;
+		assert executor != null;
+		assert ttl >= 0;
+		assert negativeTtl >= 0;
+		assert refreshAhead >= 0 && refreshAhead <= ttl;
+		assert maxEntries > 0;
+
+		this.backend = backend;
+		this.executor = executor;
+		this.ttl = ttl;
+		this.negativeTtl = negativeTtl;
+		this.refreshAhead = refreshAhead;
+		this.maxEntries = maxEntries;
+
+		LOGGER.exiting("<init>");
+	}
+
+	//============================================================================
+	//  Public methods
+	//============================================================================
+	/**
+	 * Get the resolver shared in this process, which uses the system resolver as its backend.
+	 *
+	 * @return the default resolver
+	 */
+	public static synchronized Resolver getDefault(){
+
+		if(instance == null){
+
+			final Executor executor = Executors.newSingleThreadExecutor(new ThreadFactory(){
+
+				@Override
+				public Thread newThread(final Runnable r){
+
+					final Thread th = new Thread(r, "Resolver Thread");
+					th.setDaemon(true);
+					return th;
+
+				}
+
+			});
+			instance = new Resolver(new SystemBackend(), executor, Network.ResolverTTL, Network.ResolverNegativeTTL, Network.ResolverRefreshAhead, Network.ResolverMaxEntries);
+
+		}
+		return instance;
+
+	}
+
+	/**
+	 * Resolve a host name to its addresses.
+	 *
+	 * @param host the host name
+	 * @return the addresses of the host
+	 * @throws UnknownHostException if the host cannot be resolved
+	 */
+	public InetAddress[] lookupAll(final String host) throws UnknownHostException{
+		LOGGER.entering("lookupAll", host);
+		assert host != null;
+
+		final String key = host.toLowerCase(Locale.ENGLISH);
+		final long now = System.currentTimeMillis();
+
+		Entry e = this.cache.get(key);
+		if(e != null && now < e.expires){
+
+			if(e.addresses != null && this.refreshAhead > 0 && now >= e.expires - this.refreshAhead){
+
+				this.refresh(key);
+
+			}
+			LOGGER.finest("lookupAll", "Hit the cache of {0}", key);
+
+		}else{
+
+			e = this.load(key);
+
+		}
+
+		final InetAddress[] res = e.get();
+		LOGGER.exiting("lookupAll", res);
+		return res;
+	}
+
+	/**
+	 * Resolve a host name to its first address.
+	 *
+	 * @param host the host name
+	 * @return the address of the host
+	 * @throws UnknownHostException if the host cannot be resolved
+	 */
+	public InetAddress lookup(final String host) throws UnknownHostException{
+
+		return this.lookupAll(host)[0];
+
+	}
+
+	/**
+	 * Resolve an unresolved socket address.
+	 * A resolved address is returned as it is.
+	 *
+	 * @param addr the socket address
+	 * @return the resolved socket address
+	 * @throws UnknownHostException if the host cannot be resolved
+	 */
+	public InetSocketAddress resolve(final InetSocketAddress addr) throws UnknownHostException{
+		LOGGER.entering("resolve", addr);
+		assert addr != null;
+
+		final InetSocketAddress res = addr.isUnresolved() ? new InetSocketAddress(this.lookup(addr.getHostName()), addr.getPort()) : addr;
+
+		LOGGER.exiting("resolve", res);
+		return res;
+	}
+
+	/**
+	 * Look up the host name of an address.
+	 * If the address has no name, the textual address is returned.
+	 *
+	 * @param addr the address
+	 * @return the fully qualified host name of the address
+	 */
+	public String reverse(final InetAddress addr){
+		LOGGER.entering("reverse", addr);
+		assert addr != null;
+
+		final long now = System.currentTimeMillis();
+		Name n = this.names.get(addr);
+		if(n == null || now >= n.expires){
+
+			n = new Name(this.backend.reverse(addr), now + this.ttl);
+			if(this.names.size() >= this.maxEntries){
+
+				this.names.clear();
+
+			}
+			this.names.put(addr, n);
+
+		}
+
+		LOGGER.exiting("reverse", n.name);
+		return n.name;
+	}
+
+	/**
+	 * Discard all cached results.
+	 */
+	public void clear(){
+
+		this.cache.clear();
+		this.names.clear();
+
+	}
+
+	/**
+	 * Get the number of cached hosts.
+	 *
+	 * @return the number of cached hosts
+	 */
+	public int size(){
+
+		return this.cache.size();
+
+	}
+
+	//============================================================================
+	//  Private methods
+	//============================================================================
+	/**
+	 * Query the backend and wait for the result.
+	 * If another thread is querying the same host, this method waits for its result instead.
+	 */
+	private Entry load(final String key) throws UnknownHostException{
+
+		final FutureTask<Entry> task = this.createTask(key, false);
+		final FutureTask<Entry> running = this.pending.putIfAbsent(key, task);
+		if(running == null){
+
+			try{
+
+				task.run();
+
+			}finally{
+
+				this.pending.remove(key, task);
+
+			}
+			return this.await(key, task);
+
+		}
+
+		LOGGER.finer("load", "Wait for another lookup of {0}", key);
+		return this.await(key, running);
+
+	}
+
+	/**
+	 * Query the backend in background unless the host is being queried.
+	 */
+	private void refresh(final String key){
+
+		final FutureTask<Entry> task = this.createTask(key, true);
+		if(this.pending.putIfAbsent(key, task) == null){
+
+			LOGGER.finer("refresh", "Refresh {0} ahead of expiry", key);
+			try{
+
+				this.executor.execute(new Runnable(){
+
+					@Override
+					public void run(){
+
+						try{
+
+							task.run();
+
+						}finally{
+
+							Resolver.this.pending.remove(key, task);
+
+						}
+
+					}
+
+				});
+
+			}catch(final RejectedExecutionException e){
+
+				LOGGER.catched(Level.FINE, "refresh", e);
+				this.pending.remove(key, task);
+
+			}
+
+		}
+
+	}
+
+	private FutureTask<Entry> createTask(final String key, final boolean refreshing){
+
+		return new FutureTask<Entry>(new Callable<Entry>(){
+
+			@Override
+			public Entry call(){
+
+				return Resolver.this.query(key, refreshing);
+
+			}
+
+		});
+
+	}
+
+	private Entry query(final String key, final boolean refreshing){
+
+		final long now = System.currentTimeMillis();
+		Entry e;
+		try{
+
+			final InetAddress[] addresses = this.backend.lookup(key);
+			if(addresses == null || addresses.length == 0){
+
+				throw new UnknownHostException(key);
+
+			}
+			e = new Entry(addresses, null, now + this.ttl);
+
+		}catch(final UnknownHostException ex){
+
+			LOGGER.fine("query", "Cannot resolve {0} ({1})", key, ex.getMessage());
+			if(refreshing){
+
+				// Keep serving the current result until it expires.
+				return this.cache.get(key);
+
+			}
+			e = new Entry(null, ex, now + this.negativeTtl);
+
+		}
+
+		if(this.cache.size() >= this.maxEntries){
+
+			this.purge(now);
+
+		}
+		this.cache.put(key, e);
+
+		return e;
+
+	}
+
+	private Entry await(final String key, final FutureTask<Entry> task) throws UnknownHostException{
+
+		try{
+
+			final Entry e = task.get();
+			if(e == null){
+
+				throw new UnknownHostException(key);
+
+			}
+			return e;
+
+		}catch(final InterruptedException e){
+
+			LOGGER.catched(Level.FINE, "await", e);
+			Thread.currentThread().interrupt();
+
+			throw new UnknownHostException(key);
+
+		}catch(final ExecutionException e){
+
+			LOGGER.catched(Level.WARNING, "await", e);
+			throw new UnknownHostException(key);
+
+		}
+
+	}
+
+	/**
+	 * Remove expired entries, and also arbitrary ones if the cache is still full.
+	 */
+	private void purge(final long now){
+
+		final Iterator<Entry> i = this.cache.values().iterator();
+		while(i.hasNext()){
+
+			if(i.next().expires <= now){
+
+				i.remove();
+
+			}
+
+		}
+
+		final Iterator<String> j = this.cache.keySet().iterator();
+		while(this.cache.size() >= this.maxEntries && j.hasNext()){
+
+			j.next();
+			j.remove();
+
+		}
+
+	}
+
+	//============================================================================
+	//  Inner classes
+	//============================================================================
+	/**
+	 * Backend which actually resolves host names.
+	 *
+	 * @author Junpei Kawamoto
+	 * @since 0.3
+	 */
+	public interface Backend{
+
+		/**
+		 * Resolve a host name.
+		 *
+		 * @param host the host name
+		 * @return the addresses of the host
+		 * @throws UnknownHostException if the host cannot be resolved
+		 */
+		public InetAddress[] lookup(final String host) throws UnknownHostException;
+
+		/**
+		 * Look up the host name of an address.
+		 *
+		 * @param addr the address
+		 * @return the host name, or the textual address if the address has no name
+		 */
+		public String reverse(final InetAddress addr);
+
+	}
+
+	/**
+	 * Backend using the name service of the system.
+	 *
+	 * @author Junpei Kawamoto
+	 * @since 0.3
+	 */
+	public static class SystemBackend implements Backend{
+
+		@Override
+		public InetAddress[] lookup(final String host) throws UnknownHostException{
+
+			return InetAddress.getAllByName(host);
+
+		}
+
+		@Override
+		public String reverse(final InetAddress addr){
+
+			return addr.getCanonicalHostName();
+
+		}
+
+	}
+
+	private static final class Entry{
+
+		private final InetAddress[] addresses;
+		private final UnknownHostException error;
+		private final long expires;
+
+		public Entry(final InetAddress[] addresses, final UnknownHostException error, final long expires){
+
+			this.addresses = addresses;
+			this.error = error;
+			this.expires = expires;
+
+		}
+
+		public InetAddress[] get() throws UnknownHostException{
+
+			if(this.addresses == null){
+
+				throw new UnknownHostException(this.error.getMessage());
+
+			}
+			return this.addresses.clone();
+
+		}
+
+	}
+
+	private static final class Name{
+
+		private final String name;
+		private final long expires;
+
+		public Name(final String name, final long expires){
+
+			this.name = name;
+			this.expires = expires;
+
+		}
+
+	}
+
+}
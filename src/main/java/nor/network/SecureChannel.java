@@ -0,0 +1,675 @@
+/*
+ *  Copyright (C) 2011 Junpei Kawamoto
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package nor.network;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ByteChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLEngineResult.HandshakeStatus;
+import javax.net.ssl.SSLException;
+
+import nor.util.log.Logger;
+
+/**
+ * TLS layer between a socket channel and the streams of a {@link Connection}.
+ * 一つの SSLEngine をノンブロッキングに駆動する状態機械で，読み書きとハンドシェークは全て選択スレッドから呼ばれる．
+ * ソケットから読み出せない，あるいは書き込めない場合は 0 を返し，どの選択イベントを待てば良いかは {@link #interestOps(int)} が答える．
+ * 委譲タスクは有界のスレッドプールで実行し，終了後に選択スレッドで処理を再開する．
+ *
+ * @author Junpei Kawamoto
+ * @since 0.3
+ */
+final class SecureChannel implements ByteChannel{
+
+	private final SSLEngine engine;
+	private final SocketChannel channel;
+	private final SelectionWorker worker;
+	private final Runnable resume;
+
+	/** Encrypted data read from the socket (filling mode). */
+	private ByteBuffer netIn;
+
+	/** Encrypted data to be written to the socket (draining mode). */
+	private ByteBuffer netOut;
+
+	/** Decrypted data not yet read by the stream (draining mode). */
+	private ByteBuffer appIn;
+
+	private boolean tasking;
+	private boolean released;
+
+	/** The time when the handshake began, used to tell resumed sessions from new ones. */
+	private final long started;
+	private boolean established;
+
+	private static final ByteBuffer Empty = ByteBuffer.allocate(0);
+
+	private static final BufferPool Buffers = new BufferPool(Network.SecureBufferPoolSize);
+	private static final ThreadPoolExecutor Tasks;
+
+	private static final Logger LOGGER = Logger.getLogger(SecureChannel.class);
+
+	static{
+
+		Tasks = new ThreadPoolExecutor(Network.SecureTaskThreads, Network.SecureTaskThreads, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(Network.SecureTaskQueueSize), new ThreadFactory(){
+
+			@Override
+			public Thread newThread(final Runnable r){
+
+				final Thread th = new Thread(r, "Secure Task Thread");
+				th.setDaemon(true);
+				return th;
+
+			}
+
+		}, new ThreadPoolExecutor.CallerRunsPolicy());
+		Tasks.allowCoreThreadTimeOut(true);
+
+	}
+
+	//============================================================================
+	//  Constructor
+	//============================================================================
+	/**
+	 * Create a TLS layer.
+	 *
+	 * @param engine the engine which has been set to the client or server mode
+	 * @param channel the socket channel
+	 * @param worker the selection worker handling the channel
+	 * @param resume the task which continues reading and writing after delegated tasks, run by the selection thread
+	 * @throws SSLException if the engine cannot begin the handshake
+	 */
+	SecureChannel(final SSLEngine engine, final SocketChannel channel, final SelectionWorker worker, final Runnable resume) throws SSLException{
+		LOGGER.entering("<init>", engine, channel, worker, resume);
+		assert engine != null;
+		assert channel != null;
+		assert worker != null;
+		assert resume != null;
+
+		this.engine = engine;
+		this.channel = channel;
+		this.worker = worker;
+		this.resume = resume;
+
+		final int packetSize = engine.getSession().getPacketBufferSize();
+		final int appSize = engine.getSession().getApplicationBufferSize();
+
+		this.netIn = Buffers.acquire(packetSize);
+		this.netOut = Buffers.acquire(packetSize);
+		this.netOut.limit(0);
+		this.appIn = Buffers.acquire(appSize);
+		this.appIn.limit(0);
+
+		this.started = System.currentTimeMillis();
+		this.engine.beginHandshake();
+
+		LOGGER.exiting("<init>");
+	}
+
+	//============================================================================
+	//  Public methods
+	//============================================================================
+	/**
+	 * Read decrypted data.
+	 *
+	 * @param dst the buffer to which data are transferred
+	 * @return the number of bytes read, 0 if it needs to wait for the socket, or -1 at the end of the stream
+	 * @throws IOException if the socket or the TLS session fails
+	 */
+	@Override
+	public int read(final ByteBuffer dst) throws IOException{
+		LOGGER.entering("read", dst);
+
+		if(!this.appIn.hasRemaining()){
+
+			if(!this.handshake()){
+
+				LOGGER.exiting("read", 0);
+				return 0;
+
+			}
+
+			while(!this.appIn.hasRemaining()){
+
+				if(this.engine.isInboundDone()){
+
+					LOGGER.exiting("read", -1);
+					return -1;
+
+				}
+
+				if(!this.unwrap()){
+
+					final int n = this.channel.read(this.netIn);
+					if(n == -1){
+
+						this.closeInbound();
+
+						LOGGER.exiting("read", -1);
+						return -1;
+
+					}else if(n == 0){
+
+						LOGGER.exiting("read", 0);
+						return 0;
+
+					}
+
+				}
+
+				// The peer may start a handshake again or send post-handshake messages.
+				if(!this.handshake()){
+
+					break;
+
+				}
+
+			}
+
+		}
+
+		final int res = this.transfer(this.appIn, dst);
+
+		LOGGER.exiting("read", res);
+		return res;
+	}
+
+	/**
+	 * Encrypt and write data.
+	 *
+	 * @param src the buffer from which data are transferred
+	 * @return the number of bytes consumed, 0 if it needs to wait for the socket
+	 * @throws IOException if the socket or the TLS session fails
+	 */
+	@Override
+	public int write(final ByteBuffer src) throws IOException{
+		LOGGER.entering("write", src);
+
+		this.flush();
+
+		final int before = src.remaining();
+		while(src.hasRemaining() && !this.netOut.hasRemaining() && this.handshake()){
+
+			if(!this.wrap(src)){
+
+				break;
+
+			}
+
+		}
+
+		final int res = before - src.remaining();
+		LOGGER.exiting("write", res);
+		return res;
+	}
+
+	@Override
+	public boolean isOpen(){
+
+		return this.channel.isOpen();
+
+	}
+
+	/**
+	 * Send a close_notify alert as far as the socket accepts it without blocking.
+	 * The socket channel itself isn't closed.
+	 */
+	@Override
+	public void close(){
+		LOGGER.entering("close");
+
+		if(!this.released){
+
+			this.engine.closeOutbound();
+			try{
+
+				this.flush();
+				while(!this.netOut.hasRemaining() && !this.engine.isOutboundDone() && this.wrap(Empty)){
+
+					this.flush();
+
+				}
+
+			}catch(final IOException e){
+
+				LOGGER.catched(Level.FINE, "close", e);
+
+			}
+
+		}
+
+		LOGGER.exiting("close");
+	}
+
+	//============================================================================
+	//  Package private methods
+	//============================================================================
+	/**
+	 * Write encrypted data which are still buffered.
+	 *
+	 * @throws IOException if the socket fails
+	 */
+	void flush() throws IOException{
+
+		if(this.netOut.hasRemaining()){
+
+			this.channel.write(this.netOut);
+
+		}
+
+	}
+
+	/**
+	 * Compute interest operations of the socket.
+	 *
+	 * @param wanted operations requested by the streams of the connection
+	 * @return operations to be selected
+	 */
+	int interestOps(final int wanted){
+
+		int ops = this.netOut.hasRemaining() ? SelectionKey.OP_WRITE : 0;
+		if(this.tasking || wanted == 0){
+
+			return ops;
+
+		}
+
+		switch(this.engine.getHandshakeStatus()){
+		case NOT_HANDSHAKING:
+		case FINISHED:
+
+			ops |= wanted;
+			break;
+
+		case NEED_UNWRAP:
+
+			ops |= SelectionKey.OP_READ;
+			break;
+
+		default:
+			break;
+
+		}
+		return ops;
+
+	}
+
+	/**
+	 * Check whether data which can be read without the socket may be buffered.
+	 *
+	 * @return true if some data are buffered
+	 */
+	boolean buffered(){
+
+		return this.appIn.hasRemaining() || this.netIn.position() != 0;
+
+	}
+
+	/**
+	 * Check whether encrypted data are waiting for the socket.
+	 *
+	 * @return true if some data are waiting
+	 */
+	boolean pending(){
+
+		return this.netOut.hasRemaining();
+
+	}
+
+	/**
+	 * Put data which have been read from the socket before this layer starts.
+	 *
+	 * @param src the data
+	 */
+	void feed(final ByteBuffer src){
+
+		if(src.remaining() > this.netIn.remaining()){
+
+			this.netIn = this.enlarge(this.netIn, this.netIn.position() + src.remaining(), false);
+
+		}
+		this.netIn.put(src);
+
+	}
+
+	/**
+	 * Return the buffers to the pool.
+	 * This layer cannot be used after this method is called.
+	 */
+	void release(){
+
+		if(!this.released){
+
+			this.released = true;
+
+			Buffers.release(this.netIn);
+			Buffers.release(this.netOut);
+			Buffers.release(this.appIn);
+
+		}
+
+	}
+
+	//============================================================================
+	//  Private methods
+	//============================================================================
+	/**
+	 * Drive the handshake as far as possible without blocking.
+	 *
+	 * @return true if the engine isn't handshaking
+	 */
+	private boolean handshake() throws IOException{
+
+		while(!this.tasking){
+
+			switch(this.engine.getHandshakeStatus()){
+			case NOT_HANDSHAKING:
+			case FINISHED:
+
+				return true;
+
+			case NEED_TASK:
+
+				this.runTasks();
+				return false;
+
+			case NEED_WRAP:
+
+				if(this.netOut.hasRemaining() || !this.wrap(Empty)){
+
+					return false;
+
+				}
+				break;
+
+			default:
+
+				if(this.engine.isInboundDone()){
+
+					return true;
+
+				}
+				if(!this.unwrap()){
+
+					final int n = this.channel.read(this.netIn);
+					if(n == -1){
+
+						this.closeInbound();
+						this.failed();
+						throw new EOFException("Connection is closed during the handshake");
+
+					}else if(n == 0){
+
+						return false;
+
+					}
+
+				}
+				break;
+
+			}
+
+		}
+		return false;
+
+	}
+
+	/**
+	 * Decrypt buffered data into the application buffer.
+	 *
+	 * @return false if more data from the socket are needed
+	 */
+	private boolean unwrap() throws IOException{
+
+		this.netIn.flip();
+		this.appIn.compact();
+
+		final SSLEngineResult res;
+		try{
+
+			res = this.engine.unwrap(this.netIn, this.appIn);
+
+		}catch(final SSLException e){
+
+			this.failed();
+			throw e;
+
+		}finally{
+
+			this.netIn.compact();
+			this.appIn.flip();
+
+		}
+		this.check(res);
+
+		switch(res.getStatus()){
+		case BUFFER_UNDERFLOW:
+
+			if(!this.netIn.hasRemaining()){
+
+				this.netIn = this.enlarge(this.netIn, this.netIn.capacity() + this.engine.getSession().getPacketBufferSize(), false);
+
+			}
+			return false;
+
+		case BUFFER_OVERFLOW:
+
+			this.appIn = this.enlarge(this.appIn, this.appIn.remaining() + this.engine.getSession().getApplicationBufferSize(), true);
+			return true;
+
+		default:
+
+			return true;
+
+		}
+
+	}
+
+	/**
+	 * Encrypt data into the network buffer and write it as far as possible.
+	 *
+	 * @return false if it needs to wait for the socket
+	 */
+	private boolean wrap(final ByteBuffer src) throws IOException{
+
+		this.netOut.compact();
+
+		final SSLEngineResult res;
+		try{
+
+			res = this.engine.wrap(src, this.netOut);
+
+		}catch(final SSLException e){
+
+			this.failed();
+			throw e;
+
+		}finally{
+
+			this.netOut.flip();
+
+		}
+		this.check(res);
+		this.flush();
+
+		switch(res.getStatus()){
+		case BUFFER_OVERFLOW:
+
+			if(this.netOut.hasRemaining()){
+
+				return false;
+
+			}
+			this.netOut = this.enlarge(this.netOut, this.engine.getSession().getPacketBufferSize(), true);
+			return true;
+
+		case CLOSED:
+
+			if(src != Empty){
+
+				throw new SSLException("TLS session is already closed");
+
+			}
+			return res.bytesProduced() != 0;
+
+		default:
+
+			return true;
+
+		}
+
+	}
+
+	/**
+	 * Count the handshake when the engine reports it has finished for the first time.
+	 */
+	private void check(final SSLEngineResult res){
+
+		if(!this.established && res.getHandshakeStatus() == HandshakeStatus.FINISHED){
+
+			this.established = true;
+
+			final boolean resumed = this.engine.getSession().getCreationTime() < this.started;
+			SecureStatistics.getInstance().handshake(this.engine.getUseClientMode(), resumed);
+			LOGGER.fine("check", "Handshake finished ({0}, resumed = {1})", this.engine.getSession().getCipherSuite(), resumed);
+
+		}
+
+	}
+
+	/**
+	 * Count a handshake which failed before it finished.
+	 */
+	private void failed(){
+
+		if(!this.established){
+
+			this.established = true;
+			SecureStatistics.getInstance().failure();
+
+		}
+
+	}
+
+	/**
+	 * Run delegated tasks of the engine in the task pool, and resume by the selection thread.
+	 */
+	private void runTasks(){
+
+		this.tasking = true;
+		Tasks.execute(new Runnable(){
+
+			@Override
+			public void run(){
+
+				for(Runnable task; (task = SecureChannel.this.engine.getDelegatedTask()) != null;){
+
+					task.run();
+
+				}
+
+				SecureChannel.this.worker.invoke(new Runnable(){
+
+					@Override
+					public void run(){
+
+						SecureChannel.this.tasking = false;
+						SecureChannel.this.resume.run();
+
+					}
+
+				});
+
+			}
+
+		});
+
+	}
+
+	private void closeInbound(){
+
+		try{
+
+			this.engine.closeInbound();
+
+		}catch(final SSLException e){
+
+			// The peer closed the socket without close_notify.
+			LOGGER.fine("closeInbound", "{0}", e.getMessage());
+
+		}
+
+	}
+
+	private int transfer(final ByteBuffer src, final ByteBuffer dst){
+
+		final int n = Math.min(src.remaining(), dst.remaining());
+		if(n == src.remaining()){
+
+			dst.put(src);
+
+		}else{
+
+			final int limit = src.limit();
+			src.limit(src.position() + n);
+			dst.put(src);
+			src.limit(limit);
+
+		}
+		return n;
+
+	}
+
+	/**
+	 * Replace a buffer with a larger one keeping its contents.
+	 *
+	 * @param draining true if the buffer is in the draining mode, false if in the filling mode
+	 */
+	private ByteBuffer enlarge(final ByteBuffer buffer, final int capacity, final boolean draining){
+
+		final ByteBuffer res = Buffers.acquire(capacity > buffer.capacity() ? capacity : buffer.capacity() * 2);
+		if(!draining){
+
+			buffer.flip();
+
+		}
+		res.put(buffer);
+		if(draining){
+
+			res.flip();
+
+		}
+		Buffers.release(buffer);
+
+		LOGGER.finer("enlarge", "Enlarge a buffer to {0} bytes", res.capacity());
+		return res;
+
+	}
+
+}
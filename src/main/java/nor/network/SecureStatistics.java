@@ -0,0 +1,225 @@
+/*
+ *  Copyright (C) 2011 Junpei Kawamoto
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package nor.network;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import nor.util.log.Logger;
+import nor.util.metrics.Gauge;
+import nor.util.metrics.Metrics;
+
+/**
+ * Counters of TLS handshakes on connections.
+ * A handshake is counted as a resumption if its session was created before the handshake began,
+ * i.e. the session was taken from the session cache or a session ticket.
+ * The counters are registered to the platform MBean server as {@value #Name}, and also exported as metrics.
+ *
+ * @author Junpei Kawamoto
+ * @since 0.3
+ */
+public final class SecureStatistics implements SecureStatisticsMBean{
+
+	private final AtomicLong serverHandshakes = new AtomicLong();
+	private final AtomicLong serverResumptions = new AtomicLong();
+	private final AtomicLong clientHandshakes = new AtomicLong();
+	private final AtomicLong clientResumptions = new AtomicLong();
+	private final AtomicLong failures = new AtomicLong();
+
+	private static final SecureStatistics Instance = new SecureStatistics();
+
+	/**
+	 * Object name of the MBean.
+	 */
+	public static final String Name = "nor.network:type=SecureStatistics";
+
+	private static final Logger LOGGER = Logger.getLogger(SecureStatistics.class);
+
+	//============================================================================
+	//  Constructor
+	//============================================================================
+	private SecureStatistics(){}
+
+	//============================================================================
+	//  Public methods
+	//============================================================================
+	/**
+	 * Get the counters of this process.
+	 *
+	 * @return the counters
+	 */
+	public static SecureStatistics getInstance(){
+
+		return Instance;
+
+	}
+
+	@Override
+	public long getServerHandshakes(){
+
+		return this.serverHandshakes.get();
+
+	}
+
+	@Override
+	public long getServerResumptions(){
+
+		return this.serverResumptions.get();
+
+	}
+
+	@Override
+	public long getClientHandshakes(){
+
+		return this.clientHandshakes.get();
+
+	}
+
+	@Override
+	public long getClientResumptions(){
+
+		return this.clientResumptions.get();
+
+	}
+
+	@Override
+	public long getFailures(){
+
+		return this.failures.get();
+
+	}
+
+	@Override
+	public String toString(){
+
+		return String.format("%s(server = %d/%d, client = %d/%d, failures = %d)", this.getClass().getSimpleName(),
+				this.getServerResumptions(), this.getServerHandshakes(), this.getClientResumptions(), this.getClientHandshakes(), this.getFailures());
+
+	}
+
+	//============================================================================
+	//  Package private methods
+	//============================================================================
+	void handshake(final boolean client, final boolean resumed){
+
+		if(client){
+
+			this.clientHandshakes.incrementAndGet();
+			if(resumed){
+
+				this.clientResumptions.incrementAndGet();
+
+			}
+
+		}else{
+
+			this.serverHandshakes.incrementAndGet();
+			if(resumed){
+
+				this.serverResumptions.incrementAndGet();
+
+			}
+
+		}
+
+	}
+
+	void failure(){
+
+		this.failures.incrementAndGet();
+
+	}
+
+	//============================================================================
+	//  Class constructor
+	//============================================================================
+	static{
+
+		try{
+
+			ManagementFactory.getPlatformMBeanServer().registerMBean(Instance, new ObjectName(Name));
+
+		}catch(final JMException e){
+
+			LOGGER.warning("<class init>", "Cannot register the MBean ({0})", e);
+
+		}
+
+		final String handshakes = "nor_tls_handshakes_total";
+		final String handshakesHelp = "Number of completed TLS handshakes.";
+		Metrics.counter(handshakes, handshakesHelp, new Gauge(){
+
+			@Override
+			public long get(){
+
+				return Instance.getServerHandshakes();
+
+			}
+
+		}, "side", "server");
+		Metrics.counter(handshakes, handshakesHelp, new Gauge(){
+
+			@Override
+			public long get(){
+
+				return Instance.getClientHandshakes();
+
+			}
+
+		}, "side", "client");
+
+		final String resumptions = "nor_tls_resumptions_total";
+		final String resumptionsHelp = "Number of TLS handshakes which resumed a session.";
+		Metrics.counter(resumptions, resumptionsHelp, new Gauge(){
+
+			@Override
+			public long get(){
+
+				return Instance.getServerResumptions();
+
+			}
+
+		}, "side", "server");
+		Metrics.counter(resumptions, resumptionsHelp, new Gauge(){
+
+			@Override
+			public long get(){
+
+				return Instance.getClientResumptions();
+
+			}
+
+		}, "side", "client");
+
+		Metrics.counter("nor_tls_failures_total", "Number of failed TLS handshakes.", new Gauge(){
+
+			@Override
+			public long get(){
+
+				return Instance.getFailures();
+
+			}
+
+		});
+
+	}
+
+}
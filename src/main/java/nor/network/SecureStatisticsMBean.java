@@ -0,0 +1,63 @@
+/*
+ *  Copyright (C) 2011 Junpei Kawamoto
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package nor.network;
+
+/**
+ * Management interface of {@link SecureStatistics}.
+ *
+ * @author Junpei Kawamoto
+ * @since 0.3
+ */
+public interface SecureStatisticsMBean{
+
+	/**
+	 * Get the number of handshakes done as a server, including resumed ones.
+	 *
+	 * @return the number of handshakes
+	 */
+	public long getServerHandshakes();
+
+	/**
+	 * Get the number of handshakes done as a server which resumed cached sessions.
+	 *
+	 * @return the number of resumptions
+	 */
+	public long getServerResumptions();
+
+	/**
+	 * Get the number of handshakes done as a client, including resumed ones.
+	 *
+	 * @return the number of handshakes
+	 */
+	public long getClientHandshakes();
+
+	/**
+	 * Get the number of handshakes done as a client which resumed cached sessions.
+	 *
+	 * @return the number of resumptions
+	 */
+	public long getClientResumptions();
+
+	/**
+	 * Get the number of failed handshakes.
+	 *
+	 * @return the number of failures
+	 */
+	public long getFailures();
+
+}
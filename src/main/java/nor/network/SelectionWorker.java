@@ -18,8 +18,11 @@
 package nor.network;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.net.InetSocketAddress;
 import java.net.SocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
 import java.nio.channels.CancelledKeyException;
 import java.nio.channels.ClosedSelectorException;
 import java.nio.channels.ReadableByteChannel;
@@ -28,17 +31,39 @@ import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
 import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
+import java.nio.channels.UnresolvedAddressException;
 import java.nio.channels.WritableByteChannel;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
 import java.util.logging.Level;
 
 import nor.util.log.Logger;
+import nor.util.metrics.Counter;
+import nor.util.metrics.Histogram;
+import nor.util.metrics.Metrics;
 
 public class SelectionWorker implements Runnable{
 
 	private final Selector selector;
+	private final TimerWheel timer;
+
+	/**
+	 * Tasks run by the selection thread at the next selection.
+	 */
+	private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<Runnable>();
+	private volatile Thread thread;
 
 	private static final Logger LOGGER = Logger.getLogger(SelectionWorker.class);
 
+	/**
+	 * Time spent handling selected keys, excluding the time blocked in select.
+	 */
+	private static final Histogram LoopTime = Metrics.histogram("nor_selector_loop_seconds", "Time spent handling the selected keys in one selection.");
+	private static final Counter Events = Metrics.counter("nor_selector_events_total", "Number of selected keys handled by selection threads.");
+
 	//============================================================================
 	// Constructor
 	//============================================================================
@@ -46,6 +71,7 @@ public class SelectionWorker implements Runnable{
 		LOGGER.entering("<init>");
 
 		this.selector = Selector.open();
+		this.timer = new TimerWheel(Network.TimerTick, Network.TimerSlots);
 
 		LOGGER.exiting("<init>");
 	}
@@ -57,14 +83,18 @@ public class SelectionWorker implements Runnable{
 	public void run(){
 		LOGGER.entering("run");
 
-		Thread.currentThread().setName("Selection Thread");
+		this.thread = Thread.currentThread();
+		this.thread.setName("Selection Thread");
 		while(!Thread.currentThread().isInterrupted()){
 
 			try{
 
-				final int nc = this.selector.select(Network.Timeout);
+				final int nc = this.selector.select(this.timer.getTick());
+				final long start = Metrics.start();
 				LOGGER.finest("run", "Begin a selection ({0} selected keys, {1} registrated keys)", nc, this.selector.keys().size());
+				this.runTasks();
 				if(nc == 0){
+					this.timer.expire();
 					this.onIdle();
 					continue;
 				}
@@ -102,6 +132,9 @@ public class SelectionWorker implements Runnable{
 				}
 
 				this.selector.selectedKeys().clear();
+				this.timer.expire();
+				Events.add(nc);
+				LoopTime.recordSince(start);
 				LOGGER.finest("run", "Ends the selection");
 
 			}catch(final ClosedSelectorException e){
@@ -122,6 +155,7 @@ public class SelectionWorker implements Runnable{
 			}
 
 		}
+		this.thread = null;
 
 		try {
 
@@ -138,6 +172,9 @@ public class SelectionWorker implements Runnable{
 
 	/**
 	 * Register a channel with interesting operations and a handler.
+	 * If the selection thread is running and this method is called by another thread,
+	 * the registration is done by the selection thread and this method waits for it.
+	 *
 	 * @param channel Selectable channel to be registerd
 	 * @param ops Interesting operations (OR conjuncted)
 	 * @param handler A handler object.
@@ -150,13 +187,176 @@ public class SelectionWorker implements Runnable{
 		assert ops >= 0;
 		assert handler != null;
 
-		channel.configureBlocking(false);
-		final SelectionKey key = channel.register(this.selector, ops, handler);
+		final Callable<SelectionKey> task = new Callable<SelectionKey>(){
+
+			@Override
+			public SelectionKey call() throws IOException{
+
+				channel.configureBlocking(false);
+				return channel.register(SelectionWorker.this.selector, ops, handler);
+
+			}
+
+		};
+
+		final SelectionKey key;
+		if(this.thread == null || this.isSelectionThread()){
+
+			channel.configureBlocking(false);
+			key = channel.register(this.selector, ops, handler);
+
+		}else{
+
+			key = this.invokeAndWait(task);
+
+		}
 
 		LOGGER.exiting("register", key);
 		return key;
 	}
 
+	/**
+	 * Cancel a registration and wait until the channel is deregistered from the selector.
+	 * After this method returns, the channel can be configured to the blocking mode.
+	 * If this method is called by the selection thread, it doesn't wait.
+	 *
+	 * @param key the selection key to be cancelled
+	 * @throws IOException if interrupted while waiting
+	 */
+	public void deregister(final SelectionKey key) throws IOException{
+		LOGGER.entering("deregister", key);
+		assert key != null;
+
+		key.cancel();
+		if(this.thread != null && !this.isSelectionThread()){
+
+			// Cancelled keys are deregistered by the next selection, which is done before the task runs.
+			this.invokeAndWait(new Callable<Void>(){
+
+				@Override
+				public Void call(){
+
+					return null;
+
+				}
+
+			});
+
+		}
+
+		LOGGER.exiting("deregister");
+	}
+
+	/**
+	 * Run a task by the selection thread.
+	 * The task will be run after the next selection, so it must not block.
+	 *
+	 * @param task the task to be run
+	 */
+	public void invoke(final Runnable task){
+		LOGGER.entering("invoke", task);
+		assert task != null;
+
+		this.tasks.add(task);
+		this.selector.wakeup();
+
+		LOGGER.exiting("invoke");
+	}
+
+	/**
+	 * Connect to a remote address without blocking.
+	 * The connection is established by the selection thread, and the handler is also called by the selection thread.
+	 * A slow peer costs only a selection key and a timeout of the timer until it accepts the connection.
+	 *
+	 * @param addr the remote address, which must be resolved
+	 * @param timeout the connect timeout in milliseconds, or 0 for no timeout
+	 * @param handler the handler notified of the result
+	 */
+	public void connect(final SocketAddress addr, final int timeout, final ConnectEventHandler handler){
+		LOGGER.entering("connect", addr, timeout, handler);
+		assert addr != null;
+		assert timeout >= 0;
+		assert handler != null;
+
+		this.invoke(new PendingConnect(addr, timeout, handler));
+
+		LOGGER.exiting("connect");
+	}
+
+	/**
+	 * Connect to a remote address and create a connection driven by this selector.
+	 * The calling thread waits for the connection, but connecting itself is done by the selection thread.
+	 *
+	 * @param addr the remote address, which must be resolved
+	 * @param timeout the connect timeout in milliseconds, or 0 for no timeout
+	 * @return the established connection
+	 * @throws IOException if the connection cannot be established
+	 */
+	public Connection openConnection(final SocketAddress addr, final int timeout) throws IOException{
+		LOGGER.entering("openConnection", addr, timeout);
+
+		final SocketChannel ch = this.openSocketChannel(addr, timeout);
+		final Connection res;
+		try{
+
+			res = new Connection(ch, this);
+
+		}catch(final IOException e){
+
+			ch.close();
+
+			LOGGER.throwing("openConnection", e);
+			throw e;
+
+		}
+
+		LOGGER.exiting("openConnection", res);
+		return res;
+	}
+
+	/**
+	 * Connect to a remote address and return the channel in the blocking mode.
+	 * The channel is deregistered from this selector, so that the caller can use it as an ordinary socket.
+	 *
+	 * @param addr the remote address, which must be resolved
+	 * @param timeout the connect timeout in milliseconds, or 0 for no timeout
+	 * @return the connected channel
+	 * @throws IOException if the connection cannot be established
+	 */
+	public SocketChannel openChannel(final SocketAddress addr, final int timeout) throws IOException{
+		LOGGER.entering("openChannel", addr, timeout);
+
+		final SocketChannel ch = this.openSocketChannel(addr, timeout);
+		try{
+
+			this.deregister(ch.keyFor(this.selector));
+			ch.configureBlocking(true);
+
+		}catch(final IOException e){
+
+			ch.close();
+
+			LOGGER.throwing("openChannel", e);
+			throw e;
+
+		}
+
+		LOGGER.exiting("openChannel", ch);
+		return ch;
+	}
+
+	/**
+	 * Get the timer driven by this selection loop.
+	 * Tasks scheduled to the timer are run by the selection thread, so that they must not block.
+	 *
+	 * @return the timer of this selector
+	 */
+	public TimerWheel getTimer(){
+
+		return this.timer;
+
+	}
+
 	public PortListener createPortListener(final String host, final int port) throws IOException{
 
 		return createPortListener(new InetSocketAddress(host, port));
@@ -181,4 +381,345 @@ public class SelectionWorker implements Runnable{
 
 	}
 
+	//============================================================================
+	// Package private methods
+	//============================================================================
+	/**
+	 * Run a task by the selection thread.
+	 * If this method is called by the selection thread or the selection thread isn't running,
+	 * the task is run immediately.
+	 *
+	 * @param task the task to be run
+	 */
+	void execute(final Runnable task){
+
+		if(this.thread == null || this.isSelectionThread()){
+
+			task.run();
+
+		}else{
+
+			this.invoke(task);
+
+		}
+
+	}
+
+	boolean isSelectionThread(){
+
+		return Thread.currentThread() == this.thread;
+
+	}
+
+	//============================================================================
+	// Private methods
+	//============================================================================
+	private void runTasks(){
+
+		Runnable task;
+		while((task = this.tasks.poll()) != null){
+
+			try{
+
+				task.run();
+
+			}catch(final RuntimeException e){
+
+				LOGGER.warning("runTasks", "Task {0} failed ({1})", task, e);
+				LOGGER.catched(Level.FINE, "runTasks", e);
+
+			}
+
+		}
+
+	}
+
+	private <T> T invokeAndWait(final Callable<T> call) throws IOException{
+		assert !this.isSelectionThread();
+
+		final FutureTask<T> task = new FutureTask<T>(call);
+		this.invoke(task);
+		try{
+
+			return task.get();
+
+		}catch(final InterruptedException e){
+
+			LOGGER.catched(Level.FINE, "invokeAndWait", e);
+			Thread.currentThread().interrupt();
+			task.cancel(false);
+
+			throw new InterruptedIOException();
+
+		}catch(final ExecutionException e){
+
+			if(e.getCause() instanceof IOException){
+
+				throw (IOException)e.getCause();
+
+			}
+			throw new IOException(e.getCause());
+
+		}
+
+	}
+
+	private SocketChannel openSocketChannel(final SocketAddress addr, final int timeout) throws IOException{
+		assert !this.isSelectionThread();
+
+		final ConnectWaiter waiter = new ConnectWaiter();
+		this.connect(addr, timeout, waiter);
+
+		return waiter.await();
+
+	}
+
+	//============================================================================
+	// Inner classes
+	//============================================================================
+	/**
+	 * Handler of results of non-blocking connects.
+	 * Methods of this handler are called by the selection thread, so that they must not block.
+	 *
+	 * @author Junpei Kawamoto
+	 * @since 0.3
+	 */
+	public interface ConnectEventHandler{
+
+		/**
+		 * Called when the connection is established.
+		 * The channel is still registered to the selector without any interesting operations.
+		 *
+		 * @param ch the connected channel
+		 */
+		public void onConnect(final SocketChannel ch);
+
+		/**
+		 * Called when the connection cannot be established.
+		 * The channel has already been closed.
+		 *
+		 * @param e the cause
+		 */
+		public void onFailure(final IOException e);
+
+	}
+
+	/**
+	 * State of a connect in progress, which lives in the selection thread.
+	 */
+	private final class PendingConnect extends SelectionEventHandlerAdapter implements Runnable{
+
+		private final SocketAddress addr;
+		private final int timeout;
+		private final ConnectEventHandler handler;
+
+		private SocketChannel channel;
+		private SelectionKey key;
+		private TimerWheel.Timeout deadline;
+		private boolean done;
+
+		private final Runnable expiry = new Runnable(){
+
+			@Override
+			public void run(){
+
+				PendingConnect.this.complete(new SocketTimeoutException("Connect timed out"));
+
+			}
+
+		};
+
+		public PendingConnect(final SocketAddress addr, final int timeout, final ConnectEventHandler handler){
+
+			this.addr = addr;
+			this.timeout = timeout;
+			this.handler = handler;
+
+		}
+
+		/**
+		 * Start connecting; called by the selection thread.
+		 */
+		@Override
+		public void run(){
+
+			try{
+
+				this.channel = SocketChannel.open();
+				this.channel.configureBlocking(false);
+				this.key = this.channel.register(SelectionWorker.this.selector, SelectionKey.OP_CONNECT, this);
+				if(this.timeout > 0){
+
+					this.deadline = SelectionWorker.this.timer.schedule(this.expiry, this.timeout);
+
+				}
+
+				if(this.channel.connect(this.addr)){
+
+					this.complete(null);
+
+				}
+
+			}catch(final UnresolvedAddressException e){
+
+				LOGGER.catched(Level.FINE, "run", e);
+				this.complete(new UnknownHostException(this.addr.toString()));
+
+			}catch(final IOException e){
+
+				this.complete(e);
+
+			}
+
+		}
+
+		@Override
+		public void onConnect(final SocketChannel ch){
+
+			try{
+
+				if(ch.finishConnect()){
+
+					this.complete(null);
+
+				}
+
+			}catch(final IOException e){
+
+				this.complete(e);
+
+			}
+
+		}
+
+		@Override
+		public String toString(){
+
+			return String.format("%s(addr = %s)", this.getClass().getSimpleName(), this.addr);
+
+		}
+
+		private void complete(final IOException error){
+
+			if(this.done){
+
+				return;
+
+			}
+			this.done = true;
+
+			if(this.deadline != null){
+
+				this.deadline.cancel();
+
+			}
+
+			if(error == null){
+
+				LOGGER.fine("complete", "Connected to {0}", this.addr);
+				this.key.interestOps(0);
+				this.handler.onConnect(this.channel);
+
+			}else{
+
+				LOGGER.fine("complete", "Cannot connect to {0} ({1})", this.addr, error);
+				if(this.key != null){
+
+					this.key.cancel();
+
+				}
+				if(this.channel != null){
+
+					try{
+
+						this.channel.close();
+
+					}catch(final IOException e){
+
+						LOGGER.catched(Level.FINE, "complete", e);
+
+					}
+
+				}
+				this.handler.onFailure(error);
+
+			}
+
+		}
+
+	}
+
+	/**
+	 * Connect event handler which lets another thread wait for the result.
+	 */
+	private static final class ConnectWaiter implements ConnectEventHandler{
+
+		private boolean done;
+		private boolean abandoned;
+		private SocketChannel channel;
+		private IOException error;
+
+		@Override
+		public synchronized void onConnect(final SocketChannel ch){
+
+			if(this.abandoned){
+
+				// Nobody waits for this channel any more.
+				try{
+
+					ch.close();
+
+				}catch(final IOException e){
+
+					LOGGER.catched(Level.FINE, "onConnect", e);
+
+				}
+
+			}
+			this.channel = ch;
+			this.done = true;
+			this.notifyAll();
+
+		}
+
+		@Override
+		public synchronized void onFailure(final IOException e){
+
+			this.error = e;
+			this.done = true;
+			this.notifyAll();
+
+		}
+
+		public synchronized SocketChannel await() throws IOException{
+
+			try{
+
+				while(!this.done){
+
+					this.wait();
+
+				}
+
+			}catch(final InterruptedException e){
+
+				LOGGER.catched(Level.FINE, "await", e);
+				Thread.currentThread().interrupt();
+				this.abandoned = true;
+
+				throw new InterruptedIOException();
+
+			}
+
+			if(this.error != null){
+
+				throw this.error;
+
+			}
+			return this.channel;
+
+		}
+
+	}
+
 }
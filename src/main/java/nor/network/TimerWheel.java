@@ -0,0 +1,340 @@
+/*
+ *  Copyright (C) 2011 Junpei Kawamoto
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package nor.network;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+
+import nor.util.log.Logger;
+
+/**
+ * Hashed wheel timer.
+ * 期限の登録と取り消しは O(1) で行われ，期限切れの処理はまとめて {@link #expire(long)} で行われる．
+ * {@link SelectionWorker} が 1 つずつ所有し，選択ループから駆動する．
+ *
+ * @author Junpei Kawamoto
+ * @since 0.3
+ */
+public class TimerWheel{
+
+	private final long tick;
+	private final int mask;
+	private final Timeout[] wheel;
+
+	private final long origin;
+	private long current;
+	private int size;
+
+	private static final Logger LOGGER = Logger.getLogger(TimerWheel.class);
+
+	//============================================================================
+	//  Constructor
+	//============================================================================
+	/**
+	 * Create a timer wheel.
+	 *
+	 * @param tick the duration of a tick in milliseconds
+	 * @param slots the number of slots (rounded up to a power of two)
+	 */
+	public TimerWheel(final long tick, final int slots){
+		LOGGER.entering("<init>", tick, slots);
+
+		if(tick <= 0){
+
+			final IllegalArgumentException e = new IllegalArgumentException("tick must be positive");
+			LOGGER.throwing("<init>", e);
+
+			throw e;
+
+		}
+		if(slots <= 0 || slots > (1 << 30)){
+
+			final IllegalArgumentException e = new IllegalArgumentException("slots is out of range");
+			LOGGER.throwing("<init>", e);
+
+			throw e;
+
+		}
+
+		int n = 1;
+		while(n < slots){
+
+			n <<= 1;
+
+		}
+
+		this.tick = tick;
+		this.mask = n - 1;
+		this.wheel = new Timeout[n];
+		for(int i = 0; i != n; ++i){
+
+			// Sentinel of the doubly linked list of each slot.
+			final Timeout head = new Timeout(null, 0);
+			head.next = head;
+			head.prev = head;
+			this.wheel[i] = head;
+
+		}
+
+		this.origin = System.currentTimeMillis();
+		this.current = 0;
+
+		LOGGER.exiting("<init>");
+	}
+
+	//============================================================================
+	//  Public methods
+	//============================================================================
+	/**
+	 * Schedule a task.
+	 * The task will be run by the thread calling {@link #expire(long)}, so it must not block.
+	 *
+	 * @param task the task to be run when the deadline expires
+	 * @param delay the delay in milliseconds
+	 * @return a handle to cancel this task
+	 */
+	public Timeout schedule(final Runnable task, final long delay){
+		LOGGER.entering("schedule", task, delay);
+		assert task != null;
+
+		final long deadline = System.currentTimeMillis() + Math.max(delay, 0);
+		final Timeout res = new Timeout(task, deadline);
+		synchronized(this){
+
+			final long ticks = Math.max((deadline - this.origin + this.tick - 1) / this.tick, this.current);
+			res.rounds = (ticks - this.current) / this.wheel.length;
+
+			final Timeout head = this.wheel[(int)(ticks & this.mask)];
+			res.prev = head.prev;
+			res.next = head;
+			head.prev.next = res;
+			head.prev = res;
+
+			++this.size;
+
+		}
+
+		LOGGER.exiting("schedule", res);
+		return res;
+	}
+
+	/**
+	 * Run tasks whose deadlines have expired at the current time.
+	 *
+	 * @return the number of expired tasks
+	 */
+	public int expire(){
+
+		return this.expire(System.currentTimeMillis());
+
+	}
+
+	/**
+	 * Run tasks whose deadlines have expired at the given time.
+	 *
+	 * @param now the current time in milliseconds
+	 * @return the number of expired tasks
+	 */
+	public int expire(final long now){
+
+		List<Timeout> expired = null;
+		synchronized(this){
+
+			final long target = (now - this.origin) / this.tick;
+			while(this.current <= target){
+
+				final Timeout head = this.wheel[(int)(this.current & this.mask)];
+				Timeout t = head.next;
+				while(t != head){
+
+					final Timeout next = t.next;
+					if(t.rounds <= 0){
+
+						t.unlink();
+						t.expired = true;
+						--this.size;
+
+						if(expired == null){
+
+							expired = new ArrayList<Timeout>();
+
+						}
+						expired.add(t);
+
+					}else{
+
+						--t.rounds;
+
+					}
+					t = next;
+
+				}
+				++this.current;
+
+			}
+
+		}
+
+		if(expired == null){
+
+			return 0;
+
+		}
+
+		for(final Timeout t : expired){
+
+			try{
+
+				t.task.run();
+
+			}catch(final RuntimeException e){
+
+				LOGGER.warning("expire", "Timeout task {0} failed ({1})", t.task, e);
+				LOGGER.catched(Level.FINE, "expire", e);
+
+			}
+
+		}
+
+		LOGGER.finer("expire", "{0} timeouts expired", expired.size());
+		return expired.size();
+
+	}
+
+	/**
+	 * Get the duration of a tick.
+	 *
+	 * @return the duration of a tick in milliseconds
+	 */
+	public long getTick(){
+
+		return this.tick;
+
+	}
+
+	/**
+	 * Get the number of pending timeouts.
+	 *
+	 * @return the number of pending timeouts
+	 */
+	public synchronized int size(){
+
+		return this.size;
+
+	}
+
+	//============================================================================
+	//  Inner classes
+	//============================================================================
+	/**
+	 * Handle of a scheduled task.
+	 *
+	 * @author Junpei Kawamoto
+	 * @since 0.3
+	 */
+	public final class Timeout{
+
+		private final Runnable task;
+		private final long deadline;
+
+		private long rounds;
+		private Timeout prev;
+		private Timeout next;
+
+		private boolean expired;
+		private boolean cancelled;
+
+		private Timeout(final Runnable task, final long deadline){
+
+			this.task = task;
+			this.deadline = deadline;
+
+		}
+
+		/**
+		 * Cancel this task.
+		 * If the task has already expired, this method does nothing.
+		 *
+		 * @return true if this task was cancelled by this call
+		 */
+		public boolean cancel(){
+
+			synchronized(TimerWheel.this){
+
+				if(this.expired || this.cancelled){
+
+					return false;
+
+				}
+
+				this.unlink();
+				this.cancelled = true;
+				--TimerWheel.this.size;
+
+				return true;
+
+			}
+
+		}
+
+		public boolean isExpired(){
+
+			synchronized(TimerWheel.this){
+
+				return this.expired;
+
+			}
+
+		}
+
+		public boolean isCancelled(){
+
+			synchronized(TimerWheel.this){
+
+				return this.cancelled;
+
+			}
+
+		}
+
+		public long getDeadline(){
+
+			return this.deadline;
+
+		}
+
+		@Override
+		public String toString(){
+
+			return String.format("%s(deadline = %d, task = %s)", this.getClass().getSimpleName(), this.deadline, this.task);
+
+		}
+
+		private void unlink(){
+
+			this.prev.next = this.next;
+			this.next.prev = this.prev;
+			this.prev = null;
+			this.next = null;
+
+		}
+
+	}
+
+}
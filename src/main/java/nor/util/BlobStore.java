@@ -0,0 +1,1658 @@
+/*
+ *  Copyright (C) 2011 Junpei Kawamoto
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package nor.util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.logging.Level;
+import java.util.zip.CRC32;
+
+import nor.util.io.ByteBufferInputStream;
+import nor.util.log.Logger;
+
+/**
+ * ログ構造のバイナリオブジェクトストア．
+ * オブジェクトを一つずつファイルに保存する代わりに，大きなセグメントファイルへ追記し，
+ * キーのハッシュからセグメント，位置，長さを引く索引をヒープ上に持ちます．
+ * セグメントはメモリマップされ，読み出しはマップしたバッファのビューか，
+ * {@link FileChannel#transferTo(long, long, WritableByteChannel)} によるゼロコピー転送で行います．
+ *
+ * 追記中のセグメントは書き込み中のオブジェクトが占有するため，同時に書き込まれるオブジェクトが混ざることはありません．
+ * 索引は一定間隔でファイルに書き出され (チェックポイント)，起動時にはチェックポイント以降に追記されたレコードを
+ * セグメントから読み直して復元します．不要になったレコードが多いセグメントは，生きているレコードを
+ * 別のセグメントへ移してから削除します (コンパクション)．
+ *
+ * <pre>
+ * segment = "NBS" version(1 byte) reserved(4 bytes) *record
+ * record  = marker(int) crc(int) length(long) sequence(long) keyLength(unsigned short) key data
+ * index   = "NBI" version(1 byte) sequence(long) segments(int) *(id(int) end(int))
+ *           entries(int) *(hash(long) location(long) length(long))
+ * </pre>
+ * crc はデータの CRC32，length が -1 のレコードは削除を表します．
+ * sequence は書き込み順の番号で，復元時に同じキーのレコードが複数ある場合は大きい方が採用されます．
+ * キーが異なっても 64 ビットのハッシュが一致する場合は，後から書き込んだ方が残ります．
+ *
+ * @author Junpei Kawamoto
+ * @since 0.3
+ */
+public final class BlobStore implements Closeable{
+
+	/**
+	 * セグメントの標準の大きさ
+	 */
+	public static final int DefaultSegmentSize = 64 * 1024 * 1024;
+
+	/**
+	 * 保存できるオブジェクトの最大の大きさ
+	 */
+	public static final int MaxObjectSize = 1 << 30;
+
+	private static final byte[] SegmentMagic = {'N', 'B', 'S', 1};
+	private static final byte[] IndexMagic = {'N', 'B', 'I', 1};
+	private static final int Marker = 0x4e425231;
+
+	private static final int Start = 8;
+	private static final int HeaderSize = 26;
+	private static final int MaxKeyLength = 0xffff;
+	private static final int MinFree = 64 * 1024;
+	private static final double CompactionThreshold = 0.5;
+
+	private static final String SegmentSuffix = ".seg";
+	private static final String IndexFile = "index";
+	private static final String IndexTmp = "index.tmp";
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private final File dir;
+	private final int segmentSize;
+
+	/**
+	 * 索引とセグメントの一覧を守るロック
+	 */
+	private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+	private final Map<Integer, Segment> segments = new HashMap<Integer, Segment>();
+	private final Deque<Segment> appendable = new ArrayDeque<Segment>();
+	private final Index index = new Index();
+	private int nextSegment = 0;
+	private long sequence = 0;
+	private boolean dirty = false;
+
+	private final Thread maintainer;
+	private volatile boolean closed = false;
+
+	private static final Logger LOGGER = Logger.getLogger(BlobStore.class);
+
+	//============================================================================
+	//  Constructor
+	//============================================================================
+	/**
+	 * 標準の設定でストアを開く．
+	 * 索引は 30 秒ごとに書き出されます．
+	 *
+	 * @param dir セグメントと索引を置くディレクトリ
+	 * @throws IOException ストアの読み込みにエラーが発生した場合
+	 */
+	public BlobStore(final File dir) throws IOException{
+		this(dir, DefaultSegmentSize, 30, TimeUnit.SECONDS);
+	}
+
+	/**
+	 * ストアを開く．
+	 * ディレクトリにストアがあれば，チェックポイントとセグメントから索引を復元します．
+	 *
+	 * @param dir セグメントと索引を置くディレクトリ
+	 * @param segmentSize セグメントの大きさ
+	 * @param interval チェックポイントとコンパクションの間隔，0 の場合は自動では行わない
+	 * @param unit interval の単位
+	 * @throws IOException ストアの読み込みにエラーが発生した場合
+	 */
+	public BlobStore(final File dir, final int segmentSize, final long interval, final TimeUnit unit) throws IOException{
+		LOGGER.entering("<init>", dir, segmentSize, interval);
+		assert dir != null;
+		assert segmentSize > Start + HeaderSize;
+		assert interval >= 0;
+
+		this.dir = dir;
+		this.segmentSize = segmentSize;
+
+		if(!dir.isDirectory() && !dir.mkdirs()){
+
+			throw new IOException(String.format("Cannot create %s", dir));
+
+		}
+		this.recover();
+
+		if(interval > 0){
+
+			final long millis = unit.toMillis(interval);
+			this.maintainer = new Thread(new Runnable(){
+
+				@Override
+				public void run(){
+
+					BlobStore.this.maintain(millis);
+
+				}
+
+			}, "Blob Store Maintainer");
+			this.maintainer.setDaemon(true);
+			this.maintainer.start();
+
+		}else{
+
+			this.maintainer = null;
+
+		}
+
+		LOGGER.exiting("<init>");
+	}
+
+	//============================================================================
+	//  Public methods
+	//============================================================================
+	/**
+	 * オブジェクトを書き込むライタを作成する．
+	 * {@link Writer#commit()} を呼ぶまで，書き込んだ内容は読み出せません．
+	 *
+	 * @param key オブジェクトのキー
+	 * @return ライタ
+	 * @throws IOException セグメントの作成にエラーが発生した場合
+	 */
+	public Writer newWriter(final String key) throws IOException{
+
+		final byte[] bkey = key.getBytes(UTF8);
+		if(bkey.length > MaxKeyLength){
+
+			throw new IllegalArgumentException("Too long key");
+
+		}
+		return new Writer(bkey, -1);
+
+	}
+
+	/**
+	 * オブジェクトを書き込む．
+	 *
+	 * @param key オブジェクトのキー
+	 * @param data 書き込むデータ，現在位置から上限まで
+	 * @throws IOException 書き込みにエラーが発生した場合
+	 */
+	public void put(final String key, final ByteBuffer data) throws IOException{
+
+		final Writer w = this.newWriter(key);
+		try{
+
+			w.write(data);
+			w.commit();
+
+		}finally{
+
+			w.close();
+
+		}
+
+	}
+
+	/**
+	 * オブジェクトを取得する．
+	 * 返されるバッファはセグメントをマップした読み込み専用のビューです．
+	 *
+	 * @param key オブジェクトのキー
+	 * @return オブジェクトのデータ，キーが存在しない場合は null
+	 */
+	public ByteBuffer get(final String key){
+
+		final byte[] bkey = key.getBytes(UTF8);
+		this.lock.readLock().lock();
+		try{
+
+			final int slot = this.find(bkey);
+			if(slot < 0){
+
+				return null;
+
+			}
+
+			final Segment s = this.segments.get(Index.segment(this.index.location(slot)));
+			final int data = Index.offset(this.index.location(slot)) + HeaderSize + bkey.length;
+			final ByteBuffer ret = s.map.asReadOnlyBuffer();
+			ret.limit(data + (int)this.index.length(slot));
+			ret.position(data);
+			return ret.slice();
+
+		}finally{
+
+			this.lock.readLock().unlock();
+
+		}
+
+	}
+
+	/**
+	 * オブジェクトを読み出す入力ストリームを作成する．
+	 *
+	 * @param key オブジェクトのキー
+	 * @return 入力ストリーム，キーが存在しない場合は null
+	 */
+	public InputStream openStream(final String key){
+
+		final ByteBuffer buf = this.get(key);
+		return buf != null ? new ByteBufferInputStream(buf) : null;
+
+	}
+
+	/**
+	 * オブジェクトの一部をチャネルへ転送する．
+	 * セグメントのファイルチャネルから直接転送するため，転送先がソケットやファイルのチャネルであれば
+	 * データはヒープを経由しません．
+	 *
+	 * @param key オブジェクトのキー
+	 * @param position 転送を始めるオブジェクト内の位置
+	 * @param count 転送する最大のバイト数
+	 * @param target 転送先
+	 * @return 転送したバイト数，キーが存在しない場合は -1
+	 * @throws IOException 転送にエラーが発生した場合
+	 */
+	public long transferTo(final String key, final long position, final long count, final WritableByteChannel target) throws IOException{
+		LOGGER.entering("transferTo", key, position, count);
+
+		final byte[] bkey = key.getBytes(UTF8);
+		final Segment s;
+		final long start;
+		final long n;
+		this.lock.readLock().lock();
+		try{
+
+			final int slot = this.find(bkey);
+			if(slot < 0){
+
+				LOGGER.exiting("transferTo", -1);
+				return -1;
+
+			}
+
+			s = this.segments.get(Index.segment(this.index.location(slot)));
+			s.retain();
+
+			final long length = this.index.length(slot);
+			start = Index.offset(this.index.location(slot)) + HeaderSize + bkey.length + Math.min(position, length);
+			n = Math.max(0, Math.min(count, length - position));
+
+		}finally{
+
+			this.lock.readLock().unlock();
+
+		}
+
+		long ret = 0;
+		try{
+
+			while(ret != n){
+
+				final long c = s.channel.transferTo(start + ret, n - ret, target);
+				if(c <= 0){
+
+					break;
+
+				}
+				ret += c;
+
+			}
+
+		}finally{
+
+			s.release();
+
+		}
+
+		LOGGER.exiting("transferTo", ret);
+		return ret;
+
+	}
+
+	/**
+	 * オブジェクト全体をチャネルへ転送する．
+	 *
+	 * @param key オブジェクトのキー
+	 * @param target 転送先
+	 * @return 転送したバイト数，キーが存在しない場合は -1
+	 * @throws IOException 転送にエラーが発生した場合
+	 * @see #transferTo(String, long, long, WritableByteChannel)
+	 */
+	public long transferTo(final String key, final WritableByteChannel target) throws IOException{
+
+		return this.transferTo(key, 0, Long.MAX_VALUE, target);
+
+	}
+
+	/**
+	 * オブジェクトが存在するか調べる．
+	 *
+	 * @param key オブジェクトのキー
+	 * @return 存在する場合 true
+	 */
+	public boolean contains(final String key){
+
+		return this.getLength(key) != -1;
+
+	}
+
+	/**
+	 * オブジェクトの大きさを取得する．
+	 *
+	 * @param key オブジェクトのキー
+	 * @return オブジェクトのバイト数，キーが存在しない場合は -1
+	 */
+	public long getLength(final String key){
+
+		final byte[] bkey = key.getBytes(UTF8);
+		this.lock.readLock().lock();
+		try{
+
+			final int slot = this.find(bkey);
+			return slot < 0 ? -1 : this.index.length(slot);
+
+		}finally{
+
+			this.lock.readLock().unlock();
+
+		}
+
+	}
+
+	/**
+	 * オブジェクトを削除する．
+	 *
+	 * @param key オブジェクトのキー
+	 * @return オブジェクトが存在した場合 true
+	 * @throws IOException 削除の記録にエラーが発生した場合
+	 */
+	public boolean remove(final String key) throws IOException{
+		LOGGER.entering("remove", key);
+
+		if(!this.contains(key)){
+
+			LOGGER.exiting("remove", false);
+			return false;
+
+		}
+
+		// 削除を表すレコードを書き込む
+		final Writer w = this.newWriter(key);
+		w.tombstone = true;
+		final boolean ret = w.commit();
+
+		LOGGER.exiting("remove", ret);
+		return ret;
+
+	}
+
+	/**
+	 * 保存されているオブジェクトの数を取得する．
+	 *
+	 * @return オブジェクトの数
+	 */
+	public int size(){
+
+		this.lock.readLock().lock();
+		try{
+
+			return this.index.size;
+
+		}finally{
+
+			this.lock.readLock().unlock();
+
+		}
+
+	}
+
+	/**
+	 * セグメントの数を取得する．
+	 *
+	 * @return セグメントの数
+	 */
+	public int getSegmentCount(){
+
+		this.lock.readLock().lock();
+		try{
+
+			return this.segments.size();
+
+		}finally{
+
+			this.lock.readLock().unlock();
+
+		}
+
+	}
+
+	/**
+	 * 不要になったレコードが占めるバイト数を取得する．
+	 *
+	 * @return 不要なバイト数
+	 */
+	public long getGarbageBytes(){
+
+		this.lock.readLock().lock();
+		try{
+
+			long ret = 0;
+			for(final Segment s : this.segments.values()){
+
+				ret += s.garbage;
+
+			}
+			return ret;
+
+		}finally{
+
+			this.lock.readLock().unlock();
+
+		}
+
+	}
+
+	/**
+	 * 索引をファイルに書き出す．
+	 * 書き出す前にセグメントをディスクに同期するため，書き出した索引が指すレコードはクラッシュ後も失われません．
+	 *
+	 * @throws IOException 書き出しにエラーが発生した場合
+	 */
+	public void checkpoint() throws IOException{
+		LOGGER.entering("checkpoint");
+
+		// 書き出し中に索引が変わらないよう，書き込みロックを取って写しを作る
+		final List<Segment> segs;
+		final long[] slots;
+		final long seq;
+		this.lock.writeLock().lock();
+		try{
+
+			segs = new ArrayList<Segment>(this.segments.values());
+			for(final Segment s : segs){
+
+				s.checkpointed = s.end;
+
+			}
+			slots = this.index.slots.clone();
+			seq = this.sequence;
+			this.dirty = false;
+
+		}finally{
+
+			this.lock.writeLock().unlock();
+
+		}
+
+		for(final Segment s : segs){
+
+			s.map.force();
+
+		}
+
+		final File tmp = new File(this.dir, IndexTmp);
+		final FileOutputStream fout = new FileOutputStream(tmp);
+		try{
+
+			final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fout));
+			out.write(IndexMagic);
+			out.writeLong(seq);
+			out.writeInt(segs.size());
+			for(final Segment s : segs){
+
+				out.writeInt(s.id);
+				out.writeInt(s.checkpointed);
+
+			}
+
+			int count = 0;
+			for(int i = 0; i < slots.length; i += 3){
+
+				if(slots[i] != 0){
+
+					++count;
+
+				}
+
+			}
+			out.writeInt(count);
+			for(int i = 0; i < slots.length; i += 3){
+
+				if(slots[i] != 0){
+
+					out.writeLong(slots[i]);
+					out.writeLong(slots[i + 1]);
+					out.writeLong(slots[i + 2]);
+
+				}
+
+			}
+			out.flush();
+			fout.getFD().sync();
+
+		}finally{
+
+			fout.close();
+
+		}
+
+		final File file = new File(this.dir, IndexFile);
+		if(!tmp.renameTo(file)){
+
+			// 上書きできない環境では削除してから置き換える
+			file.delete();
+			if(!tmp.renameTo(file)){
+
+				throw new IOException(String.format("Cannot replace %s", file));
+
+			}
+
+		}
+
+		LOGGER.exiting("checkpoint");
+	}
+
+	/**
+	 * 不要なレコードが半分以上を占めるセグメントをまとめる．
+	 * 生きているレコードを別のセグメントへ移し，索引を書き出した後に元のセグメントを削除します．
+	 *
+	 * @return 削除したセグメントの数
+	 * @throws IOException コンパクションにエラーが発生した場合
+	 */
+	public int compact() throws IOException{
+		LOGGER.entering("compact");
+
+		final List<Segment> targets = new ArrayList<Segment>();
+		this.lock.writeLock().lock();
+		try{
+
+			for(final Segment s : this.segments.values()){
+
+				// 追記中のセグメントは対象にしない
+				if(s.sealed && s.garbage >= (s.end - Start) * CompactionThreshold){
+
+					targets.add(s);
+
+				}
+
+			}
+
+		}finally{
+
+			this.lock.writeLock().unlock();
+
+		}
+
+		for(final Segment s : targets){
+
+			this.move(s);
+
+		}
+
+		if(!targets.isEmpty()){
+
+			this.checkpoint();
+			this.lock.writeLock().lock();
+			try{
+
+				for(final Segment s : targets){
+
+					this.segments.remove(s.id);
+
+				}
+
+			}finally{
+
+				this.lock.writeLock().unlock();
+
+			}
+			for(final Segment s : targets){
+
+				s.retire();
+
+			}
+
+		}
+
+		LOGGER.exiting("compact", targets.size());
+		return targets.size();
+
+	}
+
+	/**
+	 * ストアを閉じる．
+	 * 索引を書き出してからセグメントを閉じます．
+	 */
+	@Override
+	public void close() throws IOException{
+		LOGGER.entering("close");
+
+		if(this.closed){
+
+			return;
+
+		}
+		this.closed = true;
+
+		if(this.maintainer != null){
+
+			this.maintainer.interrupt();
+			try{
+
+				this.maintainer.join();
+
+			}catch(final InterruptedException e){
+
+				Thread.currentThread().interrupt();
+
+			}
+
+		}
+
+		this.checkpoint();
+		this.lock.writeLock().lock();
+		try{
+
+			for(final Segment s : this.segments.values()){
+
+				s.close();
+
+			}
+			this.segments.clear();
+			this.appendable.clear();
+
+		}finally{
+
+			this.lock.writeLock().unlock();
+
+		}
+
+		LOGGER.exiting("close");
+	}
+
+	//============================================================================
+	//  Private methods
+	//============================================================================
+	/**
+	 * キーに対応する索引のスロットを探す．読み込みロックを取って呼び出します．
+	 *
+	 * @return スロット，キーが存在しない場合は負の値
+	 */
+	private int find(final byte[] key){
+
+		final int slot = this.index.find(hash(key, 0, key.length));
+		if(slot < 0){
+
+			return slot;
+
+		}
+
+		// ハッシュの衝突に備えてキーを照合する
+		final long location = this.index.location(slot);
+		final ByteBuffer map = this.segments.get(Index.segment(location)).map;
+		final int offset = Index.offset(location);
+		if((map.getShort(offset + 24) & 0xffff) != key.length){
+
+			return -1;
+
+		}
+		for(int i = 0; i != key.length; ++i){
+
+			if(map.get(offset + HeaderSize + i) != key[i]){
+
+				return -1;
+
+			}
+
+		}
+		return slot;
+
+	}
+
+	/**
+	 * 追記できるセグメントを取得する．書き込みロックを取って呼び出します．
+	 *
+	 * @param required 必要なバイト数
+	 */
+	private Segment acquire(final long required) throws IOException{
+
+		if(required <= this.segmentSize - Start){
+
+			final Segment s = this.appendable.poll();
+			if(s != null){
+
+				if(s.capacity - s.end >= required){
+
+					return s;
+
+				}
+
+				// 収まらなければ後回しにして新しいセグメントを作る
+				this.appendable.addLast(s);
+
+			}
+
+		}
+
+		// 大きなオブジェクトには専用のセグメントを作る
+		long capacity = this.segmentSize;
+		while(capacity - Start < required){
+
+			capacity <<= 1;
+
+		}
+		final Segment ret = new Segment(this.nextSegment++, (int)Math.min(capacity, Integer.MAX_VALUE), true);
+		this.segments.put(ret.id, ret);
+		return ret;
+
+	}
+
+	/**
+	 * 追記が終わったセグメントを戻す．書き込みロックを取って呼び出します．
+	 */
+	private void giveBack(final Segment s){
+
+		if(s.capacity - s.end >= MinFree){
+
+			this.appendable.push(s);
+
+		}else{
+
+			s.sealed = true;
+
+		}
+
+	}
+
+	/**
+	 * セグメントの生きているレコードを別のセグメントへ移す．
+	 */
+	private void move(final Segment s) throws IOException{
+		LOGGER.entering("move", s.id);
+
+		final ByteBuffer map = s.map.duplicate();
+		for(int pos = Start; pos < s.end; ){
+
+			final long length = map.getLong(pos + 8);
+			final int keyLength = map.getShort(pos + 24) & 0xffff;
+			final int size = HeaderSize + keyLength + (int)Math.max(0, length);
+			if(length >= 0){
+
+				final long location = Index.location(s.id, pos);
+				final long hash = hash(map, pos + HeaderSize, keyLength);
+
+				final boolean live;
+				this.lock.readLock().lock();
+				try{
+
+					final int slot = this.index.find(hash);
+					live = slot >= 0 && this.index.location(slot) == location;
+
+				}finally{
+
+					this.lock.readLock().unlock();
+
+				}
+
+				if(live){
+
+					final byte[] key = new byte[keyLength];
+					map.position(pos + HeaderSize);
+					map.get(key);
+
+					// 元の番号を引き継ぎ，移動中に書き込まれた新しい値より優先されないようにする
+					final Writer w = new Writer(key, map.getLong(pos + 16));
+					try{
+
+						map.limit(pos + size);
+						w.write(map);
+						map.limit(map.capacity());
+						w.replace(location);
+
+					}finally{
+
+						w.close();
+
+					}
+
+				}
+
+			}
+			pos += size;
+
+		}
+
+		LOGGER.exiting("move");
+	}
+
+	/**
+	 * チェックポイントとセグメントから索引を復元する．
+	 */
+	private void recover() throws IOException{
+		LOGGER.entering("recover");
+
+		// チェックポイントの読み込み
+		final Map<Integer, Integer> ends = new HashMap<Integer, Integer>();
+		final File file = new File(this.dir, IndexFile);
+		if(file.exists()){
+
+			final DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+			try{
+
+				final byte[] magic = new byte[IndexMagic.length];
+				in.readFully(magic);
+				if(Arrays.equals(magic, IndexMagic)){
+
+					this.sequence = in.readLong();
+					for(int i = in.readInt(); i != 0; --i){
+
+						ends.put(in.readInt(), in.readInt());
+
+					}
+					for(int i = in.readInt(); i != 0; --i){
+
+						this.index.put(in.readLong(), in.readLong(), in.readLong());
+
+					}
+
+				}else{
+
+					LOGGER.warning("recover", "Ignore a broken index {0}", file);
+
+				}
+
+			}catch(final IOException e){
+
+				LOGGER.warning("recover", "Ignore a broken index {0}", file);
+				LOGGER.catched(Level.FINE, "recover", e);
+				this.index.clear();
+				ends.clear();
+
+			}finally{
+
+				in.close();
+
+			}
+
+		}
+
+		// セグメントを開き，チェックポイント以降のレコードを読み直す
+		final File[] files = this.dir.listFiles(new FilenameFilter(){
+
+			@Override
+			public boolean accept(final File dir, final String name){
+
+				return name.endsWith(SegmentSuffix);
+
+			}
+
+		});
+		Arrays.sort(files);
+
+		final Map<Long, Long> sequences = new HashMap<Long, Long>();
+		for(final File f : files){
+
+			final int id;
+			try{
+
+				id = Integer.parseInt(f.getName().substring(0, f.getName().length() - SegmentSuffix.length()));
+
+			}catch(final NumberFormatException e){
+
+				continue;
+
+			}
+
+			final Segment s = new Segment(id, (int)Math.min(f.length(), Integer.MAX_VALUE), false);
+			final byte[] magic = new byte[SegmentMagic.length];
+			if(s.capacity >= Start){
+
+				s.map.get(magic);
+
+			}
+			if(!Arrays.equals(magic, SegmentMagic)){
+
+				LOGGER.warning("recover", "Ignore a broken segment {0}", f);
+				s.close();
+				continue;
+
+			}
+			this.segments.put(id, s);
+			this.nextSegment = Math.max(this.nextSegment, id + 1);
+
+			final Integer end = ends.get(id);
+			s.end = end != null ? end : Start;
+			s.checkpointed = s.end;
+			this.scan(s, sequences);
+
+		}
+
+		// 失われたセグメントを指す索引を取り除き，不要なバイト数を数え直す
+		final List<Long> lost = new ArrayList<Long>();
+		for(int i = 0; i < this.index.slots.length; i += 3){
+
+			final long location = this.index.slots[i + 1];
+			final Segment s = this.segments.get(Index.segment(location));
+			if(this.index.slots[i] != 0 && (s == null || Index.offset(location) >= s.end)){
+
+				lost.add(this.index.slots[i]);
+
+			}
+
+		}
+		for(final long hash : lost){
+
+			this.index.remove(hash);
+
+		}
+
+		final Map<Integer, Long> live = new HashMap<Integer, Long>();
+		for(int i = 0; i < this.index.slots.length; i += 3){
+
+			if(this.index.slots[i] == 0){
+
+				continue;
+
+			}
+
+			final long location = this.index.slots[i + 1];
+			final Segment s = this.segments.get(Index.segment(location));
+			final int keyLength = s.map.getShort(Index.offset(location) + 24) & 0xffff;
+			final Long l = live.get(s.id);
+			live.put(s.id, (l != null ? l : 0) + HeaderSize + keyLength + this.index.slots[i + 2]);
+
+		}
+		for(final Segment s : this.segments.values()){
+
+			final Long l = live.get(s.id);
+			s.garbage = s.end - Start - (l != null ? l : 0);
+			this.giveBack(s);
+
+		}
+
+		LOGGER.info("recover", "Open a blob store with {0} objects in {1} segments", this.index.size, this.segments.size());
+		LOGGER.exiting("recover");
+	}
+
+	/**
+	 * セグメントの末尾からレコードを読み，索引に反映する．
+	 */
+	private void scan(final Segment s, final Map<Long, Long> sequences){
+
+		final ByteBuffer map = s.map.duplicate();
+		final CRC32 crc = new CRC32();
+		final byte[] buf = new byte[8192];
+		while(s.end + HeaderSize <= s.capacity){
+
+			final int pos = s.end;
+			if(map.getInt(pos) != Marker){
+
+				break;
+
+			}
+
+			final long length = map.getLong(pos + 8);
+			final long seq = map.getLong(pos + 16);
+			final int keyLength = map.getShort(pos + 24) & 0xffff;
+			final long size = HeaderSize + keyLength + Math.max(0, length);
+			if(length < -1 || pos + size > s.capacity){
+
+				break;
+
+			}
+
+			// 書き込みが途中で終わったレコードを検出する
+			crc.reset();
+			map.position(pos + HeaderSize + keyLength);
+			for(long rest = Math.max(0, length); rest != 0; ){
+
+				final int n = (int)Math.min(rest, buf.length);
+				map.get(buf, 0, n);
+				crc.update(buf, 0, n);
+				rest -= n;
+
+			}
+			if((int)crc.getValue() != map.getInt(pos + 4)){
+
+				LOGGER.warning("scan", "Drop a broken record at {0} in segment {1}", pos, s.id);
+				break;
+
+			}
+
+			final long hash = hash(map, pos + HeaderSize, keyLength);
+			final Long last = sequences.get(hash);
+			if(last == null || last < seq){
+
+				sequences.put(hash, seq);
+				if(length >= 0){
+
+					this.index.put(hash, Index.location(s.id, pos), length);
+
+				}else{
+
+					this.index.remove(hash);
+
+				}
+
+			}
+			this.sequence = Math.max(this.sequence, seq + 1);
+			s.end = (int)(pos + size);
+
+		}
+
+	}
+
+	/**
+	 * 索引とコンパクションを定期的に処理する．
+	 */
+	private void maintain(final long interval){
+
+		while(!this.closed){
+
+			try{
+
+				Thread.sleep(interval);
+
+			}catch(final InterruptedException e){
+
+				break;
+
+			}
+
+			try{
+
+				if(this.compact() == 0 && this.dirty){
+
+					this.checkpoint();
+
+				}
+
+			}catch(final IOException e){
+
+				LOGGER.warning("maintain", e.getMessage());
+				LOGGER.catched(Level.FINE, "maintain", e);
+
+			}
+
+		}
+
+	}
+
+	private File segmentFile(final int id){
+
+		return new File(this.dir, String.format("%08d%s", id, SegmentSuffix));
+
+	}
+
+	/**
+	 * キーの UTF-8 表現の 64 ビット FNV-1a ハッシュ．0 は空きスロットに使うため避けます．
+	 */
+	private static long hash(final byte[] key, final int off, final int len){
+
+		long ret = 0xcbf29ce484222325L;
+		for(int i = off; i != off + len; ++i){
+
+			ret ^= key[i] & 0xff;
+			ret *= 0x100000001b3L;
+
+		}
+		return ret != 0 ? ret : 1;
+
+	}
+
+	private static long hash(final ByteBuffer buf, final int off, final int len){
+
+		long ret = 0xcbf29ce484222325L;
+		for(int i = off; i != off + len; ++i){
+
+			ret ^= buf.get(i) & 0xff;
+			ret *= 0x100000001b3L;
+
+		}
+		return ret != 0 ? ret : 1;
+
+	}
+
+	//============================================================================
+	//  Inner classes
+	//============================================================================
+	/**
+	 * オブジェクトを書き込むライタ．
+	 * 書き込み中はセグメントの末尾を占有し，{@link #commit()} で索引に登録します．
+	 * 閉じる前に commit しなかった場合，書き込んだ内容は破棄されます．
+	 */
+	public final class Writer implements WritableByteChannel{
+
+		private final byte[] key;
+		private final long hash;
+		private final long seq;
+		private final CRC32 crc = new CRC32();
+		private final byte[] buf = new byte[8192];
+
+		private boolean tombstone = false;
+		private boolean open = true;
+
+		private Segment segment;
+		private ByteBuffer view;
+		private int start;
+		private long length = 0;
+
+		private Writer(final byte[] key, final long seq) throws IOException{
+
+			this.key = key;
+			this.hash = hash(key, 0, key.length);
+			this.seq = seq;
+
+			BlobStore.this.lock.writeLock().lock();
+			try{
+
+				this.attach(BlobStore.this.acquire(HeaderSize + key.length));
+
+			}finally{
+
+				BlobStore.this.lock.writeLock().unlock();
+
+			}
+
+			this.view.position(this.start + HeaderSize);
+			this.view.put(key);
+
+		}
+
+		/* (非 Javadoc)
+		 * @see java.nio.channels.WritableByteChannel#write(java.nio.ByteBuffer)
+		 */
+		@Override
+		public int write(final ByteBuffer src) throws IOException{
+
+			if(!this.open){
+
+				throw new IOException("The writer is already closed");
+
+			}
+
+			final int n = src.remaining();
+			if(this.length + n > MaxObjectSize){
+
+				this.close();
+				throw new IOException("Too large object");
+
+			}
+
+			final int data = this.start + HeaderSize + this.key.length;
+			if(data + this.length + n > this.segment.capacity){
+
+				this.relocate(HeaderSize + this.key.length + this.length + n);
+
+			}
+
+			// 書き込みと同時に CRC を計算する
+			if(src.hasArray()){
+
+				this.crc.update(src.array(), src.arrayOffset() + src.position(), n);
+				this.view.position(this.start + HeaderSize + this.key.length + (int)this.length);
+				this.view.put(src);
+
+			}else{
+
+				this.view.position(this.start + HeaderSize + this.key.length + (int)this.length);
+				while(src.hasRemaining()){
+
+					final int c = Math.min(src.remaining(), this.buf.length);
+					src.get(this.buf, 0, c);
+					this.crc.update(this.buf, 0, c);
+					this.view.put(this.buf, 0, c);
+
+				}
+
+			}
+			this.length += n;
+
+			return n;
+
+		}
+
+		/**
+		 * 書き込んだオブジェクトを確定し，読み出せるようにする．
+		 *
+		 * @return 確定した場合 true
+		 */
+		public boolean commit(){
+
+			return this.commit(-1);
+
+		}
+
+		/* (非 Javadoc)
+		 * @see java.nio.channels.Channel#isOpen()
+		 */
+		@Override
+		public boolean isOpen(){
+
+			return this.open;
+
+		}
+
+		/**
+		 * ライタを閉じる．確定していない内容は破棄されます．
+		 */
+		@Override
+		public void close(){
+
+			if(this.open){
+
+				this.open = false;
+				BlobStore.this.lock.writeLock().lock();
+				try{
+
+					BlobStore.this.giveBack(this.segment);
+
+				}finally{
+
+					BlobStore.this.lock.writeLock().unlock();
+
+				}
+
+			}
+
+		}
+
+		/**
+		 * 索引が移動元を指したままの場合に限り，書き込んだレコードで置き換える．
+		 */
+		private void replace(final long location){
+
+			this.commit(location);
+
+		}
+
+		private boolean commit(final long expected){
+
+			if(!this.open){
+
+				return false;
+
+			}
+
+			final int size = HeaderSize + this.key.length + (int)this.length;
+			BlobStore.this.lock.writeLock().lock();
+			try{
+
+				final Index index = BlobStore.this.index;
+				final int slot = index.find(this.hash);
+				if(expected != -1 && (slot < 0 || index.location(slot) != expected)){
+
+					// 移動中に書き換えられたので破棄する
+					return false;
+
+				}
+
+				// ヘッダはマーカーを最後に書き，途中で止まったレコードを読み込まないようにする
+				final long seq = this.seq != -1 ? this.seq : BlobStore.this.sequence++;
+				this.view.putInt(this.start + 4, (int)this.crc.getValue());
+				this.view.putLong(this.start + 8, this.tombstone ? -1 : this.length);
+				this.view.putLong(this.start + 16, seq);
+				this.view.putShort(this.start + 24, (short)this.key.length);
+				this.view.putInt(this.start, Marker);
+				this.segment.end = this.start + size;
+
+				if(slot >= 0){
+
+					final long old = index.location(slot);
+					final Segment s = BlobStore.this.segments.get(Index.segment(old));
+					s.garbage += HeaderSize + this.key.length + index.length(slot);
+
+				}
+				if(this.tombstone){
+
+					index.remove(this.hash);
+					this.segment.garbage += size;
+
+				}else{
+
+					index.put(this.hash, Index.location(this.segment.id, this.start), this.length);
+
+				}
+				BlobStore.this.dirty = true;
+
+				return true;
+
+			}finally{
+
+				BlobStore.this.lock.writeLock().unlock();
+				this.close();
+
+			}
+
+		}
+
+		private void attach(final Segment s){
+
+			this.segment = s;
+			this.view = s.map.duplicate();
+			this.start = s.end;
+
+			// 以前に中断された書き込みのマーカーを消しておく
+			this.view.putInt(this.start, 0);
+
+		}
+
+		/**
+		 * 書き込み中のレコードをより大きな空きのあるセグメントへ移す．
+		 */
+		private void relocate(final long required) throws IOException{
+
+			final Segment old = this.segment;
+			final ByteBuffer written = this.view.duplicate();
+			written.limit(this.start + HeaderSize + this.key.length + (int)this.length);
+			written.position(this.start);
+
+			BlobStore.this.lock.writeLock().lock();
+			try{
+
+				// 収まらなかったセグメントはこれ以上追記しない
+				this.attach(BlobStore.this.acquire(required));
+				old.sealed = true;
+
+			}finally{
+
+				BlobStore.this.lock.writeLock().unlock();
+
+			}
+
+			this.view.position(this.start);
+			this.view.put(written);
+
+		}
+
+	}
+
+	/**
+	 * セグメントファイル．
+	 * 作成時に全体をメモリマップし，end までが確定したレコードです．
+	 */
+	private final class Segment{
+
+		private final int id;
+		private final int capacity;
+		private final RandomAccessFile file;
+		private final FileChannel channel;
+		private final MappedByteBuffer map;
+
+		/**
+		 * 確定したレコードの終端
+		 */
+		private int end = Start;
+
+		/**
+		 * 最後のチェックポイントでの end
+		 */
+		private int checkpointed = Start;
+
+		/**
+		 * 不要になったレコードのバイト数
+		 */
+		private long garbage = 0;
+
+		/**
+		 * 追記先にならないセグメントか
+		 */
+		private boolean sealed = false;
+
+		/**
+		 * 転送中の読み出しの数，削除が予定されている場合は 1 多い
+		 */
+		private final AtomicInteger refs = new AtomicInteger(1);
+
+		private Segment(final int id, final int capacity, final boolean create) throws IOException{
+
+			this.id = id;
+			this.capacity = capacity;
+			this.file = new RandomAccessFile(BlobStore.this.segmentFile(id), "rw");
+			this.channel = this.file.getChannel();
+			this.map = this.channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+			if(create){
+
+				this.map.put(SegmentMagic);
+
+			}
+
+		}
+
+		private void retain(){
+
+			this.refs.incrementAndGet();
+
+		}
+
+		private void release(){
+
+			if(this.refs.decrementAndGet() == 0){
+
+				this.close();
+				if(!BlobStore.this.segmentFile(this.id).delete()){
+
+					BlobStore.this.segmentFile(this.id).deleteOnExit();
+
+				}
+
+			}
+
+		}
+
+		/**
+		 * 転送中の読み出しが終わり次第，セグメントを削除する．
+		 */
+		private void retire(){
+
+			this.release();
+
+		}
+
+		private void close(){
+
+			try{
+
+				this.file.close();
+
+			}catch(final IOException e){
+
+				LOGGER.catched(Level.FINE, "close", e);
+
+			}
+
+		}
+
+	}
+
+	/**
+	 * キーのハッシュから位置と長さを引く開番地法のハッシュ表．
+	 * 一つのスロットは hash，location，length の三つの long からなり，hash が 0 のスロットは空きです．
+	 * location の上位 32 ビットはセグメントの番号，下位 32 ビットはセグメント内の位置です．
+	 */
+	private static final class Index{
+
+		private long[] slots = new long[3 * 1024];
+		private int size = 0;
+
+		private static long location(final int segment, final int offset){
+
+			return ((long)segment << 32) | (offset & 0xffffffffL);
+
+		}
+
+		private static int segment(final long location){
+
+			return (int)(location >>> 32);
+
+		}
+
+		private static int offset(final long location){
+
+			return (int)location;
+
+		}
+
+		private long location(final int slot){
+
+			return this.slots[slot + 1];
+
+		}
+
+		private long length(final int slot){
+
+			return this.slots[slot + 2];
+
+		}
+
+		private int find(final long hash){
+
+			final int n = this.slots.length / 3;
+			for(int i = (int)(mix(hash) & (n - 1)); ; i = (i + 1) & (n - 1)){
+
+				final long h = this.slots[i * 3];
+				if(h == hash){
+
+					return i * 3;
+
+				}else if(h == 0){
+
+					return -1;
+
+				}
+
+			}
+
+		}
+
+		private void put(final long hash, final long location, final long length){
+
+			if((this.size + 1) * 4 > this.slots.length / 3 * 3){
+
+				this.resize();
+
+			}
+
+			final int n = this.slots.length / 3;
+			int i = (int)(mix(hash) & (n - 1));
+			while(this.slots[i * 3] != 0 && this.slots[i * 3] != hash){
+
+				i = (i + 1) & (n - 1);
+
+			}
+			if(this.slots[i * 3] == 0){
+
+				++this.size;
+
+			}
+			this.slots[i * 3] = hash;
+			this.slots[i * 3 + 1] = location;
+			this.slots[i * 3 + 2] = length;
+
+		}
+
+		/**
+		 * 後続のスロットを詰めて削除する．
+		 */
+		private void remove(final long hash){
+
+			final int slot = this.find(hash);
+			if(slot < 0){
+
+				return;
+
+			}
+
+			final int n = this.slots.length / 3;
+			int hole = slot / 3;
+			for(int i = (hole + 1) & (n - 1); this.slots[i * 3] != 0; i = (i + 1) & (n - 1)){
+
+				final int home = (int)(mix(this.slots[i * 3]) & (n - 1));
+				if(((i - home) & (n - 1)) >= ((i - hole) & (n - 1))){
+
+					System.arraycopy(this.slots, i * 3, this.slots, hole * 3, 3);
+					hole = i;
+
+				}
+
+			}
+			this.slots[hole * 3] = 0;
+			this.slots[hole * 3 + 1] = 0;
+			this.slots[hole * 3 + 2] = 0;
+			--this.size;
+
+		}
+
+		private void clear(){
+
+			Arrays.fill(this.slots, 0);
+			this.size = 0;
+
+		}
+
+		private void resize(){
+
+			final long[] old = this.slots;
+			this.slots = new long[old.length * 2];
+			this.size = 0;
+			for(int i = 0; i < old.length; i += 3){
+
+				if(old[i] != 0){
+
+					this.put(old[i], old[i + 1], old[i + 2]);
+
+				}
+
+			}
+
+		}
+
+		private static long mix(final long hash){
+
+			return hash ^ (hash >>> 29) ^ (hash >>> 47);
+
+		}
+
+	}
+
+}
@@ -0,0 +1,1158 @@
+/*
+ *  Copyright (C) 2011 Junpei Kawamoto
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package nor.util;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+import nor.util.metrics.Counter;
+
+/**
+ * Thread safe map which holds a bounded number, or a bounded total weight, of entries.
+ *
+ * Entries are looked up in a ConcurrentHashMap without locking.
+ * The eviction order is kept by segments, each of which has its own lock and a share of the capacity;
+ * a lookup reorders the entry only if the lock of its segment is free, so readers never wait.
+ * Two eviction policies are available.
+ * {@link Policy#LRU} evicts the least recently used entry.
+ * {@link Policy#TinyLFU} is the W-TinyLFU policy; a new entry stays in a small LRU window,
+ * and then it is admitted to the main area only if it has been used more often than the entry
+ * which would be evicted instead, so that a scan of one-time keys does not flush frequently used ones.
+ *
+ * Entries can also expire after a time from their last write.
+ * Expired entries are treated as absent, and removed by later writes to their segment.
+ * Null keys and values are not allowed.
+ *
+ * @param <Key> マップのキーとなるクラス
+ * @param <Value> マップの値となるクラス
+ *
+ * @author Junpei Kawamoto
+ * @since 0.3
+ */
+public class BoundedCache<Key, Value> extends AbstractMap<Key, Value> implements ConcurrentMap<Key, Value>{
+
+	/**
+	 * Eviction policy.
+	 */
+	public enum Policy{
+
+		/** Evict the least recently used entry. */
+		LRU,
+
+		/** Evict by the W-TinyLFU policy, which also takes frequencies of use into account. */
+		TinyLFU
+
+	}
+
+	/**
+	 * Function which gives the weight of an entry.
+	 *
+	 * @param <Key> マップのキーとなるクラス
+	 * @param <Value> マップの値となるクラス
+	 */
+	public interface Weigher<Key, Value>{
+
+		/**
+		 * Get the weight of an entry.
+		 *
+		 * @param key the key
+		 * @param value the value
+		 * @return the weight, which is not negative
+		 */
+		public int weigh(final Key key, final Value value);
+
+	}
+
+	/**
+	 * Maximum number of segments
+	 */
+	private static final int MaxSegments = 16;
+
+	/**
+	 * Minimum capacity of each segment; small caches have fewer segments so that the eviction order is accurate
+	 */
+	private static final int MinSegmentCapacity = 20;
+
+	private final ConcurrentHashMap<Key, Node<Key, Value>> map = new ConcurrentHashMap<Key, Node<Key, Value>>();
+	private final Segment[] segments;
+
+	private final Policy policy;
+	private final Weigher<? super Key, ? super Value> weigher;
+	private final long expireAfterWrite;
+
+	private final Counter hits = new Counter();
+	private final Counter misses = new Counter();
+	private final Counter evictions = new Counter();
+
+	//============================================================================
+	//  Constructor
+	//============================================================================
+	/**
+	 * Create a cache holding a number of entries with the LRU policy.
+	 *
+	 * @param capacity the maximum number of entries
+	 */
+	public BoundedCache(final long capacity){
+
+		this(capacity, Policy.LRU, null, 0, TimeUnit.NANOSECONDS);
+
+	}
+
+	/**
+	 * Create a cache holding a number of entries.
+	 *
+	 * @param capacity the maximum number of entries
+	 * @param policy the eviction policy
+	 */
+	public BoundedCache(final long capacity, final Policy policy){
+
+		this(capacity, policy, null, 0, TimeUnit.NANOSECONDS);
+
+	}
+
+	/**
+	 * Create a cache.
+	 *
+	 * @param capacity the maximum number of entries, or the maximum total weight if a weigher is given
+	 * @param policy the eviction policy
+	 * @param weigher the function giving weights of entries, or null to count entries
+	 * @param expireAfterWrite the time for which an entry is kept after it is written, or 0 to keep it until evicted
+	 * @param unit the unit of expireAfterWrite
+	 */
+	public BoundedCache(final long capacity, final Policy policy, final Weigher<? super Key, ? super Value> weigher, final long expireAfterWrite, final TimeUnit unit){
+
+		if(capacity < 0){
+
+			throw new IllegalArgumentException("Negative capacity: " + capacity);
+
+		}
+		if(policy == null || unit == null){
+
+			throw new NullPointerException();
+
+		}
+		if(expireAfterWrite < 0){
+
+			throw new IllegalArgumentException("Negative expiration: " + expireAfterWrite);
+
+		}
+
+		this.policy = policy;
+		this.weigher = weigher;
+		this.expireAfterWrite = unit.toNanos(expireAfterWrite);
+
+		int n = 1;
+		while(n < MaxSegments && n * MinSegmentCapacity * 2 <= capacity){
+
+			n <<= 1;
+
+		}
+		this.segments = this.newSegments(n);
+		for(int i = 0; i != n; ++i){
+
+			// The remainder is shared by the first segments.
+			this.segments[i] = new Segment(capacity / n + (i < capacity % n ? 1 : 0));
+
+		}
+
+	}
+
+	//============================================================================
+	//  Public methods
+	//============================================================================
+	@Override
+	public Value get(final Object key){
+
+		if(key == null){
+
+			return null;
+
+		}
+
+		final Node<Key, Value> n = this.map.get(key);
+		if(n == null){
+
+			this.misses.increment();
+			return null;
+
+		}
+
+		final Segment s = this.segmentFor(n.hash);
+		if(this.isExpired(n, this.now())){
+
+			s.expire(n);
+			this.misses.increment();
+			return null;
+
+		}
+
+		this.hits.increment();
+		s.recordAccess(n);
+		return n.value;
+
+	}
+
+	@Override
+	public boolean containsKey(final Object key){
+
+		if(key == null){
+
+			return false;
+
+		}
+
+		final Node<Key, Value> n = this.map.get(key);
+		return n != null && !this.isExpired(n, this.now());
+
+	}
+
+	@Override
+	public Value put(final Key key, final Value value){
+
+		return this.put(key, value, false);
+
+	}
+
+	@Override
+	public Value putIfAbsent(final Key key, final Value value){
+
+		return this.put(key, value, true);
+
+	}
+
+	@Override
+	public Value remove(final Object key){
+
+		if(key == null){
+
+			return null;
+
+		}
+		return this.segmentFor(hash(key)).remove(key, null);
+
+	}
+
+	@Override
+	public boolean remove(final Object key, final Object value){
+
+		if(key == null || value == null){
+
+			return false;
+
+		}
+		return this.segmentFor(hash(key)).remove(key, value) != null;
+
+	}
+
+	@Override
+	public Value replace(final Key key, final Value value){
+
+		if(key == null || value == null){
+
+			throw new NullPointerException();
+
+		}
+		return this.segmentFor(hash(key)).replace(key, null, value);
+
+	}
+
+	@Override
+	public boolean replace(final Key key, final Value oldValue, final Value newValue){
+
+		if(key == null || oldValue == null || newValue == null){
+
+			throw new NullPointerException();
+
+		}
+		return this.segmentFor(hash(key)).replace(key, oldValue, newValue) != null;
+
+	}
+
+	@Override
+	public void clear(){
+
+		for(final Segment s : this.segments){
+
+			s.clear();
+
+		}
+
+	}
+
+	/**
+	 * Get the number of entries.
+	 * Expired entries which have not been removed yet are also counted.
+	 */
+	@Override
+	public int size(){
+
+		return this.map.size();
+
+	}
+
+	@Override
+	public boolean isEmpty(){
+
+		return this.map.isEmpty();
+
+	}
+
+	@Override
+	public Set<Map.Entry<Key, Value>> entrySet(){
+
+		return new EntrySet();
+
+	}
+
+	/**
+	 * Get the total weight of the entries, which is the number of them if no weigher is given.
+	 *
+	 * @return the total weight
+	 */
+	public long getWeight(){
+
+		long ret = 0;
+		for(final Segment s : this.segments){
+
+			ret += s.getWeight();
+
+		}
+		return ret;
+
+	}
+
+	/**
+	 * Get the number of lookups by {@link #get(Object)} which found a value.
+	 *
+	 * @return the number of hits
+	 */
+	public long getHitCount(){
+
+		return this.hits.get();
+
+	}
+
+	/**
+	 * Get the number of lookups by {@link #get(Object)} which found no value.
+	 *
+	 * @return the number of misses
+	 */
+	public long getMissCount(){
+
+		return this.misses.get();
+
+	}
+
+	/**
+	 * Get the ratio of hits to all lookups.
+	 *
+	 * @return the hit rate, or 1 if nothing has been looked up
+	 */
+	public double getHitRate(){
+
+		final long hits = this.getHitCount();
+		final long total = hits + this.getMissCount();
+		return total == 0 ? 1 : (double)hits / total;
+
+	}
+
+	/**
+	 * Get the number of entries removed by the policy or by expiration.
+	 *
+	 * @return the number of evictions
+	 */
+	public long getEvictionCount(){
+
+		return this.evictions.get();
+
+	}
+
+	//============================================================================
+	//  Private methods
+	//============================================================================
+	private Value put(final Key key, final Value value, final boolean onlyIfAbsent){
+
+		if(key == null || value == null){
+
+			throw new NullPointerException();
+
+		}
+
+		final int hash = hash(key);
+		return this.segmentFor(hash).put(key, hash, value, onlyIfAbsent);
+
+	}
+
+	/**
+	 * Create an array of segments; an array of the inner class of a generic class can only be created as a raw type.
+	 */
+	@SuppressWarnings("unchecked")
+	private Segment[] newSegments(final int n){
+
+		return (Segment[])new BoundedCache<?, ?>.Segment[n];
+
+	}
+
+	private Segment segmentFor(final int hash){
+
+		return this.segments[(hash >>> 16) & (this.segments.length - 1)];
+
+	}
+
+	private long now(){
+
+		return this.expireAfterWrite == 0 ? 0 : System.nanoTime();
+
+	}
+
+	private boolean isExpired(final Node<Key, Value> n, final long now){
+
+		return this.expireAfterWrite != 0 && now - n.written >= this.expireAfterWrite;
+
+	}
+
+	private int weigh(final Key key, final Value value){
+
+		if(this.weigher == null){
+
+			return 1;
+
+		}
+
+		final int ret = this.weigher.weigh(key, value);
+		if(ret < 0){
+
+			throw new IllegalArgumentException("Negative weight: " + ret);
+
+		}
+		return ret;
+
+	}
+
+	private static int hash(final Object key){
+
+		// Spread the bits since the segment and the sketch use the upper ones.
+		final int h = key.hashCode() * 0x9e3779b9;
+		return h ^ (h >>> 15);
+
+	}
+
+	//============================================================================
+	//  Inner classes
+	//============================================================================
+	/**
+	 * Part of the cache which keeps the eviction order of its entries.
+	 * Every method except {@link #recordAccess(Node)} and {@link #getWeight()} holds the lock.
+	 */
+	@SuppressWarnings("serial")
+	private final class Segment extends ReentrantLock{
+
+		private final long capacity;
+		private final long windowCapacity;
+		private final long protectedCapacity;
+
+		/**
+		 * Queue of all entries with the LRU policy, and of the entries on probation with the W-TinyLFU policy.
+		 */
+		private final Queue<Key, Value> probation = new Queue<Key, Value>(Node.Probation);
+		private final Queue<Key, Value> window = new Queue<Key, Value>(Node.Window);
+		private final Queue<Key, Value> protect = new Queue<Key, Value>(Node.Protected);
+
+		/**
+		 * Entries in the order of writes, which is kept only if entries expire.
+		 */
+		private final WriteQueue<Key, Value> writes = new WriteQueue<Key, Value>();
+
+		private final Sketch sketch;
+
+		private long weight;
+
+		public Segment(final long capacity){
+
+			this.capacity = capacity;
+			this.windowCapacity = capacity / 100;
+			this.protectedCapacity = (capacity - this.windowCapacity) * 4 / 5;
+			this.sketch = BoundedCache.this.policy == Policy.TinyLFU ? new Sketch(capacity) : null;
+
+		}
+
+		public Value put(final Key key, final int hash, final Value value, final boolean onlyIfAbsent){
+
+			this.lock();
+			try{
+
+				final long now = BoundedCache.this.now();
+				final Node<Key, Value> old = BoundedCache.this.map.get(key);
+				if(old != null && !BoundedCache.this.isExpired(old, now)){
+
+					final Value ret = old.value;
+					if(onlyIfAbsent){
+
+						this.onAccess(old);
+
+					}else{
+
+						this.update(old, value, now);
+						this.evict(now);
+
+					}
+					return ret;
+
+				}
+
+				if(old != null){
+
+					this.discard(old);
+
+				}
+
+				final Node<Key, Value> n = new Node<Key, Value>(key, hash, value, BoundedCache.this.weigh(key, value), now);
+				BoundedCache.this.map.put(key, n);
+				this.weight += n.weight;
+				if(BoundedCache.this.expireAfterWrite != 0){
+
+					this.writes.add(n);
+
+				}
+				if(this.sketch == null){
+
+					this.probation.addFirst(n);
+
+				}else{
+
+					this.sketch.increment(hash);
+					this.window.addFirst(n);
+
+				}
+				this.evict(now);
+
+				return null;
+
+			}finally{
+
+				this.unlock();
+
+			}
+
+		}
+
+		public Value remove(final Object key, final Object value){
+
+			this.lock();
+			try{
+
+				final Node<Key, Value> n = BoundedCache.this.map.get(key);
+				if(n == null || (value != null && !value.equals(n.value))){
+
+					return null;
+
+				}
+
+				this.unlink(n);
+				BoundedCache.this.map.remove(key, n);
+
+				return BoundedCache.this.isExpired(n, BoundedCache.this.now()) ? null : n.value;
+
+			}finally{
+
+				this.unlock();
+
+			}
+
+		}
+
+		public Value replace(final Key key, final Value oldValue, final Value newValue){
+
+			this.lock();
+			try{
+
+				final long now = BoundedCache.this.now();
+				final Node<Key, Value> n = BoundedCache.this.map.get(key);
+				if(n == null || BoundedCache.this.isExpired(n, now) || (oldValue != null && !oldValue.equals(n.value))){
+
+					return null;
+
+				}
+
+				final Value ret = n.value;
+				this.update(n, newValue, now);
+				this.evict(now);
+
+				return ret;
+
+			}finally{
+
+				this.unlock();
+
+			}
+
+		}
+
+		/**
+		 * Reorder an entry which has been read, unless another thread holds the lock.
+		 */
+		public void recordAccess(final Node<Key, Value> n){
+
+			if(this.tryLock()){
+
+				try{
+
+					if(n.queue != Node.Removed){
+
+						this.onAccess(n);
+
+					}
+
+				}finally{
+
+					this.unlock();
+
+				}
+
+			}
+
+		}
+
+		public void expire(final Node<Key, Value> n){
+
+			this.lock();
+			try{
+
+				if(n.queue != Node.Removed){
+
+					this.discard(n);
+
+				}
+
+			}finally{
+
+				this.unlock();
+
+			}
+
+		}
+
+		public void clear(){
+
+			this.lock();
+			try{
+
+				this.clear(this.window);
+				this.clear(this.probation);
+				this.clear(this.protect);
+
+			}finally{
+
+				this.unlock();
+
+			}
+
+		}
+
+		public long getWeight(){
+
+			this.lock();
+			try{
+
+				return this.weight;
+
+			}finally{
+
+				this.unlock();
+
+			}
+
+		}
+
+		private void clear(final Queue<Key, Value> q){
+
+			Node<Key, Value> n;
+			while((n = q.last()) != null){
+
+				this.unlink(n);
+				BoundedCache.this.map.remove(n.key, n);
+
+			}
+
+		}
+
+		private void update(final Node<Key, Value> n, final Value value, final long now){
+
+			final int w = BoundedCache.this.weigh(n.key, value);
+			this.weight += w - n.weight;
+			this.queueOf(n).weight += w - n.weight;
+			n.weight = w;
+			n.value = value;
+
+			if(BoundedCache.this.expireAfterWrite != 0){
+
+				n.written = now;
+				this.writes.remove(n);
+				this.writes.add(n);
+
+			}
+			this.onAccess(n);
+
+		}
+
+		private void onAccess(final Node<Key, Value> n){
+
+			if(this.sketch == null){
+
+				this.probation.moveToFirst(n);
+				return;
+
+			}
+
+			this.sketch.increment(n.hash);
+			if(n.queue == Node.Probation){
+
+				// Used twice; promote it and demote the least recently used protected ones.
+				this.probation.remove(n);
+				this.protect.addFirst(n);
+				while(this.protect.weight > this.protectedCapacity){
+
+					final Node<Key, Value> d = this.protect.last();
+					this.protect.remove(d);
+					this.probation.addFirst(d);
+
+				}
+
+			}else{
+
+				this.queueOf(n).moveToFirst(n);
+
+			}
+
+		}
+
+		private void evict(final long now){
+
+			if(BoundedCache.this.expireAfterWrite != 0){
+
+				Node<Key, Value> n;
+				while((n = this.writes.first()) != null && BoundedCache.this.isExpired(n, now)){
+
+					this.discard(n);
+
+				}
+
+			}
+
+			if(this.sketch == null){
+
+				while(this.weight > this.capacity){
+
+					this.discard(this.probation.last());
+
+				}
+				return;
+
+			}
+
+			// Entries leaving the window become candidates on probation.
+			while(this.window.weight > this.windowCapacity){
+
+				final Node<Key, Value> n = this.window.last();
+				this.window.remove(n);
+				this.probation.addFirst(n);
+
+			}
+
+			// Either the newest candidate or the least recently used entry on probation is evicted, whichever is used less.
+			while(this.weight > this.capacity){
+
+				final Node<Key, Value> candidate = this.probation.first();
+				final Node<Key, Value> victim = this.probation.last();
+				if(candidate == null){
+
+					this.discard(this.protect.isEmpty() ? this.window.last() : this.protect.last());
+
+				}else if(candidate == victim){
+
+					this.discard(victim);
+
+				}else if(this.sketch.frequency(candidate.hash) > this.sketch.frequency(victim.hash)){
+
+					this.discard(victim);
+
+				}else{
+
+					this.discard(candidate);
+
+				}
+
+			}
+
+		}
+
+		private void discard(final Node<Key, Value> n){
+
+			this.unlink(n);
+			BoundedCache.this.map.remove(n.key, n);
+			BoundedCache.this.evictions.increment();
+
+		}
+
+		private void unlink(final Node<Key, Value> n){
+
+			this.queueOf(n).remove(n);
+			if(BoundedCache.this.expireAfterWrite != 0){
+
+				this.writes.remove(n);
+
+			}
+			this.weight -= n.weight;
+			n.queue = Node.Removed;
+
+		}
+
+		private Queue<Key, Value> queueOf(final Node<Key, Value> n){
+
+			switch(n.queue){
+			case Node.Window:
+				return this.window;
+			case Node.Protected:
+				return this.protect;
+			default:
+				return this.probation;
+			}
+
+		}
+
+	}
+
+	private static final class Node<Key, Value>{
+
+		static final int Removed = 0;
+		static final int Window = 1;
+		static final int Probation = 2;
+		static final int Protected = 3;
+
+		final Key key;
+		final int hash;
+		volatile Value value;
+		volatile long written;
+		int weight;
+
+		/**
+		 * Queue which has this entry, which is accessed only with the lock of the segment
+		 */
+		int queue = Removed;
+
+		Node<Key, Value> prev;
+		Node<Key, Value> next;
+		Node<Key, Value> writePrev;
+		Node<Key, Value> writeNext;
+
+		Node(final Key key, final int hash, final Value value, final int weight, final long written){
+
+			this.key = key;
+			this.hash = hash;
+			this.value = value;
+			this.weight = weight;
+			this.written = written;
+
+		}
+
+	}
+
+	/**
+	 * Doubly linked list of entries from the most recently used one.
+	 */
+	private static final class Queue<Key, Value>{
+
+		private final Node<Key, Value> head = new Node<Key, Value>(null, 0, null, 0, 0);
+		private final int id;
+		private long weight;
+
+		Queue(final int id){
+
+			this.id = id;
+			this.head.prev = this.head;
+			this.head.next = this.head;
+
+		}
+
+		boolean isEmpty(){
+
+			return this.head.next == this.head;
+
+		}
+
+		Node<Key, Value> first(){
+
+			return this.isEmpty() ? null : this.head.next;
+
+		}
+
+		Node<Key, Value> last(){
+
+			return this.isEmpty() ? null : this.head.prev;
+
+		}
+
+		void addFirst(final Node<Key, Value> n){
+
+			n.prev = this.head;
+			n.next = this.head.next;
+			this.head.next.prev = n;
+			this.head.next = n;
+			n.queue = this.id;
+			this.weight += n.weight;
+
+		}
+
+		void remove(final Node<Key, Value> n){
+
+			n.prev.next = n.next;
+			n.next.prev = n.prev;
+			n.prev = null;
+			n.next = null;
+			this.weight -= n.weight;
+
+		}
+
+		void moveToFirst(final Node<Key, Value> n){
+
+			if(this.head.next != n){
+
+				this.remove(n);
+				this.addFirst(n);
+
+			}
+
+		}
+
+	}
+
+	/**
+	 * Doubly linked list of entries from the least recently written one.
+	 */
+	private static final class WriteQueue<Key, Value>{
+
+		private final Node<Key, Value> head = new Node<Key, Value>(null, 0, null, 0, 0);
+
+		WriteQueue(){
+
+			this.head.writePrev = this.head;
+			this.head.writeNext = this.head;
+
+		}
+
+		Node<Key, Value> first(){
+
+			return this.head.writeNext == this.head ? null : this.head.writeNext;
+
+		}
+
+		void add(final Node<Key, Value> n){
+
+			n.writeNext = this.head;
+			n.writePrev = this.head.writePrev;
+			this.head.writePrev.writeNext = n;
+			this.head.writePrev = n;
+
+		}
+
+		void remove(final Node<Key, Value> n){
+
+			n.writePrev.writeNext = n.writeNext;
+			n.writeNext.writePrev = n.writePrev;
+			n.writePrev = null;
+			n.writeNext = null;
+
+		}
+
+	}
+
+	/**
+	 * Count-min sketch of frequencies of use, with four 4-bit counters per key.
+	 * All counters are halved periodically so that old uses are forgotten.
+	 */
+	private static final class Sketch{
+
+		private static final long[] Seeds = {0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L};
+		private static final int MaxTableSize = 1 << 14;
+
+		private final long[] table;
+		private final int sampleSize;
+		private int additions;
+
+		Sketch(final long capacity){
+
+			int size = 8;
+			while(size < capacity && size < MaxTableSize){
+
+				size <<= 1;
+
+			}
+			this.table = new long[size];
+			this.sampleSize = 10 * size;
+
+		}
+
+		int frequency(final int hash){
+
+			final int start = (hash & 3) << 2;
+			int ret = 15;
+			for(int i = 0; i != 4; ++i){
+
+				final int offset = (start + i) << 2;
+				ret = Math.min(ret, (int)((this.table[this.indexOf(hash, i)] >>> offset) & 15));
+
+			}
+			return ret;
+
+		}
+
+		void increment(final int hash){
+
+			final int start = (hash & 3) << 2;
+			boolean added = false;
+			for(int i = 0; i != 4; ++i){
+
+				final int index = this.indexOf(hash, i);
+				final int offset = (start + i) << 2;
+				if(((this.table[index] >>> offset) & 15) != 15){
+
+					this.table[index] += 1L << offset;
+					added = true;
+
+				}
+
+			}
+
+			if(added && ++this.additions == this.sampleSize){
+
+				for(int i = 0; i != this.table.length; ++i){
+
+					this.table[i] = (this.table[i] >>> 1) & 0x7777777777777777L;
+
+				}
+				this.additions /= 2;
+
+			}
+
+		}
+
+		private int indexOf(final int hash, final int i){
+
+			long h = (hash + Seeds[i]) * Seeds[i];
+			h += h >>> 32;
+			return (int)h & (this.table.length - 1);
+
+		}
+
+	}
+
+	/**
+	 * View of the entries, which reflects concurrent changes weakly as ConcurrentHashMap does.
+	 */
+	private final class EntrySet extends AbstractSet<Map.Entry<Key, Value>>{
+
+		@Override
+		public Iterator<Map.Entry<Key, Value>> iterator(){
+
+			final Iterator<Node<Key, Value>> i = BoundedCache.this.map.values().iterator();
+			return new Iterator<Map.Entry<Key, Value>>(){
+
+				private Node<Key, Value> next = this.advance();
+				private Node<Key, Value> last;
+
+				@Override
+				public boolean hasNext(){
+
+					return this.next != null;
+
+				}
+
+				@Override
+				public Map.Entry<Key, Value> next(){
+
+					if(this.next == null){
+
+						throw new NoSuchElementException();
+
+					}
+
+					this.last = this.next;
+					this.next = this.advance();
+					return new SimpleEntry<Key, Value>(this.last.key, this.last.value);
+
+				}
+
+				@Override
+				public void remove(){
+
+					if(this.last == null){
+
+						throw new IllegalStateException();
+
+					}
+					BoundedCache.this.remove(this.last.key, this.last.value);
+					this.last = null;
+
+				}
+
+				private Node<Key, Value> advance(){
+
+					final long now = BoundedCache.this.now();
+					while(i.hasNext()){
+
+						final Node<Key, Value> n = i.next();
+						if(!BoundedCache.this.isExpired(n, now)){
+
+							return n;
+
+						}
+
+					}
+					return null;
+
+				}
+
+			};
+
+		}
+
+		@Override
+		public int size(){
+
+			return BoundedCache.this.size();
+
+		}
+
+		@Override
+		public void clear(){
+
+			BoundedCache.this.clear();
+
+		}
+
+	}
+
+}
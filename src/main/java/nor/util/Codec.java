@@ -17,6 +17,7 @@
  */
 package nor.util;
 
+import java.nio.charset.Charset;
 import java.util.logging.Logger;
 
 import org.apache.commons.codec.DecoderException;
@@ -33,6 +34,10 @@ public final class Codec {
 	public static final String DEFAULT_ENCODE = "utf-8";
 
 
+	private static final Charset UTF8 = Charset.forName(DEFAULT_ENCODE);
+
+	private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+
 	private static final URLCodec URLCodec = new URLCodec();
 	private static final BCodec BCodec = new BCodec();
 
@@ -70,6 +75,119 @@ public final class Codec {
 
 	}
 
+	/**
+	 * 文字列の一部を URL デコードする．
+	 * {@link #urlDecode(String)} と同じく UTF-8 の application/x-www-form-urlencoded として解釈しますが，
+	 * 一度の走査で処理し，% も + も含まない場合はデコードせずに切り出すだけです．
+	 *
+	 * @param str デコードする文字列
+	 * @param start 開始位置
+	 * @param end 終了位置
+	 * @return デコードした文字列，不正なエスケープを含む場合は元の文字列
+	 */
+	public static String urlDecode(final CharSequence str, final int start, final int end){
+
+		int i = start;
+		while(i != end && str.charAt(i) != '%' && str.charAt(i) != '+'){
+
+			++i;
+
+		}
+		if(i == end){
+
+			return str.subSequence(start, end).toString();
+
+		}
+
+		final StringBuilder ret = new StringBuilder(end - start);
+		ret.append(str, start, i);
+
+		byte[] bytes = null;
+		while(i != end){
+
+			final char c = str.charAt(i);
+			if(c == '%'){
+
+				// 連続するエスケープをまとめてバイト列にしてから文字に戻す
+				if(bytes == null){
+
+					bytes = new byte[(end - i) / 3];
+
+				}
+
+				int n = 0;
+				while(i != end && str.charAt(i) == '%'){
+
+					final int hi = i + 2 < end ? Character.digit(str.charAt(i + 1), 16) : -1;
+					final int lo = hi != -1 ? Character.digit(str.charAt(i + 2), 16) : -1;
+					if(lo == -1){
+
+						LOGGER.severe(String.format("Invalid URL encoding: %s", str.subSequence(start, end)));
+						return str.subSequence(start, end).toString();
+
+					}
+					bytes[n++] = (byte)((hi << 4) + lo);
+					i += 3;
+
+				}
+				ret.append(new String(bytes, 0, n, UTF8));
+
+			}else{
+
+				ret.append(c == '+' ? ' ' : c);
+				++i;
+
+			}
+
+		}
+		return ret.toString();
+
+	}
+
+	/**
+	 * 文字列を URL エンコードして追記する．
+	 * {@link #urlEncode(String)} と同じ規則で UTF-8 のバイト列をエスケープします．
+	 *
+	 * @param builder 追記先
+	 * @param str エンコードする文字列
+	 * @return builder
+	 */
+	public static StringBuilder urlEncode(final StringBuilder builder, final CharSequence str){
+
+		final int len = str.length();
+		for(int i = 0; i != len; ++i){
+
+			final char c = str.charAt(i);
+			if((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '-' || c == '_' || c == '.' || c == '*'){
+
+				builder.append(c);
+
+			}else if(c == ' '){
+
+				builder.append('+');
+
+			}else if(c < 0x80){
+
+				appendEscaped(builder, c);
+
+			}else{
+
+				// サロゲートペアは二文字まとめて符号化する
+				final int n = Character.isHighSurrogate(c) && i + 1 != len ? 2 : 1;
+				for(final byte b : str.subSequence(i, i + n).toString().getBytes(UTF8)){
+
+					appendEscaped(builder, b & 0xff);
+
+				}
+				i += n - 1;
+
+			}
+
+		}
+		return builder;
+
+	}
+
 	public static String base64Encode(final String str){
 
 		return Codec.base64Encode(str, Codec.DEFAULT_ENCODE);
@@ -112,7 +230,12 @@ public final class Codec {
 
 	}
 
+	private static void appendEscaped(final StringBuilder builder, final int b){
 
-}
+		builder.append('%');
+		builder.append(HEX[b >> 4]);
+		builder.append(HEX[b & 0xf]);
 
+	}
 
+}
@@ -18,27 +18,25 @@
 package nor.util;
 
 import java.util.AbstractMap;
-import java.util.ArrayList;
-import java.util.Collection;
-import java.util.HashSet;
-import java.util.LinkedList;
 import java.util.Map;
-import java.util.Set;
 
 /**
  * 記憶量に上限付きのマップ．
+ * 上限を超えた場合は最も長い間使われていないエントリを削除する．
+ * 実装は {@link BoundedCache} に委譲しているため，複数のスレッドから共有できる．
+ * ただし 0.3 以前の実装と異なり，null のキーや値は格納できない．
+ * put や putIfAbsent に null を渡すと NullPointerException を投げ，containsValue(null) は常に false を返す．
  *
  * @param <Key> マップのキーとなるクラス
  * @param <Value> マップの値となるクラス
  *
  * @author Junpei Kawamoto
  * @since 0.1.20100629
+ * @deprecated {@link BoundedCache} を使用してください．
  *
  */
-public class FixedSizeMap<Key, Value> implements Map<Key, Value>{
-
-	private final int limit;
-	private final LinkedList<Map.Entry<Key, Value>> elem = new LinkedList<Map.Entry<Key, Value>>();
+@Deprecated
+public class FixedSizeMap<Key, Value> extends BoundedCache<Key, Value>{
 
 	//============================================================================
 	//  Constructor
@@ -46,11 +44,11 @@ public class FixedSizeMap<Key, Value> implements Map<Key, Value>{
 	/**
 	 * 記憶量を指定して FixedSizeMap を作成する．
 	 *
-	 * @param limit 記憶量の増減
+	 * @param limit 記憶するエントリ数の上限
 	 */
 	public FixedSizeMap(final int limit){
 
-		this.limit = limit;
+		super(limit);
 
 	}
 
@@ -62,7 +60,7 @@ public class FixedSizeMap<Key, Value> implements Map<Key, Value>{
 	 * キーにマッチするマップエントリを取得する．
 	 *
 	 * @param key 検索するキー
-	 * @return キーにマッチしたマップエントリ
+	 * @return キーにマッチしたマップエントリ，存在しない場合は null
 	 */
 	public Map.Entry<Key, Value> find(final Object key){
 
@@ -72,166 +70,16 @@ public class FixedSizeMap<Key, Value> implements Map<Key, Value>{
 
 		}
 
-		for(final Map.Entry<Key, Value> e : this.elem){
-
-			if(key.equals(e.getKey())){
-
-				return e;
-
-			}
-
-		}
-
-		return null;
-
-	}
-
-	/* (非 Javadoc)
-	 * @see java.util.Map#put(java.lang.Object, java.lang.Object)
-	 */
-	@Override
-	public Value put(final Key key, final Value value) {
-
-		if(this.size() == this.limit){
-
-			this.elem.removeLast();
-
-		}
-
-		this.elem.addFirst(new AbstractMap.SimpleEntry<Key, Value>(key, value));
-		return value;
-
-	}
-
-
-	@Override
-	public Value get(final Object key) {
-
-		final Map.Entry<Key, Value> res = this.find(key);
-		if(res != null){
-
-			return res.getValue();
-
-		}else{
+		final Value value = this.get(key);
+		if(value == null){
 
 			return null;
 
 		}
 
-	}
-
-	@Override
-	public Value remove(final Object key) {
-
-		final Map.Entry<Key, Value> res = this.find(key);
-		if(res != null){
-
-			this.elem.remove(res);
-			return res.getValue();
-
-		}else{
-
-			return null;
-
-		}
-
-	}
-
-	@Override
-	public void putAll(final Map<? extends Key, ? extends Value> m) {
-
-		for(final Key key : m.keySet()){
-
-			this.put(key, m.get(key));
-
-		}
-
-	}
-
-	@Override
-	public boolean containsKey(Object key) {
-
-		return this.find(key) != null;
-
-	}
-
-	@Override
-	public boolean containsValue(Object value) {
-
-		for(final Map.Entry<Key, Value> e : this.elem){
-
-			if(value.equals(e.getValue())){
-
-				return true;
-
-			}
-
-		}
-
-		return false;
-
-	}
-
-	@Override
-	public int size() {
-
-		return this.elem.size();
-
-	}
-
-	@Override
-	public boolean isEmpty() {
-
-		return this.elem.isEmpty();
-
-	}
-
-	@Override
-	public void clear() {
-
-		this.elem.clear();
-
-	}
-
-	@Override
-	public Set<Key> keySet() {
-
-		final Set<Key> ret = new HashSet<Key>();
-		for(final Map.Entry<Key, Value> e : this.elem){
-
-			ret.add(e.getKey());
-
-		}
-
-		return ret;
-
-	}
-
-	@Override
-	public Collection<Value> values() {
-
-		final Collection<Value> ret = new ArrayList<Value>();
-		for(final Map.Entry<Key, Value> e : this.elem){
-
-			ret.add(e.getValue());
-
-		}
-
-		return ret;
-
-	}
-
-	@Override
-	public Set<Map.Entry<Key, Value>> entrySet() {
-
-		final Set<Map.Entry<Key, Value>> ret = new HashSet<Map.Entry<Key, Value>>();
-		for(final Map.Entry<Key, Value> e : this.elem){
-
-			ret.add(e);
-
-		}
-
-		return ret;
+		@SuppressWarnings("unchecked")
+		final Key k = (Key)key;
+		return new AbstractMap.SimpleImmutableEntry<Key, Value>(k, value);
 
 	}
 
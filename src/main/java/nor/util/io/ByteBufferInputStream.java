@@ -0,0 +1,103 @@
+/*
+ *  Copyright (C) 2011 Junpei Kawamoto
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package nor.util.io;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * バイトバッファを読み出す入力ストリーム．
+ * 元のバッファの位置は変更せず，複製したビューから読み出します．
+ *
+ * @author Junpei Kawamoto
+ * @since 0.3
+ */
+public class ByteBufferInputStream extends InputStream{
+
+	private final ByteBuffer buffer;
+
+	//====================================================================
+	//  コンストラクタ
+	//====================================================================
+	/**
+	 * 指定したバッファの現在位置から上限までを読み出すストリームを作成する．
+	 *
+	 * @param buffer 読み出すバッファ
+	 */
+	public ByteBufferInputStream(final ByteBuffer buffer){
+		assert buffer != null;
+
+		this.buffer = buffer.duplicate();
+
+	}
+
+	//====================================================================
+	//  public メソッド
+	//====================================================================
+	@Override
+	public int read() throws IOException{
+
+		if(!this.buffer.hasRemaining()){
+
+			return -1;
+
+		}
+		return this.buffer.get() & 0xff;
+
+	}
+
+	@Override
+	public int read(final byte[] b, final int off, final int len) throws IOException{
+
+		if(len == 0){
+
+			return 0;
+
+		}
+		if(!this.buffer.hasRemaining()){
+
+			return -1;
+
+		}
+
+		final int n = Math.min(len, this.buffer.remaining());
+		this.buffer.get(b, off, n);
+
+		return n;
+
+	}
+
+	@Override
+	public long skip(final long n) throws IOException{
+
+		final int m = (int)Math.max(0, Math.min(n, this.buffer.remaining()));
+		this.buffer.position(this.buffer.position() + m);
+
+		return m;
+
+	}
+
+	@Override
+	public int available() throws IOException{
+
+		return this.buffer.remaining();
+
+	}
+
+}
@@ -28,6 +28,8 @@ public class NoExceptionOutputStreamFilter extends FilterOutputStream{
 
 	private boolean alive = true;
 
+	private long written;
+
 	private static final Logger LOGGER = Logger.getLogger(NoExceptionOutputStreamFilter.class);
 
 	public NoExceptionOutputStreamFilter(final OutputStream out) {
@@ -72,6 +74,7 @@ public class NoExceptionOutputStreamFilter extends FilterOutputStream{
 			try{
 
 				this.out.write(b, off, len);
+				this.written += len;
 
 			}catch(final IOException e){
 
@@ -98,6 +101,7 @@ public class NoExceptionOutputStreamFilter extends FilterOutputStream{
 			try{
 
 				this.out.write(b);
+				this.written += b.length;
 
 			}catch(final IOException e){
 
@@ -124,6 +128,7 @@ public class NoExceptionOutputStreamFilter extends FilterOutputStream{
 			try{
 
 				this.out.write(b);
+				++this.written;
 
 			}catch(final IOException e){
 
@@ -138,6 +143,17 @@ public class NoExceptionOutputStreamFilter extends FilterOutputStream{
 		LOGGER.exiting("write");
 	}
 
+	/**
+	 * Get the number of bytes written to the underlying stream.
+	 *
+	 * @return the number of written bytes
+	 */
+	public long getWritten(){
+
+		return this.written;
+
+	}
+
 	/**
 	 * Check whether this stream is alive or not.
 	 *
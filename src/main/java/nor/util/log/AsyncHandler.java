@@ -0,0 +1,453 @@
+/*
+ *  Copyright (C) 2011 Junpei Kawamoto
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package nor.util.log;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.ErrorManager;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogManager;
+import java.util.logging.LogRecord;
+
+/**
+ * Handler which passes log records to other handlers in a background thread.
+ * Records are put into a bounded ring buffer without locks,
+ * so that logging threads never wait for the locks or I/O of the target handlers.
+ *
+ * The following properties of the LogManager configure this handler:
+ * <ul>
+ * <li>nor.util.log.AsyncHandler.targets: comma separated class names of the target handlers (default: java.util.logging.ConsoleHandler)</li>
+ * <li>nor.util.log.AsyncHandler.capacity: the number of records the buffer holds, rounded up to a power of two (default: 8192)</li>
+ * <li>nor.util.log.AsyncHandler.level: the level of this handler (default: ALL)</li>
+ * </ul>
+ * If the buffer is full, records below WARNING are dropped and counted,
+ * and the others wait for free space so that they are never lost.
+ *
+ * @author Junpei Kawamoto
+ * @since 0.3
+ */
+public class AsyncHandler extends Handler{
+
+	private static final int DefaultCapacity = 8192;
+	private static final long IdleWait = TimeUnit.MILLISECONDS.toNanos(100);
+	private static final long CloseWait = TimeUnit.SECONDS.toMillis(5);
+
+	private final Handler[] targets;
+
+	private final AtomicReferenceArray<LogRecord> ring;
+	private final int mask;
+
+	/**
+	 * The next sequence claimed by a producer
+	 */
+	private final AtomicLong tail = new AtomicLong();
+
+	/**
+	 * The next sequence taken by the writer thread
+	 */
+	private volatile long head;
+
+	private final AtomicLong dropped = new AtomicLong();
+
+	private final Thread writer;
+	private volatile boolean idle;
+	private volatile boolean closed;
+
+	//============================================================================
+	// Constructor
+	//============================================================================
+	/**
+	 * Create a handler configured by the LogManager properties.
+	 */
+	public AsyncHandler(){
+
+		this(new Configuration());
+
+	}
+
+	/**
+	 * Create a handler from the loaded configuration,
+	 * and report problems found while loading it to the error manager.
+	 */
+	private AsyncHandler(final Configuration conf){
+
+		this(conf.targets, conf.capacity);
+
+		for(int i = 0; i != conf.errors.size(); ++i){
+
+			this.reportError(conf.messages.get(i), conf.errors.get(i), ErrorManager.OPEN_FAILURE);
+
+		}
+
+		final String level = property("level");
+		if(level != null){
+
+			try{
+
+				this.setLevel(Level.parse(level.trim()));
+
+			}catch(final IllegalArgumentException e){
+
+				this.reportError("Invalid level: " + level, e, ErrorManager.GENERIC_FAILURE);
+
+			}
+
+		}
+
+	}
+
+	/**
+	 * Create a handler.
+	 *
+	 * @param targets the handlers which actually publish records
+	 * @param capacity the number of records the buffer holds
+	 */
+	public AsyncHandler(final Handler[] targets, final int capacity){
+		assert targets != null;
+		assert capacity > 0;
+
+		this.targets = targets.clone();
+
+		int size = 1;
+		while(size < capacity){
+
+			size <<= 1;
+
+		}
+		this.ring = new AtomicReferenceArray<LogRecord>(size);
+		this.mask = size - 1;
+
+		this.writer = new Thread(new Runnable(){
+
+			@Override
+			public void run(){
+
+				AsyncHandler.this.drain();
+
+			}
+
+		}, "Log Writer");
+		this.writer.setDaemon(true);
+		this.writer.start();
+
+	}
+
+	//============================================================================
+	// Public methods
+	//============================================================================
+	@Override
+	public void publish(final LogRecord record){
+
+		if(this.closed || !this.isLoggable(record)){
+
+			return;
+
+		}
+
+		// Infer the caller in this thread, since the writer thread cannot.
+		record.getSourceClassName();
+
+		long t = this.tail.get();
+		while(t - this.head > this.mask || !this.tail.compareAndSet(t, t + 1)){
+
+			if(t - this.head > this.mask && !this.waitFor(record)){
+
+				return;
+
+			}
+			t = this.tail.get();
+
+		}
+
+		this.ring.lazySet((int)t & this.mask, record);
+		if(this.idle){
+
+			LockSupport.unpark(this.writer);
+
+		}
+
+	}
+
+	/**
+	 * Wait until the records published so far are passed to the targets, and flush them.
+	 */
+	@Override
+	public void flush(){
+
+		final long t = this.tail.get();
+		while(this.head < t && this.writer.isAlive()){
+
+			LockSupport.unpark(this.writer);
+			Thread.yield();
+
+		}
+
+		for(final Handler h : this.targets){
+
+			h.flush();
+
+		}
+
+	}
+
+	@Override
+	public void close(){
+
+		this.closed = true;
+		LockSupport.unpark(this.writer);
+		try{
+
+			this.writer.join(CloseWait);
+
+		}catch(final InterruptedException e){
+
+			Thread.currentThread().interrupt();
+
+		}
+
+		for(final Handler h : this.targets){
+
+			h.close();
+
+		}
+
+	}
+
+	/**
+	 * Get the number of records dropped because the buffer was full.
+	 *
+	 * @return the number of dropped records
+	 */
+	public long getDropped(){
+
+		return this.dropped.get();
+
+	}
+
+	//============================================================================
+	// Private methods
+	//============================================================================
+	/**
+	 * Main loop of the writer thread.
+	 */
+	private void drain(){
+
+		long h = this.head;
+		while(true){
+
+			final int i = (int)h & this.mask;
+			final LogRecord r = this.ring.get(i);
+			if(r == null){
+
+				if(this.closed && h == this.tail.get()){
+
+					break;
+
+				}
+				this.reportDropped();
+				for(final Handler t : this.targets){
+
+					t.flush();
+
+				}
+
+				this.idle = true;
+				if(this.ring.get(i) == null && !this.closed){
+
+					LockSupport.parkNanos(this, IdleWait);
+
+				}
+				this.idle = false;
+				continue;
+
+			}
+
+			this.ring.set(i, null);
+			this.head = ++h;
+			this.send(r);
+
+		}
+
+		this.reportDropped();
+		for(final Handler t : this.targets){
+
+			t.flush();
+
+		}
+
+	}
+
+	private void send(final LogRecord record){
+
+		for(final Handler t : this.targets){
+
+			try{
+
+				t.publish(record);
+
+			}catch(final RuntimeException e){
+
+				this.reportError(null, e, ErrorManager.WRITE_FAILURE);
+
+			}
+
+		}
+
+	}
+
+	/**
+	 * Handle a record when the buffer is full.
+	 * Returns true after waiting for free space if the record must not be dropped.
+	 */
+	private boolean waitFor(final LogRecord record){
+
+		if(record.getLevel().intValue() < Level.WARNING.intValue() || !this.writer.isAlive()){
+
+			this.dropped.incrementAndGet();
+			return false;
+
+		}
+
+		LockSupport.unpark(this.writer);
+		Thread.yield();
+		return true;
+
+	}
+
+	private void reportDropped(){
+
+		final long n = this.dropped.getAndSet(0);
+		if(n != 0){
+
+			final LogRecord r = new LogRecord(Level.WARNING, "[" + Thread.currentThread().getName() + "] " + n + " log records were dropped");
+			r.setSourceClassName(AsyncHandler.class.getName());
+			r.setSourceMethodName("drain");
+			this.send(r);
+
+		}
+
+	}
+
+	private static String property(final String name){
+
+		return LogManager.getLogManager().getProperty(AsyncHandler.class.getName() + "." + name);
+
+	}
+
+	//============================================================================
+	// Inner classes
+	//============================================================================
+	/**
+	 * Configuration read from the LogManager properties.
+	 * Problems are kept until the handler exists, because only a handler can report them to its error manager.
+	 */
+	private static final class Configuration{
+
+		final List<String> messages = new ArrayList<String>();
+		final List<Exception> errors = new ArrayList<Exception>();
+
+		final Handler[] targets;
+		final int capacity;
+
+		Configuration(){
+
+			this.targets = this.loadTargets();
+			this.capacity = this.loadCapacity();
+
+		}
+
+		private Handler[] loadTargets(){
+
+			String names = property("targets");
+			if(names == null){
+
+				names = "java.util.logging.ConsoleHandler";
+
+			}
+
+			final List<Handler> res = new ArrayList<Handler>();
+			for(final String name : names.split("[,\\s]+")){
+
+				if(name.length() == 0){
+
+					continue;
+
+				}
+
+				try{
+
+					res.add(ClassLoader.getSystemClassLoader().loadClass(name).asSubclass(Handler.class).getDeclaredConstructor().newInstance());
+
+				}catch(final InvocationTargetException e){
+
+					// コンストラクタが投げた例外を報告する
+					this.messages.add("Cannot create a log handler: " + name);
+					this.errors.add(e.getCause() instanceof Exception ? (Exception)e.getCause() : e);
+
+				}catch(final ReflectiveOperationException e){
+
+					this.messages.add("Cannot create a log handler: " + name);
+					this.errors.add(e);
+
+				}catch(final ClassCastException e){
+
+					this.messages.add("Not a log handler: " + name);
+					this.errors.add(e);
+
+				}
+
+			}
+			return res.toArray(new Handler[res.size()]);
+
+		}
+
+		private int loadCapacity(){
+
+			final String capacity = property("capacity");
+			if(capacity != null){
+
+				try{
+
+					final int res = Integer.parseInt(capacity.trim());
+					if(res > 0){
+
+						return res;
+
+					}
+
+				}catch(final NumberFormatException e){
+
+					this.messages.add("Invalid capacity of the log buffer: " + capacity);
+					this.errors.add(e);
+
+				}
+
+			}
+			return DefaultCapacity;
+
+		}
+
+	}
+
+}
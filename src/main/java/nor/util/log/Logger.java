@@ -73,40 +73,237 @@ public class Logger{
 	//============================================================================
 	// Public methods
 	//============================================================================
+	/**
+	 * Check if a message of the given level would be logged.
+	 * Use this to guard logging calls which build their arguments.
+	 *
+	 * @param level the level of a message
+	 * @return true if the message would be logged
+	 */
+	public boolean isLoggable(final Level level){
+
+		return this.impl.isLoggable(level);
+
+	}
+
+	/**
+	 * Log a message which is built only if the level is enabled.
+	 *
+	 * @param level the level of the message
+	 * @param method the name of the method
+	 * @param msg the supplier of the message
+	 */
+	public void log(final Level level, final String method, final MessageSupplier msg){
+
+		if(this.impl.isLoggable(level)){
+
+			this.impl.logp(level, this.classname, method, msg.get());
+
+		}
+
+	}
+
+	public void log(final Level level, final Class<?> cls, final String method, final MessageSupplier msg){
+
+		if(this.impl.isLoggable(level)){
+
+			this.impl.logp(level, cls.getName(), method, msg.get());
+
+		}
+
+	}
+
+	//----------------------------------------------------------------------------
+	// For tracing.
+	// Fixed-arity methods allocate nothing unless FINER is enabled.
+	//----------------------------------------------------------------------------
+	public void entering(final String method){
+
+		if(this.impl.isLoggable(Level.FINER)){
+
+			this.impl.logp(Level.FINER, this.classname, method, "ENTRY");
+
+		}
+
+	}
+
+	public void entering(final String method, final Object param){
+
+		if(this.impl.isLoggable(Level.FINER)){
+
+			this.impl.logp(Level.FINER, this.classname, method, "ENTRY {0}", new Object[]{param});
+
+		}
+
+	}
+
+	public void entering(final String method, final Object param1, final Object param2){
+
+		if(this.impl.isLoggable(Level.FINER)){
+
+			this.impl.logp(Level.FINER, this.classname, method, "ENTRY {0}", new Object[]{param1, param2});
+
+		}
+
+	}
+
+	public void entering(final String method, final Object param1, final Object param2, final Object param3){
+
+		if(this.impl.isLoggable(Level.FINER)){
+
+			this.impl.logp(Level.FINER, this.classname, method, "ENTRY {0}", new Object[]{param1, param2, param3});
+
+		}
+
+	}
+
+	/**
+	 * Log entry to a method taking a part of an array, such as read(byte[], int, int).
+	 */
+	public void entering(final String method, final Object array, final int off, final int len){
+
+		if(this.impl.isLoggable(Level.FINER)){
+
+			this.impl.logp(Level.FINER, this.classname, method, "ENTRY {0}", new Object[]{array, off, len});
+
+		}
+
+	}
+
 	public void entering(final String method, final Object ... params){
 
-		if(params.length == 0){
+		if(this.impl.isLoggable(Level.FINER)){
 
-			this.finer(method, "ENTRY");
+			if(params.length == 0){
 
-		}else{
+				this.impl.logp(Level.FINER, this.classname, method, "ENTRY");
+
+			}else{
 
-			this.finer(method, "ENTRY {0}", params);
+				this.impl.logp(Level.FINER, this.classname, method, "ENTRY {0}", params);
+
+			}
 
 		}
+
 	}
 
 	public void exiting(final String method){
 
-		this.finer(method, "EXIT");
+		if(this.impl.isLoggable(Level.FINER)){
+
+			this.impl.logp(Level.FINER, this.classname, method, "EXIT");
+
+		}
 
 	}
 
 	public void exiting(final String method, final Object param){
 
-		this.finer(method, "EXIT {0}", param);
+		if(this.impl.isLoggable(Level.FINER)){
+
+			this.impl.logp(Level.FINER, this.classname, method, "EXIT {0}", new Object[]{param});
+
+		}
+
+	}
+
+	public void exiting(final String method, final int param){
+
+		if(this.impl.isLoggable(Level.FINER)){
+
+			this.impl.logp(Level.FINER, this.classname, method, "EXIT {0}", new Object[]{param});
+
+		}
+
+	}
+
+	public void exiting(final String method, final long param){
+
+		if(this.impl.isLoggable(Level.FINER)){
+
+			this.impl.logp(Level.FINER, this.classname, method, "EXIT {0}", new Object[]{param});
+
+		}
+
+	}
+
+	public void exiting(final String method, final boolean param){
+
+		if(this.impl.isLoggable(Level.FINER)){
+
+			this.impl.logp(Level.FINER, this.classname, method, "EXIT {0}", new Object[]{param});
+
+		}
+
+	}
+
+	public void entering(final Class<?> cls, final String method){
+
+		if(this.impl.isLoggable(Level.FINER)){
+
+			this.impl.logp(Level.FINER, cls.getName(), method, "ENTRY");
+
+		}
+
+	}
+
+	public void entering(final Class<?> cls, final String method, final Object param){
+
+		if(this.impl.isLoggable(Level.FINER)){
+
+			this.impl.logp(Level.FINER, cls.getName(), method, "ENTRY {0}", new Object[]{param});
+
+		}
+
+	}
+
+	public void entering(final Class<?> cls, final String method, final Object param1, final Object param2){
+
+		if(this.impl.isLoggable(Level.FINER)){
+
+			this.impl.logp(Level.FINER, cls.getName(), method, "ENTRY {0}", new Object[]{param1, param2});
+
+		}
+
+	}
+
+	public void entering(final Class<?> cls, final String method, final Object param1, final Object param2, final Object param3){
+
+		if(this.impl.isLoggable(Level.FINER)){
+
+			this.impl.logp(Level.FINER, cls.getName(), method, "ENTRY {0}", new Object[]{param1, param2, param3});
+
+		}
+
+	}
+
+	/**
+	 * Log entry to a method taking a part of an array, such as read(byte[], int, int).
+	 */
+	public void entering(final Class<?> cls, final String method, final Object array, final int off, final int len){
+
+		if(this.impl.isLoggable(Level.FINER)){
+
+			this.impl.logp(Level.FINER, cls.getName(), method, "ENTRY {0}", new Object[]{array, off, len});
+
+		}
 
 	}
 
 	public void entering(final Class<?> cls, final String method, final Object ... params){
 
-		if(params.length == 0){
+		if(this.impl.isLoggable(Level.FINER)){
 
-			this.finer(cls, method, "ENTRY");
+			if(params.length == 0){
 
-		}else{
+				this.impl.logp(Level.FINER, cls.getName(), method, "ENTRY");
+
+			}else{
+
+				this.impl.logp(Level.FINER, cls.getName(), method, "ENTRY {0}", params);
 
-			this.finer(cls, method, "ENTRY {0}", params);
+			}
 
 		}
 
@@ -114,13 +311,51 @@ public class Logger{
 
 	public void exiting(final Class<?> cls, final String method){
 
-		this.finer(cls, method, "EXIT");
+		if(this.impl.isLoggable(Level.FINER)){
+
+			this.impl.logp(Level.FINER, cls.getName(), method, "EXIT");
+
+		}
 
 	}
 
 	public void exiting(final Class<?> cls, final String method, final Object param){
 
-		this.finer(cls, method, "EXIT {0}", param);
+		if(this.impl.isLoggable(Level.FINER)){
+
+			this.impl.logp(Level.FINER, cls.getName(), method, "EXIT {0}", new Object[]{param});
+
+		}
+
+	}
+
+	public void exiting(final Class<?> cls, final String method, final int param){
+
+		if(this.impl.isLoggable(Level.FINER)){
+
+			this.impl.logp(Level.FINER, cls.getName(), method, "EXIT {0}", new Object[]{param});
+
+		}
+
+	}
+
+	public void exiting(final Class<?> cls, final String method, final long param){
+
+		if(this.impl.isLoggable(Level.FINER)){
+
+			this.impl.logp(Level.FINER, cls.getName(), method, "EXIT {0}", new Object[]{param});
+
+		}
+
+	}
+
+	public void exiting(final Class<?> cls, final String method, final boolean param){
+
+		if(this.impl.isLoggable(Level.FINER)){
+
+			this.impl.logp(Level.FINER, cls.getName(), method, "EXIT {0}", new Object[]{param});
+
+		}
 
 	}
 
@@ -194,19 +429,155 @@ public class Logger{
 
 	public void fine(final String method, final String format, final Object... args){
 
-		this.impl.logp(Level.FINE, this.classname, method, format, args);
+		if(this.impl.isLoggable(Level.FINE)){
+
+			this.impl.logp(Level.FINE, this.classname, method, format, args);
+
+		}
 
 	}
 
 	public void finer(final String method, final String format, final Object... args){
 
-		this.impl.logp(Level.FINER, this.classname, method, format, args);
+		if(this.impl.isLoggable(Level.FINER)){
+
+			this.impl.logp(Level.FINER, this.classname, method, format, args);
+
+		}
 
 	}
 
 	public void finest(final String method, final String format, final Object... args){
 
-		this.impl.logp(Level.FINEST, this.classname, method, format, args);
+		if(this.impl.isLoggable(Level.FINEST)){
+
+			this.impl.logp(Level.FINEST, this.classname, method, format, args);
+
+		}
+
+	}
+
+	//----------------------------------------------------------------------------
+	// Fixed-arity logging methods for debug levels.
+	// They allocate nothing unless the level is enabled.
+	//----------------------------------------------------------------------------
+	public void fine(final String method, final String msg){
+
+		if(this.impl.isLoggable(Level.FINE)){
+
+			this.impl.logp(Level.FINE, this.classname, method, msg);
+
+		}
+
+	}
+
+	public void fine(final String method, final String format, final Object arg){
+
+		if(this.impl.isLoggable(Level.FINE)){
+
+			this.impl.logp(Level.FINE, this.classname, method, format, new Object[]{arg});
+
+		}
+
+	}
+
+	public void fine(final String method, final String format, final Object arg1, final Object arg2){
+
+		if(this.impl.isLoggable(Level.FINE)){
+
+			this.impl.logp(Level.FINE, this.classname, method, format, new Object[]{arg1, arg2});
+
+		}
+
+	}
+
+	public void fine(final String method, final String format, final Object arg1, final Object arg2, final Object arg3){
+
+		if(this.impl.isLoggable(Level.FINE)){
+
+			this.impl.logp(Level.FINE, this.classname, method, format, new Object[]{arg1, arg2, arg3});
+
+		}
+
+	}
+
+	public void finer(final String method, final String msg){
+
+		if(this.impl.isLoggable(Level.FINER)){
+
+			this.impl.logp(Level.FINER, this.classname, method, msg);
+
+		}
+
+	}
+
+	public void finer(final String method, final String format, final Object arg){
+
+		if(this.impl.isLoggable(Level.FINER)){
+
+			this.impl.logp(Level.FINER, this.classname, method, format, new Object[]{arg});
+
+		}
+
+	}
+
+	public void finer(final String method, final String format, final Object arg1, final Object arg2){
+
+		if(this.impl.isLoggable(Level.FINER)){
+
+			this.impl.logp(Level.FINER, this.classname, method, format, new Object[]{arg1, arg2});
+
+		}
+
+	}
+
+	public void finer(final String method, final String format, final Object arg1, final Object arg2, final Object arg3){
+
+		if(this.impl.isLoggable(Level.FINER)){
+
+			this.impl.logp(Level.FINER, this.classname, method, format, new Object[]{arg1, arg2, arg3});
+
+		}
+
+	}
+
+	public void finest(final String method, final String msg){
+
+		if(this.impl.isLoggable(Level.FINEST)){
+
+			this.impl.logp(Level.FINEST, this.classname, method, msg);
+
+		}
+
+	}
+
+	public void finest(final String method, final String format, final Object arg){
+
+		if(this.impl.isLoggable(Level.FINEST)){
+
+			this.impl.logp(Level.FINEST, this.classname, method, format, new Object[]{arg});
+
+		}
+
+	}
+
+	public void finest(final String method, final String format, final Object arg1, final Object arg2){
+
+		if(this.impl.isLoggable(Level.FINEST)){
+
+			this.impl.logp(Level.FINEST, this.classname, method, format, new Object[]{arg1, arg2});
+
+		}
+
+	}
+
+	public void finest(final String method, final String format, final Object arg1, final Object arg2, final Object arg3){
+
+		if(this.impl.isLoggable(Level.FINEST)){
+
+			this.impl.logp(Level.FINEST, this.classname, method, format, new Object[]{arg1, arg2, arg3});
+
+		}
 
 	}
 
@@ -239,19 +610,154 @@ public class Logger{
 
 	public void fine(final Class<?> cls, final String method, final String format, final Object... args){
 
-		this.impl.logp(Level.FINE, cls.getName(), method, format, args);
+		if(this.impl.isLoggable(Level.FINE)){
+
+			this.impl.logp(Level.FINE, cls.getName(), method, format, args);
+
+		}
 
 	}
 
 	public void finer(final Class<?> cls, final String method, final String format, final Object... args){
 
-		this.impl.logp(Level.FINER, cls.getName(), method, format, args);
+		if(this.impl.isLoggable(Level.FINER)){
+
+			this.impl.logp(Level.FINER, cls.getName(), method, format, args);
+
+		}
 
 	}
 
 	public void finest(final Class<?> cls, final String method, final String format, final Object... args){
 
-		this.impl.logp(Level.FINEST, cls.getName(), method, format, args);
+		if(this.impl.isLoggable(Level.FINEST)){
+
+			this.impl.logp(Level.FINEST, cls.getName(), method, format, args);
+
+		}
+
+	}
+
+	//----------------------------------------------------------------------------
+	// Fixed-arity logging methods for debug levels of inner classes.
+	//----------------------------------------------------------------------------
+	public void fine(final Class<?> cls, final String method, final String msg){
+
+		if(this.impl.isLoggable(Level.FINE)){
+
+			this.impl.logp(Level.FINE, cls.getName(), method, msg);
+
+		}
+
+	}
+
+	public void fine(final Class<?> cls, final String method, final String format, final Object arg){
+
+		if(this.impl.isLoggable(Level.FINE)){
+
+			this.impl.logp(Level.FINE, cls.getName(), method, format, new Object[]{arg});
+
+		}
+
+	}
+
+	public void fine(final Class<?> cls, final String method, final String format, final Object arg1, final Object arg2){
+
+		if(this.impl.isLoggable(Level.FINE)){
+
+			this.impl.logp(Level.FINE, cls.getName(), method, format, new Object[]{arg1, arg2});
+
+		}
+
+	}
+
+	public void fine(final Class<?> cls, final String method, final String format, final Object arg1, final Object arg2, final Object arg3){
+
+		if(this.impl.isLoggable(Level.FINE)){
+
+			this.impl.logp(Level.FINE, cls.getName(), method, format, new Object[]{arg1, arg2, arg3});
+
+		}
+
+	}
+
+	public void finer(final Class<?> cls, final String method, final String msg){
+
+		if(this.impl.isLoggable(Level.FINER)){
+
+			this.impl.logp(Level.FINER, cls.getName(), method, msg);
+
+		}
+
+	}
+
+	public void finer(final Class<?> cls, final String method, final String format, final Object arg){
+
+		if(this.impl.isLoggable(Level.FINER)){
+
+			this.impl.logp(Level.FINER, cls.getName(), method, format, new Object[]{arg});
+
+		}
+
+	}
+
+	public void finer(final Class<?> cls, final String method, final String format, final Object arg1, final Object arg2){
+
+		if(this.impl.isLoggable(Level.FINER)){
+
+			this.impl.logp(Level.FINER, cls.getName(), method, format, new Object[]{arg1, arg2});
+
+		}
+
+	}
+
+	public void finer(final Class<?> cls, final String method, final String format, final Object arg1, final Object arg2, final Object arg3){
+
+		if(this.impl.isLoggable(Level.FINER)){
+
+			this.impl.logp(Level.FINER, cls.getName(), method, format, new Object[]{arg1, arg2, arg3});
+
+		}
+
+	}
+
+	public void finest(final Class<?> cls, final String method, final String msg){
+
+		if(this.impl.isLoggable(Level.FINEST)){
+
+			this.impl.logp(Level.FINEST, cls.getName(), method, msg);
+
+		}
+
+	}
+
+	public void finest(final Class<?> cls, final String method, final String format, final Object arg){
+
+		if(this.impl.isLoggable(Level.FINEST)){
+
+			this.impl.logp(Level.FINEST, cls.getName(), method, format, new Object[]{arg});
+
+		}
+
+	}
+
+	public void finest(final Class<?> cls, final String method, final String format, final Object arg1, final Object arg2){
+
+		if(this.impl.isLoggable(Level.FINEST)){
+
+			this.impl.logp(Level.FINEST, cls.getName(), method, format, new Object[]{arg1, arg2});
+
+		}
+
+	}
+
+	public void finest(final Class<?> cls, final String method, final String format, final Object arg1, final Object arg2, final Object arg3){
+
+		if(this.impl.isLoggable(Level.FINEST)){
+
+			this.impl.logp(Level.FINEST, cls.getName(), method, format, new Object[]{arg1, arg2, arg3});
+
+		}
 
 	}
 
@@ -283,7 +789,8 @@ public class Logger{
 		public void log(final LogRecord record) {
 
 			final String msg = record.getMessage();
-			record.setMessage(String.format("[%s] %s", Thread.currentThread().getName(), msg));
+			final String thread = Thread.currentThread().getName();
+			record.setMessage(new StringBuilder(thread.length() + 3 + (msg == null ? 4 : msg.length())).append('[').append(thread).append("] ").append(msg).toString());
 
 			super.log(record);
 
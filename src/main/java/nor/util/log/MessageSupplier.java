@@ -0,0 +1,37 @@
+/*
+ *  Copyright (C) 2011 Junpei Kawamoto
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package nor.util.log;
+
+/**
+ * Supplier of a log message.
+ * The message is built only if its level is enabled.
+ * Keep an instance in a field to avoid allocation at each call.
+ *
+ * @author Junpei Kawamoto
+ * @since 0.3
+ */
+public interface MessageSupplier{
+
+	/**
+	 * Build the message.
+	 *
+	 * @return the message
+	 */
+	public String get();
+
+}
@@ -0,0 +1,125 @@
+/*
+ *  Copyright (C) 2011 Junpei Kawamoto
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package nor.util.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counter striped over several cells to avoid contention between threads.
+ * Each thread adds to the cell chosen by its id, and the cells are summed up only when the value is read.
+ *
+ * @author Junpei Kawamoto
+ * @since 0.3
+ */
+public final class Counter{
+
+	/**
+	 * Distance between cells in longs, which keeps each cell on its own cache line
+	 */
+	private static final int Padding = 8;
+
+	private static final int Stripes;
+
+	private final AtomicLongArray cells;
+
+	//============================================================================
+	//  Constructor
+	//============================================================================
+	/**
+	 * Create a counter which is not registered to {@link Metrics}.
+	 */
+	public Counter(){
+
+		this.cells = new AtomicLongArray(Stripes * Padding);
+
+	}
+
+	//============================================================================
+	//  Public methods
+	//============================================================================
+	/**
+	 * Add one.
+	 */
+	public void increment(){
+
+		this.add(1);
+
+	}
+
+	/**
+	 * Add a value.
+	 *
+	 * @param delta the value to add
+	 */
+	public void add(final long delta){
+
+		this.cells.getAndAdd(index(), delta);
+
+	}
+
+	/**
+	 * Get the current value.
+	 *
+	 * @return the sum of all cells
+	 */
+	public long get(){
+
+		long ret = 0;
+		for(int i = 0; i < this.cells.length(); i += Padding){
+
+			ret += this.cells.get(i);
+
+		}
+		return ret;
+
+	}
+
+	@Override
+	public String toString(){
+
+		return Long.toString(this.get());
+
+	}
+
+	//============================================================================
+	//  Private methods
+	//============================================================================
+	private static int index(){
+
+		return ((int)Thread.currentThread().getId() & (Stripes - 1)) * Padding;
+
+	}
+
+	//============================================================================
+	//  Class constructor
+	//============================================================================
+	static{
+
+		final int cpus = Runtime.getRuntime().availableProcessors();
+
+		int n = 1;
+		while(n < cpus * 2 && n < 64){
+
+			n <<= 1;
+
+		}
+		Stripes = n;
+
+	}
+
+}
@@ -0,0 +1,35 @@
+/*
+ *  Copyright (C) 2011 Junpei Kawamoto
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package nor.util.metrics;
+
+/**
+ * Metric whose value is read only when it is exported.
+ *
+ * @author Junpei Kawamoto
+ * @since 0.3
+ */
+public interface Gauge{
+
+	/**
+	 * Get the current value.
+	 *
+	 * @return the current value
+	 */
+	public long get();
+
+}
@@ -0,0 +1,180 @@
+/*
+ *  Copyright (C) 2011 Junpei Kawamoto
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package nor.util.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Latency histogram with log-linear buckets, in the manner of HdrHistogram.
+ * Each power of two is divided into 16 linear sub-buckets, so that any recorded value
+ * is reported within 6.25% of its actual value, from nanoseconds to years.
+ * Recording is one atomic increment plus the striped sum and count,
+ * and quantiles are computed only when they are read.
+ *
+ * @author Junpei Kawamoto
+ * @since 0.3
+ */
+public final class Histogram{
+
+	private static final int SubBucketBits = 4;
+	private static final int SubBuckets = 1 << SubBucketBits;
+	private static final int Buckets = (64 - SubBucketBits) * SubBuckets;
+
+	private final AtomicLongArray counts = new AtomicLongArray(Buckets);
+	private final Counter count = new Counter();
+	private final Counter sum = new Counter();
+
+	//============================================================================
+	//  Constructor
+	//============================================================================
+	Histogram(){
+	}
+
+	//============================================================================
+	//  Public methods
+	//============================================================================
+	/**
+	 * Record a value.
+	 *
+	 * @param value the value in nanoseconds; negative values are recorded as 0
+	 */
+	public void record(final long value){
+
+		final long v = value < 0 ? 0 : value;
+		this.counts.incrementAndGet(index(v));
+		this.count.increment();
+		this.sum.add(v);
+
+	}
+
+	/**
+	 * Record the time elapsed since the given start.
+	 * Nothing is recorded if metrics are disabled.
+	 *
+	 * @param start the start time returned by {@link Metrics#start()}
+	 */
+	public void recordSince(final long start){
+
+		if(Metrics.Enabled){
+
+			this.record(System.nanoTime() - start);
+
+		}
+
+	}
+
+	/**
+	 * Get the number of recorded values.
+	 *
+	 * @return the number of recorded values
+	 */
+	public long getCount(){
+
+		return this.count.get();
+
+	}
+
+	/**
+	 * Get the sum of recorded values.
+	 *
+	 * @return the sum in nanoseconds
+	 */
+	public long getSum(){
+
+		return this.sum.get();
+
+	}
+
+	/**
+	 * Get the value at a quantile.
+	 *
+	 * @param quantile the quantile between 0 and 1
+	 * @return the upper bound of the bucket containing the quantile, or 0 if nothing is recorded
+	 */
+	public long getValueAtQuantile(final double quantile){
+
+		final long[] snapshot = new long[Buckets];
+		long total = 0;
+		for(int i = 0; i != Buckets; ++i){
+
+			snapshot[i] = this.counts.get(i);
+			total += snapshot[i];
+
+		}
+		if(total == 0){
+
+			return 0;
+
+		}
+
+		final long rank = Math.max(1, (long)Math.ceil(quantile * total));
+		long seen = 0;
+		for(int i = 0; i != Buckets; ++i){
+
+			seen += snapshot[i];
+			if(seen >= rank){
+
+				return upperBound(i);
+
+			}
+
+		}
+		return upperBound(Buckets - 1);
+
+	}
+
+	//============================================================================
+	//  Package private methods
+	//============================================================================
+	/**
+	 * Get the bucket of a value.
+	 * Values below 16 have their own buckets; larger ones are divided by their highest bit and the next four bits.
+	 */
+	static int index(final long value){
+
+		if(value < SubBuckets){
+
+			return (int)value;
+
+		}
+
+		final int exp = 63 - Long.numberOfLeadingZeros(value);
+		final int sub = (int)(value >>> (exp - SubBucketBits)) & (SubBuckets - 1);
+		return (exp - SubBucketBits + 1) * SubBuckets + sub;
+
+	}
+
+	/**
+	 * Get the largest value in a bucket.
+	 */
+	static long upperBound(final int index){
+
+		if(index < SubBuckets){
+
+			return index;
+
+		}
+
+		final int exp = index / SubBuckets + SubBucketBits - 1;
+		final long sub = index % SubBuckets;
+		final long lower = (1L << exp) | (sub << (exp - SubBucketBits));
+		return lower + (1L << (exp - SubBucketBits)) - 1;
+
+	}
+
+}
@@ -0,0 +1,363 @@
+/*
+ *  Copyright (C) 2011 Junpei Kawamoto
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package nor.util.metrics;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+import nor.util.log.Logger;
+
+/**
+ * Registry of metrics exported in the Prometheus text format.
+ * Metrics are grouped by name, and each member of a group is distinguished by its labels.
+ * Call sites keep the returned metrics in fields, since looking them up is not meant for hot paths.
+ *
+ * @author Junpei Kawamoto
+ * @since 0.3
+ */
+public final class Metrics{
+
+	/**
+	 * Whether timers record values
+	 */
+	public static final boolean Enabled;
+
+	/**
+	 * Quantiles exported for histograms
+	 */
+	private static final double[] Quantiles = {0.5, 0.9, 0.99, 0.999};
+
+	private static final double NanosPerSecond = 1e9;
+
+	private static final ConcurrentMap<String, Family> Families = new ConcurrentSkipListMap<String, Family>();
+
+	private static final Logger LOGGER = Logger.getLogger(Metrics.class);
+
+	private enum Type{
+
+		counter, gauge, summary
+
+	}
+
+	//============================================================================
+	//  Constructor
+	//============================================================================
+	private Metrics(){}
+
+	//============================================================================
+	//  Public methods
+	//============================================================================
+	/**
+	 * Get a counter, creating it if needed.
+	 *
+	 * @param name the name of the metric
+	 * @param help the description of the metric
+	 * @param labels pairs of label names and values
+	 * @return the counter
+	 */
+	public static Counter counter(final String name, final String help, final String... labels){
+
+		final Family f = family(name, help, Type.counter);
+		final String key = labels(labels);
+
+		Object ret = f.members.get(key);
+		if(ret == null){
+
+			final Object prev = f.members.putIfAbsent(key, ret = new Counter());
+			if(prev != null){
+
+				ret = prev;
+
+			}
+
+		}
+		return (Counter)ret;
+
+	}
+
+	/**
+	 * Get a latency histogram, creating it if needed.
+	 * Values are recorded in nanoseconds and exported in seconds.
+	 *
+	 * @param name the name of the metric
+	 * @param help the description of the metric
+	 * @param labels pairs of label names and values
+	 * @return the histogram
+	 */
+	public static Histogram histogram(final String name, final String help, final String... labels){
+
+		final Family f = family(name, help, Type.summary);
+		final String key = labels(labels);
+
+		Object ret = f.members.get(key);
+		if(ret == null){
+
+			final Object prev = f.members.putIfAbsent(key, ret = new Histogram());
+			if(prev != null){
+
+				ret = prev;
+
+			}
+
+		}
+		return (Histogram)ret;
+
+	}
+
+	/**
+	 * Register a gauge, replacing the one registered with the same labels.
+	 *
+	 * @param name the name of the metric
+	 * @param help the description of the metric
+	 * @param gauge the gauge
+	 * @param labels pairs of label names and values
+	 */
+	public static void gauge(final String name, final String help, final Gauge gauge, final String... labels){
+
+		family(name, help, Type.gauge).members.put(labels(labels), gauge);
+
+	}
+
+	/**
+	 * Register a gauge exported as a counter, for a value which only increases.
+	 *
+	 * @param name the name of the metric
+	 * @param help the description of the metric
+	 * @param gauge the gauge
+	 * @param labels pairs of label names and values
+	 */
+	public static void counter(final String name, final String help, final Gauge gauge, final String... labels){
+
+		family(name, help, Type.counter).members.put(labels(labels), gauge);
+
+	}
+
+	/**
+	 * Remove a metric.
+	 *
+	 * @param name the name of the metric
+	 * @param labels pairs of label names and values
+	 */
+	public static void remove(final String name, final String... labels){
+
+		final Family f = Families.get(name);
+		if(f != null){
+
+			f.members.remove(labels(labels));
+
+		}
+
+	}
+
+	/**
+	 * Get the start time of a measurement.
+	 *
+	 * @return the current time in nanoseconds, or 0 if metrics are disabled
+	 */
+	public static long start(){
+
+		return Enabled ? System.nanoTime() : 0;
+
+	}
+
+	/**
+	 * Write all metrics in the Prometheus text format (version 0.0.4).
+	 *
+	 * @param out the destination
+	 * @return the destination
+	 */
+	public static StringBuilder export(final StringBuilder out){
+
+		for(final Map.Entry<String, Family> e : Families.entrySet()){
+
+			final String name = e.getKey();
+			final Family f = e.getValue();
+			if(f.members.isEmpty()){
+
+				continue;
+
+			}
+
+			out.append("# HELP ").append(name).append(' ').append(f.help).append('\n');
+			out.append("# TYPE ").append(name).append(' ').append(f.type).append('\n');
+			for(final Map.Entry<String, Object> m : f.members.entrySet()){
+
+				final String labels = m.getKey();
+				final Object metric = m.getValue();
+				if(metric instanceof Histogram){
+
+					final Histogram h = (Histogram)metric;
+					for(final double q : Quantiles){
+
+						out.append(name).append('{').append(labels);
+						if(labels.length() != 0){
+
+							out.append(',');
+
+						}
+						out.append("quantile=\"").append(q).append("\"} ").append(h.getValueAtQuantile(q) / NanosPerSecond).append('\n');
+
+					}
+					sample(out, name + "_sum", labels).append(h.getSum() / NanosPerSecond).append('\n');
+					sample(out, name + "_count", labels).append(h.getCount()).append('\n');
+
+				}else if(metric instanceof Counter){
+
+					sample(out, name, labels).append(((Counter)metric).get()).append('\n');
+
+				}else{
+
+					sample(out, name, labels).append(((Gauge)metric).get()).append('\n');
+
+				}
+
+			}
+
+		}
+		return out;
+
+	}
+
+	//============================================================================
+	//  Private methods
+	//============================================================================
+	private static Family family(final String name, final String help, final Type type){
+
+		Family f = Families.get(name);
+		if(f == null){
+
+			final Family prev = Families.putIfAbsent(name, f = new Family(help, type));
+			if(prev != null){
+
+				f = prev;
+
+			}
+
+		}
+		if(f.type != type){
+
+			throw new IllegalArgumentException(name + " is already registered as a " + f.type);
+
+		}
+		return f;
+
+	}
+
+	private static StringBuilder sample(final StringBuilder out, final String name, final String labels){
+
+		out.append(name);
+		if(labels.length() != 0){
+
+			out.append('{').append(labels).append('}');
+
+		}
+		return out.append(' ');
+
+	}
+
+	/**
+	 * Render label pairs as name="value",... with escaped values.
+	 */
+	private static String labels(final String[] labels){
+
+		if(labels.length % 2 != 0){
+
+			throw new IllegalArgumentException("Labels must be pairs of names and values");
+
+		}
+
+		final StringBuilder ret = new StringBuilder();
+		for(int i = 0; i < labels.length; i += 2){
+
+			if(i != 0){
+
+				ret.append(',');
+
+			}
+			ret.append(labels[i]).append("=\"");
+			for(final char c : labels[i + 1].toCharArray()){
+
+				switch(c){
+				case '\\':
+					ret.append("\\\\");
+					break;
+				case '"':
+					ret.append("\\\"");
+					break;
+				case '\n':
+					ret.append("\\n");
+					break;
+				default:
+					ret.append(c);
+				}
+
+			}
+			ret.append('"');
+
+		}
+		return ret.toString();
+
+	}
+
+	//============================================================================
+	//  Inner classes
+	//============================================================================
+	private static final class Family{
+
+		private final String help;
+		private final Type type;
+		private final ConcurrentMap<String, Object> members = new ConcurrentHashMap<String, Object>();
+
+		public Family(final String help, final Type type){
+
+			this.help = help;
+			this.type = type;
+
+		}
+
+	}
+
+	//============================================================================
+	//  Class constructor
+	//============================================================================
+	static{
+
+		final String classname = Metrics.class.getName();
+		final Properties defaults = new Properties();
+		try {
+
+			defaults.load(Metrics.class.getResourceAsStream("default.conf"));
+
+		} catch (final IOException e) {
+
+			LOGGER.severe("<class init>", "Cannot load default configs ({0})", e);
+
+		}
+
+		final String enabled = String.format("%s.Enabled", classname);
+		Enabled = Boolean.valueOf(System.getProperty(enabled, defaults.getProperty(enabled)));
+
+		LOGGER.config("<class init>", "Load a constant: Enabled = {0}", Enabled);
+
+	}
+
+}
@@ -0,0 +1,37 @@
+package nor.core.proxy;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+
+import junit.framework.Assert;
+
+import nor.http.server.proxyserver.ProxyRequestHandler;
+import nor.http.server.proxyserver.Router;
+
+import org.junit.Test;
+
+public class ProxyServerTest {
+
+	@Test
+	public void testPACCache() throws IOException{
+
+		final Router router = new Router();
+		final ProxyServer server = new ProxyServer(new ProxyRequestHandler("nor", router), router);
+
+		final String pac = server.getPAC("127.0.0.1", 8080, false);
+		Assert.assertTrue(pac.contains("PROXY 127.0.0.1:8080"));
+		Assert.assertSame(pac, server.getPAC("127.0.0.1", 8080, false));
+
+		// Changes of parameters and routes make a new file.
+		Assert.assertNotSame(pac, server.getPAC("127.0.0.1", 8081, false));
+
+		router.put("example", "proxy.example.test:3128");
+		router.put("resolved", new InetSocketAddress("127.0.0.2", 3128));
+		final String routed = server.getPAC("127.0.0.1", 8081, false);
+		Assert.assertTrue(routed.contains("proxy.example.test:3128"));
+		Assert.assertTrue(routed.contains("127.0.0.2:3128"));
+		Assert.assertSame(routed, server.getPAC("127.0.0.1", 8081, false));
+
+	}
+
+}
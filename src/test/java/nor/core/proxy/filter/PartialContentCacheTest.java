@@ -0,0 +1,255 @@
+package nor.core.proxy.filter;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import junit.framework.Assert;
+
+import nor.http.HeaderName;
+import nor.http.HttpRequest;
+import nor.http.HttpResponse;
+import nor.http.Range;
+import nor.http.Status;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class PartialContentCacheTest {
+
+	private static final String URL = "http://example.test/video";
+	private static final int Length = 300000;
+	private static final int BlockSize = 65536;
+
+	private File dir;
+	private byte[] data;
+
+	@Before
+	public void setUp() throws IOException{
+
+		this.dir = File.createTempFile("partial", "");
+		this.dir.delete();
+		this.dir.mkdirs();
+
+		this.data = new byte[Length];
+		new Random(1).nextBytes(this.data);
+
+	}
+
+	@After
+	public void tearDown(){
+
+		for(final File f : this.dir.listFiles()){
+
+			f.delete();
+
+		}
+		this.dir.delete();
+
+	}
+
+	@Test
+	public void testCoverage() throws IOException{
+
+		final File f = new File(this.dir, "object");
+		final PartialContentFile file = new PartialContentFile(f, 100);
+		file.reset(1050, "\"v1\"", null, "video/mp4");
+
+		file.write(50, ByteBuffer.wrap(this.data, 50, 300));
+		Assert.assertEquals(Arrays.asList(new Range(0, 99), new Range(300, 1049)), file.missing(0, 1049));
+		Assert.assertEquals(Arrays.asList(new Range(0, 99)), file.missing(10, 250));
+		Assert.assertTrue(file.isCovered(100, 299));
+
+		// The last block is shorter than the others.
+		file.write(1000, ByteBuffer.wrap(this.data, 1000, 50));
+		Assert.assertEquals(Arrays.asList(new Range(300, 999)), file.missing(200, 1049));
+		file.close();
+
+		// Coverage survives reopening.
+		final PartialContentFile reopened = new PartialContentFile(f);
+		Assert.assertEquals(1050, reopened.getLength());
+		Assert.assertEquals("\"v1\"", reopened.getETag());
+		Assert.assertEquals("video/mp4", reopened.getContentType());
+		Assert.assertTrue(reopened.isSameEntity(1050, "\"v1\"", null));
+		Assert.assertFalse(reopened.isSameEntity(1050, "\"v2\"", null));
+		Assert.assertEquals(Arrays.asList(new Range(0, 99), new Range(300, 999)), reopened.missing(0, 1049));
+		Assert.assertFalse(reopened.isComplete());
+
+		Assert.assertTrue(Arrays.equals(Arrays.copyOfRange(this.data, 100, 300), read(reopened.openStream(100, 299))));
+		reopened.close();
+
+	}
+
+	@Test
+	public void testResume() throws IOException{
+
+		final PartialContentCache cache = new PartialContentCache(this.dir, URL);
+		final MessageHandler handler = cache.getMessageHandler();
+		final ResponseFilter filter = cache.getResponseFilter();
+
+		// An interrupted transfer of the first 100000 bytes leaves one complete block.
+		final HttpRequest first = new HttpRequest("GET", URL, "HTTP/1.1");
+		first.getHeader().set(HeaderName.Range, "bytes=0-99999");
+		Assert.assertNull(handler.doRequest(first, null));
+		final HttpResponse partial = this.upstream(first, 0, 99999);
+		Assert.assertTrue(Arrays.equals(Arrays.copyOf(this.data, 100000), this.transfer(filter, partial)));
+
+		// Only the missing bytes are requested, and the cached head is prepended to them.
+		final HttpRequest second = new HttpRequest("GET", URL, "HTTP/1.1");
+		second.getHeader().set(HeaderName.Range, "bytes=0-");
+		Assert.assertNull(handler.doRequest(second, null));
+		Assert.assertEquals("bytes=" + BlockSize + "-" + (Length - 1), second.getHeader().get(HeaderName.Range));
+		Assert.assertEquals("\"v1\"", second.getHeader().get(HeaderName.IfRange));
+
+		final HttpResponse rest = this.upstream(second, BlockSize, Length - 1);
+		final byte[] body = this.transfer(filter, rest);
+		Assert.assertEquals(Status.PartialContent, rest.getStatus());
+		Assert.assertEquals(Integer.toString(Length), rest.getHeader().get(HeaderName.ContentLength));
+		Assert.assertEquals("bytes 0-" + (Length - 1) + "/" + Length, rest.getHeader().get(HeaderName.ContentRange));
+		Assert.assertTrue(Arrays.equals(this.data, body));
+
+		// Now the whole object is served locally.
+		final HttpRequest third = new HttpRequest("GET", URL, "HTTP/1.1");
+		third.getHeader().set(HeaderName.Range, "bytes=1000-1999");
+		final HttpResponse hit = handler.doRequest(third, null);
+		Assert.assertNotNull(hit);
+		Assert.assertEquals(Status.PartialContent, hit.getStatus());
+		Assert.assertEquals("bytes 1000-1999/" + Length, hit.getHeader().get(HeaderName.ContentRange));
+		Assert.assertEquals("video/mp4", hit.getHeader().get(HeaderName.ContentType));
+		Assert.assertTrue(Arrays.equals(Arrays.copyOfRange(this.data, 1000, 2000), this.transfer(filter, hit)));
+
+	}
+
+	@Test
+	public void testRequestWithoutRange() throws IOException{
+
+		final PartialContentCache cache = new PartialContentCache(this.dir, URL);
+		final MessageHandler handler = cache.getMessageHandler();
+		final ResponseFilter filter = cache.getResponseFilter();
+
+		final HttpRequest first = new HttpRequest("GET", URL, "HTTP/1.1");
+		first.getHeader().set(HeaderName.Range, "bytes=0-99999");
+		Assert.assertNull(handler.doRequest(first, null));
+		this.transfer(filter, this.upstream(first, 0, 99999));
+
+		// A client which did not ask for a range must not get a 206, so the request is sent as it is.
+		final HttpRequest second = new HttpRequest("GET", URL, "HTTP/1.1");
+		Assert.assertNull(handler.doRequest(second, null));
+		Assert.assertFalse(second.getHeader().containsKey(HeaderName.Range));
+		Assert.assertFalse(second.getHeader().containsKey(HeaderName.IfRange));
+
+		final HttpResponse whole = second.createResponse(Status.OK, new ByteArrayInputStream(this.data), Length);
+		whole.getHeader().set(HeaderName.ETag, "\"v1\"");
+		Assert.assertTrue(Arrays.equals(this.data, this.transfer(filter, whole)));
+		Assert.assertEquals(Status.OK, whole.getStatus());
+
+		// The whole response filled the cache.
+		final HttpRequest third = new HttpRequest("GET", URL, "HTTP/1.1");
+		final HttpResponse hit = handler.doRequest(third, null);
+		Assert.assertNotNull(hit);
+		Assert.assertEquals(Status.OK, hit.getStatus());
+		Assert.assertTrue(Arrays.equals(this.data, this.transfer(filter, hit)));
+
+	}
+
+	@Test
+	public void testOtherRange() throws IOException{
+
+		final PartialContentCache cache = new PartialContentCache(this.dir, URL);
+		final MessageHandler handler = cache.getMessageHandler();
+		final ResponseFilter filter = cache.getResponseFilter();
+
+		final HttpRequest first = new HttpRequest("GET", URL, "HTTP/1.1");
+		first.getHeader().set(HeaderName.Range, "bytes=0-99999");
+		Assert.assertNull(handler.doRequest(first, null));
+		this.transfer(filter, this.upstream(first, 0, 99999));
+
+		// The upstream ignores the narrowed range and returns all of the client's range.
+		final HttpRequest second = new HttpRequest("GET", URL, "HTTP/1.1");
+		second.getHeader().set(HeaderName.Range, "bytes=1000-");
+		Assert.assertNull(handler.doRequest(second, null));
+		Assert.assertEquals("bytes=" + BlockSize + "-" + (Length - 1), second.getHeader().get(HeaderName.Range));
+
+		final HttpResponse rest = this.upstream(second, 1000, Length - 1);
+		Assert.assertTrue(Arrays.equals(Arrays.copyOfRange(this.data, 1000, Length), this.transfer(filter, rest)));
+		Assert.assertEquals("bytes 1000-" + (Length - 1) + "/" + Length, rest.getHeader().get(HeaderName.ContentRange));
+		Assert.assertEquals(Integer.toString(Length - 1000), rest.getHeader().get(HeaderName.ContentLength));
+
+	}
+
+	private HttpResponse upstream(final HttpRequest request, final int first, final int last){
+
+		final HttpResponse ret = request.createResponse(Status.PartialContent, new ByteArrayInputStream(this.data, first, last - first + 1), last - first + 1);
+		ret.getHeader().set(HeaderName.ContentRange, String.format("bytes %d-%d/%d", first, last, Length));
+		ret.getHeader().set(HeaderName.ContentType, "video/mp4");
+		ret.getHeader().set(HeaderName.ETag, "\"v1\"");
+		return ret;
+
+	}
+
+	/**
+	 * Apply the filter as the proxy does, and return the body sent to the client.
+	 */
+	private byte[] transfer(final ResponseFilter filter, final HttpResponse response) throws IOException{
+
+		final ReadonlyByteFilter[] store = new ReadonlyByteFilter[1];
+		filter.update(response, null, null, new FilterRegister(){
+
+			@Override
+			public void add(final EditingByteFilter filter){
+			}
+
+			@Override
+			public void add(final EditingStringFilter filter){
+			}
+
+			@Override
+			public void add(final ReadonlyByteFilter filter){
+
+				store[0] = filter;
+
+			}
+
+			@Override
+			public void add(final ReadonlyStringFilter filter){
+			}
+
+		});
+
+		final byte[] ret = read(response.getBody());
+		if(store[0] != null){
+
+			for(int i = 0; i < ret.length; i += 8192){
+
+				store[0].update(ByteBuffer.wrap(ret, i, Math.min(8192, ret.length - i)).asReadOnlyBuffer());
+
+			}
+			store[0].close();
+
+		}
+		return ret;
+
+	}
+
+	private static byte[] read(final InputStream in) throws IOException{
+
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		final byte[] buf = new byte[4096];
+		int n;
+		while((n = in.read(buf)) != -1){
+
+			out.write(buf, 0, n);
+
+		}
+		in.close();
+		return out.toByteArray();
+
+	}
+
+}
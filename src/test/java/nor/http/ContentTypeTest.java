@@ -1,5 +1,6 @@
 package nor.http;
 
+import java.nio.charset.Charset;
 
 import junit.framework.Assert;
 
@@ -106,6 +107,31 @@ public class ContentTypeTest {
 
 	}
 
+	@Test
+	public void testToCharset(){
+
+		Assert.assertEquals(Charset.forName("UTF-8"), this.type.toCharset());
+		Assert.assertNull(new ContentType("text/html; charset=no-such-charset").toCharset());
+		Assert.assertNull(new ContentType().toCharset());
+
+	}
+
+	@Test
+	public void testValueOf(){
+
+		final ContentType t2 = ContentType.valueOf("text/plain; charset=utf-8; param1=1; param2=two");
+		Assert.assertEquals(this.type, t2);
+		Assert.assertSame(t2, ContentType.valueOf("text/plain; charset=utf-8; param1=1; param2=two"));
+
+	}
+
+	@Test(expected = UnsupportedOperationException.class)
+	public void testImmutableParameters(){
+
+		ContentType.valueOf("text/html; charset=utf-8").getParameterKeys().clear();
+
+	}
+
 	@Test
 	public void testEquals(){
 
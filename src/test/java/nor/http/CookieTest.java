@@ -0,0 +1,76 @@
+package nor.http;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+public class CookieTest {
+
+	@Test
+	public void testGet(){
+
+		final HttpHeader header = new HttpHeader();
+		header.set(HeaderName.Cookie, "a=1; b=2; a=3, c = 4");
+
+		final Cookie cookie = Cookie.get(header);
+		Assert.assertEquals(2, cookie.get("a").length);
+		Assert.assertEquals("3", cookie.get("a")[1]);
+		Assert.assertEquals("4", cookie.getFirst("c"));
+		Assert.assertNull(cookie.getFirst("ab"));
+		Assert.assertEquals(0, cookie.get("d").length);
+		Assert.assertEquals(3, cookie.keys().length);
+
+	}
+
+	@Test
+	public void testDeferredUpdate(){
+
+		final HttpHeader header = new HttpHeader();
+		header.set(HeaderName.Cookie, "a=1; b=2");
+
+		final Cookie cookie = Cookie.get(header);
+		cookie.set("a", "5");
+		cookie.add("b", "6");
+		cookie.add("c", "7");
+		Assert.assertEquals("5", cookie.getFirst("a"));
+		Assert.assertEquals(2, cookie.get("b").length);
+		Assert.assertEquals("6", cookie.get("b")[1]);
+
+		// Changes are written back when the header is read.
+		Assert.assertEquals("a=5; b=2; b=6; c=7", header.get(HeaderName.Cookie));
+
+		cookie.remove("a");
+		cookie.remove("b");
+		cookie.remove("c");
+		Assert.assertFalse(header.containsKey(HeaderName.Cookie));
+
+	}
+
+	@Test
+	public void testSetCookie(){
+
+		final HttpHeader header = new HttpHeader();
+		header.add(HeaderName.SetCookie, "num=123456; expires=Sun, 10-Jun-2001 12:00:00 GMT; path=/HTTP/; HttpOnly");
+		header.add(HeaderName.SetCookie, "id=a3fWa; Domain=example.com; Secure");
+
+		final SetCookie cookies = SetCookie.get(header);
+		Assert.assertEquals(2, cookies.size());
+
+		final SetCookie.Entry num = cookies.get(0);
+		Assert.assertEquals("num", num.getKey());
+		Assert.assertEquals("123456", num.getValue());
+		Assert.assertEquals("Sun, 10-Jun-2001 12:00:00 GMT", num.getData());
+		Assert.assertEquals("/HTTP/", num.getPath());
+		Assert.assertFalse(num.getSecure());
+
+		final SetCookie.Entry id = cookies.get(1);
+		Assert.assertEquals("example.com", id.getDomain());
+		Assert.assertTrue(id.getSecure());
+
+		num.setValue("654321");
+		cookies.remove(id);
+		Assert.assertEquals("num=654321; expires=Sun, 10-Jun-2001 12:00:00 GMT; path=/HTTP/; HttpOnly", header.get(HeaderName.SetCookie));
+
+	}
+
+}
@@ -0,0 +1,38 @@
+package nor.http;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+public class MethodTest {
+
+	@Test
+	public void testLookup(){
+
+		for(final Method m : Method.values()){
+
+			if(m != Method.NonStandard){
+
+				Assert.assertEquals(m, Method.lookup(m.name()));
+
+				final byte[] buf = ("  " + m.name() + " / HTTP/1.1").getBytes();
+				Assert.assertEquals(m, Method.lookup(buf, 2, m.name().length()));
+
+			}
+
+		}
+
+	}
+
+	@Test
+	public void testLookupNonStandard(){
+
+		Assert.assertEquals(Method.NonStandard, Method.lookup("BREW"));
+		Assert.assertEquals(Method.NonStandard, Method.lookup("get"));
+		Assert.assertEquals(Method.NonStandard, Method.lookup("GE"));
+		Assert.assertEquals(Method.NonStandard, Method.lookup("PROPFIND"));
+		Assert.assertEquals(Method.NonStandard, Method.lookup("NonStandard"));
+
+	}
+
+}
@@ -0,0 +1,74 @@
+package nor.http;
+
+import java.net.URLEncoder;
+import java.util.Arrays;
+
+import junit.framework.Assert;
+import nor.util.Codec;
+
+import org.junit.Test;
+
+public class QueryTest {
+
+	@Test
+	public void testParse(){
+
+		final Query q = new Query("b=1&a=%E3%81%82+x&flag&b=2&&=3");
+		Assert.assertEquals(3, q.size());
+		Assert.assertEquals("1", q.get("b"));
+		Assert.assertEquals("あ x", q.get("a"));
+		Assert.assertEquals("", q.get("flag"));
+		Assert.assertEquals(Arrays.asList("1", "2"), q.getAll("b"));
+		Assert.assertEquals(Arrays.asList("b", "a", "flag"), Arrays.asList(q.keySet().toArray()));
+
+	}
+
+	@Test
+	public void testRange(){
+
+		final String url = "http://example.com/path?x=%41%42&y=z#top";
+		final Query q = new Query(url, url.indexOf('?') + 1, url.indexOf('#'));
+		Assert.assertEquals("AB", q.get("x"));
+		Assert.assertEquals("z", q.get("y"));
+
+	}
+
+	@Test
+	public void testInvalidEscape(){
+
+		Assert.assertEquals("100%", new Query("p=100%").get("p"));
+		Assert.assertEquals("%zz", new Query("p=%zz").get("p"));
+
+	}
+
+	@Test
+	public void testToString(){
+
+		final Query q = new Query("b=1&a=%E3%81%82+x&flag&b=2");
+		Assert.assertEquals("b=1&a=%E3%81%82+x&flag&b=2", q.toString());
+
+		q.put("b", "3");
+		Assert.assertEquals("b=3&a=%E3%81%82+x&flag", q.toString());
+
+		q.remove("a");
+		q.add("a", "y");
+		q.add("b", "4");
+		Assert.assertEquals("b=3&flag&a=y&b=4", q.toString());
+		Assert.assertEquals(Arrays.asList("3", "4"), q.getAll("b"));
+
+		q.put("b", "3");
+		final StringBuilder builder = new StringBuilder("/path?");
+		Assert.assertEquals("/path?b=3&flag&a=y", q.appendTo(builder).toString());
+
+	}
+
+	@Test
+	public void testEncodeCompatibility() throws Exception{
+
+		final String s = "a b*c-d_e.f~g/h?i=j&kéあ😀";
+		Assert.assertEquals(Codec.urlEncode(s), Codec.urlEncode(new StringBuilder(), s).toString());
+		Assert.assertEquals(s, Codec.urlDecode(URLEncoder.encode(s, "UTF-8"), 0, URLEncoder.encode(s, "UTF-8").length()));
+
+	}
+
+}
@@ -0,0 +1,80 @@
+package nor.http;
+
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+public class RangeTest {
+
+	@Test
+	public void testParse(){
+
+		Assert.assertEquals(Arrays.asList(new Range(0, 499)), Range.parse("bytes=0-499"));
+		Assert.assertEquals(Arrays.asList(new Range(500, -1), new Range(-1, 500)), Range.parse("bytes = 500- , -500"));
+		Assert.assertEquals(Arrays.asList(new Range(0, 0), new Range(-1, 1)), Range.parse("BYTES=0-0,,-1"));
+
+		Assert.assertNull(Range.parse(null));
+		Assert.assertNull(Range.parse("items=0-1"));
+		Assert.assertNull(Range.parse("bytes="));
+		Assert.assertNull(Range.parse("bytes=5-1"));
+		Assert.assertNull(Range.parse("bytes=-"));
+		Assert.assertNull(Range.parse("bytes=a-1"));
+
+		Assert.assertEquals("bytes=0-499,500-,-10", Range.format(Arrays.asList(new Range(0, 499), new Range(500, -1), new Range(-1, 10))));
+
+	}
+
+	@Test
+	public void testResolve(){
+
+		Assert.assertEquals(new Range(0, 99), new Range(0, 200).resolve(100));
+		Assert.assertEquals(new Range(90, 99), new Range(-1, 10).resolve(100));
+		Assert.assertEquals(new Range(0, 99), new Range(-1, 1000).resolve(100));
+		Assert.assertEquals(new Range(50, 99), new Range(50, -1).resolve(100));
+		Assert.assertNull(new Range(100, -1).resolve(100));
+		Assert.assertNull(new Range(-1, 0).resolve(100));
+
+		final List<Range> ranges = Range.coalesce(Range.parse("bytes=500-600,0-99,100-199,-10,2000-"), 1000);
+		Assert.assertEquals(Arrays.asList(new Range(0, 199), new Range(500, 600), new Range(990, 999)), ranges);
+		Assert.assertTrue(Range.coalesce(Range.parse("bytes=2000-"), 1000).isEmpty());
+
+	}
+
+	@Test
+	public void testContentRange(){
+
+		final ContentRange r = ContentRange.parse("bytes 21010-47021/47022");
+		Assert.assertEquals(21010, r.getFirst());
+		Assert.assertEquals(47021, r.getLast());
+		Assert.assertEquals(47022, r.getInstanceLength());
+		Assert.assertEquals(26012, r.getLength());
+		Assert.assertEquals("bytes 21010-47021/47022", r.toString());
+
+		Assert.assertEquals(new ContentRange(0, 9, -1), ContentRange.parse("bytes 0-9/*"));
+		Assert.assertTrue(ContentRange.parse("bytes */100").isUnsatisfied());
+		Assert.assertEquals("bytes */100", new ContentRange(-1, -1, 100).toString());
+		Assert.assertEquals("bytes 0-9/100", new Range(0, 9).toContentRange(100).toString());
+
+		Assert.assertNull(ContentRange.parse("bytes 0-100/100"));
+		Assert.assertNull(ContentRange.parse("bytes */*"));
+		Assert.assertNull(ContentRange.parse("items 0-1/2"));
+		Assert.assertNull(ContentRange.parse("bytes 0-1"));
+
+	}
+
+	@Test
+	public void testIfRange(){
+
+		Assert.assertTrue(Range.matchesIfRange(null, null, null));
+		Assert.assertTrue(Range.matchesIfRange("\"abc\"", "\"abc\"", null));
+		Assert.assertFalse(Range.matchesIfRange("\"abc\"", "\"abd\"", null));
+		Assert.assertFalse(Range.matchesIfRange("W/\"abc\"", "W/\"abc\"", null));
+		Assert.assertTrue(Range.matchesIfRange("Sat, 29 Oct 1994 19:43:31 GMT", "\"abc\"", "Sat, 29 Oct 1994 19:43:31 GMT"));
+		Assert.assertFalse(Range.matchesIfRange("Sat, 29 Oct 1994 19:43:31 GMT", null, "Sun, 30 Oct 1994 19:43:31 GMT"));
+
+	}
+
+}
@@ -28,6 +28,25 @@ public class StatusTest {
 
 	}
 
+	@Test
+	public void testValueOfSharedCode(){
+
+		Assert.assertEquals(Status.OK, Status.valueOf(200));
+		Assert.assertEquals(Status.NonStandard, Status.valueOf(299));
+		Assert.assertEquals(Status.NonStandard, Status.valueOf(1000));
+
+	}
+
+	@Test
+	public void testStatusLine() throws Exception{
+
+		Assert.assertEquals("HTTP/1.1 404 Not Found\r\n", new String(Status.NotFound.getStatusLine("1.1", "Not Found"), "ISO-8859-1"));
+		Assert.assertNull(Status.NotFound.getStatusLine("1.0", "Not Found"));
+		Assert.assertNull(Status.NotFound.getStatusLine("1.1", "Missing"));
+		Assert.assertNull(Status.NonStandard.getStatusLine("1.1", null));
+
+	}
+
 	@Test
 	public void testValues(){
 
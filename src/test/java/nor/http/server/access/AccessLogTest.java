@@ -0,0 +1,108 @@
+package nor.http.server.access;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+public class AccessLogTest {
+
+	private static File createDirectory() throws IOException{
+
+		final File dir = File.createTempFile("access", "");
+		Assert.assertTrue(dir.delete());
+		Assert.assertTrue(dir.mkdir());
+
+		return dir;
+
+	}
+
+	private static void delete(final File dir){
+
+		for(final File f : dir.listFiles()){
+
+			f.delete();
+
+		}
+		dir.delete();
+
+	}
+
+	@Test
+	public void testBinary() throws IOException{
+
+		final File dir = createDirectory();
+		try{
+
+			final AccessLog log = new AccessLog(dir, "test", false, 16, 1024 * 1024, 2);
+			for(int i = 0; i != 100; ++i){
+
+				log.log(1000L * i, "GET", "http://example.test/" + i, 200, 0, 10 * i, 1500, 1000, 20, i % 2 == 0 ? "DIRECT" : null);
+
+			}
+			log.close();
+			Assert.assertFalse(log.isEnabled());
+
+			final AccessLogReader r = new AccessLogReader(new FileInputStream(new File(dir, "test.0.bin")));
+			int n = 0;
+			AccessRecord rec;
+			while((rec = r.read()) != null){
+
+				final int i = (int)(rec.getTime() / 1000);
+				Assert.assertEquals("GET", rec.getMethod());
+				Assert.assertEquals("http://example.test/" + i, rec.getURL());
+				Assert.assertEquals(200, rec.getStatus());
+				Assert.assertEquals(10 * i, rec.getBytesOut());
+				Assert.assertEquals(1500, rec.getTotalTime());
+				Assert.assertEquals(i % 2 == 0 ? "DIRECT" : null, rec.getRoute());
+				++n;
+
+			}
+			r.close();
+
+			// Records beyond the capacity may be dropped, but never broken.
+			Assert.assertEquals(100, n + log.getDropped());
+
+			final String line = new AccessRecord(0, "GET", "/", 304, -1, 0, 1500, 1000, 20, null).toString();
+			Assert.assertEquals("1970-01-01T00:00:00.000Z GET / 304 - 0 1.500 1.000 0.020 -", line);
+
+		}finally{
+
+			delete(dir);
+
+		}
+
+	}
+
+	@Test
+	public void testRotation() throws IOException, InterruptedException{
+
+		final File dir = createDirectory();
+		try{
+
+			final AccessLog log = new AccessLog(dir, "test", true, 1024, 256, 3);
+			for(int i = 0; i != 20; ++i){
+
+				log.log(0, "GET", "http://example.test/" + i, 200, 0, 0, 0, 0, 0, "DIRECT");
+				Thread.sleep(20);
+
+			}
+			log.close();
+
+			Assert.assertTrue(new File(dir, "test.0.log").exists());
+			Assert.assertTrue(new File(dir, "test.1.log").exists());
+			Assert.assertTrue(new File(dir, "test.2.log").exists());
+			Assert.assertFalse(new File(dir, "test.3.log").exists());
+
+		}finally{
+
+			delete(dir);
+
+		}
+
+	}
+
+}
@@ -0,0 +1,139 @@
+package nor.http.server.h2server;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+public class HpackTest {
+
+	/**
+	 * RFC 7541 Appendix C.3 (without Huffman coding).
+	 */
+	@Test
+	public void testDecodeRequests() throws H2Exception{
+
+		final HpackDecoder decoder = new HpackDecoder(4096, 65536);
+
+		assertFields(decode(decoder, "828684410f7777772e6578616d706c652e636f6d"),
+				":method", "GET", ":scheme", "http", ":path", "/", ":authority", "www.example.com");
+		assertFields(decode(decoder, "828684be58086e6f2d6361636865"),
+				":method", "GET", ":scheme", "http", ":path", "/", ":authority", "www.example.com", "cache-control", "no-cache");
+		assertFields(decode(decoder, "828785bf400a637573746f6d2d6b65790c637573746f6d2d76616c7565"),
+				":method", "GET", ":scheme", "https", ":path", "/index.html", ":authority", "www.example.com", "custom-key", "custom-value");
+
+	}
+
+	/**
+	 * RFC 7541 Appendix C.4 (with Huffman coding).
+	 */
+	@Test
+	public void testDecodeHuffmanRequests() throws H2Exception{
+
+		final HpackDecoder decoder = new HpackDecoder(4096, 65536);
+
+		assertFields(decode(decoder, "828684418cf1e3c2e5f23a6ba0ab90f4ff"),
+				":method", "GET", ":scheme", "http", ":path", "/", ":authority", "www.example.com");
+		assertFields(decode(decoder, "828684be5886a8eb10649cbf"),
+				":method", "GET", ":scheme", "http", ":path", "/", ":authority", "www.example.com", "cache-control", "no-cache");
+		assertFields(decode(decoder, "828785bf408825a849e95ba97d7f8925a849e95bb8e8b4bf"),
+				":method", "GET", ":scheme", "https", ":path", "/index.html", ":authority", "www.example.com", "custom-key", "custom-value");
+
+	}
+
+	@Test
+	public void testRoundTrip() throws H2Exception{
+
+		final HpackEncoder encoder = new HpackEncoder(4096);
+		final HpackDecoder decoder = new HpackDecoder(4096, 65536);
+		for(int i = 0; i != 3; ++i){
+
+			final List<String[]> fields = new ArrayList<String[]>();
+			fields.add(new String[]{":status", "200"});
+			fields.add(new String[]{"content-type", "text/html; charset=UTF-8"});
+			fields.add(new String[]{"x-count", Integer.toString(i)});
+			fields.add(new String[]{"set-cookie", "id=" + i});
+
+			final byte[] block = encoder.encode(fields);
+			assertFields(decoder.decode(block, block.length),
+					":status", "200", "content-type", "text/html; charset=UTF-8", "x-count", Integer.toString(i), "set-cookie", "id=" + i);
+
+		}
+
+		// A smaller table announced by the peer is signalled at the head of the next block.
+		encoder.setMaxTableSize(0);
+		final List<String[]> fields = new ArrayList<String[]>();
+		fields.add(new String[]{"x-count", "3"});
+		final byte[] block = encoder.encode(fields);
+		Assert.assertEquals(0x20, block[0] & 0xff);
+		assertFields(decoder.decode(block, block.length), "x-count", "3");
+
+	}
+
+	@Test
+	public void testDynamicTable() throws H2Exception{
+
+		// Each entry takes 32 + 2 + 3 octets, so 40 of them fit in the table.
+		final HeaderTable table = new HeaderTable(40 * 37);
+		final int base = HeaderTable.STATIC.length;
+		for(int i = 0; i != 100; ++i){
+
+			table.add(String.format("n%d", i % 10), String.format("%03d", i));
+
+		}
+
+		// The newest entry has the lowest index, and the oldest 60 entries are evicted.
+		Assert.assertEquals(40 * 37, table.size());
+		Assert.assertEquals("099", table.get(base + 1)[1]);
+		Assert.assertEquals("060", table.get(base + 40)[1]);
+		Assert.assertEquals(base + 40, table.find("n0", "060"));
+		Assert.assertEquals(0, table.find("n9", "059"));
+		Assert.assertEquals(base + 2, table.findName("n8"));
+
+		table.setMaxSize(3 * 37);
+		Assert.assertEquals("097", table.get(base + 3)[1]);
+		try{
+
+			table.get(base + 4);
+			Assert.fail();
+
+		}catch(final H2Exception e){}
+
+	}
+
+	@Test(expected = H2Exception.class)
+	public void testInvalidIndex() throws H2Exception{
+
+		final HpackDecoder decoder = new HpackDecoder(4096, 65536);
+		decode(decoder, "be");
+
+	}
+
+	private static List<String[]> decode(final HpackDecoder decoder, final String hex) throws H2Exception{
+
+		final byte[] block = new byte[hex.length() / 2];
+		for(int i = 0; i != block.length; ++i){
+
+			block[i] = (byte)Integer.parseInt(hex.substring(i * 2, i * 2 + 2), 16);
+
+		}
+
+		return decoder.decode(block, block.length);
+
+	}
+
+	private static void assertFields(final List<String[]> actual, final String... expected){
+
+		Assert.assertEquals(expected.length / 2, actual.size());
+		for(int i = 0; i != actual.size(); ++i){
+
+			Assert.assertEquals(expected[i * 2], actual.get(i)[0]);
+			Assert.assertEquals(expected[i * 2 + 1], actual.get(i)[1]);
+
+		}
+
+	}
+
+}
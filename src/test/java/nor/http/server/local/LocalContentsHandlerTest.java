@@ -0,0 +1,64 @@
+package nor.http.server.local;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+
+import junit.framework.Assert;
+
+import nor.http.HeaderName;
+import nor.http.HttpRequest;
+import nor.http.HttpResponse;
+import nor.http.Status;
+
+import org.junit.Test;
+
+public class LocalContentsHandlerTest {
+
+	private static HttpRequest request(final String method, final String path) throws IOException{
+
+		final String msg = String.format("%s %s HTTP/1.1\r\nHost: localhost\r\nContent-Length: 0\r\n\r\n", method, path);
+		return HttpRequest.create(new ByteArrayInputStream(msg.getBytes("US-ASCII")));
+
+	}
+
+	@Test
+	public void testDispatch() throws IOException{
+
+		final LocalContentsHandler h = new LocalContentsHandler();
+		h.getRoot().add(new TextResource("/nor/core/proxy.pac", "pac"));
+		h.getRoot().add(new TextResource("/nor/core/other.txt", "other"));
+
+		final DirResource dir = new DirResource("dir");
+		dir.put("a.txt", new TextResource("a.txt", "a"));
+		h.getRoot().add(dir);
+
+		Assert.assertEquals(Status.OK, h.doRequest(request("GET", "/nor/core/proxy.pac")).getStatus());
+		Assert.assertEquals(Status.OK, h.doRequest(request("GET", "/nor/core/proxy.pac?v=1")).getStatus());
+		Assert.assertEquals(Status.OK, h.doRequest(request("GET", "/dir/a.txt")).getStatus());
+		Assert.assertEquals(Status.NotFound, h.doRequest(request("GET", "/nor/core")).getStatus());
+		Assert.assertEquals(Status.NotFound, h.doRequest(request("GET", "/nor/core/unknown")).getStatus());
+		Assert.assertEquals(Status.NotFound, h.doRequest(request("GET", "/dir/b.txt")).getStatus());
+
+		// Changes of nested containers are reflected.
+		dir.put("b.txt", new TextResource("b.txt", "b"));
+		Assert.assertEquals(Status.OK, h.doRequest(request("GET", "/dir/b.txt")).getStatus());
+		h.getRoot().remove(dir);
+		Assert.assertEquals(Status.NotFound, h.doRequest(request("GET", "/dir/a.txt")).getStatus());
+
+	}
+
+	@Test
+	public void testMethodNotAllowed() throws IOException{
+
+		final LocalContentsHandler h = new LocalContentsHandler();
+		h.getRoot().add(new TextResource("/text", "text"));
+
+		final HttpResponse res = h.doRequest(request("POST", "/text"));
+		Assert.assertEquals(Status.MethodNotAllowed, res.getStatus());
+		Assert.assertEquals("GET", res.getHeader().get(HeaderName.Allow));
+
+		Assert.assertEquals(Status.MethodNotAllowed, h.doRequest(request("BREW", "/text")).getStatus());
+
+	}
+
+}
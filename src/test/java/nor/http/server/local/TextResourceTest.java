@@ -0,0 +1,102 @@
+package nor.http.server.local;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.GZIPInputStream;
+
+import junit.framework.Assert;
+
+import nor.http.HeaderName;
+import nor.http.HttpRequest;
+import nor.http.HttpResponse;
+import nor.http.Status;
+
+import org.junit.Test;
+
+public class TextResourceTest {
+
+	private static HttpRequest request(final String headers) throws IOException{
+
+		final String msg = String.format("GET /text HTTP/1.1\r\nHost: localhost\r\n%sContent-Length: 0\r\n\r\n", headers);
+		return HttpRequest.create(new ByteArrayInputStream(msg.getBytes("US-ASCII")));
+
+	}
+
+	private static byte[] read(final InputStream in) throws IOException{
+
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		final byte[] buf = new byte[1024];
+		int n;
+		while((n = in.read(buf)) != -1){
+
+			out.write(buf, 0, n);
+
+		}
+		return out.toByteArray();
+
+	}
+
+	@Test
+	public void testRevalidation() throws IOException{
+
+		final TextResource r = new TextResource("text", "hello");
+
+		final HttpResponse res = r.doGet("/text", request(""));
+		Assert.assertEquals(Status.OK, res.getStatus());
+		Assert.assertEquals("5", res.getHeader().get(HeaderName.ContentLength));
+		Assert.assertEquals("hello", new String(read(res.getBody())));
+
+		final String etag = res.getHeader().get(HeaderName.ETag);
+		final String modified = res.getHeader().get(HeaderName.LastModified);
+		Assert.assertNotNull(etag);
+		Assert.assertNotNull(modified);
+
+		Assert.assertEquals(Status.NotModified, r.doGet("/text", request("If-None-Match: " + etag + "\r\n")).getStatus());
+		Assert.assertEquals(Status.NotModified, r.doGet("/text", request("If-Modified-Since: " + modified + "\r\n")).getStatus());
+		Assert.assertEquals(Status.OK, r.doGet("/text", request("If-None-Match: \"other\"\r\n")).getStatus());
+
+		// A new text gets a new validator.
+		r.setText("world");
+		final HttpResponse changed = r.doGet("/text", request("If-None-Match: " + etag + "\r\n"));
+		Assert.assertEquals(Status.OK, changed.getStatus());
+		Assert.assertFalse(etag.equals(changed.getHeader().get(HeaderName.ETag)));
+
+	}
+
+	@Test
+	public void testGzip() throws IOException{
+
+		final StringBuilder text = new StringBuilder();
+		for(int i = 0; i != 100; ++i){
+
+			text.append("function FindProxyForURL(url, host){ return \"DIRECT\"; }\n");
+
+		}
+		final TextResource r = new TextResource("text", text.toString());
+
+		final HttpResponse res = r.doGet("/text", request("Accept-Encoding: gzip, deflate\r\n"));
+		Assert.assertEquals(Status.OK, res.getStatus());
+		Assert.assertEquals("gzip", res.getHeader().get(HeaderName.ContentEncoding));
+		Assert.assertTrue(res.isBodyEncoded());
+
+		// The body read through the message model is decoded.
+		Assert.assertEquals(text.toString(), new String(read(res.getBody())));
+
+		final HttpResponse identity = r.doGet("/text", request("Accept-Encoding: gzip;q=0\r\n"));
+		Assert.assertFalse(identity.getHeader().containsKey(HeaderName.ContentEncoding));
+		Assert.assertEquals(Integer.toString(text.length()), identity.getHeader().get(HeaderName.ContentLength));
+
+		// Each variant has its own validator, and the gzip body is written as it is.
+		final HttpResponse again = r.doGet("/text", request("Accept-Encoding: gzip\r\n"));
+		Assert.assertFalse(identity.getHeader().get(HeaderName.ETag).equals(again.getHeader().get(HeaderName.ETag)));
+
+		final ByteArrayOutputStream raw = new ByteArrayOutputStream();
+		again.writeBodyTo(raw);
+		Assert.assertEquals(again.getHeader().get(HeaderName.ContentLength), Integer.toString(raw.size()));
+		Assert.assertEquals(text.toString(), new String(read(new GZIPInputStream(new ByteArrayInputStream(raw.toByteArray())))));
+
+	}
+
+}
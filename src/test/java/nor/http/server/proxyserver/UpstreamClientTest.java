@@ -0,0 +1,154 @@
+package nor.http.server.proxyserver;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.Assert;
+
+import nor.http.HttpRequest;
+import nor.http.Status;
+import nor.http.error.HttpException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class UpstreamClientTest {
+
+	private ServerSocket server;
+
+	@Before
+	public void setUp() throws IOException{
+
+		this.server = new ServerSocket(0);
+
+	}
+
+	@After
+	public void tearDown() throws IOException{
+
+		this.server.close();
+
+	}
+
+	@Test
+	public void testTunnelThroughProxy() throws Exception{
+
+		final StubProxy proxy = new StubProxy("HTTP/1.1 200 Connection Established");
+		proxy.start();
+
+		final HttpRequest request = new HttpRequest("GET", "https://example.test/index.html", "HTTP/1.1");
+		try{
+
+			new UpstreamClient(5000).send(request, this.proxy());
+			Assert.fail();
+
+		}catch(final IOException e){
+
+			// The stub cannot complete a handshake.
+
+		}
+		proxy.join(5000);
+
+		Assert.assertEquals("CONNECT example.test:443 HTTP/1.1", proxy.lines.get(0));
+		Assert.assertTrue(proxy.lines.contains("Host: example.test:443") || proxy.lines.contains("host: example.test:443"));
+		Assert.assertEquals(0x16, proxy.next);
+
+	}
+
+	@Test
+	public void testRejectedTunnel() throws Exception{
+
+		final StubProxy proxy = new StubProxy("HTTP/1.1 407 Proxy Authentication Required");
+		proxy.start();
+
+		final HttpRequest request = new HttpRequest("GET", "https://example.test:8443/", "HTTP/1.1");
+		try{
+
+			new UpstreamClient(5000).send(request, this.proxy());
+			Assert.fail();
+
+		}catch(final HttpException e){
+
+			Assert.assertEquals(Status.ProxyAuthenticationRequired, e.createResponse(request).getStatus());
+
+		}
+		proxy.join(5000);
+
+		Assert.assertEquals("CONNECT example.test:8443 HTTP/1.1", proxy.lines.get(0));
+		Assert.assertEquals(-1, proxy.next);
+
+	}
+
+	private Proxy proxy(){
+
+		return new Proxy(Proxy.Type.HTTP, new InetSocketAddress("127.0.0.1", this.server.getLocalPort()));
+
+	}
+
+	/**
+	 * Accepts one connection, answers the CONNECT request with the given status line,
+	 * and records the first byte sent through the tunnel.
+	 */
+	private final class StubProxy extends Thread{
+
+		private final String status;
+		final List<String> lines = new ArrayList<String>();
+		volatile int next = -2;
+
+		StubProxy(final String status){
+
+			this.status = status;
+			this.setDaemon(true);
+
+		}
+
+		@Override
+		public void run(){
+
+			try{
+
+				final Socket s = UpstreamClientTest.this.server.accept();
+				try{
+
+					final InputStream in = s.getInputStream();
+					final BufferedReader reader = new BufferedReader(new InputStreamReader(in, "ISO-8859-1"), 1);
+					String line;
+					while((line = reader.readLine()) != null && line.length() != 0){
+
+						this.lines.add(line);
+
+					}
+
+					final OutputStream out = s.getOutputStream();
+					out.write((this.status + "\r\nContent-Length: 0\r\n\r\n").getBytes("ISO-8859-1"));
+					out.flush();
+
+					this.next = in.read();
+
+				}finally{
+
+					s.close();
+
+				}
+
+			}catch(final IOException e){
+
+				e.printStackTrace();
+
+			}
+
+		}
+
+	}
+
+}
@@ -0,0 +1,215 @@
+package nor.http.server.ssl;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.security.cert.X509Certificate;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLEngineResult.HandshakeStatus;
+import javax.net.ssl.TrustManagerFactory;
+
+import junit.framework.Assert;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class CertificateAuthorityTest {
+
+	private static final Executor Direct = new Executor(){
+
+		@Override
+		public void execute(final Runnable command){
+
+			command.run();
+
+		}
+
+	};
+
+	private static CertificateAuthority.Credential root;
+
+	private File store;
+
+	@Before
+	public void setUp() throws GeneralSecurityException, IOException{
+
+		if(root == null){
+
+			root = CertificateAuthority.createRoot("test root", 2048, 30);
+
+		}
+
+		this.store = File.createTempFile("nor", "certs");
+		this.store.delete();
+
+	}
+
+	@After
+	public void tearDown(){
+
+		final File[] files = this.store.listFiles();
+		if(files != null){
+
+			for(final File f : files){
+
+				f.delete();
+
+			}
+
+		}
+		this.store.delete();
+
+	}
+
+	private CertificateAuthority create(){
+
+		return new CertificateAuthority(root.getPrivateKey(), root.getCertificateChain()[0], this.store, "test".toCharArray(), 4, 2048, 30, Direct);
+
+	}
+
+	@Test
+	public void testIssue() throws IOException, GeneralSecurityException{
+
+		final CertificateAuthority ca = this.create();
+		final CertificateAuthority.Credential c = ca.get("Example.Test");
+
+		final X509Certificate[] chain = c.getCertificateChain();
+		Assert.assertEquals(2, chain.length);
+		chain[0].verify(root.getCertificateChain()[0].getPublicKey());
+		chain[0].checkValidity();
+		Assert.assertEquals("CN=example.test", chain[0].getSubjectX500Principal().getName());
+		Assert.assertEquals(-1, chain[0].getBasicConstraints());
+
+		final Collection<List<?>> names = chain[0].getSubjectAlternativeNames();
+		Assert.assertEquals(1, names.size());
+		Assert.assertEquals(2, names.iterator().next().get(0));
+		Assert.assertEquals("example.test", names.iterator().next().get(1));
+
+		// Cached
+		Assert.assertSame(c, ca.get("example.test"));
+		Assert.assertEquals(1, ca.size());
+
+		// Stored on disk
+		final CertificateAuthority other = this.create();
+		Assert.assertNull(other.find("example.test"));
+		Assert.assertEquals(chain[0], other.get("example.test").getCertificateChain()[0]);
+
+	}
+
+	@Test
+	public void testAddress() throws IOException{
+
+		final CertificateAuthority ca = this.create();
+		final X509Certificate cert = ca.get("127.0.0.1").getCertificateChain()[0];
+		try{
+
+			final List<?> name = cert.getSubjectAlternativeNames().iterator().next();
+			Assert.assertEquals(7, name.get(0));
+			Assert.assertEquals("127.0.0.1", name.get(1));
+
+		}catch(final GeneralSecurityException e){
+
+			Assert.fail(e.getMessage());
+
+		}
+
+	}
+
+	@Test
+	public void testHandshake() throws IOException, GeneralSecurityException{
+
+		final SecureManager manager = new SecureManager(this.create());
+		final SSLEngine server = manager.createServerEngine("example.test", 443);
+
+		final KeyStore trust = KeyStore.getInstance("JKS");
+		trust.load(null, null);
+		trust.setCertificateEntry("root", root.getCertificateChain()[0]);
+		final TrustManagerFactory tmf = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+		tmf.init(trust);
+		final SSLContext ctx = SSLContext.getInstance("TLS");
+		ctx.init(null, tmf.getTrustManagers(), null);
+		final SSLEngine client = ctx.createSSLEngine("example.test", 443);
+		client.setUseClientMode(true);
+
+		final int size = 2 * client.getSession().getPacketBufferSize();
+		final ByteBuffer toServer = ByteBuffer.allocate(size);
+		final ByteBuffer toClient = ByteBuffer.allocate(size);
+		final ByteBuffer app = ByteBuffer.allocate(2 * client.getSession().getApplicationBufferSize());
+		final ByteBuffer empty = ByteBuffer.allocate(0);
+
+		client.beginHandshake();
+		server.beginHandshake();
+		for(int i = 0; i != 100 && !(done(client) && done(server)); ++i){
+
+			step(client, empty, toServer, toClient, app);
+			step(server, empty, toClient, toServer, app);
+
+		}
+		Assert.assertTrue(done(client));
+		Assert.assertTrue(done(server));
+
+		final X509Certificate peer = (X509Certificate)client.getSession().getPeerCertificates()[0];
+		Assert.assertEquals("CN=example.test", peer.getSubjectX500Principal().getName());
+
+	}
+
+	private static boolean done(final SSLEngine engine){
+
+		final HandshakeStatus s = engine.getHandshakeStatus();
+		return s == HandshakeStatus.NOT_HANDSHAKING || s == HandshakeStatus.FINISHED;
+
+	}
+
+	/**
+	 * Run one step of the handshake of an engine; out is the buffer to the peer and in is the buffer from the peer.
+	 */
+	private static void step(final SSLEngine engine, final ByteBuffer empty, final ByteBuffer out, final ByteBuffer in, final ByteBuffer app) throws IOException{
+
+		SSLEngineResult.HandshakeStatus s = engine.getHandshakeStatus();
+		while(true){
+
+			if(s == HandshakeStatus.NEED_TASK){
+
+				for(Runnable task; (task = engine.getDelegatedTask()) != null;){
+
+					task.run();
+
+				}
+
+			}else if(s == HandshakeStatus.NEED_WRAP){
+
+				engine.wrap(empty, out);
+
+			}else if(s == HandshakeStatus.NEED_UNWRAP){
+
+				in.flip();
+				final SSLEngineResult r = engine.unwrap(in, app);
+				in.compact();
+				app.clear();
+				if(r.getStatus() == SSLEngineResult.Status.BUFFER_UNDERFLOW){
+
+					return;
+
+				}
+
+			}else{
+
+				return;
+
+			}
+			s = engine.getHandshakeStatus();
+
+		}
+
+	}
+
+}
@@ -0,0 +1,48 @@
+package nor.network;
+
+import java.nio.ByteBuffer;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+public class BufferPoolTest {
+
+	@Test
+	public void testReuse(){
+
+		final BufferPool pool = new BufferPool(2);
+
+		final ByteBuffer a = pool.acquire(1024);
+		Assert.assertEquals(1024, a.capacity());
+
+		a.put((byte)1);
+		pool.release(a);
+		Assert.assertEquals(1, pool.size());
+
+		final ByteBuffer b = pool.acquire(512);
+		Assert.assertSame(a, b);
+		Assert.assertEquals(0, b.position());
+		Assert.assertEquals(b.capacity(), b.limit());
+		Assert.assertEquals(0, pool.size());
+
+	}
+
+	@Test
+	public void testBound(){
+
+		final BufferPool pool = new BufferPool(2);
+		for(int i = 0; i != 3; ++i){
+
+			pool.release(ByteBuffer.allocate(16));
+
+		}
+		Assert.assertEquals(2, pool.size());
+
+		// Smaller buffers are discarded.
+		Assert.assertEquals(64, pool.acquire(64).capacity());
+		Assert.assertEquals(0, pool.size());
+
+	}
+
+}
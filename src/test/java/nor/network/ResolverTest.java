@@ -0,0 +1,221 @@
+package nor.network;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+public class ResolverTest {
+
+	/**
+	 * Executor running tasks in the calling thread.
+	 */
+	private static final Executor Direct = new Executor(){
+
+		@Override
+		public void execute(final Runnable command){
+
+			command.run();
+
+		}
+
+	};
+
+	/**
+	 * Local stub resolver which knows only "example.test".
+	 */
+	private static class Stub implements Resolver.Backend{
+
+		private final AtomicInteger lookups = new AtomicInteger();
+		private final CountDownLatch gate;
+
+		public Stub(final CountDownLatch gate){
+
+			this.gate = gate;
+
+		}
+
+		@Override
+		public InetAddress[] lookup(final String host) throws UnknownHostException{
+
+			this.lookups.incrementAndGet();
+			if(this.gate != null){
+
+				try{
+
+					this.gate.await();
+
+				}catch(final InterruptedException e){
+
+					Thread.currentThread().interrupt();
+
+				}
+
+			}
+
+			if("example.test".equals(host)){
+
+				return new InetAddress[]{InetAddress.getByAddress(host, new byte[]{10, 0, 0, (byte)this.lookups.get()})};
+
+			}
+			throw new UnknownHostException(host);
+
+		}
+
+		@Override
+		public String reverse(final InetAddress addr){
+
+			this.lookups.incrementAndGet();
+			return "host.example.test";
+
+		}
+
+	}
+
+	@Test
+	public void testCache() throws UnknownHostException{
+
+		final Stub stub = new Stub(null);
+		final Resolver r = new Resolver(stub, Direct, 60000, 5000, 0, 16);
+
+		final InetAddress a = r.lookup("example.test");
+		Assert.assertEquals("10.0.0.1", a.getHostAddress());
+		Assert.assertEquals(a, r.lookup("Example.Test"));
+		Assert.assertEquals(1, stub.lookups.get());
+
+		final InetSocketAddress s = r.resolve(InetSocketAddress.createUnresolved("example.test", 8080));
+		Assert.assertFalse(s.isUnresolved());
+		Assert.assertEquals(a, s.getAddress());
+		Assert.assertEquals(8080, s.getPort());
+		Assert.assertEquals(1, stub.lookups.get());
+
+		r.clear();
+		r.lookup("example.test");
+		Assert.assertEquals(2, stub.lookups.get());
+
+	}
+
+	@Test
+	public void testNegativeCache() throws InterruptedException{
+
+		final Stub stub = new Stub(null);
+		final Resolver r = new Resolver(stub, Direct, 60000, 50, 0, 16);
+
+		for(int i = 0; i != 3; ++i){
+
+			try{
+
+				r.lookup("unknown.test");
+				Assert.fail();
+
+			}catch(final UnknownHostException e){
+
+				Assert.assertEquals("unknown.test", e.getMessage());
+
+			}
+
+		}
+		Assert.assertEquals(1, stub.lookups.get());
+
+		Thread.sleep(100);
+		try{
+
+			r.lookup("unknown.test");
+			Assert.fail();
+
+		}catch(final UnknownHostException e){
+
+			Assert.assertEquals(2, stub.lookups.get());
+
+		}
+
+	}
+
+	@Test
+	public void testDeduplication() throws InterruptedException{
+
+		final CountDownLatch gate = new CountDownLatch(1);
+		final Stub stub = new Stub(gate);
+		final Resolver r = new Resolver(stub, Direct, 60000, 5000, 0, 16);
+
+		final AtomicInteger resolved = new AtomicInteger();
+		final List<Thread> threads = new ArrayList<Thread>();
+		for(int i = 0; i != 8; ++i){
+
+			final Thread th = new Thread(new Runnable(){
+
+				@Override
+				public void run(){
+
+					try{
+
+						r.lookup("example.test");
+						resolved.incrementAndGet();
+
+					}catch(final UnknownHostException e){
+
+						e.printStackTrace();
+
+					}
+
+				}
+
+			});
+			th.start();
+			threads.add(th);
+
+		}
+
+		Thread.sleep(100);
+		gate.countDown();
+		for(final Thread th : threads){
+
+			th.join();
+
+		}
+
+		Assert.assertEquals(8, resolved.get());
+		Assert.assertEquals(1, stub.lookups.get());
+
+	}
+
+	@Test
+	public void testRefreshAhead() throws UnknownHostException, InterruptedException{
+
+		final Stub stub = new Stub(null);
+		final Resolver r = new Resolver(stub, Direct, 200, 50, 150, 16);
+
+		Assert.assertEquals("10.0.0.1", r.lookup("example.test").getHostAddress());
+		Assert.assertEquals(1, stub.lookups.get());
+
+		// Within the refresh window: the current result is returned and the entry is refreshed.
+		Thread.sleep(100);
+		Assert.assertEquals("10.0.0.1", r.lookup("example.test").getHostAddress());
+		Assert.assertEquals(2, stub.lookups.get());
+		Assert.assertEquals("10.0.0.2", r.lookup("example.test").getHostAddress());
+		Assert.assertEquals(2, stub.lookups.get());
+
+	}
+
+	@Test
+	public void testReverse() throws UnknownHostException{
+
+		final Stub stub = new Stub(null);
+		final Resolver r = new Resolver(stub, Direct, 60000, 5000, 0, 16);
+
+		final InetAddress addr = InetAddress.getByAddress(new byte[]{10, 0, 0, 1});
+		Assert.assertEquals("host.example.test", r.reverse(addr));
+		Assert.assertEquals("host.example.test", r.reverse(addr));
+		Assert.assertEquals(1, stub.lookups.get());
+
+	}
+
+}
@@ -0,0 +1,71 @@
+package nor.network;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+public class TimerWheelTest {
+
+	@Test
+	public void testExpire(){
+
+		final TimerWheel timer = new TimerWheel(10, 8);
+		final AtomicInteger count = new AtomicInteger();
+		final Runnable task = new Runnable(){
+
+			@Override
+			public void run(){
+
+				count.incrementAndGet();
+
+			}
+
+		};
+
+		final TimerWheel.Timeout t1 = timer.schedule(task, 0);
+		final TimerWheel.Timeout t2 = timer.schedule(task, 1000);
+		Assert.assertEquals(2, timer.size());
+
+		Assert.assertEquals(1, timer.expire(System.currentTimeMillis() + 20));
+		Assert.assertTrue(t1.isExpired());
+		Assert.assertFalse(t2.isExpired());
+
+		// Over several rounds of the wheel.
+		Assert.assertEquals(0, timer.expire(System.currentTimeMillis() + 500));
+		Assert.assertEquals(1, timer.expire(System.currentTimeMillis() + 1100));
+		Assert.assertTrue(t2.isExpired());
+
+		Assert.assertEquals(2, count.get());
+		Assert.assertEquals(0, timer.size());
+
+	}
+
+	@Test
+	public void testCancel(){
+
+		final TimerWheel timer = new TimerWheel(10, 8);
+		final AtomicInteger count = new AtomicInteger();
+		final TimerWheel.Timeout t = timer.schedule(new Runnable(){
+
+			@Override
+			public void run(){
+
+				count.incrementAndGet();
+
+			}
+
+		}, 50);
+
+		Assert.assertTrue(t.cancel());
+		Assert.assertFalse(t.cancel());
+		Assert.assertEquals(0, timer.size());
+
+		Assert.assertEquals(0, timer.expire(System.currentTimeMillis() + 1000));
+		Assert.assertEquals(0, count.get());
+		Assert.assertTrue(t.isCancelled());
+
+	}
+
+}
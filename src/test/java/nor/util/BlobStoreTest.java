@@ -0,0 +1,240 @@
+package nor.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.Assert;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class BlobStoreTest {
+
+	private static final int SegmentSize = 1024 * 1024;
+
+	private File dir;
+
+	@Before
+	public void setUp() throws IOException{
+
+		this.dir = File.createTempFile("blobstore", "");
+		this.dir.delete();
+
+	}
+
+	@After
+	public void tearDown(){
+
+		final File[] files = this.dir.listFiles();
+		if(files != null){
+
+			for(final File f : files){
+
+				f.delete();
+
+			}
+
+		}
+		this.dir.delete();
+
+	}
+
+	@Test
+	public void testPutAndGet() throws IOException{
+
+		final BlobStore store = this.open();
+		store.put("a", ByteBuffer.wrap(bytes(100, 1)));
+		store.put("b", ByteBuffer.wrap(bytes(200, 2)));
+
+		Assert.assertEquals(2, store.size());
+		Assert.assertEquals(100, store.getLength("a"));
+		Assert.assertTrue(Arrays.equals(bytes(200, 2), read(store.openStream("b"))));
+		Assert.assertNull(store.get("c"));
+		Assert.assertEquals(-1, store.getLength("c"));
+
+		store.put("a", ByteBuffer.wrap(bytes(50, 3)));
+		Assert.assertEquals(2, store.size());
+		Assert.assertTrue(Arrays.equals(bytes(50, 3), read(store.openStream("a"))));
+
+		Assert.assertTrue(store.remove("a"));
+		Assert.assertFalse(store.contains("a"));
+		Assert.assertFalse(store.remove("a"));
+
+		store.close();
+
+	}
+
+	@Test
+	public void testUncommittedWriter() throws IOException{
+
+		final BlobStore store = this.open();
+		final BlobStore.Writer w = store.newWriter("a");
+		w.write(ByteBuffer.wrap(bytes(100, 1)));
+		Assert.assertFalse(store.contains("a"));
+
+		w.close();
+		Assert.assertFalse(store.contains("a"));
+		Assert.assertFalse(w.commit());
+
+		store.close();
+
+	}
+
+	@Test
+	public void testConcurrentWriters() throws IOException{
+
+		final BlobStore store = this.open();
+		final BlobStore.Writer a = store.newWriter("a");
+		final BlobStore.Writer b = store.newWriter("b");
+		for(int i = 0; i != 10; ++i){
+
+			a.write(ByteBuffer.wrap(bytes(1000, i)));
+			b.write(ByteBuffer.wrap(bytes(1000, -i)));
+
+		}
+		Assert.assertTrue(b.commit());
+		Assert.assertTrue(a.commit());
+
+		final byte[] data = read(store.openStream("a"));
+		Assert.assertEquals(10000, data.length);
+		Assert.assertTrue(Arrays.equals(bytes(1000, 9), Arrays.copyOfRange(data, 9000, 10000)));
+
+		store.close();
+
+	}
+
+	@Test
+	public void testLargeObject() throws IOException{
+
+		final BlobStore store = this.open();
+		store.put("small", ByteBuffer.wrap(bytes(SegmentSize / 2, 1)));
+
+		// Larger than a segment, written in pieces.
+		final BlobStore.Writer w = store.newWriter("large");
+		for(int i = 0; i != 5; ++i){
+
+			w.write(ByteBuffer.wrap(bytes(SegmentSize / 2, i)));
+
+		}
+		Assert.assertTrue(w.commit());
+
+		Assert.assertEquals(5L * SegmentSize / 2, store.getLength("large"));
+		final ByteBuffer data = store.get("large");
+		final byte[] last = new byte[SegmentSize / 2];
+		data.position(4 * SegmentSize / 2);
+		data.get(last);
+		Assert.assertTrue(Arrays.equals(bytes(SegmentSize / 2, 4), last));
+
+		store.close();
+
+	}
+
+	@Test
+	public void testTransferTo() throws IOException{
+
+		final BlobStore store = this.open();
+		store.put("a", ByteBuffer.wrap(bytes(1000, 1)));
+
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		Assert.assertEquals(100, store.transferTo("a", 10, 100, Channels.newChannel(out)));
+		Assert.assertTrue(Arrays.equals(Arrays.copyOfRange(bytes(1000, 1), 10, 110), out.toByteArray()));
+		Assert.assertEquals(-1, store.transferTo("b", Channels.newChannel(out)));
+
+		store.close();
+
+	}
+
+	@Test
+	public void testReopen() throws IOException{
+
+		BlobStore store = this.open();
+		store.put("a", ByteBuffer.wrap(bytes(100, 1)));
+		store.put("b", ByteBuffer.wrap(bytes(100, 2)));
+		store.checkpoint();
+
+		// Written after the checkpoint, and left without closing as if the process crashed.
+		store.put("c", ByteBuffer.wrap(bytes(100, 3)));
+		store.put("a", ByteBuffer.wrap(bytes(100, 4)));
+		store.remove("b");
+		final BlobStore.Writer w = store.newWriter("d");
+		w.write(ByteBuffer.wrap(bytes(100, 5)));
+
+		store = this.open();
+		Assert.assertEquals(2, store.size());
+		Assert.assertTrue(Arrays.equals(bytes(100, 4), read(store.openStream("a"))));
+		Assert.assertFalse(store.contains("b"));
+		Assert.assertTrue(Arrays.equals(bytes(100, 3), read(store.openStream("c"))));
+		Assert.assertFalse(store.contains("d"));
+		store.close();
+
+		store = this.open();
+		Assert.assertEquals(2, store.size());
+		store.close();
+
+	}
+
+	@Test
+	public void testCompact() throws IOException{
+
+		final BlobStore store = this.open();
+		for(int i = 0; i != 40; ++i){
+
+			store.put("key" + (i % 4), ByteBuffer.wrap(bytes(SegmentSize / 10, i)));
+
+		}
+		final int segments = store.getSegmentCount();
+		Assert.assertTrue(segments > 2);
+		Assert.assertTrue(store.getGarbageBytes() > 0);
+
+		Assert.assertTrue(store.compact() > 0);
+		Assert.assertTrue(store.getSegmentCount() < segments);
+		for(int i = 36; i != 40; ++i){
+
+			Assert.assertTrue(Arrays.equals(bytes(SegmentSize / 10, i), read(store.openStream("key" + (i % 4)))));
+
+		}
+		store.close();
+
+		final BlobStore reopened = this.open();
+		Assert.assertEquals(4, reopened.size());
+		Assert.assertTrue(Arrays.equals(bytes(SegmentSize / 10, 39), read(reopened.openStream("key3"))));
+		reopened.close();
+
+	}
+
+	private BlobStore open() throws IOException{
+
+		return new BlobStore(this.dir, SegmentSize, 0, TimeUnit.SECONDS);
+
+	}
+
+	private static byte[] bytes(final int length, final int seed){
+
+		final byte[] ret = new byte[length];
+		new Random(seed).nextBytes(ret);
+		return ret;
+
+	}
+
+	private static byte[] read(final InputStream in) throws IOException{
+
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		final byte[] buf = new byte[4096];
+		for(int n = in.read(buf); n != -1; n = in.read(buf)){
+
+			out.write(buf, 0, n);
+
+		}
+		return out.toByteArray();
+
+	}
+
+}
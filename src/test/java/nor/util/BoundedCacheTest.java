@@ -0,0 +1,224 @@
+package nor.util;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+public class BoundedCacheTest {
+
+	@Test
+	public void testMap(){
+
+		final Map<String, String> c = new BoundedCache<String, String>(10);
+		Assert.assertNull(c.put("a", "1"));
+		Assert.assertEquals("1", c.put("a", "2"));
+		Assert.assertEquals(1, c.size());
+		Assert.assertEquals("2", c.get("a"));
+		Assert.assertTrue(c.containsKey("a"));
+		Assert.assertTrue(c.containsValue("2"));
+		Assert.assertNull(c.get(null));
+
+		final Map<String, String> expected = new HashMap<String, String>();
+		expected.put("a", "2");
+		Assert.assertEquals(expected, c);
+
+		Assert.assertEquals("2", c.remove("a"));
+		Assert.assertTrue(c.isEmpty());
+
+	}
+
+	@Test
+	public void testNullValue(){
+
+		final BoundedCache<String, String> c = new BoundedCache<String, String>(10);
+		c.put("a", "1");
+		try{
+
+			c.put("b", null);
+			Assert.fail();
+
+		}catch(final NullPointerException e){}
+		try{
+
+			c.putIfAbsent("b", null);
+			Assert.fail();
+
+		}catch(final NullPointerException e){}
+
+		Assert.assertFalse(c.containsKey("b"));
+		Assert.assertFalse(c.containsValue(null));
+		Assert.assertEquals(1, c.size());
+
+	}
+
+	@Test
+	public void testLRU(){
+
+		final BoundedCache<Integer, Integer> c = new BoundedCache<Integer, Integer>(3);
+		c.put(1, 1);
+		c.put(2, 2);
+		c.put(3, 3);
+		c.get(1);
+		c.put(4, 4);
+
+		Assert.assertEquals(3, c.size());
+		Assert.assertTrue(c.containsKey(1));
+		Assert.assertFalse(c.containsKey(2));
+		Assert.assertEquals(1, c.getEvictionCount());
+
+	}
+
+	@Test
+	public void testScanResistance(){
+
+		final BoundedCache<Integer, Integer> lru = new BoundedCache<Integer, Integer>(100, BoundedCache.Policy.LRU);
+		final BoundedCache<Integer, Integer> lfu = new BoundedCache<Integer, Integer>(100, BoundedCache.Policy.TinyLFU);
+		for(final BoundedCache<Integer, Integer> c : new BoundedCache[]{lru, lfu}){
+
+			// Ten hot keys used many times, then a scan of one-time keys.
+			for(int i = 0; i != 20; ++i){
+
+				for(int k = 0; k != 10; ++k){
+
+					if(c.get(k) == null){
+
+						c.put(k, k);
+
+					}
+
+				}
+
+			}
+			for(int k = 1000; k != 2000; ++k){
+
+				c.put(k, k);
+
+			}
+			Assert.assertTrue(c.size() <= 100);
+
+		}
+
+		int lruHot = 0;
+		int lfuHot = 0;
+		for(int k = 0; k != 10; ++k){
+
+			lruHot += lru.containsKey(k) ? 1 : 0;
+			lfuHot += lfu.containsKey(k) ? 1 : 0;
+
+		}
+		Assert.assertEquals(0, lruHot);
+		Assert.assertEquals(10, lfuHot);
+
+	}
+
+	@Test
+	public void testWeight(){
+
+		final BoundedCache<String, String> c = new BoundedCache<String, String>(10, BoundedCache.Policy.LRU, new BoundedCache.Weigher<String, String>(){
+
+			@Override
+			public int weigh(final String key, final String value){
+
+				return value.length();
+
+			}
+
+		}, 0, TimeUnit.SECONDS);
+
+		c.put("a", "1234");
+		c.put("b", "1234");
+		Assert.assertEquals(8, c.getWeight());
+
+		c.put("c", "1234");
+		Assert.assertFalse(c.containsKey("a"));
+		Assert.assertEquals(8, c.getWeight());
+
+		// Too heavy to be kept at all.
+		c.put("d", "12345678901");
+		Assert.assertFalse(c.containsKey("d"));
+		Assert.assertTrue(c.getWeight() <= 10);
+
+	}
+
+	@Test
+	public void testExpiration() throws InterruptedException{
+
+		final BoundedCache<String, String> c = new BoundedCache<String, String>(10, BoundedCache.Policy.LRU, null, 50, TimeUnit.MILLISECONDS);
+		c.put("a", "1");
+		Assert.assertEquals("1", c.get("a"));
+
+		Thread.sleep(100);
+		Assert.assertNull(c.get("a"));
+		Assert.assertFalse(c.containsKey("a"));
+		Assert.assertNull(c.putIfAbsent("a", "2"));
+		Assert.assertEquals("2", c.get("a"));
+
+	}
+
+	@Test
+	public void testStats(){
+
+		final BoundedCache<String, String> c = new BoundedCache<String, String>(10);
+		c.put("a", "1");
+		c.get("a");
+		c.get("a");
+		c.get("b");
+
+		Assert.assertEquals(2, c.getHitCount());
+		Assert.assertEquals(1, c.getMissCount());
+		Assert.assertEquals(2.0 / 3, c.getHitRate(), 1e-9);
+
+	}
+
+	@Test
+	public void testConcurrentAccess() throws InterruptedException{
+
+		final BoundedCache<Integer, Integer> c = new BoundedCache<Integer, Integer>(500, BoundedCache.Policy.TinyLFU);
+		final int threads = 8;
+		final CountDownLatch done = new CountDownLatch(threads);
+		final AtomicInteger wrong = new AtomicInteger();
+		for(int t = 0; t != threads; ++t){
+
+			final int seed = t;
+			new Thread(){
+
+				@Override
+				public void run(){
+
+					for(int i = 0; i != 100000; ++i){
+
+						final int k = (i * 31 + seed) % 2000;
+						final Integer v = c.get(k);
+						if(v == null){
+
+							c.putIfAbsent(k, k);
+
+						}else if(v != k){
+
+							wrong.incrementAndGet();
+
+						}
+
+					}
+					done.countDown();
+
+				}
+
+			}.start();
+
+		}
+		done.await();
+
+		Assert.assertEquals(0, wrong.get());
+		Assert.assertTrue(c.size() <= 500);
+		Assert.assertEquals(c.size(), c.getWeight());
+
+	}
+
+}
@@ -0,0 +1,137 @@
+package nor.util.log;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+public class AsyncHandlerTest {
+
+	/**
+	 * Handler keeping published messages.
+	 */
+	private static class Collector extends Handler{
+
+		private final List<String> messages = Collections.synchronizedList(new ArrayList<String>());
+		private final CountDownLatch gate;
+		private boolean closed;
+
+		public Collector(final CountDownLatch gate){
+
+			this.gate = gate;
+
+		}
+
+		@Override
+		public void publish(final LogRecord record){
+
+			if(this.gate != null){
+
+				try{
+
+					this.gate.await();
+
+				}catch(final InterruptedException e){
+
+					Thread.currentThread().interrupt();
+
+				}
+
+			}
+			this.messages.add(record.getMessage());
+
+		}
+
+		@Override
+		public void flush(){
+		}
+
+		@Override
+		public void close(){
+
+			this.closed = true;
+
+		}
+
+	}
+
+	@Test
+	public void testOrder() throws InterruptedException{
+
+		final Collector c = new Collector(null);
+		final AsyncHandler h = new AsyncHandler(new Handler[]{c}, 16);
+
+		final List<Thread> threads = new ArrayList<Thread>();
+		for(int i = 0; i != 4; ++i){
+
+			final int id = i;
+			final Thread th = new Thread(new Runnable(){
+
+				@Override
+				public void run(){
+
+					for(int j = 0; j != 1000; ++j){
+
+						h.publish(new LogRecord(Level.WARNING, id + ":" + j));
+
+					}
+
+				}
+
+			});
+			th.start();
+			threads.add(th);
+
+		}
+		for(final Thread th : threads){
+
+			th.join();
+
+		}
+
+		h.close();
+		Assert.assertTrue(c.closed);
+		Assert.assertEquals(4000, c.messages.size());
+
+		// Records of each thread keep their order.
+		final int[] next = new int[4];
+		for(final String m : c.messages){
+
+			final String[] s = m.split(":");
+			final int id = Integer.parseInt(s[0]);
+			Assert.assertEquals(next[id]++, Integer.parseInt(s[1]));
+
+		}
+
+	}
+
+	@Test
+	public void testDrop(){
+
+		final CountDownLatch gate = new CountDownLatch(1);
+		final Collector c = new Collector(gate);
+		final AsyncHandler h = new AsyncHandler(new Handler[]{c}, 4);
+
+		// The writer is blocked by the first record, and the others fill the buffer.
+		for(int i = 0; i != 10; ++i){
+
+			h.publish(new LogRecord(Level.FINE, "fine " + i));
+
+		}
+		Assert.assertTrue(h.getDropped() >= 5);
+
+		gate.countDown();
+		h.close();
+		Assert.assertTrue(c.messages.size() <= 6);
+		Assert.assertTrue(c.messages.get(c.messages.size() - 1).contains("dropped"));
+
+	}
+
+}
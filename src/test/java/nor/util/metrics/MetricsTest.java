@@ -0,0 +1,123 @@
+package nor.util.metrics;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+public class MetricsTest {
+
+	@Test
+	public void testBuckets(){
+
+		// Small values have their own buckets.
+		for(long v = 0; v != 16; ++v){
+
+			Assert.assertEquals(v, Histogram.upperBound(Histogram.index(v)));
+
+		}
+
+		// Larger values are bounded within 1/16 of themselves.
+		for(long v = 16; v < Long.MAX_VALUE / 3; v = v * 3 + 1){
+
+			final long upper = Histogram.upperBound(Histogram.index(v));
+			Assert.assertTrue(v + " <= " + upper, v <= upper);
+			Assert.assertTrue(v + " ~ " + upper, upper - v <= v / 16);
+
+		}
+		Assert.assertTrue(Histogram.upperBound(Histogram.index(Long.MAX_VALUE)) >= Long.MAX_VALUE / 16 * 15);
+
+	}
+
+	@Test
+	public void testQuantiles(){
+
+		final Histogram h = new Histogram();
+		Assert.assertEquals(0, h.getValueAtQuantile(0.5));
+
+		for(long v = 1; v <= 1000; ++v){
+
+			h.record(v * 1000);
+
+		}
+		Assert.assertEquals(1000, h.getCount());
+		Assert.assertEquals(500500000, h.getSum());
+
+		final long median = h.getValueAtQuantile(0.5);
+		Assert.assertTrue(Long.toString(median), median >= 500000 && median <= 500000 + 500000 / 16);
+
+		final long max = h.getValueAtQuantile(1);
+		Assert.assertTrue(Long.toString(max), max >= 1000000 && max <= 1000000 + 1000000 / 16);
+
+	}
+
+	@Test
+	public void testCounter() throws InterruptedException{
+
+		final Counter c = new Counter();
+		final Thread[] threads = new Thread[4];
+		for(int i = 0; i != threads.length; ++i){
+
+			threads[i] = new Thread(new Runnable(){
+
+				@Override
+				public void run(){
+
+					for(int j = 0; j != 10000; ++j){
+
+						c.increment();
+
+					}
+
+				}
+
+			});
+			threads[i].start();
+
+		}
+		for(final Thread th : threads){
+
+			th.join();
+
+		}
+		Assert.assertEquals(40000, c.get());
+
+	}
+
+	@Test
+	public void testExport(){
+
+		Metrics.counter("test_requests_total", "Requests.", "code", "200").add(3);
+		Metrics.counter("test_requests_total", "Requests.", "code", "200").increment();
+		Metrics.gauge("test_depth", "Depth.", new Gauge(){
+
+			@Override
+			public long get(){
+
+				return 7;
+
+			}
+
+		}, "name", "a\"b");
+		Metrics.histogram("test_seconds", "Latency.").record(2000000000L);
+
+		final String text = Metrics.export(new StringBuilder()).toString();
+		Assert.assertTrue(text, text.contains("# TYPE test_requests_total counter\ntest_requests_total{code=\"200\"} 4\n"));
+		Assert.assertTrue(text, text.contains("# HELP test_depth Depth.\n# TYPE test_depth gauge\ntest_depth{name=\"a\\\"b\"} 7\n"));
+		Assert.assertTrue(text, text.contains("# TYPE test_seconds summary\n"));
+		Assert.assertTrue(text, text.contains("test_seconds{quantile=\"0.5\"} 2."));
+		Assert.assertTrue(text, text.contains("test_seconds_sum 2.0\ntest_seconds_count 1\n"));
+
+		Metrics.remove("test_depth", "name", "a\"b");
+		Assert.assertFalse(Metrics.export(new StringBuilder()).toString().contains("test_depth"));
+
+		try{
+
+			Metrics.histogram("test_requests_total", "Requests.");
+			Assert.fail();
+
+		}catch(final IllegalArgumentException e){
+		}
+
+	}
+
+}